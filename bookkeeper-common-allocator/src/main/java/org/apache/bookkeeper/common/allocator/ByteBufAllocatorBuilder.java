@@ -92,4 +92,11 @@ public interface ByteBufAllocatorBuilder {
      * <p>Default is {@link LeakDetectionPolicy#Disabled}
      */
     ByteBufAllocatorBuilder leakDetectionPolicy(LeakDetectionPolicy leakDetectionPolicy);
+
+    /**
+     * Define the direct memory budget shared by the users of the allocator.
+     *
+     * <p>Default is {@link MemoryBudget#UNLIMITED}
+     */
+    ByteBufAllocatorBuilder memoryBudget(MemoryBudget memoryBudget);
 }
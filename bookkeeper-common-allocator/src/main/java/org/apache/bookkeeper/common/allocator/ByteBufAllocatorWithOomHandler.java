@@ -25,4 +25,11 @@ import java.util.function.Consumer;
  */
 public interface ByteBufAllocatorWithOomHandler extends ByteBufAllocator {
     void setOomHandler(Consumer<OutOfMemoryError> handler);
+
+    /**
+     * Return the direct memory budget the users of this allocator account their memory in.
+     */
+    default MemoryBudget getMemoryBudget() {
+        return MemoryBudget.UNLIMITED;
+    }
 }
@@ -0,0 +1,356 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.bookkeeper.common.allocator;
+
+import io.netty.buffer.ByteBufAllocator;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A direct memory budget shared by the subsystems of a process.
+ *
+ * <p>Every subsystem accounts the direct memory it holds in a named {@link Pool}. When the memory accounted
+ * in all the pools goes above the high watermark of the budget, the budget first asks the {@link Reclaimer}s
+ * of the pools to release memory, starting with the pools exceeding their quota the most. If that isn't
+ * enough to go back below the high watermark, the budget is under pressure: {@link PressureListener}s are
+ * notified, so that they can stop taking new work (e.g. stop reading from the network), until the memory
+ * accounted goes back below the low watermark.
+ *
+ * <p>Memory allocated once for the lifetime of a subsystem (e.g. the write cache) is accounted with
+ * {@link Pool#reserveFixed(long)}: it can neither be reclaimed nor relieved by refusing work, so the watermarks
+ * apply to the rest of the budget only. The fixed reservations must fit in the limit.
+ *
+ * <p>Reserving and releasing memory are single atomic updates; reclaimers and listeners only run on
+ * transitions.
+ */
+public class MemoryBudget {
+
+    private static final Logger log = LoggerFactory.getLogger(MemoryBudget.class);
+
+    /**
+     * A budget without limit, which only keeps track of the memory accounted in its pools.
+     */
+    public static final MemoryBudget UNLIMITED = new MemoryBudget(Long.MAX_VALUE, 1.0, 1.0);
+
+    /**
+     * Releases memory held by a subsystem, e.g. by shrinking a cache.
+     */
+    @FunctionalInterface
+    public interface Reclaimer {
+        /**
+         * Try to release <i>bytes</i> of memory. The released memory must be given back to the pool with
+         * {@link Pool#release(long)} before returning.
+         *
+         * @return number of bytes actually released
+         */
+        long reclaim(long bytes);
+    }
+
+    /**
+     * Notified when the budget goes under pressure and when the pressure is relieved.
+     */
+    public interface PressureListener {
+        void onMemoryPressure();
+
+        void onMemoryPressureRelieved();
+    }
+
+    private final long limitBytes;
+    private final double highWatermark;
+    private final double lowWatermark;
+    private final AtomicLong usedBytes = new AtomicLong();
+    private final AtomicLong fixedBytes = new AtomicLong();
+    private final ConcurrentMap<String, Pool> pools = new ConcurrentHashMap<>();
+    private final List<PressureListener> listeners = new CopyOnWriteArrayList<>();
+    private volatile boolean underPressure = false;
+
+    /**
+     * @param limitBytes maximum amount of direct memory the pools should account
+     * @param highWatermark fraction of the limit above which memory gets reclaimed
+     * @param lowWatermark fraction of the limit below which the pressure is relieved
+     */
+    public MemoryBudget(long limitBytes, double highWatermark, double lowWatermark) {
+        if (limitBytes <= 0 || highWatermark <= 0 || highWatermark > 1.0
+                || lowWatermark <= 0 || lowWatermark > highWatermark) {
+            throw new IllegalArgumentException("Invalid memory budget: limit=" + limitBytes
+                    + ", highWatermark=" + highWatermark + ", lowWatermark=" + lowWatermark);
+        }
+        this.limitBytes = limitBytes;
+        this.highWatermark = highWatermark;
+        this.lowWatermark = lowWatermark;
+    }
+
+    /**
+     * Return the memory budget of <i>allocator</i>, or {@link #UNLIMITED} if it has none.
+     */
+    public static MemoryBudget of(ByteBufAllocator allocator) {
+        if (allocator instanceof ByteBufAllocatorWithOomHandler) {
+            return ((ByteBufAllocatorWithOomHandler) allocator).getMemoryBudget();
+        }
+        return UNLIMITED;
+    }
+
+    public boolean isLimited() {
+        return limitBytes != Long.MAX_VALUE;
+    }
+
+    public boolean isUnderPressure() {
+        return underPressure;
+    }
+
+    public long getLimitBytes() {
+        return limitBytes;
+    }
+
+    public long getUsedBytes() {
+        return usedBytes.get();
+    }
+
+    /**
+     * Return the memory accounted with {@link Pool#reserveFixed(long)}, included in {@link #getUsedBytes()}.
+     */
+    public long getFixedBytes() {
+        return fixedBytes.get();
+    }
+
+    private long highWatermarkBytes() {
+        return watermarkBytes(highWatermark);
+    }
+
+    private long lowWatermarkBytes() {
+        return watermarkBytes(lowWatermark);
+    }
+
+    private long watermarkBytes(double watermark) {
+        if (!isLimited()) {
+            return Long.MAX_VALUE;
+        }
+        long fixed = fixedBytes.get();
+        return fixed + (long) ((limitBytes - fixed) * watermark);
+    }
+
+    /**
+     * Return the pool named <i>name</i>, creating it if needed. Subsystems with several instances (e.g. one
+     * cache per ledger directory) share the same pool.
+     */
+    public Pool getPool(String name) {
+        Pool pool = pools.get(name);
+        if (pool == null) {
+            pool = pools.computeIfAbsent(name, Pool::new);
+        }
+        return pool;
+    }
+
+    public List<Pool> getPools() {
+        return Collections.unmodifiableList(new ArrayList<>(pools.values()));
+    }
+
+    public void addPressureListener(PressureListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removePressureListener(PressureListener listener) {
+        listeners.remove(listener);
+    }
+
+    private void afterReserve(long used) {
+        if (used >= highWatermarkBytes() && !underPressure) {
+            reclaimOrEnterPressure();
+        }
+    }
+
+    private void afterRelease(long used) {
+        if (used <= lowWatermarkBytes() && underPressure) {
+            relievePressure();
+        }
+    }
+
+    private synchronized void reclaimOrEnterPressure() {
+        if (underPressure || usedBytes.get() < highWatermarkBytes()) {
+            return;
+        }
+        long toReclaim = usedBytes.get() - lowWatermarkBytes();
+        // pools exceeding their quota the most give memory back first
+        List<Pool> candidates = new ArrayList<>(pools.values());
+        candidates.sort((p1, p2) -> Long.compare(p2.getUsedBytes() - p2.getQuotaBytes(),
+                p1.getUsedBytes() - p1.getQuotaBytes()));
+        for (Pool pool : candidates) {
+            if (toReclaim <= 0) {
+                break;
+            }
+            toReclaim -= pool.reclaim(toReclaim);
+        }
+        if (usedBytes.get() < highWatermarkBytes()) {
+            return;
+        }
+        underPressure = true;
+        log.warn("Direct memory budget under pressure: {} bytes used out of {}, pools: {}",
+                usedBytes.get(), limitBytes, pools.values());
+        for (PressureListener listener : listeners) {
+            try {
+                listener.onMemoryPressure();
+            } catch (RuntimeException e) {
+                log.error("Memory pressure listener {} failed", listener, e);
+            }
+        }
+        // memory released before underPressure was set didn't try to relieve the pressure, and no release may
+        // come to do it any more
+        if (usedBytes.get() <= lowWatermarkBytes()) {
+            relievePressure();
+        }
+    }
+
+    private synchronized void relievePressure() {
+        if (!underPressure || usedBytes.get() > lowWatermarkBytes()) {
+            return;
+        }
+        underPressure = false;
+        log.info("Direct memory budget pressure relieved: {} bytes used out of {}", usedBytes.get(), limitBytes);
+        for (PressureListener listener : listeners) {
+            try {
+                listener.onMemoryPressureRelieved();
+            } catch (RuntimeException e) {
+                log.error("Memory pressure listener {} failed", listener, e);
+            }
+        }
+    }
+
+    /**
+     * The share of the budget accounted by a subsystem.
+     */
+    public final class Pool {
+        private final String name;
+        private final AtomicLong poolUsedBytes = new AtomicLong();
+        private final AtomicLong quotaBytes = new AtomicLong();
+        private final List<Reclaimer> reclaimers = new CopyOnWriteArrayList<>();
+
+        private Pool(String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getUsedBytes() {
+            return poolUsedBytes.get();
+        }
+
+        public long getQuotaBytes() {
+            return quotaBytes.get();
+        }
+
+        /**
+         * Add <i>bytes</i> to the quota of the pool, i.e. the memory the pool is expected to use.
+         */
+        public void addQuota(long bytes) {
+            quotaBytes.addAndGet(bytes);
+        }
+
+        /**
+         * Account <i>bytes</i> of memory already allocated, or that must be allocated regardless of the
+         * budget.
+         */
+        public void reserve(long bytes) {
+            poolUsedBytes.addAndGet(bytes);
+            afterReserve(usedBytes.addAndGet(bytes));
+        }
+
+        /**
+         * Account <i>bytes</i> of optional memory (e.g. to grow a cache back), unless that would take the
+         * budget above its high watermark, or the budget is under pressure and the pool is above its quota.
+         * Optional memory never makes the budget reclaim memory from the other pools.
+         *
+         * @return whether the memory was accounted and can be allocated
+         */
+        public boolean tryReserve(long bytes) {
+            if (underPressure && poolUsedBytes.get() + bytes > quotaBytes.get()) {
+                return false;
+            }
+            if (usedBytes.addAndGet(bytes) >= highWatermarkBytes()) {
+                usedBytes.addAndGet(-bytes);
+                return false;
+            }
+            poolUsedBytes.addAndGet(bytes);
+            return true;
+        }
+
+        public void release(long bytes) {
+            poolUsedBytes.addAndGet(-bytes);
+            afterRelease(usedBytes.addAndGet(-bytes));
+        }
+
+        /**
+         * Account <i>bytes</i> of memory allocated for the lifetime of the subsystem. Fixed memory is not
+         * subject to the watermarks, which apply to the budget left once the fixed memory is taken out.
+         *
+         * @throws IllegalStateException if the fixed memory of all the pools doesn't fit in the limit
+         */
+        public void reserveFixed(long bytes) {
+            long fixed = fixedBytes.addAndGet(bytes);
+            if (fixed >= limitBytes) {
+                fixedBytes.addAndGet(-bytes);
+                throw new IllegalStateException("Memory budget of " + limitBytes + " bytes too small for "
+                        + fixed + " bytes of fixed memory (pool " + name + "), increase memoryBudgetLimitBytes");
+            }
+            poolUsedBytes.addAndGet(bytes);
+            afterReserve(usedBytes.addAndGet(bytes));
+        }
+
+        public void releaseFixed(long bytes) {
+            poolUsedBytes.addAndGet(-bytes);
+            fixedBytes.addAndGet(-bytes);
+            afterRelease(usedBytes.addAndGet(-bytes));
+        }
+
+        public void addReclaimer(Reclaimer reclaimer) {
+            reclaimers.add(reclaimer);
+        }
+
+        public void removeReclaimer(Reclaimer reclaimer) {
+            reclaimers.remove(reclaimer);
+        }
+
+        private long reclaim(long bytes) {
+            long reclaimed = 0;
+            for (Reclaimer reclaimer : reclaimers) {
+                if (reclaimed >= bytes) {
+                    break;
+                }
+                try {
+                    reclaimed += reclaimer.reclaim(bytes - reclaimed);
+                } catch (RuntimeException e) {
+                    log.error("Failed to reclaim memory from pool {}", name, e);
+                }
+            }
+            return reclaimed;
+        }
+
+        @Override
+        public String toString() {
+            return name + "(used=" + poolUsedBytes.get() + ", quota=" + quotaBytes.get() + ")";
+        }
+    }
+}
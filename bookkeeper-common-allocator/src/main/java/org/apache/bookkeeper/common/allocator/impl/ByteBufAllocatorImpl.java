@@ -27,6 +27,7 @@ import io.netty.util.ResourceLeakDetector.Level;
 import java.util.function.Consumer;
 import org.apache.bookkeeper.common.allocator.ByteBufAllocatorWithOomHandler;
 import org.apache.bookkeeper.common.allocator.LeakDetectionPolicy;
+import org.apache.bookkeeper.common.allocator.MemoryBudget;
 import org.apache.bookkeeper.common.allocator.OutOfMemoryPolicy;
 import org.apache.bookkeeper.common.allocator.PoolingPolicy;
 import org.slf4j.Logger;
@@ -47,14 +48,17 @@ public class ByteBufAllocatorImpl extends AbstractByteBufAllocator implements By
     private final ByteBufAllocator unpooledAllocator;
     private final PoolingPolicy poolingPolicy;
     private final OutOfMemoryPolicy outOfMemoryPolicy;
+    private final MemoryBudget memoryBudget;
     private Consumer<OutOfMemoryError> outOfMemoryListener;
 
     ByteBufAllocatorImpl(ByteBufAllocator pooledAllocator, ByteBufAllocator unpooledAllocator,
             PoolingPolicy poolingPolicy, int poolingConcurrency, OutOfMemoryPolicy outOfMemoryPolicy,
             Consumer<OutOfMemoryError> outOfMemoryListener,
-            LeakDetectionPolicy leakDetectionPolicy) {
+            LeakDetectionPolicy leakDetectionPolicy, MemoryBudget memoryBudget) {
         super(poolingPolicy == PoolingPolicy.PooledDirect /* preferDirect */);
 
+        this.memoryBudget = memoryBudget;
+
         this.poolingPolicy = poolingPolicy;
         this.outOfMemoryPolicy = outOfMemoryPolicy;
         if (outOfMemoryListener == null) {
@@ -196,4 +200,9 @@ public class ByteBufAllocatorImpl extends AbstractByteBufAllocator implements By
     public void setOomHandler(Consumer<OutOfMemoryError> handler) {
         this.outOfMemoryListener = handler;
     }
+
+    @Override
+    public MemoryBudget getMemoryBudget() {
+        return memoryBudget;
+    }
 }
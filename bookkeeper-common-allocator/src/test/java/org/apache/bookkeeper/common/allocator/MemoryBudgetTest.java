@@ -0,0 +1,223 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.bookkeeper.common.allocator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.Test;
+
+/**
+ * Unit tests for {@link MemoryBudget}.
+ */
+public class MemoryBudgetTest {
+
+    private static class CountingListener implements MemoryBudget.PressureListener {
+        final AtomicInteger pressures = new AtomicInteger();
+        final AtomicInteger reliefs = new AtomicInteger();
+
+        @Override
+        public void onMemoryPressure() {
+            pressures.incrementAndGet();
+        }
+
+        @Override
+        public void onMemoryPressureRelieved() {
+            reliefs.incrementAndGet();
+        }
+    }
+
+    @Test
+    public void testEnterAndReleasePressure() {
+        MemoryBudget budget = new MemoryBudget(1000, 0.9, 0.5);
+        CountingListener listener = new CountingListener();
+        budget.addPressureListener(listener);
+        MemoryBudget.Pool pool = budget.getPool("test");
+
+        pool.reserve(800);
+        assertFalse(budget.isUnderPressure());
+
+        pool.reserve(100);
+        assertTrue(budget.isUnderPressure());
+        assertEquals(1, listener.pressures.get());
+        assertEquals(900, budget.getUsedBytes());
+        assertEquals(900, pool.getUsedBytes());
+
+        // still above the low watermark
+        pool.release(300);
+        assertTrue(budget.isUnderPressure());
+        assertEquals(0, listener.reliefs.get());
+
+        pool.release(100);
+        assertFalse(budget.isUnderPressure());
+        assertEquals(1, listener.reliefs.get());
+        assertEquals(500, budget.getUsedBytes());
+
+        pool.reserve(400);
+        assertTrue(budget.isUnderPressure());
+        assertEquals(2, listener.pressures.get());
+    }
+
+    @Test
+    public void testReclaimAvoidsPressure() {
+        MemoryBudget budget = new MemoryBudget(1000, 0.9, 0.5);
+        CountingListener listener = new CountingListener();
+        budget.addPressureListener(listener);
+        MemoryBudget.Pool cache = budget.getPool("cache");
+        MemoryBudget.Pool other = budget.getPool("other");
+        AtomicLong reclaimed = new AtomicLong();
+        cache.addReclaimer(bytes -> {
+            long released = Math.min(bytes, cache.getUsedBytes());
+            cache.release(released);
+            reclaimed.addAndGet(released);
+            return released;
+        });
+
+        cache.reserve(600);
+        other.reserve(300);
+
+        // reclaimed down to the low watermark
+        assertFalse(budget.isUnderPressure());
+        assertEquals(0, listener.pressures.get());
+        assertEquals(400, reclaimed.get());
+        assertEquals(500, budget.getUsedBytes());
+        assertEquals(200, cache.getUsedBytes());
+    }
+
+    @Test
+    public void testTryReserve() {
+        MemoryBudget budget = new MemoryBudget(1000, 0.9, 0.5);
+        MemoryBudget.Pool pool = budget.getPool("test");
+        pool.addQuota(200);
+
+        assertTrue(pool.tryReserve(800));
+        assertFalse(pool.tryReserve(100));
+        assertEquals(800, budget.getUsedBytes());
+        assertFalse(budget.isUnderPressure());
+
+        pool.reserve(100);
+        assertTrue(budget.isUnderPressure());
+        pool.release(500);
+        assertFalse(budget.isUnderPressure());
+        assertEquals(400, pool.getUsedBytes());
+    }
+
+    @Test
+    public void testFixedMemoryIsNotUnderWatermarks() {
+        MemoryBudget budget = new MemoryBudget(1000, 0.9, 0.5);
+        CountingListener listener = new CountingListener();
+        budget.addPressureListener(listener);
+        MemoryBudget.Pool writeCache = budget.getPool("writeCache");
+        MemoryBudget.Pool other = budget.getPool("other");
+
+        // above the high watermark of the whole limit, but fixed
+        writeCache.reserveFixed(950);
+        assertFalse(budget.isUnderPressure());
+        assertEquals(950, budget.getFixedBytes());
+        assertEquals(950, budget.getUsedBytes());
+
+        // watermarks apply to the 50 bytes left: high at 995, low at 975
+        other.reserve(40);
+        assertFalse(budget.isUnderPressure());
+        other.reserve(5);
+        assertTrue(budget.isUnderPressure());
+        other.release(20);
+        assertFalse(budget.isUnderPressure());
+        assertEquals(1, listener.pressures.get());
+        assertEquals(1, listener.reliefs.get());
+
+        // more fixed memory brings the budget left over the high watermark
+        writeCache.reserveFixed(30);
+        assertTrue(budget.isUnderPressure());
+        // and giving it back relieves the pressure
+        writeCache.releaseFixed(30);
+        assertFalse(budget.isUnderPressure());
+        assertEquals(950, budget.getFixedBytes());
+        assertEquals(975, budget.getUsedBytes());
+    }
+
+    @Test
+    public void testFixedMemoryMustFitInTheLimit() {
+        MemoryBudget budget = new MemoryBudget(1000, 0.9, 0.5);
+        MemoryBudget.Pool writeCache = budget.getPool("writeCache");
+        writeCache.reserveFixed(600);
+        try {
+            writeCache.reserveFixed(400);
+            fail("Fixed memory should not fit in the budget");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        assertEquals(600, budget.getFixedBytes());
+        assertEquals(600, budget.getUsedBytes());
+        assertEquals(600, writeCache.getUsedBytes());
+        assertFalse(budget.isUnderPressure());
+
+        // unlimited budgets take any fixed memory
+        MemoryBudget.UNLIMITED.getPool("writeCache").reserveFixed(Long.MAX_VALUE / 2);
+        assertFalse(MemoryBudget.UNLIMITED.isUnderPressure());
+        MemoryBudget.UNLIMITED.getPool("writeCache").releaseFixed(Long.MAX_VALUE / 2);
+    }
+
+    @Test
+    public void testConcurrentReserveRelease() throws Exception {
+        final int numThreads = 8;
+        final int iterations = 10000;
+        MemoryBudget budget = new MemoryBudget(numThreads * 100, 0.9, 0.5);
+        CountingListener listener = new CountingListener();
+        budget.addPressureListener(listener);
+        CyclicBarrier barrier = new CyclicBarrier(numThreads);
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < numThreads; i++) {
+            MemoryBudget.Pool pool = budget.getPool("pool-" + (i % 2));
+            Thread t = new Thread(() -> {
+                try {
+                    barrier.await();
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+                for (int j = 0; j < iterations; j++) {
+                    pool.reserve(100);
+                    if (pool.tryReserve(10)) {
+                        pool.release(10);
+                    }
+                    pool.release(100);
+                }
+            });
+            threads.add(t);
+            t.start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+
+        assertEquals(0, budget.getUsedBytes());
+        for (MemoryBudget.Pool pool : budget.getPools()) {
+            assertEquals(0, pool.getUsedBytes());
+        }
+        // every pressure was relieved, and the budget ended up out of pressure
+        assertFalse(budget.isUnderPressure());
+        assertEquals(listener.pressures.get(), listener.reliefs.get());
+    }
+}
@@ -0,0 +1,579 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.bookkeeper.common.util;
+
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.bookkeeper.stats.Gauge;
+import org.apache.bookkeeper.stats.StatsLogger;
+
+/**
+ * An {@link OrderedExecutor} whose threads steal work from each other.
+ *
+ * <p>{@link OrderedExecutor} pins every ordering key to one thread, so a few hot keys can saturate their
+ * threads while the others idle. In this executor the key only selects the <i>home</i> thread of a task, as a
+ * cache affinity hint: every thread first runs the tasks of its own queues and, once they are empty, steals
+ * from the tail of the queue of a busy sibling.
+ *
+ * <p>With {@code strictOrdering}, tasks submitted through {@link #executeOrdered(long, Runnable)} for the same
+ * key still run one at a time and in submission order, but they are not bound to a thread: each key is mapped
+ * to one of many lightweight sequencers, and the sequencer drain, which runs the queued tasks of its keys,
+ * is itself a stealable task. Without {@code strictOrdering}, keyed tasks may run concurrently and out of
+ * order, which is enough for reads.
+ *
+ * <p>With {@code strictOrdering}, the executors returned by {@link #chooseThread(Object)} and
+ * {@link #chooseThread(long)} are the sequencers of the keys, so the tasks submitted to them are ordered with the
+ * other tasks of their keys. Otherwise, and for {@link #chooseThread()}, they are threads of the executor: the
+ * tasks submitted to them directly are never stolen.
+ *
+ * <p>{@code maxTasksInQueue} bounds the tasks waiting on each thread, the tasks queued on the sequencers homed on
+ * the thread included.
+ */
+@Slf4j
+public class WorkStealingOrderedExecutor extends OrderedExecutor {
+
+    // sequencers per thread; more sequencers reduce the chance for two hot keys to share one
+    static final int SEQUENCERS_PER_THREAD = 64;
+    // max tasks a sequencer runs before yielding its thread to other tasks
+    static final int MAX_TASKS_PER_SEQUENCER_RUN = 16;
+    // idle threads re-check for work at least this often, as a safety net
+    static final long MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    /**
+     * Create a builder to build work stealing ordered executors.
+     *
+     * @return builder to build work stealing ordered executors.
+     */
+    public static WorkStealingBuilder newWorkStealingBuilder() {
+        return new WorkStealingBuilder();
+    }
+
+    /**
+     * Builder to build {@link WorkStealingOrderedExecutor}.
+     */
+    public static class WorkStealingBuilder extends AbstractBuilder<WorkStealingOrderedExecutor> {
+        private boolean strictOrdering = true;
+
+        public WorkStealingBuilder strictOrdering(boolean strictOrdering) {
+            this.strictOrdering = strictOrdering;
+            return this;
+        }
+
+        @Override
+        public WorkStealingOrderedExecutor build() {
+            if (null == threadFactory) {
+                threadFactory = new DefaultThreadFactory(name);
+            }
+            return new WorkStealingOrderedExecutor(name, numThreads, threadFactory, statsLogger,
+                    traceTaskExecution, preserveMdcForTaskExecution, warnTimeMicroSec, maxTasksInQueue,
+                    enableThreadScopedMetrics, strictOrdering);
+        }
+    }
+
+    private final boolean strictOrdering;
+    private final Sequencer[] sequencers;
+    // threads start before the constructor completes, so they may still see it null
+    private volatile Worker[] workers;
+
+    private WorkStealingOrderedExecutor(String baseName,
+                                        int numThreads,
+                                        ThreadFactory threadFactory,
+                                        StatsLogger statsLogger,
+                                        boolean traceTaskExecution,
+                                        boolean preserveMdcForTaskExecution,
+                                        long warnTimeMicroSec,
+                                        int maxTasksInQueue,
+                                        boolean enableThreadScopedMetrics,
+                                        boolean strictOrdering) {
+        super(baseName, numThreads, threadFactory, statsLogger, traceTaskExecution,
+                preserveMdcForTaskExecution, warnTimeMicroSec, maxTasksInQueue,
+                false /* enableBusyWait */, enableThreadScopedMetrics);
+        this.strictOrdering = strictOrdering;
+        Worker[] ws = new Worker[threads.length];
+        for (int i = 0; i < threads.length; i++) {
+            ws[i] = (Worker) threads[i];
+            ws[i].registerMetrics(statsLogger, String.valueOf(i));
+        }
+        this.workers = ws;
+        if (strictOrdering) {
+            this.sequencers = new Sequencer[threads.length * SEQUENCERS_PER_THREAD];
+            for (int i = 0; i < sequencers.length; i++) {
+                sequencers[i] = new Sequencer(i % threads.length);
+            }
+        } else {
+            this.sequencers = null;
+        }
+    }
+
+    @Override
+    protected ExecutorService createSingleThreadExecutor(ThreadFactory factory) {
+        return new Worker(factory);
+    }
+
+    @Override
+    protected ExecutorService addExecutorDecorators(ExecutorService executor) {
+        // tasks are decorated when they are queued, the workers must stay reachable for stealing
+        return executor;
+    }
+
+    @Override
+    public void executeOrdered(Object orderingKey, Runnable r) {
+        executeOrdered(null == orderingKey ? ThreadLocalRandom.current().nextInt() : orderingKey.hashCode(), r);
+    }
+
+    @Override
+    public void executeOrdered(int orderingKey, Runnable r) {
+        executeOrdered((long) orderingKey, r);
+    }
+
+    @Override
+    public void executeOrdered(long orderingKey, Runnable r) {
+        if (strictOrdering) {
+            sequencers[chooseThreadIdx(orderingKey, sequencers.length)].execute(r);
+        } else {
+            worker(chooseThreadIdx(orderingKey, threads.length)).executeStealable(timedRunnable(r));
+        }
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        worker(ThreadLocalRandom.current().nextInt(threads.length)).executeStealable(timedRunnable(command));
+    }
+
+    @Override
+    public ExecutorService chooseThread(Object orderingKey) {
+        if (strictOrdering && null != orderingKey) {
+            return chooseThread((long) orderingKey.hashCode());
+        }
+        return super.chooseThread(orderingKey);
+    }
+
+    @Override
+    public ExecutorService chooseThread(long orderingKey) {
+        if (strictOrdering) {
+            return sequencers[chooseThreadIdx(orderingKey, sequencers.length)];
+        }
+        return super.chooseThread(orderingKey);
+    }
+
+    @Override
+    public Future<?> submit(Runnable task) {
+        FutureTask<Void> future = new FutureTask<>(task, null);
+        execute(future);
+        return future;
+    }
+
+    @Override
+    public <T> Future<T> submit(Runnable task, T result) {
+        FutureTask<T> future = new FutureTask<>(task, result);
+        execute(future);
+        return future;
+    }
+
+    @Override
+    public <T> Future<T> submit(Callable<T> task) {
+        FutureTask<T> future = new FutureTask<>(task);
+        execute(future);
+        return future;
+    }
+
+    /**
+     * Get the number of tasks stolen by the threads of this executor so far.
+     */
+    public long getStolenTasksCount() {
+        long stolen = 0;
+        for (ExecutorService thread : threads) {
+            stolen += ((Worker) thread).stolenTasks.sum();
+        }
+        return stolen;
+    }
+
+    private Worker worker(int idx) {
+        return (Worker) threads[idx];
+    }
+
+    /**
+     * Wake up an idle thread other than <i>busy</i>, so it can steal the tasks queued on <i>busy</i>.
+     */
+    private void wakeUpThief(Worker busy) {
+        Worker[] ws = workers;
+        if (null == ws) {
+            return;
+        }
+        int start = ThreadLocalRandom.current().nextInt(ws.length);
+        for (int i = 0; i < ws.length; i++) {
+            Worker w = ws[(start + i) % ws.length];
+            if (w != busy && w.parked) {
+                LockSupport.unpark(w.runner);
+                return;
+            }
+        }
+    }
+
+    private static void safeRunTask(Runnable r) {
+        try {
+            r.run();
+        } catch (Throwable t) {
+            log.error("Error while running task: {}", t.getMessage(), t);
+        }
+    }
+
+    /**
+     * Serializes the tasks of the keys mapped to it, without binding them to a thread. Its tasks count against
+     * the queue bound of its home thread.
+     *
+     * <p>The sequencer is queued on its home thread as a stealable task whenever it has tasks to run; that
+     * queued drain doesn't count against the bound.
+     */
+    private final class Sequencer extends AbstractExecutorService implements Runnable {
+        private final int home;
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger pending = new AtomicInteger(0);
+
+        Sequencer(int home) {
+            this.home = home;
+        }
+
+        @Override
+        public void execute(Runnable task) {
+            Worker worker = worker(home);
+            worker.reserve();
+            // the task is queued before being counted, so a counted task can always be polled
+            Runnable queuedTask = timedRunnable(task);
+            tasks.offer(queuedTask);
+            if (pending.getAndIncrement() == 0) {
+                try {
+                    worker.schedule(this);
+                } catch (RejectedExecutionException ree) {
+                    // shut down concurrently: undo the admission, so the caller doesn't see a rejected task
+                    // which is still queued and counted
+                    tasks.remove(queuedTask);
+                    pending.decrementAndGet();
+                    worker.release();
+                    throw ree;
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            Worker worker = worker(home);
+            for (int i = 0; i < MAX_TASKS_PER_SEQUENCER_RUN; i++) {
+                Runnable task = tasks.poll();
+                worker.release();
+                safeRunTask(task);
+                if (pending.decrementAndGet() == 0) {
+                    return;
+                }
+            }
+            // more tasks are queued, let the other tasks of this thread run first
+            try {
+                worker.schedule(this);
+            } catch (RejectedExecutionException ree) {
+                log.warn("Dropping {} ordered tasks of {} on shutdown", pending.get(), name);
+            }
+        }
+
+        @Override
+        public void shutdown() {
+            worker(home).shutdown();
+        }
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            return worker(home).shutdownNow();
+        }
+
+        @Override
+        public boolean isShutdown() {
+            return worker(home).isShutdown();
+        }
+
+        @Override
+        public boolean isTerminated() {
+            return worker(home).isTerminated();
+        }
+
+        @Override
+        public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+            return worker(home).awaitTermination(timeout, unit);
+        }
+    }
+
+    /**
+     * A thread of the executor, with a queue of pinned tasks and a queue of stealable tasks.
+     */
+    private final class Worker extends AbstractExecutorService implements Runnable {
+        private final Queue<Runnable> pinned = new ConcurrentLinkedQueue<>();
+        private final ConcurrentLinkedDeque<Runnable> stealable = new ConcurrentLinkedDeque<>();
+        // entries of the queues, the sequencer drains included
+        private final AtomicInteger queued = new AtomicInteger(0);
+        // tasks admitted to this thread and not started yet, the tasks of its sequencers included
+        private final AtomicInteger admitted = new AtomicInteger(0);
+        private final LongAdder stolenTasks = new LongAdder();
+        private final LongAdder completedTasks = new LongAdder();
+        private final Thread runner;
+        private volatile boolean parked = false;
+        private volatile boolean shutdown = false;
+
+        @SuppressFBWarnings(value = {"SC_START_IN_CTOR"})
+        Worker(ThreadFactory tf) {
+            this.runner = tf.newThread(this);
+            this.runner.start();
+        }
+
+        @Override
+        public void execute(Runnable r) {
+            reserve();
+            pinned.offer(timedRunnable(r));
+            queued.incrementAndGet();
+            if (parked) {
+                LockSupport.unpark(runner);
+            }
+        }
+
+        void executeStealable(Runnable r) {
+            reserve();
+            enqueueStealable(r);
+        }
+
+        /**
+         * Queue the drain of a sequencer, whose tasks were already admitted.
+         */
+        void schedule(Sequencer sequencer) {
+            checkRunning();
+            enqueueStealable(sequencer);
+        }
+
+        /**
+         * Admit a task to this thread, unless {@code maxTasksInQueue} tasks are already waiting on it. Every
+         * admitted task must be {@link #release() released} once it is taken to run.
+         */
+        void reserve() {
+            checkRunning();
+            if (maxTasksInQueue <= 0) {
+                admitted.incrementAndGet();
+                return;
+            }
+            while (true) {
+                int numAdmitted = admitted.get();
+                if (numAdmitted >= maxTasksInQueue) {
+                    throw new RejectedExecutionException("Executor queue is full");
+                }
+                if (admitted.compareAndSet(numAdmitted, numAdmitted + 1)) {
+                    return;
+                }
+            }
+        }
+
+        void release() {
+            admitted.decrementAndGet();
+        }
+
+        /**
+         * Account for a task taken from the queues of this thread. Sequencers release their own tasks.
+         */
+        private void taken(Runnable task) {
+            queued.decrementAndGet();
+            if (!(task instanceof Sequencer)) {
+                release();
+            }
+        }
+
+        private void enqueueStealable(Runnable r) {
+            stealable.offer(r);
+            int depth = queued.incrementAndGet();
+            if (parked) {
+                LockSupport.unpark(runner);
+            } else if (depth > 1) {
+                wakeUpThief(this);
+            }
+        }
+
+        private void checkRunning() {
+            if (shutdown) {
+                throw new RejectedExecutionException("Executor is shutting down");
+            }
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                Runnable task = pollLocal();
+                if (null == task && !shutdown) {
+                    task = steal();
+                }
+                if (null != task) {
+                    safeRunTask(task);
+                    completedTasks.increment();
+                    continue;
+                }
+                if (shutdown) {
+                    return;
+                }
+                parked = true;
+                // re-check after advertising, a task queued concurrently would not have woken us up
+                if (pinned.isEmpty() && stealable.isEmpty() && !hasStealableWork()) {
+                    LockSupport.parkNanos(this, MAX_PARK_NANOS);
+                }
+                parked = false;
+                if (Thread.interrupted() && shutdown) {
+                    return;
+                }
+            }
+        }
+
+        private Runnable pollLocal() {
+            Runnable task = pinned.poll();
+            if (null == task) {
+                task = stealable.pollFirst();
+            }
+            if (null != task) {
+                taken(task);
+            }
+            return task;
+        }
+
+        private Runnable steal() {
+            Worker[] ws = workers;
+            if (null == ws) {
+                return null;
+            }
+            int start = ThreadLocalRandom.current().nextInt(ws.length);
+            for (int i = 0; i < ws.length; i++) {
+                Worker victim = ws[(start + i) % ws.length];
+                if (victim == this) {
+                    continue;
+                }
+                // steal from the tail, the owner is working on the head
+                Runnable task = victim.stealable.pollLast();
+                if (null != task) {
+                    victim.taken(task);
+                    stolenTasks.increment();
+                    return task;
+                }
+            }
+            return null;
+        }
+
+        private boolean hasStealableWork() {
+            Worker[] ws = workers;
+            if (null == ws) {
+                return false;
+            }
+            for (Worker w : ws) {
+                if (w != this && !w.stealable.isEmpty()) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        void registerMetrics(StatsLogger statsLogger, String thread) {
+            statsLogger.scopeLabel("thread", thread)
+                    .registerGauge(String.format("%s-queue", name), new Gauge<Number>() {
+                        @Override
+                        public Number getDefaultValue() {
+                            return 0;
+                        }
+
+                        @Override
+                        public Number getSample() {
+                            return admitted.get();
+                        }
+                    });
+            statsLogger.scopeLabel("thread", thread)
+                    .registerGauge(String.format("%s-stolen-tasks", name), new Gauge<Number>() {
+                        @Override
+                        public Number getDefaultValue() {
+                            return 0;
+                        }
+
+                        @Override
+                        public Number getSample() {
+                            return stolenTasks.sum();
+                        }
+                    });
+            statsLogger.scopeLabel("thread", thread)
+                    .registerGauge(String.format("%s-completed-tasks", name), new Gauge<Number>() {
+                        @Override
+                        public Number getDefaultValue() {
+                            return 0;
+                        }
+
+                        @Override
+                        public Number getSample() {
+                            return completedTasks.sum();
+                        }
+                    });
+        }
+
+        @Override
+        public void shutdown() {
+            shutdown = true;
+            LockSupport.unpark(runner);
+        }
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            shutdown = true;
+            List<Runnable> remaining = new ArrayList<>();
+            Runnable task;
+            while (null != (task = pollLocal())) {
+                remaining.add(task);
+            }
+            runner.interrupt();
+            return remaining;
+        }
+
+        @Override
+        public boolean isShutdown() {
+            return shutdown;
+        }
+
+        @Override
+        public boolean isTerminated() {
+            return shutdown && !runner.isAlive();
+        }
+
+        @Override
+        public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+            runner.join(unit.toMillis(timeout));
+            return !runner.isAlive();
+        }
+    }
+}
@@ -0,0 +1,226 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.bookkeeper.common.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.awaitility.Awaitility;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Unit tests of {@link WorkStealingOrderedExecutor}.
+ */
+public class WorkStealingOrderedExecutorTest {
+
+    private WorkStealingOrderedExecutor executor;
+    private final CountDownLatch unblock = new CountDownLatch(1);
+
+    @After
+    public void teardown() throws Exception {
+        unblock.countDown();
+        if (null != executor) {
+            executor.shutdown();
+            executor.awaitTermination(10, TimeUnit.SECONDS);
+        }
+    }
+
+    private WorkStealingOrderedExecutor build(int numThreads, int maxTasksInQueue, boolean strictOrdering) {
+        executor = WorkStealingOrderedExecutor.newWorkStealingBuilder()
+                .strictOrdering(strictOrdering)
+                .name("test-work-stealing")
+                .numThreads(numThreads)
+                .maxTasksInQueue(maxTasksInQueue)
+                .build();
+        return executor;
+    }
+
+    /**
+     * Run a task on the home thread of the key which blocks it until the end of the test.
+     */
+    private void blockKey(long key) throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        executor.executeOrdered(key, () -> {
+            started.countDown();
+            try {
+                unblock.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testTasksOfAKeyRunInOrder() throws Exception {
+        build(4, 0, true);
+        int numKeys = 16;
+        int numTasksPerKey = 2000;
+        List<List<Integer>> executed = new ArrayList<>();
+        List<AtomicBoolean> running = new ArrayList<>();
+        AtomicInteger overlaps = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(numKeys * numTasksPerKey);
+        for (int key = 0; key < numKeys; key++) {
+            executed.add(new ArrayList<>());
+            running.add(new AtomicBoolean());
+        }
+        for (int i = 0; i < numTasksPerKey; i++) {
+            for (int key = 0; key < numKeys; key++) {
+                final int k = key;
+                final int seq = i;
+                Runnable task = () -> {
+                    if (!running.get(k).compareAndSet(false, true)) {
+                        overlaps.incrementAndGet();
+                    }
+                    executed.get(k).add(seq);
+                    running.get(k).set(false);
+                    done.countDown();
+                };
+                // the keyed submissions all go through the sequencer of the key
+                switch (i % 3) {
+                    case 0:
+                        executor.executeOrdered(k, task);
+                        break;
+                    case 1:
+                        executor.chooseThread((long) k).execute(task);
+                        break;
+                    default:
+                        executor.chooseThread(Long.valueOf(k)).execute(task);
+                        break;
+                }
+            }
+        }
+        assertTrue(done.await(30, TimeUnit.SECONDS));
+        assertEquals(0, overlaps.get());
+        for (int key = 0; key < numKeys; key++) {
+            List<Integer> tasks = executed.get(key);
+            assertEquals(numTasksPerKey, tasks.size());
+            for (int i = 0; i < numTasksPerKey; i++) {
+                assertEquals(i, tasks.get(i).intValue());
+            }
+        }
+    }
+
+    @Test
+    public void testStealSequencerOfBusyThread() throws Exception {
+        build(2, 0, true);
+        // keys 0 and 4 have distinct sequencers, both homed on the first thread
+        blockKey(0L);
+        CountDownLatch ran = new CountDownLatch(1);
+        executor.executeOrdered(4L, ran::countDown);
+        assertTrue("the task should be stolen from the blocked thread", ran.await(10, TimeUnit.SECONDS));
+        assertTrue(executor.getStolenTasksCount() >= 1);
+    }
+
+    @Test
+    public void testStealTaskOfBusyThread() throws Exception {
+        build(2, 0, false);
+        blockKey(0L);
+        CountDownLatch ran = new CountDownLatch(1);
+        executor.executeOrdered(0L, ran::countDown);
+        assertTrue("the task should be stolen from the blocked thread", ran.await(10, TimeUnit.SECONDS));
+        assertTrue(executor.getStolenTasksCount() >= 1);
+    }
+
+    @Test
+    public void testPinnedTasksAreNotStolen() throws Exception {
+        build(2, 0, false);
+        blockKey(0L);
+        CountDownLatch ran = new CountDownLatch(1);
+        executor.chooseThread(0L).execute(ran::countDown);
+        assertFalse(ran.await(200, TimeUnit.MILLISECONDS));
+        unblock.countDown();
+        assertTrue(ran.await(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testRejectTasksBeyondQueueBound() throws Exception {
+        int maxTasksInQueue = 8;
+        build(1, maxTasksInQueue, true);
+        blockKey(0L);
+        AtomicInteger ran = new AtomicInteger();
+        int accepted = 0;
+        for (int i = 0; i < 30; i++) {
+            try {
+                // every way to submit a task counts against the bound of the thread
+                switch (i % 3) {
+                    case 0:
+                        executor.executeOrdered((long) i, ran::incrementAndGet);
+                        break;
+                    case 1:
+                        executor.execute(ran::incrementAndGet);
+                        break;
+                    default:
+                        executor.chooseThread((long) i).execute(ran::incrementAndGet);
+                        break;
+                }
+                accepted++;
+            } catch (RejectedExecutionException e) {
+                // expected once the queue is full
+            }
+        }
+        assertEquals(maxTasksInQueue, accepted);
+        unblock.countDown();
+        Awaitility.await().until(() -> ran.get() == maxTasksInQueue);
+
+        // the tasks that ran are no longer counted
+        CountDownLatch done = new CountDownLatch(maxTasksInQueue);
+        for (int i = 0; i < maxTasksInQueue; i++) {
+            executor.executeOrdered((long) i, done::countDown);
+        }
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testQueueBoundUnderConcurrentSubmissions() throws Exception {
+        int maxTasksInQueue = 100;
+        build(1, maxTasksInQueue, true);
+        blockKey(0L);
+        AtomicInteger accepted = new AtomicInteger();
+        List<Thread> submitters = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            Thread submitter = new Thread(() -> {
+                for (int i = 0; i < 1000; i++) {
+                    try {
+                        executor.executeOrdered(ThreadLocalRandom.current().nextLong(), () -> { });
+                        accepted.incrementAndGet();
+                    } catch (RejectedExecutionException e) {
+                        // expected once the queue is full
+                    }
+                }
+            });
+            submitters.add(submitter);
+            submitter.start();
+        }
+        for (Thread submitter : submitters) {
+            submitter.join();
+        }
+        assertEquals(maxTasksInQueue, accepted.get());
+    }
+}
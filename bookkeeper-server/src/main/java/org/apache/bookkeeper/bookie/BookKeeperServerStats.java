@@ -69,6 +69,12 @@ public interface BookKeeperServerStats {
     String GET_BOOKIE_INFO = "GET_BOOKIE_INFO";
     String GET_LIST_OF_ENTRIES_OF_LEDGER = "GET_LIST_OF_ENTRIES_OF_LEDGER";
     String GET_LIST_OF_ENTRIES_OF_LEDGER_REQUEST = "GET_LIST_OF_ENTRIES_OF_LEDGER_REQUEST";
+    String GET_LIST_OF_ENTRIES_OF_LEDGERS = "GET_LIST_OF_ENTRIES_OF_LEDGERS";
+    String GET_LIST_OF_ENTRIES_OF_LEDGERS_REQUEST = "GET_LIST_OF_ENTRIES_OF_LEDGERS_REQUEST";
+    String READ_LEDGER_RANGE = "READ_LEDGER_RANGE";
+    String READ_LEDGER_RANGE_REQUEST = "READ_LEDGER_RANGE_REQUEST";
+    String COPY_LEDGER_RANGE = "COPY_LEDGER_RANGE";
+    String COPY_LEDGER_RANGE_REQUEST = "COPY_LEDGER_RANGE_REQUEST";
 
     // Ensemble Stats
     String WATCHER_SCOPE = "bookie_watcher";
@@ -96,6 +102,12 @@ public interface BookKeeperServerStats {
     String READ_ENTRY_IN_PROGRESS = "READ_ENTRY_IN_PROGRESS";
     String READ_ENTRY_BLOCKED = "READ_ENTRY_BLOCKED";
     String READ_ENTRY_BLOCKED_WAIT = "READ_ENTRY_BLOCKED_WAIT";
+    String ADD_ENTRY_BYTES_IN_PROGRESS = "ADD_ENTRY_BYTES_IN_PROGRESS";
+    String ADD_ENTRY_BYTES_ADMITTED = "ADD_ENTRY_BYTES_ADMITTED";
+    String ADD_ENTRY_BYTES_DEFERRED = "ADD_ENTRY_BYTES_DEFERRED";
+    String READ_ENTRY_BYTES_IN_PROGRESS = "READ_ENTRY_BYTES_IN_PROGRESS";
+    String READ_ENTRY_BYTES_ADMITTED = "READ_ENTRY_BYTES_ADMITTED";
+    String READ_ENTRY_BYTES_DEFERRED = "READ_ENTRY_BYTES_DEFERRED";
 
     //
     // Journal Stats (scoped under SERVER_SCOPE)
@@ -188,4 +200,10 @@ public interface BookKeeperServerStats {
     String NUM_OF_WRITE_LEDGERS_REMOVED_CACHE_MAXSIZE = "NUM_OF_WRITE_LEDGERS_REMOVED_CACHE_MAXSIZE";
     String NUM_LEDGERS_HAVING_MULTIPLE_ENTRYLOGS = "NUM_LEDGERS_HAVING_MULTIPLE_ENTRYLOGS";
     String ENTRYLOGS_PER_LEDGER = "ENTRYLOGS_PER_LEDGER";
+
+    // Memory Budget Stats
+    String MEMORY_BUDGET_SCOPE = "memory_budget";
+    String MEMORY_BUDGET_USED_BYTES = "used_bytes";
+    String MEMORY_BUDGET_QUOTA_BYTES = "quota_bytes";
+    String MEMORY_BUDGET_UNDER_PRESSURE = "under_pressure";
 }
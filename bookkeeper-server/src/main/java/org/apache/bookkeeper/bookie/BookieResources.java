@@ -25,6 +25,7 @@ import java.io.IOException;
 import java.net.URI;
 import org.apache.bookkeeper.common.allocator.ByteBufAllocatorBuilder;
 import org.apache.bookkeeper.common.allocator.ByteBufAllocatorWithOomHandler;
+import org.apache.bookkeeper.common.allocator.MemoryBudget;
 import org.apache.bookkeeper.conf.ServerConfiguration;
 import org.apache.bookkeeper.meta.LedgerManager;
 import org.apache.bookkeeper.meta.MetadataBookieDriver;
@@ -70,9 +71,18 @@ public class BookieResources {
             .poolingConcurrency(conf.getAllocatorPoolingConcurrency())
             .outOfMemoryPolicy(conf.getAllocatorOutOfMemoryPolicy())
             .leakDetectionPolicy(conf.getAllocatorLeakDetectionPolicy())
+            .memoryBudget(createMemoryBudget(conf))
             .build();
     }
 
+    public static MemoryBudget createMemoryBudget(ServerConfiguration conf) {
+        long limitBytes = conf.getMemoryBudgetLimitBytes();
+        if (limitBytes <= 0) {
+            return MemoryBudget.UNLIMITED;
+        }
+        return new MemoryBudget(limitBytes, conf.getMemoryBudgetHighWatermark(), conf.getMemoryBudgetLowWatermark());
+    }
+
     public static DiskChecker createDiskChecker(ServerConfiguration conf) {
         return new DiskChecker(conf.getDiskUsageThreshold(), conf.getDiskUsageWarnThreshold());
     }
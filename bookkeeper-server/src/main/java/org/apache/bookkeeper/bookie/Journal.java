@@ -45,6 +45,7 @@ import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 import org.apache.bookkeeper.bookie.LedgerDirsManager.NoWritableLedgerDirException;
 import org.apache.bookkeeper.bookie.stats.JournalStats;
+import org.apache.bookkeeper.common.allocator.MemoryBudget;
 import org.apache.bookkeeper.common.collections.BatchedArrayBlockingQueue;
 import org.apache.bookkeeper.common.collections.BatchedBlockingQueue;
 import org.apache.bookkeeper.common.collections.BlockingMpscQueue;
@@ -54,6 +55,7 @@ import org.apache.bookkeeper.common.util.affinity.CpuAffinity;
 import org.apache.bookkeeper.conf.ServerConfiguration;
 import org.apache.bookkeeper.proto.BookieRequestHandler;
 import org.apache.bookkeeper.proto.BookkeeperInternalCallbacks.WriteCallback;
+import org.apache.bookkeeper.proto.RequestTrace;
 import org.apache.bookkeeper.stats.Counter;
 import org.apache.bookkeeper.stats.NullStatsLogger;
 import org.apache.bookkeeper.stats.OpStatsLogger;
@@ -302,6 +304,8 @@ public class Journal extends BookieCriticalThread implements CheckpointSource {
         Object ctx;
         long enqueueTime;
         boolean ackBeforeSync;
+        // trace of the add request, if sampled
+        RequestTrace trace;
 
         OpStatsLogger journalAddEntryStats;
         Counter callbackTime;
@@ -319,6 +323,12 @@ public class Journal extends BookieCriticalThread implements CheckpointSource {
             qe.enqueueTime = enqueueTime;
             qe.journalAddEntryStats = journalAddEntryStats;
             qe.callbackTime = callbackTime;
+            if (cb instanceof RequestTrace.Traced) {
+                qe.trace = ((RequestTrace.Traced) cb).getRequestTrace();
+                if (qe.trace != null) {
+                    qe.trace.stamp(RequestTrace.Stage.STORAGE_DONE);
+                }
+            }
             return qe;
         }
 
@@ -357,6 +367,7 @@ public class Journal extends BookieCriticalThread implements CheckpointSource {
             this.ctx = null;
             this.journalAddEntryStats = null;
             this.callbackTime = null;
+            this.trace = null;
             recyclerHandle.recycle(this);
         }
     }
@@ -380,6 +391,9 @@ public class Journal extends BookieCriticalThread implements CheckpointSource {
             for (int i = 0; i < forceWriteWaiters.size(); i++) {
                 QueueEntry qe = forceWriteWaiters.get(i);
                 if (qe != null) {
+                    if (qe.trace != null) {
+                        qe.trace.stamp(RequestTrace.Stage.JOURNAL_SYNCED);
+                    }
                     if (qe.getCtx() instanceof BookieRequestHandler
                             && qe.entryId != BookieImpl.METAENTRY_ID_FORCE_LEDGER) {
                         writeHandlers.add((BookieRequestHandler) qe.getCtx());
@@ -480,7 +494,7 @@ public class Journal extends BookieCriticalThread implements CheckpointSource {
             LOG.info("ForceWrite Thread started");
             ThreadRegistry.register(super.getName(), 0);
 
-            if (conf.isBusyWaitEnabled()) {
+            if (conf.isBusyWaitEnabled() || conf.isThreadPerCoreEnabled()) {
                 try {
                     CpuAffinity.acquireCore();
                 } catch (Exception e) {
@@ -632,6 +646,7 @@ public class Journal extends BookieCriticalThread implements CheckpointSource {
     private final LastLogMark lastLogMark = new LastLogMark(0, 0);
 
     private static final String LAST_MARK_DEFAULT_NAME = "lastMark";
+    static final String MEMORY_POOL_NAME = "journal";
 
     private final String lastMarkFileName;
 
@@ -647,6 +662,8 @@ public class Journal extends BookieCriticalThread implements CheckpointSource {
     private final LedgerDirsManager ledgerDirsManager;
     private final ByteBufAllocator allocator;
     private final MemoryLimitController memoryLimitController;
+    // queued entries and the write buffer, accounted in the "journal" pool of the memory budget, if any
+    private final MemoryBudget.Pool budgetPool;
 
     // Expose Stats
     private final JournalStats journalStats;
@@ -695,6 +712,14 @@ public class Journal extends BookieCriticalThread implements CheckpointSource {
         this.journalAlignmentSize = conf.getJournalAlignmentSize();
         this.journalPageCacheFlushIntervalMSec = conf.getJournalPageCacheFlushIntervalMSec();
         this.journalReuseFiles = conf.getJournalReuseFiles();
+        MemoryBudget budget = MemoryBudget.of(allocator);
+        if (budget.isLimited()) {
+            this.budgetPool = budget.getPool(MEMORY_POOL_NAME);
+            budgetPool.addQuota(journalMaxMemory + journalWriteBufferSize);
+            budgetPool.reserveFixed(journalWriteBufferSize);
+        } else {
+            this.budgetPool = null;
+        }
         this.callbackTime = journalStatsLogger.getThreadScopedCounter("callback-time");
 
         this.journalTime = journalStatsLogger.getThreadScopedCounter("journal-thread-time");
@@ -898,7 +923,7 @@ public class Journal extends BookieCriticalThread implements CheckpointSource {
 
         journalStats.getJournalQueueSize().inc();
 
-        memoryLimitController.reserveMemory(entry.readableBytes());
+        reserveMemory(entry.readableBytes());
 
         queue.put(QueueEntry.create(
                 entry, ackBeforeSync, ledgerId, entryId, cb, ctx, MathUtils.nowInNano(),
@@ -945,7 +970,7 @@ public class Journal extends BookieCriticalThread implements CheckpointSource {
         LOG.info("Starting journal on {}", journalDirectory);
         ThreadRegistry.register(journalThreadName, 0);
 
-        if (conf.isBusyWaitEnabled()) {
+        if (conf.isBusyWaitEnabled() || conf.isThreadPerCoreEnabled()) {
             try {
                 CpuAffinity.acquireCore();
             } catch (Exception e) {
@@ -1046,6 +1071,9 @@ public class Journal extends BookieCriticalThread implements CheckpointSource {
                     journalStats.getJournalQueueStats()
                             .registerSuccessfulEvent(MathUtils.elapsedNanos(qe.enqueueTime), TimeUnit.NANOSECONDS);
                 }
+                if (qe != null && qe.trace != null) {
+                    qe.trace.stamp(RequestTrace.Stage.JOURNAL_DEQUEUED);
+                }
                 if (numEntriesToFlush > 0) {
                     boolean shouldFlush = false;
                     // We should issue a forceWrite if any of the three conditions below holds good
@@ -1092,6 +1120,9 @@ public class Journal extends BookieCriticalThread implements CheckpointSource {
 
                         for (int i = 0; i < toFlush.size(); i++) {
                             QueueEntry entry = toFlush.get(i);
+                            if (entry != null && entry.trace != null) {
+                                entry.trace.stamp(RequestTrace.Stage.JOURNAL_WRITTEN);
+                            }
                             if (entry != null && (!syncData || entry.ackBeforeSync)) {
                                 toFlush.set(i, null);
                                 numEntriesToFlush--;
@@ -1174,7 +1205,7 @@ public class Journal extends BookieCriticalThread implements CheckpointSource {
                      * shouldn't write this special entry
                      * (METAENTRY_ID_LEDGER_EXPLICITLAC) to Journal.
                      */
-                    memoryLimitController.releaseMemory(qe.entry.readableBytes());
+                    releaseMemory(qe.entry.readableBytes());
                     ReferenceCountUtil.release(qe.entry);
                 } else if (qe.entryId != BookieImpl.METAENTRY_ID_FORCE_LEDGER) {
                     int entrySize = qe.entry.readableBytes();
@@ -1190,7 +1221,7 @@ public class Journal extends BookieCriticalThread implements CheckpointSource {
 
                     bc.write(lenBuff);
                     bc.write(qe.entry);
-                    memoryLimitController.releaseMemory(qe.entry.readableBytes());
+                    releaseMemory(qe.entry.readableBytes());
                     ReferenceCountUtil.release(qe.entry);
                 }
 
@@ -1223,6 +1254,20 @@ public class Journal extends BookieCriticalThread implements CheckpointSource {
         LOG.info("Journal exited loop!");
     }
 
+    private void reserveMemory(long size) throws InterruptedException {
+        memoryLimitController.reserveMemory(size);
+        if (budgetPool != null) {
+            budgetPool.reserve(size);
+        }
+    }
+
+    private void releaseMemory(long size) {
+        memoryLimitController.releaseMemory(size);
+        if (budgetPool != null) {
+            budgetPool.release(size);
+        }
+    }
+
     public BufferedChannelBuilder getBufferedChannelBuilder() {
         return (FileChannel fc, int capacity) -> new BufferedChannel(allocator, fc, capacity);
     }
@@ -1245,6 +1290,9 @@ public class Journal extends BookieCriticalThread implements CheckpointSource {
             running = false;
             this.interrupt();
             this.join();
+            if (budgetPool != null) {
+                budgetPool.releaseFixed(journalWriteBufferSize);
+            }
             LOG.info("Finished Shutting down Journal thread");
         } catch (IOException | InterruptedException ie) {
             Thread.currentThread().interrupt();
@@ -330,6 +330,15 @@ public interface LedgerStorage {
         return false;
     }
 
+    /**
+     * Get the percentage of the recent reads that were not served from the read cache.
+     *
+     * @return miss percentage between 0 and 100, or -1 if this storage doesn't have a read cache
+     */
+    default int getReadCacheMissPercent() {
+        return -1;
+    }
+
 
     /**
      * Get Garbage Collection status.
@@ -26,7 +26,9 @@ import static org.apache.bookkeeper.common.concurrent.FutureUtils.result;
 import com.google.common.collect.Sets;
 import java.io.IOException;
 import java.net.URI;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.NavigableSet;
 import java.util.Set;
 import java.util.SortedMap;
@@ -35,7 +37,6 @@ import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
-import java.util.concurrent.atomic.AtomicBoolean;
 import lombok.Cleanup;
 import org.apache.bookkeeper.client.BKException;
 import org.apache.bookkeeper.client.api.LedgerMetadata;
@@ -149,8 +150,6 @@ public class ScanAndCompareGarbageCollector implements GarbageCollector {
             long start;
             long end = -1;
             boolean done = false;
-            AtomicBoolean isBookieInEnsembles = new AtomicBoolean(false);
-            Versioned<LedgerMetadata> metadata = null;
             while (!done) {
                 start = end + 1;
                 if (ledgerRangeIterator.hasNext()) {
@@ -168,46 +167,38 @@ public class ScanAndCompareGarbageCollector implements GarbageCollector {
                 if (LOG.isDebugEnabled()) {
                     LOG.debug("Active in metadata {}, Active in bookie {}", ledgersInMetadata, subBkActiveLedgers);
                 }
+                List<Long> missingInMetadata = new ArrayList<>();
                 for (Long bkLid : subBkActiveLedgers) {
                     if (!ledgersInMetadata.contains(bkLid)) {
-                        if (verifyMetadataOnGc) {
-                            isBookieInEnsembles.set(false);
-                            metadata = null;
-                            int rc = BKException.Code.OK;
-                            try {
-                                metadata = result(ledgerManager.readLedgerMetadata(bkLid), zkOpTimeoutMs,
-                                        TimeUnit.MILLISECONDS);
-                            } catch (BKException | TimeoutException e) {
-                                if (e instanceof BKException) {
-                                    rc = ((BKException) e).getCode();
-                                } else {
-                                    LOG.warn("Time-out while fetching metadata for Ledger {} : {}.", bkLid,
-                                            e.getMessage());
-
-                                    continue;
-                                }
-                            }
-                            // check bookie should be part of ensembles in one
-                            // of the segment else ledger should be deleted from
-                            // local storage
-                            if (metadata != null && metadata.getValue() != null) {
-                                metadata.getValue().getAllEnsembles().forEach((entryId, ensembles) -> {
-                                    if (ensembles != null && ensembles.contains(selfBookieAddress)) {
-                                        isBookieInEnsembles.set(true);
-                                    }
-                                });
-                                if (isBookieInEnsembles.get()) {
-                                    continue;
-                                }
-                            } else if (rc != BKException.Code.NoSuchLedgerExistsOnMetadataServerException) {
-                                LOG.warn("Ledger {} Missing in metadata list, but ledgerManager returned rc: {}.",
-                                        bkLid, rc);
-                                continue;
-                            }
-                        }
-                        garbageCleaner.clean(bkLid);
+                        missingInMetadata.add(bkLid);
                     }
                 }
+                if (verifyMetadataOnGc && !missingInMetadata.isEmpty()) {
+                    // read the metadata of all the ledgers of the range missing in the metadata list at once
+                    Map<Long, Versioned<LedgerMetadata>> metadatas;
+                    try {
+                        metadatas = result(ledgerManager.readLedgerMetadata(missingInMetadata), zkOpTimeoutMs,
+                                TimeUnit.MILLISECONDS);
+                    } catch (BKException | TimeoutException e) {
+                        LOG.warn("Ledgers {} Missing in metadata list, but failed to fetch their metadata : {}.",
+                                missingInMetadata, e.getMessage());
+                        continue;
+                    }
+                    // check bookie should be part of ensembles in one
+                    // of the segment else ledger should be deleted from
+                    // local storage. Ledgers that don't exist are absent
+                    // from the metadata read.
+                    missingInMetadata.removeIf(bkLid -> {
+                        Versioned<LedgerMetadata> metadata = metadatas.get(bkLid);
+                        return metadata != null && metadata.getValue() != null
+                                && metadata.getValue().getAllEnsembles().values().stream()
+                                        .anyMatch(ensemble -> ensemble != null
+                                                && ensemble.contains(selfBookieAddress));
+                    });
+                }
+                for (Long bkLid : missingInMetadata) {
+                    garbageCleaner.clean(bkLid);
+                }
             }
         } catch (Throwable t) {
             // ignore exception, collecting garbage next time
@@ -41,6 +41,7 @@ import java.util.Map;
 import java.util.PrimitiveIterator.OfLong;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.bookkeeper.bookie.BookieException;
@@ -94,6 +95,8 @@ public class DbLedgerStorage implements LedgerStorage {
 
     static final String MAX_THROTTLE_TIME_MILLIS = "dbStorage_maxThrottleTimeMs";
 
+    static final String OFF_HEAP_CACHE_INDEX_ENABLED = "dbStorage_offHeapCacheIndexEnabled";
+
     private static final int MB = 1024 * 1024;
 
     private static final long DEFAULT_WRITE_CACHE_MAX_SIZE_MB =
@@ -121,6 +124,13 @@ public class DbLedgerStorage implements LedgerStorage {
     private int numberOfDirs;
     private List<SingleDirectoryDbLedgerStorage> ledgerStorageList;
 
+    private static final long READ_CACHE_MISS_WINDOW_NANOS = TimeUnit.MINUTES.toNanos(1);
+    // read cache hits and misses at the start of the current window, see getReadCacheMissPercent()
+    private long readCacheWindowStartNanos = MathUtils.nowInNano();
+    private long readCacheWindowHits = 0;
+    private long readCacheWindowMisses = 0;
+    private int lastReadCacheMissPercent = -1;
+
     private ExecutorService entryLoggerWriteExecutor = null;
     private ExecutorService entryLoggerFlushExecutor = null;
 
@@ -515,6 +525,30 @@ public class DbLedgerStorage implements LedgerStorage {
         return ledgerStorageList.stream().anyMatch(SingleDirectoryDbLedgerStorage::isInForceGC);
     }
 
+    /**
+     * The miss percentage is computed over windows of {@link #READ_CACHE_MISS_WINDOW_NANOS}: the value of the
+     * last completed window is returned, or the one of the current window until a first window completes.
+     */
+    @Override
+    public synchronized int getReadCacheMissPercent() {
+        long hits = 0;
+        long misses = 0;
+        for (SingleDirectoryDbLedgerStorage ls : ledgerStorageList) {
+            hits += ls.getReadCacheHits();
+            misses += ls.getReadCacheMisses();
+        }
+        long windowReads = (hits - readCacheWindowHits) + (misses - readCacheWindowMisses);
+        int missPercent = windowReads > 0 ? (int) (100 * (misses - readCacheWindowMisses) / windowReads) : 0;
+        long now = MathUtils.nowInNano();
+        if (now - readCacheWindowStartNanos >= READ_CACHE_MISS_WINDOW_NANOS) {
+            readCacheWindowStartNanos = now;
+            readCacheWindowHits = hits;
+            readCacheWindowMisses = misses;
+            lastReadCacheMissPercent = missPercent;
+        }
+        return lastReadCacheMissPercent >= 0 ? lastReadCacheMissPercent : missPercent;
+    }
+
     @Override
     public void suspendMinorGC() {
         ledgerStorageList.stream().forEach(SingleDirectoryDbLedgerStorage::suspendMinorGC);
@@ -620,9 +654,7 @@ public class DbLedgerStorage implements LedgerStorage {
 
     @Override
     public OfLong getListOfEntriesOfLedger(long ledgerId) throws IOException {
-        // check Issue #2078
-        throw new UnsupportedOperationException(
-                "getListOfEntriesOfLedger method is currently unsupported for DbLedgerStorage");
+        return getLedgerStorage(ledgerId).getListOfEntriesOfLedger(ledgerId);
     }
 
     @Override
@@ -26,9 +26,11 @@ import java.io.IOException;
 import java.util.Map.Entry;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
+import java.util.function.LongConsumer;
 import org.apache.bookkeeper.bookie.Bookie;
 import org.apache.bookkeeper.bookie.EntryLocation;
 import org.apache.bookkeeper.bookie.storage.ldb.KeyValueStorage.Batch;
+import org.apache.bookkeeper.bookie.storage.ldb.KeyValueStorage.CloseableIterator;
 import org.apache.bookkeeper.bookie.storage.ldb.KeyValueStorageFactory.DbConfigType;
 import org.apache.bookkeeper.conf.ServerConfiguration;
 import org.apache.bookkeeper.stats.StatsLogger;
@@ -138,6 +140,33 @@ public class EntryLocationIndex implements Closeable {
         }
     }
 
+    /**
+     * Scan the index for the entries of a ledger, in ascending entry id order.
+     *
+     * <p>The scan only touches the keys of the ledger, so its cost is proportional to the number of entries
+     * stored for this ledger and not to the size of the index.
+     *
+     * @param ledgerId ledger to scan
+     * @param consumer consumer receiving the ids of the entries stored in the index
+     */
+    public void forEachEntryOfLedger(long ledgerId, LongConsumer consumer) throws IOException {
+        if (deletedLedgers.contains(ledgerId)) {
+            // Ledger already deleted
+            return;
+        }
+
+        LongPairWrapper firstKey = LongPairWrapper.get(ledgerId, 0);
+        LongPairWrapper lastKey = LongPairWrapper.get(ledgerId, Long.MAX_VALUE);
+        try (CloseableIterator<byte[]> keys = locationsDb.keys(firstKey.array, lastKey.array)) {
+            while (keys.hasNext()) {
+                consumer.accept(ArrayUtil.getLong(keys.next(), 8));
+            }
+        } finally {
+            firstKey.recycle();
+            lastKey.recycle();
+        }
+    }
+
     public void addLocation(long ledgerId, long entryId, long location) throws IOException {
         Batch batch = locationsDb.newBatch();
         addLocation(batch, ledgerId, entryId, location);
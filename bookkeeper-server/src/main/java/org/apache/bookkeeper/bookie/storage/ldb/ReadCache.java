@@ -31,8 +31,11 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
+import org.apache.bookkeeper.common.allocator.MemoryBudget;
 import org.apache.bookkeeper.util.collections.ConcurrentLongLongPairHashMap;
 import org.apache.bookkeeper.util.collections.ConcurrentLongLongPairHashMap.LongPair;
+import org.apache.bookkeeper.util.collections.ConcurrentLongLongPairMap;
+import org.apache.bookkeeper.util.collections.OffHeapConcurrentLongLongPairHashMap;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -45,14 +48,19 @@ import org.slf4j.LoggerFactory;
  * ring-buffer fashion. When the read cache is full, the oldest segment
  * is cleared and rotated to make space for new entries to be added to
  * the read cache.
+ *
+ * <p>When the allocator has a {@link MemoryBudget}, the segments are accounted in its "readCache" pool and
+ * the oldest segments are released when the budget asks for memory back. Released segments are allocated
+ * again on roll-over, once the budget allows it.
  */
 public class ReadCache implements Closeable {
     private static final Logger log = LoggerFactory.getLogger(ReadCache.class);
 
-    private static final int DEFAULT_MAX_SEGMENT_SIZE = 1 * 1024 * 1024 * 1024;
+    static final String MEMORY_POOL_NAME = "readCache";
+    static final int DEFAULT_MAX_SEGMENT_SIZE = 1 * 1024 * 1024 * 1024;
 
     private final List<ByteBuf> cacheSegments;
-    private final List<ConcurrentLongLongPairHashMap> cacheIndexes;
+    private final List<ConcurrentLongLongPairMap> cacheIndexes;
 
     private int currentSegmentIdx;
     private final AtomicInteger currentSegmentOffset = new AtomicInteger(0);
@@ -62,11 +70,22 @@ public class ReadCache implements Closeable {
     private ByteBufAllocator allocator;
     private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
 
+    private final MemoryBudget.Pool budgetPool;
+    private final MemoryBudget.Reclaimer reclaimer = this::releaseOldestSegments;
+
     public ReadCache(ByteBufAllocator allocator, long maxCacheSize) {
         this(allocator, maxCacheSize, DEFAULT_MAX_SEGMENT_SIZE);
     }
 
     public ReadCache(ByteBufAllocator allocator, long maxCacheSize, int maxSegmentSize) {
+        this(allocator, maxCacheSize, maxSegmentSize, false);
+    }
+
+    /**
+     * @param offHeapIndex whether to keep the per-segment indexes in direct memory taken from
+     *                     <i>allocator</i> rather than on the heap
+     */
+    public ReadCache(ByteBufAllocator allocator, long maxCacheSize, int maxSegmentSize, boolean offHeapIndex) {
         this.allocator = allocator;
         int segmentsCount = Math.max(2, (int) (maxCacheSize / maxSegmentSize));
         segmentSize = (int) (maxCacheSize / segmentsCount);
@@ -76,17 +95,108 @@ public class ReadCache implements Closeable {
 
         for (int i = 0; i < segmentsCount; i++) {
             cacheSegments.add(Unpooled.directBuffer(segmentSize, segmentSize));
-            ConcurrentLongLongPairHashMap concurrentLongLongPairHashMap = ConcurrentLongLongPairHashMap.newBuilder()
-                    .expectedItems(4096)
-                    .concurrencyLevel(2 * Runtime.getRuntime().availableProcessors())
-                    .build();
-            cacheIndexes.add(concurrentLongLongPairHashMap);
+            if (offHeapIndex) {
+                cacheIndexes.add(OffHeapConcurrentLongLongPairHashMap.newBuilder()
+                        .expectedItems(4096)
+                        .concurrencyLevel(2 * Runtime.getRuntime().availableProcessors())
+                        .allocator(allocator)
+                        .build());
+            } else {
+                cacheIndexes.add(ConcurrentLongLongPairHashMap.newBuilder()
+                        .expectedItems(4096)
+                        .concurrencyLevel(2 * Runtime.getRuntime().availableProcessors())
+                        .build());
+            }
+        }
+
+        MemoryBudget budget = MemoryBudget.of(allocator);
+        if (budget.isLimited()) {
+            this.budgetPool = budget.getPool(MEMORY_POOL_NAME);
+            long allocatedSize = (long) segmentSize * segmentsCount;
+            budgetPool.addQuota(allocatedSize);
+            // a cache larger than the budget allows is shrunk right away rather than putting the budget
+            // under pressure
+            budgetPool.addReclaimer(reclaimer);
+            budgetPool.reserve(allocatedSize);
+        } else {
+            this.budgetPool = null;
         }
     }
 
     @Override
     public void close() {
-        cacheSegments.forEach(ReferenceCountUtil::safeRelease);
+        lock.writeLock().lock();
+        try {
+            if (budgetPool != null) {
+                budgetPool.removeReclaimer(reclaimer);
+                long allocatedSize = 0;
+                for (ByteBuf segment : cacheSegments) {
+                    if (segment != null) {
+                        allocatedSize += segmentSize;
+                    }
+                }
+                budgetPool.release(allocatedSize);
+                budgetPool.addQuota(-(long) segmentSize * cacheSegments.size());
+            }
+            cacheSegments.forEach(ReferenceCountUtil::safeRelease);
+            cacheIndexes.forEach(ConcurrentLongLongPairMap::close);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Release the oldest segments, except the current one, until <i>bytes</i> were released.
+     */
+    private long releaseOldestSegments(long bytes) {
+        // the budget calls the reclaimer while holding its own lock: never wait for the cache lock here,
+        // a put() holding it may be waiting on the budget
+        if (!lock.writeLock().tryLock()) {
+            return 0;
+        }
+        try {
+            long released = 0;
+            int size = cacheSegments.size();
+            for (int i = 1; i < size && released < bytes; i++) {
+                int segmentIdx = (currentSegmentIdx + i) % size;
+                ByteBuf segment = cacheSegments.get(segmentIdx);
+                if (segment == null) {
+                    continue;
+                }
+                cacheIndexes.get(segmentIdx).clear();
+                cacheSegments.set(segmentIdx, null);
+                segment.release();
+                budgetPool.release(segmentSize);
+                released += segmentSize;
+            }
+            if (released > 0) {
+                log.info("Released {} bytes of read cache to relieve memory pressure", released);
+            }
+            return released;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Return the index of the segment to roll over to, allocating again the next segment if it was released
+     * and the budget allows it. Segments that can't be allocated are skipped. Must be called with the write
+     * lock held.
+     */
+    private int nextSegmentIdx() {
+        int size = cacheSegments.size();
+        for (int i = 1; i < size; i++) {
+            int segmentIdx = (currentSegmentIdx + i) % size;
+            if (cacheSegments.get(segmentIdx) != null) {
+                return segmentIdx;
+            }
+            if (budgetPool.tryReserve(segmentSize)) {
+                cacheSegments.set(segmentIdx, Unpooled.directBuffer(segmentSize, segmentSize));
+                return segmentIdx;
+            }
+        }
+        // every other segment is released, recycle the current one
+        return currentSegmentIdx;
     }
 
     public void put(long ledgerId, long entryId, ByteBuf entry) {
@@ -122,7 +232,8 @@ public class ReadCache implements Closeable {
             int offset = currentSegmentOffset.getAndAdd(entrySize);
             if (offset + entrySize > segmentSize) {
                 // Rollover to next segment
-                currentSegmentIdx = (currentSegmentIdx + 1) % cacheSegments.size();
+                currentSegmentIdx = budgetPool != null ? nextSegmentIdx()
+                        : (currentSegmentIdx + 1) % cacheSegments.size();
                 currentSegmentOffset.set(alignedSize);
                 cacheIndexes.get(currentSegmentIdx).clear();
                 offset = 0;
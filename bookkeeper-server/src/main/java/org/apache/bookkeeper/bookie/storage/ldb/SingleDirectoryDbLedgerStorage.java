@@ -46,8 +46,10 @@ import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.concurrent.locks.StampedLock;
+import java.util.stream.LongStream;
 import org.apache.bookkeeper.bookie.Bookie;
 import org.apache.bookkeeper.bookie.Bookie.NoEntryException;
 import org.apache.bookkeeper.bookie.BookieException;
@@ -68,6 +70,7 @@ import org.apache.bookkeeper.bookie.StateManager;
 import org.apache.bookkeeper.bookie.storage.EntryLogger;
 import org.apache.bookkeeper.bookie.storage.ldb.DbLedgerStorageDataFormats.LedgerData;
 import org.apache.bookkeeper.bookie.storage.ldb.KeyValueStorage.Batch;
+import org.apache.bookkeeper.common.allocator.MemoryBudget;
 import org.apache.bookkeeper.common.util.Watcher;
 import org.apache.bookkeeper.conf.ServerConfiguration;
 import org.apache.bookkeeper.meta.LedgerManager;
@@ -107,6 +110,9 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
 
     // Cache where we insert entries for speculative reading
     private final ReadCache readCache;
+    // kept apart from the stats counters, which are no-op when stats are disabled
+    private final LongAdder readCacheHits = new LongAdder();
+    private final LongAdder readCacheMisses = new LongAdder();
 
     private final StampedLock writeCacheRotationLock = new StampedLock();
 
@@ -141,6 +147,8 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
 
     private final long maxReadAheadBytesSize;
 
+    private final MemoryBudget memoryBudget;
+
     private final Counter flushExecutorTime;
 
     public SingleDirectoryDbLedgerStorage(ServerConfiguration conf, LedgerManager ledgerManager,
@@ -167,21 +175,26 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
                 .scopeLabel("ledgerDir", ledgerBaseDir)
                 .scopeLabel("indexDir", indexBaseDir);
 
+        boolean offHeapCacheIndex = conf.getBoolean(DbLedgerStorage.OFF_HEAP_CACHE_INDEX_ENABLED, false);
+
         this.writeCacheMaxSize = writeCacheSize;
-        this.writeCache = new WriteCache(allocator, writeCacheMaxSize / 2);
-        this.writeCacheBeingFlushed = new WriteCache(allocator, writeCacheMaxSize / 2);
+        this.writeCache = new WriteCache(allocator, writeCacheMaxSize / 2,
+                WriteCache.DEFAULT_MAX_SEGMENT_SIZE, offHeapCacheIndex);
+        this.writeCacheBeingFlushed = new WriteCache(allocator, writeCacheMaxSize / 2,
+                WriteCache.DEFAULT_MAX_SEGMENT_SIZE, offHeapCacheIndex);
 
         readCacheMaxSize = readCacheSize;
         this.readAheadCacheBatchSize = readAheadCacheBatchSize;
 
         // Do not attempt to perform read-ahead more than half the total size of the cache
         maxReadAheadBytesSize = readCacheMaxSize / 2;
+        memoryBudget = MemoryBudget.of(allocator);
 
         long maxThrottleTimeMillis = conf.getLong(DbLedgerStorage.MAX_THROTTLE_TIME_MILLIS,
                 DEFAULT_MAX_THROTTLE_TIME_MILLIS);
         maxThrottleTimeNanos = TimeUnit.MILLISECONDS.toNanos(maxThrottleTimeMillis);
 
-        readCache = new ReadCache(allocator, readCacheMaxSize);
+        readCache = new ReadCache(allocator, readCacheMaxSize, ReadCache.DEFAULT_MAX_SEGMENT_SIZE, offHeapCacheIndex);
 
         ledgerIndex = new LedgerMetadataIndex(conf,
                 KeyValueStorageRocksDB.factory, indexBaseDir, ledgerIndexDirStatsLogger);
@@ -274,6 +287,14 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
         return gcThread.isInForceGC();
     }
 
+    long getReadCacheHits() {
+        return readCacheHits.sum();
+    }
+
+    long getReadCacheMisses() {
+        return readCacheMisses.sum();
+    }
+
     public void suspendMinorGC() {
         gcThread.suspendMinorGC();
     }
@@ -607,10 +628,12 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
         entry = readCache.get(ledgerId, entryId);
         if (entry != null) {
             dbLedgerStorageStats.getReadCacheHitCounter().inc();
+            readCacheHits.increment();
             return entry;
         }
 
         dbLedgerStorageStats.getReadCacheMissCounter().inc();
+        readCacheMisses.increment();
 
         // Read from main storage
         long entryLocation;
@@ -638,9 +661,11 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
 
         readCache.put(ledgerId, entryId, entry);
 
-        // Try to read more entries
-        long nextEntryLocation = entryLocation + 4 /* size header */ + entry.readableBytes();
-        fillReadAheadCache(ledgerId, entryId + 1, nextEntryLocation);
+        // Try to read more entries, unless the bookie is short of direct memory
+        if (!memoryBudget.isUnderPressure()) {
+            long nextEntryLocation = entryLocation + 4 /* size header */ + entry.readableBytes();
+            fillReadAheadCache(ledgerId, entryId + 1, nextEntryLocation);
+        }
 
         return entry;
     }
@@ -1099,8 +1124,21 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
 
     @Override
     public OfLong getListOfEntriesOfLedger(long ledgerId) throws IOException {
-        throw new UnsupportedOperationException(
-                "getListOfEntriesOfLedger method is currently unsupported for SingleDirectoryDbLedgerStorage");
+        // Entries not flushed yet are only in the write caches, so look them up there before scanning the
+        // entry location index
+        long stamp = writeCacheRotationLock.readLock();
+        LongStream.Builder cachedEntries = LongStream.builder();
+        try {
+            writeCache.forEachEntryOfLedger(ledgerId, cachedEntries);
+            writeCacheBeingFlushed.forEachEntryOfLedger(ledgerId, cachedEntries);
+        } finally {
+            writeCacheRotationLock.unlockRead(stamp);
+        }
+
+        LongStream.Builder indexedEntries = LongStream.builder();
+        entryLocationIndex.forEachEntryOfLedger(ledgerId, indexedEntries);
+        // an entry can be both in the index and in the cache being flushed
+        return LongStream.concat(indexedEntries.build(), cachedEntries.build()).sorted().distinct().iterator();
     }
 
     private LedgerDirsManager.LedgerDirsListener getLedgerDirsListener() {
@@ -30,11 +30,15 @@ import java.io.IOException;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.LongAdder;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongConsumer;
+import org.apache.bookkeeper.common.allocator.MemoryBudget;
 import org.apache.bookkeeper.common.util.MathUtils;
 import org.apache.bookkeeper.util.collections.ConcurrentLongHashSet;
 import org.apache.bookkeeper.util.collections.ConcurrentLongLongHashMap;
 import org.apache.bookkeeper.util.collections.ConcurrentLongLongPairHashMap;
 import org.apache.bookkeeper.util.collections.ConcurrentLongLongPairHashMap.LongPair;
+import org.apache.bookkeeper.util.collections.ConcurrentLongLongPairMap;
+import org.apache.bookkeeper.util.collections.OffHeapConcurrentLongLongPairHashMap;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -59,12 +63,18 @@ public class WriteCache implements Closeable {
         void accept(long ledgerId, long entryId, ByteBuf entry) throws IOException;
     }
 
-    private final ConcurrentLongLongPairHashMap index = ConcurrentLongLongPairHashMap.newBuilder()
+    static final String MEMORY_POOL_NAME = "writeCache";
+    static final int DEFAULT_MAX_SEGMENT_SIZE = 1 * 1024 * 1024 * 1024;
+
+    private final ConcurrentLongLongPairMap index;
+
+    private final ConcurrentLongLongHashMap lastEntryMap = ConcurrentLongLongHashMap.newBuilder()
             .expectedItems(4096)
             .concurrencyLevel(2 * Runtime.getRuntime().availableProcessors())
             .build();
 
-    private final ConcurrentLongLongHashMap lastEntryMap = ConcurrentLongLongHashMap.newBuilder()
+    // lowest entry id of each ledger, to look up the entries of a ledger without scanning the whole index
+    private final ConcurrentLongLongHashMap firstEntryMap = ConcurrentLongLongHashMap.newBuilder()
             .expectedItems(4096)
             .concurrencyLevel(2 * Runtime.getRuntime().availableProcessors())
             .build();
@@ -84,13 +94,22 @@ public class WriteCache implements Closeable {
     private final ConcurrentLongHashSet deletedLedgers = ConcurrentLongHashSet.newBuilder().build();
 
     private final ByteBufAllocator allocator;
+    private final MemoryBudget.Pool budgetPool;
 
     public WriteCache(ByteBufAllocator allocator, long maxCacheSize) {
         // Default maxSegmentSize set to 1Gb
-        this(allocator, maxCacheSize, 1 * 1024 * 1024 * 1024);
+        this(allocator, maxCacheSize, DEFAULT_MAX_SEGMENT_SIZE);
     }
 
     public WriteCache(ByteBufAllocator allocator, long maxCacheSize, int maxSegmentSize) {
+        this(allocator, maxCacheSize, maxSegmentSize, false);
+    }
+
+    /**
+     * @param offHeapIndex whether to keep the (ledgerId, entryId) index in direct memory taken from
+     *                     <i>allocator</i> rather than on the heap
+     */
+    public WriteCache(ByteBufAllocator allocator, long maxCacheSize, int maxSegmentSize, boolean offHeapIndex) {
         checkArgument(maxSegmentSize > 0);
 
         long alignedMaxSegmentSize = alignToPowerOfTwo(maxSegmentSize);
@@ -113,6 +132,29 @@ public class WriteCache implements Closeable {
 
         int lastSegmentSize = (int) (maxCacheSize % maxSegmentSize);
         cacheSegments[segmentsCount - 1] = Unpooled.directBuffer(lastSegmentSize, lastSegmentSize);
+
+        MemoryBudget budget = MemoryBudget.of(allocator);
+        if (budget.isLimited()) {
+            // the segments are allocated upfront for the lifetime of the cache, they are fixed memory
+            this.budgetPool = budget.getPool(MEMORY_POOL_NAME);
+            budgetPool.addQuota(maxCacheSize);
+            budgetPool.reserveFixed(maxCacheSize);
+        } else {
+            this.budgetPool = null;
+        }
+
+        if (offHeapIndex) {
+            this.index = OffHeapConcurrentLongLongPairHashMap.newBuilder()
+                    .expectedItems(4096)
+                    .concurrencyLevel(2 * Runtime.getRuntime().availableProcessors())
+                    .allocator(allocator)
+                    .build();
+        } else {
+            this.index = ConcurrentLongLongPairHashMap.newBuilder()
+                    .expectedItems(4096)
+                    .concurrencyLevel(2 * Runtime.getRuntime().availableProcessors())
+                    .build();
+        }
     }
 
     public void clear() {
@@ -121,6 +163,7 @@ public class WriteCache implements Closeable {
         cacheCount.reset();
         index.clear();
         lastEntryMap.clear();
+        firstEntryMap.clear();
         deletedLedgers.clear();
     }
 
@@ -129,6 +172,11 @@ public class WriteCache implements Closeable {
         for (ByteBuf buf : cacheSegments) {
             buf.release();
         }
+        index.close();
+        if (budgetPool != null) {
+            budgetPool.releaseFixed(maxCacheSize);
+            budgetPool.addQuota(-maxCacheSize);
+        }
     }
 
     public boolean put(long ledgerId, long entryId, ByteBuf entry) {
@@ -177,6 +225,17 @@ public class WriteCache implements Closeable {
             }
         }
 
+        while (true) {
+            long currentFirstEntryId = firstEntryMap.get(ledgerId);
+            if (currentFirstEntryId != -1 && currentFirstEntryId < entryId) {
+                break;
+            }
+
+            if (firstEntryMap.compareAndSet(ledgerId, currentFirstEntryId, entryId)) {
+                break;
+            }
+        }
+
         index.put(ledgerId, entryId, offset, size);
         cacheCount.increment();
         cacheSize.addAndGet(size);
@@ -213,6 +272,36 @@ public class WriteCache implements Closeable {
         }
     }
 
+    /**
+     * Pass to <i>consumer</i> the ids of the entries of <i>ledgerId</i> stored in the cache, in no particular order.
+     *
+     * <p>The entries between the first and the last entry of the ledger are looked up one by one, the whole
+     * index is only scanned when that range is larger than the index.
+     */
+    public void forEachEntryOfLedger(long ledgerId, LongConsumer consumer) {
+        long lastEntryId = lastEntryMap.get(ledgerId);
+        if (lastEntryId == -1 || deletedLedgers.contains(ledgerId)) {
+            // Ledger not found in write cache
+            return;
+        }
+
+        long firstEntryId = firstEntryMap.get(ledgerId);
+        if (firstEntryId != -1 && lastEntryId - firstEntryId < index.size()) {
+            for (long entryId = firstEntryId; entryId <= lastEntryId; entryId++) {
+                if (index.get(ledgerId, entryId) != null) {
+                    consumer.accept(entryId);
+                }
+            }
+            return;
+        }
+
+        index.forEach((cachedLedgerId, entryId, offset, length) -> {
+            if (cachedLedgerId == ledgerId) {
+                consumer.accept(entryId);
+            }
+        });
+    }
+
     public void deleteLedger(long ledgerId) {
         deletedLedgers.add(ledgerId);
     }
@@ -0,0 +1,180 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.client;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.bookkeeper.client.api.LedgerEntry;
+
+/**
+ * Framing of the entries written by {@link BatchingWriteHandle}, which pack several records in one entry.
+ *
+ * <p>A batched entry is laid out as:
+ * <pre>
+ * | magic (2 bytes) | version (1 byte) | number of records (4 bytes) |
+ * | record length (varint) | record | record length (varint) | record | ...
+ * </pre>
+ * Record lengths are unsigned varints, so a small record only costs one or two bytes of framing.
+ */
+public final class BatchedEntryFormat {
+
+    static final short MAGIC = (short) 0xBA7C;
+    static final byte CURRENT_VERSION = 1;
+    static final int HEADER_SIZE = 2 + 1 + 4;
+    private static final int NUM_RECORDS_OFFSET = 3;
+
+    private BatchedEntryFormat() {}
+
+    /**
+     * Allocate a new batch, with room for the header.
+     */
+    static ByteBuf newBatch(ByteBufAllocator allocator, int initialCapacity) {
+        ByteBuf batch = allocator.buffer(Math.max(HEADER_SIZE, initialCapacity));
+        batch.writeShort(MAGIC);
+        batch.writeByte(CURRENT_VERSION);
+        batch.writeInt(0);
+        return batch;
+    }
+
+    /**
+     * Append the readable bytes of <i>record</i> to <i>batch</i>. The record buffer is not released.
+     */
+    static void addRecord(ByteBuf batch, ByteBuf record) {
+        writeVarInt(batch, record.readableBytes());
+        batch.writeBytes(record, record.readerIndex(), record.readableBytes());
+    }
+
+    /**
+     * Complete the header of <i>batch</i> once all its records were added.
+     */
+    static void finishBatch(ByteBuf batch, int numRecords) {
+        batch.setInt(batch.readerIndex() + NUM_RECORDS_OFFSET, numRecords);
+    }
+
+    /**
+     * Size taken in a batch by a record of <i>length</i> bytes.
+     */
+    static int recordSize(int length) {
+        return varIntSize(length) + length;
+    }
+
+    /**
+     * Whether <i>entry</i> starts with the header of a batched entry.
+     */
+    public static boolean isBatch(ByteBuf entry) {
+        return entry.readableBytes() >= HEADER_SIZE
+            && entry.getShort(entry.readerIndex()) == MAGIC
+            && entry.getByte(entry.readerIndex() + 2) == CURRENT_VERSION;
+    }
+
+    /**
+     * Get the number of records of a batched entry.
+     */
+    public static int getNumRecords(ByteBuf entry) {
+        checkBatch(entry);
+        return entry.getInt(entry.readerIndex() + NUM_RECORDS_OFFSET);
+    }
+
+    /**
+     * Split a batched entry back into its records.
+     *
+     * @param entry a ledger entry written by {@link BatchingWriteHandle}
+     * @return the records, see {@link #split(ByteBuf)}
+     */
+    public static List<ByteBuf> split(LedgerEntry entry) {
+        return split(entry.getEntryBuffer());
+    }
+
+    /**
+     * Split a batched entry back into its records, in the order they were appended.
+     *
+     * <p>The records are retained slices of <i>entry</i>, which is left untouched: the caller must release each
+     * of them once consumed.
+     *
+     * @param entry content of a ledger entry written by {@link BatchingWriteHandle}
+     * @return the records
+     * @throws IllegalArgumentException if the entry is not a batched entry or is corrupted
+     */
+    public static List<ByteBuf> split(ByteBuf entry) {
+        int numRecords = getNumRecords(entry);
+        // each record takes at least the byte of its length, so a corrupted count is caught before allocating
+        if (numRecords < 0 || numRecords > entry.readableBytes() - HEADER_SIZE) {
+            throw new IllegalArgumentException("Invalid number of records in batched entry: " + numRecords);
+        }
+        List<ByteBuf> records = new ArrayList<>(numRecords);
+        ByteBuf reader = entry.duplicate();
+        reader.skipBytes(HEADER_SIZE);
+        try {
+            for (int i = 0; i < numRecords; i++) {
+                int length = readVarInt(reader);
+                if (length < 0 || length > reader.readableBytes()) {
+                    throw new IllegalArgumentException("Invalid record length " + length + " at record " + i
+                            + " of batched entry");
+                }
+                records.add(reader.readRetainedSlice(length));
+            }
+        } catch (IllegalArgumentException e) {
+            records.forEach(ByteBuf::release);
+            throw e;
+        }
+        return records;
+    }
+
+    private static void checkBatch(ByteBuf entry) {
+        if (!isBatch(entry)) {
+            throw new IllegalArgumentException("Entry is not a batched entry");
+        }
+    }
+
+    static int varIntSize(int value) {
+        int size = 1;
+        while ((value & ~0x7F) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    static void writeVarInt(ByteBuf buf, int value) {
+        while ((value & ~0x7F) != 0) {
+            buf.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buf.writeByte(value);
+    }
+
+    static int readVarInt(ByteBuf buf) {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            if (!buf.isReadable()) {
+                throw new IllegalArgumentException("Truncated record length in batched entry");
+            }
+            byte b = buf.readByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Malformed record length in batched entry");
+    }
+}
@@ -0,0 +1,252 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.client;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import io.netty.buffer.ByteBuf;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import org.apache.bookkeeper.client.api.LastConfirmedAndEntry;
+import org.apache.bookkeeper.client.api.LedgerEntries;
+import org.apache.bookkeeper.client.api.LedgerMetadata;
+import org.apache.bookkeeper.client.api.WriteHandle;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A {@link WriteHandle} packing the records appended to it into batched entries of a {@link LedgerHandle}.
+ *
+ * <p>Writing many small records as separate entries costs a digest computation, a pending add operation and
+ * a round trip to every bookie of the write quorum per record. This handle amortizes that cost by appending
+ * records into a batch, framed with {@link BatchedEntryFormat}, which is written as a single entry. Readers
+ * use {@link BatchedEntryFormat#split(ByteBuf)} to get the records back.
+ *
+ * <p>The linger is adaptive, in the spirit of group commit: when no batch is being written, a record is
+ * written right away, so that an idle ledger doesn't pay any batching latency. While batches are in flight,
+ * records accumulate until the batch reaches {@code maxBatchRecords} records or {@code maxBatchBytes} bytes,
+ * until the in flight batches complete, or at most for {@code maxLingerMicros}. The more load, the larger
+ * the batches.
+ *
+ * <p>The future returned by {@link #appendAsync(ByteBuf)} completes once the batch holding the record is
+ * written, with the id of that entry. The records of a batch succeed or fail together.
+ */
+public class BatchingWriteHandle implements WriteHandle {
+    private static final Logger LOG = LoggerFactory.getLogger(BatchingWriteHandle.class);
+
+    private final LedgerHandle lh;
+    private final int maxBatchRecords;
+    private final int maxBatchBytes;
+    private final long maxLingerMicros;
+
+    // batch being accumulated, null if no record is waiting
+    private ByteBuf batch = null;
+    private final List<CompletableFuture<Long>> batchCallbacks = new ArrayList<>();
+    private ScheduledFuture<?> lingerTask = null;
+    // batches written to the ledger and not acknowledged yet
+    private final Set<CompletableFuture<Long>> pendingBatches = new HashSet<>();
+    private boolean closed = false;
+
+    public BatchingWriteHandle(LedgerHandle lh, int maxBatchRecords, int maxBatchBytes, long maxLingerMicros) {
+        checkArgument(maxBatchRecords > 0, "Invalid max batch records %s", maxBatchRecords);
+        checkArgument(maxBatchBytes > BatchedEntryFormat.HEADER_SIZE, "Invalid max batch bytes %s", maxBatchBytes);
+        checkArgument(maxLingerMicros >= 0, "Invalid max linger %s", maxLingerMicros);
+        this.lh = lh;
+        this.maxBatchRecords = maxBatchRecords;
+        this.maxBatchBytes = maxBatchBytes;
+        this.maxLingerMicros = maxLingerMicros;
+    }
+
+    @Override
+    public CompletableFuture<Long> appendAsync(ByteBuf data) {
+        CompletableFuture<Long> result = new CompletableFuture<>();
+        try {
+            synchronized (this) {
+                if (closed) {
+                    result.completeExceptionally(new BKException.BKLedgerClosedException());
+                    return result;
+                }
+                int recordSize = BatchedEntryFormat.recordSize(data.readableBytes());
+                if (null != batch && batch.readableBytes() + recordSize > maxBatchBytes) {
+                    flushBatch();
+                }
+                if (null == batch) {
+                    long initialCapacity = BatchedEntryFormat.HEADER_SIZE + (long) recordSize * maxBatchRecords;
+                    batch = BatchedEntryFormat.newBatch(lh.clientCtx.getByteBufAllocator(),
+                            (int) Math.min(maxBatchBytes, initialCapacity));
+                }
+                BatchedEntryFormat.addRecord(batch, data);
+                batchCallbacks.add(result);
+
+                if (pendingBatches.isEmpty()
+                        || batchCallbacks.size() >= maxBatchRecords
+                        || batch.readableBytes() >= maxBatchBytes
+                        || maxLingerMicros == 0) {
+                    flushBatch();
+                } else if (null == lingerTask) {
+                    lingerTask = lh.clientCtx.getScheduler().scheduleOrdered(lh.getId(),
+                            this::lingerExpired, maxLingerMicros, TimeUnit.MICROSECONDS);
+                }
+            }
+        } finally {
+            data.release();
+        }
+        return result;
+    }
+
+    private synchronized void lingerExpired() {
+        lingerTask = null;
+        flushBatch();
+    }
+
+    /**
+     * Write the batch being accumulated, if any. Must be called with the monitor held, which keeps the
+     * batches in the order their records were appended.
+     */
+    private void flushBatch() {
+        if (null != lingerTask) {
+            lingerTask.cancel(false);
+            lingerTask = null;
+        }
+        if (null == batch) {
+            return;
+        }
+        final ByteBuf toWrite = batch;
+        final List<CompletableFuture<Long>> callbacks = new ArrayList<>(batchCallbacks);
+        BatchedEntryFormat.finishBatch(toWrite, callbacks.size());
+        batch = null;
+        batchCallbacks.clear();
+
+        final CompletableFuture<Long> writeFuture = lh.appendAsync(toWrite);
+        pendingBatches.add(writeFuture);
+        writeFuture.whenComplete((entryId, cause) -> {
+            synchronized (BatchingWriteHandle.this) {
+                pendingBatches.remove(writeFuture);
+                if (pendingBatches.isEmpty()) {
+                    // nothing in flight anymore, don't wait for the linger to expire
+                    flushBatch();
+                }
+            }
+            if (null != cause) {
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug("Failed to write batch of {} records to ledger {}", callbacks.size(), lh.getId(),
+                            cause);
+                }
+                callbacks.forEach(callback -> callback.completeExceptionally(cause));
+            } else {
+                callbacks.forEach(callback -> callback.complete(entryId));
+            }
+        });
+    }
+
+    /**
+     * Write the records accumulated so far without waiting for the linger.
+     */
+    public synchronized void flush() {
+        flushBatch();
+    }
+
+    @Override
+    public long getLastAddPushed() {
+        return lh.getLastAddPushed();
+    }
+
+    @Override
+    public CompletableFuture<Void> force() {
+        flush();
+        return lh.force();
+    }
+
+    /**
+     * Write the records accumulated so far, and close the ledger once all the batches are written. Closing the
+     * ledger fails its pending adds, so it must wait for the batches in flight.
+     */
+    @Override
+    public CompletableFuture<Void> closeAsync() {
+        CompletableFuture<?>[] toWait;
+        synchronized (this) {
+            flushBatch();
+            closed = true;
+            toWait = pendingBatches.toArray(new CompletableFuture<?>[0]);
+        }
+        // the records of a failed batch are already failed, close regardless
+        return CompletableFuture.allOf(toWait)
+                .handle((ignored, cause) -> null)
+                .thenCompose(ignored -> lh.closeAsync());
+    }
+
+    @Override
+    public long getId() {
+        return lh.getId();
+    }
+
+    @Override
+    public LedgerMetadata getLedgerMetadata() {
+        return lh.getLedgerMetadata();
+    }
+
+    @Override
+    public CompletableFuture<LedgerEntries> readAsync(long firstEntry, long lastEntry) {
+        return lh.readAsync(firstEntry, lastEntry);
+    }
+
+    @Override
+    public CompletableFuture<LedgerEntries> readUnconfirmedAsync(long firstEntry, long lastEntry) {
+        return lh.readUnconfirmedAsync(firstEntry, lastEntry);
+    }
+
+    @Override
+    public CompletableFuture<Long> readLastAddConfirmedAsync() {
+        return lh.readLastAddConfirmedAsync();
+    }
+
+    @Override
+    public CompletableFuture<Long> tryReadLastAddConfirmedAsync() {
+        return lh.tryReadLastAddConfirmedAsync();
+    }
+
+    @Override
+    public long getLastAddConfirmed() {
+        return lh.getLastAddConfirmed();
+    }
+
+    @Override
+    public long getLength() {
+        return lh.getLength();
+    }
+
+    @Override
+    public boolean isClosed() {
+        return lh.isClosed();
+    }
+
+    @Override
+    public CompletableFuture<LastConfirmedAndEntry> readLastAddConfirmedAndEntryAsync(long entryId,
+                                                                                      long timeOutInMillis,
+                                                                                      boolean parallel) {
+        return lh.readLastAddConfirmedAndEntryAsync(entryId, timeOutInMillis, parallel);
+    }
+}
@@ -1831,6 +1831,22 @@ public class BookKeeperAdmin implements AutoCloseable {
         return bkc.getBookieClient().getListOfEntriesOfLedger(address, ledgerId);
     }
 
+    /**
+     * Makes a single async request for getting the list of entries of many ledgers
+     * from a bookie.
+     *
+     * @param address
+     *            BookieId of the bookie
+     * @param ledgerIds
+     *            ledgers to list the entries of
+     * @return returns Future
+     * @see org.apache.bookkeeper.proto.BookieClient#getListOfEntriesOfLedgers(BookieId, List)
+     */
+    public CompletableFuture<Map<Long, AvailabilityOfEntriesOfLedger>> asyncGetListOfEntriesOfLedgers(
+            BookieId address, List<Long> ledgerIds) {
+        return bkc.getBookieClient().getListOfEntriesOfLedgers(address, ledgerIds);
+    }
+
     public BookieId getCurrentAuditor() throws IOException, InterruptedException {
         return getLedgerAuditorManager().getCurrentAuditor();
     }
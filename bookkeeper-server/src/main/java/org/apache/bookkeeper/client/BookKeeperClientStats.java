@@ -65,6 +65,9 @@ public interface BookKeeperClientStats {
     String SPECULATIVE_READ_COUNT = "SPECULATIVE_READ_COUNT";
     String READ_REQUESTS_REORDERED = "READ_REQUESTS_REORDERED";
     String GET_LIST_OF_ENTRIES_OF_LEDGER_OP = "GET_LIST_OF_ENTRIES_OF_LEDGER";
+    String GET_LIST_OF_ENTRIES_OF_LEDGERS_OP = "GET_LIST_OF_ENTRIES_OF_LEDGERS";
+    String READ_LEDGER_RANGE_OP = "READ_LEDGER_RANGE";
+    String COPY_LEDGER_RANGE_OP = "COPY_LEDGER_RANGE";
 
     // per channel stats
     String CHANNEL_SCOPE = "per_channel_bookie_client";
@@ -83,6 +86,9 @@ public interface BookKeeperClientStats {
     String CHANNEL_START_TLS_OP = "START_TLS";
     String CHANNEL_TIMEOUT_START_TLS_OP = "TIMEOUT_START_TLS";
     String TIMEOUT_GET_LIST_OF_ENTRIES_OF_LEDGER = "TIMEOUT_GET_LIST_OF_ENTRIES_OF_LEDGER";
+    String TIMEOUT_GET_LIST_OF_ENTRIES_OF_LEDGERS = "TIMEOUT_GET_LIST_OF_ENTRIES_OF_LEDGERS";
+    String TIMEOUT_READ_LEDGER_RANGE = "TIMEOUT_READ_LEDGER_RANGE";
+    String TIMEOUT_COPY_LEDGER_RANGE = "TIMEOUT_COPY_LEDGER_RANGE";
 
     String NETTY_EXCEPTION_CNT = "NETTY_EXCEPTION_CNT";
     String CLIENT_CHANNEL_WRITE_WAIT = "CLIENT_CHANNEL_WRITE_WAIT";
@@ -29,6 +29,7 @@ import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.ToLongFunction;
 import org.apache.bookkeeper.client.WeightedRandomSelection.WeightedObject;
 import org.apache.bookkeeper.conf.ClientConfiguration;
 import org.apache.bookkeeper.net.BookieId;
@@ -50,9 +51,19 @@ public class BookieInfoReader {
         BookkeeperProtocol.GetBookieInfoRequest.Flags.TOTAL_DISK_CAPACITY_VALUE
                                | BookkeeperProtocol.GetBookieInfoRequest.Flags.FREE_DISK_SPACE_VALUE;
 
+    // weight of the latest sample when smoothing the load reported by a bookie
+    static final double LOAD_SMOOTHING_FACTOR = 0.3;
+    // a bookie is only penalized for the load above the median of the cluster, or above these floors
+    static final long MIN_JOURNAL_QUEUE_LENGTH_REFERENCE = 100;
+    static final long MIN_ADD_LATENCY_MICROS_REFERENCE = 2000;
+    static final long MIN_READ_CACHE_MISS_PERCENT_REFERENCE = 10;
+    // keep overloaded bookies selectable, with at least 1/MAX_LOAD_PENALTY of their disk based weight
+    static final double MAX_LOAD_PENALTY = 10.0;
+
     private final ScheduledExecutorService scheduler;
     private final BookKeeper bk;
     private final ClientConfiguration conf;
+    private final boolean loadBasedPlacementEnabled;
 
     /**
      * A class represents the information (e.g. disk usage, load) of a bookie.
@@ -62,12 +73,31 @@ public class BookieInfoReader {
     public static class BookieInfo implements WeightedObject {
         private final long freeDiskSpace;
         private final long totalDiskSpace;
+        // load reported by the bookie, -1 when unknown
+        private final long journalQueueLength;
+        private final long addLatencyMicros;
+        private final int readCacheMissPercent;
+        // the weight is the free disk space divided by this penalty, see applyLoadPenalties()
+        private final double loadPenalty;
         public BookieInfo() {
             this(0L, 0L);
         }
         public BookieInfo(long totalDiskSpace, long freeDiskSpace) {
+            this(totalDiskSpace, freeDiskSpace, -1L, -1L, -1);
+        }
+        public BookieInfo(long totalDiskSpace, long freeDiskSpace,
+                          long journalQueueLength, long addLatencyMicros, int readCacheMissPercent) {
+            this(totalDiskSpace, freeDiskSpace, journalQueueLength, addLatencyMicros, readCacheMissPercent, 1.0);
+        }
+        private BookieInfo(long totalDiskSpace, long freeDiskSpace,
+                           long journalQueueLength, long addLatencyMicros, int readCacheMissPercent,
+                           double loadPenalty) {
             this.totalDiskSpace = totalDiskSpace;
             this.freeDiskSpace = freeDiskSpace;
+            this.journalQueueLength = journalQueueLength;
+            this.addLatencyMicros = addLatencyMicros;
+            this.readCacheMissPercent = readCacheMissPercent;
+            this.loadPenalty = loadPenalty;
         }
         public long getFreeDiskSpace() {
             return freeDiskSpace;
@@ -75,13 +105,50 @@ public class BookieInfoReader {
         public long getTotalDiskSpace() {
             return totalDiskSpace;
         }
+        public long getJournalQueueLength() {
+            return journalQueueLength;
+        }
+        public long getAddLatencyMicros() {
+            return addLatencyMicros;
+        }
+        public int getReadCacheMissPercent() {
+            return readCacheMissPercent;
+        }
+        public double getLoadPenalty() {
+            return loadPenalty;
+        }
+        BookieInfo withLoadPenalty(double loadPenalty) {
+            return new BookieInfo(totalDiskSpace, freeDiskSpace,
+                    journalQueueLength, addLatencyMicros, readCacheMissPercent, loadPenalty);
+        }
+        /**
+         * Smooth the load of this info with the one of a previous info of the same bookie.
+         */
+        BookieInfo smoothLoad(BookieInfo previous) {
+            if (null == previous) {
+                return this;
+            }
+            return new BookieInfo(totalDiskSpace, freeDiskSpace,
+                    smooth(previous.journalQueueLength, journalQueueLength),
+                    smooth(previous.addLatencyMicros, addLatencyMicros),
+                    (int) smooth(previous.readCacheMissPercent, readCacheMissPercent),
+                    loadPenalty);
+        }
+        private static long smooth(long previous, long current) {
+            if (previous < 0 || current < 0) {
+                return current;
+            }
+            return Math.round(previous + LOAD_SMOOTHING_FACTOR * (current - previous));
+        }
         @Override
         public long getWeight() {
-            return freeDiskSpace;
+            return loadPenalty > 1.0 ? (long) (freeDiskSpace / loadPenalty) : freeDiskSpace;
         }
         @Override
         public String toString() {
-            return "FreeDiskSpace: " + this.freeDiskSpace + " TotalDiskCapacity: " + this.totalDiskSpace;
+            return "FreeDiskSpace: " + this.freeDiskSpace + " TotalDiskCapacity: " + this.totalDiskSpace
+                    + " JournalQueueLength: " + this.journalQueueLength + " AddLatencyMicros: " + this.addLatencyMicros
+                    + " ReadCacheMissPercent: " + this.readCacheMissPercent + " LoadPenalty: " + this.loadPenalty;
         }
     }
 
@@ -231,6 +298,7 @@ public class BookieInfoReader {
         this.bk = bk;
         this.conf = conf;
         this.scheduler = scheduler;
+        this.loadBasedPlacementEnabled = conf.getLoadBasedPlacementEnabled();
     }
 
     public void start() {
@@ -326,8 +394,9 @@ public class BookieInfoReader {
         }
 
         BookieClient bkc = bk.getBookieClient();
-        final long requested = BookkeeperProtocol.GetBookieInfoRequest.Flags.TOTAL_DISK_CAPACITY_VALUE
-                               | BookkeeperProtocol.GetBookieInfoRequest.Flags.FREE_DISK_SPACE_VALUE;
+        final long requested = loadBasedPlacementEnabled
+                ? GET_BOOKIE_INFO_REQUEST_FLAGS | BookkeeperProtocol.GetBookieInfoRequest.Flags.LOAD_VALUE
+                : GET_BOOKIE_INFO_REQUEST_FLAGS;
         totalSent = 0;
         completedCnt = 0;
         errorCnt = 0;
@@ -354,7 +423,8 @@ public class BookieInfoReader {
                                     if (LOG.isDebugEnabled()) {
                                         LOG.debug("Bookie Info for bookie {} is {}", b, bInfo);
                                     }
-                                    bookieInfoMap.gotInfo(b, bInfo);
+                                    bookieInfoMap.gotInfo(b, loadBasedPlacementEnabled
+                                            ? bInfo.smoothLoad(bookieInfoMap.getInfo(b)) : bInfo);
                                 }
                                 completedCnt++;
                                 if (totalSent == completedCnt) {
@@ -381,7 +451,9 @@ public class BookieInfoReader {
     }
 
     void onExit() {
-        bk.placementPolicy.updateBookieInfo(bookieInfoMap.getBookieMap());
+        Map<BookieId, BookieInfo> bookieInfos = bookieInfoMap.getBookieMap();
+        bk.placementPolicy.updateBookieInfo(
+                loadBasedPlacementEnabled ? applyLoadPenalties(bookieInfos) : bookieInfos);
         if (errorCnt > 0) {
             if (LOG.isInfoEnabled()) {
                 LOG.info("Rescheduling in {}s due to errors", conf.getGetBookieInfoIntervalSeconds());
@@ -396,6 +468,42 @@ public class BookieInfoReader {
         }
     }
 
+    /**
+     * Penalize the bookies that are more loaded than the rest of the cluster.
+     *
+     * <p>Each load signal is compared to its median over the bookies that reported it. A bookie gets a penalty
+     * of 1 plus, for every signal, the relative excess of its value over the median, so that e.g. a bookie with
+     * twice the median add latency gets half of its disk based weight. Bookies at or below the median are not
+     * penalized, and neither are bookies that didn't report their load.
+     */
+    static Map<BookieId, BookieInfo> applyLoadPenalties(Map<BookieId, BookieInfo> bookieInfos) {
+        long journalQueueLengthReference = Math.max(MIN_JOURNAL_QUEUE_LENGTH_REFERENCE,
+                median(bookieInfos.values(), BookieInfo::getJournalQueueLength));
+        long addLatencyReference = Math.max(MIN_ADD_LATENCY_MICROS_REFERENCE,
+                median(bookieInfos.values(), BookieInfo::getAddLatencyMicros));
+        long readCacheMissReference = Math.max(MIN_READ_CACHE_MISS_PERCENT_REFERENCE,
+                median(bookieInfos.values(), BookieInfo::getReadCacheMissPercent));
+        Map<BookieId, BookieInfo> penalized = new HashMap<>();
+        for (Map.Entry<BookieId, BookieInfo> e : bookieInfos.entrySet()) {
+            BookieInfo info = e.getValue();
+            double penalty = 1.0
+                    + excess(info.getJournalQueueLength(), journalQueueLengthReference)
+                    + excess(info.getAddLatencyMicros(), addLatencyReference)
+                    + excess(info.getReadCacheMissPercent(), readCacheMissReference);
+            penalized.put(e.getKey(), info.withLoadPenalty(Math.min(MAX_LOAD_PENALTY, penalty)));
+        }
+        return penalized;
+    }
+
+    private static long median(Collection<BookieInfo> bookieInfos, ToLongFunction<BookieInfo> signal) {
+        long[] values = bookieInfos.stream().mapToLong(signal).filter(v -> v >= 0).sorted().toArray();
+        return values.length == 0 ? 0L : values[values.length / 2];
+    }
+
+    private static double excess(long value, long reference) {
+        return value > reference ? (double) (value - reference) / reference : 0.0;
+    }
+
     Map<BookieId, BookieInfo> getBookieInfo() throws BKException, InterruptedException {
         BookieClient bkc = bk.getBookieClient();
         final AtomicInteger totalSent = new AtomicInteger();
@@ -0,0 +1,113 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.client;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import org.apache.bookkeeper.common.util.MathUtils;
+import org.apache.bookkeeper.net.BookieId;
+import org.apache.bookkeeper.util.LatencyHistogram;
+
+/**
+ * Tracks the observed read latency of every bookie the client talks to.
+ *
+ * <p>Each bookie gets a small log-linear histogram with a fixed number of buckets. Recording a sample is a
+ * single atomic increment, so the tracker can sit on the read response path without taking any lock.
+ * Histograms cover a sliding window made of two generations: when the current generation gets older than
+ * {@code windowMs}, it becomes the previous generation and a fresh one is started. Quantiles are computed
+ * over both generations, so the estimate follows changes of the bookie latency within two windows.
+ */
+public class BookieLatencyTracker {
+
+    static final int DEFAULT_MIN_SAMPLES = 50;
+    static final long DEFAULT_WINDOW_MS = 60000;
+
+    private final ConcurrentHashMap<BookieId, LatencyHistogram> histograms = new ConcurrentHashMap<>();
+    private final int minSamples;
+    private final long windowNanos;
+
+    public BookieLatencyTracker() {
+        this(DEFAULT_MIN_SAMPLES, DEFAULT_WINDOW_MS);
+    }
+
+    public BookieLatencyTracker(int minSamples, long windowMs) {
+        if (minSamples <= 0 || windowMs <= 0) {
+            throw new IllegalArgumentException("Invalid minSamples (" + minSamples
+                    + ") or windowMs (" + windowMs + ") for bookie latency tracker");
+        }
+        this.minSamples = minSamples;
+        this.windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMs);
+    }
+
+    /**
+     * Record the latency of a read sent to <i>bookie</i>.
+     *
+     * @param bookie bookie the read was sent to
+     * @param latencyNanos time elapsed between sending the request and receiving the response, or a penalty
+     *                     for a failed read
+     */
+    public void recordReadLatency(BookieId bookie, long latencyNanos) {
+        LatencyHistogram histogram = histograms.get(bookie);
+        if (null == histogram) {
+            histogram = histograms.computeIfAbsent(bookie, k -> new LatencyHistogram(windowNanos));
+        }
+        histogram.record(TimeUnit.NANOSECONDS.toMicros(latencyNanos), MathUtils.nowInNano());
+    }
+
+    /**
+     * Return the read latency of <i>bookie</i> at the given percentile.
+     *
+     * @param bookie bookie to look up
+     * @param percentile percentile between 0 and 100
+     * @return latency in microseconds, or -1 if not enough samples were recorded for the bookie
+     */
+    public long getReadLatencyMicros(BookieId bookie, double percentile) {
+        LatencyHistogram histogram = histograms.get(bookie);
+        if (null == histogram) {
+            return -1L;
+        }
+        return histogram.getPercentile(percentile, minSamples, MathUtils.nowInNano());
+    }
+
+    /**
+     * Return the exponentially weighted moving average of the read latency of <i>bookie</i>.
+     *
+     * <p>Unlike percentiles, the average reacts within a few requests to a latency change and
+     * doesn't require a minimum number of samples.
+     *
+     * @param bookie bookie to look up
+     * @return latency in microseconds, or -1 if no read was recorded for the bookie
+     */
+    public long getReadLatencyEwmaMicros(BookieId bookie) {
+        LatencyHistogram histogram = histograms.get(bookie);
+        if (null == histogram) {
+            return -1L;
+        }
+        return histogram.getEwma();
+    }
+
+    /**
+     * Forget everything known about <i>bookie</i>, e.g. once it left the cluster.
+     */
+    public void removeBookie(BookieId bookie) {
+        histograms.remove(bookie);
+    }
+}
@@ -31,6 +31,7 @@ import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
@@ -110,13 +111,24 @@ class BookieWatcherImpl implements BookieWatcher {
     private CompletableFuture<?> initialReadonlyBookiesFuture = null;
 
     private final BookieAddressResolver bookieAddressResolver;
+    private final Optional<BookieLatencyTracker> bookieLatencyTracker;
 
     public BookieWatcherImpl(ClientConfiguration conf,
                              EnsemblePlacementPolicy placementPolicy,
                              RegistrationClient registrationClient,
                              BookieAddressResolver bookieAddressResolver,
                              StatsLogger statsLogger)  {
+        this(conf, placementPolicy, registrationClient, bookieAddressResolver, statsLogger, Optional.empty());
+    }
+
+    BookieWatcherImpl(ClientConfiguration conf,
+                      EnsemblePlacementPolicy placementPolicy,
+                      RegistrationClient registrationClient,
+                      BookieAddressResolver bookieAddressResolver,
+                      StatsLogger statsLogger,
+                      Optional<BookieLatencyTracker> bookieLatencyTracker)  {
         this.conf = conf;
+        this.bookieLatencyTracker = bookieLatencyTracker;
         this.bookieAddressResolver = bookieAddressResolver;
         this.placementPolicy = placementPolicy;
         this.registrationClient = registrationClient;
@@ -192,8 +204,10 @@ class BookieWatcherImpl implements BookieWatcher {
     private synchronized void processWritableBookiesChanged(Set<BookieId> newBookieAddrs) {
         // Update watcher outside ZK callback thread, to avoid deadlock in case some other
         // component is trying to do a blocking ZK operation
+        Set<BookieId> oldBookieAddrs = this.writableBookies;
         this.writableBookies = newBookieAddrs;
         placementPolicy.onClusterChanged(newBookieAddrs, readOnlyBookies);
+        forgetUnavailableBookies(oldBookieAddrs);
         // we don't need to close clients here, because:
         // a. the dead bookies will be removed from topology, which will not be used in new ensemble.
         // b. the read sequence will be reordered based on znode availability, so most of the reads
@@ -211,8 +225,26 @@ class BookieWatcherImpl implements BookieWatcher {
     }
 
     private synchronized void processReadOnlyBookiesChanged(Set<BookieId> readOnlyBookies) {
+        Set<BookieId> oldReadOnlyBookies = this.readOnlyBookies;
         this.readOnlyBookies = readOnlyBookies;
         placementPolicy.onClusterChanged(writableBookies, readOnlyBookies);
+        forgetUnavailableBookies(oldReadOnlyBookies);
+    }
+
+    /**
+     * Drop the read latency tracked for the bookies of <i>oldBookies</i> that are neither writable nor
+     * read-only any more, so that the tracker doesn't grow with every bookie ever seen. A bookie going
+     * read-only may briefly be in neither set, it then only loses its latency history.
+     */
+    private void forgetUnavailableBookies(Set<BookieId> oldBookies) {
+        if (!bookieLatencyTracker.isPresent()) {
+            return;
+        }
+        for (BookieId bookie : oldBookies) {
+            if (isBookieUnavailable(bookie)) {
+                bookieLatencyTracker.get().removeBookie(bookie);
+            }
+        }
     }
 
     /**
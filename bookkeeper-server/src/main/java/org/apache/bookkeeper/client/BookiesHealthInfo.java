@@ -44,4 +44,25 @@ public interface BookiesHealthInfo {
      */
     long getBookiePendingRequests(BookieId bookieSocketAddress);
 
+    /**
+     * Returns the read latency observed on a bookie at the given percentile.
+     *
+     * @param bookieSocketAddress
+     * @param percentile percentile between 0 and 100
+     * @return read latency in microseconds, -1 if it is not tracked or not known yet
+     */
+    default long getBookieReadLatencyMicros(BookieId bookieSocketAddress, double percentile) {
+        return -1L;
+    }
+
+    /**
+     * Returns the moving average of the read latency observed on a bookie.
+     *
+     * @param bookieSocketAddress
+     * @return read latency in microseconds, -1 if it is not tracked or not known yet
+     */
+    default long getBookieReadLatencyEwmaMicros(BookieId bookieSocketAddress) {
+        return -1L;
+    }
+
 }
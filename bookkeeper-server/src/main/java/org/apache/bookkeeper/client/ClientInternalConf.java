@@ -22,6 +22,7 @@ package org.apache.bookkeeper.client;
 
 import java.util.Optional;
 import java.util.concurrent.TimeUnit;
+import org.apache.bookkeeper.common.util.ReflectionUtils;
 import org.apache.bookkeeper.conf.ClientConfiguration;
 import org.apache.bookkeeper.feature.Feature;
 import org.apache.bookkeeper.feature.FeatureProvider;
@@ -33,10 +34,13 @@ class ClientInternalConf {
 
     final Optional<SpeculativeRequestExecutionPolicy> readSpeculativeRequestPolicy;
     final Optional<SpeculativeRequestExecutionPolicy> readLACSpeculativeRequestPolicy;
+    final Optional<BookieLatencyTracker> bookieLatencyTracker;
+    final Optional<ReadReplicaSelector> readReplicaSelector;
 
     final int explicitLacInterval;
     final long waitForWriteSetMs;
     final long addEntryQuorumTimeoutNanos;
+    final long readEntryTimeoutNanos;
     final boolean enableParallelRecoveryRead;
     final boolean enableReorderReadSequence;
     final boolean enableStickyReads;
@@ -70,6 +74,7 @@ class ClientInternalConf {
         this.recoveryReadBatchSize = conf.getRecoveryReadBatchSize();
         this.waitForWriteSetMs = conf.getWaitTimeoutOnBackpressureMillis();
         this.addEntryQuorumTimeoutNanos = TimeUnit.SECONDS.toNanos(conf.getAddEntryQuorumTimeout());
+        this.readEntryTimeoutNanos = TimeUnit.SECONDS.toNanos(conf.getReadEntryTimeout());
         this.throttleValue = conf.getThrottleValue();
         this.bookieFailureHistoryExpirationMSec = conf.getBookieFailureHistoryExpirationMSec();
 
@@ -83,7 +88,29 @@ class ClientInternalConf {
         this.enableStickyReads = conf.isStickyReadsEnabled();
         this.enforceMinNumFaultDomainsForWrite = conf.getEnforceMinNumFaultDomainsForWrite();
 
-        if (conf.getFirstSpeculativeReadTimeout() > 0) {
+        boolean latencyAwareSpeculativeRead =
+                conf.getFirstSpeculativeReadTimeout() > 0 && conf.isLatencyAwareSpeculativeReadEnabled();
+        if (conf.getReadReplicaSelectorClass() != null) {
+            this.readReplicaSelector = Optional.of(ReflectionUtils.newInstance(
+                    conf.getReadReplicaSelectorClass(), ReadReplicaSelector.class).initialize(conf));
+        } else {
+            this.readReplicaSelector = Optional.empty();
+        }
+        if (latencyAwareSpeculativeRead || readReplicaSelector.isPresent()) {
+            this.bookieLatencyTracker = Optional.of(new BookieLatencyTracker());
+        } else {
+            this.bookieLatencyTracker = Optional.empty();
+        }
+
+        if (latencyAwareSpeculativeRead) {
+            this.readSpeculativeRequestPolicy =
+                    Optional.of(new LatencyAwareSpeculativeRequestExecutionPolicy(
+                                        bookieLatencyTracker.get(),
+                                        conf.getSpeculativeReadLatencyPercentile(),
+                                        conf.getFirstSpeculativeReadTimeout(),
+                                        conf.getMaxSpeculativeReadTimeout(),
+                                        conf.getSpeculativeReadTimeoutBackoffMultiplier()));
+        } else if (conf.getFirstSpeculativeReadTimeout() > 0) {
             this.readSpeculativeRequestPolicy =
                     Optional.of(new DefaultSpeculativeRequestExecutionPolicy(
                                         conf.getFirstSpeculativeReadTimeout(),
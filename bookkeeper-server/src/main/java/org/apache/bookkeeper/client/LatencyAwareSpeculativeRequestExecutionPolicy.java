@@ -0,0 +1,145 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.client;
+
+import static com.google.common.util.concurrent.MoreExecutors.directExecutor;
+
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import org.apache.bookkeeper.net.BookieId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A {@link SpeculativeRequestExecutionPolicy} driven by the latency observed for each bookie.
+ *
+ * <p>The speculative request is issued once the pending request has been outstanding for longer than the
+ * configured percentile of the read latency of the bookie it was sent to, as reported by
+ * {@link BookieLatencyTracker}. The timeout is bounded by {@code maxSpeculativeRequestTimeout}.
+ * If not enough samples have been collected for that bookie yet, the policy falls back to the
+ * backoff schedule of {@link DefaultSpeculativeRequestExecutionPolicy}.
+ */
+public class LatencyAwareSpeculativeRequestExecutionPolicy implements SpeculativeRequestExecutionPolicy {
+    private static final Logger LOG = LoggerFactory.getLogger(LatencyAwareSpeculativeRequestExecutionPolicy.class);
+
+    static final long MIN_SPECULATIVE_REQUEST_TIMEOUT_MICROS = 1000;
+
+    final BookieLatencyTracker latencyTracker;
+    final double latencyPercentile;
+    final int firstSpeculativeRequestTimeout;
+    final int maxSpeculativeRequestTimeout;
+    final float backoffMultiplier;
+
+    public LatencyAwareSpeculativeRequestExecutionPolicy(BookieLatencyTracker latencyTracker,
+                                                        double latencyPercentile,
+                                                        int firstSpeculativeRequestTimeout,
+                                                        int maxSpeculativeRequestTimeout,
+                                                        float backoffMultiplier) {
+        this.latencyTracker = latencyTracker;
+        this.latencyPercentile = latencyPercentile;
+        this.firstSpeculativeRequestTimeout = firstSpeculativeRequestTimeout;
+        this.maxSpeculativeRequestTimeout = maxSpeculativeRequestTimeout;
+        this.backoffMultiplier = backoffMultiplier;
+
+        if (latencyPercentile <= 0 || latencyPercentile > 100) {
+            throw new IllegalArgumentException("Invalid value provided for latencyPercentile");
+        }
+        if (backoffMultiplier <= 0) {
+            throw new IllegalArgumentException("Invalid value provided for backoffMultiplier");
+        }
+
+        // Prevent potential over flow
+        if (Math.round((double) maxSpeculativeRequestTimeout * (double) backoffMultiplier) > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Invalid values for maxSpeculativeRequestTimeout and backoffMultiplier");
+        }
+    }
+
+    @Override
+    public ScheduledFuture<?> initiateSpeculativeRequest(final ScheduledExecutorService scheduler,
+            final SpeculativeRequestExecutor requestExecutor) {
+        return scheduleSpeculativeRead(scheduler, requestExecutor, firstSpeculativeRequestTimeout);
+    }
+
+    /**
+     * Compute the time to wait for the pending request of <i>requestExecutor</i> before speculating.
+     *
+     * @param requestExecutor executor of the pending request
+     * @param fallbackTimeoutMs timeout to use when the latency of the target bookie is unknown
+     * @return timeout in microseconds
+     */
+    long getSpeculativeRequestTimeoutMicros(SpeculativeRequestExecutor requestExecutor, int fallbackTimeoutMs) {
+        BookieId target = requestExecutor.getPendingRequestTarget();
+        long latencyMicros = null == target ? -1L : latencyTracker.getReadLatencyMicros(target, latencyPercentile);
+        if (latencyMicros < 0) {
+            return TimeUnit.MILLISECONDS.toMicros(fallbackTimeoutMs);
+        }
+        return Math.min(TimeUnit.MILLISECONDS.toMicros(maxSpeculativeRequestTimeout),
+                Math.max(MIN_SPECULATIVE_REQUEST_TIMEOUT_MICROS, latencyMicros));
+    }
+
+    private ScheduledFuture<?> scheduleSpeculativeRead(final ScheduledExecutorService scheduler,
+                                         final SpeculativeRequestExecutor requestExecutor,
+                                         final int fallbackTimeoutMs) {
+        final long speculativeRequestTimeoutMicros =
+                getSpeculativeRequestTimeoutMicros(requestExecutor, fallbackTimeoutMs);
+        try {
+            return scheduler.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    ListenableFuture<Boolean> issueNextRequest = requestExecutor.issueSpeculativeRequest();
+                    Futures.addCallback(issueNextRequest, new FutureCallback<Boolean>() {
+                        @Override
+                        public void onSuccess(Boolean issueNextRequest) {
+                            if (issueNextRequest) {
+                                scheduleSpeculativeRead(scheduler, requestExecutor,
+                                        Math.min(maxSpeculativeRequestTimeout,
+                                        Math.round((float) fallbackTimeoutMs * backoffMultiplier)));
+                            } else {
+                                if (LOG.isTraceEnabled()) {
+                                    LOG.trace("Stopped issuing speculative requests for {}, "
+                                        + "speculativeReadTimeout = {} us", requestExecutor,
+                                        speculativeRequestTimeoutMicros);
+                                }
+                            }
+                        }
+
+                        @Override
+                        public void onFailure(Throwable thrown) {
+                            LOG.warn("Failed to issue speculative request for {}, speculativeReadTimeout = {} us : ",
+                                    requestExecutor, speculativeRequestTimeoutMicros, thrown);
+                        }
+                    }, directExecutor());
+                }
+            }, speculativeRequestTimeoutMicros, TimeUnit.MICROSECONDS);
+        } catch (RejectedExecutionException re) {
+            if (!scheduler.isShutdown()) {
+                LOG.warn("Failed to schedule speculative request for {}, speculativeReadTimeout = {} us : ",
+                        requestExecutor, speculativeRequestTimeoutMicros, re);
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.client;
+
+import static org.apache.bookkeeper.proto.BookieClient.PENDINGREQ_NOTWRITABLE_MASK;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import org.apache.bookkeeper.conf.ClientConfiguration;
+import org.apache.bookkeeper.net.BookieId;
+
+/**
+ * A {@link ReadReplicaSelector} picking the least loaded replica with the power of two choices.
+ *
+ * <p>Two replicas are sampled at random among the eligible ones and the one with the lowest cost leads the
+ * read sequence. The cost of a replica is
+ * <pre>
+ *   (outstanding requests + 1) * read latency moving average * (1 + localityPenalty * position)
+ * </pre>
+ * where the position is the index of the replica in the sequence computed by the placement policy, which
+ * ranks local replicas first. Replicas with a failure history or whose channel is not writable are not
+ * eligible. Sampling two replicas rather than taking the global minimum avoids having all the clients
+ * rush to the same bookie based on slightly stale load information.
+ */
+public class LeastLoadedReadReplicaSelector implements ReadReplicaSelector {
+
+    // latency assumed for bookies that served no read yet
+    static final long DEFAULT_LATENCY_MICROS = 1000;
+
+    private double localityPenalty;
+
+    @Override
+    public LeastLoadedReadReplicaSelector initialize(ClientConfiguration conf) {
+        this.localityPenalty = conf.getReadReplicaSelectorLocalityPenalty();
+        if (localityPenalty < 0) {
+            throw new IllegalArgumentException("Invalid value provided for readReplicaSelectorLocalityPenalty");
+        }
+        return this;
+    }
+
+    @Override
+    public DistributionSchedule.WriteSet selectReplica(List<BookieId> ensemble,
+                                                       BookiesHealthInfo bookiesHealthInfo,
+                                                       DistributionSchedule.WriteSet readSet) {
+        int size = readSet.size();
+        if (size < 2) {
+            return readSet;
+        }
+        double[] costs = new double[size];
+        int[] eligible = new int[size];
+        int numEligible = 0;
+        for (int i = 0; i < size; i++) {
+            costs[i] = getCost(ensemble.get(readSet.get(i)), bookiesHealthInfo, i);
+            if (costs[i] >= 0) {
+                eligible[numEligible++] = i;
+            }
+        }
+        if (numEligible < 2) {
+            // nothing to balance, keep the order of the placement policy
+            return readSet;
+        }
+
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int first = eligible[random.nextInt(numEligible)];
+        int second = eligible[random.nextInt(numEligible - 1)];
+        if (second == first) {
+            second = eligible[numEligible - 1];
+        }
+        int best = costs[first] <= costs[second] ? first : second;
+        if (best != 0) {
+            readSet.moveAndShift(best, 0);
+        }
+        return readSet;
+    }
+
+    /**
+     * Compute the cost of reading from <i>bookie</i>.
+     *
+     * @return the cost, or -1 if the bookie is not eligible
+     */
+    double getCost(BookieId bookie, BookiesHealthInfo bookiesHealthInfo, int position) {
+        if (bookiesHealthInfo.getBookieFailureHistory(bookie) >= 0) {
+            return -1;
+        }
+        long pendingRequests = bookiesHealthInfo.getBookiePendingRequests(bookie);
+        if ((pendingRequests & PENDINGREQ_NOTWRITABLE_MASK) != 0) {
+            return -1;
+        }
+        long latencyMicros = bookiesHealthInfo.getBookieReadLatencyEwmaMicros(bookie);
+        if (latencyMicros <= 0) {
+            latencyMicros = DEFAULT_LATENCY_MICROS;
+        }
+        return (pendingRequests + 1) * (double) latencyMicros * (1 + localityPenalty * position);
+    }
+}
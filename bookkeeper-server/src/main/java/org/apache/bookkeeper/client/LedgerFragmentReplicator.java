@@ -22,16 +22,22 @@ package org.apache.bookkeeper.client;
 import static org.apache.bookkeeper.client.LedgerHandle.INVALID_ENTRY_ID;
 import static org.apache.bookkeeper.replication.ReplicationStats.NUM_BYTES_READ;
 import static org.apache.bookkeeper.replication.ReplicationStats.NUM_BYTES_WRITTEN;
+import static org.apache.bookkeeper.replication.ReplicationStats.NUM_ENTRIES_PENDING_REPLICATION;
 import static org.apache.bookkeeper.replication.ReplicationStats.NUM_ENTRIES_READ;
 import static org.apache.bookkeeper.replication.ReplicationStats.NUM_ENTRIES_WRITTEN;
 import static org.apache.bookkeeper.replication.ReplicationStats.READ_DATA_LATENCY;
+import static org.apache.bookkeeper.replication.ReplicationStats.REPLICATION_BYTES_PER_SECOND;
+import static org.apache.bookkeeper.replication.ReplicationStats.REPLICATION_ETA_SECONDS;
 import static org.apache.bookkeeper.replication.ReplicationStats.REPLICATION_WORKER_SCOPE;
 import static org.apache.bookkeeper.replication.ReplicationStats.WRITE_DATA_LATENCY;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.util.concurrent.RateLimiter;
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.Unpooled;
+import io.netty.util.ReferenceCountUtil;
 import io.netty.util.ReferenceCounted;
+import java.util.ArrayList;
 import java.util.Enumeration;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -39,13 +45,19 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.BiConsumer;
 import java.util.stream.Collectors;
 import org.apache.bookkeeper.client.AsyncCallback.ReadCallback;
+import org.apache.bookkeeper.client.api.DigestType;
+import org.apache.bookkeeper.client.api.LedgerMetadata;
 import org.apache.bookkeeper.client.api.WriteFlag;
+import org.apache.bookkeeper.common.concurrent.FutureUtils;
 import org.apache.bookkeeper.conf.ClientConfiguration;
 import org.apache.bookkeeper.meta.LedgerManager;
 import org.apache.bookkeeper.net.BookieId;
@@ -53,6 +65,7 @@ import org.apache.bookkeeper.proto.BookieProtocol;
 import org.apache.bookkeeper.proto.BookkeeperInternalCallbacks.MultiCallback;
 import org.apache.bookkeeper.proto.BookkeeperInternalCallbacks.WriteCallback;
 import org.apache.bookkeeper.stats.Counter;
+import org.apache.bookkeeper.stats.Gauge;
 import org.apache.bookkeeper.stats.NullStatsLogger;
 import org.apache.bookkeeper.stats.OpStatsLogger;
 import org.apache.bookkeeper.stats.StatsLogger;
@@ -106,6 +119,28 @@ public class LedgerFragmentReplicator {
             help = "The distribution of latency of write entries by the replicator"
     )
     private final OpStatsLogger writeDataLatency;
+    @StatsDoc(
+            name = NUM_ENTRIES_PENDING_REPLICATION,
+            help = "Number of entries of the fragments being replicated which are not replicated yet"
+    )
+    private final Gauge<Long> numEntriesPendingReplicationGauge;
+    @StatsDoc(
+            name = REPLICATION_BYTES_PER_SECOND,
+            help = "The rate at which entries are replicated, in bytes per second"
+    )
+    private final Gauge<Long> replicationBytesPerSecondGauge;
+    @StatsDoc(
+            name = REPLICATION_ETA_SECONDS,
+            help = "Estimated time needed to replicate the pending entries at the current rate, -1 if unknown"
+    )
+    private final Gauge<Long> replicationEtaSecondsGauge;
+
+    private final AtomicLong numEntriesPendingReplication = new AtomicLong(0);
+    private final AtomicLong numBytesReplicated = new AtomicLong(0);
+    // guarded by this
+    private long lastRateSampleNanos = MathUtils.nowInNano();
+    private long lastRateSampleBytes = 0;
+    private long bytesPerSecond = 0;
 
     protected Throttler replicationThrottle = null;
 
@@ -113,6 +148,9 @@ public class LedgerFragmentReplicator {
 
     private static final int INITIAL_AVERAGE_ENTRY_SIZE = 1024;
     private static final double AVERAGE_ENTRY_SIZE_RATIO = 0.8;
+    private static final long RATE_SAMPLE_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+    // delay before trying again to read entries when the replication rate limit is reached
+    private static final long THROTTLED_READ_RETRY_MS = 10;
     private ClientConfiguration conf;
 
     public LedgerFragmentReplicator(BookKeeper bkc, StatsLogger statsLogger, ClientConfiguration conf) {
@@ -129,6 +167,42 @@ public class LedgerFragmentReplicator {
         }
         averageEntrySize = new AtomicInteger(INITIAL_AVERAGE_ENTRY_SIZE);
         this.conf = conf;
+        numEntriesPendingReplicationGauge = new Gauge<Long>() {
+            @Override
+            public Long getDefaultValue() {
+                return 0L;
+            }
+
+            @Override
+            public Long getSample() {
+                return numEntriesPendingReplication.get();
+            }
+        };
+        this.statsLogger.registerGauge(NUM_ENTRIES_PENDING_REPLICATION, numEntriesPendingReplicationGauge);
+        replicationBytesPerSecondGauge = new Gauge<Long>() {
+            @Override
+            public Long getDefaultValue() {
+                return 0L;
+            }
+
+            @Override
+            public Long getSample() {
+                return getReplicationBytesPerSecond();
+            }
+        };
+        this.statsLogger.registerGauge(REPLICATION_BYTES_PER_SECOND, replicationBytesPerSecondGauge);
+        replicationEtaSecondsGauge = new Gauge<Long>() {
+            @Override
+            public Long getDefaultValue() {
+                return 0L;
+            }
+
+            @Override
+            public Long getSample() {
+                return getReplicationEtaSeconds();
+            }
+        };
+        this.statsLogger.registerGauge(REPLICATION_ETA_SECONDS, replicationEtaSecondsGauge);
     }
 
     public LedgerFragmentReplicator(BookKeeper bkc, ClientConfiguration conf) {
@@ -143,31 +217,7 @@ public class LedgerFragmentReplicator {
             final AsyncCallback.VoidCallback ledgerFragmentMcb,
             final Set<BookieId> newBookies,
             final BiConsumer<Long, Long> onReadEntryFailureCallback) throws InterruptedException {
-        if (!lf.isClosed()) {
-            LOG.error("Trying to replicate an unclosed fragment;"
-                      + " This is not safe {}", lf);
-            ledgerFragmentMcb.processResult(BKException.Code.UnclosedFragmentException,
-                                            null, null);
-            return;
-        }
-        Long startEntryId = lf.getFirstStoredEntryId();
-        Long endEntryId = lf.getLastStoredEntryId();
-
-        /*
-         * if startEntryId is INVALID_ENTRY_ID then endEntryId should be
-         * INVALID_ENTRY_ID and viceversa.
-         */
-        if (startEntryId == INVALID_ENTRY_ID ^ endEntryId == INVALID_ENTRY_ID) {
-            LOG.error("For LedgerFragment: {}, seeing inconsistent firstStoredEntryId: {} and lastStoredEntryId: {}",
-                    lf, startEntryId, endEntryId);
-            assert false;
-        }
-
-        if (startEntryId > endEntryId || endEntryId <= INVALID_ENTRY_ID) {
-            // for open ledger which there is no entry, the start entry id is 0,
-            // the end entry id is -1.
-            // we can return immediately to trigger forward read
-            ledgerFragmentMcb.processResult(BKException.Code.OK, null, null);
+        if (!hasEntriesToReplicate(lf, ledgerFragmentMcb)) {
             return;
         }
 
@@ -196,6 +246,44 @@ public class LedgerFragmentReplicator {
         }
     }
 
+    /**
+     * Check that the entries of <i>lf</i> can be replicated. If they can't, or if there is nothing to
+     * replicate, <i>ledgerFragmentMcb</i> is completed.
+     *
+     * @return true if there are entries to replicate
+     */
+    private static boolean hasEntriesToReplicate(LedgerFragment lf,
+            AsyncCallback.VoidCallback ledgerFragmentMcb) {
+        if (!lf.isClosed()) {
+            LOG.error("Trying to replicate an unclosed fragment;"
+                      + " This is not safe {}", lf);
+            ledgerFragmentMcb.processResult(BKException.Code.UnclosedFragmentException,
+                                            null, null);
+            return false;
+        }
+        Long startEntryId = lf.getFirstStoredEntryId();
+        Long endEntryId = lf.getLastStoredEntryId();
+
+        /*
+         * if startEntryId is INVALID_ENTRY_ID then endEntryId should be
+         * INVALID_ENTRY_ID and viceversa.
+         */
+        if (startEntryId == INVALID_ENTRY_ID ^ endEntryId == INVALID_ENTRY_ID) {
+            LOG.error("For LedgerFragment: {}, seeing inconsistent firstStoredEntryId: {} and lastStoredEntryId: {}",
+                    lf, startEntryId, endEntryId);
+            assert false;
+        }
+
+        if (startEntryId > endEntryId || endEntryId <= INVALID_ENTRY_ID) {
+            // for open ledger which there is no entry, the start entry id is 0,
+            // the end entry id is -1.
+            // we can return immediately to trigger forward read
+            ledgerFragmentMcb.processResult(BKException.Code.OK, null, null);
+            return false;
+        }
+        return true;
+    }
+
     /**
      * This method replicate a ledger fragment which is a contiguous portion of
      * a ledger that was stored in an ensemble that included the failed bookie.
@@ -205,6 +293,13 @@ public class LedgerFragmentReplicator {
      * re-replication of all batched entry fragments, it will update the
      * ensemble info with new Bookie once
      *
+     * <p>If {@code replicationMaxInFlightBytes} is positive, the fragment is instead replicated as a
+     * pipeline: entries are read in batches from the surviving replicas and written to the new bookies
+     * as soon as they are read, while the bytes read but not written yet stay within that window.
+     *
+     * <p>If {@code replicationBookieToBookieCopyEnabled} is set, the new bookies are first asked to copy
+     * the fragment straight from the surviving replicas, see {@link #copyBetweenBookies}.
+     *
      * @param lh
      *            LedgerHandle for the ledger
      * @param lf
@@ -221,6 +316,32 @@ public class LedgerFragmentReplicator {
             final Set<BookieId> targetBookieAddresses,
             final BiConsumer<Long, Long> onReadEntryFailureCallback)
             throws InterruptedException {
+        if (conf.isReplicationBookieToBookieCopyEnabled() && canCopyBetweenBookies(lh, lf)) {
+            if (hasEntriesToReplicate(lf, ledgerFragmentMcb)) {
+                copyBetweenBookies(lh, lf, ledgerFragmentMcb, targetBookieAddresses, onReadEntryFailureCallback);
+            }
+            return;
+        }
+        replicateThroughClient(lh, lf, ledgerFragmentMcb, targetBookieAddresses, onReadEntryFailureCallback);
+    }
+
+    private void replicateThroughClient(final LedgerHandle lh, final LedgerFragment lf,
+            final AsyncCallback.VoidCallback ledgerFragmentMcb,
+            final Set<BookieId> targetBookieAddresses,
+            final BiConsumer<Long, Long> onReadEntryFailureCallback)
+            throws InterruptedException {
+        long maxInFlightBytes = conf.getReplicationMaxInFlightBytes();
+        if (maxInFlightBytes > 0) {
+            if (hasEntriesToReplicate(lf, ledgerFragmentMcb)) {
+                LOG.info("Replicating fragment {} with a window of {} bytes.", lf, maxInFlightBytes);
+                if (this.replicationThrottle != null) {
+                    this.replicationThrottle.resetRate(this.conf.getReplicationRateByBytes());
+                }
+                new PipelinedFragmentReplication(lh, lf, ledgerFragmentMcb, targetBookieAddresses,
+                        onReadEntryFailureCallback, maxInFlightBytes).start();
+            }
+            return;
+        }
         Set<LedgerFragment> partionedFragments = splitIntoSubFragments(lh, lf,
                 bkc.getConf().getRereplicationEntryBatchSize());
         LOG.info("Replicating fragment {} in {} sub fragments.",
@@ -229,6 +350,67 @@ public class LedgerFragmentReplicator {
                 ledgerFragmentMcb, targetBookieAddresses, onReadEntryFailureCallback);
     }
 
+    /**
+     * Bookies only store the whole range of a fragment when entries are not striped across the ensemble. The
+     * new bookies verify the digest of the entries they copy, which they can't do for MAC ledgers: the password
+     * of a ledger is never sent to the bookies.
+     */
+    private static boolean canCopyBetweenBookies(LedgerHandle lh, LedgerFragment lf) {
+        LedgerMetadata metadata = lh.getLedgerMetadata();
+        return metadata.getEnsembleSize() == metadata.getWriteQuorumSize()
+                && lf.getEnsemble().size() > lf.getAddresses().size()
+                && metadata.getDigestType() != DigestType.MAC;
+    }
+
+    /**
+     * Replicate a fragment by asking every new bookie to copy it from the surviving replicas. The entries
+     * don't go through this client and are verified and added by the new bookies themselves.
+     * If any copy fails, the fragment is replicated through the client; entries already copied are simply
+     * written again. The copies complete on the threads of the bookie client, so the fallback, which may
+     * wait for the replication rate limit, is handed to the worker pool of the client.
+     */
+    private void copyBetweenBookies(final LedgerHandle lh, final LedgerFragment lf,
+            final AsyncCallback.VoidCallback ledgerFragmentMcb,
+            final Set<BookieId> targetBookieAddresses,
+            final BiConsumer<Long, Long> onReadEntryFailureCallback) {
+        List<BookieId> sources = new ArrayList<>(lf.getEnsemble());
+        sources.removeAll(lf.getAddresses());
+        sources.removeAll(targetBookieAddresses);
+        long firstEntryId = lf.getFirstStoredEntryId();
+        long lastEntryId = lf.getLastStoredEntryId();
+        long numEntries = lastEntryId - firstEntryId + 1;
+        LOG.info("Copying fragment {} from {} to {}.", lf, sources, targetBookieAddresses);
+
+        List<CompletableFuture<Long>> copies = new ArrayList<>(targetBookieAddresses.size());
+        for (BookieId target : targetBookieAddresses) {
+            copies.add(bkc.getBookieClient().copyLedgerRange(target, lh.getId(), lh.getLedgerKey(),
+                    lh.getLedgerMetadata().getDigestType(), firstEntryId, lastEntryId, sources));
+        }
+        numEntriesPendingReplication.addAndGet(numEntries);
+        FutureUtils.collect(copies).whenComplete((copied, cause) -> {
+            numEntriesPendingReplication.addAndGet(-numEntries);
+            if (null == cause) {
+                copied.forEach(numEntriesWritten::addCount);
+                ledgerFragmentMcb.processResult(BKException.Code.OK, null, null);
+                return;
+            }
+            LOG.warn("Failed to copy fragment {} between bookies, replicating it through the client.", lf, cause);
+            try {
+                bkc.getMainWorkerPool().executeOrdered(lh.getId(), () -> {
+                    try {
+                        replicateThroughClient(lh, lf, ledgerFragmentMcb, targetBookieAddresses,
+                                onReadEntryFailureCallback);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        ledgerFragmentMcb.processResult(BKException.Code.InterruptedException, null, null);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                ledgerFragmentMcb.processResult(BKException.Code.InterruptedException, null, null);
+            }
+        });
+    }
+
     /**
      * Replicate the batched entry fragments one after other.
      */
@@ -362,6 +544,7 @@ public class LedgerFragmentReplicator {
                     numEntriesWritten.inc();
                     if (ctx instanceof Long) {
                         numBytesWritten.registerSuccessfulValue((Long) ctx);
+                        numBytesReplicated.addAndGet((Long) ctx);
                     }
                     if (LOG.isDebugEnabled()) {
                         LOG.debug("Success writing ledger id {}, entry id {} to a new bookie {}!",
@@ -438,6 +621,242 @@ public class LedgerFragmentReplicator {
                 + (1 - AVERAGE_ENTRY_SIZE_RATIO) * toSendSize));
     }
 
+    @VisibleForTesting
+    long getNumEntriesPendingReplication() {
+        return numEntriesPendingReplication.get();
+    }
+
+    private synchronized long getReplicationBytesPerSecond() {
+        long now = MathUtils.nowInNano();
+        long elapsedNanos = now - lastRateSampleNanos;
+        if (elapsedNanos >= RATE_SAMPLE_INTERVAL_NANOS) {
+            long bytes = numBytesReplicated.get();
+            bytesPerSecond = (bytes - lastRateSampleBytes) * TimeUnit.SECONDS.toNanos(1) / elapsedNanos;
+            lastRateSampleNanos = now;
+            lastRateSampleBytes = bytes;
+        }
+        return bytesPerSecond;
+    }
+
+    private long getReplicationEtaSeconds() {
+        long pendingEntries = numEntriesPendingReplication.get();
+        if (pendingEntries <= 0) {
+            return 0L;
+        }
+        long rate = getReplicationBytesPerSecond();
+        if (rate <= 0) {
+            // unknown
+            return -1L;
+        }
+        return pendingEntries * averageEntrySize.get() / rate;
+    }
+
+    /**
+     * Replication of a whole fragment, with batched reads pipelined with the writes to the new bookies.
+     *
+     * <p>Reads are issued as long as the bytes read and not yet written to all the new bookies stay below
+     * the window, and the shared replication rate limit allows it. Every write completion lets new
+     * reads in, so the throughput is bound by the network and the disks rather than by round trips.
+     */
+    private final class PipelinedFragmentReplication {
+        private final LedgerHandle lh;
+        private final AsyncCallback.VoidCallback ledgerFragmentMcb;
+        private final Set<BookieId> newBookies;
+        private final BiConsumer<Long, Long> onReadEntryFailureCallback;
+        private final long maxInFlightBytes;
+        private final int readBatchSize;
+        private final long lastEntryId;
+        private final AtomicLong entriesRemaining;
+        private final AtomicBoolean completed = new AtomicBoolean(false);
+
+        // guarded by this
+        private long nextEntryId;
+        private long bytesInFlight = 0;
+        private boolean readRetryScheduled = false;
+
+        PipelinedFragmentReplication(LedgerHandle lh, LedgerFragment lf,
+                                     AsyncCallback.VoidCallback ledgerFragmentMcb, Set<BookieId> newBookies,
+                                     BiConsumer<Long, Long> onReadEntryFailureCallback, long maxInFlightBytes) {
+            this.lh = lh;
+            this.ledgerFragmentMcb = ledgerFragmentMcb;
+            this.newBookies = newBookies;
+            this.onReadEntryFailureCallback = onReadEntryFailureCallback;
+            this.maxInFlightBytes = maxInFlightBytes;
+            this.readBatchSize = Math.max(1, conf.getReplicationReadBatchSize());
+            this.nextEntryId = lf.getFirstStoredEntryId();
+            this.lastEntryId = lf.getLastStoredEntryId();
+            this.entriesRemaining = new AtomicLong(lastEntryId - nextEntryId + 1);
+        }
+
+        void start() {
+            numEntriesPendingReplication.addAndGet(entriesRemaining.get());
+            readMore();
+        }
+
+        /**
+         * Issue the reads allowed by the window and the rate limit.
+         */
+        private void readMore() {
+            List<long[]> batches = new ArrayList<>();
+            synchronized (this) {
+                while (!completed.get() && nextEntryId <= lastEntryId && bytesInFlight < maxInFlightBytes) {
+                    long firstEntry = nextEntryId;
+                    long lastEntry = Math.min(lastEntryId, firstEntry + readBatchSize - 1);
+                    long estimatedBytes = (lastEntry - firstEntry + 1) * averageEntrySize.get();
+                    if (replicationThrottle != null
+                            && !replicationThrottle.tryAcquire((int) Math.min(Integer.MAX_VALUE, estimatedBytes))) {
+                        if (!readRetryScheduled) {
+                            readRetryScheduled = true;
+                            bkc.getScheduler().schedule(() -> {
+                                synchronized (this) {
+                                    readRetryScheduled = false;
+                                }
+                                readMore();
+                            }, THROTTLED_READ_RETRY_MS, TimeUnit.MILLISECONDS);
+                        }
+                        break;
+                    }
+                    nextEntryId = lastEntry + 1;
+                    bytesInFlight += estimatedBytes;
+                    batches.add(new long[] { firstEntry, lastEntry, estimatedBytes });
+                }
+            }
+            for (long[] batch : batches) {
+                readBatch(batch[0], batch[1], batch[2]);
+            }
+        }
+
+        private void readBatch(long firstEntry, long lastEntry, long estimatedBytes) {
+            final long startReadEntryTime = MathUtils.nowInNano();
+            lh.asyncReadEntries(firstEntry, lastEntry, (rc, handle, seq, ctx) -> {
+                if (rc != BKException.Code.OK) {
+                    if (firstEntry < lastEntry) {
+                        // read the entries one by one to find out which ones can't be read
+                        long numEntries = lastEntry - firstEntry + 1;
+                        for (long entryId = firstEntry; entryId <= lastEntry; entryId++) {
+                            long entryBytes = estimatedBytes / numEntries
+                                    + (entryId == firstEntry ? estimatedBytes % numEntries : 0);
+                            readBatch(entryId, entryId, entryBytes);
+                        }
+                    } else {
+                        LOG.error("BK error reading ledger entry: " + firstEntry, BKException.create(rc));
+                        onReadEntryFailureCallback.accept(lh.getId(), firstEntry);
+                        fail(rc);
+                    }
+                    return;
+                }
+                readDataLatency.registerSuccessfulEvent(MathUtils.elapsedNanos(startReadEntryTime),
+                        TimeUnit.NANOSECONDS);
+
+                List<LedgerEntry> entries = new ArrayList<>((int) (lastEntry - firstEntry + 1));
+                long readBytes = 0;
+                while (seq.hasMoreElements()) {
+                    LedgerEntry entry = seq.nextElement();
+                    entries.add(entry);
+                    readBytes += entry.getLength();
+                }
+                synchronized (this) {
+                    bytesInFlight += readBytes - estimatedBytes;
+                }
+                ReferenceCounted[] toSend = completed.get() ? null : packageEntries(entries);
+                for (int i = 0; i < entries.size(); i++) {
+                    writeEntry(entries.get(i), null == toSend ? null : toSend[i]);
+                }
+            }, null);
+        }
+
+        /**
+         * Compute the digests of the entries of a read batch together.
+         */
+        private ReferenceCounted[] packageEntries(List<LedgerEntry> entries) {
+            int count = entries.size();
+            long[] entryIds = new long[count];
+            long[] lengths = new long[count];
+            ByteBuf[] data = new ByteBuf[count];
+            for (int i = 0; i < count; i++) {
+                LedgerEntry entry = entries.get(i);
+                byte[] entryData = entry.getEntry();
+                entryIds[i] = entry.getEntryId();
+                lengths[i] = entry.getLength();
+                data[i] = Unpooled.wrappedBuffer(entryData, 0, entryData.length);
+            }
+            return lh.getDigestManager().computeDigestsAndPackageForSending(entryIds, lh.getLastAddConfirmed(),
+                    lengths, data, lh.getLedgerKey(), 0, count);
+        }
+
+        private void writeEntry(LedgerEntry entry, ReferenceCounted toSend) {
+            final long entryId = entry.getEntryId();
+            final long dataLength = entry.getLength();
+            numEntriesRead.inc();
+            numBytesRead.registerSuccessfulValue(dataLength);
+            if (completed.get()) {
+                ReferenceCountUtil.release(toSend);
+                return;
+            }
+
+            if (toSend instanceof ByteBuf) {
+                updateAverageEntrySize(((ByteBuf) toSend).readableBytes());
+            } else if (toSend instanceof ByteBufList) {
+                updateAverageEntrySize(((ByteBufList) toSend).readableBytes());
+            }
+
+            final AtomicInteger numCompleted = new AtomicInteger(0);
+            final WriteCallback writeCallback = (rc, ledgerId, writtenEntryId, addr, ctx) -> {
+                if (rc != BKException.Code.OK) {
+                    LOG.error("BK error writing entry for ledgerId: {}, entryId: {}, bookie: {}",
+                            ledgerId, writtenEntryId, addr, BKException.create(rc));
+                    fail(rc);
+                    return;
+                }
+                numEntriesWritten.inc();
+                numBytesWritten.registerSuccessfulValue(dataLength);
+                if (numCompleted.incrementAndGet() == newBookies.size()) {
+                    entryReplicated(dataLength);
+                }
+            };
+            for (BookieId newBookie : newBookies) {
+                long startWriteEntryTime = MathUtils.nowInNano();
+                bkc.getBookieClient().addEntry(newBookie, lh.getId(),
+                        lh.getLedgerKey(), entryId, toSend,
+                        writeCallback, dataLength, BookieProtocol.FLAG_RECOVERY_ADD,
+                        false, WriteFlag.NONE);
+                writeDataLatency.registerSuccessfulEvent(
+                        MathUtils.elapsedNanos(startWriteEntryTime), TimeUnit.NANOSECONDS);
+            }
+            toSend.release();
+        }
+
+        private void entryReplicated(long dataLength) {
+            numBytesReplicated.addAndGet(dataLength);
+            synchronized (this) {
+                bytesInFlight -= dataLength;
+            }
+            long remaining;
+            do {
+                remaining = entriesRemaining.get();
+                if (remaining <= 0) {
+                    // the replication already failed
+                    return;
+                }
+            } while (!entriesRemaining.compareAndSet(remaining, remaining - 1));
+            numEntriesPendingReplication.decrementAndGet();
+            if (remaining == 1) {
+                if (completed.compareAndSet(false, true)) {
+                    ledgerFragmentMcb.processResult(BKException.Code.OK, null, null);
+                }
+            } else {
+                readMore();
+            }
+        }
+
+        private void fail(int rc) {
+            if (completed.compareAndSet(false, true)) {
+                numEntriesPendingReplication.addAndGet(-entriesRemaining.getAndSet(0));
+                ledgerFragmentMcb.processResult(rc, null, null);
+            }
+        }
+    }
+
     /**
      * Callback for recovery of a single ledger fragment. Once the fragment has
      * had all entries replicated, update the ensemble in zookeeper. Once
@@ -536,5 +955,10 @@ public class LedgerFragmentReplicator {
         void acquire(int permits) {
             rateLimiter.acquire(permits);
         }
+
+        // acquire without waiting, return false if the permits are not available yet.
+        boolean tryAcquire(int permits) {
+            return rateLimiter.tryAcquire(permits);
+        }
     }
 }
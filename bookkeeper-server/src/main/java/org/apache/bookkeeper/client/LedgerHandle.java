@@ -237,6 +237,20 @@ public class LedgerHandle implements WriteHandle {
             public long getBookiePendingRequests(BookieId bookieSocketAddress) {
                 return clientCtx.getBookieClient().getNumPendingRequests(bookieSocketAddress, ledgerId);
             }
+
+            @Override
+            public long getBookieReadLatencyMicros(BookieId bookieSocketAddress, double percentile) {
+                return clientCtx.getConf().bookieLatencyTracker
+                    .map(tracker -> tracker.getReadLatencyMicros(bookieSocketAddress, percentile))
+                    .orElse(-1L);
+            }
+
+            @Override
+            public long getBookieReadLatencyEwmaMicros(BookieId bookieSocketAddress) {
+                return clientCtx.getConf().bookieLatencyTracker
+                    .map(tracker -> tracker.getReadLatencyEwmaMicros(bookieSocketAddress))
+                    .orElse(-1L);
+            }
         };
 
         ensembleChangeCounter = clientCtx.getClientStats().getEnsembleChangeCounter();
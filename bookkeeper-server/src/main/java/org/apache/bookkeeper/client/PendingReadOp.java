@@ -33,6 +33,7 @@ import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.IntToLongFunction;
 import org.apache.bookkeeper.client.BKException.BKDigestMatchException;
 import org.apache.bookkeeper.client.api.LedgerEntries;
 import org.apache.bookkeeper.client.api.LedgerMetadata;
@@ -105,6 +106,10 @@ class PendingReadOp implements ReadEntryCallback, Runnable {
             } else {
                 writeSet = lh.getWriteSetForReadOperation(eId);
             }
+            if (clientCtx.getConf().readReplicaSelector.isPresent() && !clientCtx.getConf().enableStickyReads) {
+                clientCtx.getConf().readReplicaSelector.get()
+                    .selectReplica(ensemble, lh.getBookiesHealthInfo(), writeSet);
+            }
         }
 
         @Override
@@ -397,6 +402,10 @@ class PendingReadOp implements ReadEntryCallback, Runnable {
                 return null;
             }
 
+            if (nextReplicaIndexToReadFrom > 0) {
+                maybePromoteFastestReplica();
+            }
+
             // ToDo: pick replica with writable PCBC. ISSUE #1239
             // https://github.com/apache/bookkeeper/issues/1239
             int replica = nextReplicaIndexToReadFrom;
@@ -417,6 +426,30 @@ class PendingReadOp implements ReadEntryCallback, Runnable {
             }
         }
 
+        /**
+         * When the read latency of the bookies is tracked, move the remaining replica with the lowest
+         * median latency to the next position of the read sequence, see {@link #fastestReplica}.
+         */
+        private void maybePromoteFastestReplica() {
+            if (!clientCtx.getConf().bookieLatencyTracker.isPresent()) {
+                return;
+            }
+            BookiesHealthInfo healthInfo = lh.getBookiesHealthInfo();
+            int bestReplica = fastestReplica(writeSet, nextReplicaIndexToReadFrom,
+                    bookieIndex -> healthInfo.getBookieReadLatencyMicros(ensemble.get(bookieIndex), 50.0));
+            if (bestReplica != nextReplicaIndexToReadFrom) {
+                writeSet.moveAndShift(bestReplica, nextReplicaIndexToReadFrom);
+            }
+        }
+
+        @Override
+        public synchronized BookieId getPendingRequestTarget() {
+            if (nextReplicaIndexToReadFrom == 0 || isComplete()) {
+                return null;
+            }
+            return ensemble.get(writeSet.get(nextReplicaIndexToReadFrom - 1));
+        }
+
         @Override
         synchronized void logErrorAndReattemptRead(int bookieIndex, BookieId host, String errMsg, int rc) {
             super.logErrorAndReattemptRead(bookieIndex, host, errMsg, rc);
@@ -543,16 +576,46 @@ class PendingReadOp implements ReadEntryCallback, Runnable {
         initiate();
     }
 
+    /**
+     * Return the replica to read from after the first <i>nextReplica</i> ones of the write set: the one
+     * with the lowest read latency among the remaining replicas.
+     *
+     * <p>A latency lower than 0 means that there are not enough samples to tell the latency of the bookie.
+     * Such a replica is neither slow nor fast, it is skipped, and the next replica is kept if none of the
+     * remaining replicas has a known latency. The replicas without samples still get reads, and hence
+     * samples, since the first read of an entry always follows the order chosen by the placement policy.
+     *
+     * @param writeSet the write set, in read order
+     * @param nextReplica the index in the write set of the next replica to read from
+     * @param readLatencyOfBookie the read latency of a bookie, given its index in the ensemble
+     * @return the index in the write set of the replica to read from next
+     */
+    static int fastestReplica(DistributionSchedule.WriteSet writeSet, int nextReplica,
+                              IntToLongFunction readLatencyOfBookie) {
+        int bestReplica = nextReplica;
+        long bestLatency = Long.MAX_VALUE;
+        for (int i = nextReplica; i < writeSet.size(); i++) {
+            long latency = readLatencyOfBookie.applyAsLong(writeSet.get(i));
+            if (latency >= 0 && latency < bestLatency) {
+                bestReplica = i;
+                bestLatency = latency;
+            }
+        }
+        return bestReplica;
+    }
+
     private static class ReadContext implements ReadEntryCallbackCtx {
         final int bookieIndex;
         final BookieId to;
         final LedgerEntryRequest entry;
+        final long sentTimeNanos;
         long lac = LedgerHandle.INVALID_ENTRY_ID;
 
         ReadContext(int bookieIndex, BookieId to, LedgerEntryRequest entry) {
             this.bookieIndex = bookieIndex;
             this.to = to;
             this.entry = entry;
+            this.sentTimeNanos = MathUtils.nowInNano();
         }
 
         @Override
@@ -590,6 +653,8 @@ class PendingReadOp implements ReadEntryCallback, Runnable {
         final ReadContext rctx = (ReadContext) ctx;
         final LedgerEntryRequest entry = rctx.entry;
 
+        recordReadLatency(rctx, rc);
+
         if (rc != BKException.Code.OK) {
             entry.logErrorAndReattemptRead(rctx.bookieIndex, rctx.to, "Error: " + BKException.getMessage(rc), rc);
             return;
@@ -616,6 +681,24 @@ class PendingReadOp implements ReadEntryCallback, Runnable {
         }
     }
 
+    /**
+     * Record the read latency of the bookie, when tracked. A read failing for any other reason than a missing
+     * entry or ledger counts as at least the read timeout, so that a failing or unresponsive bookie never looks
+     * faster than the bookies serving the reads.
+     */
+    private void recordReadLatency(ReadContext rctx, int rc) {
+        if (!clientCtx.getConf().bookieLatencyTracker.isPresent()) {
+            return;
+        }
+        long latencyNanos = MathUtils.elapsedNanos(rctx.sentTimeNanos);
+        if (BKException.Code.OK != rc
+                && BKException.Code.NoSuchEntryException != rc
+                && BKException.Code.NoSuchLedgerExistsException != rc) {
+            latencyNanos = Math.max(latencyNanos, clientCtx.getConf().readEntryTimeoutNanos);
+        }
+        clientCtx.getConf().bookieLatencyTracker.get().recordReadLatency(rctx.to, latencyNanos);
+    }
+
     protected void submitCallback(int code) {
         if (BKException.Code.OK == code) {
             numPendingEntries--;
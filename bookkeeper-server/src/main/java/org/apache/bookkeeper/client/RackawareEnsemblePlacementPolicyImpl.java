@@ -320,7 +320,7 @@ public class RackawareEnsemblePlacementPolicyImpl extends TopologyAwareEnsembleP
         Set<BookieId> comprehensiveExclusionBookiesSet;
         if (enforceMinNumRacksPerWriteQuorum) {
             Set<BookieId> bookiesInDefaultRack = null;
-            Set<Node> defaultRackLeaves = topology.getLeaves(getDefaultRack());
+            List<Node> defaultRackLeaves = topology.getSnapshot().getLeaves(getDefaultRack());
             for (Node node : defaultRackLeaves) {
                 if (node instanceof BookieNode) {
                     if (bookiesInDefaultRack == null) {
@@ -399,7 +399,7 @@ public class RackawareEnsemblePlacementPolicyImpl extends TopologyAwareEnsembleP
                             parentPredicate,
                             minNumRacksPerWriteQuorumForThisEnsemble);
             BookieNode prevNode = null;
-            int numRacks = topology.getNumOfRacks();
+            int numRacks = topology.getSnapshot().getNumOfRacks();
             // only one rack, use the random algorithm.
             if (numRacks < 2) {
                 if (enforceMinNumRacksPerWriteQuorum && (minNumRacksPerWriteQuorumForThisEnsemble > 1)) {
@@ -647,38 +647,36 @@ public class RackawareEnsemblePlacementPolicyImpl extends TopologyAwareEnsembleP
      */
     protected BookieNode selectRandomFromRack(String netPath, Set<Node> excludeBookies, Predicate<BookieNode> predicate,
             Ensemble<BookieNode> ensemble) throws BKNotEnoughBookiesException {
-        WeightedRandomSelection<BookieNode> wRSelection = null;
-        List<Node> leaves = new ArrayList<Node>(topology.getLeaves(netPath));
         if (!this.isWeighted) {
-            Collections.shuffle(leaves);
-        } else {
-            if (CollectionUtils.subtract(leaves, excludeBookies).size() < 1) {
+            // pick straight from the topology snapshot, without copying nor shuffling the leaves of the rack
+            Node n = topology.getSnapshot().chooseRandom(netPath, node -> !excludeBookies.contains(node)
+                    && node instanceof BookieNode && predicate.apply((BookieNode) node, ensemble));
+            if (null == n) {
                 throw new BKNotEnoughBookiesException();
             }
-            wRSelection = prepareForWeightedSelection(leaves);
-            if (wRSelection == null) {
-                throw new BKNotEnoughBookiesException();
+            BookieNode bn = (BookieNode) n;
+            if (ensemble.addNode(bn)) {
+                excludeBookies.add(bn);
             }
+            return bn;
+        }
+        List<Node> leaves = new ArrayList<Node>(topology.getLeaves(netPath));
+        if (CollectionUtils.subtract(leaves, excludeBookies).size() < 1) {
+            throw new BKNotEnoughBookiesException();
+        }
+        WeightedRandomSelection<BookieNode> wRSelection = prepareForWeightedSelection(leaves);
+        if (wRSelection == null) {
+            throw new BKNotEnoughBookiesException();
         }
 
-        Iterator<Node> it = leaves.iterator();
         Set<Node> bookiesSeenSoFar = new HashSet<Node>();
         while (true) {
-            Node n;
-            if (isWeighted) {
-                if (bookiesSeenSoFar.size() == leaves.size()) {
-                    // Don't loop infinitely.
-                    break;
-                }
-                n = wRSelection.getNextRandom();
-                bookiesSeenSoFar.add(n);
-            } else {
-                if (it.hasNext()) {
-                    n = it.next();
-                } else {
-                    break;
-                }
+            if (bookiesSeenSoFar.size() == leaves.size()) {
+                // Don't loop infinitely.
+                break;
             }
+            Node n = wRSelection.getNextRandom();
+            bookiesSeenSoFar.add(n);
             if (excludeBookies.contains(n)) {
                 continue;
             }
@@ -0,0 +1,62 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.client;
+
+import java.util.List;
+import org.apache.bookkeeper.conf.ClientConfiguration;
+import org.apache.bookkeeper.net.BookieId;
+
+/**
+ * Select the replica an entry read is sent to first.
+ *
+ * <p>The selector runs after the {@link EnsemblePlacementPolicy} computed the read sequence (see
+ * {@link EnsemblePlacementPolicy#reorderReadSequence(List, BookiesHealthInfo, DistributionSchedule.WriteSet)}),
+ * so the sequence already reflects locality and failure history. The selector only decides which replica
+ * leads the sequence, based on the load of the bookies; the remaining replicas are used for speculative
+ * reads and retries in the order they appear.
+ *
+ * <p>Implementations must be thread safe: the same instance is shared by all the ledgers of a client.
+ */
+public interface ReadReplicaSelector {
+
+    /**
+     * Initialize the selector.
+     *
+     * @param conf client configuration
+     * @return the initialized selector
+     */
+    ReadReplicaSelector initialize(ClientConfiguration conf);
+
+    /**
+     * Move the replica that should serve the read to the first position of <i>readSet</i>.
+     *
+     * @param ensemble
+     *          ensemble of the entry
+     * @param bookiesHealthInfo
+     *          load and health of the bookies
+     * @param readSet
+     *          read sequence computed by the placement policy
+     * @return the read sequence to use
+     */
+    DistributionSchedule.WriteSet selectReplica(List<BookieId> ensemble,
+                                                BookiesHealthInfo bookiesHealthInfo,
+                                                DistributionSchedule.WriteSet readSet);
+}
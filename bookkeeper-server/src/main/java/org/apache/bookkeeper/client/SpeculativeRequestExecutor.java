@@ -21,6 +21,7 @@
 package org.apache.bookkeeper.client;
 
 import com.google.common.util.concurrent.ListenableFuture;
+import org.apache.bookkeeper.net.BookieId;
 
 /**
  * Define an executor for issuing speculative requests.
@@ -39,4 +40,15 @@ public interface SpeculativeRequestExecutor {
      * @return whether more speculative requests should be issued
      */
     ListenableFuture<Boolean> issueSpeculativeRequest();
+
+    /**
+     * Return the bookie the most recent request was sent to, if known.
+     *
+     * <p>Latency driven policies use it to decide how long to wait before speculating.
+     *
+     * @return the bookie that the pending request is waiting on, or null if unknown
+     */
+    default BookieId getPendingRequestTarget() {
+        return null;
+    }
 }
@@ -0,0 +1,75 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.bookkeeper.client.api;
+
+import java.util.concurrent.CompletableFuture;
+import org.apache.bookkeeper.common.annotation.InterfaceAudience.Public;
+import org.apache.bookkeeper.common.annotation.InterfaceStability.Unstable;
+import org.apache.bookkeeper.common.concurrent.FutureUtils;
+
+/**
+ * An in-order stream of the entries of a ledger range, prefetched within a bounded window.
+ *
+ * <p>The stream keeps reading ahead of the consumer, up to a maximum number of entries and bytes
+ * that have been requested or read but not consumed yet. Entries are delivered in order of entry id,
+ * regardless of the order in which the bookies respond. Consuming an entry makes room in the window,
+ * which triggers the next reads.
+ *
+ * <p>Each {@link LedgerEntry} returned by the stream is owned by the caller, who must {@link LedgerEntry#close()}
+ * it once consumed. Consuming an entry means retrieving its future with {@link #nextAsync()}, which may be
+ * called again before the previous future completed.
+ *
+ * @see ReadHandle#readStream(long, long, int, long)
+ * @since 4.16
+ */
+@Public
+@Unstable
+public interface LedgerEntryStream extends AutoCloseable {
+
+    /**
+     * Return true if there is at least one entry left to consume.
+     *
+     * @return true if there is at least one entry left to consume.
+     */
+    boolean hasNext();
+
+    /**
+     * Get the next entry asynchronously.
+     *
+     * <p>If the entry failed to be read, the future completes exceptionally with the read error.
+     *
+     * @return an handle to the next entry
+     */
+    CompletableFuture<LedgerEntry> nextAsync();
+
+    /**
+     * Get the next entry synchronously.
+     *
+     * @return the next entry
+     * @see #nextAsync()
+     */
+    default LedgerEntry next() throws BKException, InterruptedException {
+        return FutureUtils.<LedgerEntry, BKException>result(nextAsync(), BKException.HANDLER);
+    }
+
+    /**
+     * Stop prefetching and release the entries read but not consumed yet.
+     */
+    @Override
+    void close();
+}
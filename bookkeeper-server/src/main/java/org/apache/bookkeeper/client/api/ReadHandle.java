@@ -21,6 +21,7 @@
 package org.apache.bookkeeper.client.api;
 
 import java.util.concurrent.CompletableFuture;
+import org.apache.bookkeeper.client.impl.LedgerEntryStreamImpl;
 import org.apache.bookkeeper.common.annotation.InterfaceAudience.Public;
 import org.apache.bookkeeper.common.annotation.InterfaceStability.Unstable;
 import org.apache.bookkeeper.common.concurrent.FutureUtils;
@@ -59,6 +60,34 @@ public interface ReadHandle extends Handle {
                                                               BKException.HANDLER);
     }
 
+    /**
+     * Stream a sequence of entries, prefetching them within a bounded window.
+     *
+     * <p>Unlike {@link #readAsync(long, long)}, which completes once every entry of the range has been
+     * read, the stream delivers each entry as soon as it and all the entries before it are available, and
+     * never holds more than <i>maxEntriesInFlight</i> entries or (roughly) <i>maxBytesInFlight</i> bytes
+     * that the caller has not consumed yet. This makes it suitable to scan large ranges, up to a whole
+     * ledger, without chunking them manually.
+     *
+     * <p>The same rules as {@link #readAsync(long, long)} apply to each entry, in particular entries
+     * must be below the LastAddConfirmed.
+     *
+     * @param firstEntry
+     *          id of first entry of sequence
+     * @param lastEntry
+     *          id of last entry of sequence, inclusive
+     * @param maxEntriesInFlight
+     *          maximum number of entries being read or buffered ahead of the consumer
+     * @param maxBytesInFlight
+     *          maximum number of bytes buffered ahead of the consumer
+     * @return a stream over the entries
+     * @since 4.16
+     */
+    default LedgerEntryStream readStream(long firstEntry, long lastEntry,
+                                         int maxEntriesInFlight, long maxBytesInFlight) {
+        return new LedgerEntryStreamImpl(this, firstEntry, lastEntry, maxEntriesInFlight, maxBytesInFlight);
+    }
+
     /**
      * Read a sequence of entries asynchronously, allowing to read after the LastAddConfirmed range.
      * <br>This is the same of
@@ -0,0 +1,186 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.client.impl;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import org.apache.bookkeeper.client.api.LedgerEntries;
+import org.apache.bookkeeper.client.api.LedgerEntry;
+import org.apache.bookkeeper.client.api.LedgerEntryStream;
+import org.apache.bookkeeper.client.api.ReadHandle;
+import org.apache.bookkeeper.common.concurrent.FutureUtils;
+
+/**
+ * A {@link LedgerEntryStream} reading batches of consecutive entries on a {@link ReadHandle}.
+ *
+ * <p>Each batch is a single range read, whose entries are still read in parallel across the ensemble, and
+ * several batches are in flight at once, so that the next batches are being read while the consumer goes
+ * through the previous ones. Entries are delivered as soon as their batch completes, so a slow entry only
+ * delays the delivery of the entries of its batch and after it.
+ *
+ * <p>A batch is issued as long as the entries pending or buffered, including the batch, don't exceed
+ * {@code maxEntriesInFlight}, and the buffered entries take less than {@code maxBytesInFlight} bytes. At
+ * least one batch is always outstanding, so that an entry larger than the byte window can still be read.
+ */
+public class LedgerEntryStreamImpl implements LedgerEntryStream {
+
+    /**
+     * Max number of entries read by a single range read, unless the window is smaller than two batches.
+     */
+    public static final int DEFAULT_MAX_ENTRIES_PER_READ = 64;
+
+    private final ReadHandle handle;
+    private final long lastEntry;
+    private final int maxEntriesInFlight;
+    private final long maxBytesInFlight;
+    private final int maxEntriesPerRead;
+
+    // entries read or being read, and not consumed yet, in entry id order
+    private final ArrayDeque<CompletableFuture<LedgerEntry>> window;
+    private long nextEntryToRead;
+    private long nextEntryToDeliver;
+    private long bytesBuffered = 0;
+    private boolean closed = false;
+
+    public LedgerEntryStreamImpl(ReadHandle handle, long firstEntry, long lastEntry,
+                                 int maxEntriesInFlight, long maxBytesInFlight) {
+        // with at least two batches in the window, a batch is read while the previous one is consumed
+        this(handle, firstEntry, lastEntry, maxEntriesInFlight, maxBytesInFlight,
+             Math.max(1, Math.min(DEFAULT_MAX_ENTRIES_PER_READ, maxEntriesInFlight / 2)));
+    }
+
+    public LedgerEntryStreamImpl(ReadHandle handle, long firstEntry, long lastEntry,
+                                 int maxEntriesInFlight, long maxBytesInFlight, int maxEntriesPerRead) {
+        checkArgument(firstEntry >= 0, "Invalid first entry %s", firstEntry);
+        checkArgument(maxEntriesInFlight > 0, "Invalid max entries in flight %s", maxEntriesInFlight);
+        checkArgument(maxBytesInFlight > 0, "Invalid max bytes in flight %s", maxBytesInFlight);
+        checkArgument(maxEntriesPerRead > 0 && maxEntriesPerRead <= maxEntriesInFlight,
+                "Invalid max entries per read %s", maxEntriesPerRead);
+        this.handle = handle;
+        this.lastEntry = lastEntry;
+        this.maxEntriesInFlight = maxEntriesInFlight;
+        this.maxBytesInFlight = maxBytesInFlight;
+        this.maxEntriesPerRead = maxEntriesPerRead;
+        this.window = new ArrayDeque<>(Math.min(maxEntriesInFlight, 1024));
+        this.nextEntryToRead = firstEntry;
+        this.nextEntryToDeliver = firstEntry;
+        fillWindow();
+    }
+
+    @Override
+    public synchronized boolean hasNext() {
+        return !closed && nextEntryToDeliver <= lastEntry;
+    }
+
+    @Override
+    public CompletableFuture<LedgerEntry> nextAsync() {
+        CompletableFuture<LedgerEntry> next;
+        synchronized (this) {
+            if (closed) {
+                return FutureUtils.exception(new IllegalStateException("Ledger entry stream is closed"));
+            }
+            if (nextEntryToDeliver > lastEntry) {
+                return FutureUtils.exception(new NoSuchElementException());
+            }
+            next = window.poll();
+            nextEntryToDeliver++;
+            fillWindow();
+        }
+        return next.thenApply(entry -> {
+            synchronized (LedgerEntryStreamImpl.this) {
+                bytesBuffered -= entry.getLength();
+            }
+            fillWindow();
+            return entry;
+        });
+    }
+
+    private void fillWindow() {
+        synchronized (this) {
+            while (!closed && nextEntryToRead <= lastEntry) {
+                int numEntries = (int) Math.min(maxEntriesPerRead, lastEntry - nextEntryToRead + 1);
+                if (!window.isEmpty()
+                        && (window.size() + numEntries > maxEntriesInFlight || bytesBuffered >= maxBytesInFlight)) {
+                    return;
+                }
+                readEntries(nextEntryToRead, numEntries);
+                nextEntryToRead += numEntries;
+            }
+        }
+    }
+
+    private void readEntries(long firstEntryId, int numEntries) {
+        List<CompletableFuture<LedgerEntry>> results = new ArrayList<>(numEntries);
+        for (int i = 0; i < numEntries; i++) {
+            CompletableFuture<LedgerEntry> result = new CompletableFuture<>();
+            results.add(result);
+            window.add(result);
+        }
+        handle.readAsync(firstEntryId, firstEntryId + numEntries - 1).whenComplete((entries, cause) -> {
+            if (null != cause) {
+                results.forEach(result -> result.completeExceptionally(cause));
+                return;
+            }
+            List<LedgerEntry> read = new ArrayList<>(numEntries);
+            try (LedgerEntries ignored = entries) {
+                for (int i = 0; i < numEntries; i++) {
+                    read.add(entries.getEntry(firstEntryId + i).duplicate());
+                }
+            }
+            boolean isClosed;
+            synchronized (LedgerEntryStreamImpl.this) {
+                isClosed = closed;
+                if (!isClosed) {
+                    read.forEach(entry -> bytesBuffered += entry.getLength());
+                }
+            }
+            for (int i = 0; i < numEntries; i++) {
+                if (isClosed) {
+                    read.get(i).close();
+                    results.get(i).completeExceptionally(
+                            new IllegalStateException("Ledger entry stream is closed"));
+                } else {
+                    results.get(i).complete(read.get(i));
+                }
+            }
+        });
+    }
+
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            // release the entries already buffered; the pending reads release their entries on completion
+            for (CompletableFuture<LedgerEntry> read : window) {
+                read.thenAccept(LedgerEntry::close);
+            }
+            window.clear();
+        }
+    }
+}
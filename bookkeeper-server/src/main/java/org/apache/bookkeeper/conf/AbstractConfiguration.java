@@ -84,6 +84,8 @@ public abstract class AbstractConfiguration<T extends AbstractConfiguration>
     protected static final String METADATA_SERVICE_URI = "metadataServiceUri";
     protected static final String ZK_LEDGERS_ROOT_PATH = "zkLedgersRootPath";
     protected static final String ZK_REQUEST_RATE_LIMIT = "zkRequestRateLimit";
+    protected static final String ZK_LEDGER_ITERATION_MAX_IN_FLIGHT_REQUESTS = "zkLedgerIterationMaxInFlightRequests";
+    protected static final String ZK_LEDGER_ITERATION_PARALLELISM = "zkLedgerIterationParallelism";
     protected static final String AVAILABLE_NODE = "available";
     protected static final String REREPLICATION_ENTRY_BATCH_SIZE = "rereplicationEntryBatchSize";
     protected static final String STORE_SYSTEMTIME_AS_LEDGER_UNDERREPLICATED_MARK_TIME =
@@ -188,6 +190,13 @@ public abstract class AbstractConfiguration<T extends AbstractConfiguration>
     public static final String LIMIT_STATS_LOGGING = "limitStatsLogging";
 
     protected static final String REPLICATION_RATE_BY_BYTES = "replicationRateByBytes";
+    protected static final String REPLICATION_MAX_IN_FLIGHT_BYTES = "replicationMaxInFlightBytes";
+    protected static final String REPLICATION_READ_BATCH_SIZE = "replicationReadBatchSize";
+    protected static final String REPLICATION_BOOKIE_TO_BOOKIE_COPY_ENABLED = "replicationBookieToBookieCopyEnabled";
+    protected static final String REPLICATION_BOOKIE_TO_BOOKIE_COPY_TIMEOUT_SEC =
+        "replicationBookieToBookieCopyTimeoutSec";
+    protected static final String REPLICATION_BOOKIE_TO_BOOKIE_COPY_CHUNK_SIZE_BYTES =
+        "replicationBookieToBookieCopyChunkSizeBytes";
 
     protected AbstractConfiguration() {
         super();
@@ -467,6 +476,9 @@ public abstract class AbstractConfiguration<T extends AbstractConfiguration>
     /**
      * Set Ledger metadata format version.
      *
+     * <p>Version 4 is a compact binary format which is only understood by 4.16+ clients and bookies,
+     * so it should only be enabled once the whole cluster has been upgraded.
+     *
      * @param metadataFormatVersion
      *          Ledger metadata format version. pass -1 to use default version
      */
@@ -577,6 +589,50 @@ public abstract class AbstractConfiguration<T extends AbstractConfiguration>
         setProperty(ZK_REQUEST_RATE_LIMIT, rateLimit);
     }
 
+    /**
+     * Get the max number of zookeeper requests kept in flight to prefetch the ledger ranges returned by
+     * the iterators of the hierarchical ledger managers.
+     *
+     * @return max number of in flight requests, 1 to walk the znode tree sequentially.
+     */
+    public int getZkLedgerIterationMaxInFlightRequests() {
+        return getInt(ZK_LEDGER_ITERATION_MAX_IN_FLIGHT_REQUESTS, 1);
+    }
+
+    /**
+     * Set the max number of zookeeper requests kept in flight to prefetch the ledger ranges returned by
+     * the iterators of the hierarchical ledger managers. Ranges are still returned in ledger id order;
+     * at most this number of subtrees are listed ahead of the consumer.
+     *
+     * @param maxInFlightRequests
+     *          max number of in flight requests, 1 to walk the znode tree sequentially.
+     */
+    public void setZkLedgerIterationMaxInFlightRequests(int maxInFlightRequests) {
+        setProperty(ZK_LEDGER_ITERATION_MAX_IN_FLIGHT_REQUESTS, maxInFlightRequests);
+    }
+
+    /**
+     * Get the number of top level subtrees of the hierarchical ledger managers processed concurrently
+     * when processing all the ledgers.
+     *
+     * @return number of subtrees processed concurrently.
+     */
+    public int getZkLedgerIterationParallelism() {
+        return getInt(ZK_LEDGER_ITERATION_PARALLELISM, 1);
+    }
+
+    /**
+     * Set the number of top level subtrees of the hierarchical ledger managers processed concurrently
+     * when processing all the ledgers. With a value greater than 1, the ledger processor is invoked
+     * concurrently for ledgers of disjoint subtrees, so it must be thread safe.
+     *
+     * @param parallelism
+     *          number of subtrees processed concurrently.
+     */
+    public void setZkLedgerIterationParallelism(int parallelism) {
+        setProperty(ZK_LEDGER_ITERATION_PARALLELISM, parallelism);
+    }
+
     /**
      * Are z-node created with strict ACLs.
      *
@@ -1236,6 +1292,129 @@ public abstract class AbstractConfiguration<T extends AbstractConfiguration>
         return getThis();
     }
 
+    /**
+     * Get the max number of bytes read from the surviving replicas and not yet written to the new bookies
+     * while re-replicating a ledger fragment.
+     * Default value is 0, which replicates fragments in batches of {@link #getRereplicationEntryBatchSize()}
+     * entries, waiting for a batch to complete before starting the next one.
+     *
+     * @return max number of bytes in flight per replicated fragment.
+     */
+    public long getReplicationMaxInFlightBytes() {
+        return getLong(REPLICATION_MAX_IN_FLIGHT_BYTES, 0);
+    }
+
+    /**
+     * Set the max number of bytes read from the surviving replicas and not yet written to the new bookies
+     * while re-replicating a ledger fragment. When positive, reads and writes of a fragment are pipelined:
+     * new entries are read as soon as the written ones are acknowledged, within this window.
+     *
+     * @param maxInFlightBytes max number of bytes in flight per replicated fragment.
+     *
+     * @return ClientConfiguration
+     */
+    public T setReplicationMaxInFlightBytes(long maxInFlightBytes) {
+        this.setProperty(REPLICATION_MAX_IN_FLIGHT_BYTES, maxInFlightBytes);
+        return getThis();
+    }
+
+    /**
+     * Get the number of entries read with a single read request when replicating a ledger fragment
+     * with pipelining enabled.
+     *
+     * @return number of entries per read request.
+     */
+    public int getReplicationReadBatchSize() {
+        return getInt(REPLICATION_READ_BATCH_SIZE, 16);
+    }
+
+    /**
+     * Set the number of entries read with a single read request when replicating a ledger fragment
+     * with pipelining enabled.
+     *
+     * @param readBatchSize number of entries per read request.
+     *
+     * @return ClientConfiguration
+     */
+    public T setReplicationReadBatchSize(int readBatchSize) {
+        this.setProperty(REPLICATION_READ_BATCH_SIZE, readBatchSize);
+        return getThis();
+    }
+
+    /**
+     * Whether fragments are re-replicated by asking the new bookies to copy the entries straight from
+     * the surviving replicas, instead of reading them through the client and adding them back.
+     *
+     * @return true if bookie to bookie copy is enabled.
+     */
+    public boolean isReplicationBookieToBookieCopyEnabled() {
+        return getBoolean(REPLICATION_BOOKIE_TO_BOOKIE_COPY_ENABLED, false);
+    }
+
+    /**
+     * Enable or disable bookie to bookie copy when re-replicating a ledger fragment. The target bookies
+     * pull the entries of the fragment from the surviving replicas and write them directly to their ledger
+     * storage. If the copy fails, the fragment is replicated through the client as usual.
+     *
+     * <p>All the bookies of the cluster must support the copy protocol before enabling it. Ledgers with a
+     * MAC digest are always replicated through the client, since the password of a ledger is never sent to
+     * the bookies.
+     *
+     * @param enabled flag to enable bookie to bookie copy.
+     *
+     * @return ClientConfiguration
+     */
+    public T setReplicationBookieToBookieCopyEnabled(boolean enabled) {
+        this.setProperty(REPLICATION_BOOKIE_TO_BOOKIE_COPY_ENABLED, enabled);
+        return getThis();
+    }
+
+    /**
+     * Get the timeout of a single bookie to bookie copy request, in seconds.
+     *
+     * @return copy request timeout in seconds.
+     */
+    public int getReplicationBookieToBookieCopyTimeoutSec() {
+        return getInt(REPLICATION_BOOKIE_TO_BOOKIE_COPY_TIMEOUT_SEC, 600);
+    }
+
+    /**
+     * Set the timeout of a single bookie to bookie copy request. A copy request covers a whole fragment,
+     * so it should be much longer than the read timeout.
+     *
+     * @param timeoutSec copy request timeout in seconds.
+     *
+     * @return ClientConfiguration
+     */
+    public T setReplicationBookieToBookieCopyTimeoutSec(int timeoutSec) {
+        this.setProperty(REPLICATION_BOOKIE_TO_BOOKIE_COPY_TIMEOUT_SEC, timeoutSec);
+        return getThis();
+    }
+
+    /**
+     * Get the max number of bytes a bookie pulls from another bookie with a single read while copying a
+     * ledger range.
+     *
+     * @return chunk size in bytes.
+     */
+    public int getReplicationBookieToBookieCopyChunkSizeBytes() {
+        return getInt(REPLICATION_BOOKIE_TO_BOOKIE_COPY_CHUNK_SIZE_BYTES, 2 * 1024 * 1024);
+    }
+
+    /**
+     * Set the max number of bytes a bookie pulls from another bookie with a single read while copying a
+     * ledger range. The next chunk is prefetched while the current one is written, so up to two chunks are
+     * held in memory per copy.
+     *
+     * @param chunkSizeBytes chunk size in bytes.
+     *
+     * @return ClientConfiguration
+     */
+    public T setReplicationBookieToBookieCopyChunkSizeBytes(int chunkSizeBytes) {
+        this.setProperty(REPLICATION_BOOKIE_TO_BOOKIE_COPY_CHUNK_SIZE_BYTES, chunkSizeBytes);
+        return getThis();
+    }
+
     /**
      * Trickery to allow inheritance with fluent style.
      */
@@ -111,10 +111,14 @@ public class ClientConfiguration extends AbstractConfiguration<ClientConfigurati
     protected static final String MAX_SPECULATIVE_READ_LAC_TIMEOUT = "maxSpeculativeReadLACTimeout";
     protected static final String SPECULATIVE_READ_LAC_TIMEOUT_BACKOFF_MULTIPLIER =
         "speculativeReadLACTimeoutBackoffMultiplier";
+    protected static final String LATENCY_AWARE_SPECULATIVE_READ_ENABLED = "latencyAwareSpeculativeReadEnabled";
+    protected static final String SPECULATIVE_READ_LATENCY_PERCENTILE = "speculativeReadLatencyPercentile";
     protected static final String ENABLE_PARALLEL_RECOVERY_READ = "enableParallelRecoveryRead";
     protected static final String RECOVERY_READ_BATCH_SIZE = "recoveryReadBatchSize";
     protected static final String REORDER_READ_SEQUENCE_ENABLED = "reorderReadSequenceEnabled";
     protected static final String STICKY_READS_ENABLED = "stickyReadSEnabled";
+    protected static final String READ_REPLICA_SELECTOR_CLASS = "readReplicaSelectorClass";
+    protected static final String READ_REPLICA_SELECTOR_LOCALITY_PENALTY = "readReplicaSelectorLocalityPenalty";
     // Add Parameters
     protected static final String OPPORTUNISTIC_STRIPING = "opportunisticStriping";
     protected static final String DELAY_ENSEMBLE_CHANGE = "delayEnsembleChange";
@@ -142,6 +146,7 @@ public class ClientConfiguration extends AbstractConfiguration<ClientConfigurati
 
     // Bookie info poll interval
     protected static final String DISK_WEIGHT_BASED_PLACEMENT_ENABLED = "diskWeightBasedPlacementEnabled";
+    protected static final String LOAD_BASED_PLACEMENT_ENABLED = "loadBasedPlacementEnabled";
     protected static final String GET_BOOKIE_INFO_INTERVAL_SECONDS = "getBookieInfoIntervalSeconds";
     protected static final String GET_BOOKIE_INFO_RETRY_INTERVAL_SECONDS = "getBookieInfoRetryIntervalSeconds";
     protected static final String BOOKIE_MAX_MULTIPLE_FOR_WEIGHTED_PLACEMENT =
@@ -172,6 +177,8 @@ public class ClientConfiguration extends AbstractConfiguration<ClientConfigurati
 
     // Discovery
     protected static final String FOLLOW_BOOKIE_ADDRESS_TRACKING = "enableBookieAddressTracking";
+    protected static final String SHARED_BOOKIE_MEMBERSHIP_ENABLED = "sharedBookieMembershipEnabled";
+    protected static final String BOOKIE_MEMBERSHIP_CHANGE_COALESCE_MS = "bookieMembershipChangeCoalesceMs";
 
     // Names of dynamic features
     protected static final String DISABLE_ENSEMBLE_CHANGE_FEATURE_NAME = "disableEnsembleChangeFeatureName";
@@ -1037,6 +1044,59 @@ public class ClientConfiguration extends AbstractConfiguration<ClientConfigurati
         return this;
     }
 
+    /**
+     * Whether speculative reads are driven by the latency observed on each bookie.
+     *
+     * @return true if latency aware speculative reads are enabled, otherwise false.
+     */
+    public boolean isLatencyAwareSpeculativeReadEnabled() {
+        return getBoolean(LATENCY_AWARE_SPECULATIVE_READ_ENABLED, false);
+    }
+
+    /**
+     * Enable/disable latency aware speculative reads.
+     *
+     * <p>If this flag is enabled, the client keeps a latency histogram per bookie and sends the speculative
+     * read once the pending read has been outstanding for longer than
+     * {@link #getSpeculativeReadLatencyPercentile()} of the latency of the bookie it was sent to. The next
+     * replica to read from is the one with the lowest median latency. Until enough samples were collected
+     * for a bookie, {@link #getFirstSpeculativeReadTimeout()}, {@link #getMaxSpeculativeReadTimeout()} and
+     * {@link #getSpeculativeReadTimeoutBackoffMultiplier()} are used. {@link #getMaxSpeculativeReadTimeout()}
+     * always bounds the timeout.
+     *
+     * <p>Speculative reads still need to be enabled with a positive {@link #getFirstSpeculativeReadTimeout()}.
+     *
+     * @param enabled the flag to enable/disable latency aware speculative reads.
+     * @return client configuration.
+     */
+    public ClientConfiguration setLatencyAwareSpeculativeReadEnabled(boolean enabled) {
+        setProperty(LATENCY_AWARE_SPECULATIVE_READ_ENABLED, enabled);
+        return this;
+    }
+
+    /**
+     * Get the percentile of the bookie read latency after which a speculative read is sent,
+     * when latency aware speculative reads are enabled.
+     *
+     * @return speculative read latency percentile. Default 95.
+     */
+    public double getSpeculativeReadLatencyPercentile() {
+        return getDouble(SPECULATIVE_READ_LATENCY_PERCENTILE, 95.0);
+    }
+
+    /**
+     * Set the percentile of the bookie read latency after which a speculative read is sent,
+     * when latency aware speculative reads are enabled.
+     *
+     * @param percentile
+     *          percentile between 0 (exclusive) and 100.
+     * @return client configuration.
+     */
+    public ClientConfiguration setSpeculativeReadLatencyPercentile(double percentile) {
+        setProperty(SPECULATIVE_READ_LATENCY_PERCENTILE, percentile);
+        return this;
+    }
+
     /**
      * Get the period of time after which the first speculative read last add confirmed and entry
      * should be triggered.
@@ -1197,6 +1257,57 @@ public class ClientConfiguration extends AbstractConfiguration<ClientConfigurati
         return this;
     }
 
+    /**
+     * Get the class name of the {@link org.apache.bookkeeper.client.ReadReplicaSelector} choosing the
+     * replica each entry read is sent to first.
+     *
+     * @return read replica selector class name, or null if reads follow the placement policy sequence.
+     */
+    public String getReadReplicaSelectorClass() {
+        return getString(READ_REPLICA_SELECTOR_CLASS, null);
+    }
+
+    /**
+     * Set the class name of the {@link org.apache.bookkeeper.client.ReadReplicaSelector} choosing the
+     * replica each entry read is sent to first, e.g.
+     * {@link org.apache.bookkeeper.client.LeastLoadedReadReplicaSelector}.
+     *
+     * <p>The selector is applied after the read sequence has been computed by the placement policy and is
+     * not used when sticky reads are enabled.
+     *
+     * @param selectorClass read replica selector class name.
+     * @return client configuration instance.
+     */
+    public ClientConfiguration setReadReplicaSelectorClass(String selectorClass) {
+        setProperty(READ_REPLICA_SELECTOR_CLASS, selectorClass);
+        return this;
+    }
+
+    /**
+     * Get the cost penalty applied by
+     * {@link org.apache.bookkeeper.client.LeastLoadedReadReplicaSelector} for each position a replica
+     * is behind in the read sequence computed by the placement policy.
+     *
+     * @return locality penalty. Default 0.5.
+     */
+    public double getReadReplicaSelectorLocalityPenalty() {
+        return getDouble(READ_REPLICA_SELECTOR_LOCALITY_PENALTY, 0.5);
+    }
+
+    /**
+     * Set the cost penalty applied by
+     * {@link org.apache.bookkeeper.client.LeastLoadedReadReplicaSelector} for each position a replica
+     * is behind in the read sequence computed by the placement policy. A value of 0 ignores locality and
+     * only balances the load.
+     *
+     * @param penalty locality penalty.
+     * @return client configuration instance.
+     */
+    public ClientConfiguration setReadReplicaSelectorLocalityPenalty(double penalty) {
+        setProperty(READ_REPLICA_SELECTOR_LOCALITY_PENALTY, penalty);
+        return this;
+    }
+
     /**
      * Get Ensemble Placement Policy Class.
      *
@@ -1515,6 +1626,20 @@ public class ClientConfiguration extends AbstractConfiguration<ClientConfigurati
         return getBoolean(DISK_WEIGHT_BASED_PLACEMENT_ENABLED, false);
     }
 
+    /**
+     * Return whether the weight based placement also accounts for the load of the bookies.
+     *
+     * <p>When enabled, bookies also report their journal queue length, add latency and read cache miss
+     * ratio, and the free disk space based weight of the bookies that are more loaded than the rest of the
+     * cluster is reduced. Only effective with disk weight based placement, and the load is only as fresh
+     * as the last bookie info poll, see {@link #getGetBookieInfoIntervalSeconds()}.
+     *
+     * @return true if load based placement is enabled
+     */
+    public boolean getLoadBasedPlacementEnabled() {
+        return getBoolean(LOAD_BASED_PLACEMENT_ENABLED, false);
+    }
+
     /**
      * Returns the max multiple to use for nodes with very high weight.
      * @return max multiple
@@ -1550,6 +1675,18 @@ public class ClientConfiguration extends AbstractConfiguration<ClientConfigurati
         return this;
     }
 
+    /**
+     * Set whether the weight based placement also accounts for the load of the bookies.
+     *
+     * @param isEnabled - boolean indicating enabled or not
+     * @return client configuration
+     * @see #getLoadBasedPlacementEnabled()
+     */
+    public ClientConfiguration setLoadBasedPlacementEnabled(boolean isEnabled) {
+        setProperty(LOAD_BASED_PLACEMENT_ENABLED, isEnabled);
+        return this;
+    }
+
     /**
      * Set the time interval between successive polls for bookie get info.
      *
@@ -1869,6 +2006,58 @@ public class ClientConfiguration extends AbstractConfiguration<ClientConfigurati
         return this;
     }
 
+    /**
+     * Whether the bookies registered in ZooKeeper are tracked once per JVM and shared by all the clients
+     * connected to the same cluster.
+     *
+     * @return flag to enable/disable the shared bookie membership
+     */
+    public boolean isSharedBookieMembershipEnabled() {
+        return getBoolean(SHARED_BOOKIE_MEMBERSHIP_ENABLED, false);
+    }
+
+    /**
+     * Enable/Disable the shared bookie membership.
+     *
+     * <p>If enabled, the clients of a JVM connected to the same ZooKeeper ensemble and ledgers root path share a
+     * single snapshot of the writable and readonly bookies. The snapshot is updated incrementally from a
+     * persistent recursive watch on the bookie registration path (ZooKeeper 3.6 or later), instead of every
+     * client re-listing the bookies and re-reading their service info on each membership change.
+     *
+     * @param enabled
+     *          flag to enable/disable the shared bookie membership
+     * @return client configuration.
+     */
+    public ClientConfiguration setSharedBookieMembershipEnabled(boolean enabled) {
+        setProperty(SHARED_BOOKIE_MEMBERSHIP_ENABLED, enabled);
+        return this;
+    }
+
+    /**
+     * Get how long changes of the shared bookie membership are coalesced for before the clients are notified.
+     *
+     * @return coalescing delay in milliseconds. Default 100.
+     */
+    public long getBookieMembershipChangeCoalesceMs() {
+        return getLong(BOOKIE_MEMBERSHIP_CHANGE_COALESCE_MS, 100L);
+    }
+
+    /**
+     * Set how long changes of the shared bookie membership are coalesced for before the clients are notified,
+     * so that a burst of bookie registrations and unregistrations results in a single notification.
+     *
+     * <p>Only used when {@link #isSharedBookieMembershipEnabled()} is set, by the first client of the JVM
+     * connecting to the cluster.
+     *
+     * @param coalesceMs
+     *          coalescing delay in milliseconds
+     * @return client configuration.
+     */
+    public ClientConfiguration setBookieMembershipChangeCoalesceMs(long coalesceMs) {
+        setProperty(BOOKIE_MEMBERSHIP_CHANGE_COALESCE_MS, coalesceMs);
+        return this;
+    }
+
     /**
      * Whether to enable bookie failure tracking.
      *
@@ -38,6 +38,7 @@ import org.apache.bookkeeper.common.conf.Type;
 import org.apache.bookkeeper.common.conf.validators.ClassValidator;
 import org.apache.bookkeeper.common.conf.validators.RangeValidator;
 import org.apache.bookkeeper.common.util.ReflectionUtils;
+import org.apache.bookkeeper.common.util.affinity.CpuAffinity;
 import org.apache.bookkeeper.discover.RegistrationManager;
 import org.apache.bookkeeper.discover.ZKRegistrationManager;
 import org.apache.bookkeeper.net.BookieId;
@@ -156,6 +157,8 @@ public class ServerConfiguration extends AbstractConfiguration<ServerConfigurati
     // backpressure control
     protected static final String MAX_ADDS_IN_PROGRESS_LIMIT = "maxAddsInProgressLimit";
     protected static final String MAX_READS_IN_PROGRESS_LIMIT = "maxReadsInProgressLimit";
+    protected static final String MAX_ADD_BYTES_IN_PROGRESS_LIMIT = "maxAddBytesInProgressLimit";
+    protected static final String MAX_READ_BYTES_IN_PROGRESS_LIMIT = "maxReadBytesInProgressLimit";
     protected static final String CLOSE_CHANNEL_ON_RESPONSE_TIMEOUT = "closeChannelOnResponseTimeout";
     protected static final String WAIT_TIMEOUT_ON_RESPONSE_BACKPRESSURE = "waitTimeoutOnResponseBackpressureMs";
 
@@ -203,6 +206,8 @@ public class ServerConfiguration extends AbstractConfiguration<ServerConfigurati
     // Replication parameters
     protected static final String AUDITOR_PERIODIC_CHECK_INTERVAL = "auditorPeriodicCheckInterval";
     protected static final String AUDITOR_PERIODIC_BOOKIE_CHECK_INTERVAL = "auditorPeriodicBookieCheckInterval";
+    protected static final String AUDITOR_INCREMENTAL_INDEX_ENABLED = "auditorIncrementalIndexEnabled";
+    protected static final String AUDITOR_LEDGER_DISCOVERY_INTERVAL = "auditorLedgerDiscoveryInterval";
     protected static final String AUDITOR_PERIODIC_PLACEMENT_POLICY_CHECK_INTERVAL =
                                                                 "auditorPeriodicPlacementPolicyCheckInterval";
     protected static final String REPAIRED_PLACEMENT_POLICY_NOT_ADHERING_BOOKIE_ENABLED =
@@ -211,9 +216,12 @@ public class ServerConfiguration extends AbstractConfiguration<ServerConfigurati
     protected static final String AUTO_RECOVERY_DAEMON_ENABLED = "autoRecoveryDaemonEnabled";
     protected static final String LOST_BOOKIE_RECOVERY_DELAY = "lostBookieRecoveryDelay";
     protected static final String RW_REREPLICATE_BACKOFF_MS = "rwRereplicateBackoffMs";
+    protected static final String RW_NUM_CONCURRENT_LEDGERS = "rwNumConcurrentLedgers";
     protected static final String UNDERREPLICATED_LEDGER_RECOVERY_GRACE_PERIOD =
             "underreplicatedLedgerRecoveryGracePeriod";
     protected static final String AUDITOR_REPLICAS_CHECK_INTERVAL = "auditorReplicasCheckInterval";
+    protected static final String AUDITOR_REPLICAS_CHECK_BATCH_SIZE = "auditorReplicasCheckBatchSize";
+    protected static final String AUDITOR_REPLICAS_CHECK_PARALLELISM = "auditorReplicasCheckParallelism";
     protected static final String AUDITOR_MAX_NUMBER_OF_CONCURRENT_OPEN_LEDGER_OPERATIONS =
         "auditorMaxNumberOfConcurrentOpenLedgerOperations";
     protected static final String AUDITOR_ACQUIRE_CONCURRENT_OPEN_LEDGER_OPERATIONS_TIMEOUT_MSEC =
@@ -229,6 +237,16 @@ public class ServerConfiguration extends AbstractConfiguration<ServerConfigurati
     protected static final String NUM_LONG_POLL_WORKER_THREADS = "numLongPollWorkerThreads";
     protected static final String NUM_HIGH_PRIORITY_WORKER_THREADS = "numHighPriorityWorkerThreads";
     protected static final String READ_WORKER_THREADS_THROTTLING_ENABLED = "readWorkerThreadsThrottlingEnabled";
+    protected static final String WORK_STEALING_WORKER_THREADS_ENABLED = "workStealingWorkerThreadsEnabled";
+    protected static final String READS_BOUNDED_PER_LEDGER_DIR_ENABLED = "readsBoundedPerLedgerDirEnabled";
+    protected static final String MAX_READS_IN_PROGRESS_PER_LEDGER_DIR = "maxReadsInProgressPerLedgerDir";
+    protected static final String READ_WORKER_VIRTUAL_THREADS_ENABLED = "readWorkerVirtualThreadsEnabled";
+    protected static final String THREAD_PER_CORE_ENABLED = "threadPerCoreEnabled";
+    protected static final String REQUEST_TRACE_SAMPLE_EVERY = "requestTraceSampleEvery";
+    protected static final String REQUEST_TRACE_WINDOW_MS = "requestTraceWindowMs";
+    protected static final String MEMORY_BUDGET_LIMIT_BYTES = "memoryBudgetLimitBytes";
+    protected static final String MEMORY_BUDGET_HIGH_WATERMARK = "memoryBudgetHighWatermark";
+    protected static final String MEMORY_BUDGET_LOW_WATERMARK = "memoryBudgetLowWatermark";
 
     // Long poll parameters
     protected static final String REQUEST_TIMER_TICK_DURATION_MILLISEC = "requestTimerTickDurationMs";
@@ -1063,6 +1081,54 @@ public class ServerConfiguration extends AbstractConfiguration<ServerConfigurati
         return this;
     }
 
+    /**
+     * Get max number of bytes of the add requests in progress. 0 == unlimited.
+     *
+     * @return Max number of bytes of the add requests in progress.
+     */
+    public long getMaxAddBytesInProgressLimit() {
+        return this.getLong(MAX_ADD_BYTES_IN_PROGRESS_LIMIT, 0L);
+    }
+
+    /**
+     * Set max number of bytes of the add requests in progress. 0 == unlimited.
+     *
+     * <p>A channel holding more than its fair share of the limit is not read from until its adds complete.
+     *
+     * @param value
+     *          max number of bytes of the add requests in progress.
+     * @return server configuration.
+     */
+    public ServerConfiguration setMaxAddBytesInProgressLimit(long value) {
+        this.setProperty(MAX_ADD_BYTES_IN_PROGRESS_LIMIT, value);
+        return this;
+    }
+
+    /**
+     * Get max number of bytes of the read responses in progress. 0 == unlimited.
+     *
+     * @return Max number of bytes of the read responses in progress.
+     */
+    public long getMaxReadBytesInProgressLimit() {
+        return this.getLong(MAX_READ_BYTES_IN_PROGRESS_LIMIT, 0L);
+    }
+
+    /**
+     * Set max number of bytes of the read responses in progress, i.e. read from the storage and not yet written
+     * to the socket. 0 == unlimited.
+     *
+     * <p>A channel holding more than its fair share of the limit is not read from until its responses are
+     * flushed. Catch-up reads only get 3/4 of the limit, keeping the rest for tailing reads.
+     *
+     * @param value
+     *          max number of bytes of the read responses in progress.
+     * @return server configuration.
+     */
+    public ServerConfiguration setMaxReadBytesInProgressLimit(long value) {
+        this.setProperty(MAX_READ_BYTES_IN_PROGRESS_LIMIT, value);
+        return this;
+    }
+
     /**
      * Configures action in case if server timed out sending response to the client.
      * true == close the channel and drop response
@@ -2024,6 +2090,256 @@ public class ServerConfiguration extends AbstractConfiguration<ServerConfigurati
         return getBoolean(READ_WORKER_THREADS_THROTTLING_ENABLED, true);
     }
 
+    /**
+     * Enable work stealing between the read worker threads, and between the add worker threads.
+     *
+     * <p>By default every ledger is pinned to one worker thread, so a few hot ledgers can saturate their
+     * threads while the other threads idle. With work stealing, the ledger only hints the thread a request
+     * should run on: idle threads steal the requests queued on busy ones. Reads of a ledger may then run
+     * concurrently, while adds of a ledger are still executed one at a time and in order.
+     *
+     * @param enabled
+     *          whether to enable work stealing between worker threads
+     * @return server configuration
+     */
+    public ServerConfiguration setWorkStealingWorkerThreadsEnabled(boolean enabled) {
+        setProperty(WORK_STEALING_WORKER_THREADS_ENABLED, enabled);
+        return this;
+    }
+
+    /**
+     * Get whether work stealing between worker threads is enabled.
+     *
+     * @return true if worker threads steal work from each other
+     */
+    public boolean isWorkStealingWorkerThreadsEnabled() {
+        return getBoolean(WORK_STEALING_WORKER_THREADS_ENABLED, false);
+    }
+
+    /**
+     * Bound the read requests in progress per ledger directory rather than by the number of read worker
+     * threads. Read requests are then executed on a pool of
+     * {@link #getMaxReadsInProgressPerLedgerDir()} threads per ledger directory, so that cold reads blocked on
+     * a disk don't hold back the reads of the other disks, and reads queued beyond
+     * {@link #getMaxPendingReadRequestPerThread()} per ledger directory are rejected.
+     *
+     * <p>High priority reads, long poll reads and the other read-only requests keep running on their
+     * thread pools.
+     *
+     * @param enabled
+     *          whether to bound the read requests in progress per ledger directory
+     * @return server configuration
+     */
+    public ServerConfiguration setReadsBoundedPerLedgerDirEnabled(boolean enabled) {
+        setProperty(READS_BOUNDED_PER_LEDGER_DIR_ENABLED, enabled);
+        return this;
+    }
+
+    /**
+     * Get whether the read requests in progress are bounded per ledger directory.
+     *
+     * @return true if the read requests in progress are bounded per ledger directory
+     */
+    public boolean isReadsBoundedPerLedgerDirEnabled() {
+        return getBoolean(READS_BOUNDED_PER_LEDGER_DIR_ENABLED, false);
+    }
+
+    /**
+     * Set the max number of read requests in progress for each ledger directory, when the read requests in
+     * progress are bounded per ledger directory.
+     *
+     * @param maxReads
+     *          max number of reads in progress per ledger directory
+     * @return server configuration
+     */
+    public ServerConfiguration setMaxReadsInProgressPerLedgerDir(int maxReads) {
+        setProperty(MAX_READS_IN_PROGRESS_PER_LEDGER_DIR, maxReads);
+        return this;
+    }
+
+    /**
+     * Get the max number of read requests in progress for each ledger directory, when the read requests in
+     * progress are bounded per ledger directory (default: 64).
+     *
+     * @return max number of reads in progress per ledger directory
+     */
+    public int getMaxReadsInProgressPerLedgerDir() {
+        return getInt(MAX_READS_IN_PROGRESS_PER_LEDGER_DIR, 64);
+    }
+
+    /**
+     * Execute the read requests bounded per ledger directory on virtual threads rather than on platform
+     * threads. Virtual threads are only supported from JDK 21, older JVMs keep using platform threads.
+     *
+     * <p>Blocking file reads done while holding a monitor, and the calls into RocksDB, pin a virtual thread to
+     * its carrier thread, so the reads of a disk may still hold back the others until JDK 24 lifts the former.
+     *
+     * @param enabled
+     *          whether to execute the read requests bounded per ledger directory on virtual threads
+     * @return server configuration
+     */
+    public ServerConfiguration setReadWorkerVirtualThreadsEnabled(boolean enabled) {
+        setProperty(READ_WORKER_VIRTUAL_THREADS_ENABLED, enabled);
+        return this;
+    }
+
+    /**
+     * Get whether the read requests bounded per ledger directory are executed on virtual threads.
+     *
+     * @return true if the read requests bounded per ledger directory are executed on virtual threads
+     */
+    public boolean isReadWorkerVirtualThreadsEnabled() {
+        return getBoolean(READ_WORKER_VIRTUAL_THREADS_ENABLED, false);
+    }
+
+    /**
+     * Enable the thread-per-core mode of the bookie.
+     *
+     * <p>In this mode the ledgers are sharded across a ledger core thread per IO thread: the add, force and
+     * write LAC requests of a ledger run on the thread owning it, instead of the add worker threads. Reads keep
+     * their own unpinned worker threads, so a slow storage read never holds back the adds of a ledger core thread.
+     * IO threads, ledger core threads and journal threads are pinned to CPU cores, see
+     * {@link org.apache.bookkeeper.common.util.affinity.CpuAffinity}, which requires isolated CPUs:
+     * {@link #validate()} fails if twice the number of IO threads ({@link #setServerNumIOThreads(int)}) plus the
+     * journal threads is more than the number of isolated CPUs.
+     *
+     * <p>High priority and long poll requests keep running on their thread pools.
+     *
+     * @param enabled
+     *          whether to enable the thread-per-core mode
+     * @return server configuration
+     */
+    public ServerConfiguration setThreadPerCoreEnabled(boolean enabled) {
+        setProperty(THREAD_PER_CORE_ENABLED, enabled);
+        return this;
+    }
+
+    /**
+     * Get whether the thread-per-core mode of the bookie is enabled.
+     *
+     * @return true if the thread-per-core mode is enabled
+     */
+    public boolean isThreadPerCoreEnabled() {
+        return getBoolean(THREAD_PER_CORE_ENABLED, false);
+    }
+
+    /**
+     * Set the sampling rate of the request tracing: one add or read request out of <i>sampleEvery</i>
+     * received by each IO thread gets its timestamp stamped at every hop through the bookie (decode,
+     * worker thread queue, ledger storage, journal queue, write and sync, response flush). The per-stage
+     * latency breakdown of the sampled requests is exposed by the {@code /api/v1/bookie/request_trace}
+     * HTTP endpoint.
+     *
+     * @param sampleEvery
+     *          number of requests per traced request, 0 to disable the request tracing
+     * @return server configuration
+     */
+    public ServerConfiguration setRequestTraceSampleEvery(int sampleEvery) {
+        setProperty(REQUEST_TRACE_SAMPLE_EVERY, sampleEvery);
+        return this;
+    }
+
+    /**
+     * Get the sampling rate of the request tracing.
+     *
+     * @return number of requests per traced request, 0 if the request tracing is disabled
+     */
+    public int getRequestTraceSampleEvery() {
+        return getInt(REQUEST_TRACE_SAMPLE_EVERY, 0);
+    }
+
+    /**
+     * Set the length of the sliding window the latencies of the traced requests are aggregated over.
+     *
+     * @param windowMs
+     *          window length in milliseconds
+     * @return server configuration
+     */
+    public ServerConfiguration setRequestTraceWindowMs(long windowMs) {
+        setProperty(REQUEST_TRACE_WINDOW_MS, windowMs);
+        return this;
+    }
+
+    /**
+     * Get the length of the sliding window the latencies of the traced requests are aggregated over.
+     *
+     * @return window length in milliseconds
+     */
+    public long getRequestTraceWindowMs() {
+        return getLong(REQUEST_TRACE_WINDOW_MS, 60000L);
+    }
+
+    /**
+     * Set the direct memory budget shared by the write cache, the read cache, the journal buffers and the
+     * in-flight read responses of the bookie.
+     *
+     * <p>When the memory they use goes above the high watermark of the budget, the read cache is shrunk. If
+     * that isn't enough, the bookie stops reading requests from the network and pauses the read-ahead until
+     * the memory used goes back below the low watermark.
+     *
+     * <p>The write caches and the journal write buffers are allocated upfront: they must fit in the budget, and
+     * the watermarks apply to the memory left once they are taken out.
+     *
+     * @param limitBytes
+     *          budget in bytes, 0 for no budget
+     * @return server configuration
+     */
+    public ServerConfiguration setMemoryBudgetLimitBytes(long limitBytes) {
+        setProperty(MEMORY_BUDGET_LIMIT_BYTES, limitBytes);
+        return this;
+    }
+
+    /**
+     * Get the direct memory budget of the bookie.
+     *
+     * @return budget in bytes, 0 for no budget
+     */
+    public long getMemoryBudgetLimitBytes() {
+        return getLong(MEMORY_BUDGET_LIMIT_BYTES, 0L);
+    }
+
+    /**
+     * Set the fraction of the memory budget above which memory is reclaimed and the bookie is under pressure.
+     *
+     * @param highWatermark
+     *          fraction of the budget
+     * @return server configuration
+     */
+    public ServerConfiguration setMemoryBudgetHighWatermark(double highWatermark) {
+        setProperty(MEMORY_BUDGET_HIGH_WATERMARK, highWatermark);
+        return this;
+    }
+
+    /**
+     * Get the fraction of the memory budget above which memory is reclaimed and the bookie is under pressure.
+     *
+     * @return fraction of the budget
+     */
+    public double getMemoryBudgetHighWatermark() {
+        return getDouble(MEMORY_BUDGET_HIGH_WATERMARK, 0.95);
+    }
+
+    /**
+     * Set the fraction of the memory budget below which the memory pressure is relieved.
+     *
+     * @param lowWatermark
+     *          fraction of the budget
+     * @return server configuration
+     */
+    public ServerConfiguration setMemoryBudgetLowWatermark(double lowWatermark) {
+        setProperty(MEMORY_BUDGET_LOW_WATERMARK, lowWatermark);
+        return this;
+    }
+
+    /**
+     * Get the fraction of the memory budget below which the memory pressure is relieved.
+     *
+     * @return fraction of the budget
+     */
+    public double getMemoryBudgetLowWatermark() {
+        return getDouble(MEMORY_BUDGET_LOW_WATERMARK, 0.85);
+    }
+
 
 
     /**
@@ -2617,6 +2933,53 @@ public class ServerConfiguration extends AbstractConfiguration<ServerConfigurati
         return getLong(AUDITOR_PERIODIC_BOOKIE_CHECK_INTERVAL, 86400);
     }
 
+    /**
+     * Enable the incremental bookie to ledgers index of the auditor.
+     * The auditor keeps the index up to date by watching the metadata of every ledger, so the audit
+     * triggered by a lost bookie only looks up the ledgers of that bookie instead of reading the
+     * metadata of all ledgers. Ensemble changes of closed ledgers are checked against the placement
+     * policy as they happen. The periodic bookie check still does a full scan.
+     *
+     * <p>Every ledger gets a metadata watch, which the metadata store must be sized for.
+     *
+     * @param enabled whether to enable the incremental index.
+     * @return server configuration
+     */
+    public ServerConfiguration setAuditorIncrementalIndexEnabled(boolean enabled) {
+        setProperty(AUDITOR_INCREMENTAL_INDEX_ENABLED, enabled);
+        return this;
+    }
+
+    /**
+     * Whether the auditor maintains an incremental bookie to ledgers index.
+     * @see #setAuditorIncrementalIndexEnabled(boolean)
+     * @return true if the incremental index is enabled. Default is false.
+     */
+    public boolean isAuditorIncrementalIndexEnabled() {
+        return getBoolean(AUDITOR_INCREMENTAL_INDEX_ENABLED, false);
+    }
+
+    /**
+     * Set the interval at which the auditor lists the ledger ids to add the new ledgers to its
+     * incremental index. Only ids are listed, the metadata of the known ledgers is not read again.
+     *
+     * @param interval The interval in seconds.
+     * @return server configuration
+     */
+    public ServerConfiguration setAuditorLedgerDiscoveryInterval(long interval) {
+        setProperty(AUDITOR_LEDGER_DISCOVERY_INTERVAL, interval);
+        return this;
+    }
+
+    /**
+     * Get the interval at which the auditor discovers new ledgers for its incremental index.
+     * @see #setAuditorLedgerDiscoveryInterval(long)
+     * @return the interval in seconds. Default is 300.
+     */
+    public long getAuditorLedgerDiscoveryInterval() {
+        return getLong(AUDITOR_LEDGER_DISCOVERY_INTERVAL, 300);
+    }
+
     /**
      * Sets the regularity/interval at which the auditor will run a placement
      * policy check of all ledgers, which are closed. This should not be run
@@ -2708,6 +3071,54 @@ public class ServerConfiguration extends AbstractConfiguration<ServerConfigurati
         return getLong(AUDITOR_REPLICAS_CHECK_INTERVAL, 0);
     }
 
+    /**
+     * Sets the number of ledgers whose entries the replicas check lists with a
+     * single request to a bookie. Setting this to 0 makes the replicas check
+     * send one request per ledger and bookie.
+     *
+     * @param batchSize
+     *            number of ledgers listed with a single request
+     * @return server configuration
+     */
+    public ServerConfiguration setAuditorReplicasCheckBatchSize(int batchSize) {
+        setProperty(AUDITOR_REPLICAS_CHECK_BATCH_SIZE, batchSize);
+        return this;
+    }
+
+    /**
+     * Get the number of ledgers whose entries the replicas check lists with a
+     * single request to a bookie.
+     *
+     * @return number of ledgers listed with a single request. By default, 100.
+     */
+    public int getAuditorReplicasCheckBatchSize() {
+        return getInt(AUDITOR_REPLICAS_CHECK_BATCH_SIZE, 100);
+    }
+
+    /**
+     * Sets the max number of batched list requests that the replicas check
+     * sends concurrently, which is also the number of threads comparing their
+     * results with the ledgers metadata.
+     *
+     * @param parallelism
+     *            max number of concurrent batched requests
+     * @return server configuration
+     */
+    public ServerConfiguration setAuditorReplicasCheckParallelism(int parallelism) {
+        setProperty(AUDITOR_REPLICAS_CHECK_PARALLELISM, parallelism);
+        return this;
+    }
+
+    /**
+     * Get the max number of batched list requests that the replicas check
+     * sends concurrently.
+     *
+     * @return max number of concurrent batched requests. By default, 8.
+     */
+    public int getAuditorReplicasCheckParallelism() {
+        return getInt(AUDITOR_REPLICAS_CHECK_PARALLELISM, 8);
+    }
+
     /**
      * Get the semaphore limit value of getting ledger from zookeeper in auto recovery.
      *
@@ -2823,6 +3234,27 @@ public class ServerConfiguration extends AbstractConfiguration<ServerConfigurati
         setProperty(RW_REREPLICATE_BACKOFF_MS, backoffMs);
     }
 
+    /**
+     * Get the number of under replicated ledgers a replication worker replicates concurrently.
+     *
+     * @return number of ledgers replicated concurrently
+     */
+    public int getRwNumConcurrentLedgers() {
+        return getInt(RW_NUM_CONCURRENT_LEDGERS, 1);
+    }
+
+    /**
+     * Set the number of under replicated ledgers a replication worker replicates concurrently.
+     * All the ledgers share the replication rate limit set by {@link #setReplicationRateByBytes(int)}.
+     *
+     * @param numLedgers number of ledgers replicated concurrently
+     * @return server configuration
+     */
+    public ServerConfiguration setRwNumConcurrentLedgers(int numLedgers) {
+        setProperty(RW_NUM_CONCURRENT_LEDGERS, numLedgers);
+        return this;
+    }
+
     /**
      * Sets that whether force start a bookie in readonly mode.
      *
@@ -3182,6 +3614,26 @@ public class ServerConfiguration extends AbstractConfiguration<ServerConfigurati
         if (getMajorCompactionInterval() > 0 && getMajorCompactionInterval() * SECOND < getGcWaitTime()) {
             throw new ConfigurationException("majorCompactionInterval should be >= gcWaitTime.");
         }
+        if (isThreadPerCoreEnabled()) {
+            int numPinnedThreads = getNumThreadPerCorePinnedThreads();
+            int numIsolatedCores = CpuAffinity.getNumIsolatedCores();
+            if (numPinnedThreads > numIsolatedCores) {
+                throw new ConfigurationException("threadPerCoreEnabled pins " + numPinnedThreads
+                        + " threads (twice serverNumIOThreads=" + getServerNumIOThreads()
+                        + " plus 2 per journal directory) but only " + numIsolatedCores
+                        + " CPUs are isolated: lower serverNumIOThreads or isolate more CPUs.");
+            }
+        }
+    }
+
+    /**
+     * Get the number of threads pinned to a CPU core in thread-per-core mode: the IO threads, as many ledger core
+     * threads, and the journal and force write threads of each journal directory.
+     *
+     * @return the number of pinned threads
+     */
+    public int getNumThreadPerCorePinnedThreads() {
+        return 2 * getServerNumIOThreads() + 2 * getJournalDirNames().length;
     }
 
     /**
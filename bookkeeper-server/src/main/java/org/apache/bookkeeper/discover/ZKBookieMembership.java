@@ -0,0 +1,615 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.bookkeeper.discover;
+
+import static org.apache.bookkeeper.util.BookKeeperConstants.AVAILABLE_NODE;
+import static org.apache.bookkeeper.util.BookKeeperConstants.READONLY;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.bookkeeper.client.BKException.ZKException;
+import org.apache.bookkeeper.common.util.MathUtils;
+import org.apache.bookkeeper.net.BookieId;
+import org.apache.bookkeeper.versioning.LongVersion;
+import org.apache.bookkeeper.versioning.Versioned;
+import org.apache.zookeeper.AddWatchMode;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.KeeperException.Code;
+import org.apache.zookeeper.WatchedEvent;
+import org.apache.zookeeper.Watcher;
+import org.apache.zookeeper.Watcher.Event.EventType;
+import org.apache.zookeeper.Watcher.WatcherType;
+import org.apache.zookeeper.ZooKeeper;
+
+/**
+ * The writable and readonly bookies registered in ZooKeeper, shared by all the {@link ZKRegistrationClient}s of
+ * a JVM talking to the same cluster.
+ *
+ * <p>Instead of re-listing the registration znodes and re-reading the {@link BookieServiceInfo} of every bookie
+ * each time the membership changes, the snapshot is kept up to date by applying the creations and deletions of
+ * bookie znodes reported by a persistent recursive watch on the registration path. Only the service info of new
+ * or updated bookies is read. With ZooKeeper servers older than 3.6, which don't support persistent watches,
+ * the registration paths are re-listed on changes and diffed against the snapshot, as the registration clients
+ * do on their own.
+ *
+ * <p>Changes are coalesced for {@code coalesceMs} before the subscribers are notified, so that a burst of bookie
+ * flaps results in a single new snapshot. A snapshot is only published once the service info of the bookies it
+ * adds was read.
+ *
+ * <p>The ZooKeeper requests are sent through the ZooKeeper handle of one of the registration clients sharing the
+ * snapshot; when that client is closed, the watch is moved to the handle of another one and the snapshot is
+ * resynced.
+ */
+@Slf4j
+class ZKBookieMembership {
+
+    // upper bound on how long a snapshot can wait for the service info of its new bookies
+    static final long MAX_PUBLISH_DELAY_MS = 2000;
+
+    /**
+     * Identifies a shared membership: the ZooKeeper ensemble and the ledgers root path. Ensembles identified by
+     * a {@link ZooKeeper} handle are compared by identity, other identifiers by equality.
+     */
+    private static final class InstanceKey {
+        private final Object ensemble;
+        private final String ledgersRootPath;
+
+        InstanceKey(Object ensemble, String ledgersRootPath) {
+            this.ensemble = ensemble;
+            this.ledgersRootPath = ledgersRootPath;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof InstanceKey)) {
+                return false;
+            }
+            InstanceKey other = (InstanceKey) o;
+            boolean sameEnsemble = ensemble instanceof ZooKeeper
+                    ? ensemble == other.ensemble : ensemble.equals(other.ensemble);
+            return sameEnsemble && ledgersRootPath.equals(other.ledgersRootPath);
+        }
+
+        @Override
+        public int hashCode() {
+            int ensembleHash = ensemble instanceof ZooKeeper
+                    ? System.identityHashCode(ensemble) : ensemble.hashCode();
+            return 31 * ensembleHash + ledgersRootPath.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return (ensemble instanceof ZooKeeper
+                    ? "zk@" + Integer.toHexString(System.identityHashCode(ensemble)) : ensemble) + ledgersRootPath;
+        }
+    }
+
+    private static final Map<InstanceKey, ZKBookieMembership> INSTANCES = new HashMap<>();
+
+    /**
+     * Return the membership of the cluster identified by <i>ensemble</i> and <i>ledgersRootPath</i>, creating it
+     * if needed. <i>zk</i> is added to the handles the membership can use, until it is released.
+     *
+     * @param ensemble identifies the ZooKeeper ensemble, e.g. its connect string, or a {@link ZooKeeper} handle
+     *                 to only share the membership with the clients using that very handle
+     * @param coalesceMs how long changes are coalesced for, only used when the membership is created
+     */
+    static ZKBookieMembership acquire(Object ensemble, String ledgersRootPath, ZooKeeper zk, long coalesceMs) {
+        InstanceKey instanceKey = new InstanceKey(ensemble, ledgersRootPath);
+        synchronized (INSTANCES) {
+            ZKBookieMembership membership = INSTANCES.get(instanceKey);
+            if (null == membership) {
+                membership = new ZKBookieMembership(instanceKey, ledgersRootPath, coalesceMs);
+                INSTANCES.put(instanceKey, membership);
+            }
+            membership.addHandle(zk);
+            return membership;
+        }
+    }
+
+    private final InstanceKey key;
+    private final String bookieRegistrationPath;
+    private final String bookieReadonlyRegistrationPath;
+    private final long coalesceMs;
+    private final ScheduledExecutorService executor;
+
+    // handles of the registration clients sharing the membership, the first one is used
+    private final List<ZooKeeper> handles = new ArrayList<>();
+    private ZooKeeper activeZk = null;
+    private MembershipWatcher activeWatcher = null;
+    // bumped every time the watch is (re-)established, to ignore the events and responses of previous attempts
+    private int generation = 0;
+    private boolean persistentWatch = false;
+    private boolean started = false;
+    private boolean loaded = false;
+    private boolean closed = false;
+    private int pendingListings = 0;
+
+    private final Set<BookieId> writableBookies = new HashSet<>();
+    private final Set<BookieId> readOnlyBookies = new HashSet<>();
+    private final ConcurrentHashMap<BookieId, Versioned<BookieServiceInfo>> bookieServiceInfos =
+            new ConcurrentHashMap<>();
+    private int pendingInfoReads = 0;
+    private boolean writableChanged = false;
+    private boolean readOnlyChanged = false;
+    private long changedSinceNanos = 0L;
+    private boolean flushScheduled = false;
+    private long version = 0L;
+
+    private volatile Versioned<Set<BookieId>> writableSnapshot = null;
+    private volatile Versioned<Set<BookieId>> readOnlySnapshot = null;
+    private final Set<BiConsumer<Versioned<Set<BookieId>>, Throwable>> writableSubscribers =
+            new CopyOnWriteArraySet<>();
+    private final Set<BiConsumer<Versioned<Set<BookieId>>, Throwable>> readOnlySubscribers =
+            new CopyOnWriteArraySet<>();
+
+    private ZKBookieMembership(InstanceKey key, String ledgersRootPath, long coalesceMs) {
+        this.key = key;
+        this.bookieRegistrationPath = ledgersRootPath + "/" + AVAILABLE_NODE;
+        this.bookieReadonlyRegistrationPath = bookieRegistrationPath + "/" + READONLY;
+        this.coalesceMs = Math.max(0L, coalesceMs);
+        this.executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("zk-bookie-membership-%d").setDaemon(true).build());
+    }
+
+    private synchronized void addHandle(ZooKeeper zk) {
+        handles.add(zk);
+    }
+
+    /**
+     * Give back a handle passed to {@link #acquire}. The membership is closed once all its handles are released.
+     */
+    void release(ZooKeeper zk) {
+        boolean last;
+        synchronized (INSTANCES) {
+            synchronized (this) {
+                handles.remove(zk);
+                last = handles.isEmpty();
+                if (last) {
+                    INSTANCES.remove(key, this);
+                    closed = true;
+                    detach();
+                } else if (zk == activeZk && !handles.contains(zk)) {
+                    // the handle might be closed right after, move the watch to another one
+                    detach();
+                    if (started) {
+                        log.info("Moving the bookie membership watch of {} to another ZooKeeper handle", key);
+                        scheduleAttach(0L);
+                    }
+                }
+            }
+        }
+        if (last) {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Deliver the snapshots of the writable (or readonly) bookies to <i>subscriber</i>, starting with the
+     * current one if the membership is already loaded. If loading the membership fails, the error is
+     * delivered instead.
+     */
+    void subscribe(boolean readOnly, BiConsumer<Versioned<Set<BookieId>>, Throwable> subscriber) {
+        Versioned<Set<BookieId>> snapshot;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            (readOnly ? readOnlySubscribers : writableSubscribers).add(subscriber);
+            snapshot = readOnly ? readOnlySnapshot : writableSnapshot;
+            if (!started) {
+                started = true;
+                scheduleAttach(0L);
+            }
+        }
+        if (null != snapshot) {
+            subscriber.accept(snapshot, null);
+        }
+    }
+
+    void unsubscribe(boolean readOnly, BiConsumer<Versioned<Set<BookieId>>, Throwable> subscriber) {
+        (readOnly ? readOnlySubscribers : writableSubscribers).remove(subscriber);
+    }
+
+    /**
+     * Return the current snapshot of the writable (or readonly) bookies, or null if it isn't loaded yet.
+     */
+    Versioned<Set<BookieId>> getSnapshot(boolean readOnly) {
+        return readOnly ? readOnlySnapshot : writableSnapshot;
+    }
+
+    Versioned<BookieServiceInfo> getBookieServiceInfo(BookieId bookieId) {
+        return bookieServiceInfos.get(bookieId);
+    }
+
+    private void scheduleAttach(long delayMs) {
+        try {
+            executor.schedule(this::attach, delayMs, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException ree) {
+            if (!closed) {
+                log.warn("Failed to schedule the bookie membership watch of {}", key, ree);
+            }
+        }
+    }
+
+    private synchronized void attach() {
+        if (closed || handles.isEmpty()) {
+            return;
+        }
+        final int gen = ++generation;
+        final ZooKeeper zk = handles.get(0);
+        final MembershipWatcher watcher = new MembershipWatcher(gen);
+        activeZk = zk;
+        activeWatcher = watcher;
+        zk.addWatch(bookieRegistrationPath, watcher, AddWatchMode.PERSISTENT_RECURSIVE, (rc, path, ctx) -> {
+            if (Code.OK.intValue() == rc) {
+                resync(gen, true);
+            } else if (Code.UNIMPLEMENTED.intValue() == rc) {
+                log.info("ZooKeeper doesn't support persistent watches, re-listing {} on changes",
+                        bookieRegistrationPath);
+                resync(gen, false);
+            } else {
+                onLoadFailed(gen, KeeperException.create(Code.get(rc), path));
+            }
+        }, null);
+    }
+
+    private synchronized void detach() {
+        generation++;
+        if (null != activeZk && persistentWatch) {
+            activeZk.removeWatches(bookieRegistrationPath, activeWatcher, WatcherType.Any, false,
+                    (rc, path, ctx) -> {
+                if (log.isDebugEnabled()) {
+                    log.debug("Removed watch on {} : rc = {}", path, rc);
+                }
+            }, null);
+        }
+        activeZk = null;
+        activeWatcher = null;
+    }
+
+    private synchronized void resync(int gen, boolean persistent) {
+        if (gen != generation) {
+            return;
+        }
+        persistentWatch = persistent;
+        pendingListings = 2;
+        listBookies(gen, false);
+        listBookies(gen, true);
+    }
+
+    private synchronized void listBookies(int gen, boolean readOnly) {
+        String path = readOnly ? bookieReadonlyRegistrationPath : bookieRegistrationPath;
+        activeZk.getChildren(path, persistentWatch ? null : activeWatcher, (rc, p, ctx, children) -> {
+            synchronized (ZKBookieMembership.this) {
+                if (gen != generation) {
+                    return;
+                }
+                if (Code.NONODE.intValue() == rc && readOnly) {
+                    // no bookie ever went readonly
+                    children = Collections.emptyList();
+                    if (!persistentWatch) {
+                        activeZk.exists(path, activeWatcher, (rc2, p2, ctx2, stat) -> { }, null);
+                    }
+                } else if (Code.OK.intValue() != rc) {
+                    onLoadFailed(gen, KeeperException.create(Code.get(rc), p));
+                    return;
+                }
+                applyListing(gen, readOnly, ZKRegistrationClient.convertToBookieAddresses(children));
+            }
+        }, null);
+    }
+
+    private void applyListing(int gen, boolean readOnly, Set<BookieId> listed) {
+        Set<BookieId> current = readOnly ? readOnlyBookies : writableBookies;
+        for (BookieId bookieId : new ArrayList<>(current)) {
+            if (!listed.contains(bookieId)) {
+                onBookieRemoved(readOnly, bookieId);
+            }
+        }
+        for (BookieId bookieId : listed) {
+            if (!current.contains(bookieId)) {
+                onBookieAdded(gen, readOnly, bookieId);
+            } else if (!bookieServiceInfos.containsKey(bookieId)) {
+                // the read of a previous attempt was lost
+                readBookieServiceInfo(gen, readOnly, bookieId);
+            }
+        }
+        if (pendingListings > 0 && --pendingListings == 0 && !loaded) {
+            // publish the first snapshot even if the cluster has no bookie
+            loaded = true;
+            writableChanged = true;
+            readOnlyChanged = true;
+            markChanged();
+        }
+    }
+
+    private void onBookieAdded(int gen, boolean readOnly, BookieId bookieId) {
+        if ((readOnly ? readOnlyBookies : writableBookies).add(bookieId)) {
+            markChanged(readOnly);
+            readBookieServiceInfo(gen, readOnly, bookieId);
+        }
+    }
+
+    private void onBookieRemoved(boolean readOnly, BookieId bookieId) {
+        if ((readOnly ? readOnlyBookies : writableBookies).remove(bookieId)) {
+            markChanged(readOnly);
+            if (!(readOnly ? writableBookies : readOnlyBookies).contains(bookieId)) {
+                bookieServiceInfos.remove(bookieId);
+            }
+        }
+    }
+
+    private void readBookieServiceInfo(int gen, boolean readOnly, BookieId bookieId) {
+        String path = (readOnly ? bookieReadonlyRegistrationPath : bookieRegistrationPath) + "/" + bookieId;
+        pendingInfoReads++;
+        activeZk.getData(path, persistentWatch ? null : activeWatcher, (rc, p, ctx, bytes, stat) -> {
+            synchronized (ZKBookieMembership.this) {
+                pendingInfoReads--;
+                boolean registered = writableBookies.contains(bookieId) || readOnlyBookies.contains(bookieId);
+                if (Code.OK.intValue() == rc && registered) {
+                    try {
+                        BookieServiceInfo bookieServiceInfo =
+                                ZKRegistrationClient.deserializeBookieServiceInfo(bookieId, bytes);
+                        bookieServiceInfos.put(bookieId,
+                                new Versioned<>(bookieServiceInfo, new LongVersion(stat.getCversion())));
+                    } catch (IOException ex) {
+                        log.error("Cannot update BookieInfo for {}", bookieId, ex);
+                    }
+                } else if (log.isDebugEnabled()) {
+                    log.debug("Failed to read BookieInfo of {} : rc = {}", bookieId, rc);
+                }
+                if (pendingInfoReads == 0 && (writableChanged || readOnlyChanged)) {
+                    scheduleFlush();
+                }
+            }
+        }, null);
+    }
+
+    private void onLoadFailed(int gen, KeeperException cause) {
+        List<BiConsumer<Versioned<Set<BookieId>>, Throwable>> toNotify = new ArrayList<>();
+        synchronized (this) {
+            if (gen != generation) {
+                return;
+            }
+            if (loaded) {
+                // keep serving the current snapshot and retry, dropping the watch of the failed attempt
+                log.warn("Failed to resync the bookie membership of {}, retrying", key, cause);
+                detach();
+                scheduleAttach(ZKRegistrationClient.ZK_CONNECT_BACKOFF_MS);
+                return;
+            }
+            // the next subscriber tries again
+            started = false;
+            generation++;
+            toNotify.addAll(writableSubscribers);
+            toNotify.addAll(readOnlySubscribers);
+        }
+        ZKException zke = new ZKException(cause);
+        zke.fillInStackTrace();
+        for (BiConsumer<Versioned<Set<BookieId>>, Throwable> subscriber : toNotify) {
+            subscriber.accept(null, zke);
+        }
+    }
+
+    private void markChanged(boolean readOnly) {
+        if (readOnly) {
+            readOnlyChanged = true;
+        } else {
+            writableChanged = true;
+        }
+        markChanged();
+    }
+
+    private void markChanged() {
+        if (0L == changedSinceNanos) {
+            changedSinceNanos = MathUtils.nowInNano();
+        }
+        if (loaded) {
+            scheduleFlush();
+        }
+    }
+
+    private void scheduleFlush() {
+        if (flushScheduled || closed) {
+            return;
+        }
+        flushScheduled = true;
+        try {
+            executor.schedule(this::flush, coalesceMs, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException ree) {
+            flushScheduled = false;
+        }
+    }
+
+    private void flush() {
+        Versioned<Set<BookieId>> writable = null;
+        Versioned<Set<BookieId>> readOnly = null;
+        synchronized (this) {
+            flushScheduled = false;
+            if (closed || !loaded || !(writableChanged || readOnlyChanged)) {
+                return;
+            }
+            if (pendingInfoReads > 0
+                    && MathUtils.elapsedMSec(changedSinceNanos) < MAX_PUBLISH_DELAY_MS) {
+                // wait for the service info of the new bookies, or at most MAX_PUBLISH_DELAY_MS
+                scheduleFlush();
+                return;
+            }
+            LongVersion newVersion = new LongVersion(++version);
+            if (writableChanged) {
+                writable = new Versioned<>(Collections.unmodifiableSet(new HashSet<>(writableBookies)), newVersion);
+                writableSnapshot = writable;
+            }
+            if (readOnlyChanged) {
+                readOnly = new Versioned<>(Collections.unmodifiableSet(new HashSet<>(readOnlyBookies)), newVersion);
+                readOnlySnapshot = readOnly;
+            }
+            writableChanged = false;
+            readOnlyChanged = false;
+            changedSinceNanos = 0L;
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("Publishing bookie membership of {} : writable = {}, readonly = {}", key, writable, readOnly);
+        }
+        if (null != writable) {
+            for (BiConsumer<Versioned<Set<BookieId>>, Throwable> subscriber : writableSubscribers) {
+                subscriber.accept(writable, null);
+            }
+        }
+        if (null != readOnly) {
+            for (BiConsumer<Versioned<Set<BookieId>>, Throwable> subscriber : readOnlySubscribers) {
+                subscriber.accept(readOnly, null);
+            }
+        }
+    }
+
+    /**
+     * Applies the events of one watch attempt to the snapshot.
+     */
+    private class MembershipWatcher implements Watcher {
+
+        private final int gen;
+        private boolean disconnected = false;
+
+        MembershipWatcher(int gen) {
+            this.gen = gen;
+        }
+
+        @Override
+        public void process(WatchedEvent event) {
+            synchronized (ZKBookieMembership.this) {
+                if (gen != generation || closed) {
+                    return;
+                }
+                if (EventType.None == event.getType()) {
+                    onStateChanged(event);
+                } else if (persistentWatch) {
+                    onNodeEvent(event);
+                } else {
+                    onWatchTriggered(event);
+                }
+            }
+        }
+
+        private void onStateChanged(WatchedEvent event) {
+            switch (event.getState()) {
+                case Disconnected:
+                    disconnected = true;
+                    break;
+                case SyncConnected:
+                    if (disconnected) {
+                        // changes that happened while disconnected aren't replayed to persistent watches
+                        disconnected = false;
+                        if (persistentWatch) {
+                            resync(gen, true);
+                        }
+                    }
+                    break;
+                case Expired:
+                    log.info("ZooKeeper session expired, re-establishing the bookie membership watch of {}", key);
+                    generation++;
+                    scheduleAttach(ZKRegistrationClient.ZK_CONNECT_BACKOFF_MS);
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        // persistent recursive watch: every created, deleted or updated znode below the registration path
+        private void onNodeEvent(WatchedEvent event) {
+            String path = event.getPath();
+            if (bookieReadonlyRegistrationPath.equals(path)) {
+                if (EventType.NodeCreated == event.getType() || EventType.NodeDeleted == event.getType()) {
+                    listBookies(gen, true);
+                }
+                return;
+            }
+            boolean readOnly;
+            if (isChildOf(path, bookieReadonlyRegistrationPath)) {
+                readOnly = true;
+            } else if (isChildOf(path, bookieRegistrationPath)) {
+                readOnly = false;
+            } else {
+                return;
+            }
+            BookieId bookieId;
+            try {
+                bookieId = BookieId.parse(path.substring(path.lastIndexOf('/') + 1));
+            } catch (IllegalArgumentException e) {
+                log.warn("Cannot decode bookieId from {}", path, e);
+                return;
+            }
+            switch (event.getType()) {
+                case NodeCreated:
+                    onBookieAdded(gen, readOnly, bookieId);
+                    break;
+                case NodeDeleted:
+                    onBookieRemoved(readOnly, bookieId);
+                    break;
+                case NodeDataChanged:
+                    readBookieServiceInfo(gen, readOnly, bookieId);
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        // one-shot watches, with servers not supporting persistent watches
+        private void onWatchTriggered(WatchedEvent event) {
+            String path = event.getPath();
+            if (bookieRegistrationPath.equals(path) || bookieReadonlyRegistrationPath.equals(path)) {
+                listBookies(gen, bookieReadonlyRegistrationPath.equals(path));
+            } else if (EventType.NodeDataChanged == event.getType()) {
+                boolean readOnly = isChildOf(path, bookieReadonlyRegistrationPath);
+                if (readOnly || isChildOf(path, bookieRegistrationPath)) {
+                    try {
+                        readBookieServiceInfo(gen, readOnly,
+                                BookieId.parse(path.substring(path.lastIndexOf('/') + 1)));
+                    } catch (IllegalArgumentException e) {
+                        log.warn("Cannot decode bookieId from {}", path, e);
+                    }
+                }
+            }
+        }
+
+        private boolean isChildOf(String path, String parent) {
+            return path.length() > parent.length() + 1
+                    && path.startsWith(parent)
+                    && path.charAt(parent.length()) == '/'
+                    && path.indexOf('/', parent.length() + 1) < 0
+                    && !(parent.equals(bookieRegistrationPath) && path.endsWith("/" + READONLY));
+        }
+    }
+}
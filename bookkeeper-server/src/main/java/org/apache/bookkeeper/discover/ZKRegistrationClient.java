@@ -78,11 +78,24 @@ public class ZKRegistrationClient implements RegistrationClient {
         private Set<BookieId> bookies = null;
         private Version version = Version.NEW;
         private final CompletableFuture<Void> firstRunFuture;
+        // receives the snapshots of the shared membership, if any
+        private final BiConsumer<Versioned<Set<BookieId>>, Throwable> sharedSubscriber;
 
         WatchTask(String regPath, CompletableFuture<Void> firstRunFuture) {
             this.regPath = regPath;
             this.listeners = new CopyOnWriteArraySet<>();
             this.firstRunFuture = firstRunFuture;
+            this.sharedSubscriber = (bookieSet, throwable) -> {
+                try {
+                    scheduler.execute(() -> accept(bookieSet, throwable));
+                } catch (RejectedExecutionException ree) {
+                    log.warn("Failed to schedule bookies update", ree);
+                }
+            };
+        }
+
+        private boolean isReadOnly() {
+            return regPath.equals(bookieReadonlyRegistrationPath);
         }
 
         public int getNumListeners() {
@@ -123,6 +136,10 @@ public class ZKRegistrationClient implements RegistrationClient {
                 return;
             }
 
+            if (null != sharedMembership) {
+                sharedMembership.subscribe(isReadOnly(), sharedSubscriber);
+                return;
+            }
             getChildren(regPath, this)
                 .whenCompleteAsync(this, scheduler);
         }
@@ -170,6 +187,9 @@ public class ZKRegistrationClient implements RegistrationClient {
         @Override
         public void close() {
             closed = true;
+            if (null != sharedMembership) {
+                sharedMembership.unsubscribe(isReadOnly(), sharedSubscriber);
+            }
         }
     }
 
@@ -187,11 +207,34 @@ public class ZKRegistrationClient implements RegistrationClient {
     private final String bookieRegistrationPath;
     private final String bookieAllRegistrationPath;
     private final String bookieReadonlyRegistrationPath;
+    // bookies shared with the other registration clients of the JVM, if enabled
+    private final ZKBookieMembership sharedMembership;
 
     public ZKRegistrationClient(ZooKeeper zk,
                                 String ledgersRootPath,
                                 ScheduledExecutorService scheduler,
                                 boolean bookieAddressTracking) {
+        this(zk, ledgersRootPath, scheduler, bookieAddressTracking, null, 0L);
+    }
+
+    /**
+     * Create a registration client which, if <i>sharedMembershipKey</i> is not null, shares the membership of
+     * the cluster with the other registration clients of the JVM created with the same key and ledgers root
+     * path. The shared membership is maintained incrementally from a persistent recursive watch on the
+     * registration path, and changes are coalesced for <i>membershipChangeCoalesceMs</i> before the watchers
+     * are notified.
+     *
+     * @param sharedMembershipKey identifies the ZooKeeper ensemble <i>zk</i> is connected to, e.g. its connect
+     *                            string, or <i>zk</i> itself to only share the membership with the clients
+     *                            using the same handle, or null to not share the membership
+     * @param membershipChangeCoalesceMs how long membership changes are coalesced for
+     */
+    public ZKRegistrationClient(ZooKeeper zk,
+                                String ledgersRootPath,
+                                ScheduledExecutorService scheduler,
+                                boolean bookieAddressTracking,
+                                Object sharedMembershipKey,
+                                long membershipChangeCoalesceMs) {
         this.zk = zk;
         this.scheduler = scheduler;
         // Following Bookie Network Address Changes is an expensive operation
@@ -204,11 +247,22 @@ public class ZKRegistrationClient implements RegistrationClient {
         this.bookieRegistrationPath = ledgersRootPath + "/" + AVAILABLE_NODE;
         this.bookieAllRegistrationPath = ledgersRootPath + "/" + COOKIE_NODE;
         this.bookieReadonlyRegistrationPath = this.bookieRegistrationPath + "/" + READONLY;
+        this.sharedMembership = null == sharedMembershipKey ? null
+                : ZKBookieMembership.acquire(sharedMembershipKey, ledgersRootPath, zk, membershipChangeCoalesceMs);
     }
 
     @Override
-    public void close() {
-        // no-op
+    public synchronized void close() {
+        if (null != sharedMembership) {
+            // stop receiving the snapshots of the shared membership
+            if (null != watchWritableBookiesTask) {
+                watchWritableBookiesTask.close();
+            }
+            if (null != watchReadOnlyBookiesTask) {
+                watchReadOnlyBookiesTask.close();
+            }
+            sharedMembership.release(zk);
+        }
     }
 
     public boolean isBookieAddressTracking() {
@@ -221,6 +275,10 @@ public class ZKRegistrationClient implements RegistrationClient {
 
     @Override
     public CompletableFuture<Versioned<Set<BookieId>>> getWritableBookies() {
+        Versioned<Set<BookieId>> snapshot = null != sharedMembership ? sharedMembership.getSnapshot(false) : null;
+        if (null != snapshot) {
+            return CompletableFuture.completedFuture(snapshot);
+        }
         return getChildren(bookieRegistrationPath, null);
     }
 
@@ -231,6 +289,10 @@ public class ZKRegistrationClient implements RegistrationClient {
 
     @Override
     public CompletableFuture<Versioned<Set<BookieId>>> getReadOnlyBookies() {
+        Versioned<Set<BookieId>> snapshot = null != sharedMembership ? sharedMembership.getSnapshot(true) : null;
+        if (null != snapshot) {
+            return CompletableFuture.completedFuture(snapshot);
+        }
         return getChildren(bookieReadonlyRegistrationPath, null);
     }
 
@@ -239,7 +301,8 @@ public class ZKRegistrationClient implements RegistrationClient {
         // we can only serve data from cache here,
         // because it can happen than this method is called inside the main
         // zookeeper client event loop thread
-        Versioned<BookieServiceInfo> resultFromCache = bookieServiceInfoCache.get(bookieId);
+        Versioned<BookieServiceInfo> resultFromCache = null != sharedMembership
+                ? sharedMembership.getBookieServiceInfo(bookieId) : bookieServiceInfoCache.get(bookieId);
         if (log.isDebugEnabled()) {
             log.debug("getBookieServiceInfo {} -> {}", bookieId, resultFromCache);
         }
@@ -449,7 +512,7 @@ public class ZKRegistrationClient implements RegistrationClient {
         }
     }
 
-    private static HashSet<BookieId> convertToBookieAddresses(List<String> children) {
+    static HashSet<BookieId> convertToBookieAddresses(List<String> children) {
         // Read the bookie addresses into a set for efficient lookup
         HashSet<BookieId> newBookieAddrs = Sets.newHashSet();
         for (String bookieAddrString : children) {
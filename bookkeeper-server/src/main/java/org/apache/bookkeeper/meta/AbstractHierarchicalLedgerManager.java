@@ -22,6 +22,7 @@ import java.util.List;
 import java.util.NavigableSet;
 import java.util.TreeSet;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import org.apache.bookkeeper.conf.AbstractConfiguration;
 import org.apache.bookkeeper.proto.BookkeeperInternalCallbacks.Processor;
@@ -59,6 +60,16 @@ public abstract class AbstractHierarchicalLedgerManager extends AbstractZkLedger
         final String path, final Processor<String> processor,
         final AsyncCallback.VoidCallback finalCb, final Object context,
         final int successRc, final int failureRc) {
+        asyncProcessLevelNodes(path, processor, finalCb, context, successRc, failureRc, 1);
+    }
+
+    /**
+     * Process hash nodes in a given path, up to <i>parallelism</i> of them concurrently.
+     */
+    void asyncProcessLevelNodes(
+        final String path, final Processor<String> processor,
+        final AsyncCallback.VoidCallback finalCb, final Object context,
+        final int successRc, final int failureRc, final int parallelism) {
         zk.sync(path, new AsyncCallback.VoidCallback() {
             @Override
             public void processResult(int rc, String path, Object ctx) {
@@ -91,7 +102,7 @@ public abstract class AbstractHierarchicalLedgerManager extends AbstractZkLedger
                                 new AsyncListProcessor<String>(scheduler);
                         // process its children
                         listProcessor.process(levelNodes, processor, finalCb,
-                                              context, successRc, failureRc);
+                                              context, successRc, failureRc, parallelism);
                     }
                 }, null);
             }
@@ -99,8 +110,8 @@ public abstract class AbstractHierarchicalLedgerManager extends AbstractZkLedger
     }
 
     /**
-     * Process list one by one in asynchronize way. Process will be stopped immediately
-     * when error occurred.
+     * Process list in asynchronize way, a bounded number of elements at a time. Process will be
+     * stopped immediately when error occurred.
      */
     private static class AsyncListProcessor<T> {
         // use this to prevent long stack chains from building up in callbacks
@@ -131,31 +142,45 @@ public abstract class AbstractHierarchicalLedgerManager extends AbstractZkLedger
          *          RC passed to final callback on success
          * @param failureRc
          *          RC passed to final callback on failure
+         * @param parallelism
+         *          Max number of elements processed concurrently
          */
         public void process(final List<T> data, final Processor<T> processor,
                             final AsyncCallback.VoidCallback finalCb, final Object context,
-                            final int successRc, final int failureRc) {
+                            final int successRc, final int failureRc, final int parallelism) {
             if (data == null || data.size() == 0) {
                 finalCb.processResult(successRc, null, context);
                 return;
             }
             final int size = data.size();
-            final AtomicInteger current = new AtomicInteger(0);
+            final int initial = Math.min(Math.max(1, parallelism), size);
+            // index of the next element to process
+            final AtomicInteger next = new AtomicInteger(initial);
+            final AtomicInteger completed = new AtomicInteger(0);
+            final AtomicBoolean failed = new AtomicBoolean(false);
             AsyncCallback.VoidCallback stubCallback = new AsyncCallback.VoidCallback() {
                 @Override
                 public void processResult(int rc, String path, Object ctx) {
                     if (rc != successRc) {
                         // terminal immediately
-                        finalCb.processResult(failureRc, null, context);
+                        if (failed.compareAndSet(false, true)) {
+                            finalCb.processResult(failureRc, null, context);
+                        }
                         return;
                     }
-                    // process next element
-                    int next = current.incrementAndGet();
-                    if (next >= size) { // reach the end of list
+                    if (completed.incrementAndGet() >= size) { // reach the end of list
                         finalCb.processResult(successRc, null, context);
                         return;
                     }
-                    final T dataToProcess = data.get(next);
+                    if (failed.get()) {
+                        return;
+                    }
+                    // process next element
+                    final int index = next.getAndIncrement();
+                    if (index >= size) {
+                        return;
+                    }
+                    final T dataToProcess = data.get(index);
                     final AsyncCallback.VoidCallback stub = this;
                     scheduler.submit(new Runnable() {
                         @Override
@@ -165,11 +190,24 @@ public abstract class AbstractHierarchicalLedgerManager extends AbstractZkLedger
                     });
                 }
             };
-            T firstElement = data.get(0);
-            processor.process(firstElement, stubCallback);
+            for (int i = 0; i < initial; i++) {
+                processor.process(data.get(i), stubCallback);
+            }
         }
     }
 
+    /**
+     * Build the range of the ledgers whose znodes are the given children of the leaf node <i>path</i>.
+     *
+     * @param path
+     *          The zookeeper path of the leaf node
+     * @param ledgerNodes
+     *          Children of the leaf node
+     */
+    LedgerRange getLedgerRange(String path, List<String> ledgerNodes) throws IOException {
+        return new LedgerRange(ledgerListToSet(ledgerNodes, path));
+    }
+
     // get ledger from all level nodes
     long getLedgerId(String...levelNodes) throws IOException {
         return StringUtils.stringToHierarchicalLedgerId(levelNodes);
@@ -20,8 +20,12 @@ package org.apache.bookkeeper.meta;
 import com.google.common.annotations.VisibleForTesting;
 import io.netty.util.concurrent.DefaultThreadFactory;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.NavigableSet;
 import java.util.Optional;
 import java.util.Set;
@@ -29,6 +33,7 @@ import java.util.TreeSet;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArraySet;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ThreadLocalRandom;
@@ -44,11 +49,13 @@ import org.apache.bookkeeper.proto.BookkeeperInternalCallbacks.LedgerMetadataLis
 import org.apache.bookkeeper.proto.BookkeeperInternalCallbacks.MultiCallback;
 import org.apache.bookkeeper.proto.BookkeeperInternalCallbacks.Processor;
 import org.apache.bookkeeper.util.BookKeeperConstants;
+import org.apache.bookkeeper.util.StringUtils;
 import org.apache.bookkeeper.util.ZkUtils;
 import org.apache.bookkeeper.versioning.LongVersion;
 import org.apache.bookkeeper.versioning.Version;
 import org.apache.bookkeeper.versioning.Versioned;
 import org.apache.commons.collections4.CollectionUtils;
+import org.apache.zookeeper.AddWatchMode;
 import org.apache.zookeeper.AsyncCallback;
 import org.apache.zookeeper.AsyncCallback.DataCallback;
 import org.apache.zookeeper.AsyncCallback.StatCallback;
@@ -57,6 +64,8 @@ import org.apache.zookeeper.AsyncCallback.VoidCallback;
 import org.apache.zookeeper.CreateMode;
 import org.apache.zookeeper.KeeperException;
 import org.apache.zookeeper.KeeperException.Code;
+import org.apache.zookeeper.Op;
+import org.apache.zookeeper.OpResult;
 import org.apache.zookeeper.WatchedEvent;
 import org.apache.zookeeper.Watcher;
 import org.apache.zookeeper.ZooKeeper;
@@ -74,15 +83,25 @@ public abstract class AbstractZkLedgerManager implements LedgerManager, Watcher
 
     @VisibleForTesting
     static final int ZK_CONNECT_BACKOFF_MS = 200;
+    // ledgers read by a single multi request, small enough for the response to fit in jute.maxbuffer
+    static final int BULK_READ_BATCH_SIZE = 32;
+    static final int BULK_READ_MAX_BATCHES_IN_FLIGHT = 32;
 
     private final LedgerMetadataSerDe serDe;
     protected final AbstractConfiguration conf;
     protected final ZooKeeper zk;
+    // cleared once the ZooKeeper servers are found not to support read-only multi requests
+    private volatile boolean multiReadSupported = true;
     protected final String ledgerRootPath;
 
     // ledger metadata listeners
     protected final ConcurrentMap<Long, Set<LedgerMetadataListener>> listeners =
             new ConcurrentHashMap<Long, Set<LedgerMetadataListener>>();
+    // listeners on all the ledgers, notified through a single persistent recursive watch on the ledgers root
+    private final Set<LedgerMetadataListener> allLedgersListeners = new CopyOnWriteArraySet<>();
+    private final Watcher allLedgersWatcher = this::processAllLedgersEvent;
+    // guarded by allLedgersListeners
+    private CompletableFuture<Boolean> allLedgersWatchFuture = null;
     // we use this to prevent long stack chains from building up in callbacks
     protected ScheduledExecutorService scheduler;
 
@@ -445,6 +464,151 @@ public abstract class AbstractZkLedgerManager implements LedgerManager, Watcher
         }
     }
 
+    @Override
+    public CompletableFuture<Boolean> registerAllLedgersMetadataListener(LedgerMetadataListener listener) {
+        CompletableFuture<Boolean> watchFuture;
+        synchronized (allLedgersListeners) {
+            if (null == allLedgersWatchFuture) {
+                allLedgersWatchFuture = addAllLedgersWatch();
+            }
+            watchFuture = allLedgersWatchFuture;
+            allLedgersListeners.add(listener);
+        }
+        return watchFuture.thenApply(watching -> {
+            if (!watching) {
+                unregisterAllLedgersMetadataListener(listener);
+            }
+            return watching;
+        });
+    }
+
+    @Override
+    public void unregisterAllLedgersMetadataListener(LedgerMetadataListener listener) {
+        synchronized (allLedgersListeners) {
+            if (!allLedgersListeners.remove(listener) || !allLedgersListeners.isEmpty()
+                    || null == allLedgersWatchFuture) {
+                return;
+            }
+            allLedgersWatchFuture = null;
+        }
+        zk.removeWatches(ledgerRootPath, allLedgersWatcher, WatcherType.Any, true, (rc, path, ctx) -> {
+            if (rc != KeeperException.Code.OK.intValue() && rc != KeeperException.Code.NOWATCHER.intValue()) {
+                LOG.warn("Failed to remove the watch on all the ledgers under {}",
+                        ledgerRootPath, KeeperException.create(KeeperException.Code.get(rc), path));
+            }
+        }, null);
+    }
+
+    /**
+     * Watch all the ledgers with a single persistent recursive watch. ZooKeeper servers older than 3.6 don't
+     * support them, the ledgers are then watched one by one.
+     */
+    private CompletableFuture<Boolean> addAllLedgersWatch() {
+        CompletableFuture<Boolean> promise = new CompletableFuture<>();
+        zk.addWatch(ledgerRootPath, allLedgersWatcher, AddWatchMode.PERSISTENT_RECURSIVE, (rc, path, ctx) -> {
+            if (rc == KeeperException.Code.OK.intValue()) {
+                LOG.info("Watching all the ledgers under {}", ledgerRootPath);
+                promise.complete(true);
+            } else {
+                LOG.info("Can't watch all the ledgers under {}, they will be watched one by one: {}",
+                        ledgerRootPath, KeeperException.Code.get(rc));
+                promise.complete(false);
+            }
+        }, null);
+        return promise;
+    }
+
+    private void processAllLedgersEvent(WatchedEvent event) {
+        if (Event.EventType.None == event.getType()) {
+            if (Event.KeeperState.Expired == event.getState()) {
+                scheduler.submit(this::resetAllLedgersWatch);
+            }
+            return;
+        }
+        final long ledgerId;
+        try {
+            ledgerId = getWatchedLedgerId(event.getPath());
+        } catch (IOException ioe) {
+            // intermediate znodes of the hierarchy, or other znodes under the ledgers root
+            return;
+        }
+        switch (event.getType()) {
+        case NodeDeleted:
+            scheduler.submit(() -> notifyAllLedgersListeners(ledgerId, null));
+            break;
+        case NodeCreated:
+        case NodeDataChanged:
+            readAllLedgersMetadata(ledgerId);
+            break;
+        default:
+            break;
+        }
+    }
+
+    /**
+     * Return the id of the ledger stored at <i>path</i>, under the ledger root.
+     *
+     * @throws IOException if <i>path</i> isn't the path of a ledger
+     */
+    @VisibleForTesting
+    long getWatchedLedgerId(String path) throws IOException {
+        if (null == path || !path.startsWith(ledgerRootPath + "/")) {
+            throw new IOException("Not a ledger path: " + path);
+        }
+        String relativePath = path.substring(ledgerRootPath.length() + 1);
+        int firstSlash = relativePath.indexOf('/');
+        String topNode = firstSlash < 0 ? relativePath : relativePath.substring(0, firstSlash);
+        String leafNode = relativePath.substring(relativePath.lastIndexOf('/') + 1);
+        if (isSpecialZnode(topNode) || !isLedgerParentNode(topNode)
+                || !leafNode.startsWith(StringUtils.LEDGER_NODE_PREFIX)) {
+            throw new IOException("Not a ledger path: " + path);
+        }
+        return getLedgerId(path);
+    }
+
+    private void readAllLedgersMetadata(long ledgerId) {
+        readLedgerMetadata(ledgerId).whenComplete((metadata, exception) -> {
+            if (null == exception) {
+                scheduler.submit(() -> notifyAllLedgersListeners(ledgerId, metadata));
+            } else if (BKException.getExceptionCode(exception)
+                    != BKException.Code.NoSuchLedgerExistsOnMetadataServerException) {
+                // deletions are notified by their own event
+                LOG.warn("Failed on read ledger metadata of ledger {}: {}",
+                        ledgerId, BKException.getExceptionCode(exception));
+                scheduler.schedule(() -> readAllLedgersMetadata(ledgerId), ZK_CONNECT_BACKOFF_MS,
+                        TimeUnit.MILLISECONDS);
+            }
+        });
+    }
+
+    private void notifyAllLedgersListeners(long ledgerId, Versioned<LedgerMetadata> metadata) {
+        for (LedgerMetadataListener listener : allLedgersListeners) {
+            listener.onChanged(ledgerId, metadata);
+        }
+    }
+
+    /**
+     * Persistent watches don't survive the expiration of the session: watch all the ledgers again, and let the
+     * listeners know they missed the changes made meanwhile.
+     */
+    private void resetAllLedgersWatch() {
+        synchronized (allLedgersListeners) {
+            if (allLedgersListeners.isEmpty()) {
+                return;
+            }
+        }
+        LOG.info("ZooKeeper client expired, watching all the ledgers under {} again.", ledgerRootPath);
+        addAllLedgersWatch().thenAccept(watching -> {
+            if (watching) {
+                for (LedgerMetadataListener listener : allLedgersListeners) {
+                    listener.onWatchReset();
+                }
+            } else {
+                scheduler.schedule(this::resetAllLedgersWatch, ZK_CONNECT_BACKOFF_MS, TimeUnit.MILLISECONDS);
+            }
+        });
+    }
+
     private void cancelMetadataWatch(long ledgerId, Watcher watcher) {
         zk.removeWatches(getLedgerPath(ledgerId), watcher, WatcherType.Data, true, new VoidCallback() {
             @Override
@@ -509,6 +673,86 @@ public abstract class AbstractZkLedgerManager implements LedgerManager, Watcher
         return promise;
     }
 
+    @Override
+    public CompletableFuture<Map<Long, Versioned<LedgerMetadata>>> readLedgerMetadata(Collection<Long> ledgerIds) {
+        if (!multiReadSupported) {
+            return readLedgerMetadataOneByOne(ledgerIds);
+        }
+        return BulkLedgerMetadataReader.read(ledgerIds, BULK_READ_BATCH_SIZE, BULK_READ_MAX_BATCHES_IN_FLIGHT,
+                this::multiReadLedgerMetadata);
+    }
+
+    private CompletableFuture<Map<Long, Versioned<LedgerMetadata>>> readLedgerMetadataOneByOne(
+            Collection<Long> ledgerIds) {
+        return LedgerManager.super.readLedgerMetadata(ledgerIds);
+    }
+
+    /**
+     * Read the metadata of a batch of ledgers with a single read-only multi request.
+     */
+    private CompletableFuture<Map<Long, Versioned<LedgerMetadata>>> multiReadLedgerMetadata(List<Long> ledgerIds) {
+        CompletableFuture<Map<Long, Versioned<LedgerMetadata>>> promise = new CompletableFuture<>();
+        List<Op> ops = new ArrayList<>(ledgerIds.size());
+        for (long ledgerId : ledgerIds) {
+            ops.add(Op.getData(getLedgerPath(ledgerId)));
+        }
+        zk.multi(ops, new AsyncCallback.MultiCallback() {
+            @Override
+            public void processResult(int rc, String path, Object ctx, List<OpResult> opResults) {
+                if (rc == Code.UNIMPLEMENTED.intValue()) {
+                    // read-only multi requires ZooKeeper 3.6+ servers
+                    LOG.info("ZooKeeper doesn't support multi reads, reading ledger metadata one at a time");
+                    multiReadSupported = false;
+                    readLedgerMetadataOneByOne(ledgerIds).whenComplete((result, cause) -> {
+                        if (null != cause) {
+                            promise.completeExceptionally(cause);
+                        } else {
+                            promise.complete(result);
+                        }
+                    });
+                    return;
+                }
+                if (rc != Code.OK.intValue() || null == opResults) {
+                    LOG.error("Could not read metadata for {} ledgers", ledgerIds.size(),
+                            KeeperException.create(Code.get(rc)));
+                    promise.completeExceptionally(new BKException.ZKException(KeeperException.create(Code.get(rc))));
+                    return;
+                }
+                Map<Long, Versioned<LedgerMetadata>> result = new HashMap<>();
+                for (int i = 0; i < opResults.size(); i++) {
+                    long ledgerId = ledgerIds.get(i);
+                    OpResult opResult = opResults.get(i);
+                    if (opResult instanceof OpResult.ErrorResult) {
+                        int err = ((OpResult.ErrorResult) opResult).getErr();
+                        if (err == Code.NONODE.intValue()) {
+                            continue;
+                        }
+                        LOG.error("Could not read metadata for ledger: " + ledgerId,
+                                KeeperException.create(Code.get(err), getLedgerPath(ledgerId)));
+                        promise.completeExceptionally(new BKException.ZKException(
+                                KeeperException.create(Code.get(err), getLedgerPath(ledgerId))));
+                        return;
+                    }
+                    OpResult.GetDataResult dataResult = (OpResult.GetDataResult) opResult;
+                    Stat stat = dataResult.getStat();
+                    try {
+                        LedgerMetadata metadata = serDe.parseConfig(dataResult.getData(), ledgerId,
+                                Optional.of(stat.getCtime()));
+                        result.put(ledgerId, new Versioned<>(metadata, new LongVersion(stat.getVersion())));
+                    } catch (Throwable t) {
+                        LOG.error("Could not parse ledger metadata for ledger: {}", ledgerId, t);
+                        promise.completeExceptionally(new BKException.ZKException(
+                                new Exception("Could not parse ledger metadata for ledger: "
+                                        + ledgerId, t).fillInStackTrace()));
+                        return;
+                    }
+                }
+                promise.complete(result);
+            }
+        }, null);
+        return promise;
+    }
+
     @Override
     public CompletableFuture<Versioned<LedgerMetadata>> writeLedgerMetadata(long ledgerId, LedgerMetadata metadata,
                                                                             Version currentVersion) {
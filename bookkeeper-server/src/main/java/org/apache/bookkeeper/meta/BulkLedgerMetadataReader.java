@@ -0,0 +1,132 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.bookkeeper.meta;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+import org.apache.bookkeeper.client.api.LedgerMetadata;
+import org.apache.bookkeeper.versioning.Versioned;
+
+/**
+ * Reads the metadata of many ledgers, in batches, keeping a bounded window of batches in flight.
+ *
+ * <p>Used by the {@link LedgerManager} implementations of {@link LedgerManager#readLedgerMetadata(Collection)}:
+ * each of them provides the read of one batch, e.g. a single multi-read request to the metadata store, and
+ * this class pipelines the batches so that the throughput of a bulk read isn't bound by the round trip
+ * latency to the metadata store.
+ */
+public final class BulkLedgerMetadataReader {
+
+    private final Iterator<List<Long>> batches;
+    private final Function<List<Long>, CompletableFuture<Map<Long, Versioned<LedgerMetadata>>>> batchReader;
+    private final Map<Long, Versioned<LedgerMetadata>> results = new HashMap<>();
+    private final CompletableFuture<Map<Long, Versioned<LedgerMetadata>>> promise = new CompletableFuture<>();
+    private int inFlight = 0;
+    private int batchesToStart = 0;
+    private boolean issuing = false;
+
+    private BulkLedgerMetadataReader(Iterator<List<Long>> batches,
+            Function<List<Long>, CompletableFuture<Map<Long, Versioned<LedgerMetadata>>>> batchReader) {
+        this.batches = batches;
+        this.batchReader = batchReader;
+    }
+
+    /**
+     * Read the metadata of <i>ledgerIds</i>.
+     *
+     * @param ledgerIds ledgers to read
+     * @param batchSize max number of ledgers passed to one call of <i>batchReader</i>
+     * @param maxBatchesInFlight max number of batches being read at any time
+     * @param batchReader reads the metadata of a batch of ledgers; ledgers that don't exist must be absent
+     *                    from the returned map
+     * @return future completed with the metadata of the ledgers that exist, or with the first failure
+     */
+    public static CompletableFuture<Map<Long, Versioned<LedgerMetadata>>> read(
+            Collection<Long> ledgerIds, int batchSize, int maxBatchesInFlight,
+            Function<List<Long>, CompletableFuture<Map<Long, Versioned<LedgerMetadata>>>> batchReader) {
+        if (batchSize <= 0 || maxBatchesInFlight <= 0) {
+            throw new IllegalArgumentException("Invalid batch size (" + batchSize
+                    + ") or max batches in flight (" + maxBatchesInFlight + ")");
+        }
+        List<List<Long>> batches = new ArrayList<>((ledgerIds.size() + batchSize - 1) / batchSize);
+        List<Long> batch = new ArrayList<>(batchSize);
+        for (Long ledgerId : ledgerIds) {
+            batch.add(ledgerId);
+            if (batch.size() == batchSize) {
+                batches.add(batch);
+                batch = new ArrayList<>(batchSize);
+            }
+        }
+        if (!batch.isEmpty()) {
+            batches.add(batch);
+        }
+        BulkLedgerMetadataReader reader = new BulkLedgerMetadataReader(batches.iterator(), batchReader);
+        reader.readNextBatches(maxBatchesInFlight);
+        return reader.promise;
+    }
+
+    private void readNextBatches(int numBatches) {
+        synchronized (this) {
+            batchesToStart += numBatches;
+            if (issuing) {
+                // reads completing inline must not recurse, the issuing thread will start the next batches
+                return;
+            }
+            issuing = true;
+        }
+        while (true) {
+            List<Long> batch;
+            synchronized (this) {
+                if (batchesToStart == 0 || !batches.hasNext() || promise.isDone()) {
+                    issuing = false;
+                    if (inFlight == 0 && !batches.hasNext()) {
+                        promise.complete(results);
+                    }
+                    return;
+                }
+                batch = batches.next();
+                batchesToStart--;
+                inFlight++;
+            }
+            CompletableFuture<Map<Long, Versioned<LedgerMetadata>>> batchFuture;
+            try {
+                batchFuture = batchReader.apply(batch);
+            } catch (Throwable t) {
+                batchFuture = new CompletableFuture<>();
+                batchFuture.completeExceptionally(t);
+            }
+            batchFuture.whenComplete((batchResults, cause) -> {
+                synchronized (BulkLedgerMetadataReader.this) {
+                    inFlight--;
+                    if (null != cause) {
+                        promise.completeExceptionally(cause);
+                        return;
+                    }
+                    results.putAll(batchResults);
+                }
+                readNextBatches(1);
+            });
+        }
+    }
+}
@@ -19,10 +19,15 @@ package org.apache.bookkeeper.meta;
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
 import java.util.Set;
 import java.util.SortedSet;
 import java.util.TreeSet;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import org.apache.bookkeeper.client.BKException;
 import org.apache.bookkeeper.client.api.LedgerMetadata;
 import org.apache.bookkeeper.proto.BookkeeperInternalCallbacks.LedgerMetadataListener;
 import org.apache.bookkeeper.proto.BookkeeperInternalCallbacks.Processor;
@@ -87,6 +92,44 @@ public interface LedgerManager extends Closeable {
      */
     CompletableFuture<Versioned<LedgerMetadata>> readLedgerMetadata(long ledgerId);
 
+    /**
+     * Max number of single ledger metadata reads in flight in the default implementation of
+     * {@link #readLedgerMetadata(Collection)}.
+     */
+    int DEFAULT_BULK_READ_MAX_IN_FLIGHT = 1000;
+
+    /**
+     * Read the ledger metadata of many ledgers.
+     *
+     * <p>Implementations pipeline the reads, keeping a bounded number of them in flight, and batch them
+     * when the metadata store supports it. The default implementation pipelines calls to
+     * {@link #readLedgerMetadata(long)}.
+     *
+     * @param ledgerIds
+     *          Ledger Ids
+     * @return Future which, when completed, contains the versioned metadata of every ledger of <i>ledgerIds</i>
+     *         that exists, by ledger id. Ledgers that don't exist are absent from the map.
+     *         Completed with an exception:<ul>
+     *          <li>{@link org.apache.bookkeeper.client.BKException.ZKException} for other issues</li>
+     *          </ul>
+     * @since 4.16
+     */
+    default CompletableFuture<Map<Long, Versioned<LedgerMetadata>>> readLedgerMetadata(Collection<Long> ledgerIds) {
+        return BulkLedgerMetadataReader.read(ledgerIds, 1, DEFAULT_BULK_READ_MAX_IN_FLIGHT,
+                batch -> readLedgerMetadata(batch.get(0))
+                        .handle((metadata, cause) -> {
+                            if (null == cause) {
+                                return Collections.singletonMap(batch.get(0), metadata);
+                            }
+                            int rc = BKException.getExceptionCode(cause);
+                            if (rc == BKException.Code.NoSuchLedgerExistsOnMetadataServerException
+                                    || rc == BKException.Code.NoSuchLedgerExistsException) {
+                                return Collections.<Long, Versioned<LedgerMetadata>>emptyMap();
+                            }
+                            throw new CompletionException(cause);
+                        }));
+    }
+
     /**
      * Write ledger metadata.
      *
@@ -126,6 +169,32 @@ public interface LedgerManager extends Closeable {
      */
     void unregisterLedgerMetadataListener(long ledgerId, LedgerMetadataListener listener);
 
+    /**
+     * Register the ledger metadata <i>listener</i> on all the ledgers, including the ledgers created after the
+     * registration, with a single watch on the metadata store. The listener is notified of the ledgers
+     * created, changed and deleted, but not of the ledgers existing at the time of the registration.
+     *
+     * @param listener
+     *          listener.
+     * @return Future which, when completed, tells whether the listener was registered. Ledger managers which
+     *         can't watch all the ledgers at once complete it with false, the ledgers then have to be watched
+     *         one by one with {@link #registerLedgerMetadataListener(long, LedgerMetadataListener)}.
+     * @since 4.16
+     */
+    default CompletableFuture<Boolean> registerAllLedgersMetadataListener(LedgerMetadataListener listener) {
+        return CompletableFuture.completedFuture(false);
+    }
+
+    /**
+     * Unregister a ledger metadata <i>listener</i> registered on all the ledgers.
+     *
+     * @param listener
+     *          ledger metadata listener.
+     * @since 4.16
+     */
+    default void unregisterAllLedgersMetadataListener(LedgerMetadataListener listener) {
+    }
+
     /**
      * Loop to process all ledgers.
      * <p>
@@ -21,11 +21,14 @@ import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkState;
 import static java.nio.charset.StandardCharsets.UTF_8;
 
+import com.google.common.io.ByteStreams;
 import com.google.protobuf.ByteString;
 import com.google.protobuf.TextFormat;
 import java.io.BufferedReader;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
@@ -33,12 +36,19 @@ import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.io.UnsupportedEncodingException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Base64;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.stream.Collectors;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
 import org.apache.bookkeeper.client.LedgerMetadataBuilder;
 import org.apache.bookkeeper.client.LedgerMetadataUtils;
 import org.apache.bookkeeper.client.api.DigestType;
@@ -74,7 +84,15 @@ public class LedgerMetadataSerDe {
      */
     public static final int METADATA_FORMAT_VERSION_3 = 3;
 
-    public static final int MAXIMUM_METADATA_FORMAT_VERSION = METADATA_FORMAT_VERSION_3;
+    /**
+     * Compact binary format: ensembles reference a per-ledger dictionary of bookies, numbers are varint
+     * encoded and large custom metadata is deflated.
+     * Available from v4.16.x onwards. Not the default yet, since older readers can't parse it: it is used
+     * when {@code ledgerMetadataVersion} is set to 4, once all the clients and bookies are upgraded.
+     */
+    public static final int METADATA_FORMAT_VERSION_4 = 4;
+
+    public static final int MAXIMUM_METADATA_FORMAT_VERSION = METADATA_FORMAT_VERSION_4;
     public static final int CURRENT_METADATA_FORMAT_VERSION = METADATA_FORMAT_VERSION_3;
     private static final int LOWEST_COMPAT_METADATA_FORMAT_VERSION = METADATA_FORMAT_VERSION_1;
 
@@ -85,6 +103,15 @@ public class LedgerMetadataSerDe {
     private static final byte[] LINE_SPLITTER_BYTES = LINE_SPLITTER.getBytes(UTF_8);
     private static final String FIELD_SPLITTER = "\t";
 
+    // V4 constants
+    private static final byte V4_STATE_OPEN = 0;
+    private static final byte V4_STATE_IN_RECOVERY = 1;
+    private static final byte V4_STATE_CLOSED = 2;
+    private static final byte V4_FLAG_CTIME = 0x1;
+    private static final byte V4_FLAG_CUSTOM_METADATA_DEFLATED = 0x2;
+    // custom metadata smaller than this isn't worth deflating
+    private static final int V4_MIN_CUSTOM_METADATA_SIZE_TO_DEFLATE = 256;
+
     // old V1 constants
     private static final String V1_CLOSED_TAG = "CLOSED";
     private static final int V1_IN_RECOVERY_ENTRY_ID = -102;
@@ -128,6 +155,9 @@ public class LedgerMetadataSerDe {
         int formatVersion = metadata.getMetadataFormatVersion();
         final byte[] serialized;
         switch (formatVersion) {
+        case METADATA_FORMAT_VERSION_4:
+            serialized = serializeVersion4(metadata);
+            break;
         case METADATA_FORMAT_VERSION_3:
             serialized = serializeVersion3(metadata);
             break;
@@ -152,6 +182,142 @@ public class LedgerMetadataSerDe {
         return serialized;
     }
 
+    private static byte[] serializeVersion4(LedgerMetadata metadata) throws IOException {
+        byte[] body = serializeVersion4Body(metadata);
+        try (ByteArrayOutputStream bos = new ByteArrayOutputStream();
+             DataOutputStream os = new DataOutputStream(bos)) {
+            writeHeader(os, METADATA_FORMAT_VERSION_4);
+            // the body is length delimited, as the protobuf of V3, so that its fields never read past it
+            writeVarLong(os, body.length);
+            os.write(body);
+            os.flush();
+            return bos.toByteArray();
+        }
+    }
+
+    private static byte[] serializeVersion4Body(LedgerMetadata metadata) throws IOException {
+        try (ByteArrayOutputStream bos = new ByteArrayOutputStream();
+             DataOutputStream os = new DataOutputStream(bos)) {
+            Map<String, byte[]> customMetadata = metadata.getCustomMetadata();
+            byte[] customMetadataBytes = serializeCustomMetadata(customMetadata);
+            byte flags = 0;
+            /** Hack to get around fact that ctime was never versioned correctly */
+            boolean storeCtime = LedgerMetadataUtils.shouldStoreCtime(metadata);
+            if (storeCtime) {
+                flags |= V4_FLAG_CTIME;
+            }
+            if (customMetadataBytes.length >= V4_MIN_CUSTOM_METADATA_SIZE_TO_DEFLATE) {
+                byte[] deflated = deflate(customMetadataBytes);
+                if (deflated.length < customMetadataBytes.length) {
+                    customMetadataBytes = deflated;
+                    flags |= V4_FLAG_CUSTOM_METADATA_DEFLATED;
+                }
+            }
+            os.writeByte(flags);
+
+            writeVarLong(os, metadata.getEnsembleSize());
+            writeVarLong(os, metadata.getWriteQuorumSize());
+            writeVarLong(os, metadata.getAckQuorumSize());
+            switch (metadata.getState()) {
+            case CLOSED:
+                os.writeByte(V4_STATE_CLOSED);
+                // last entry id is -1 for empty ledgers
+                writeVarLong(os, metadata.getLastEntryId() + 1);
+                writeVarLong(os, metadata.getLength());
+                break;
+            case IN_RECOVERY:
+                os.writeByte(V4_STATE_IN_RECOVERY);
+                break;
+            case OPEN:
+                os.writeByte(V4_STATE_OPEN);
+                break;
+            default:
+                checkArgument(false,
+                              String.format("Unknown state %s for V4 serialization", metadata.getState()));
+                break;
+            }
+            if (storeCtime) {
+                writeVarLong(os, metadata.getCtime());
+            }
+            writeVarLong(os, metadata.getCToken());
+            os.writeByte(apiToProtoDigestType(metadata.getDigestType()).getNumber());
+            writeBytes(os, metadata.getPassword());
+
+            // every bookie is written once, ensembles refer to it by its index in the dictionary
+            Map<BookieId, Integer> dictionary = new LinkedHashMap<>();
+            for (List<BookieId> ensemble : metadata.getAllEnsembles().values()) {
+                for (BookieId bookie : ensemble) {
+                    dictionary.putIfAbsent(bookie, dictionary.size());
+                }
+            }
+            writeVarLong(os, dictionary.size());
+            for (BookieId bookie : dictionary.keySet()) {
+                writeBytes(os, bookie.toString().getBytes(UTF_8));
+            }
+            writeVarLong(os, metadata.getAllEnsembles().size());
+            long previousFirstEntryId = 0;
+            for (Map.Entry<Long, ? extends List<BookieId>> entry : metadata.getAllEnsembles().entrySet()) {
+                // segments are sorted, their first entry ids are delta encoded
+                writeVarLong(os, entry.getKey() - previousFirstEntryId);
+                previousFirstEntryId = entry.getKey();
+                writeVarLong(os, entry.getValue().size());
+                for (BookieId bookie : entry.getValue()) {
+                    writeVarLong(os, dictionary.get(bookie));
+                }
+            }
+
+            writeBytes(os, customMetadataBytes);
+            os.flush();
+            return bos.toByteArray();
+        }
+    }
+
+    private static byte[] serializeCustomMetadata(Map<String, byte[]> customMetadata) throws IOException {
+        if (customMetadata.isEmpty()) {
+            return new byte[0];
+        }
+        try (ByteArrayOutputStream bos = new ByteArrayOutputStream();
+             DataOutputStream os = new DataOutputStream(bos)) {
+            writeVarLong(os, customMetadata.size());
+            for (Map.Entry<String, byte[]> entry : customMetadata.entrySet()) {
+                writeBytes(os, entry.getKey().getBytes(UTF_8));
+                writeBytes(os, entry.getValue());
+            }
+            os.flush();
+            return bos.toByteArray();
+        }
+    }
+
+    private static byte[] deflate(byte[] data) throws IOException {
+        Deflater deflater = new Deflater();
+        try (ByteArrayOutputStream bos = new ByteArrayOutputStream(data.length)) {
+            try (DeflaterOutputStream os = new DeflaterOutputStream(bos, deflater)) {
+                os.write(data);
+            }
+            return bos.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static void writeVarLong(DataOutputStream os, long value) throws IOException {
+        checkArgument(value >= 0, "Negative value %s can't be varint encoded", value);
+        while ((value & ~0x7FL) != 0) {
+            os.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        os.writeByte((int) value);
+    }
+
+    private static void writeBytes(DataOutputStream os, byte[] bytes) throws IOException {
+        if (null == bytes) {
+            writeVarLong(os, 0);
+        } else {
+            writeVarLong(os, bytes.length);
+            os.write(bytes);
+        }
+    }
+
     private static byte[] serializeVersion3(LedgerMetadata metadata) throws IOException {
         try (ByteArrayOutputStream os = new ByteArrayOutputStream()) {
             writeHeader(os, METADATA_FORMAT_VERSION_3);
@@ -353,6 +519,8 @@ public class LedgerMetadataSerDe {
             }
 
             switch (metadataFormatVersion) {
+            case METADATA_FORMAT_VERSION_4:
+                return parseVersion4Config(ledgerId, is, metadataStoreCtime);
             case METADATA_FORMAT_VERSION_3:
                 return parseVersion3Config(ledgerId, is, metadataStoreCtime);
             case METADATA_FORMAT_VERSION_2:
@@ -362,12 +530,169 @@ public class LedgerMetadataSerDe {
             default:
                 throw new IOException(
                         String.format("Metadata version not compatible. Expected between %d and %d, but got %d",
-                                      LOWEST_COMPAT_METADATA_FORMAT_VERSION, CURRENT_METADATA_FORMAT_VERSION,
+                                      LOWEST_COMPAT_METADATA_FORMAT_VERSION, MAXIMUM_METADATA_FORMAT_VERSION,
                                       metadataFormatVersion));
             }
         }
     }
 
+    private static LedgerMetadata parseVersion4Config(long ledgerId, InputStream stream,
+                                                      Optional<Long> metadataStoreCtime) throws IOException {
+        LedgerMetadataBuilder builder = LedgerMetadataBuilder.create()
+                .withId(ledgerId)
+                .withMetadataFormatVersion(METADATA_FORMAT_VERSION_4);
+        DataInputStream dis = new DataInputStream(stream);
+        int length = readVarInt(dis);
+        // don't trust a corrupted length to allocate the body
+        byte[] body = ByteStreams.toByteArray(ByteStreams.limit(dis, length));
+        if (body.length != length) {
+            throw new IOException("Ledger metadata of ledger " + ledgerId + " is truncated: " + body.length
+                    + " bytes out of " + length);
+        }
+        // every length read from the body is checked against the bytes remaining in it
+        ByteBuffer is = ByteBuffer.wrap(body);
+        try {
+            byte flags = is.get();
+            int ensembleSize = readVarInt(is);
+            builder.withEnsembleSize(ensembleSize)
+                .withWriteQuorumSize(readVarInt(is))
+                .withAckQuorumSize(readVarInt(is));
+            byte state = is.get();
+            switch (state) {
+            case V4_STATE_CLOSED:
+                builder.withClosedState().withLastEntryId(readVarLong(is) - 1).withLength(readVarLong(is));
+                break;
+            case V4_STATE_IN_RECOVERY:
+                builder.withInRecoveryState();
+                break;
+            case V4_STATE_OPEN:
+                break;
+            default:
+                throw new IOException("Unknown ledger state " + state);
+            }
+            if ((flags & V4_FLAG_CTIME) != 0) {
+                builder.withCreationTime(readVarLong(is)).storingCreationTime(true);
+            } else if (metadataStoreCtime.isPresent()) {
+                builder.withCreationTime(metadataStoreCtime.get()).storingCreationTime(false);
+            }
+            builder.withCToken(readVarLong(is));
+            LedgerMetadataFormat.DigestType digestType = LedgerMetadataFormat.DigestType.forNumber(is.get());
+            if (null == digestType) {
+                throw new IOException("Unknown digest type");
+            }
+            builder.withDigestType(protoToApiDigestType(digestType)).withPassword(readBytes(is));
+
+            int dictionarySize = readVarInt(is);
+            // every bookie id takes at least a byte, don't trust a corrupted size to allocate the dictionary
+            checkLength(dictionarySize, is);
+            BookieId[] dictionary = new BookieId[dictionarySize];
+            for (int i = 0; i < dictionary.length; i++) {
+                dictionary[i] = BookieId.parse(new String(readBytes(is), UTF_8));
+            }
+            int numSegments = readVarInt(is);
+            long firstEntryId = 0;
+            for (int i = 0; i < numSegments; i++) {
+                firstEntryId += readVarLong(is);
+                List<BookieId> ensemble = new ArrayList<>(ensembleSize);
+                int numBookies = readVarInt(is);
+                for (int j = 0; j < numBookies; j++) {
+                    int index = readVarInt(is);
+                    if (index >= dictionary.length) {
+                        throw new IOException("Bookie index " + index + " out of dictionary of size "
+                                + dictionary.length);
+                    }
+                    ensemble.add(dictionary[index]);
+                }
+                builder.newEnsembleEntry(firstEntryId, ensemble);
+            }
+
+            byte[] customMetadataBytes = readBytes(is);
+            if ((flags & V4_FLAG_CUSTOM_METADATA_DEFLATED) != 0) {
+                customMetadataBytes = inflate(customMetadataBytes);
+            }
+            if (customMetadataBytes.length > 0) {
+                ByteBuffer cis = ByteBuffer.wrap(customMetadataBytes);
+                int numEntries = readVarInt(cis);
+                Map<String, byte[]> customMetadata = new HashMap<>();
+                for (int i = 0; i < numEntries; i++) {
+                    customMetadata.put(new String(readBytes(cis), UTF_8), readBytes(cis));
+                }
+                builder.withCustomMetadata(customMetadata);
+            }
+            // bytes left in the body are fields appended by later versions of the format, ignore them
+        } catch (BufferUnderflowException bue) {
+            throw new IOException("Ledger metadata of ledger " + ledgerId + " is truncated", bue);
+        } catch (IllegalArgumentException iae) {
+            throw new IOException("Ledger metadata of ledger " + ledgerId + " is corrupted", iae);
+        }
+        return builder.build();
+    }
+
+    private static byte[] inflate(byte[] data) throws IOException {
+        try (InflaterInputStream is = new InflaterInputStream(new ByteArrayInputStream(data));
+             ByteArrayOutputStream os = new ByteArrayOutputStream(data.length * 2)) {
+            byte[] buf = new byte[1024];
+            int read;
+            while ((read = is.read(buf)) > 0) {
+                os.write(buf, 0, read);
+            }
+            return os.toByteArray();
+        }
+    }
+
+    private static long readVarLong(DataInputStream is) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = is.readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    private static int readVarInt(DataInputStream is) throws IOException {
+        return toInt(readVarLong(is));
+    }
+
+    private static long readVarLong(ByteBuffer buf) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = buf.get();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    private static int readVarInt(ByteBuffer buf) throws IOException {
+        return toInt(readVarLong(buf));
+    }
+
+    private static int toInt(long value) throws IOException {
+        if (value < 0 || value > Integer.MAX_VALUE) {
+            throw new IOException("Varint " + value + " out of int range");
+        }
+        return (int) value;
+    }
+
+    private static void checkLength(int length, ByteBuffer buf) throws IOException {
+        if (length > buf.remaining()) {
+            throw new IOException("Length " + length + " exceeds the remaining " + buf.remaining() + " bytes");
+        }
+    }
+
+    private static byte[] readBytes(ByteBuffer buf) throws IOException {
+        int length = readVarInt(buf);
+        checkLength(length, buf);
+        byte[] bytes = new byte[length];
+        buf.get(bytes);
+        return bytes;
+    }
+
     private static LedgerMetadata parseVersion3Config(long ledgerId, InputStream is, Optional<Long> metadataStoreCtime)
             throws IOException {
         LedgerMetadataBuilder builder = LedgerMetadataBuilder.create()
@@ -52,6 +52,8 @@ class LegacyHierarchicalLedgerManager extends AbstractHierarchicalLedgerManager
     static final String IDGEN_ZNODE = "idgen";
     private static final String MAX_ID_SUFFIX = "9999";
     private static final String MIN_ID_SUFFIX = "0000";
+    // depth of the level2 nodes, whose children are the ledger nodes
+    private static final int LEAF_DEPTH = 2;
 
     private static final ThreadLocal<StringBuilder> threadLocalNodeBuilder = new ThreadLocal<StringBuilder>() {
         @Override
@@ -143,7 +145,7 @@ class LegacyHierarchicalLedgerManager extends AbstractHierarchicalLedgerManager
                     }
                 }, cb1, context, successRc, failureRc);
             }
-        }, finalCb, context, successRc, failureRc);
+        }, finalCb, context, successRc, failureRc, conf.getZkLedgerIterationParallelism());
     }
 
     @Override
@@ -153,9 +155,25 @@ class LegacyHierarchicalLedgerManager extends AbstractHierarchicalLedgerManager
 
     @Override
     public LedgerRangeIterator getLedgerRanges(long zkOpTimeoutMs) {
+        int maxInFlightRequests = conf.getZkLedgerIterationMaxInFlightRequests();
+        if (maxInFlightRequests > 1) {
+            return new ParallelLedgerRangeIterator(this, LEAF_DEPTH, maxInFlightRequests, zkOpTimeoutMs);
+        }
         return new LegacyHierarchicalLedgerRangeIterator(zkOpTimeoutMs);
     }
 
+    @Override
+    LedgerRange getLedgerRange(String path, List<String> ledgerNodes) throws IOException {
+        // path is ledgerRootPath/level1/level2
+        int level2Start = path.lastIndexOf('/');
+        int level1Start = path.lastIndexOf('/', level2Start - 1);
+        String level1 = path.substring(level1Start + 1, level2Start);
+        String level2 = path.substring(level2Start + 1);
+        NavigableSet<Long> zkActiveLedgers = ledgerListToSet(ledgerNodes, path);
+        return new LedgerRange(zkActiveLedgers.subSet(getStartLedgerIdByLevel(level1, level2), true,
+                                                      getEndLedgerIdByLevel(level1, level2), true));
+    }
+
     /**
      * Iterator through each metadata bucket with hierarchical mode.
      */
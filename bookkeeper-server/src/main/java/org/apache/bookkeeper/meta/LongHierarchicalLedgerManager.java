@@ -61,6 +61,9 @@ class LongHierarchicalLedgerManager extends AbstractHierarchicalLedgerManager {
 
     static final String IDGEN_ZNODE = "idgen-long";
 
+    // depth of the level3 nodes, whose children are the ledger nodes
+    private static final int LEAF_DEPTH = 4;
+
     /**
      * Constructor.
      *
@@ -96,9 +99,10 @@ class LongHierarchicalLedgerManager extends AbstractHierarchicalLedgerManager {
             final Object context, final int successRc, final int failureRc) {
 
         // If it succeeds, proceed with our own recursive ledger processing for the 63-bit id ledgers
+        // level0 subtrees are disjoint, they can be processed concurrently
         asyncProcessLevelNodes(ledgerRootPath,
                 new RecursiveProcessor(0, ledgerRootPath, processor, context, successRc, failureRc), finalCb, context,
-                successRc, failureRc);
+                successRc, failureRc, conf.getZkLedgerIterationParallelism());
     }
 
     private class RecursiveProcessor implements Processor<String> {
@@ -139,6 +143,10 @@ class LongHierarchicalLedgerManager extends AbstractHierarchicalLedgerManager {
 
     @Override
     public LedgerRangeIterator getLedgerRanges(long zkOpTimeoutMs) {
+        int maxInFlightRequests = conf.getZkLedgerIterationMaxInFlightRequests();
+        if (maxInFlightRequests > 1) {
+            return new ParallelLedgerRangeIterator(this, LEAF_DEPTH, maxInFlightRequests, zkOpTimeoutMs);
+        }
         return new LongHierarchicalLedgerRangeIterator(zkOpTimeoutMs);
     }
 
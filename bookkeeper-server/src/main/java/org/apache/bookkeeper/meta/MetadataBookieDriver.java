@@ -19,8 +19,10 @@
 package org.apache.bookkeeper.meta;
 
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
 import org.apache.bookkeeper.common.concurrent.FutureUtils;
 import org.apache.bookkeeper.conf.ServerConfiguration;
+import org.apache.bookkeeper.discover.RegistrationClient;
 import org.apache.bookkeeper.discover.RegistrationManager;
 import org.apache.bookkeeper.meta.exceptions.MetadataException;
 import org.apache.bookkeeper.stats.StatsLogger;
@@ -55,6 +57,17 @@ public interface MetadataBookieDriver extends AutoCloseable {
      */
     RegistrationManager createRegistrationManager();
 
+    /**
+     * Create a registration client sharing the metadata store session of this driver, for the bookie to look up
+     * the other bookies of the cluster. The caller closes it, which leaves the session of the driver open.
+     *
+     * @param scheduler scheduler of the registration client
+     * @return the registration client, or null if this driver can't look up the bookies
+     */
+    default RegistrationClient createRegistrationClient(ScheduledExecutorService scheduler) {
+        return null;
+    }
+
     /**
      * Return the ledger manager factory used for accessing ledger metadata.
      *
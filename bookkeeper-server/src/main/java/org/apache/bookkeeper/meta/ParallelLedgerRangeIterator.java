@@ -0,0 +1,233 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.bookkeeper.meta;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.bookkeeper.common.util.MathUtils;
+import org.apache.bookkeeper.meta.LedgerManager.LedgerRange;
+import org.apache.bookkeeper.meta.LedgerManager.LedgerRangeIterator;
+import org.apache.bookkeeper.util.ZkUtils;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.KeeperException.Code;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A {@link LedgerRangeIterator} walking the znode tree of a hierarchical ledger manager with several
+ * zookeeper requests in flight.
+ *
+ * <p>The subtrees not returned yet are kept in ledger id order. The children of the first
+ * {@code maxInFlightRequests} of them are listed concurrently, and completed internal nodes are replaced by
+ * their children as soon as they are listed, so the walk doesn't wait for the consumer to go down the tree.
+ * Nothing is listed beyond that window: a slow consumer holds at most {@code maxInFlightRequests}
+ * subtrees in memory, which bounds both the memory used and the load put on zookeeper. Ranges are
+ * returned in the same order as the sequential iterators.
+ */
+class ParallelLedgerRangeIterator implements LedgerRangeIterator {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ParallelLedgerRangeIterator.class);
+
+    private final AbstractHierarchicalLedgerManager ledgerManager;
+    private final int leafDepth;
+    private final int maxInFlightRequests;
+    private final long zkOpTimeoutMs;
+
+    // subtrees not returned yet, in ledger id order
+    private final LinkedList<Node> pending = new LinkedList<>();
+    private final AtomicInteger inFlightRequests = new AtomicInteger(0);
+    // notified every time a listing completes
+    private final Object progress = new Object();
+    private LedgerRange nextRange = null;
+
+    /**
+     * A znode whose children are, or will be, listed.
+     */
+    private final class Node {
+        final String path;
+        final int depth;
+        boolean started = false;
+        long startNanos;
+        // written by the zookeeper callback before done is set
+        volatile int rc;
+        volatile List<String> children;
+        volatile boolean done = false;
+
+        Node(String path, int depth) {
+            this.path = path;
+            this.depth = depth;
+        }
+
+        void list() {
+            started = true;
+            startNanos = MathUtils.nowInNano();
+            inFlightRequests.incrementAndGet();
+            ZkUtils.getChildrenInSingleNode(ledgerManager.zk, path, (rc, nodes) -> {
+                if (Code.NONODE.intValue() == rc) {
+                    // raced with the removal of the node, there are no children there
+                    this.rc = Code.OK.intValue();
+                    this.children = Collections.emptyList();
+                } else {
+                    this.rc = rc;
+                    this.children = nodes;
+                }
+                inFlightRequests.decrementAndGet();
+                synchronized (progress) {
+                    done = true;
+                    progress.notifyAll();
+                }
+            });
+        }
+
+        boolean isLeaf() {
+            return depth == leafDepth;
+        }
+
+        boolean succeeded() {
+            return done && Code.OK.intValue() == rc;
+        }
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param ledgerManager
+     *          ledger manager owning the znode tree
+     * @param leafDepth
+     *          depth of the znodes whose children are ledger znodes, the root being at depth 0
+     * @param maxInFlightRequests
+     *          max number of concurrent zookeeper requests
+     * @param zkOpTimeoutMs
+     *          max time to wait for a listing, 0 to wait forever
+     */
+    ParallelLedgerRangeIterator(AbstractHierarchicalLedgerManager ledgerManager, int leafDepth,
+                                int maxInFlightRequests, long zkOpTimeoutMs) {
+        this.ledgerManager = ledgerManager;
+        this.leafDepth = leafDepth;
+        this.maxInFlightRequests = Math.max(1, maxInFlightRequests);
+        this.zkOpTimeoutMs = zkOpTimeoutMs;
+        this.pending.add(new Node(ledgerManager.ledgerRootPath, 0));
+    }
+
+    /**
+     * Expand the listed internal nodes and start listing the nodes of the window.
+     */
+    private void fillWindow() {
+        ListIterator<Node> iter = pending.listIterator();
+        int windowSize = 0;
+        while (iter.hasNext() && windowSize < maxInFlightRequests) {
+            Node node = iter.next();
+            if (!node.started) {
+                if (inFlightRequests.get() >= maxInFlightRequests) {
+                    return;
+                }
+                node.list();
+                windowSize++;
+            } else if (!node.isLeaf() && node.succeeded()) {
+                // replace the node by its children, which are visited next
+                List<String> names = new ArrayList<>(node.children);
+                Collections.sort(names);
+                iter.remove();
+                int added = 0;
+                for (String name : names) {
+                    if (node.depth == 0 && !ledgerManager.isLedgerParentNode(name)) {
+                        continue;
+                    }
+                    iter.add(new Node(node.path + "/" + name, node.depth + 1));
+                    added++;
+                }
+                for (int i = 0; i < added; i++) {
+                    iter.previous();
+                }
+            } else {
+                windowSize++;
+            }
+        }
+    }
+
+    private void waitForProgress(Node head) throws IOException {
+        long waitMs = 0;
+        if (zkOpTimeoutMs > 0) {
+            waitMs = zkOpTimeoutMs - TimeUnit.NANOSECONDS.toMillis(MathUtils.elapsedNanos(head.startNanos));
+            if (waitMs <= 0) {
+                throw new IOException("Timed out listing the children of " + head.path,
+                        KeeperException.create(Code.OPERATIONTIMEOUT, head.path));
+            }
+        }
+        synchronized (progress) {
+            // any completed listing may let the window move forward, not only the one of the head
+            try {
+                if (!head.done) {
+                    progress.wait(waitMs);
+                }
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while listing the children of " + head.path, ie);
+            }
+        }
+    }
+
+    private void preload() throws IOException {
+        while (nextRange == null && !pending.isEmpty()) {
+            fillWindow();
+            if (pending.isEmpty()) {
+                return;
+            }
+            Node head = pending.getFirst();
+            if (!head.done) {
+                waitForProgress(head);
+            } else if (Code.OK.intValue() != head.rc) {
+                throw new IOException("Error listing the children of " + head.path,
+                        KeeperException.create(Code.get(head.rc), head.path));
+            } else if (head.isLeaf()) {
+                pending.removeFirst();
+                LedgerRange range = ledgerManager.getLedgerRange(head.path, head.children);
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug("All active ledgers from ZK for hash node {}: {}", head.path, range.getLedgers());
+                }
+                if (range.size() > 0) {
+                    nextRange = range;
+                }
+            }
+            // else the listed internal head is expanded by the next fillWindow()
+        }
+    }
+
+    @Override
+    public synchronized boolean hasNext() throws IOException {
+        preload();
+        return nextRange != null;
+    }
+
+    @Override
+    public synchronized LedgerRange next() throws IOException {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        LedgerRange range = nextRange;
+        nextRange = null;
+        return range;
+    }
+}
@@ -21,9 +21,12 @@ package org.apache.bookkeeper.meta.zk;
 import static org.apache.bookkeeper.bookie.BookKeeperServerStats.BOOKIE_SCOPE;
 
 import java.util.Optional;
+import java.util.concurrent.ScheduledExecutorService;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.bookkeeper.conf.ServerConfiguration;
+import org.apache.bookkeeper.discover.RegistrationClient;
 import org.apache.bookkeeper.discover.RegistrationManager;
+import org.apache.bookkeeper.discover.ZKRegistrationClient;
 import org.apache.bookkeeper.discover.ZKRegistrationManager;
 import org.apache.bookkeeper.meta.MetadataBookieDriver;
 import org.apache.bookkeeper.meta.MetadataDrivers;
@@ -68,6 +71,11 @@ public class ZKMetadataBookieDriver
         return new ZKRegistrationManager(serverConf, zk);
     }
 
+    @Override
+    public synchronized RegistrationClient createRegistrationClient(ScheduledExecutorService scheduler) {
+        return new ZKRegistrationClient(zk, ledgersRootPath, scheduler, false);
+    }
+
     @Override
     public void close() {
         super.close();
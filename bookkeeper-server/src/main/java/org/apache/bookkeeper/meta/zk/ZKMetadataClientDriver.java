@@ -76,11 +76,18 @@ public class ZKMetadataClientDriver
     @Override
     public synchronized RegistrationClient getRegistrationClient() {
         if (null == regClient) {
+            Object sharedMembershipKey = null;
+            if (clientConf.isSharedBookieMembershipEnabled()) {
+                // an external zookeeper client is only shared with the clients using the same handle
+                sharedMembershipKey = ownZKHandle ? resolveZkServers(clientConf) : zk;
+            }
             regClient = new ZKRegistrationClient(
                 zk,
                 ledgersRootPath,
                 scheduler,
-                bookieAddressTracking);
+                bookieAddressTracking,
+                sharedMembershipKey,
+                clientConf.getBookieMembershipChangeCoalesceMs());
         }
         return regClient;
     }
@@ -90,4 +90,15 @@ public interface NetworkTopology {
      * @return number of available nodes
      */
     int countNumOfAvailableNodes(String scope, Collection<Node> excludedNodes);
+
+    /**
+     * Returns an immutable snapshot of the leaves of the network topology.
+     *
+     * <p>The snapshot doesn't reflect the changes made to the topology after it was taken.
+     *
+     * @return snapshot of the network topology
+     */
+    default TopologySnapshot getSnapshot() {
+        return new TopologySnapshot(getLeaves(NodeBase.ROOT));
+    }
 }
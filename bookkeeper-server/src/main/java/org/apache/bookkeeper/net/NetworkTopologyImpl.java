@@ -389,6 +389,10 @@ public class NetworkTopologyImpl implements NetworkTopology {
      * The lock used to manage access.
      */
     protected ReadWriteLock netlock = new ReentrantReadWriteLock();
+    /**
+     * Snapshot of the leaves, reset whenever the topology changes and rebuilt on demand.
+     */
+    private volatile TopologySnapshot snapshot = null;
 
     public NetworkTopologyImpl() {
         clusterMap = new InnerNode(InnerNode.ROOT);
@@ -426,6 +430,7 @@ public class NetworkTopologyImpl implements NetworkTopology {
             }
             if (clusterMap.add(node)) {
                 LOG.info("Adding a new node: " + NodeBase.getPath(node));
+                snapshot = null;
                 if (rack == null) {
                     numOfRacks++;
                 }
@@ -501,6 +506,7 @@ public class NetworkTopologyImpl implements NetworkTopology {
         netlock.writeLock().lock();
         try {
             if (clusterMap.remove(node)) {
+                snapshot = null;
                 InnerNode rack = (InnerNode) getNode(node.getNetworkLocation());
                 if (rack == null) {
                     numOfRacks--;
@@ -771,6 +777,23 @@ public class NetworkTopologyImpl implements NetworkTopology {
         return leafNodes;
     }
 
+    @Override
+    public TopologySnapshot getSnapshot() {
+        TopologySnapshot current = snapshot;
+        if (null != current) {
+            return current;
+        }
+        netlock.readLock().lock();
+        try {
+            // the snapshot can only be reset under the write lock, so the one built here is up to date
+            current = new TopologySnapshot(doGetLeaves(NodeBase.ROOT));
+            snapshot = current;
+            return current;
+        } finally {
+            netlock.readLock().unlock();
+        }
+    }
+
     @Override
     public Set<Node> getLeaves(String scope) {
         netlock.readLock().lock();
@@ -151,6 +151,11 @@ public class StabilizeNetworkTopology implements NetworkTopology {
         return impl.getLeaves(loc);
     }
 
+    @Override
+    public TopologySnapshot getSnapshot() {
+        return impl.getSnapshot();
+    }
+
     @Override
     public int countNumOfAvailableNodes(String scope, Collection<Node> excludedNodes) {
         return impl.countNumOfAvailableNodes(scope, excludedNodes);
@@ -0,0 +1,175 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.bookkeeper.net;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Predicate;
+
+/**
+ * An immutable view of the leaves of a {@link NetworkTopology}, indexed by network location.
+ *
+ * <p>A snapshot is built once per change of the topology and is then read without any lock. Choosing a
+ * random leaf in a scope doesn't copy nor shuffle the leaves of the scope, which keeps the ensemble
+ * selection of the placement policies cheap when there are many bookies.
+ */
+public final class TopologySnapshot {
+
+    private static final Node[] EMPTY = new Node[0];
+    private static final char NODE_SEPARATOR_CHAR = NetworkTopologyImpl.NODE_SEPARATOR.charAt(0);
+    // number of uniform random probes made before scanning all the leaves of a scope
+    private static final int NUM_RANDOM_PROBES = 8;
+
+    private final Node[] leaves;
+    private final Map<String, Node[]> leavesByScope;
+    private final int numOfRacks;
+
+    public TopologySnapshot(Collection<Node> leaves) {
+        this.leaves = leaves.toArray(EMPTY);
+        Map<String, List<Node>> scopes = new HashMap<>();
+        Set<String> racks = new HashSet<>();
+        for (Node leaf : this.leaves) {
+            String location = NodeBase.normalize(leaf.getNetworkLocation());
+            racks.add(location);
+            // index the leaf under its rack and every ancestor of the rack
+            for (int end = location.length(); end > 0;
+                 end = location.lastIndexOf(NodeBase.PATH_SEPARATOR, end - 1)) {
+                scopes.computeIfAbsent(location.substring(0, end), k -> new ArrayList<>()).add(leaf);
+            }
+        }
+        Map<String, Node[]> leavesByScope = new HashMap<>(scopes.size() * 2);
+        scopes.forEach((scope, scopeLeaves) -> leavesByScope.put(scope, scopeLeaves.toArray(EMPTY)));
+        leavesByScope.put(NodeBase.ROOT, this.leaves);
+        this.leavesByScope = leavesByScope;
+        this.numOfRacks = racks.size();
+    }
+
+    /**
+     * Returns number of racks in the snapshot.
+     */
+    public int getNumOfRacks() {
+        return numOfRacks;
+    }
+
+    /**
+     * Returns number of leaves in the snapshot.
+     */
+    public int getNumOfLeaves() {
+        return leaves.length;
+    }
+
+    /**
+     * Returns the leaves under a network location.
+     *
+     * @param scope network location
+     * @return an unmodifiable list of the leaves under <i>scope</i>
+     */
+    public List<Node> getLeaves(String scope) {
+        Node[] scopeLeaves = leavesByScope.get(NodeBase.normalize(scope));
+        return null == scopeLeaves ? Collections.emptyList() : Collections.unmodifiableList(Arrays.asList(scopeLeaves));
+    }
+
+    /**
+     * Choose a random leaf in <i>scope</i> which is accepted by <i>filter</i>.
+     *
+     * <p>Every accepted leaf has the same probability to be chosen. If scope starts with ~, the leaf is
+     * chosen among the leaves which are not in any of the comma separated scopes following it.
+     *
+     * @param scope a path string that may start with ~
+     * @param filter predicate the chosen leaf must satisfy
+     * @return the chosen leaf, or null if no leaf in <i>scope</i> is accepted
+     */
+    public Node chooseRandom(String scope, Predicate<Node> filter) {
+        final Node[] candidates;
+        final boolean inverse = scope.startsWith(NetworkTopologyImpl.INVERSE);
+        if (inverse) {
+            if (scope.length() == 1) {
+                // excluding the root scope excludes everything
+                return null;
+            }
+            candidates = leaves;
+        } else {
+            candidates = leavesByScope.getOrDefault(NodeBase.normalize(scope), EMPTY);
+        }
+        int numCandidates = candidates.length;
+        if (numCandidates == 0) {
+            return null;
+        }
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        // usually most of the leaves are acceptable, so a few random probes find one without a full scan
+        for (int i = Math.min(numCandidates, NUM_RANDOM_PROBES); i > 0; i--) {
+            Node candidate = candidates[random.nextInt(numCandidates)];
+            if (accept(candidate, scope, inverse, filter)) {
+                return candidate;
+            }
+        }
+        // reservoir sampling over the whole scope keeps the choice uniform among the accepted leaves
+        Node chosen = null;
+        int numAccepted = 0;
+        for (Node candidate : candidates) {
+            if (accept(candidate, scope, inverse, filter) && random.nextInt(++numAccepted) == 0) {
+                chosen = candidate;
+            }
+        }
+        return chosen;
+    }
+
+    private static boolean accept(Node candidate, String scope, boolean inverse, Predicate<Node> filter) {
+        if (inverse && isInExcludedScopes(NodeBase.normalize(candidate.getNetworkLocation()), scope)) {
+            return false;
+        }
+        return filter.test(candidate);
+    }
+
+    /**
+     * Check whether <i>location</i> is under one of the excluded scopes of an inverse scope, without
+     * splitting the scope string.
+     */
+    private static boolean isInExcludedScopes(String location, String inverseScope) {
+        int from = NetworkTopologyImpl.INVERSE.length();
+        while (from < inverseScope.length()) {
+            int end = inverseScope.indexOf(NODE_SEPARATOR_CHAR, from);
+            if (end < 0) {
+                end = inverseScope.length();
+            }
+            int scopeEnd = end;
+            if (scopeEnd > from && inverseScope.charAt(scopeEnd - 1) == NodeBase.PATH_SEPARATOR) {
+                scopeEnd--;
+            }
+            int scopeLength = scopeEnd - from;
+            if (scopeLength == 0) {
+                // the root scope
+                return true;
+            }
+            if (location.regionMatches(0, inverseScope, from, scopeLength)
+                    && (location.length() == scopeLength || location.charAt(scopeLength) == NodeBase.PATH_SEPARATOR)) {
+                return true;
+            }
+            from = end + 1;
+        }
+        return false;
+    }
+}
@@ -23,8 +23,12 @@ package org.apache.bookkeeper.proto;
 import io.netty.util.ReferenceCounted;
 import java.util.EnumSet;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.CompletableFuture;
+import org.apache.bookkeeper.client.BKException;
+import org.apache.bookkeeper.client.api.DigestType;
 import org.apache.bookkeeper.client.api.WriteFlag;
+import org.apache.bookkeeper.common.concurrent.FutureUtils;
 import org.apache.bookkeeper.net.BookieId;
 import org.apache.bookkeeper.proto.BookkeeperInternalCallbacks.ForceLedgerCallback;
 import org.apache.bookkeeper.proto.BookkeeperInternalCallbacks.GetBookieInfoCallback;
@@ -230,6 +234,50 @@ public interface BookieClient {
     CompletableFuture<AvailabilityOfEntriesOfLedger> getListOfEntriesOfLedger(BookieId address,
             long ledgerId);
 
+    /**
+     * Makes async request for getting the list of entries of many ledgers from a bookie at once.
+     *
+     * <p>The ledgers that the bookie doesn't store are mapped to an empty availability. The ledgers
+     * whose entries the bookie failed to list are left out of the result.
+     *
+     * @param address
+     *            BookieId of the bookie
+     * @param ledgerIds
+     *            ledgers to list the entries of
+     * @return a future completed with the availability of entries of each ledger
+     */
+    default CompletableFuture<Map<Long, AvailabilityOfEntriesOfLedger>> getListOfEntriesOfLedgers(
+            BookieId address, List<Long> ledgerIds) {
+        return FutureUtils.exception(new BKException.BKIllegalOpException());
+    }
+
+    /**
+     * Ask a bookie to copy a range of a ledger straight from other bookies. The target bookie pulls the
+     * entries from the sources, in order, verifies their digest and adds them like recovery adds.
+     *
+     * @param target
+     *            bookie to copy the entries to
+     * @param ledgerId
+     *            ledgerId
+     * @param masterKey
+     *            master key of the ledger
+     * @param digestType
+     *            digest type of the ledger, the bookies can't verify {@link DigestType#MAC} digests
+     * @param firstEntryId
+     *            first entry of the range
+     * @param lastEntryId
+     *            last entry of the range, inclusive
+     * @param sourceBookies
+     *            bookies storing the range, in order of preference
+     * @return a future completed with the number of entries copied
+     */
+    default CompletableFuture<Long> copyLedgerRange(BookieId target, long ledgerId, byte[] masterKey,
+                                                    DigestType digestType,
+                                                    long firstEntryId, long lastEntryId,
+                                                    List<BookieId> sourceBookies) {
+        return FutureUtils.exception(new BKException.BKIllegalOpException());
+    }
+
     /**
      * @return whether bookie client object has been closed
      */
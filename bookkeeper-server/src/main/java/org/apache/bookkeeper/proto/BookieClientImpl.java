@@ -23,6 +23,7 @@ package org.apache.bookkeeper.proto;
 import static java.nio.charset.StandardCharsets.UTF_8;
 
 import com.google.common.collect.Lists;
+import com.google.protobuf.ByteString;
 import com.google.protobuf.ExtensionRegistry;
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.ByteBufAllocator;
@@ -36,7 +37,9 @@ import io.netty.util.ReferenceCounted;
 import io.netty.util.concurrent.DefaultThreadFactory;
 import java.io.IOException;
 import java.util.EnumSet;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executors;
@@ -48,7 +51,9 @@ import java.util.concurrent.locks.ReentrantReadWriteLock;
 import org.apache.bookkeeper.auth.AuthProviderFactoryFactory;
 import org.apache.bookkeeper.auth.ClientAuthProvider;
 import org.apache.bookkeeper.client.BKException;
+import org.apache.bookkeeper.client.BookKeeper;
 import org.apache.bookkeeper.client.BookieInfoReader.BookieInfo;
+import org.apache.bookkeeper.client.api.DigestType;
 import org.apache.bookkeeper.client.api.WriteFlag;
 import org.apache.bookkeeper.common.util.OrderedExecutor;
 import org.apache.bookkeeper.conf.ClientConfiguration;
@@ -62,6 +67,12 @@ import org.apache.bookkeeper.proto.BookkeeperInternalCallbacks.ReadEntryCallback
 import org.apache.bookkeeper.proto.BookkeeperInternalCallbacks.ReadLacCallback;
 import org.apache.bookkeeper.proto.BookkeeperInternalCallbacks.WriteCallback;
 import org.apache.bookkeeper.proto.BookkeeperInternalCallbacks.WriteLacCallback;
+import org.apache.bookkeeper.proto.BookkeeperProtocol.BookieAddress;
+import org.apache.bookkeeper.proto.BookkeeperProtocol.CopyLedgerRangeRequest;
+import org.apache.bookkeeper.proto.BookkeeperProtocol.GetListOfEntriesOfLedgerResponse;
+import org.apache.bookkeeper.proto.BookkeeperProtocol.GetListOfEntriesOfLedgersResponse;
+import org.apache.bookkeeper.proto.BookkeeperProtocol.ReadLedgerRangeResponse;
+import org.apache.bookkeeper.proto.BookkeeperProtocol.StatusCode;
 import org.apache.bookkeeper.stats.NullStatsLogger;
 import org.apache.bookkeeper.stats.StatsLogger;
 import org.apache.bookkeeper.tls.SecurityException;
@@ -339,6 +350,134 @@ public class BookieClientImpl implements BookieClient, PerChannelBookieClientFac
         return futureResult;
     }
 
+    @Override
+    public CompletableFuture<Map<Long, AvailabilityOfEntriesOfLedger>> getListOfEntriesOfLedgers(
+            BookieId address, List<Long> ledgerIds) {
+        CompletableFuture<Map<Long, AvailabilityOfEntriesOfLedger>> future = new CompletableFuture<>();
+        getListOfEntriesOfLedgers(address, ledgerIds, new HashMap<>(ledgerIds.size()), future);
+        return future;
+    }
+
+    private void getListOfEntriesOfLedgers(BookieId address, List<Long> ledgerIds,
+                                           Map<Long, AvailabilityOfEntriesOfLedger> result,
+                                           CompletableFuture<Map<Long, AvailabilityOfEntriesOfLedger>> future) {
+        if (ledgerIds.isEmpty()) {
+            future.complete(result);
+            return;
+        }
+        final PerChannelBookieClientPool client = lookupClient(address);
+        if (client == null) {
+            future.completeExceptionally(
+                    BKException.create(getRc(BKException.Code.BookieHandleNotAvailableException)));
+            return;
+        }
+        CompletableFuture<GetListOfEntriesOfLedgersResponse> responseFuture = new CompletableFuture<>();
+        client.obtain((rc, pcbc) -> {
+            if (rc != BKException.Code.OK) {
+                responseFuture.completeExceptionally(BKException.create(rc));
+            } else {
+                pcbc.getListOfEntriesOfLedgers(ledgerIds, responseFuture);
+            }
+        }, ledgerIds.get(0), useV3Enforced);
+        responseFuture.whenComplete((response, cause) -> {
+            if (cause != null) {
+                future.completeExceptionally(cause);
+                return;
+            }
+            if (response.getLedgersCount() == 0) {
+                // the bookie must make progress on every request
+                future.completeExceptionally(BKException.create(BKException.Code.ReadException));
+                return;
+            }
+            for (GetListOfEntriesOfLedgerResponse ledger : response.getLedgersList()) {
+                if (ledger.getStatus() == StatusCode.EOK) {
+                    result.put(ledger.getLedgerId(), new AvailabilityOfEntriesOfLedger(
+                            Unpooled.wrappedBuffer(ledger.getAvailabilityOfEntriesOfLedger().asReadOnlyByteBuffer())));
+                } else if (ledger.getStatus() == StatusCode.ENOLEDGER) {
+                    result.put(ledger.getLedgerId(), AvailabilityOfEntriesOfLedger.EMPTY_AVAILABILITYOFENTRIESOFLEDGER);
+                }
+            }
+            // the results which didn't fit in the response are requested again
+            getListOfEntriesOfLedgers(address, ledgerIds.subList(response.getLedgersCount(), ledgerIds.size()),
+                    result, future);
+        });
+    }
+
+    /**
+     * Read the stored entries of a ledger range from a bookie.
+     *
+     * @see PerChannelBookieClient#readLedgerRange(long, long, long, long, CompletableFuture)
+     */
+    public CompletableFuture<ReadLedgerRangeResponse> readLedgerRange(BookieId address, long ledgerId,
+                                                                      long firstEntryId, long lastEntryId,
+                                                                      long maxBytes) {
+        CompletableFuture<ReadLedgerRangeResponse> future = new CompletableFuture<>();
+        final PerChannelBookieClientPool client = lookupClient(address);
+        if (client == null) {
+            future.completeExceptionally(
+                    BKException.create(getRc(BKException.Code.BookieHandleNotAvailableException)));
+            return future;
+        }
+        client.obtain((rc, pcbc) -> {
+            if (rc != BKException.Code.OK) {
+                future.completeExceptionally(BKException.create(rc));
+            } else {
+                pcbc.readLedgerRange(ledgerId, firstEntryId, lastEntryId, maxBytes, future);
+            }
+        }, ledgerId, useV3Enforced);
+        return future;
+    }
+
+    @Override
+    public CompletableFuture<Long> copyLedgerRange(BookieId target, long ledgerId, byte[] masterKey,
+                                                   DigestType digestType,
+                                                   long firstEntryId, long lastEntryId,
+                                                   List<BookieId> sourceBookies) {
+        CompletableFuture<Long> future = new CompletableFuture<>();
+        if (digestType == DigestType.MAC) {
+            // the bookies would need the password of the ledger to verify the entries
+            future.completeExceptionally(new BKException.BKIllegalOpException());
+            return future;
+        }
+        CopyLedgerRangeRequest.Builder request = CopyLedgerRangeRequest.newBuilder()
+                .setLedgerId(ledgerId)
+                .setMasterKey(ByteString.copyFrom(masterKey))
+                .setFirstEntryId(firstEntryId)
+                .setLastEntryId(lastEntryId)
+                .setDigestType(BookKeeper.DigestType.toProtoDigestType(
+                        BookKeeper.DigestType.fromApiDigestType(digestType)));
+        // the target bookie might not know how to reach the sources, send their addresses along
+        for (BookieId source : sourceBookies) {
+            try {
+                BookieSocketAddress address = bookieAddressResolver.resolve(source);
+                request.addSourceBookies(BookieAddress.newBuilder()
+                        .setBookieId(source.toString())
+                        .setAddress(address.getHostName() + ":" + address.getPort()));
+            } catch (BookieAddressResolver.BookieIdNotResolvedException e) {
+                LOG.warn("Cannot resolve the address of source bookie {} to copy ledger {}", source, ledgerId);
+            }
+        }
+        if (request.getSourceBookiesCount() == 0) {
+            future.completeExceptionally(
+                    BKException.create(BKException.Code.BookieHandleNotAvailableException));
+            return future;
+        }
+        final PerChannelBookieClientPool client = lookupClient(target);
+        if (client == null) {
+            future.completeExceptionally(
+                    BKException.create(getRc(BKException.Code.BookieHandleNotAvailableException)));
+            return future;
+        }
+        client.obtain((rc, pcbc) -> {
+            if (rc != BKException.Code.OK) {
+                future.completeExceptionally(BKException.create(rc));
+            } else {
+                pcbc.copyLedgerRange(request.build(), future);
+            }
+        }, ledgerId, useV3Enforced);
+        return future;
+    }
+
     private void completeRead(final int rc,
                               final long ledgerId,
                               final long entryId,
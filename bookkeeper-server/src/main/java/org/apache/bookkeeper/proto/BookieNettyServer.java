@@ -176,6 +176,12 @@ class BookieNettyServer {
         listenOn(bindAddress, bookieAddress);
     }
 
+    private RequestTracer getRequestTracer() {
+        return requestProcessor instanceof BookieRequestProcessor
+                ? ((BookieRequestProcessor) requestProcessor).getRequestTracer()
+                : null;
+    }
+
     public BookieNettyServer setRequestProcessor(RequestProcessor processor) {
         this.requestProcessor = processor;
         return this;
@@ -344,7 +350,8 @@ class BookieNettyServer {
 
                     pipeline.addLast("lengthbaseddecoder", new LengthFieldBasedFrameDecoder(maxFrameSize, 0, 4, 0, 4));
 
-                    pipeline.addLast("bookieProtoDecoder", new BookieProtoEncoding.RequestDecoder(registry));
+                    pipeline.addLast("bookieProtoDecoder",
+                            new BookieProtoEncoding.RequestDecoder(registry, getRequestTracer()));
                     pipeline.addLast("bookieProtoEncoder", new BookieProtoEncoding.ResponseEncoder(registry));
                     pipeline.addLast("bookieAuthHandler", new AuthHandler.ServerSideHandler(
                                 contextHandler.getConnectionPeer(), authProviderFactory));
@@ -410,7 +417,8 @@ class BookieNettyServer {
 
                     pipeline.addLast("lengthbaseddecoder", new LengthFieldBasedFrameDecoder(maxFrameSize, 0, 4, 0, 4));
 
-                    pipeline.addLast("bookieProtoDecoder", new BookieProtoEncoding.RequestDecoder(registry));
+                    pipeline.addLast("bookieProtoDecoder",
+                            new BookieProtoEncoding.RequestDecoder(registry, getRequestTracer()));
                     pipeline.addLast("bookieProtoEncoder", new BookieProtoEncoding.ResponseEncoder(registry));
                     pipeline.addLast("bookieAuthHandler", new AuthHandler.ServerSideHandler(
                                 contextHandler.getConnectionPeer(), authProviderFactory));
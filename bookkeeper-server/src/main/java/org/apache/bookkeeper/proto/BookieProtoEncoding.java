@@ -441,11 +441,17 @@ public class BookieProtoEncoding {
     public static class RequestDecoder extends ChannelInboundHandlerAdapter {
         final EnDecoder reqPreV3;
         final EnDecoder reqV3;
+        final RequestTracer requestTracer;
         boolean usingV3Protocol;
 
         RequestDecoder(ExtensionRegistry extensionRegistry) {
+            this(extensionRegistry, null);
+        }
+
+        RequestDecoder(ExtensionRegistry extensionRegistry, RequestTracer requestTracer) {
             reqPreV3 = new RequestEnDeCoderPreV3(extensionRegistry);
             reqV3 = new RequestEnDecoderV3(extensionRegistry);
+            this.requestTracer = requestTracer;
             usingV3Protocol = true;
         }
 
@@ -460,6 +466,9 @@ public class BookieProtoEncoding {
                     ctx.fireChannelRead(msg);
                     return;
                 }
+                if (requestTracer != null) {
+                    requestTracer.onDecodeStart();
+                }
                 ByteBuf buffer = (ByteBuf) msg;
                 buffer.markReaderIndex();
                 Object result;
@@ -25,6 +25,8 @@ import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelInboundHandlerAdapter;
 import io.netty.channel.group.ChannelGroup;
 import java.nio.channels.ClosedChannelException;
+import java.util.ArrayList;
+import java.util.List;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.bookkeeper.conf.ServerConfiguration;
 import org.apache.bookkeeper.processor.RequestProcessor;
@@ -44,6 +46,8 @@ public class BookieRequestHandler extends ChannelInboundHandlerAdapter {
 
     private ByteBuf pendingSendResponses = null;
     private int maxPendingResponsesSize = DEFAULT_PENDING_RESPONSE_SIZE;
+    // traces of the requests whose response is in pendingSendResponses
+    private List<RequestTrace> pendingTraces = null;
 
     BookieRequestHandler(ServerConfiguration conf, RequestProcessor processor, ChannelGroup allChannels) {
         this.requestProcessor = processor;
@@ -90,11 +94,22 @@ public class BookieRequestHandler extends ChannelInboundHandlerAdapter {
         requestProcessor.processRequest(msg, this);
     }
 
-    public synchronized void prepareSendResponseV2(int rc, BookieProtocol.ParsedAddRequest req) {
+    public void prepareSendResponseV2(int rc, BookieProtocol.ParsedAddRequest req) {
+        prepareSendResponseV2(rc, req, null);
+    }
+
+    synchronized void prepareSendResponseV2(int rc, BookieProtocol.ParsedAddRequest req, RequestTrace trace) {
         if (pendingSendResponses == null) {
             pendingSendResponses = ctx().alloc().directBuffer(maxPendingResponsesSize);
         }
         BookieProtoEncoding.ResponseEnDeCoderPreV3.serializeAddResponseInto(rc, req, pendingSendResponses);
+        if (trace != null) {
+            trace.stamp(RequestTrace.Stage.RESPONSE_SENT);
+            if (pendingTraces == null) {
+                pendingTraces = new ArrayList<>();
+            }
+            pendingTraces.add(trace);
+        }
     }
 
     public synchronized void flushPendingResponse() {
@@ -102,8 +117,18 @@ public class BookieRequestHandler extends ChannelInboundHandlerAdapter {
             maxPendingResponsesSize = (int) Math.max(
                     maxPendingResponsesSize * 0.5 + 0.5 * pendingSendResponses.readableBytes(),
                     DEFAULT_PENDING_RESPONSE_SIZE);
+            final List<RequestTrace> traces = pendingTraces;
+            pendingTraces = null;
             if (ctx().channel().isActive()) {
-                ctx().writeAndFlush(pendingSendResponses, ctx.voidPromise());
+                if (traces == null) {
+                    ctx().writeAndFlush(pendingSendResponses, ctx.voidPromise());
+                } else {
+                    ctx().writeAndFlush(pendingSendResponses).addListener(future -> {
+                        for (int i = 0; i < traces.size(); i++) {
+                            traces.get(i).complete();
+                        }
+                    });
+                }
             } else {
                 pendingSendResponses.release();
             }
@@ -21,6 +21,8 @@
 package org.apache.bookkeeper.proto;
 
 import static com.google.common.base.Preconditions.checkArgument;
+import static org.apache.bookkeeper.bookie.BookKeeperServerStats.ADD_ENTRY_BYTES_IN_PROGRESS;
+import static org.apache.bookkeeper.bookie.BookKeeperServerStats.READ_ENTRY_BYTES_IN_PROGRESS;
 import static org.apache.bookkeeper.proto.RequestUtils.hasFlag;
 
 import com.google.common.annotations.VisibleForTesting;
@@ -33,12 +35,15 @@ import io.netty.channel.Channel;
 import io.netty.channel.group.ChannelGroup;
 import io.netty.handler.ssl.SslHandler;
 import io.netty.util.HashedWheelTimer;
+import io.netty.util.concurrent.DefaultThreadFactory;
 import io.netty.util.concurrent.Future;
 import io.netty.util.concurrent.GenericFutureListener;
+import java.io.IOException;
 import java.util.Optional;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 import lombok.AccessLevel;
@@ -46,10 +51,15 @@ import lombok.Getter;
 import org.apache.bookkeeper.auth.AuthProviderFactoryFactory;
 import org.apache.bookkeeper.auth.AuthToken;
 import org.apache.bookkeeper.bookie.Bookie;
+import org.apache.bookkeeper.common.allocator.MemoryBudget;
 import org.apache.bookkeeper.common.util.MathUtils;
 import org.apache.bookkeeper.common.util.OrderedExecutor;
+import org.apache.bookkeeper.common.util.WorkStealingOrderedExecutor;
+import org.apache.bookkeeper.common.util.affinity.CpuAffinity;
 import org.apache.bookkeeper.conf.ServerConfiguration;
+import org.apache.bookkeeper.meta.MetadataBookieDriver;
 import org.apache.bookkeeper.processor.RequestProcessor;
+import org.apache.bookkeeper.stats.Gauge;
 import org.apache.bookkeeper.stats.StatsLogger;
 import org.apache.bookkeeper.tls.SecurityException;
 import org.apache.bookkeeper.tls.SecurityHandlerFactory;
@@ -66,6 +76,10 @@ public class BookieRequestProcessor implements RequestProcessor {
 
     private static final Logger LOG = LoggerFactory.getLogger(BookieRequestProcessor.class);
 
+    static final String READ_RESPONSES_MEMORY_POOL_NAME = "readResponses";
+    // share of maxReadBytesInProgressLimit catch-up reads can use, the rest is kept for tailing reads
+    static final double CATCH_UP_READ_BYTES_SHARE = 0.75;
+
     /**
      * The server configuration. We use this for getting the number of add and read
      * worker threads.
@@ -89,6 +103,12 @@ public class BookieRequestProcessor implements RequestProcessor {
      */
     private final OrderedExecutor writeThreadPool;
 
+    /**
+     * Executes read entry requests on a thread per request, if enabled. Replaces the readThreadPool
+     * for normal priority reads.
+     */
+    private final LedgerDirReadExecutor ledgerDirReadExecutor;
+
     /**
      * TLS management.
      */
@@ -110,6 +130,11 @@ public class BookieRequestProcessor implements RequestProcessor {
      */
     private final HashedWheelTimer requestTimer;
 
+    /**
+     * Samples requests and aggregates their latency per stage.
+     */
+    private final RequestTracer requestTracer;
+
     // Expose Stats
     private final BKStats bkStats = BKStats.getInstance();
     private final boolean statsEnabled;
@@ -129,26 +154,95 @@ public class BookieRequestProcessor implements RequestProcessor {
 
     private final boolean throttleReadResponses;
 
+    /**
+     * Direct memory budget of the bookie: while it is under pressure, requests are not read from the
+     * channels anymore.
+     */
+    private final MemoryBudget memoryBudget;
+    private final MemoryBudget.PressureListener memoryPressureListener;
+    // read responses written to the channels and not flushed yet, null if the budget isn't limited
+    private final MemoryBudget.Pool readResponsesPool;
+
+    /**
+     * Byte-based admission control of the add requests and of the read responses, null if not limited.
+     */
+    private final InFlightBytesLimiter addBytesLimiter;
+    private final InFlightBytesLimiter readBytesLimiter;
+    // tells tailing reads from catch-up reads, null if read bytes are not limited
+    private final RecentAddsTracker recentAdds;
+
+    /**
+     * Copies ledger ranges from other bookies, null if the bookie has no metadata driver to look them up with.
+     */
+    private final LedgerRangeCopier ledgerRangeCopier;
+
     public BookieRequestProcessor(ServerConfiguration serverCfg, Bookie bookie, StatsLogger statsLogger,
                                   SecurityHandlerFactory shFactory, ByteBufAllocator allocator,
                                   ChannelGroup allChannels) throws SecurityException {
+        this(serverCfg, bookie, statsLogger, shFactory, allocator, allChannels, null);
+    }
+
+    /**
+     * @param metadataDriver metadata driver of the bookie, which the copies of ledger ranges look up the
+     *                       source bookies with. Copy requests are rejected if null.
+     */
+    public BookieRequestProcessor(ServerConfiguration serverCfg, Bookie bookie, StatsLogger statsLogger,
+                                  SecurityHandlerFactory shFactory, ByteBufAllocator allocator,
+                                  ChannelGroup allChannels, MetadataBookieDriver metadataDriver)
+            throws SecurityException {
         this.serverCfg = serverCfg;
         this.allocator = allocator;
         this.allChannels = allChannels;
         this.waitTimeoutOnBackpressureMillis = serverCfg.getWaitTimeoutOnResponseBackpressureMillis();
         this.preserveMdcForTaskExecution = serverCfg.getPreserveMdcForTaskExecution();
         this.bookie = bookie;
-        this.throttleReadResponses = serverCfg.isReadWorkerThreadsThrottlingEnabled();
-        this.readThreadPool = createExecutor(
-                this.serverCfg.getNumReadWorkerThreads(),
-                "BookieReadThreadPool",
-                serverCfg.getMaxPendingReadRequestPerThread(),
-                statsLogger);
-        this.writeThreadPool = createExecutor(
-                this.serverCfg.getNumAddWorkerThreads(),
-                "BookieWriteThreadPool",
-                serverCfg.getMaxPendingAddRequestPerThread(),
-                statsLogger);
+        if (serverCfg.isThreadPerCoreEnabled()) {
+            // the adds of a ledger run on the pinned thread owning it, while the reads, which may block on cold
+            // entry log reads, keep their own threads so they never hold back the adds
+            this.throttleReadResponses = serverCfg.isReadWorkerThreadsThrottlingEnabled();
+            this.readThreadPool = createExecutor(
+                    this.serverCfg.getNumReadWorkerThreads(),
+                    "BookieReadThreadPool",
+                    serverCfg.getMaxPendingReadRequestPerThread(),
+                    statsLogger);
+            this.writeThreadPool = createLedgerCoreExecutor(statsLogger);
+        } else if (serverCfg.isWorkStealingWorkerThreadsEnabled()) {
+            this.throttleReadResponses = serverCfg.isReadWorkerThreadsThrottlingEnabled();
+            // reads of a ledger don't need to be ordered, adds do
+            this.readThreadPool = createWorkStealingExecutor(
+                    this.serverCfg.getNumReadWorkerThreads(),
+                    "BookieReadThreadPool",
+                    serverCfg.getMaxPendingReadRequestPerThread(),
+                    false,
+                    statsLogger);
+            this.writeThreadPool = createWorkStealingExecutor(
+                    this.serverCfg.getNumAddWorkerThreads(),
+                    "BookieWriteThreadPool",
+                    serverCfg.getMaxPendingAddRequestPerThread(),
+                    true,
+                    statsLogger);
+        } else {
+            this.throttleReadResponses = serverCfg.isReadWorkerThreadsThrottlingEnabled();
+            this.readThreadPool = createExecutor(
+                    this.serverCfg.getNumReadWorkerThreads(),
+                    "BookieReadThreadPool",
+                    serverCfg.getMaxPendingReadRequestPerThread(),
+                    statsLogger);
+            this.writeThreadPool = createExecutor(
+                    this.serverCfg.getNumAddWorkerThreads(),
+                    "BookieWriteThreadPool",
+                    serverCfg.getMaxPendingAddRequestPerThread(),
+                    statsLogger);
+        }
+        if (serverCfg.isReadsBoundedPerLedgerDirEnabled()) {
+            this.ledgerDirReadExecutor = new LedgerDirReadExecutor(
+                    serverCfg.getLedgerDirNames().length,
+                    serverCfg.getMaxReadsInProgressPerLedgerDir(),
+                    serverCfg.getMaxPendingReadRequestPerThread(),
+                    serverCfg.isReadWorkerVirtualThreadsEnabled());
+        } else {
+            this.ledgerDirReadExecutor = null;
+        }
         if (serverCfg.getNumLongPollWorkerThreads() <= 0 && readThreadPool != null) {
             this.longPollThreadPool = this.readThreadPool;
         } else {
@@ -197,15 +291,167 @@ public class BookieRequestProcessor implements RequestProcessor {
         // Expose Stats
         this.statsEnabled = serverCfg.isStatisticsEnabled();
         this.requestStats = new RequestStats(statsLogger);
+        this.requestTracer = new RequestTracer(serverCfg.getRequestTraceSampleEvery(),
+                serverCfg.getRequestTraceWindowMs());
 
         int maxAdds = serverCfg.getMaxAddsInProgressLimit();
         addsSemaphore = maxAdds > 0 ? new Semaphore(maxAdds, true) : null;
 
         int maxReads = serverCfg.getMaxReadsInProgressLimit();
         readsSemaphore = maxReads > 0 ? new Semaphore(maxReads, true) : null;
+
+        this.memoryBudget = MemoryBudget.of(allocator);
+
+        long maxAddBytes = serverCfg.getMaxAddBytesInProgressLimit();
+        if (maxAddBytes > 0) {
+            this.addBytesLimiter = new InFlightBytesLimiter("add", maxAddBytes, 1.0, this::canReadFrom,
+                    requestStats.getAddEntryBytesAdmittedCounter(), requestStats.getAddEntryBytesDeferredCounter());
+            registerBytesInProgressGauge(statsLogger, ADD_ENTRY_BYTES_IN_PROGRESS, addBytesLimiter);
+        } else {
+            this.addBytesLimiter = null;
+        }
+        long maxReadBytes = serverCfg.getMaxReadBytesInProgressLimit();
+        if (maxReadBytes > 0) {
+            this.readBytesLimiter = new InFlightBytesLimiter("read", maxReadBytes, CATCH_UP_READ_BYTES_SHARE,
+                    this::canReadFrom, requestStats.getReadEntryBytesAdmittedCounter(),
+                    requestStats.getReadEntryBytesDeferredCounter());
+            this.recentAdds = new RecentAddsTracker();
+            registerBytesInProgressGauge(statsLogger, READ_ENTRY_BYTES_IN_PROGRESS, readBytesLimiter);
+        } else {
+            this.readBytesLimiter = null;
+            this.recentAdds = null;
+        }
+
+        LedgerRangeCopier copier = null;
+        if (null != metadataDriver) {
+            try {
+                copier = new LedgerRangeCopier(serverCfg, bookie, allocator, statsLogger.scope("range_copier"),
+                        metadataDriver);
+            } catch (IOException e) {
+                LOG.warn("Copy ledger range requests will be rejected: {}", e.getMessage());
+            }
+        }
+        this.ledgerRangeCopier = copier;
+
+        if (memoryBudget.isLimited()) {
+            this.readResponsesPool = memoryBudget.getPool(READ_RESPONSES_MEMORY_POOL_NAME);
+            this.memoryPressureListener = new MemoryBudget.PressureListener() {
+                @Override
+                public void onMemoryPressure() {
+                    LOG.warn("Direct memory budget under pressure, disabling autoread on all channels");
+                    setAutoReadOnAllChannels(false);
+                }
+
+                @Override
+                public void onMemoryPressureRelieved() {
+                    LOG.info("Direct memory budget pressure relieved, re-enabling autoread on all channels");
+                    setAutoReadOnAllChannels(true);
+                }
+            };
+            memoryBudget.addPressureListener(memoryPressureListener);
+        } else {
+            this.readResponsesPool = null;
+            this.memoryPressureListener = null;
+        }
     }
 
-    protected void onAddRequestStart(Channel channel) {
+    private static void registerBytesInProgressGauge(StatsLogger statsLogger, String name,
+                                                     InFlightBytesLimiter limiter) {
+        statsLogger.registerGauge(name, new Gauge<Number>() {
+            @Override
+            public Number getDefaultValue() {
+                return 0;
+            }
+
+            @Override
+            public Number getSample() {
+                return limiter.getInFlightBytes();
+            }
+        });
+    }
+
+    private void setAutoReadOnAllChannels(boolean autoRead) {
+        if (allChannels == null) {
+            return;
+        }
+        for (Channel channel : allChannels) {
+            channel.config().setAutoRead(autoRead && canReadFrom(channel));
+        }
+    }
+
+    /**
+     * Whether requests can be read from <i>channel</i>: neither the memory budget nor the bytes in flight of
+     * the channel hold it back.
+     */
+    private boolean canReadFrom(Channel channel) {
+        return !memoryBudget.isUnderPressure()
+                && (addBytesLimiter == null || !addBytesLimiter.isDeferred(channel))
+                && (readBytesLimiter == null || !readBytesLimiter.isDeferred(channel));
+    }
+
+    /**
+     * Stop reading from <i>channel</i> if the memory budget is under pressure. Channels connected before the
+     * budget went under pressure are handled by the pressure listener, this catches the channels connected
+     * since.
+     */
+    private void checkMemoryPressure(Channel channel) {
+        if (memoryPressureListener != null && memoryBudget.isUnderPressure() && channel.config().isAutoRead()) {
+            channel.config().setAutoRead(false);
+            if (canReadFrom(channel)) {
+                // the pressure was relieved meanwhile, the listener might have missed the channel
+                channel.config().setAutoRead(true);
+            }
+        }
+    }
+
+    /**
+     * Whether a read of <i>entryId</i> follows closely the writer of <i>ledgerId</i>, rather than catching up on
+     * older entries. Reads are only classified when the read bytes in flight are limited.
+     */
+    boolean isTailingRead(long ledgerId, long entryId) {
+        return recentAdds != null && recentAdds.isTailingRead(ledgerId, entryId);
+    }
+
+    /**
+     * Account the data of a read response about to be written to <i>channel</i>, in the memory budget and in the
+     * read bytes in flight.
+     *
+     * @param tailing whether the response is for a tailing read, which has priority over catch-up reads
+     * @return number of bytes to release with {@link #releaseReadResponseBytes(Channel, long)} once the
+     *         response is flushed or dropped
+     */
+    long reserveReadResponseBytes(Channel channel, long bytes, boolean tailing) {
+        if (bytes <= 0 || (readResponsesPool == null && readBytesLimiter == null)) {
+            return 0L;
+        }
+        if (readResponsesPool != null) {
+            readResponsesPool.reserve(bytes);
+        }
+        if (readBytesLimiter != null) {
+            readBytesLimiter.acquire(channel, bytes, !tailing);
+        }
+        return bytes;
+    }
+
+    void releaseReadResponseBytes(Channel channel, long bytes) {
+        if (bytes <= 0) {
+            return;
+        }
+        if (readResponsesPool != null) {
+            readResponsesPool.release(bytes);
+        }
+        if (readBytesLimiter != null) {
+            readBytesLimiter.release(channel, bytes);
+        }
+    }
+
+    /**
+     * Called when an add request of <i>bytes</i> is received on <i>channel</i>.
+     */
+    protected void onAddRequestStart(Channel channel, long ledgerId, long entryId, long bytes) {
+        if (recentAdds != null) {
+            recentAdds.onAdd(ledgerId, entryId);
+        }
         if (addsSemaphore != null) {
             if (!addsSemaphore.tryAcquire()) {
                 final long throttlingStartTimeNanos = MathUtils.nowInNano();
@@ -213,20 +459,30 @@ public class BookieRequestProcessor implements RequestProcessor {
                 LOG.info("Too many add requests in progress, disabling autoread on channel {}", channel);
                 requestStats.blockAddRequest();
                 addsSemaphore.acquireUninterruptibly();
-                channel.config().setAutoRead(true);
+                channel.config().setAutoRead(canReadFrom(channel));
                 final long delayNanos = MathUtils.elapsedNanos(throttlingStartTimeNanos);
                 LOG.info("Re-enabled autoread on channel {} after AddRequest delay of {} nanos", channel, delayNanos);
                 requestStats.unblockAddRequest(delayNanos);
             }
         }
+        checkMemoryPressure(channel);
+        if (addBytesLimiter != null) {
+            addBytesLimiter.acquire(channel, bytes, false);
+        }
         requestStats.trackAddRequest();
     }
 
-    protected void onAddRequestFinish() {
+    /**
+     * Called once the response to an add request of <i>bytes</i> received on <i>channel</i> is sent.
+     */
+    protected void onAddRequestFinish(Channel channel, long bytes) {
         requestStats.untrackAddRequest();
         if (addsSemaphore != null) {
             addsSemaphore.release();
         }
+        if (addBytesLimiter != null) {
+            addBytesLimiter.release(channel, bytes);
+        }
     }
 
     protected void onReadRequestStart(Channel channel) {
@@ -237,12 +493,13 @@ public class BookieRequestProcessor implements RequestProcessor {
                 LOG.info("Too many read requests in progress, disabling autoread on channel {}", channel);
                 requestStats.blockReadRequest();
                 readsSemaphore.acquireUninterruptibly();
-                channel.config().setAutoRead(true);
+                channel.config().setAutoRead(canReadFrom(channel));
                 final long delayNanos = MathUtils.elapsedNanos(throttlingStartTimeNanos);
                 LOG.info("Re-enabled autoread on channel {} after ReadRequest delay of {} nanos", channel, delayNanos);
                 requestStats.unblockReadRequest(delayNanos);
             }
         }
+        checkMemoryPressure(channel);
         requestStats.trackReadRequest();
     }
 
@@ -266,12 +523,22 @@ public class BookieRequestProcessor implements RequestProcessor {
     @Override
     public void close() {
         LOG.info("Closing RequestProcessor");
+        if (null != memoryPressureListener) {
+            memoryBudget.removePressureListener(memoryPressureListener);
+        }
         shutdownExecutor(writeThreadPool);
         shutdownExecutor(readThreadPool);
+        if (null != ledgerDirReadExecutor) {
+            ledgerDirReadExecutor.shutdown();
+            ledgerDirReadExecutor.forceShutdown(10, TimeUnit.SECONDS);
+        }
         if (serverCfg.getNumLongPollWorkerThreads() > 0 || readThreadPool == null) {
             shutdownExecutor(longPollThreadPool);
         }
         shutdownExecutor(highPriorityThreadPool);
+        if (null != ledgerRangeCopier) {
+            ledgerRangeCopier.close();
+        }
         requestTimer.stop();
         LOG.info("Closed RequestProcessor");
     }
@@ -296,6 +563,54 @@ public class BookieRequestProcessor implements RequestProcessor {
         }
     }
 
+    /**
+     * Create the executor of the thread-per-core mode: a thread per IO thread, pinned to its own CPU core, owning
+     * a slice of the ledgers. The add, force and write LAC requests of a ledger run on its thread.
+     */
+    private OrderedExecutor createLedgerCoreExecutor(StatsLogger statsLogger) {
+        ThreadFactory threadFactory = new DefaultThreadFactory("BookieLedgerCoreThreadPool");
+        return OrderedExecutor.newBuilder()
+                .numThreads(serverCfg.getServerNumIOThreads())
+                .name("BookieLedgerCoreThreadPool")
+                .threadFactory(runnable -> threadFactory.newThread(() -> {
+                    try {
+                        CpuAffinity.acquireCore();
+                    } catch (Throwable t) {
+                        LOG.warn("Failed to acquire CPU core for thread {}: {}", Thread.currentThread().getName(),
+                                t.getMessage(), t);
+                    }
+                    runnable.run();
+                }))
+                .traceTaskExecution(serverCfg.getEnableTaskExecutionStats())
+                .preserveMdcForTaskExecution(serverCfg.getPreserveMdcForTaskExecution())
+                .statsLogger(statsLogger)
+                .maxTasksInQueue(serverCfg.getMaxPendingAddRequestPerThread())
+                .enableThreadScopedMetrics(true)
+                .build();
+    }
+
+    private OrderedExecutor createWorkStealingExecutor(
+            int numThreads,
+            String nameFormat,
+            int maxTasksInQueue,
+            boolean strictOrdering,
+            StatsLogger statsLogger) {
+        if (numThreads <= 0) {
+            return null;
+        } else {
+            return WorkStealingOrderedExecutor.newWorkStealingBuilder()
+                    .strictOrdering(strictOrdering)
+                    .numThreads(numThreads)
+                    .name(nameFormat)
+                    .traceTaskExecution(serverCfg.getEnableTaskExecutionStats())
+                    .preserveMdcForTaskExecution(serverCfg.getPreserveMdcForTaskExecution())
+                    .statsLogger(statsLogger)
+                    .maxTasksInQueue(maxTasksInQueue)
+                    .enableThreadScopedMetrics(true)
+                    .build();
+        }
+    }
+
     private void shutdownExecutor(OrderedExecutor service) {
         if (null != service) {
             service.shutdown();
@@ -305,6 +620,14 @@ public class BookieRequestProcessor implements RequestProcessor {
 
     @Override
     public void processRequest(Object msg, BookieRequestHandler requestHandler) {
+        try {
+            dispatchRequest(msg, requestHandler);
+        } finally {
+            requestTracer.onRequestDispatched();
+        }
+    }
+
+    private void dispatchRequest(Object msg, BookieRequestHandler requestHandler) {
         Channel channel = requestHandler.ctx().channel();
         // If we can decode this packet as a Request protobuf packet, process
         // it as a version 3 packet. Else, just use the old protocol.
@@ -351,6 +674,15 @@ public class BookieRequestProcessor implements RequestProcessor {
                     case GET_LIST_OF_ENTRIES_OF_LEDGER:
                         processGetListOfEntriesOfLedgerProcessorV3(r, requestHandler);
                         break;
+                    case GET_LIST_OF_ENTRIES_OF_LEDGERS:
+                        processGetListOfEntriesOfLedgersProcessorV3(r, requestHandler);
+                        break;
+                    case READ_LEDGER_RANGE:
+                        processReadLedgerRangeRequestV3(r, requestHandler);
+                        break;
+                    case COPY_LEDGER_RANGE:
+                        processCopyLedgerRangeRequestV3(r, requestHandler);
+                        break;
                     default:
                         LOG.info("Unknown operation type {}", header.getOperation());
                         BookkeeperProtocol.Response.Builder response =
@@ -415,7 +747,7 @@ public class BookieRequestProcessor implements RequestProcessor {
         if (null == writeThreadPool) {
             writeLac.run();
         } else {
-            writeThreadPool.executeOrdered(r.getAddRequest().getLedgerId(), writeLac);
+            writeThreadPool.executeOrdered(r.getWriteLacRequest().getLedgerId(), writeLac);
         }
     }
 
@@ -425,12 +757,13 @@ public class BookieRequestProcessor implements RequestProcessor {
         if (null == readThreadPool) {
             readLac.run();
         } else {
-            readThreadPool.executeOrdered(r.getAddRequest().getLedgerId(), readLac);
+            readThreadPool.executeOrdered(r.getReadLacRequest().getLedgerId(), readLac);
         }
     }
 
     private void processAddRequestV3(final BookkeeperProtocol.Request r, final BookieRequestHandler requestHandler) {
         WriteEntryProcessorV3 write = new WriteEntryProcessorV3(r, requestHandler, this);
+        write.trace = requestTracer.startTrace(RequestTrace.Kind.ADD);
 
         final OrderedExecutor threadPool;
         if (RequestUtils.isHighPriority(r)) {
@@ -508,6 +841,7 @@ public class BookieRequestProcessor implements RequestProcessor {
 
         final ReadEntryProcessorV3 read;
         final OrderedExecutor threadPool;
+        boolean useLedgerDirReadExecutor = false;
         if (RequestUtils.isLongPollReadRequest(r.getReadRequest())) {
             ExecutorService lpThread = longPollThreadPool.chooseThread(requestHandler.ctx());
 
@@ -516,6 +850,7 @@ public class BookieRequestProcessor implements RequestProcessor {
             threadPool = longPollThreadPool;
         } else {
             read = new ReadEntryProcessorV3(r, requestHandler, this, fenceThread);
+            read.trace = requestTracer.startTrace(RequestTrace.Kind.READ);
 
             // If it's a high priority read (fencing or as part of recovery process), we want to make sure it
             // gets executed as fast as possible, so bypass the normal readThreadPool
@@ -526,14 +861,19 @@ public class BookieRequestProcessor implements RequestProcessor {
                 threadPool = highPriorityThreadPool;
             } else {
                 threadPool = readThreadPool;
+                useLedgerDirReadExecutor = null != ledgerDirReadExecutor;
             }
         }
 
-        if (null == threadPool) {
+        if (null == threadPool && !useLedgerDirReadExecutor) {
             read.run();
         } else {
             try {
-                threadPool.executeOrdered(r.getReadRequest().getLedgerId(), read);
+                if (useLedgerDirReadExecutor) {
+                    ledgerDirReadExecutor.executeRead(r.getReadRequest().getLedgerId(), read);
+                } else {
+                    threadPool.executeOrdered(r.getReadRequest().getLedgerId(), read);
+                }
             } catch (RejectedExecutionException e) {
                 if (LOG.isDebugEnabled()) {
                     LOG.debug("Failed to process request to read entry at {}:{}. Too many pending requests",
@@ -631,8 +971,48 @@ public class BookieRequestProcessor implements RequestProcessor {
         }
     }
 
+    private void processGetListOfEntriesOfLedgersProcessorV3(final BookkeeperProtocol.Request r,
+                                                             final BookieRequestHandler requestHandler) {
+        GetListOfEntriesOfLedgersProcessorV3 getListOfEntriesOfLedgers =
+                new GetListOfEntriesOfLedgersProcessorV3(r, requestHandler, this);
+        if (null == readThreadPool) {
+            getListOfEntriesOfLedgers.run();
+        } else {
+            readThreadPool.submit(getListOfEntriesOfLedgers);
+        }
+    }
+
+    private void processReadLedgerRangeRequestV3(final BookkeeperProtocol.Request r,
+                                                 final BookieRequestHandler requestHandler) {
+        ReadLedgerRangeProcessorV3 readLedgerRange = new ReadLedgerRangeProcessorV3(r, requestHandler, this);
+        if (null == readThreadPool) {
+            readLedgerRange.run();
+        } else {
+            readThreadPool.submit(readLedgerRange);
+        }
+    }
+
+    private void processCopyLedgerRangeRequestV3(final BookkeeperProtocol.Request r,
+                                                 final BookieRequestHandler requestHandler) {
+        CopyLedgerRangeProcessorV3 copyLedgerRange = new CopyLedgerRangeProcessorV3(r, requestHandler, this);
+        if (null == writeThreadPool) {
+            copyLedgerRange.run();
+        } else {
+            writeThreadPool.executeOrdered(r.getCopyLedgerRangeRequest().getLedgerId(), copyLedgerRange);
+        }
+    }
+
+    /**
+     * @return the copier of ledger ranges, null if this bookie can't copy from other bookies
+     */
+    LedgerRangeCopier getLedgerRangeCopier() {
+        return ledgerRangeCopier;
+    }
+
     private void processAddRequest(final BookieProtocol.ParsedAddRequest r, final BookieRequestHandler requestHandler) {
+        RequestTrace trace = requestTracer.startTrace(RequestTrace.Kind.ADD);
         WriteEntryProcessor write = WriteEntryProcessor.create(r, requestHandler, this);
+        write.trace = trace;
 
         // If it's a high priority add (usually as part of recovery process), we want to make sure it gets
         // executed as fast as possible, so bypass the normal writeThreadPool and execute in highPriorityThreadPool
@@ -666,24 +1046,32 @@ public class BookieRequestProcessor implements RequestProcessor {
     private void processReadRequest(final BookieProtocol.ReadRequest r, final BookieRequestHandler requestHandler) {
         ExecutorService fenceThreadPool =
                 null == highPriorityThreadPool ? null : highPriorityThreadPool.chooseThread(requestHandler.ctx());
+        RequestTrace trace = requestTracer.startTrace(RequestTrace.Kind.READ);
         ReadEntryProcessor read = ReadEntryProcessor.create(r, requestHandler,
                 this, fenceThreadPool, throttleReadResponses);
+        read.trace = trace;
 
         // If it's a high priority read (fencing or as part of recovery process), we want to make sure it
         // gets executed as fast as possible, so bypass the normal readThreadPool
         // and execute in highPriorityThreadPool
         final OrderedExecutor threadPool;
+        boolean useLedgerDirReadExecutor = false;
         if (r.isHighPriority() || r.isFencing()) {
             threadPool = highPriorityThreadPool;
         } else {
             threadPool = readThreadPool;
+            useLedgerDirReadExecutor = null != ledgerDirReadExecutor;
         }
 
-        if (null == threadPool) {
+        if (null == threadPool && !useLedgerDirReadExecutor) {
             read.run();
         } else {
             try {
-                threadPool.executeOrdered(r.getLedgerId(), read);
+                if (useLedgerDirReadExecutor) {
+                    ledgerDirReadExecutor.executeRead(r.getLedgerId(), read);
+                } else {
+                    threadPool.executeOrdered(r.getLedgerId(), read);
+                }
             } catch (RejectedExecutionException e) {
                 if (LOG.isDebugEnabled()) {
                     LOG.debug("Failed to process request to read entry at {}:{}. Too many pending requests", r.ledgerId,
@@ -699,6 +1087,10 @@ public class BookieRequestProcessor implements RequestProcessor {
         }
     }
 
+    public RequestTracer getRequestTracer() {
+        return requestTracer;
+    }
+
     public long getWaitTimeoutOnBackpressureMillis() {
         return waitTimeoutOnBackpressureMillis;
     }
@@ -20,6 +20,10 @@
  */
 package org.apache.bookkeeper.proto;
 
+import static org.apache.bookkeeper.bookie.BookKeeperServerStats.MEMORY_BUDGET_QUOTA_BYTES;
+import static org.apache.bookkeeper.bookie.BookKeeperServerStats.MEMORY_BUDGET_SCOPE;
+import static org.apache.bookkeeper.bookie.BookKeeperServerStats.MEMORY_BUDGET_UNDER_PRESSURE;
+import static org.apache.bookkeeper.bookie.BookKeeperServerStats.MEMORY_BUDGET_USED_BYTES;
 import static org.apache.bookkeeper.bookie.BookKeeperServerStats.SERVER_SCOPE;
 import static org.apache.bookkeeper.conf.AbstractConfiguration.PERMITTED_STARTUP_USERS;
 
@@ -36,14 +40,17 @@ import org.apache.bookkeeper.bookie.BookieException;
 import org.apache.bookkeeper.bookie.BookieImpl;
 import org.apache.bookkeeper.bookie.ExitCode;
 import org.apache.bookkeeper.bookie.UncleanShutdownDetection;
+import org.apache.bookkeeper.common.allocator.MemoryBudget;
 import org.apache.bookkeeper.common.util.JsonUtil.ParseJsonException;
 import org.apache.bookkeeper.conf.ServerConfiguration;
+import org.apache.bookkeeper.meta.MetadataBookieDriver;
 import org.apache.bookkeeper.net.BookieId;
 import org.apache.bookkeeper.net.BookieSocketAddress;
 import org.apache.bookkeeper.processor.RequestProcessor;
 import org.apache.bookkeeper.replication.ReplicationException.CompatibilityException;
 import org.apache.bookkeeper.replication.ReplicationException.UnavailableException;
 import org.apache.bookkeeper.server.Main;
+import org.apache.bookkeeper.stats.Gauge;
 import org.apache.bookkeeper.stats.StatsLogger;
 import org.apache.bookkeeper.tls.SecurityException;
 import org.apache.bookkeeper.tls.SecurityHandlerFactory;
@@ -83,6 +90,21 @@ public class BookieServer {
                         UncleanShutdownDetection uncleanShutdownDetection)
             throws IOException, KeeperException, InterruptedException,
             BookieException, UnavailableException, CompatibilityException, SecurityException {
+        this(conf, bookie, statsLogger, allocator, uncleanShutdownDetection, null);
+    }
+
+    /**
+     * @param metadataDriver metadata driver of the bookie, to look up the other bookies with when copying ledger
+     *                       ranges from them, or null to reject the copy requests
+     */
+    public BookieServer(ServerConfiguration conf,
+                        Bookie bookie,
+                        StatsLogger statsLogger,
+                        ByteBufAllocator allocator,
+                        UncleanShutdownDetection uncleanShutdownDetection,
+                        MetadataBookieDriver metadataDriver)
+            throws IOException, KeeperException, InterruptedException,
+            BookieException, UnavailableException, CompatibilityException, SecurityException {
         this.conf = conf;
         validateUser(conf);
         String configAsString;
@@ -104,8 +126,65 @@ public class BookieServer {
                 .getSecurityProviderFactory(conf.getTLSProviderFactoryClass());
 
         this.requestProcessor = new BookieRequestProcessor(conf, bookie,
-                statsLogger.scope(SERVER_SCOPE), shFactory, allocator, nettyServer.allChannels);
+                statsLogger.scope(SERVER_SCOPE), shFactory, allocator, nettyServer.allChannels, metadataDriver);
         this.nettyServer.setRequestProcessor(this.requestProcessor);
+
+        registerMemoryBudgetStats(MemoryBudget.of(allocator));
+    }
+
+    private void registerMemoryBudgetStats(MemoryBudget budget) {
+        if (!budget.isLimited()) {
+            return;
+        }
+        StatsLogger budgetStatsLogger = statsLogger.scope(MEMORY_BUDGET_SCOPE);
+        budgetStatsLogger.registerGauge(MEMORY_BUDGET_USED_BYTES, new Gauge<Long>() {
+            @Override
+            public Long getDefaultValue() {
+                return 0L;
+            }
+
+            @Override
+            public Long getSample() {
+                return budget.getUsedBytes();
+            }
+        });
+        budgetStatsLogger.registerGauge(MEMORY_BUDGET_UNDER_PRESSURE, new Gauge<Integer>() {
+            @Override
+            public Integer getDefaultValue() {
+                return 0;
+            }
+
+            @Override
+            public Integer getSample() {
+                return budget.isUnderPressure() ? 1 : 0;
+            }
+        });
+        // the pools are created by the bookie subsystems and the request processor, all built by now
+        for (MemoryBudget.Pool pool : budget.getPools()) {
+            StatsLogger poolStatsLogger = budgetStatsLogger.scopeLabel("pool", pool.getName());
+            poolStatsLogger.registerGauge(MEMORY_BUDGET_USED_BYTES, new Gauge<Long>() {
+                @Override
+                public Long getDefaultValue() {
+                    return 0L;
+                }
+
+                @Override
+                public Long getSample() {
+                    return pool.getUsedBytes();
+                }
+            });
+            poolStatsLogger.registerGauge(MEMORY_BUDGET_QUOTA_BYTES, new Gauge<Long>() {
+                @Override
+                public Long getDefaultValue() {
+                    return 0L;
+                }
+
+                @Override
+                public Long getSample() {
+                    return pool.getQuotaBytes();
+                }
+            });
+        }
     }
 
     /**
@@ -69,6 +69,13 @@ public class BookkeeperInternalCallbacks {
          *          new ledger metadata.
          */
         void onChanged(long ledgerId, Versioned<LedgerMetadata> metadata);
+
+        /**
+         * Triggered when the watch of a listener registered on all the ledgers was lost and set again, e.g.
+         * after the session to the metadata store expired. The changes made meanwhile were not notified.
+         */
+        default void onWatchReset() {
+        }
     }
 
     /**
@@ -0,0 +1,151 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.proto;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import org.apache.bookkeeper.bookie.BookieException;
+import org.apache.bookkeeper.bookie.LedgerStorage;
+import org.apache.bookkeeper.client.BKException;
+import org.apache.bookkeeper.proto.BookkeeperProtocol.CopyLedgerRangeRequest;
+import org.apache.bookkeeper.proto.BookkeeperProtocol.CopyLedgerRangeResponse;
+import org.apache.bookkeeper.proto.BookkeeperProtocol.Request;
+import org.apache.bookkeeper.proto.BookkeeperProtocol.Response;
+import org.apache.bookkeeper.proto.BookkeeperProtocol.StatusCode;
+import org.apache.bookkeeper.proto.DataFormats.LedgerMetadataFormat.DigestType;
+import org.apache.bookkeeper.util.MathUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A processor class for v3 copy ledger range packets. The range is pulled from the source bookies of the
+ * request by the {@link LedgerRangeCopier} of the bookie, and the response is sent once it is copied.
+ */
+public class CopyLedgerRangeProcessorV3 extends PacketProcessorBaseV3 implements Runnable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CopyLedgerRangeProcessorV3.class);
+
+    protected final CopyLedgerRangeRequest copyLedgerRangeRequest;
+    protected final long ledgerId;
+    private final long startTimeNanos;
+
+    public CopyLedgerRangeProcessorV3(Request request, BookieRequestHandler requestHandler,
+                                      BookieRequestProcessor requestProcessor) {
+        super(request, requestHandler, requestProcessor);
+        this.copyLedgerRangeRequest = request.getCopyLedgerRangeRequest();
+        this.ledgerId = copyLedgerRangeRequest.getLedgerId();
+        this.startTimeNanos = MathUtils.nowInNano();
+    }
+
+    /**
+     * Validate the request and make sure the ledger exists with the same master key on this bookie. Requests
+     * without the digest type of the ledger, or for HMAC digests, are rejected, as the copied entries couldn't
+     * be verified.
+     *
+     * @return the status to fail the request with, or {@link StatusCode#EOK} to start the copy
+     */
+    private StatusCode prepareCopy() {
+        if (!isVersionCompatible()) {
+            return StatusCode.EBADVERSION;
+        }
+        long firstEntryId = copyLedgerRangeRequest.getFirstEntryId();
+        long lastEntryId = copyLedgerRangeRequest.getLastEntryId();
+        if (firstEntryId < 0 || lastEntryId < firstEntryId || lastEntryId - firstEntryId >= Integer.MAX_VALUE
+                || copyLedgerRangeRequest.getSourceBookiesCount() == 0
+                || !copyLedgerRangeRequest.hasDigestType()
+                || copyLedgerRangeRequest.getDigestType() == DigestType.HMAC) {
+            return StatusCode.EBADREQ;
+        }
+        if (null == requestProcessor.getLedgerRangeCopier()) {
+            LOG.warn("Rejected the copy of ledger {}, this bookie can't look up the source bookies", ledgerId);
+            return StatusCode.EBADREQ;
+        }
+        if (requestProcessor.getBookie().isReadOnly()) {
+            LOG.warn("BookieReadOnlyException while copying ledger {}", ledgerId);
+            return StatusCode.EREADONLY;
+        }
+        byte[] masterKey = copyLedgerRangeRequest.getMasterKey().toByteArray();
+        LedgerStorage ledgerStorage = requestProcessor.getBookie().getLedgerStorage();
+        try {
+            if (ledgerStorage.ledgerExists(ledgerId)) {
+                if (!Arrays.equals(masterKey, ledgerStorage.readMasterKey(ledgerId))) {
+                    LOG.error("Master key mismatch while copying ledger {}", ledgerId);
+                    return StatusCode.EUA;
+                }
+            } else {
+                ledgerStorage.setMasterKey(ledgerId, masterKey);
+            }
+        } catch (IOException | BookieException e) {
+            LOG.error("Error while preparing the copy of ledger {}", ledgerId, e);
+            return StatusCode.EIO;
+        }
+        return StatusCode.EOK;
+    }
+
+    @Override
+    public void run() {
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Received new copyLedgerRange request: {}", request);
+        }
+        StatusCode status = prepareCopy();
+        if (status != StatusCode.EOK) {
+            sendCopyResponse(status, 0L);
+            return;
+        }
+        requestProcessor.getLedgerRangeCopier().copy(ledgerId, copyLedgerRangeRequest.getMasterKey().toByteArray(),
+                copyLedgerRangeRequest.getDigestType(), copyLedgerRangeRequest.getFirstEntryId(),
+                copyLedgerRangeRequest.getLastEntryId(), copyLedgerRangeRequest.getSourceBookiesList())
+            .whenComplete((numEntriesCopied, cause) -> {
+                if (null == cause) {
+                    sendCopyResponse(StatusCode.EOK, numEntriesCopied);
+                    return;
+                }
+                Throwable t = cause instanceof CompletionException ? cause.getCause() : cause;
+                if (t instanceof BKException.BKNoSuchEntryException) {
+                    sendCopyResponse(StatusCode.ENOENTRY, 0L);
+                } else if (t instanceof BKException.BKIllegalOpException) {
+                    sendCopyResponse(StatusCode.EBADREQ, 0L);
+                } else {
+                    sendCopyResponse(StatusCode.EIO, 0L);
+                }
+            });
+    }
+
+    private void sendCopyResponse(StatusCode status, long numEntriesCopied) {
+        if (status == StatusCode.EOK) {
+            requestProcessor.getRequestStats().getCopyLedgerRangeStats()
+                    .registerSuccessfulEvent(MathUtils.elapsedNanos(startTimeNanos), TimeUnit.NANOSECONDS);
+        } else {
+            requestProcessor.getRequestStats().getCopyLedgerRangeStats()
+                    .registerFailedEvent(MathUtils.elapsedNanos(startTimeNanos), TimeUnit.NANOSECONDS);
+        }
+        CopyLedgerRangeResponse.Builder copyLedgerRangeResponse = CopyLedgerRangeResponse.newBuilder()
+                .setStatus(status)
+                .setLedgerId(ledgerId)
+                .setNumEntriesCopied(numEntriesCopied);
+        Response.Builder response = Response.newBuilder().setHeader(getHeader())
+                .setStatus(status)
+                .setCopyLedgerRangeResponse(copyLedgerRangeResponse);
+        sendResponse(status, response.build(), requestProcessor.getRequestStats().getCopyLedgerRangeRequestStats());
+    }
+}
@@ -37,6 +37,9 @@ import org.slf4j.LoggerFactory;
 public class GetBookieInfoProcessorV3 extends PacketProcessorBaseV3 implements Runnable {
     private static final Logger LOG = LoggerFactory.getLogger(GetBookieInfoProcessorV3.class);
 
+    // percentile of the add latency reported as part of the bookie load
+    private static final double ADD_LATENCY_PERCENTILE = 99.0;
+
     public GetBookieInfoProcessorV3(Request request, BookieRequestHandler requestHandler,
                                      BookieRequestProcessor requestProcessor) {
         super(request, requestHandler, requestProcessor);
@@ -70,6 +73,13 @@ public class GetBookieInfoProcessorV3 extends PacketProcessorBaseV3 implements R
                 totalDiskSpace = requestProcessor.getBookie().getTotalDiskSpace();
                 getBookieInfoResponse.setTotalDiskCapacity(totalDiskSpace);
             }
+            if ((requested & GetBookieInfoRequest.Flags.LOAD_VALUE) != 0) {
+                getBookieInfoResponse.setJournalQueueLength(requestProcessor.getBookie().getJournalQueueLength());
+                getBookieInfoResponse.setAddLatencyMicros(
+                        requestProcessor.getRequestStats().getAddEntryLatencyMicros(ADD_LATENCY_PERCENTILE));
+                getBookieInfoResponse.setReadCacheMissPercent(
+                        requestProcessor.getBookie().getLedgerStorage().getReadCacheMissPercent());
+            }
             if (LOG.isDebugEnabled()) {
                 LOG.debug("FreeDiskSpace info is " + freeDiskSpace + " totalDiskSpace is: " + totalDiskSpace);
             }
@@ -0,0 +1,117 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.proto;
+
+import com.google.protobuf.UnsafeByteOperations;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.apache.bookkeeper.bookie.Bookie;
+import org.apache.bookkeeper.proto.BookkeeperProtocol.GetListOfEntriesOfLedgerResponse;
+import org.apache.bookkeeper.proto.BookkeeperProtocol.GetListOfEntriesOfLedgersRequest;
+import org.apache.bookkeeper.proto.BookkeeperProtocol.GetListOfEntriesOfLedgersResponse;
+import org.apache.bookkeeper.proto.BookkeeperProtocol.Request;
+import org.apache.bookkeeper.proto.BookkeeperProtocol.Response;
+import org.apache.bookkeeper.proto.BookkeeperProtocol.StatusCode;
+import org.apache.bookkeeper.util.AvailabilityOfEntriesOfLedger;
+import org.apache.bookkeeper.util.MathUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A processor class for v3 entries of ledgers packets, the bulk variant of
+ * {@link GetListOfEntriesOfLedgerProcessorV3}.
+ *
+ * <p>The ledgers are processed in request order until the response reaches half of the max frame size.
+ * The results of the ledgers left out have to be requested again.
+ */
+public class GetListOfEntriesOfLedgersProcessorV3 extends PacketProcessorBaseV3 implements Runnable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(GetListOfEntriesOfLedgersProcessorV3.class);
+
+    protected final GetListOfEntriesOfLedgersRequest getListOfEntriesOfLedgersRequest;
+
+    public GetListOfEntriesOfLedgersProcessorV3(Request request, BookieRequestHandler requestHandler,
+                                                BookieRequestProcessor requestProcessor) {
+        super(request, requestHandler, requestProcessor);
+        this.getListOfEntriesOfLedgersRequest = request.getGetListOfEntriesOfLedgersRequest();
+    }
+
+    private GetListOfEntriesOfLedgersResponse getListOfEntriesOfLedgersResponse() {
+        long startTimeNanos = MathUtils.nowInNano();
+
+        GetListOfEntriesOfLedgersResponse.Builder getListOfEntriesOfLedgersResponse =
+                GetListOfEntriesOfLedgersResponse.newBuilder();
+
+        if (!isVersionCompatible()) {
+            getListOfEntriesOfLedgersResponse.setStatus(StatusCode.EBADVERSION);
+            requestProcessor.getRequestStats().getGetListOfEntriesOfLedgersStats()
+                    .registerFailedEvent(MathUtils.elapsedNanos(startTimeNanos), TimeUnit.NANOSECONDS);
+            return getListOfEntriesOfLedgersResponse.build();
+        }
+
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Received new getListOfEntriesOfLedgers request for {} ledgers",
+                    getListOfEntriesOfLedgersRequest.getLedgerIdsCount());
+        }
+        long maxBytes = requestProcessor.getServerCfg().getNettyMaxFrameSizeBytes() / 2;
+        long responseBytes = 0;
+        for (int i = 0; i < getListOfEntriesOfLedgersRequest.getLedgerIdsCount() && responseBytes < maxBytes; i++) {
+            long ledgerId = getListOfEntriesOfLedgersRequest.getLedgerIds(i);
+            GetListOfEntriesOfLedgerResponse.Builder ledgerResponse = GetListOfEntriesOfLedgerResponse.newBuilder()
+                    .setLedgerId(ledgerId);
+            StatusCode status = StatusCode.EOK;
+            try {
+                byte[] availabilityOfEntriesOfLedger = new AvailabilityOfEntriesOfLedger(
+                        requestProcessor.getBookie().getListOfEntriesOfLedger(ledgerId))
+                        .serializeStateOfEntriesOfLedger();
+                ledgerResponse.setAvailabilityOfEntriesOfLedger(
+                        UnsafeByteOperations.unsafeWrap(availabilityOfEntriesOfLedger));
+                responseBytes += availabilityOfEntriesOfLedger.length;
+            } catch (Bookie.NoLedgerException e) {
+                // expected for the ledgers this bookie lost, the requester compares with the ledger metadata
+                status = StatusCode.ENOLEDGER;
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug("No ledger found while performing getListOfEntriesOfLedgers for ledger: {}", ledgerId);
+                }
+            } catch (IOException e) {
+                status = StatusCode.EIO;
+                LOG.error("IOException while performing getListOfEntriesOfLedgers for ledger: {}", ledgerId, e);
+            }
+            getListOfEntriesOfLedgersResponse.addLedgers(ledgerResponse.setStatus(status));
+        }
+
+        requestProcessor.getRequestStats().getGetListOfEntriesOfLedgersStats()
+                .registerSuccessfulEvent(MathUtils.elapsedNanos(startTimeNanos), TimeUnit.NANOSECONDS);
+        // per ledger failures are reported in the ledger results
+        getListOfEntriesOfLedgersResponse.setStatus(StatusCode.EOK);
+        return getListOfEntriesOfLedgersResponse.build();
+    }
+
+    @Override
+    public void run() {
+        GetListOfEntriesOfLedgersResponse listOfEntriesOfLedgersResponse = getListOfEntriesOfLedgersResponse();
+        Response.Builder response = Response.newBuilder().setHeader(getHeader())
+                .setStatus(listOfEntriesOfLedgersResponse.getStatus())
+                .setGetListOfEntriesOfLedgersResponse(listOfEntriesOfLedgersResponse);
+        sendResponse(listOfEntriesOfLedgersResponse.getStatus(), response.build(),
+                requestProcessor.getRequestStats().getGetListOfEntriesOfLedgersRequestStats());
+    }
+}
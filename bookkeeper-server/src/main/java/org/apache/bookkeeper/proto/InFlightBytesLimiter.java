@@ -0,0 +1,174 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.proto;
+
+import io.netty.channel.Channel;
+import io.netty.util.AttributeKey;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+import org.apache.bookkeeper.stats.Counter;
+
+/**
+ * Admission control of the requests of a bookie by the number of bytes they hold in flight.
+ *
+ * <p>Requests are neither rejected nor blocked: their bytes are accounted when they are admitted and released
+ * once they complete. A channel whose requests take the total above the limit, or hold more than the fair
+ * share of the channel, is deferred: the bookie stops reading from it until enough bytes are released. The
+ * fair share of a channel is the limit divided by the number of channels with bytes in flight, so that a few
+ * channels with large entries can't starve the others. A deferred channel is read from again at the latest once
+ * all its bytes are released, so a request larger than the limit still makes progress.
+ *
+ * <p>Low priority requests (e.g. catch-up reads) can only take the total up to {@code lowPriorityShare} of the
+ * limit, the remainder is kept for the other requests (e.g. tailing reads).
+ */
+class InFlightBytesLimiter {
+
+    /**
+     * Bytes in flight of a channel.
+     */
+    private static final class ChannelState {
+        final AtomicLong bytes = new AtomicLong();
+        volatile boolean deferred = false;
+        // priority of the request that deferred the channel
+        volatile boolean lowPriority = false;
+    }
+
+    private final AttributeKey<ChannelState> stateKey;
+    private final long maxBytes;
+    private final long lowPriorityMaxBytes;
+    private final AtomicLong inFlightBytes = new AtomicLong();
+    private final AtomicInteger activeChannels = new AtomicInteger();
+    private final Queue<Channel> deferredChannels = new ConcurrentLinkedQueue<>();
+    // whether a channel no longer deferred by this limiter can be read from again
+    private final Predicate<Channel> readingAllowed;
+    private final Counter admittedBytes;
+    private final Counter deferredBytes;
+
+    InFlightBytesLimiter(String name, long maxBytes, double lowPriorityShare, Predicate<Channel> readingAllowed,
+                         Counter admittedBytes, Counter deferredBytes) {
+        if (maxBytes <= 0 || lowPriorityShare <= 0 || lowPriorityShare > 1.0) {
+            throw new IllegalArgumentException("Invalid limit (" + maxBytes + ") or low priority share ("
+                    + lowPriorityShare + ") for " + name + " bytes in flight");
+        }
+        this.stateKey = AttributeKey.valueOf(InFlightBytesLimiter.class, name);
+        this.maxBytes = maxBytes;
+        this.lowPriorityMaxBytes = (long) (maxBytes * lowPriorityShare);
+        this.readingAllowed = readingAllowed;
+        this.admittedBytes = admittedBytes;
+        this.deferredBytes = deferredBytes;
+    }
+
+    long getInFlightBytes() {
+        return inFlightBytes.get();
+    }
+
+    /**
+     * Whether the bookie stopped reading from <i>channel</i> because of its bytes in flight.
+     */
+    boolean isDeferred(Channel channel) {
+        ChannelState state = channel.attr(stateKey).get();
+        return state != null && state.deferred;
+    }
+
+    /**
+     * Account <i>bytes</i> of a request of <i>channel</i>, and stop reading from the channel if it is now above
+     * its share.
+     */
+    void acquire(Channel channel, long bytes, boolean lowPriority) {
+        if (bytes <= 0) {
+            return;
+        }
+        ChannelState state = channel.attr(stateKey).setIfAbsent(new ChannelState());
+        if (state == null) {
+            state = channel.attr(stateKey).get();
+        }
+        if (state.bytes.getAndAdd(bytes) == 0) {
+            activeChannels.incrementAndGet();
+        }
+        long total = inFlightBytes.addAndGet(bytes);
+        admittedBytes.addCount(bytes);
+
+        if (!state.deferred && isAboveShare(state, total, lowPriority)) {
+            synchronized (state) {
+                if (state.deferred) {
+                    return;
+                }
+                state.deferred = true;
+                state.lowPriority = lowPriority;
+            }
+            deferredBytes.addCount(bytes);
+            // stop reading before publishing the channel, so that a concurrent release can't re-enable
+            // the reads before they are disabled
+            channel.config().setAutoRead(false);
+            deferredChannels.add(channel);
+            // bytes might have been released meanwhile
+            resumeDeferredChannels();
+        }
+    }
+
+    /**
+     * Release <i>bytes</i> previously acquired for <i>channel</i>, and read again from the deferred channels now
+     * below their share.
+     */
+    void release(Channel channel, long bytes) {
+        if (bytes <= 0) {
+            return;
+        }
+        ChannelState state = channel.attr(stateKey).get();
+        if (state.bytes.addAndGet(-bytes) == 0) {
+            activeChannels.decrementAndGet();
+        }
+        inFlightBytes.addAndGet(-bytes);
+        if (!deferredChannels.isEmpty()) {
+            resumeDeferredChannels();
+        }
+    }
+
+    private boolean isAboveShare(ChannelState state, long total, boolean lowPriority) {
+        long channelBytes = state.bytes.get();
+        if (channelBytes <= 0) {
+            return false;
+        }
+        return total > (lowPriority ? lowPriorityMaxBytes : maxBytes)
+                || channelBytes > maxBytes / Math.max(1, activeChannels.get());
+    }
+
+    private void resumeDeferredChannels() {
+        long total = inFlightBytes.get();
+        Iterator<Channel> iterator = deferredChannels.iterator();
+        while (iterator.hasNext()) {
+            Channel channel = iterator.next();
+            ChannelState state = channel.attr(stateKey).get();
+            boolean resume = !channel.isActive() || !isAboveShare(state, total, state.lowPriority);
+            // only the thread removing the channel resumes it
+            if (resume && deferredChannels.remove(channel)) {
+                state.deferred = false;
+                if (readingAllowed.test(channel)) {
+                    channel.config().setAutoRead(true);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,220 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.proto;
+
+import com.google.common.annotations.VisibleForTesting;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.bookkeeper.common.util.MathUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Executes blocking read requests bounding the reads in progress per ledger directory rather than by a fixed
+ * number of threads.
+ *
+ * <p>With a fixed pool of read threads, cold reads blocked on disk cap the read concurrency of the bookie to
+ * the pool size. Here what bounds the concurrency is a number of permits per ledger directory: ledgers are
+ * mapped to directories the same way {@code DbLedgerStorage} does. Reads exceeding the permits of their
+ * directory are queued, without blocking any thread, and run as soon as a read of the same directory
+ * completes. Reads are rejected once {@code maxPendingReadsPerLedgerDir} reads are queued for a directory.
+ *
+ * <p>By default reads run on a pool of platform threads, up to as many as the permits of all the directories.
+ * Threads are only started when reads are in progress and idle ones are reclaimed after a while, so the bookie
+ * only holds as many threads as the disks keep busy. Virtual threads can be used instead on JDK 21+, they are
+ * not the default as the read path holds monitors around blocking file reads, which pins a virtual thread to
+ * its carrier before JDK 24, and calls into RocksDB, which always pins it. On older JVMs, asking for virtual
+ * threads falls back to the platform threads.
+ */
+class LedgerDirReadExecutor {
+    private static final Logger LOG = LoggerFactory.getLogger(LedgerDirReadExecutor.class);
+
+    private final ExecutorService executor;
+    private final boolean virtualThreads;
+    private final LedgerDirSlot[] slots;
+    private final int maxPendingReadsPerLedgerDir;
+
+    LedgerDirReadExecutor(int numLedgerDirs, int maxReadsPerLedgerDir, int maxPendingReadsPerLedgerDir) {
+        this(numLedgerDirs, maxReadsPerLedgerDir, maxPendingReadsPerLedgerDir, false);
+    }
+
+    LedgerDirReadExecutor(int numLedgerDirs, int maxReadsPerLedgerDir, int maxPendingReadsPerLedgerDir,
+                          boolean virtualThreadsEnabled) {
+        if (numLedgerDirs <= 0 || maxReadsPerLedgerDir <= 0) {
+            throw new IllegalArgumentException("Invalid number of ledger dirs (" + numLedgerDirs
+                    + ") or max reads per ledger dir (" + maxReadsPerLedgerDir + ")");
+        }
+        this.maxPendingReadsPerLedgerDir = maxPendingReadsPerLedgerDir;
+        this.slots = new LedgerDirSlot[numLedgerDirs];
+        for (int i = 0; i < numLedgerDirs; i++) {
+            slots[i] = new LedgerDirSlot(maxReadsPerLedgerDir);
+        }
+        ExecutorService virtualThreadExecutor = virtualThreadsEnabled ? newVirtualThreadPerTaskExecutor() : null;
+        if (null != virtualThreadExecutor) {
+            this.executor = virtualThreadExecutor;
+            this.virtualThreads = true;
+            LOG.info("Executing reads on virtual threads, with up to {} reads in progress for each of the {} ledger"
+                    + " dirs", maxReadsPerLedgerDir, numLedgerDirs);
+        } else {
+            if (virtualThreadsEnabled) {
+                LOG.warn("Virtual threads are not supported by this JVM, executing reads on platform threads");
+            }
+            // the permits bound the reads in progress to the number of threads, so the queue stays empty
+            int numThreads = Math.multiplyExact(numLedgerDirs, maxReadsPerLedgerDir);
+            ThreadPoolExecutor threadPool = new ThreadPoolExecutor(numThreads, numThreads, 60, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<>(), new DefaultThreadFactory("BookieReadThread", true));
+            threadPool.allowCoreThreadTimeOut(true);
+            this.executor = threadPool;
+            this.virtualThreads = false;
+            LOG.info("Executing reads on up to {} threads, with up to {} reads in progress for each of the {} ledger"
+                    + " dirs", numThreads, maxReadsPerLedgerDir, numLedgerDirs);
+        }
+    }
+
+    /**
+     * Look up {@code Executors#newVirtualThreadPerTaskExecutor()}, which only exists on JDK 21+.
+     *
+     * @return the executor, or null if the JVM doesn't support virtual threads
+     */
+    private static ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            MethodHandle factory = MethodHandles.publicLookup().findStatic(Executors.class,
+                    "newVirtualThreadPerTaskExecutor", MethodType.methodType(ExecutorService.class));
+            return (ExecutorService) factory.invoke();
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            return null;
+        } catch (Throwable t) {
+            LOG.warn("Failed to create the virtual thread executor", t);
+            return null;
+        }
+    }
+
+    @VisibleForTesting
+    boolean isVirtualThreads() {
+        return virtualThreads;
+    }
+
+    /**
+     * Execute the read of an entry of <i>ledgerId</i>.
+     *
+     * @throws RejectedExecutionException if too many reads are queued for the ledger directory
+     */
+    void executeRead(long ledgerId, Runnable read) {
+        LedgerDirSlot slot = slots[MathUtils.signSafeMod(ledgerId, slots.length)];
+        if (slot.permits.tryAcquire()) {
+            start(slot, read);
+            return;
+        }
+        if (maxPendingReadsPerLedgerDir > 0 && slot.numPending.get() >= maxPendingReadsPerLedgerDir) {
+            throw new RejectedExecutionException("Too many reads pending on ledger dir");
+        }
+        slot.pending.offer(read);
+        slot.numPending.incrementAndGet();
+        // a read may have completed since we tried, and would have missed the one we just queued
+        if (slot.permits.tryAcquire()) {
+            Runnable next = slot.poll();
+            if (null != next) {
+                start(slot, next);
+            } else {
+                slot.permits.release();
+            }
+        }
+    }
+
+    private void start(LedgerDirSlot slot, Runnable read) {
+        try {
+            executor.execute(() -> runReads(slot, read));
+        } catch (RejectedExecutionException ree) {
+            slot.permits.release();
+            throw ree;
+        }
+    }
+
+    /**
+     * Run <i>read</i> then the reads queued for the directory, holding one permit of the directory.
+     */
+    private void runReads(LedgerDirSlot slot, Runnable read) {
+        Runnable next = read;
+        while (null != next) {
+            try {
+                next.run();
+            } catch (Throwable t) {
+                LOG.error("Error while processing read request", t);
+            }
+            next = slot.poll();
+            if (null == next) {
+                slot.permits.release();
+                // a read queued before the release would have failed to get a permit
+                if (!slot.pending.isEmpty() && slot.permits.tryAcquire()) {
+                    next = slot.poll();
+                    if (null == next) {
+                        slot.permits.release();
+                    }
+                }
+            }
+        }
+    }
+
+    void shutdown() {
+        executor.shutdown();
+    }
+
+    void forceShutdown(long timeout, TimeUnit unit) {
+        try {
+            if (!executor.awaitTermination(timeout, unit)) {
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static final class LedgerDirSlot {
+        final Semaphore permits;
+        final Queue<Runnable> pending = new ConcurrentLinkedQueue<>();
+        final AtomicInteger numPending = new AtomicInteger(0);
+
+        LedgerDirSlot(int maxReads) {
+            this.permits = new Semaphore(maxReads);
+        }
+
+        Runnable poll() {
+            Runnable read = pending.poll();
+            if (null != read) {
+                numPending.decrementAndGet();
+            }
+            return read;
+        }
+    }
+}
@@ -0,0 +1,379 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.proto;
+
+import com.google.common.annotations.VisibleForTesting;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.apache.bookkeeper.bookie.Bookie;
+import org.apache.bookkeeper.bookie.BookieException;
+import org.apache.bookkeeper.client.BKException;
+import org.apache.bookkeeper.client.DefaultBookieAddressResolver;
+import org.apache.bookkeeper.common.util.OrderedExecutor;
+import org.apache.bookkeeper.conf.ClientConfiguration;
+import org.apache.bookkeeper.conf.ServerConfiguration;
+import org.apache.bookkeeper.discover.RegistrationClient;
+import org.apache.bookkeeper.meta.MetadataBookieDriver;
+import org.apache.bookkeeper.net.BookieId;
+import org.apache.bookkeeper.proto.BookkeeperProtocol.BookieAddress;
+import org.apache.bookkeeper.proto.BookkeeperProtocol.ReadLedgerRangeResponse;
+import org.apache.bookkeeper.proto.DataFormats.LedgerMetadataFormat.DigestType;
+import org.apache.bookkeeper.proto.checksum.DigestManager;
+import org.apache.bookkeeper.stats.StatsLogger;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Copies ranges of ledgers from other bookies straight into this bookie.
+ *
+ * <p>A range is pulled in chunks from the first source bookie; the next chunk is requested as soon as a chunk
+ * is received, so reading from the source overlaps with writing to the local storage. Entries the source
+ * doesn't have, or whose digest doesn't match, are then pulled from the next source, and so on. The entries
+ * are added to the bookie like recovery adds, and the copy completes once the journal has synced all of them,
+ * so a copy never forces a flush of the ledger storage.
+ *
+ * <p>The source bookies are resolved through the registration client of the cluster, never through the
+ * addresses sent by the requester, and a copy from a bookie that isn't registered is rejected. The registration
+ * client shares the metadata store session of the bookie, and the copier is created with the request processor,
+ * so a copy request never connects to the metadata store.
+ */
+class LedgerRangeCopier implements AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(LedgerRangeCopier.class);
+
+    private final Bookie bookie;
+    private final ByteBufAllocator allocator;
+    private final int chunkSizeBytes;
+    private final EventLoopGroup eventLoopGroup;
+    private final OrderedExecutor executor;
+    private final ScheduledExecutorService scheduler;
+    private final BookieClientImpl bookieClient;
+    private final RegistrationClient registrationClient;
+    // whether the registration client was created by this copier, rather than given by the caller
+    private final boolean ownRegistrationClient;
+
+    /**
+     * @param metadataDriver metadata driver of the bookie, to resolve the source bookies with
+     * @throws IOException if the metadata driver can't look up the bookies of the cluster
+     */
+    LedgerRangeCopier(ServerConfiguration serverCfg, Bookie bookie, ByteBufAllocator allocator,
+                      StatsLogger statsLogger, MetadataBookieDriver metadataDriver) throws IOException {
+        this(serverCfg, bookie, allocator, statsLogger, metadataDriver, null);
+    }
+
+    /**
+     * @param registrationClient registration client to resolve the source bookies with
+     */
+    @VisibleForTesting
+    LedgerRangeCopier(ServerConfiguration serverCfg, Bookie bookie, ByteBufAllocator allocator,
+                      StatsLogger statsLogger, RegistrationClient registrationClient) throws IOException {
+        this(serverCfg, bookie, allocator, statsLogger, null, registrationClient);
+    }
+
+    private LedgerRangeCopier(ServerConfiguration serverCfg, Bookie bookie, ByteBufAllocator allocator,
+                              StatsLogger statsLogger, MetadataBookieDriver metadataDriver,
+                              RegistrationClient registrationClient) throws IOException {
+        this.bookie = bookie;
+        this.allocator = allocator;
+        ClientConfiguration clientCfg = new ClientConfiguration(serverCfg);
+        clientCfg.setUseV2WireProtocol(false);
+        this.chunkSizeBytes = clientCfg.getReplicationBookieToBookieCopyChunkSizeBytes();
+        this.eventLoopGroup = new NioEventLoopGroup(1, new DefaultThreadFactory("bookie-range-copier-io"));
+        this.executor = OrderedExecutor.newBuilder()
+                .numThreads(2)
+                .name("BookieRangeCopier")
+                .build();
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(
+                new DefaultThreadFactory("BookieRangeCopierScheduler"));
+        if (null == registrationClient) {
+            registrationClient = metadataDriver.createRegistrationClient(scheduler);
+            if (null == registrationClient) {
+                close(eventLoopGroup, executor, scheduler);
+                throw new IOException("Metadata driver " + metadataDriver.getScheme()
+                        + " can't look up the source bookies");
+            }
+            this.ownRegistrationClient = true;
+        } else {
+            this.ownRegistrationClient = false;
+        }
+        this.registrationClient = registrationClient;
+        this.bookieClient = new BookieClientImpl(clientCfg, eventLoopGroup, allocator, executor, scheduler,
+                statsLogger, new DefaultBookieAddressResolver(this.registrationClient));
+    }
+
+    /**
+     * Copy the range <i>[firstEntryId, lastEntryId]</i> of a ledger from the given bookies. Only the entries
+     * matching the digest of the ledger are copied, which can't be {@link DigestType#HMAC} as the bookie doesn't
+     * know the password of the ledger.
+     *
+     * @return a future completed with the number of entries copied, or failed with
+     *         {@link BKException.BKNoSuchEntryException} if some entries could not be found on any source
+     */
+    CompletableFuture<Long> copy(long ledgerId, byte[] masterKey, DigestType digestType,
+                                 long firstEntryId, long lastEntryId, List<BookieAddress> sources) {
+        CompletableFuture<Long> failed = new CompletableFuture<>();
+        if (firstEntryId < 0 || lastEntryId < firstEntryId || lastEntryId - firstEntryId >= Integer.MAX_VALUE
+                || digestType == DigestType.HMAC) {
+            LOG.warn("Invalid range {}-{} or {} digest to copy ledger {}", firstEntryId, lastEntryId, digestType,
+                    ledgerId);
+            failed.completeExceptionally(new BKException.BKIllegalOpException());
+            return failed;
+        }
+        DigestManager digestManager;
+        try {
+            // the checksum digests don't use the password
+            digestManager = DigestManager.instantiate(ledgerId, new byte[0], digestType, allocator, false);
+        } catch (GeneralSecurityException e) {
+            LOG.warn("Cannot verify the {} digest of ledger {}", digestType, ledgerId, e);
+            failed.completeExceptionally(new BKException.BKIllegalOpException());
+            return failed;
+        }
+        List<BookieId> sourceIds = new ArrayList<>(sources.size());
+        try {
+            for (BookieAddress source : sources) {
+                sourceIds.add(BookieId.parse(source.getBookieId()));
+            }
+        } catch (IllegalArgumentException e) {
+            LOG.warn("Invalid source bookie to copy ledger {}: {}", ledgerId, sources, e);
+            failed.completeExceptionally(new BKException.BKIllegalOpException());
+            return failed;
+        }
+        CopyOp op = new CopyOp(ledgerId, masterKey, digestManager, firstEntryId, lastEntryId, sourceIds);
+        // listing the registered bookies also caches their service info, which the address resolver reads
+        registrationClient.getWritableBookies()
+            .thenCombine(registrationClient.getReadOnlyBookies(), (writable, readOnly) -> {
+                Set<BookieId> registered = new HashSet<>(writable.getValue());
+                registered.addAll(readOnly.getValue());
+                return registered;
+            })
+            .whenCompleteAsync((registered, cause) -> {
+                if (null != cause) {
+                    LOG.warn("Failed to list the registered bookies to copy ledger {}", ledgerId, cause);
+                    op.promise.completeExceptionally(
+                            BKException.create(BKException.Code.BookieHandleNotAvailableException));
+                } else if (!registered.containsAll(sourceIds)) {
+                    LOG.warn("Rejected the copy of ledger {} from unregistered bookies {}", ledgerId, sourceIds);
+                    op.promise.completeExceptionally(new BKException.BKIllegalOpException());
+                } else {
+                    op.start();
+                }
+            }, executor.chooseThread(ledgerId));
+        return op.promise;
+    }
+
+    @Override
+    public void close() {
+        bookieClient.close();
+        if (ownRegistrationClient) {
+            registrationClient.close();
+        }
+        close(eventLoopGroup, executor, scheduler);
+    }
+
+    @VisibleForTesting
+    CompletableFuture<ReadLedgerRangeResponse> readLedgerRange(BookieId source, long ledgerId, long firstEntryId,
+                                                               long lastEntryId, long maxBytes) {
+        return bookieClient.readLedgerRange(source, ledgerId, firstEntryId, lastEntryId, maxBytes);
+    }
+
+    private static void close(EventLoopGroup eventLoopGroup, OrderedExecutor executor,
+                              ScheduledExecutorService scheduler) {
+        eventLoopGroup.shutdownGracefully(0, 10, TimeUnit.SECONDS);
+        executor.shutdown();
+        scheduler.shutdown();
+    }
+
+    /**
+     * A single range copy. Its state is only accessed from the executor thread of the ledger.
+     */
+    private final class CopyOp implements BookkeeperInternalCallbacks.WriteCallback {
+        final long ledgerId;
+        final byte[] masterKey;
+        final DigestManager digestManager;
+        final long firstEntryId;
+        final long lastEntryId;
+        final List<BookieId> sources;
+        // grown as entries are copied, rather than sized for the whole range upfront
+        final BitSet copied = new BitSet();
+        final CompletableFuture<Long> promise = new CompletableFuture<>();
+
+        int sourceIndex = 0;
+        long scanLastEntryId;
+        long numEntriesCopied = 0;
+        // entries added and not synced by the journal yet
+        int numEntriesPendingSync = 0;
+        boolean scanned = false;
+
+        CopyOp(long ledgerId, byte[] masterKey, DigestManager digestManager, long firstEntryId, long lastEntryId,
+               List<BookieId> sources) {
+            this.ledgerId = ledgerId;
+            this.masterKey = masterKey;
+            this.digestManager = digestManager;
+            this.firstEntryId = firstEntryId;
+            this.lastEntryId = lastEntryId;
+            this.sources = sources;
+        }
+
+        void start() {
+            scan(firstEntryId, lastEntryId);
+        }
+
+        private void scan(long fromEntryId, long toEntryId) {
+            scanLastEntryId = toEntryId;
+            handleChunk(fromEntryId, read(fromEntryId));
+        }
+
+        private CompletableFuture<ReadLedgerRangeResponse> read(long fromEntryId) {
+            return readLedgerRange(sources.get(sourceIndex), ledgerId, fromEntryId, scanLastEntryId, chunkSizeBytes);
+        }
+
+        private void handleChunk(long fromEntryId, CompletableFuture<ReadLedgerRangeResponse> pending) {
+            pending.whenCompleteAsync((response, cause) -> {
+                if (promise.isDone()) {
+                    return;
+                }
+                if (null != cause) {
+                    LOG.warn("Failed to read entries {}-{} of ledger {} from {}, trying the next source",
+                            fromEntryId, scanLastEntryId, ledgerId, sources.get(sourceIndex), cause);
+                    nextSource();
+                    return;
+                }
+                long scannedEntryId = response.hasLastScannedEntryId()
+                        ? response.getLastScannedEntryId() : scanLastEntryId;
+                if (scannedEntryId < fromEntryId) {
+                    nextSource();
+                    return;
+                }
+                // request the next chunk before writing this one
+                CompletableFuture<ReadLedgerRangeResponse> next = null;
+                if (scannedEntryId < scanLastEntryId) {
+                    next = read(scannedEntryId + 1);
+                }
+                try {
+                    write(response);
+                } catch (IOException | BookieException e) {
+                    LOG.error("Failed to write the entries of ledger {} copied from {}",
+                            ledgerId, sources.get(sourceIndex), e);
+                    promise.completeExceptionally(e);
+                    return;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    promise.completeExceptionally(e);
+                    return;
+                }
+                if (null != next) {
+                    handleChunk(scannedEntryId + 1, next);
+                } else {
+                    nextSource();
+                }
+            }, executor.chooseThread(ledgerId));
+        }
+
+        /**
+         * Add the entries of a chunk matching the ledger digest. The digests of the chunk are verified as a
+         * batch; the entries not matching are left to the next source.
+         */
+        private void write(ReadLedgerRangeResponse response) throws IOException, BookieException, InterruptedException {
+            int count = response.getEntriesCount();
+            long[] entryIds = new long[count];
+            ByteBuf[] entries = new ByteBuf[count];
+            ByteBuf[] received = new ByteBuf[count];
+            for (int i = 0; i < count; i++) {
+                ByteBuf entry = Unpooled.wrappedBuffer(response.getEntries(i).asReadOnlyByteBuffer());
+                long entryLedgerId = entry.getLong(entry.readerIndex());
+                long entryId = entry.getLong(entry.readerIndex() + 8);
+                if (entryLedgerId != ledgerId || entryId < firstEntryId || entryId > lastEntryId) {
+                    throw new IOException("Unexpected entry " + entryLedgerId + "@" + entryId
+                            + " while copying ledger " + ledgerId);
+                }
+                entryIds[i] = entryId;
+                entries[i] = entry;
+                // verifying moves the reader index, the entry is added with its header
+                received[i] = entry.duplicate();
+            }
+            BitSet mismatches = digestManager.verifyDigestsAndReturnData(entryIds, received, count);
+            if (!mismatches.isEmpty()) {
+                LOG.warn("{} entries of ledger {} from {} don't match the ledger digest, trying the next source",
+                        mismatches.cardinality(), ledgerId, sources.get(sourceIndex));
+            }
+            for (int i = 0; i < count; i++) {
+                int index = (int) (entryIds[i] - firstEntryId);
+                if (mismatches.get(i) || copied.get(index)) {
+                    continue;
+                }
+                numEntriesPendingSync++;
+                bookie.recoveryAddEntry(entries[i], this, null, masterKey);
+                copied.set(index);
+                numEntriesCopied++;
+            }
+        }
+
+        @Override
+        public void writeComplete(int rc, long ledgerId, long entryId, BookieId addr, Object ctx) {
+            executor.executeOrdered(this.ledgerId, () -> {
+                numEntriesPendingSync--;
+                if (rc != BKException.Code.OK) {
+                    LOG.error("Failed to add entry {} of ledger {} copied from {}: {}",
+                            entryId, ledgerId, sources.get(sourceIndex), BKException.getMessage(rc));
+                    promise.completeExceptionally(BKException.create(rc));
+                } else if (scanned && numEntriesPendingSync == 0) {
+                    promise.complete(numEntriesCopied);
+                }
+            });
+        }
+
+        private void nextSource() {
+            int rangeSize = (int) (lastEntryId - firstEntryId + 1);
+            int firstMissing = copied.nextClearBit(0);
+            if (firstMissing >= rangeSize) {
+                scanned = true;
+                if (numEntriesPendingSync == 0) {
+                    promise.complete(numEntriesCopied);
+                }
+                return;
+            }
+            if (++sourceIndex >= sources.size()) {
+                LOG.warn("Entry {} of ledger {} and {} more could not be copied from any of {}",
+                        firstEntryId + firstMissing, ledgerId,
+                        rangeSize - copied.cardinality() - 1, sources);
+                promise.completeExceptionally(new BKException.BKNoSuchEntryException());
+                return;
+            }
+            int lastMissing = copied.previousClearBit(rangeSize - 1);
+            scan(firstEntryId + firstMissing, firstEntryId + lastMissing);
+        }
+    }
+}
@@ -176,6 +176,12 @@ class LongPollReadEntryProcessorV3 extends ReadEntryProcessorV3 implements Watch
         return getReadResponse();
     }
 
+    @Override
+    protected boolean isTailingRead() {
+        // long poll reads wait for the next entries added to the ledger
+        return true;
+    }
+
     @Override
     protected void executeOp() {
         ReadResponse readResponse = getLongPollReadResponse();
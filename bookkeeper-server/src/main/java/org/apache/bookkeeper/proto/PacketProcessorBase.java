@@ -38,6 +38,12 @@ abstract class PacketProcessorBase<T extends Request> implements Runnable {
     BookieRequestHandler requestHandler;
     BookieRequestProcessor requestProcessor;
     long enqueueNanos;
+    RequestTrace trace;
+    // bytes of the add request accounted in the add bytes in flight, to release once the request completes
+    long requestBytes;
+    // bytes of the response accounted in the memory budget and the read bytes in flight, to release once
+    // the response is flushed
+    long responseBytes;
 
     protected void init(T request, BookieRequestHandler requestHandler, BookieRequestProcessor requestProcessor) {
         this.request = request;
@@ -51,6 +57,9 @@ abstract class PacketProcessorBase<T extends Request> implements Runnable {
         requestHandler = null;
         requestProcessor = null;
         enqueueNanos = -1;
+        trace = null;
+        requestBytes = 0;
+        responseBytes = 0;
     }
 
     protected boolean isVersionCompatible() {
@@ -68,10 +77,15 @@ abstract class PacketProcessorBase<T extends Request> implements Runnable {
 
     protected void sendWriteReqResponse(int rc, Object response, OpStatsLogger statsLogger) {
         sendResponse(rc, response, statsLogger);
-        requestProcessor.onAddRequestFinish();
+        requestProcessor.onAddRequestFinish(requestHandler.ctx().channel(), requestBytes);
     }
 
     protected void sendReadReqResponse(int rc, Object response, OpStatsLogger statsLogger, boolean throttle) {
+        if (response instanceof BookieProtocol.ReadResponse) {
+            responseBytes = requestProcessor.reserveReadResponseBytes(requestHandler.ctx().channel(),
+                    ((BookieProtocol.ReadResponse) response).getData().readableBytes(),
+                    requestProcessor.isTailingRead(request.getLedgerId(), request.getEntryId()));
+        }
         if (throttle) {
             sendResponseAndWait(rc, response, statsLogger);
         } else {
@@ -115,6 +129,7 @@ abstract class PacketProcessorBase<T extends Request> implements Runnable {
                 if (response instanceof BookieProtocol.Response) {
                     ((BookieProtocol.Response) response).release();
                 }
+                releaseResponseBytes();
                 return;
             } else {
                 requestProcessor.invalidateBlacklist(channel);
@@ -123,8 +138,21 @@ abstract class PacketProcessorBase<T extends Request> implements Runnable {
 
         if (channel.isActive()) {
             ChannelPromise promise = channel.voidPromise();
+            if (trace != null) {
+                final RequestTrace responseTrace = trace;
+                trace = null;
+                responseTrace.stamp(RequestTrace.Stage.RESPONSE_SENT);
+                promise = channel.newPromise().addListener(future -> responseTrace.complete());
+            }
+            if (responseBytes > 0) {
+                final BookieRequestProcessor processor = requestProcessor;
+                final long bytes = responseBytes;
+                responseBytes = 0;
+                promise = (promise.isVoid() ? channel.newPromise() : promise)
+                        .addListener(future -> processor.releaseReadResponseBytes(channel, bytes));
+            }
             if (logger.isDebugEnabled()) {
-                promise = channel.newPromise().addListener(future -> {
+                promise = (promise.isVoid() ? channel.newPromise() : promise).addListener(future -> {
                     if (!future.isSuccess()) {
                         logger.debug("Netty channel write exception. ", future.cause());
                     }
@@ -135,6 +163,7 @@ abstract class PacketProcessorBase<T extends Request> implements Runnable {
             if (response instanceof BookieProtocol.Response) {
                 ((BookieProtocol.Response) response).release();
             }
+            releaseResponseBytes();
             if (logger.isDebugEnabled()) {
             logger.debug("Netty channel {} is inactive, "
                     + "hence bypassing netty channel writeAndFlush during sendResponse", channel);
@@ -157,7 +186,21 @@ abstract class PacketProcessorBase<T extends Request> implements Runnable {
     protected void sendResponseAndWait(int rc, Object response, OpStatsLogger statsLogger) {
         try {
             Channel channel = requestHandler.ctx().channel();
+            final RequestTrace responseTrace = trace;
+            trace = null;
+            if (responseTrace != null) {
+                responseTrace.stamp(RequestTrace.Stage.RESPONSE_SENT);
+            }
             ChannelFuture future = channel.writeAndFlush(response);
+            if (responseTrace != null) {
+                future.addListener(f -> responseTrace.complete());
+            }
+            if (responseBytes > 0) {
+                final BookieRequestProcessor processor = requestProcessor;
+                final long bytes = responseBytes;
+                responseBytes = 0;
+                future.addListener(f -> processor.releaseReadResponseBytes(channel, bytes));
+            }
             if (!channel.eventLoop().inEventLoop()) {
                 future.get();
             }
@@ -172,8 +215,16 @@ abstract class PacketProcessorBase<T extends Request> implements Runnable {
         }
     }
 
+    private void releaseResponseBytes() {
+        requestProcessor.releaseReadResponseBytes(requestHandler.ctx().channel(), responseBytes);
+        responseBytes = 0;
+    }
+
     @Override
     public void run() {
+        if (trace != null) {
+            trace.stamp(RequestTrace.Stage.PROCESSING_STARTED);
+        }
         if (request instanceof BookieProtocol.ReadRequest) {
             requestProcessor.getRequestStats().getReadEntrySchedulingDelayStats()
                     .registerSuccessfulEvent(MathUtils.elapsedNanos(enqueueNanos), TimeUnit.NANOSECONDS);
@@ -193,7 +244,7 @@ abstract class PacketProcessorBase<T extends Request> implements Runnable {
             if (request instanceof BookieProtocol.ParsedAddRequest) {
                 ((BookieProtocol.ParsedAddRequest) request).release();
                 request.recycle();
-                requestProcessor.onAddRequestFinish();
+                requestProcessor.onAddRequestFinish(requestHandler.ctx().channel(), requestBytes);
             }
             return;
         }
@@ -43,6 +43,11 @@ public abstract class PacketProcessorBaseV3 implements Runnable {
     final BookieRequestHandler requestHandler;
     final BookieRequestProcessor requestProcessor;
     final long enqueueNanos;
+    // trace of the request, if sampled
+    RequestTrace trace;
+    // bytes of the response accounted in the memory budget and the read bytes in flight, to release once
+    // the response is flushed
+    long responseBytes;
 
     public PacketProcessorBaseV3(Request request, BookieRequestHandler requestHandler,
                                  BookieRequestProcessor requestProcessor) {
@@ -83,15 +88,27 @@ public abstract class PacketProcessorBaseV3 implements Runnable {
                 requestProcessor.getRequestStats().getChannelWriteStats()
                         .registerFailedEvent(MathUtils.elapsedNanos(writeNanos), TimeUnit.NANOSECONDS);
                 statsLogger.registerFailedEvent(MathUtils.elapsedNanos(enqueueNanos), TimeUnit.NANOSECONDS);
+                releaseResponseBytes(channel);
                 return;
             } else {
                 requestProcessor.invalidateBlacklist(channel);
             }
         }
         if (channel.isActive()) {
+            final RequestTrace responseTrace = trace;
+            trace = null;
+            if (responseTrace != null) {
+                responseTrace.stamp(RequestTrace.Stage.RESPONSE_SENT);
+            }
+            final long flushedBytes = responseBytes;
+            responseBytes = 0;
             channel.writeAndFlush(response).addListener(new ChannelFutureListener() {
                 @Override
                 public void operationComplete(ChannelFuture future) throws Exception {
+                    if (responseTrace != null) {
+                        responseTrace.complete();
+                    }
+                    requestProcessor.releaseReadResponseBytes(channel, flushedBytes);
                     long writeElapsedNanos = MathUtils.elapsedNanos(writeNanos);
                     if (!future.isSuccess()) {
                         requestProcessor.getRequestStats().getChannelWriteStats()
@@ -110,9 +127,15 @@ public abstract class PacketProcessorBaseV3 implements Runnable {
         } else {
             log.debug("Netty channel {} is inactive, "
                     + "hence bypassing netty channel writeAndFlush during sendResponse", channel);
+            releaseResponseBytes(channel);
         }
     }
 
+    private void releaseResponseBytes(Channel channel) {
+        requestProcessor.releaseReadResponseBytes(channel, responseBytes);
+        responseBytes = 0;
+    }
+
     protected boolean isVersionCompatible() {
         return this.request.getHeader().getVersion().equals(ProtocolVersion.VERSION_THREE);
     }
@@ -82,6 +82,7 @@ import java.util.NoSuchElementException;
 import java.util.Optional;
 import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
@@ -115,16 +116,22 @@ import org.apache.bookkeeper.proto.BookkeeperInternalCallbacks.WriteLacCallback;
 import org.apache.bookkeeper.proto.BookkeeperProtocol.AddRequest;
 import org.apache.bookkeeper.proto.BookkeeperProtocol.AddResponse;
 import org.apache.bookkeeper.proto.BookkeeperProtocol.BKPacketHeader;
+import org.apache.bookkeeper.proto.BookkeeperProtocol.CopyLedgerRangeRequest;
+import org.apache.bookkeeper.proto.BookkeeperProtocol.CopyLedgerRangeResponse;
 import org.apache.bookkeeper.proto.BookkeeperProtocol.ForceLedgerRequest;
 import org.apache.bookkeeper.proto.BookkeeperProtocol.ForceLedgerResponse;
 import org.apache.bookkeeper.proto.BookkeeperProtocol.GetBookieInfoRequest;
 import org.apache.bookkeeper.proto.BookkeeperProtocol.GetBookieInfoResponse;
 import org.apache.bookkeeper.proto.BookkeeperProtocol.GetListOfEntriesOfLedgerRequest;
 import org.apache.bookkeeper.proto.BookkeeperProtocol.GetListOfEntriesOfLedgerResponse;
+import org.apache.bookkeeper.proto.BookkeeperProtocol.GetListOfEntriesOfLedgersRequest;
+import org.apache.bookkeeper.proto.BookkeeperProtocol.GetListOfEntriesOfLedgersResponse;
 import org.apache.bookkeeper.proto.BookkeeperProtocol.OperationType;
 import org.apache.bookkeeper.proto.BookkeeperProtocol.ProtocolVersion;
 import org.apache.bookkeeper.proto.BookkeeperProtocol.ReadLacRequest;
 import org.apache.bookkeeper.proto.BookkeeperProtocol.ReadLacResponse;
+import org.apache.bookkeeper.proto.BookkeeperProtocol.ReadLedgerRangeRequest;
+import org.apache.bookkeeper.proto.BookkeeperProtocol.ReadLedgerRangeResponse;
 import org.apache.bookkeeper.proto.BookkeeperProtocol.ReadRequest;
 import org.apache.bookkeeper.proto.BookkeeperProtocol.ReadResponse;
 import org.apache.bookkeeper.proto.BookkeeperProtocol.Request;
@@ -184,6 +191,7 @@ public class PerChannelBookieClient extends ChannelInboundHandlerAdapter {
     final long readEntryTimeoutNanos;
     final int maxFrameSize;
     final long getBookieInfoTimeoutNanos;
+    final long copyLedgerRangeTimeoutNanos;
     final int startTLSTimeout;
 
     private final ConcurrentOpenHashMap<CompletionKey, CompletionValue> completionObjects =
@@ -272,6 +280,12 @@ public class PerChannelBookieClient extends ChannelInboundHandlerAdapter {
     private final OpStatsLogger connectTimer;
     private final OpStatsLogger getListOfEntriesOfLedgerCompletionOpLogger;
     private final OpStatsLogger getListOfEntriesOfLedgerCompletionTimeoutOpLogger;
+    private final OpStatsLogger getListOfEntriesOfLedgersOpLogger;
+    private final OpStatsLogger getListOfEntriesOfLedgersTimeoutOpLogger;
+    private final OpStatsLogger readLedgerRangeOpLogger;
+    private final OpStatsLogger readLedgerRangeTimeoutOpLogger;
+    private final OpStatsLogger copyLedgerRangeOpLogger;
+    private final OpStatsLogger copyLedgerRangeTimeoutOpLogger;
     @StatsDoc(
         name = BookKeeperClientStats.NETTY_EXCEPTION_CNT,
         help = "the number of exceptions received from this channel"
@@ -400,6 +414,7 @@ public class PerChannelBookieClient extends ChannelInboundHandlerAdapter {
         this.addEntryTimeoutNanos = TimeUnit.SECONDS.toNanos(conf.getAddEntryTimeout());
         this.readEntryTimeoutNanos = TimeUnit.SECONDS.toNanos(conf.getReadEntryTimeout());
         this.getBookieInfoTimeoutNanos = TimeUnit.SECONDS.toNanos(conf.getBookieInfoTimeout());
+        this.copyLedgerRangeTimeoutNanos = TimeUnit.SECONDS.toNanos(conf.getReplicationBookieToBookieCopyTimeoutSec());
         this.startTLSTimeout = conf.getStartTLSTimeout();
         this.useV2WireProtocol = conf.getUseV2WireProtocol();
         this.preserveMdcForTaskExecution = conf.getPreserveMdcForTaskExecution();
@@ -432,6 +447,14 @@ public class PerChannelBookieClient extends ChannelInboundHandlerAdapter {
         startTLSTimeoutOpLogger = statsLogger.getOpStatsLogger(BookKeeperClientStats.CHANNEL_TIMEOUT_START_TLS_OP);
         getListOfEntriesOfLedgerCompletionTimeoutOpLogger = statsLogger
                 .getOpStatsLogger(BookKeeperClientStats.TIMEOUT_GET_LIST_OF_ENTRIES_OF_LEDGER);
+        getListOfEntriesOfLedgersOpLogger =
+                statsLogger.getOpStatsLogger(BookKeeperClientStats.GET_LIST_OF_ENTRIES_OF_LEDGERS_OP);
+        getListOfEntriesOfLedgersTimeoutOpLogger =
+                statsLogger.getOpStatsLogger(BookKeeperClientStats.TIMEOUT_GET_LIST_OF_ENTRIES_OF_LEDGERS);
+        readLedgerRangeOpLogger = statsLogger.getOpStatsLogger(BookKeeperClientStats.READ_LEDGER_RANGE_OP);
+        readLedgerRangeTimeoutOpLogger = statsLogger.getOpStatsLogger(BookKeeperClientStats.TIMEOUT_READ_LEDGER_RANGE);
+        copyLedgerRangeOpLogger = statsLogger.getOpStatsLogger(BookKeeperClientStats.COPY_LEDGER_RANGE_OP);
+        copyLedgerRangeTimeoutOpLogger = statsLogger.getOpStatsLogger(BookKeeperClientStats.TIMEOUT_COPY_LEDGER_RANGE);
         exceptionCounter = statsLogger.getCounter(BookKeeperClientStats.NETTY_EXCEPTION_CNT);
         connectTimer = statsLogger.getOpStatsLogger(BookKeeperClientStats.CLIENT_CONNECT_TIMER);
         addEntryOutstanding = statsLogger.getCounter(BookKeeperClientStats.ADD_OP_OUTSTANDING);
@@ -899,6 +922,69 @@ public class PerChannelBookieClient extends ChannelInboundHandlerAdapter {
         writeAndFlush(channel, completionKey, getListOfEntriesOfLedgerRequest);
     }
 
+    /**
+     * Get the list of entries of many ledgers at once. The response can hold the results of only the first
+     * ledgers of the list, if they didn't fit in a single response.
+     */
+    public void getListOfEntriesOfLedgers(final List<Long> ledgerIds,
+                                          CompletableFuture<GetListOfEntriesOfLedgersResponse> future) {
+        final long txnId = getTxnId();
+        final CompletionKey completionKey = new V3CompletionKey(txnId, OperationType.GET_LIST_OF_ENTRIES_OF_LEDGERS);
+        completionObjects.put(completionKey, new GetListOfEntriesOfLedgersCompletion(completionKey, future,
+                ledgerIds.isEmpty() ? -1L : ledgerIds.get(0)));
+
+        BKPacketHeader.Builder headerBuilder = BKPacketHeader.newBuilder().setVersion(ProtocolVersion.VERSION_THREE)
+                .setOperation(OperationType.GET_LIST_OF_ENTRIES_OF_LEDGERS).setTxnId(txnId);
+        final Request request = Request.newBuilder().setHeader(headerBuilder)
+                .setGetListOfEntriesOfLedgersRequest(
+                        GetListOfEntriesOfLedgersRequest.newBuilder().addAllLedgerIds(ledgerIds))
+                .build();
+
+        writeAndFlush(channel, completionKey, request);
+    }
+
+    /**
+     * Read the stored entries of a ledger range, as a bookie pulling the range from this one.
+     *
+     * @param maxBytes the bookie stops reading once the returned entries reach this size
+     */
+    public void readLedgerRange(final long ledgerId, final long firstEntryId, final long lastEntryId,
+                                final long maxBytes, CompletableFuture<ReadLedgerRangeResponse> future) {
+        final long txnId = getTxnId();
+        final CompletionKey completionKey = new V3CompletionKey(txnId, OperationType.READ_LEDGER_RANGE);
+        completionObjects.put(completionKey, new ReadLedgerRangeCompletion(completionKey, future, ledgerId));
+
+        BKPacketHeader.Builder headerBuilder = BKPacketHeader.newBuilder().setVersion(ProtocolVersion.VERSION_THREE)
+                .setOperation(OperationType.READ_LEDGER_RANGE).setTxnId(txnId);
+        ReadLedgerRangeRequest.Builder readLedgerRangeBuilder = ReadLedgerRangeRequest.newBuilder()
+                .setLedgerId(ledgerId)
+                .setFirstEntryId(firstEntryId)
+                .setLastEntryId(lastEntryId)
+                .setMaxBytes(maxBytes);
+        final Request request = Request.newBuilder().setHeader(headerBuilder)
+                .setReadLedgerRangeRequest(readLedgerRangeBuilder).build();
+
+        writeAndFlush(channel, completionKey, request);
+    }
+
+    /**
+     * Ask this bookie to copy a ledger range from the source bookies of the request.
+     * The future completes with the number of entries copied.
+     */
+    public void copyLedgerRange(CopyLedgerRangeRequest copyRequest, CompletableFuture<Long> future) {
+        final long txnId = getTxnId();
+        final CompletionKey completionKey = new V3CompletionKey(txnId, OperationType.COPY_LEDGER_RANGE);
+        completionObjects.put(completionKey,
+                new CopyLedgerRangeCompletion(completionKey, future, copyRequest.getLedgerId()));
+
+        BKPacketHeader.Builder headerBuilder = BKPacketHeader.newBuilder().setVersion(ProtocolVersion.VERSION_THREE)
+                .setOperation(OperationType.COPY_LEDGER_RANGE).setTxnId(txnId);
+        final Request request = Request.newBuilder().setHeader(headerBuilder)
+                .setCopyLedgerRangeRequest(copyRequest).build();
+
+        writeAndFlush(channel, completionKey, request);
+    }
+
     /**
      * Long Poll Reads.
      */
@@ -2072,10 +2158,21 @@ public class PerChannelBookieClient extends ChannelInboundHandlerAdapter {
                 logResponse(status, "freeDisk", freeDiskSpace, "totalDisk", totalDiskSpace);
             }
 
+            // bookies which don't know about the load flag leave the load fields unset
+            long journalQueueLength = getBookieInfoResponse.hasJournalQueueLength()
+                    ? getBookieInfoResponse.getJournalQueueLength() : -1L;
+            long addLatencyMicros = getBookieInfoResponse.hasAddLatencyMicros()
+                    ? getBookieInfoResponse.getAddLatencyMicros() : -1L;
+            int readCacheMissPercent = getBookieInfoResponse.hasReadCacheMissPercent()
+                    ? getBookieInfoResponse.getReadCacheMissPercent() : -1;
+
             int rc = convertStatus(status, BKException.Code.ReadException);
             cb.getBookieInfoComplete(rc,
                                      new BookieInfo(totalDiskSpace,
-                                                    freeDiskSpace), ctx);
+                                                    freeDiskSpace,
+                                                    journalQueueLength,
+                                                    addLatencyMicros,
+                                                    readCacheMissPercent), ctx);
         }
     }
 
@@ -2134,6 +2231,150 @@ public class PerChannelBookieClient extends ChannelInboundHandlerAdapter {
         }
     }
 
+    class GetListOfEntriesOfLedgersCompletion extends CompletionValue {
+        final CompletableFuture<GetListOfEntriesOfLedgersResponse> future;
+        final CompletionKey key;
+
+        GetListOfEntriesOfLedgersCompletion(final CompletionKey key,
+                                            final CompletableFuture<GetListOfEntriesOfLedgersResponse> future,
+                                            final long firstLedgerId) {
+            super("GetListOfEntriesOfLedgers", null, firstLedgerId, 0L, getListOfEntriesOfLedgersOpLogger,
+                    getListOfEntriesOfLedgersTimeoutOpLogger);
+            this.future = future;
+            this.key = key;
+        }
+
+        private void complete(int rc, GetListOfEntriesOfLedgersResponse response) {
+            logOpResult(rc);
+            if (rc == BKException.Code.OK) {
+                future.complete(response);
+            } else {
+                future.completeExceptionally(BKException.create(rc));
+            }
+            key.release();
+        }
+
+        @Override
+        public void errorOut() {
+            errorOut(BKException.Code.BookieHandleNotAvailableException);
+        }
+
+        @Override
+        public void errorOut(final int rc) {
+            errorOutAndRunCallback(() -> complete(rc, null));
+        }
+
+        @Override
+        public void handleV3Response(BookkeeperProtocol.Response response) {
+            GetListOfEntriesOfLedgersResponse getListOfEntriesOfLedgersResponse =
+                    response.getGetListOfEntriesOfLedgersResponse();
+            StatusCode status = response.getStatus() == StatusCode.EOK ? getListOfEntriesOfLedgersResponse.getStatus()
+                    : response.getStatus();
+            if (LOG.isDebugEnabled()) {
+                logResponse(status, "ledgers", getListOfEntriesOfLedgersResponse.getLedgersCount());
+            }
+            complete(convertStatus(status, BKException.Code.ReadException), getListOfEntriesOfLedgersResponse);
+        }
+    }
+
+    class ReadLedgerRangeCompletion extends CompletionValue {
+        final CompletableFuture<ReadLedgerRangeResponse> future;
+        final CompletionKey key;
+
+        ReadLedgerRangeCompletion(final CompletionKey key,
+                                  final CompletableFuture<ReadLedgerRangeResponse> future, final long ledgerId) {
+            super("ReadLedgerRange", null, ledgerId, 0L, readLedgerRangeOpLogger, readLedgerRangeTimeoutOpLogger);
+            this.future = future;
+            this.key = key;
+        }
+
+        private void complete(int rc, ReadLedgerRangeResponse response) {
+            logOpResult(rc);
+            if (rc == BKException.Code.OK) {
+                future.complete(response);
+            } else {
+                future.completeExceptionally(BKException.create(rc));
+            }
+            key.release();
+        }
+
+        @Override
+        public void errorOut() {
+            errorOut(BKException.Code.BookieHandleNotAvailableException);
+        }
+
+        @Override
+        public void errorOut(final int rc) {
+            errorOutAndRunCallback(() -> complete(rc, null));
+        }
+
+        @Override
+        public void handleV3Response(BookkeeperProtocol.Response response) {
+            ReadLedgerRangeResponse readLedgerRangeResponse = response.getReadLedgerRangeResponse();
+            StatusCode status = response.getStatus() == StatusCode.EOK ? readLedgerRangeResponse.getStatus()
+                    : response.getStatus();
+            if (LOG.isDebugEnabled()) {
+                logResponse(status, "ledgerId", ledgerId, "entries", readLedgerRangeResponse.getEntriesCount());
+            }
+            complete(convertStatus(status, BKException.Code.ReadException), readLedgerRangeResponse);
+        }
+    }
+
+    class CopyLedgerRangeCompletion extends CompletionValue {
+        final CompletableFuture<Long> future;
+        final CompletionKey key;
+
+        CopyLedgerRangeCompletion(final CompletionKey key, final CompletableFuture<Long> future, final long ledgerId) {
+            super("CopyLedgerRange", null, ledgerId, 0L, copyLedgerRangeOpLogger, copyLedgerRangeTimeoutOpLogger);
+            this.future = future;
+            this.key = key;
+        }
+
+        private void complete(int rc, long numEntriesCopied) {
+            logOpResult(rc);
+            if (rc == BKException.Code.OK) {
+                future.complete(numEntriesCopied);
+            } else {
+                future.completeExceptionally(BKException.create(rc));
+            }
+            key.release();
+        }
+
+        @Override
+        boolean maybeTimeout() {
+            // a copy covers a whole range of the ledger, the read timeout would be too short
+            if (MathUtils.elapsedNanos(startTime) >= copyLedgerRangeTimeoutNanos) {
+                timeout();
+                return true;
+            } else {
+                return false;
+            }
+        }
+
+        @Override
+        public void errorOut() {
+            errorOut(BKException.Code.BookieHandleNotAvailableException);
+        }
+
+        @Override
+        public void errorOut(final int rc) {
+            errorOutAndRunCallback(() -> complete(rc, 0L));
+        }
+
+        @Override
+        public void handleV3Response(BookkeeperProtocol.Response response) {
+            CopyLedgerRangeResponse copyLedgerRangeResponse = response.getCopyLedgerRangeResponse();
+            StatusCode status = response.getStatus() == StatusCode.EOK ? copyLedgerRangeResponse.getStatus()
+                    : response.getStatus();
+            if (LOG.isDebugEnabled()) {
+                logResponse(status, "ledgerId", ledgerId,
+                        "numEntriesCopied", copyLedgerRangeResponse.getNumEntriesCopied());
+            }
+            complete(convertStatus(status, BKException.Code.WriteException),
+                    copyLedgerRangeResponse.getNumEntriesCopied());
+        }
+    }
+
     private final Recycler<AddCompletion> addCompletionRecycler = new Recycler<AddCompletion>() {
             @Override
             protected AddCompletion newObject(Recycler.Handle<AddCompletion> handle) {
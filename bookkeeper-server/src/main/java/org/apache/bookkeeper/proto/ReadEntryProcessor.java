@@ -85,6 +85,9 @@ class ReadEntryProcessor extends PacketProcessorBase<ReadRequest> {
                 }
             }
             data = requestProcessor.getBookie().readEntry(request.getLedgerId(), request.getEntryId());
+            if (trace != null) {
+                trace.stamp(RequestTrace.Stage.STORAGE_DONE);
+            }
             if (LOG.isDebugEnabled()) {
                 LOG.debug("##### Read entry ##### {} -- ref-count: {}", data.readableBytes(), data.refCnt());
             }
@@ -171,6 +171,9 @@ class ReadEntryProcessorV3 extends PacketProcessorBaseV3 {
                                      Stopwatch startTimeSw)
         throws IOException, BookieException {
         ByteBuf entryBody = requestProcessor.getBookie().readEntry(ledgerId, entryId);
+        if (trace != null) {
+            trace.stamp(RequestTrace.Stage.STORAGE_DONE);
+        }
         if (null != fenceResult) {
             handleReadResultForFenceRead(entryBody, readResponseBuilder, entryId, startTimeSw);
             return null;
@@ -248,6 +251,9 @@ class ReadEntryProcessorV3 extends PacketProcessorBaseV3 {
 
     @Override
     public void run() {
+        if (trace != null) {
+            trace.stamp(RequestTrace.Stage.PROCESSING_STARTED);
+        }
         requestProcessor.getRequestStats().getReadEntrySchedulingDelayStats().registerSuccessfulEvent(
             MathUtils.elapsedNanos(enqueueNanos), TimeUnit.NANOSECONDS);
         if (!requestHandler.ctx().channel().isOpen()) {
@@ -319,7 +325,16 @@ class ReadEntryProcessorV3 extends PacketProcessorBaseV3 {
         return readResponseBuilder.build();
     }
 
+    /**
+     * Whether this read follows closely the writer of the ledger, rather than catching up on older entries.
+     */
+    protected boolean isTailingRead() {
+        return requestProcessor.isTailingRead(ledgerId, entryId);
+    }
+
     protected void sendResponse(ReadResponse readResponse) {
+        responseBytes = requestProcessor.reserveReadResponseBytes(requestHandler.ctx().channel(),
+                readResponse.getBody().size(), isTailingRead());
         Response.Builder response = Response.newBuilder()
                 .setHeader(getHeader())
                 .setStatus(readResponse.getStatus())
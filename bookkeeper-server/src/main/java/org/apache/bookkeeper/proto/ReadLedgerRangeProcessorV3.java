@@ -0,0 +1,139 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.proto;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.protobuf.UnsafeByteOperations;
+import io.netty.buffer.ByteBuf;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.apache.bookkeeper.bookie.Bookie;
+import org.apache.bookkeeper.bookie.BookieException;
+import org.apache.bookkeeper.proto.BookkeeperProtocol.ReadLedgerRangeRequest;
+import org.apache.bookkeeper.proto.BookkeeperProtocol.ReadLedgerRangeResponse;
+import org.apache.bookkeeper.proto.BookkeeperProtocol.Request;
+import org.apache.bookkeeper.proto.BookkeeperProtocol.Response;
+import org.apache.bookkeeper.proto.BookkeeperProtocol.StatusCode;
+import org.apache.bookkeeper.util.MathUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A processor class for v3 read ledger range packets, issued by a bookie pulling a ledger range
+ * from this one.
+ *
+ * <p>The entries are returned as they are stored, in entry id order, up to the requested number of bytes.
+ * Entries of the range missing on this bookie are skipped. A response scans at most
+ * {@link #MAX_SCANNED_ENTRIES} entries, so a range missing on this bookie can't hold a read thread for long.
+ */
+public class ReadLedgerRangeProcessorV3 extends PacketProcessorBaseV3 implements Runnable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ReadLedgerRangeProcessorV3.class);
+
+    static final int MAX_SCANNED_ENTRIES = 10000;
+
+    protected final ReadLedgerRangeRequest readLedgerRangeRequest;
+    protected final long ledgerId;
+
+    public ReadLedgerRangeProcessorV3(Request request, BookieRequestHandler requestHandler,
+                                      BookieRequestProcessor requestProcessor) {
+        super(request, requestHandler, requestProcessor);
+        this.readLedgerRangeRequest = request.getReadLedgerRangeRequest();
+        this.ledgerId = readLedgerRangeRequest.getLedgerId();
+    }
+
+    @VisibleForTesting
+    ReadLedgerRangeResponse getReadLedgerRangeResponse() {
+        long startTimeNanos = MathUtils.nowInNano();
+
+        ReadLedgerRangeResponse.Builder readLedgerRangeResponse = ReadLedgerRangeResponse.newBuilder()
+                .setLedgerId(ledgerId);
+
+        if (!isVersionCompatible()) {
+            readLedgerRangeResponse.setStatus(StatusCode.EBADVERSION);
+            requestProcessor.getRequestStats().getReadLedgerRangeStats()
+                    .registerFailedEvent(MathUtils.elapsedNanos(startTimeNanos), TimeUnit.NANOSECONDS);
+            return readLedgerRangeResponse.build();
+        }
+
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Received new readLedgerRange request: {}", request);
+        }
+        // keep the response well below the max frame size, whatever the requester asked for
+        long maxBytes = requestProcessor.getServerCfg().getNettyMaxFrameSizeBytes() / 2;
+        if (readLedgerRangeRequest.hasMaxBytes() && readLedgerRangeRequest.getMaxBytes() > 0) {
+            maxBytes = Math.min(maxBytes, readLedgerRangeRequest.getMaxBytes());
+        }
+        long entryId = readLedgerRangeRequest.getFirstEntryId();
+        long lastEntryId = readLedgerRangeRequest.getLastEntryId();
+        if (lastEntryId - entryId >= MAX_SCANNED_ENTRIES) {
+            lastEntryId = entryId + MAX_SCANNED_ENTRIES - 1;
+        }
+        long readBytes = 0;
+        StatusCode status = StatusCode.EOK;
+        try {
+            for (; entryId <= lastEntryId && readBytes < maxBytes; entryId++) {
+                ByteBuf entry;
+                try {
+                    entry = requestProcessor.getBookie().readEntry(ledgerId, entryId);
+                } catch (Bookie.NoEntryException e) {
+                    continue;
+                }
+                try {
+                    byte[] data = new byte[entry.readableBytes()];
+                    entry.readBytes(data);
+                    readLedgerRangeResponse.addEntries(UnsafeByteOperations.unsafeWrap(data));
+                    readBytes += data.length;
+                } finally {
+                    entry.release();
+                }
+            }
+            readLedgerRangeResponse.setLastScannedEntryId(entryId - 1);
+        } catch (Bookie.NoLedgerException e) {
+            status = StatusCode.ENOLEDGER;
+            LOG.error("No ledger found while performing readLedgerRange from ledger: {}", ledgerId, e);
+        } catch (IOException | BookieException e) {
+            status = StatusCode.EIO;
+            LOG.error("Error while performing readLedgerRange from ledger: {} at entry: {}", ledgerId, entryId, e);
+        }
+
+        if (status == StatusCode.EOK) {
+            requestProcessor.getRequestStats().getReadLedgerRangeStats()
+                    .registerSuccessfulEvent(MathUtils.elapsedNanos(startTimeNanos), TimeUnit.NANOSECONDS);
+        } else {
+            readLedgerRangeResponse.clearEntries();
+            requestProcessor.getRequestStats().getReadLedgerRangeStats()
+                    .registerFailedEvent(MathUtils.elapsedNanos(startTimeNanos), TimeUnit.NANOSECONDS);
+        }
+        readLedgerRangeResponse.setStatus(status);
+        return readLedgerRangeResponse.build();
+    }
+
+    @Override
+    public void run() {
+        ReadLedgerRangeResponse readLedgerRangeResponse = getReadLedgerRangeResponse();
+        Response.Builder response = Response.newBuilder().setHeader(getHeader())
+                .setStatus(readLedgerRangeResponse.getStatus())
+                .setReadLedgerRangeResponse(readLedgerRangeResponse);
+        sendResponse(readLedgerRangeResponse.getStatus(), response.build(),
+                requestProcessor.getRequestStats().getReadLedgerRangeRequestStats());
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.proto;
+
+import com.google.common.annotations.VisibleForTesting;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Remembers the last entry added to the ledgers recently written to the bookie, to tell tailing reads, which
+ * follow the writer closely, from catch-up reads of older entries.
+ *
+ * <p>Ledgers are mapped to a fixed number of slots, so the tracker never grows. A slot holds one ledger and its
+ * last entry; it is replaced as a whole when another ledger takes it, so a read never pairs a ledger with the
+ * last entry of another one. A ledger overwritten by a colliding one only makes its tailing reads look like
+ * catch-up reads. The last entry of a slot is updated without synchronization, so concurrent adds of the same
+ * ledger may leave it a few entries behind, which only makes a few more reads of the ledger look like tailing
+ * reads. Either way, only the priority of the reads is affected.
+ */
+class RecentAddsTracker {
+
+    static final int NUM_SLOTS = 4096;
+    // reads of the entries at most this far behind the last entry added are tailing reads
+    static final long TAILING_READ_MAX_ENTRIES_BEHIND = 1000;
+
+    private static final class Slot {
+        private static final AtomicLongFieldUpdater<Slot> LAST_ENTRY_ID_UPDATER =
+                AtomicLongFieldUpdater.newUpdater(Slot.class, "lastEntryId");
+
+        final long ledgerId;
+        volatile long lastEntryId;
+
+        Slot(long ledgerId, long lastEntryId) {
+            this.ledgerId = ledgerId;
+            this.lastEntryId = lastEntryId;
+        }
+    }
+
+    private final AtomicReferenceArray<Slot> slots = new AtomicReferenceArray<>(NUM_SLOTS);
+
+    @VisibleForTesting
+    static int slot(long ledgerId) {
+        long h = ledgerId * 0x9E3779B97F4A7C15L;
+        return (int) (h >>> 52) & (NUM_SLOTS - 1);
+    }
+
+    void onAdd(long ledgerId, long entryId) {
+        int index = slot(ledgerId);
+        Slot slot = slots.get(index);
+        if (null == slot || slot.ledgerId != ledgerId) {
+            slots.lazySet(index, new Slot(ledgerId, entryId));
+        } else if (entryId > slot.lastEntryId) {
+            Slot.LAST_ENTRY_ID_UPDATER.lazySet(slot, entryId);
+        }
+    }
+
+    boolean isTailingRead(long ledgerId, long entryId) {
+        Slot slot = slots.get(slot(ledgerId));
+        return null != slot && slot.ledgerId == ledgerId
+                && entryId >= slot.lastEntryId - TAILING_READ_MAX_ENTRIES_BEHIND;
+    }
+}
@@ -22,20 +22,28 @@ package org.apache.bookkeeper.proto;
 import static org.apache.bookkeeper.bookie.BookKeeperServerStats.ADD_ENTRY;
 import static org.apache.bookkeeper.bookie.BookKeeperServerStats.ADD_ENTRY_BLOCKED;
 import static org.apache.bookkeeper.bookie.BookKeeperServerStats.ADD_ENTRY_BLOCKED_WAIT;
+import static org.apache.bookkeeper.bookie.BookKeeperServerStats.ADD_ENTRY_BYTES_ADMITTED;
+import static org.apache.bookkeeper.bookie.BookKeeperServerStats.ADD_ENTRY_BYTES_DEFERRED;
 import static org.apache.bookkeeper.bookie.BookKeeperServerStats.ADD_ENTRY_IN_PROGRESS;
 import static org.apache.bookkeeper.bookie.BookKeeperServerStats.ADD_ENTRY_REJECTED;
 import static org.apache.bookkeeper.bookie.BookKeeperServerStats.ADD_ENTRY_REQUEST;
 import static org.apache.bookkeeper.bookie.BookKeeperServerStats.CATEGORY_SERVER;
 import static org.apache.bookkeeper.bookie.BookKeeperServerStats.CHANNEL_WRITE;
+import static org.apache.bookkeeper.bookie.BookKeeperServerStats.COPY_LEDGER_RANGE;
+import static org.apache.bookkeeper.bookie.BookKeeperServerStats.COPY_LEDGER_RANGE_REQUEST;
 import static org.apache.bookkeeper.bookie.BookKeeperServerStats.FORCE_LEDGER;
 import static org.apache.bookkeeper.bookie.BookKeeperServerStats.FORCE_LEDGER_REQUEST;
 import static org.apache.bookkeeper.bookie.BookKeeperServerStats.GET_BOOKIE_INFO;
 import static org.apache.bookkeeper.bookie.BookKeeperServerStats.GET_BOOKIE_INFO_REQUEST;
 import static org.apache.bookkeeper.bookie.BookKeeperServerStats.GET_LIST_OF_ENTRIES_OF_LEDGER;
+import static org.apache.bookkeeper.bookie.BookKeeperServerStats.GET_LIST_OF_ENTRIES_OF_LEDGERS;
+import static org.apache.bookkeeper.bookie.BookKeeperServerStats.GET_LIST_OF_ENTRIES_OF_LEDGERS_REQUEST;
 import static org.apache.bookkeeper.bookie.BookKeeperServerStats.GET_LIST_OF_ENTRIES_OF_LEDGER_REQUEST;
 import static org.apache.bookkeeper.bookie.BookKeeperServerStats.READ_ENTRY;
 import static org.apache.bookkeeper.bookie.BookKeeperServerStats.READ_ENTRY_BLOCKED;
 import static org.apache.bookkeeper.bookie.BookKeeperServerStats.READ_ENTRY_BLOCKED_WAIT;
+import static org.apache.bookkeeper.bookie.BookKeeperServerStats.READ_ENTRY_BYTES_ADMITTED;
+import static org.apache.bookkeeper.bookie.BookKeeperServerStats.READ_ENTRY_BYTES_DEFERRED;
 import static org.apache.bookkeeper.bookie.BookKeeperServerStats.READ_ENTRY_FENCE_READ;
 import static org.apache.bookkeeper.bookie.BookKeeperServerStats.READ_ENTRY_FENCE_REQUEST;
 import static org.apache.bookkeeper.bookie.BookKeeperServerStats.READ_ENTRY_FENCE_WAIT;
@@ -50,6 +58,8 @@ import static org.apache.bookkeeper.bookie.BookKeeperServerStats.READ_ENTRY_SCHE
 import static org.apache.bookkeeper.bookie.BookKeeperServerStats.READ_LAC;
 import static org.apache.bookkeeper.bookie.BookKeeperServerStats.READ_LAC_REQUEST;
 import static org.apache.bookkeeper.bookie.BookKeeperServerStats.READ_LAST_ENTRY_NOENTRY_ERROR;
+import static org.apache.bookkeeper.bookie.BookKeeperServerStats.READ_LEDGER_RANGE;
+import static org.apache.bookkeeper.bookie.BookKeeperServerStats.READ_LEDGER_RANGE_REQUEST;
 import static org.apache.bookkeeper.bookie.BookKeeperServerStats.SERVER_SCOPE;
 import static org.apache.bookkeeper.bookie.BookKeeperServerStats.WRITE_LAC;
 import static org.apache.bookkeeper.bookie.BookKeeperServerStats.WRITE_LAC_REQUEST;
@@ -58,11 +68,13 @@ import static org.apache.bookkeeper.bookie.BookKeeperServerStats.WRITE_THREAD_QU
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import lombok.Getter;
+import org.apache.bookkeeper.common.util.MathUtils;
 import org.apache.bookkeeper.stats.Counter;
 import org.apache.bookkeeper.stats.Gauge;
 import org.apache.bookkeeper.stats.OpStatsLogger;
 import org.apache.bookkeeper.stats.StatsLogger;
 import org.apache.bookkeeper.stats.annotations.StatsDoc;
+import org.apache.bookkeeper.util.LatencyHistogram;
 
 /**
  * A umbrella class for request related stats.
@@ -75,10 +87,15 @@ import org.apache.bookkeeper.stats.annotations.StatsDoc;
 @Getter
 public class RequestStats {
 
+    // add latency is reported to clients over a sliding window of 1 to 2 minutes
+    private static final long ADD_ENTRY_LATENCY_WINDOW_NANOS = TimeUnit.MINUTES.toNanos(1);
+    private static final int ADD_ENTRY_LATENCY_MIN_SAMPLES = 100;
+
     final AtomicInteger addsInProgress = new AtomicInteger(0);
     final AtomicInteger maxAddsInProgress = new AtomicInteger(0);
     final AtomicInteger addsBlocked = new AtomicInteger(0);
     final AtomicInteger readsInProgress = new AtomicInteger(0);
+    final LatencyHistogram addEntryLatencyHistogram = new LatencyHistogram(ADD_ENTRY_LATENCY_WINDOW_NANOS);
     final AtomicInteger readsBlocked = new AtomicInteger(0);
     final AtomicInteger maxReadsInProgress = new AtomicInteger(0);
 
@@ -235,6 +252,28 @@ public class RequestStats {
         help = "operation stats of ReadEntry blocked on a bookie"
     )
     final OpStatsLogger readEntryBlockedStats;
+    @StatsDoc(
+        name = ADD_ENTRY_BYTES_ADMITTED,
+        help = "total bytes of the add requests admitted on a bookie"
+    )
+    final Counter addEntryBytesAdmittedCounter;
+    @StatsDoc(
+        name = ADD_ENTRY_BYTES_DEFERRED,
+        help = "total bytes of the add requests that made their channel exceed its share of in-flight add bytes,"
+            + " deferring the next requests of the channel"
+    )
+    final Counter addEntryBytesDeferredCounter;
+    @StatsDoc(
+        name = READ_ENTRY_BYTES_ADMITTED,
+        help = "total bytes of the read responses admitted on a bookie"
+    )
+    final Counter readEntryBytesAdmittedCounter;
+    @StatsDoc(
+        name = READ_ENTRY_BYTES_DEFERRED,
+        help = "total bytes of the read responses that made their channel exceed its share of in-flight read bytes,"
+            + " deferring the next requests of the channel"
+    )
+    final Counter readEntryBytesDeferredCounter;
     @StatsDoc(
             name = GET_LIST_OF_ENTRIES_OF_LEDGER_REQUEST,
             help = "request stats of GetListOfEntriesOfLedger on a bookie"
@@ -246,6 +285,39 @@ public class RequestStats {
             parent = GET_LIST_OF_ENTRIES_OF_LEDGER_REQUEST
     )
     final OpStatsLogger getListOfEntriesOfLedgerStats;
+    @StatsDoc(
+            name = GET_LIST_OF_ENTRIES_OF_LEDGERS_REQUEST,
+            help = "request stats of GetListOfEntriesOfLedgers on a bookie"
+    )
+    final OpStatsLogger getListOfEntriesOfLedgersRequestStats;
+    @StatsDoc(
+            name = GET_LIST_OF_ENTRIES_OF_LEDGERS,
+            help = "operation stats of GetListOfEntriesOfLedgers",
+            parent = GET_LIST_OF_ENTRIES_OF_LEDGERS_REQUEST
+    )
+    final OpStatsLogger getListOfEntriesOfLedgersStats;
+    @StatsDoc(
+            name = READ_LEDGER_RANGE_REQUEST,
+            help = "request stats of ReadLedgerRange on a bookie"
+    )
+    final OpStatsLogger readLedgerRangeRequestStats;
+    @StatsDoc(
+            name = READ_LEDGER_RANGE,
+            help = "operation stats of ReadLedgerRange",
+            parent = READ_LEDGER_RANGE_REQUEST
+    )
+    final OpStatsLogger readLedgerRangeStats;
+    @StatsDoc(
+            name = COPY_LEDGER_RANGE_REQUEST,
+            help = "request stats of CopyLedgerRange on a bookie"
+    )
+    final OpStatsLogger copyLedgerRangeRequestStats;
+    @StatsDoc(
+            name = COPY_LEDGER_RANGE,
+            help = "operation stats of CopyLedgerRange",
+            parent = COPY_LEDGER_RANGE_REQUEST
+    )
+    final OpStatsLogger copyLedgerRangeStats;
 
     public RequestStats(StatsLogger statsLogger) {
         this.addEntryStats = statsLogger.getThreadScopedOpStatsLogger(ADD_ENTRY);
@@ -276,10 +348,21 @@ public class RequestStats {
 
         this.addEntryBlockedStats = statsLogger.getOpStatsLogger(ADD_ENTRY_BLOCKED_WAIT);
         this.readEntryBlockedStats = statsLogger.getOpStatsLogger(READ_ENTRY_BLOCKED_WAIT);
+        this.addEntryBytesAdmittedCounter = statsLogger.getCounter(ADD_ENTRY_BYTES_ADMITTED);
+        this.addEntryBytesDeferredCounter = statsLogger.getCounter(ADD_ENTRY_BYTES_DEFERRED);
+        this.readEntryBytesAdmittedCounter = statsLogger.getCounter(READ_ENTRY_BYTES_ADMITTED);
+        this.readEntryBytesDeferredCounter = statsLogger.getCounter(READ_ENTRY_BYTES_DEFERRED);
 
         this.getListOfEntriesOfLedgerStats = statsLogger.getOpStatsLogger(GET_LIST_OF_ENTRIES_OF_LEDGER);
         this.getListOfEntriesOfLedgerRequestStats =
                 statsLogger.getOpStatsLogger(GET_LIST_OF_ENTRIES_OF_LEDGER_REQUEST);
+        this.getListOfEntriesOfLedgersStats = statsLogger.getOpStatsLogger(GET_LIST_OF_ENTRIES_OF_LEDGERS);
+        this.getListOfEntriesOfLedgersRequestStats =
+                statsLogger.getOpStatsLogger(GET_LIST_OF_ENTRIES_OF_LEDGERS_REQUEST);
+        this.readLedgerRangeStats = statsLogger.getOpStatsLogger(READ_LEDGER_RANGE);
+        this.readLedgerRangeRequestStats = statsLogger.getOpStatsLogger(READ_LEDGER_RANGE_REQUEST);
+        this.copyLedgerRangeStats = statsLogger.getOpStatsLogger(COPY_LEDGER_RANGE);
+        this.copyLedgerRangeRequestStats = statsLogger.getOpStatsLogger(COPY_LEDGER_RANGE_REQUEST);
 
         statsLogger.registerGauge(ADD_ENTRY_IN_PROGRESS, new Gauge<Number>() {
             @Override
@@ -356,6 +439,20 @@ public class RequestStats {
         return maxAddsInProgress.get();
     }
 
+    void recordAddEntryLatency(long latencyNanos) {
+        addEntryLatencyHistogram.record(TimeUnit.NANOSECONDS.toMicros(latencyNanos), MathUtils.nowInNano());
+    }
+
+    /**
+     * Get the recent latency of the successful adds at the given percentile.
+     *
+     * @return latency in microseconds, or -1 if too few adds were served recently
+     */
+    long getAddEntryLatencyMicros(double percentile) {
+        return addEntryLatencyHistogram.getPercentile(percentile, ADD_ENTRY_LATENCY_MIN_SAMPLES,
+                MathUtils.nowInNano());
+    }
+
     //
     // Read requests
     //
@@ -0,0 +1,153 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.proto;
+
+import io.netty.util.Recycler;
+import io.netty.util.Recycler.Handle;
+import java.util.Arrays;
+import org.apache.bookkeeper.util.MathUtils;
+
+/**
+ * The timestamps of a sampled add or read request at every hop through the bookie.
+ *
+ * <p>A trace is started by {@link RequestTracer#startTrace(Kind)} once the request is decoded, travels with
+ * the request through the worker threads, the ledger storage and the journal, and is handed back to the
+ * tracer once the response was flushed to the channel. Stages a request doesn't go through (e.g. the
+ * journal for reads) are simply not stamped.
+ */
+public final class RequestTrace {
+
+    /**
+     * Kind of the traced request.
+     */
+    public enum Kind {
+        ADD,
+        READ
+    }
+
+    /**
+     * Hops of a request, in the order a request goes through them. The latency of a stage is the time
+     * elapsed since the previous stamped stage.
+     */
+    public enum Stage {
+        // start of the decoding of the request, origin of the trace
+        DECODE_START("start"),
+        // request decoded and handed to the request processor
+        RECEIVED("decode"),
+        // request picked up by the thread processing it
+        PROCESSING_STARTED("requestQueue"),
+        // entry written to the ledger storage, or read from it
+        STORAGE_DONE("ledgerStorage"),
+        // entry picked up by the journal thread
+        JOURNAL_DEQUEUED("journalQueue"),
+        // entry written to the journal file
+        JOURNAL_WRITTEN("journalWrite"),
+        // journal file synced to disk
+        JOURNAL_SYNCED("journalSync"),
+        // response handed to the channel
+        RESPONSE_SENT("callback"),
+        // response flushed to the socket
+        RESPONSE_FLUSHED("responseFlush");
+
+        private final String stageName;
+
+        Stage(String stageName) {
+            this.stageName = stageName;
+        }
+
+        /**
+         * Name of the stage ending with this hop, as reported by {@link RequestTracer}.
+         */
+        public String getStageName() {
+            return stageName;
+        }
+    }
+
+    /**
+     * Implemented by callbacks of traced requests, so that the components the request is handed to along
+     * with its callback (e.g. the journal) can stamp the trace.
+     */
+    public interface Traced {
+        RequestTrace getRequestTrace();
+    }
+
+    static final int NUM_STAGES = Stage.values().length;
+
+    private final Handle<RequestTrace> recyclerHandle;
+    private final long[] stamps = new long[NUM_STAGES];
+    private RequestTracer tracer;
+    private Kind kind;
+
+    static RequestTrace create(RequestTracer tracer, Kind kind, long decodeStartNanos) {
+        RequestTrace trace = RECYCLER.get();
+        trace.tracer = tracer;
+        trace.kind = kind;
+        trace.stamps[Stage.DECODE_START.ordinal()] = decodeStartNanos;
+        trace.stamps[Stage.RECEIVED.ordinal()] = MathUtils.nowInNano();
+        return trace;
+    }
+
+    /**
+     * Record that the request went through <i>stage</i> now.
+     */
+    public void stamp(Stage stage) {
+        stamps[stage.ordinal()] = MathUtils.nowInNano();
+    }
+
+    Kind getKind() {
+        return kind;
+    }
+
+    /**
+     * Return the time at which the request went through <i>stage</i>, or 0 if it didn't.
+     */
+    long getStamp(Stage stage) {
+        return stamps[stage.ordinal()];
+    }
+
+    /**
+     * Stamp the flush of the response and report the trace to the tracer. The trace must not be used
+     * anymore once completed.
+     */
+    void complete() {
+        stamp(Stage.RESPONSE_FLUSHED);
+        tracer.record(this);
+        recycle();
+    }
+
+    private void recycle() {
+        tracer = null;
+        kind = null;
+        Arrays.fill(stamps, 0L);
+        recyclerHandle.recycle(this);
+    }
+
+    private RequestTrace(Handle<RequestTrace> recyclerHandle) {
+        this.recyclerHandle = recyclerHandle;
+    }
+
+    private static final Recycler<RequestTrace> RECYCLER = new Recycler<RequestTrace>() {
+        @Override
+        protected RequestTrace newObject(Handle<RequestTrace> handle) {
+            return new RequestTrace(handle);
+        }
+    };
+}
@@ -0,0 +1,178 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.proto;
+
+import io.netty.util.concurrent.FastThreadLocal;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.apache.bookkeeper.proto.RequestTrace.Kind;
+import org.apache.bookkeeper.proto.RequestTrace.Stage;
+import org.apache.bookkeeper.util.LatencyHistogram;
+import org.apache.bookkeeper.util.MathUtils;
+
+/**
+ * Samples add and read requests and aggregates their {@link RequestTrace}s into a per-stage latency
+ * breakdown.
+ *
+ * <p>One request out of {@code sampleEvery} decoded by each IO thread is traced: the decoder calls
+ * {@link #onDecodeStart()} before decoding a request, and the request processor calls
+ * {@link #startTrace(Kind)} once the decoded request is handed to it, on the same IO thread. Only adds and
+ * reads are traced: {@link #onRequestDispatched()} drops the sample of any other request. Completed
+ * traces are recorded into a log-linear histogram per kind and stage, over a sliding window.
+ */
+public class RequestTracer {
+
+    static final double[] REPORTED_PERCENTILES = { 50.0, 99.0, 99.9 };
+    static final String[] REPORTED_PERCENTILE_NAMES = { "p50", "p99", "p999" };
+    static final String TOTAL = "total";
+    private static final Stage[] STAGES = Stage.values();
+
+    private final int sampleEvery;
+    private final LatencyHistogram[][] stageHistograms;
+    private final LatencyHistogram[] totalHistograms;
+
+    // per IO thread: number of decoded requests, and decode start of the request being traced
+    private final FastThreadLocal<long[]> decodeState = new FastThreadLocal<long[]>() {
+        @Override
+        protected long[] initialValue() {
+            return new long[2];
+        }
+    };
+
+    /**
+     * @param sampleEvery trace one request out of <i>sampleEvery</i>, or none if not positive
+     * @param windowMs length of the window latencies are aggregated over
+     */
+    public RequestTracer(int sampleEvery, long windowMs) {
+        if (windowMs <= 0) {
+            throw new IllegalArgumentException("Invalid window (" + windowMs + ") for request tracer");
+        }
+        this.sampleEvery = Math.max(0, sampleEvery);
+        long windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMs);
+        Kind[] kinds = Kind.values();
+        this.stageHistograms = new LatencyHistogram[kinds.length][RequestTrace.NUM_STAGES];
+        this.totalHistograms = new LatencyHistogram[kinds.length];
+        for (int k = 0; k < kinds.length; k++) {
+            for (int s = 0; s < RequestTrace.NUM_STAGES; s++) {
+                stageHistograms[k][s] = new LatencyHistogram(windowNanos);
+            }
+            totalHistograms[k] = new LatencyHistogram(windowNanos);
+        }
+    }
+
+    public boolean isEnabled() {
+        return sampleEvery > 0;
+    }
+
+    public int getSampleEvery() {
+        return sampleEvery;
+    }
+
+    /**
+     * Called by the decoder before decoding a request: decide whether the request is sampled.
+     */
+    void onDecodeStart() {
+        if (sampleEvery <= 0) {
+            return;
+        }
+        long[] state = decodeState.get();
+        state[1] = (++state[0] % sampleEvery == 0) ? MathUtils.nowInNano() : 0L;
+    }
+
+    /**
+     * Start the trace of the request just decoded on this thread.
+     *
+     * @return the trace, or null if the request isn't sampled
+     */
+    RequestTrace startTrace(Kind kind) {
+        if (sampleEvery <= 0) {
+            return null;
+        }
+        long[] state = decodeState.get();
+        long decodeStartNanos = state[1];
+        if (decodeStartNanos == 0L) {
+            return null;
+        }
+        state[1] = 0L;
+        return RequestTrace.create(this, kind, decodeStartNanos);
+    }
+
+    /**
+     * Called by the request processor once a decoded request is dispatched, traced or not, so that a sampled
+     * request of a kind that isn't traced doesn't pass its decode start on to the next request of this thread.
+     */
+    void onRequestDispatched() {
+        if (sampleEvery <= 0) {
+            return;
+        }
+        decodeState.get()[1] = 0L;
+    }
+
+    void record(RequestTrace trace) {
+        int k = trace.getKind().ordinal();
+        long nowNanos = MathUtils.nowInNano();
+        long start = trace.getStamp(Stage.DECODE_START);
+        long previous = start;
+        for (int s = 1; s < STAGES.length; s++) {
+            long stamp = trace.getStamp(STAGES[s]);
+            if (stamp == 0L) {
+                continue;
+            }
+            stageHistograms[k][s].record(TimeUnit.NANOSECONDS.toMicros(stamp - previous), nowNanos);
+            previous = stamp;
+        }
+        totalHistograms[k].record(TimeUnit.NANOSECONDS.toMicros(previous - start), nowNanos);
+    }
+
+    /**
+     * Return the latency breakdown of the traced requests over the current window: for each kind of
+     * request and each stage, the number of samples and the latency percentiles in microseconds.
+     */
+    public Map<String, Map<String, Map<String, Long>>> getLatencyBreakdown() {
+        long nowNanos = MathUtils.nowInNano();
+        Map<String, Map<String, Map<String, Long>>> breakdown = new LinkedHashMap<>();
+        for (Kind kind : Kind.values()) {
+            Map<String, Map<String, Long>> stages = new LinkedHashMap<>();
+            for (int s = 1; s < STAGES.length; s++) {
+                Map<String, Long> summary = summarize(stageHistograms[kind.ordinal()][s], nowNanos);
+                if (summary.get("count") > 0) {
+                    stages.put(STAGES[s].getStageName(), summary);
+                }
+            }
+            stages.put(TOTAL, summarize(totalHistograms[kind.ordinal()], nowNanos));
+            breakdown.put(kind.name().toLowerCase(Locale.ROOT), stages);
+        }
+        return breakdown;
+    }
+
+    private static Map<String, Long> summarize(LatencyHistogram histogram, long nowNanos) {
+        // a single snapshot, so that the percentiles match the count even while requests are recorded
+        long[] countAndPercentiles = histogram.getCountAndPercentiles(REPORTED_PERCENTILES, nowNanos);
+        Map<String, Long> summary = new LinkedHashMap<>();
+        summary.put("count", countAndPercentiles[0]);
+        for (int i = 0; i < REPORTED_PERCENTILES.length; i++) {
+            summary.put(REPORTED_PERCENTILE_NAMES[i], countAndPercentiles[i + 1]);
+        }
+        return summary;
+    }
+}
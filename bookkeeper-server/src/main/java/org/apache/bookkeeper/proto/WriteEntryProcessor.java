@@ -34,7 +34,8 @@ import org.slf4j.LoggerFactory;
 /**
  * Processes add entry requests.
  */
-class WriteEntryProcessor extends PacketProcessorBase<ParsedAddRequest> implements WriteCallback {
+class WriteEntryProcessor extends PacketProcessorBase<ParsedAddRequest>
+        implements WriteCallback, RequestTrace.Traced {
 
     private static final Logger LOG = LoggerFactory.getLogger(WriteEntryProcessor.class);
 
@@ -50,7 +51,9 @@ class WriteEntryProcessor extends PacketProcessorBase<ParsedAddRequest> implemen
                                              BookieRequestProcessor requestProcessor) {
         WriteEntryProcessor wep = RECYCLER.get();
         wep.init(request, requestHandler, requestProcessor);
-        requestProcessor.onAddRequestStart(requestHandler.ctx().channel());
+        wep.requestBytes = request.getData().readableBytes();
+        requestProcessor.onAddRequestStart(requestHandler.ctx().channel(), request.getLedgerId(),
+                request.getEntryId(), wep.requestBytes);
         return wep;
     }
 
@@ -116,20 +119,28 @@ class WriteEntryProcessor extends PacketProcessorBase<ParsedAddRequest> implemen
     public void writeComplete(int rc, long ledgerId, long entryId,
                               BookieId addr, Object ctx) {
         if (BookieProtocol.EOK == rc) {
+            long elapsedNanos = MathUtils.elapsedNanos(startTimeNanos);
             requestProcessor.getRequestStats().getAddEntryStats()
-                .registerSuccessfulEvent(MathUtils.elapsedNanos(startTimeNanos), TimeUnit.NANOSECONDS);
+                .registerSuccessfulEvent(elapsedNanos, TimeUnit.NANOSECONDS);
+            requestProcessor.getRequestStats().recordAddEntryLatency(elapsedNanos);
         } else {
             requestProcessor.getRequestStats().getAddEntryStats()
                 .registerFailedEvent(MathUtils.elapsedNanos(startTimeNanos), TimeUnit.NANOSECONDS);
         }
 
-        requestHandler.prepareSendResponseV2(rc, request);
-        requestProcessor.onAddRequestFinish();
+        requestHandler.prepareSendResponseV2(rc, request, trace);
+        trace = null;
+        requestProcessor.onAddRequestFinish(requestHandler.ctx().channel(), requestBytes);
 
         request.recycle();
         recycle();
     }
 
+    @Override
+    public RequestTrace getRequestTrace() {
+        return trace;
+    }
+
     @Override
     public String toString() {
         return String.format("WriteEntry(%d, %d)",
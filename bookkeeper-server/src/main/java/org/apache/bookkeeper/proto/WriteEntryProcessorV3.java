@@ -42,10 +42,21 @@ import org.slf4j.LoggerFactory;
 class WriteEntryProcessorV3 extends PacketProcessorBaseV3 {
     private static final Logger logger = LoggerFactory.getLogger(WriteEntryProcessorV3.class);
 
+    private final long requestBytes;
+
     public WriteEntryProcessorV3(Request request, BookieRequestHandler requestHandler,
                                  BookieRequestProcessor requestProcessor) {
         super(request, requestHandler, requestProcessor);
-        requestProcessor.onAddRequestStart(requestHandler.ctx().channel());
+        AddRequest addRequest = request.getAddRequest();
+        this.requestBytes = addRequest.getBody().size();
+        requestProcessor.onAddRequestStart(requestHandler.ctx().channel(), addRequest.getLedgerId(),
+                addRequest.getEntryId(), requestBytes);
+    }
+
+    /**
+     * Write callback exposing the trace of the request to the journal.
+     */
+    private interface TracedWriteCallback extends BookkeeperInternalCallbacks.WriteCallback, RequestTrace.Traced {
     }
 
     // Returns null if there is no exception thrown
@@ -72,13 +83,20 @@ class WriteEntryProcessorV3 extends PacketProcessorBaseV3 {
             return addResponse.build();
         }
 
-        BookkeeperInternalCallbacks.WriteCallback wcb = new BookkeeperInternalCallbacks.WriteCallback() {
+        TracedWriteCallback wcb = new TracedWriteCallback() {
+            @Override
+            public RequestTrace getRequestTrace() {
+                return trace;
+            }
+
             @Override
             public void writeComplete(int rc, long ledgerId, long entryId,
                                       BookieId addr, Object ctx) {
                 if (BookieProtocol.EOK == rc) {
+                    long elapsedNanos = MathUtils.elapsedNanos(startTimeNanos);
                     requestProcessor.getRequestStats().getAddEntryStats()
-                        .registerSuccessfulEvent(MathUtils.elapsedNanos(startTimeNanos), TimeUnit.NANOSECONDS);
+                        .registerSuccessfulEvent(elapsedNanos, TimeUnit.NANOSECONDS);
+                    requestProcessor.getRequestStats().recordAddEntryLatency(elapsedNanos);
                 } else {
                     requestProcessor.getRequestStats().getAddEntryStats()
                         .registerFailedEvent(MathUtils.elapsedNanos(startTimeNanos), TimeUnit.NANOSECONDS);
@@ -162,6 +180,9 @@ class WriteEntryProcessorV3 extends PacketProcessorBaseV3 {
 
     @Override
     public void run() {
+        if (trace != null) {
+            trace.stamp(RequestTrace.Stage.PROCESSING_STARTED);
+        }
         requestProcessor.getRequestStats().getWriteThreadQueuedLatency()
                 .registerSuccessfulEvent(MathUtils.elapsedNanos(enqueueNanos), TimeUnit.NANOSECONDS);
         AddResponse addResponse = getAddResponse();
@@ -180,7 +201,7 @@ class WriteEntryProcessorV3 extends PacketProcessorBaseV3 {
     @Override
     protected void sendResponse(StatusCode code, Object response, OpStatsLogger statsLogger) {
         super.sendResponse(code, response, statsLogger);
-        requestProcessor.onAddRequestFinish();
+        requestProcessor.onAddRequestFinish(requestHandler.ctx().channel(), requestBytes);
     }
 
     /**
@@ -49,4 +49,9 @@ class CRC32CDigestManager extends DigestManager {
     int update(int digest, ByteBuf data, int offset, int len) {
         return Crc32cIntChecksum.resumeChecksum(digest, data, offset, len);
     }
+
+    @Override
+    void updateBatch(int[] digests, ByteBuf[] buffers, int[] offsets, int[] lengths, int count) {
+        Crc32cIntChecksum.resumeChecksumBatch(digests, buffers, offsets, lengths, count);
+    }
 }
@@ -75,9 +75,12 @@ public class Auditor implements AutoCloseable {
     private final BookKeeperAdmin admin;
     private final boolean ownAdmin;
     private BookieLedgerIndexer bookieLedgerIndexer;
+    private IncrementalBookieLedgerIndex incrementalIndex;
     private LedgerManager ledgerManager;
     private LedgerUnderreplicationManager ledgerUnderreplicationManager;
     private final ScheduledExecutorService executor;
+    // lists the ledgers for the incremental index, off the executor running the audits
+    private final ScheduledExecutorService discoveryExecutor;
     private List<String> knownBookies = new ArrayList<String>();
     private final String bookieIdentifier;
     protected volatile Future<?> auditTask;
@@ -166,18 +169,25 @@ public class Auditor implements AutoCloseable {
         AuditorTask.ShutdownTaskHandler shutdownTaskHandler = this::submitShutdownTask;
         BiConsumer<Void, Throwable> submitBookieCheckTask = (ignore, throwable) -> this.submitBookieCheckTask();
         BiConsumer<AtomicBoolean, Throwable> hasAuditCheckTask = (flag, throwable) -> flag.set(auditTask != null);
+        AuditorPlacementPolicyCheckTask placementPolicyCheckTask = new AuditorPlacementPolicyCheckTask(
+                conf, auditorStats, admin, ledgerManager,
+                ledgerUnderreplicationManager, shutdownTaskHandler, hasAuditCheckTask);
+        if (conf.isAuditorIncrementalIndexEnabled()) {
+            // ledgers closed or re-replicated are checked against the placement policy right away
+            this.incrementalIndex = new IncrementalBookieLedgerIndex(ledgerManager, conf.getZkTimeout() * 2L,
+                    conf.getAuditorPeriodicPlacementPolicyCheckInterval() > 0
+                            ? placementPolicyCheckTask::checkChangedLedger : null);
+        }
         this.auditorBookieCheckTask = new AuditorBookieCheckTask(
                 conf, auditorStats, admin, ledgerManager,
                 ledgerUnderreplicationManager, shutdownTaskHandler,
-                bookieLedgerIndexer, hasAuditCheckTask, submitBookieCheckTask);
+                bookieLedgerIndexer, incrementalIndex, hasAuditCheckTask, submitBookieCheckTask);
         allAuditorTasks.add(auditorBookieCheckTask);
         this.auditorCheckAllLedgersTask = new AuditorCheckAllLedgersTask(
                 conf, auditorStats, admin, ledgerManager,
                 ledgerUnderreplicationManager, shutdownTaskHandler, hasAuditCheckTask);
         allAuditorTasks.add(auditorCheckAllLedgersTask);
-        this.auditorPlacementPolicyCheckTask = new AuditorPlacementPolicyCheckTask(
-                conf, auditorStats, admin, ledgerManager,
-                ledgerUnderreplicationManager, shutdownTaskHandler, hasAuditCheckTask);
+        this.auditorPlacementPolicyCheckTask = placementPolicyCheckTask;
         allAuditorTasks.add(auditorPlacementPolicyCheckTask);
         this.auditorReplicasCheckTask = new AuditorReplicasCheckTask(
                 conf, auditorStats, admin, ledgerManager,
@@ -192,6 +202,18 @@ public class Auditor implements AutoCloseable {
                 return t;
             }
         });
+        if (null != incrementalIndex) {
+            discoveryExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "AuditorLedgerDiscovery-" + bookieIdentifier);
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        } else {
+            discoveryExecutor = null;
+        }
     }
 
     private void initialize(ServerConfiguration conf, BookKeeper bkc)
@@ -414,6 +436,7 @@ public class Auditor implements AutoCloseable {
                 submitShutdownTask();
             }
 
+            scheduleLedgerDiscoveryTask();
             scheduleBookieCheckTask();
             scheduleCheckAllLedgersTask();
             schedulePlacementPolicyCheckTask();
@@ -425,6 +448,26 @@ public class Auditor implements AutoCloseable {
         executor.submit(auditorBookieCheckTask);
     }
 
+    private void scheduleLedgerDiscoveryTask() {
+        if (null == incrementalIndex) {
+            return;
+        }
+        long interval = conf.getAuditorLedgerDiscoveryInterval();
+        LOG.info("Auditor incremental index enabled, 'auditorLedgerDiscoveryInterval' {} seconds", interval);
+        Runnable discoverLedgers = () -> {
+            try {
+                incrementalIndex.discoverLedgers();
+            } catch (BKAuditException e) {
+                LOG.error("Failed to discover the ledgers for the incremental index", e);
+            }
+        };
+        if (interval > 0) {
+            discoveryExecutor.scheduleAtFixedRate(discoverLedgers, 0, interval, TimeUnit.SECONDS);
+        } else {
+            discoveryExecutor.submit(discoverLedgers);
+        }
+    }
+
     private void scheduleBookieCheckTask() {
         long bookieCheckInterval = conf.getAuditorPeriodicBookieCheckInterval();
         if (bookieCheckInterval == 0) {
@@ -628,6 +671,9 @@ public class Auditor implements AutoCloseable {
     public void shutdown() {
         LOG.info("Shutting down auditor");
         executor.shutdown();
+        if (null != discoveryExecutor) {
+            discoveryExecutor.shutdownNow();
+        }
         try {
             while (!executor.awaitTermination(30, TimeUnit.SECONDS)) {
                 LOG.warn("Executor not shutting down, interrupting");
@@ -637,6 +683,12 @@ public class Auditor implements AutoCloseable {
             // shutdown all auditorTasks to clean some resource
             allAuditorTasks.forEach(AuditorTask::shutdown);
             allAuditorTasks.clear();
+            if (null != incrementalIndex) {
+                if (!discoveryExecutor.awaitTermination(30, TimeUnit.SECONDS)) {
+                    LOG.warn("Ledger discovery not shutting down");
+                }
+                incrementalIndex.close();
+            }
 
             if (ownAdmin) {
                 admin.close();
@@ -41,6 +41,7 @@ public class AuditorBookieCheckTask extends AuditorTask {
     private static final Logger LOG = LoggerFactory.getLogger(AuditorBookieCheckTask.class);
 
     private final BookieLedgerIndexer bookieLedgerIndexer;
+    private final IncrementalBookieLedgerIndex incrementalIndex;
     private final BiConsumer<Void, Throwable> submitCheckTask;
 
     public AuditorBookieCheckTask(ServerConfiguration conf,
@@ -52,16 +53,36 @@ public class AuditorBookieCheckTask extends AuditorTask {
                                   BookieLedgerIndexer bookieLedgerIndexer,
                                   BiConsumer<AtomicBoolean, Throwable> hasAuditCheckTask,
                                   BiConsumer<Void, Throwable> submitCheckTask) {
+        this(conf, auditorStats, admin, ledgerManager, ledgerUnderreplicationManager, shutdownTaskHandler,
+                bookieLedgerIndexer, null, hasAuditCheckTask, submitCheckTask);
+    }
+
+    /**
+     * @param incrementalIndex if not null, the audits triggered by lost bookies look up the ledgers in this
+     *                         index when it is ready, instead of reading the metadata of all the ledgers
+     */
+    public AuditorBookieCheckTask(ServerConfiguration conf,
+                                  AuditorStats auditorStats,
+                                  BookKeeperAdmin admin,
+                                  LedgerManager ledgerManager,
+                                  LedgerUnderreplicationManager ledgerUnderreplicationManager,
+                                  ShutdownTaskHandler shutdownTaskHandler,
+                                  BookieLedgerIndexer bookieLedgerIndexer,
+                                  IncrementalBookieLedgerIndex incrementalIndex,
+                                  BiConsumer<AtomicBoolean, Throwable> hasAuditCheckTask,
+                                  BiConsumer<Void, Throwable> submitCheckTask) {
         super(conf, auditorStats, admin, ledgerManager,
                 ledgerUnderreplicationManager, shutdownTaskHandler, hasAuditCheckTask);
         this.bookieLedgerIndexer = bookieLedgerIndexer;
+        this.incrementalIndex = incrementalIndex;
         this.submitCheckTask = submitCheckTask;
     }
 
     @Override
     protected void runTask() {
         if (!hasBookieCheckTask()) {
-            startAudit(true);
+            // the periodic check always scans all the ledgers, as a safety net for the incremental index
+            startAudit(true, true);
         } else {
             // if due to a lost bookie an audit task was scheduled,
             // let us not run this periodic bookie check now, if we
@@ -82,8 +103,18 @@ public class AuditorBookieCheckTask extends AuditorTask {
      * @param shutDownTask A boolean that indicates whether or not to schedule shutdown task on any failure
      */
     void startAudit(boolean shutDownTask) {
+        startAudit(shutDownTask, false);
+    }
+
+    /**
+     * Start running the actual audit task.
+     *
+     * @param shutDownTask A boolean that indicates whether or not to schedule shutdown task on any failure
+     * @param fullScan whether to read the metadata of all the ledgers even if the incremental index is ready
+     */
+    void startAudit(boolean shutDownTask, boolean fullScan) {
         try {
-            auditBookies();
+            auditBookies(fullScan);
             shutDownTask = false;
         } catch (BKException bke) {
             LOG.error("Exception getting bookie list", bke);
@@ -100,6 +131,11 @@ public class AuditorBookieCheckTask extends AuditorTask {
 
     void auditBookies()
             throws ReplicationException.BKAuditException, InterruptedException, BKException {
+        auditBookies(true);
+    }
+
+    void auditBookies(boolean fullScan)
+            throws ReplicationException.BKAuditException, InterruptedException, BKException {
         try {
             waitIfLedgerReplicationDisabled();
         } catch (ReplicationException.NonRecoverableReplicationException nre) {
@@ -114,7 +150,7 @@ public class AuditorBookieCheckTask extends AuditorTask {
         LOG.info("Starting auditBookies");
         Stopwatch stopwatch = Stopwatch.createStarted();
         // put exit cases here
-        Map<String, Set<Long>> ledgerDetails = generateBookie2LedgersIndex();
+        Map<String, Set<Long>> ledgerDetails = generateBookie2LedgersIndex(fullScan);
         try {
             if (!isLedgerReplicationEnabled()) {
                 // has been disabled while we were generating the index
@@ -153,8 +189,11 @@ public class AuditorBookieCheckTask extends AuditorTask {
                 TimeUnit.MILLISECONDS);
     }
 
-    private Map<String, Set<Long>> generateBookie2LedgersIndex()
+    private Map<String, Set<Long>> generateBookie2LedgersIndex(boolean fullScan)
             throws ReplicationException.BKAuditException {
+        if (!fullScan && null != incrementalIndex && incrementalIndex.isReady()) {
+            return incrementalIndex.getBookieToLedgerIndex();
+        }
         return bookieLedgerIndexer.getBookieToLedgerIndex();
     }
 
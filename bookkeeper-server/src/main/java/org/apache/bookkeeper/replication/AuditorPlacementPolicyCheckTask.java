@@ -254,58 +254,13 @@ public class AuditorPlacementPolicyCheckTask extends AuditorTask {
                                 AsyncCallback.VoidCallback iterCallback,
                                 Versioned<LedgerMetadata> metadataVer) {
         LedgerMetadata metadata = metadataVer.getValue();
-        int writeQuorumSize = metadata.getWriteQuorumSize();
-        int ackQuorumSize = metadata.getAckQuorumSize();
         if (metadata.isClosed()) {
-            boolean foundSegmentNotAdheringToPlacementPolicy = false;
-            boolean foundSegmentSoftlyAdheringToPlacementPolicy = false;
-            for (Map.Entry<Long, ? extends List<BookieId>> ensemble : metadata
-                    .getAllEnsembles().entrySet()) {
-                long startEntryIdOfSegment = ensemble.getKey();
-                List<BookieId> ensembleOfSegment = ensemble.getValue();
-                EnsemblePlacementPolicy.PlacementPolicyAdherence segmentAdheringToPlacementPolicy = admin
-                        .isEnsembleAdheringToPlacementPolicy(ensembleOfSegment, writeQuorumSize,
-                                ackQuorumSize);
-                if (segmentAdheringToPlacementPolicy == EnsemblePlacementPolicy.PlacementPolicyAdherence.FAIL) {
-                    foundSegmentNotAdheringToPlacementPolicy = true;
-                    LOG.warn(
-                            "For ledger: {}, Segment starting at entry: {}, with ensemble: {} having "
-                                    + "writeQuorumSize: {} and ackQuorumSize: {} is not adhering to "
-                                    + "EnsemblePlacementPolicy",
-                            ledgerId, startEntryIdOfSegment, ensembleOfSegment, writeQuorumSize,
-                            ackQuorumSize);
-                } else if (segmentAdheringToPlacementPolicy
-                        == EnsemblePlacementPolicy.PlacementPolicyAdherence.MEETS_SOFT) {
-                    foundSegmentSoftlyAdheringToPlacementPolicy = true;
-                    if (LOG.isDebugEnabled()) {
-                        LOG.debug(
-                                "For ledger: {}, Segment starting at entry: {}, with ensemble: {}"
-                                        + " having writeQuorumSize: {} and ackQuorumSize: {} is"
-                                        + " softly adhering to EnsemblePlacementPolicy",
-                                ledgerId, startEntryIdOfSegment, ensembleOfSegment, writeQuorumSize,
-                                ackQuorumSize);
-                    }
-                }
-            }
-            if (foundSegmentNotAdheringToPlacementPolicy) {
+            EnsemblePlacementPolicy.PlacementPolicyAdherence adherence =
+                    getLedgerPlacementPolicyAdherence(ledgerId, metadata);
+            if (adherence == EnsemblePlacementPolicy.PlacementPolicyAdherence.FAIL) {
                 numOfLedgersFoundNotAdheringInPlacementPolicyCheck.incrementAndGet();
-                //If user enable repaired, mark this ledger to under replication manager.
-                if (conf.isRepairedPlacementPolicyNotAdheringBookieEnable()) {
-                    ledgerUnderreplicationManager.markLedgerUnderreplicatedAsync(ledgerId,
-                            Collections.emptyList()).whenComplete((res, e) -> {
-                        if (e != null) {
-                            LOG.error("For ledger: {}, the placement policy not adhering bookie "
-                                            + "storage, mark it to under replication manager failed.",
-                                    ledgerId, e);
-                            return;
-                        }
-                        if (LOG.isDebugEnabled()) {
-                            LOG.debug("For ledger: {}, the placement policy not adhering bookie"
-                                    + " storage, mark it to under replication manager", ledgerId);
-                        }
-                    });
-                }
-            } else if (foundSegmentSoftlyAdheringToPlacementPolicy) {
+                markLedgerNotAdheringToPlacementPolicy(ledgerId);
+            } else if (adherence == EnsemblePlacementPolicy.PlacementPolicyAdherence.MEETS_SOFT) {
                 numOfLedgersFoundSoftlyAdheringInPlacementPolicyCheck
                         .incrementAndGet();
             }
@@ -318,4 +273,76 @@ public class AuditorPlacementPolicyCheckTask extends AuditorTask {
         }
         iterCallback.processResult(BKException.Code.OK, null, null);
     }
+
+    /**
+     * Check a single ledger whose metadata just changed, e.g. after it got closed or its ensemble got
+     * replaced. Unlike the periodic check, the counters of the last run are not updated.
+     */
+    void checkChangedLedger(long ledgerId, LedgerMetadata metadata) {
+        if (metadata.isClosed() && getLedgerPlacementPolicyAdherence(ledgerId, metadata)
+                == EnsemblePlacementPolicy.PlacementPolicyAdherence.FAIL) {
+            markLedgerNotAdheringToPlacementPolicy(ledgerId);
+        }
+    }
+
+    private EnsemblePlacementPolicy.PlacementPolicyAdherence getLedgerPlacementPolicyAdherence(
+            Long ledgerId, LedgerMetadata metadata) {
+        int writeQuorumSize = metadata.getWriteQuorumSize();
+        int ackQuorumSize = metadata.getAckQuorumSize();
+        boolean foundSegmentNotAdheringToPlacementPolicy = false;
+        boolean foundSegmentSoftlyAdheringToPlacementPolicy = false;
+        for (Map.Entry<Long, ? extends List<BookieId>> ensemble : metadata
+                .getAllEnsembles().entrySet()) {
+            long startEntryIdOfSegment = ensemble.getKey();
+            List<BookieId> ensembleOfSegment = ensemble.getValue();
+            EnsemblePlacementPolicy.PlacementPolicyAdherence segmentAdheringToPlacementPolicy = admin
+                    .isEnsembleAdheringToPlacementPolicy(ensembleOfSegment, writeQuorumSize,
+                            ackQuorumSize);
+            if (segmentAdheringToPlacementPolicy == EnsemblePlacementPolicy.PlacementPolicyAdherence.FAIL) {
+                foundSegmentNotAdheringToPlacementPolicy = true;
+                LOG.warn(
+                        "For ledger: {}, Segment starting at entry: {}, with ensemble: {} having "
+                                + "writeQuorumSize: {} and ackQuorumSize: {} is not adhering to "
+                                + "EnsemblePlacementPolicy",
+                        ledgerId, startEntryIdOfSegment, ensembleOfSegment, writeQuorumSize,
+                        ackQuorumSize);
+            } else if (segmentAdheringToPlacementPolicy
+                    == EnsemblePlacementPolicy.PlacementPolicyAdherence.MEETS_SOFT) {
+                foundSegmentSoftlyAdheringToPlacementPolicy = true;
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug(
+                            "For ledger: {}, Segment starting at entry: {}, with ensemble: {}"
+                                    + " having writeQuorumSize: {} and ackQuorumSize: {} is"
+                                    + " softly adhering to EnsemblePlacementPolicy",
+                            ledgerId, startEntryIdOfSegment, ensembleOfSegment, writeQuorumSize,
+                            ackQuorumSize);
+                }
+            }
+        }
+        if (foundSegmentNotAdheringToPlacementPolicy) {
+            return EnsemblePlacementPolicy.PlacementPolicyAdherence.FAIL;
+        } else if (foundSegmentSoftlyAdheringToPlacementPolicy) {
+            return EnsemblePlacementPolicy.PlacementPolicyAdherence.MEETS_SOFT;
+        }
+        return EnsemblePlacementPolicy.PlacementPolicyAdherence.MEETS_STRICT;
+    }
+
+    private void markLedgerNotAdheringToPlacementPolicy(long ledgerId) {
+        //If user enable repaired, mark this ledger to under replication manager.
+        if (conf.isRepairedPlacementPolicyNotAdheringBookieEnable()) {
+            ledgerUnderreplicationManager.markLedgerUnderreplicatedAsync(ledgerId,
+                    Collections.emptyList()).whenComplete((res, e) -> {
+                if (e != null) {
+                    LOG.error("For ledger: {}, the placement policy not adhering bookie "
+                                    + "storage, mark it to under replication manager failed.",
+                            ledgerId, e);
+                    return;
+                }
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug("For ledger: {}, the placement policy not adhering bookie"
+                            + " storage, mark it to under replication manager", ledgerId);
+                }
+            });
+        }
+    }
 }
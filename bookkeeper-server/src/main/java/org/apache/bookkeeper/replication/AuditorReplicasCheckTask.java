@@ -20,7 +20,10 @@ package org.apache.bookkeeper.replication;
 import com.google.common.base.Stopwatch;
 import com.google.common.collect.HashMultiset;
 import com.google.common.collect.Multiset;
+import io.netty.util.concurrent.DefaultThreadFactory;
 import java.io.IOException;
+import java.util.AbstractMap;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.BitSet;
 import java.util.Collections;
@@ -29,9 +32,12 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Queue;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -53,6 +59,13 @@ import org.apache.zookeeper.AsyncCallback.VoidCallback;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * Checks that the bookies of the closed ledgers store all the entries they are expected to store.
+ *
+ * <p>The entries stored by the bookies are listed with one request per batch of
+ * {@link ServerConfiguration#getAuditorReplicasCheckBatchSize()} ledgers, and the listed entries are compared
+ * with the ledgers metadata on {@link ServerConfiguration#getAuditorReplicasCheckParallelism()} threads.
+ */
 public class AuditorReplicasCheckTask extends AuditorTask {
     private static final Logger LOG = LoggerFactory.getLogger(AuditorReplicasCheckTask.class);
 
@@ -61,6 +74,10 @@ public class AuditorReplicasCheckTask extends AuditorTask {
     private static final BitSet EMPTY_BITSET = new BitSet();
 
     private final int zkOpTimeoutMs;
+    private final int batchSize;
+    private final int parallelism;
+    // compares the entries listed by the bookies with the ledgers metadata, when the listing is batched
+    private final ExecutorService comparisonExecutor;
 
     private final AtomicInteger numLedgersFoundHavingNoReplicaOfAnEntry;
     private final AtomicInteger numLedgersFoundHavingLessThanAQReplicasOfAnEntry;
@@ -75,6 +92,11 @@ public class AuditorReplicasCheckTask extends AuditorTask {
         super(conf, auditorStats, admin, ledgerManager,
                 ledgerUnderreplicationManager, shutdownTaskHandler, hasAuditCheckTask);
         this.zkOpTimeoutMs = conf.getZkTimeout() * 2;
+        this.batchSize = conf.getAuditorReplicasCheckBatchSize();
+        this.parallelism = Math.max(1, conf.getAuditorReplicasCheckParallelism());
+        this.comparisonExecutor = batchSize > 0
+                ? Executors.newFixedThreadPool(parallelism, new DefaultThreadFactory("AuditorReplicasCheck", true))
+                : null;
         this.numLedgersFoundHavingNoReplicaOfAnEntry = new AtomicInteger(0);
         this.numLedgersFoundHavingLessThanAQReplicasOfAnEntry = new AtomicInteger(0);
         this.numLedgersFoundHavingLessThanWQReplicasOfAnEntry = new AtomicInteger(0);
@@ -159,7 +181,9 @@ public class AuditorReplicasCheckTask extends AuditorTask {
 
     @Override
     public void shutdown() {
-
+        if (null != comparisonExecutor) {
+            comparisonExecutor.shutdown();
+        }
     }
 
     void replicasCheck() throws ReplicationException.BKAuditException {
@@ -194,6 +218,13 @@ public class AuditorReplicasCheckTask extends AuditorTask {
             final CountDownLatch replicasCheckLatch = new CountDownLatch(1);
 
             ReplicasCheckFinalCallback finalCB = new ReplicasCheckFinalCallback(resultCode, replicasCheckLatch);
+            final LedgerEntriesLister lister = new LedgerEntriesLister();
+            /*
+             * when the listing is batched, the ledgers wait in the batches
+             * of their bookies, so the semaphore only bounds the metadata
+             * reads. Otherwise it bounds the ledgers being checked.
+             */
+            final boolean batched = batchSize > 0;
             MultiCallback mcbForThisLedgerRange = new MultiCallback(numOfLedgersInRange, finalCB, null,
                     BKException.Code.OK, BKException.Code.ReadException) {
                 @Override
@@ -201,7 +232,9 @@ public class AuditorReplicasCheckTask extends AuditorTask {
                     try {
                         super.processResult(rc, path, ctx);
                     } finally {
-                        maxConcurrentSemaphore.release();
+                        if (!batched) {
+                            maxConcurrentSemaphore.release();
+                        }
                     }
                 }
             };
@@ -228,11 +261,39 @@ public class AuditorReplicasCheckTask extends AuditorTask {
                      * if ledger is marked underreplicated, then ignore this
                      * ledger for replicascheck.
                      */
+                    if (batched) {
+                        maxConcurrentSemaphore.release();
+                    }
                     continue;
                 }
                 ledgerManager.readLedgerMetadata(ledgerInRange)
                         .whenComplete(new ReadLedgerMetadataCallbackForReplicasCheck(ledgerInRange,
-                                mcbForThisLedgerRange, ledgersWithMissingEntries, ledgersWithUnavailableBookies));
+                                mcbForThisLedgerRange, ledgersWithMissingEntries, ledgersWithUnavailableBookies,
+                                lister))
+                        .whenComplete((metadata, exception) -> {
+                            if (batched) {
+                                maxConcurrentSemaphore.release();
+                            }
+                        });
+            }
+            if (batched) {
+                // once the metadata of all the ledgers is read, send the last batches even if they are not full
+                try {
+                    if (!maxConcurrentSemaphore.tryAcquire(MAX_CONCURRENT_REPLICAS_CHECK_LEDGER_REQUESTS,
+                            REPLICAS_CHECK_TIMEOUT_IN_SECS, TimeUnit.SECONDS)) {
+                        LOG.error("Timedout ({} secs) while waiting for reading the metadata of the ledgers",
+                                REPLICAS_CHECK_TIMEOUT_IN_SECS);
+                        throw new ReplicationException.BKAuditException(
+                                "Timedout while waiting for reading the metadata of the ledgers");
+                    }
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    LOG.error("Got InterruptedException while reading the metadata of the ledgers", ie);
+                    throw new ReplicationException.BKAuditException(
+                            "Got InterruptedException while reading the metadata of the ledgers", ie);
+                }
+                maxConcurrentSemaphore.release(MAX_CONCURRENT_REPLICAS_CHECK_LEDGER_REQUESTS);
+                lister.flush();
             }
             try {
                 /*
@@ -357,16 +418,19 @@ public class AuditorReplicasCheckTask extends AuditorTask {
         private final MultiCallback mcbForThisLedgerRange;
         private final ConcurrentHashMap<Long, MissingEntriesInfoOfLedger> ledgersWithMissingEntries;
         private final ConcurrentHashMap<Long, MissingEntriesInfoOfLedger> ledgersWithUnavailableBookies;
+        private final LedgerEntriesLister lister;
 
         ReadLedgerMetadataCallbackForReplicasCheck(
                 long ledgerInRange,
                 MultiCallback mcbForThisLedgerRange,
                 ConcurrentHashMap<Long, MissingEntriesInfoOfLedger> ledgersWithMissingEntries,
-                ConcurrentHashMap<Long, MissingEntriesInfoOfLedger> ledgersWithUnavailableBookies) {
+                ConcurrentHashMap<Long, MissingEntriesInfoOfLedger> ledgersWithUnavailableBookies,
+                LedgerEntriesLister lister) {
             this.ledgerInRange = ledgerInRange;
             this.mcbForThisLedgerRange = mcbForThisLedgerRange;
             this.ledgersWithMissingEntries = ledgersWithMissingEntries;
             this.ledgersWithUnavailableBookies = ledgersWithUnavailableBookies;
+            this.lister = lister;
         }
 
         @Override
@@ -475,14 +539,110 @@ public class AuditorReplicasCheckTask extends AuditorTask {
                 final BookieId bookieInEnsemble = bookiesSegmentInfoTuple.getKey();
                 final List<BookieExpectedToContainSegmentInfo> bookieSegmentInfoList = bookiesSegmentInfoTuple
                         .getValue();
-                admin.asyncGetListOfEntriesOfLedger(bookieInEnsemble, ledgerInRange)
-                        .whenComplete(new GetListOfEntriesOfLedgerCallbackForReplicasCheck(ledgerInRange, ensembleSize,
-                                writeQuorumSize, ackQuorumSize, bookieInEnsemble, bookieSegmentInfoList,
-                                ledgersWithMissingEntries, ledgersWithUnavailableBookies, mcbForThisLedger));
+                lister.list(bookieInEnsemble, new GetListOfEntriesOfLedgerCallbackForReplicasCheck(ledgerInRange,
+                        ensembleSize, writeQuorumSize, ackQuorumSize, bookieInEnsemble, bookieSegmentInfoList,
+                        ledgersWithMissingEntries, ledgersWithUnavailableBookies, mcbForThisLedger));
             }
         }
     }
 
+    /**
+     * Lists the entries of the ledgers of a ledger range on their bookies.
+     *
+     * <p>When batching is enabled, the ledgers are grouped per bookie and each full batch is listed with a
+     * single request. At most {@code parallelism} batches are in flight, and the results of a batch are
+     * compared with the ledgers metadata on the comparison executor.
+     */
+    private class LedgerEntriesLister {
+        private final Map<BookieId, List<GetListOfEntriesOfLedgerCallbackForReplicasCheck>> pendingBatches =
+                new HashMap<>();
+        private final Queue<Entry<BookieId, List<GetListOfEntriesOfLedgerCallbackForReplicasCheck>>> readyBatches =
+                new ArrayDeque<>();
+        private int numInFlightBatches = 0;
+
+        void list(BookieId bookie, GetListOfEntriesOfLedgerCallbackForReplicasCheck callback) {
+            if (batchSize <= 0) {
+                admin.asyncGetListOfEntriesOfLedger(bookie, callback.ledgerInRange).whenComplete(callback);
+                return;
+            }
+            synchronized (this) {
+                List<GetListOfEntriesOfLedgerCallbackForReplicasCheck> batch =
+                        pendingBatches.computeIfAbsent(bookie, k -> new ArrayList<>(batchSize));
+                batch.add(callback);
+                if (batch.size() >= batchSize) {
+                    pendingBatches.remove(bookie);
+                    readyBatches.add(new AbstractMap.SimpleImmutableEntry<>(bookie, batch));
+                }
+            }
+            sendReadyBatches();
+        }
+
+        void flush() {
+            synchronized (this) {
+                for (Entry<BookieId, List<GetListOfEntriesOfLedgerCallbackForReplicasCheck>> batch
+                        : pendingBatches.entrySet()) {
+                    readyBatches.add(batch);
+                }
+                pendingBatches.clear();
+            }
+            sendReadyBatches();
+        }
+
+        private void sendReadyBatches() {
+            while (true) {
+                Entry<BookieId, List<GetListOfEntriesOfLedgerCallbackForReplicasCheck>> batch;
+                synchronized (this) {
+                    if (numInFlightBatches >= parallelism || readyBatches.isEmpty()) {
+                        return;
+                    }
+                    batch = readyBatches.poll();
+                    numInFlightBatches++;
+                }
+                sendBatch(batch.getKey(), batch.getValue());
+            }
+        }
+
+        private void sendBatch(BookieId bookie, List<GetListOfEntriesOfLedgerCallbackForReplicasCheck> batch) {
+            List<Long> ledgerIds = new ArrayList<>(batch.size());
+            for (GetListOfEntriesOfLedgerCallbackForReplicasCheck callback : batch) {
+                ledgerIds.add(callback.ledgerInRange);
+            }
+            admin.asyncGetListOfEntriesOfLedgers(bookie, ledgerIds).whenCompleteAsync((entriesOfLedgers, cause) -> {
+                try {
+                    if (cause != null) {
+                        /*
+                         * e.g. the bookie runs a version not supporting
+                         * batched requests yet, so fall back to listing
+                         * the ledgers one by one.
+                         */
+                        LOG.warn("Unable to GetListOfEntriesOfLedgers for {} ledgers from: {}, listing them one by one",
+                                batch.size(), bookie, cause);
+                        for (GetListOfEntriesOfLedgerCallbackForReplicasCheck callback : batch) {
+                            admin.asyncGetListOfEntriesOfLedger(bookie, callback.ledgerInRange)
+                                    .whenComplete(callback);
+                        }
+                        return;
+                    }
+                    for (GetListOfEntriesOfLedgerCallbackForReplicasCheck callback : batch) {
+                        AvailabilityOfEntriesOfLedger availabilityOfEntriesOfLedger =
+                                entriesOfLedgers.get(callback.ledgerInRange);
+                        if (availabilityOfEntriesOfLedger != null) {
+                            callback.accept(availabilityOfEntriesOfLedger, null);
+                        } else {
+                            // the bookie failed to list the entries of this ledger
+                            callback.accept(null, BKException.create(BKException.Code.ReadException));
+                        }
+                    }
+                } finally {
+                    synchronized (LedgerEntriesLister.this) {
+                        numInFlightBatches--;
+                    }
+                    sendReadyBatches();
+                }
+            }, comparisonExecutor);
+        }
+    }
+
     private static class BookieExpectedToContainSegmentInfo {
         private final long startEntryIdOfSegment;
         private final long lastEntryIdOfSegment;
@@ -17,20 +17,21 @@
  */
 package org.apache.bookkeeper.replication;
 
-import java.util.ArrayList;
+import com.google.common.collect.Iterables;
+import java.io.IOException;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.CountDownLatch;
-import org.apache.bookkeeper.client.BKException;
+import java.util.concurrent.ExecutionException;
+import org.apache.bookkeeper.client.api.LedgerMetadata;
 import org.apache.bookkeeper.meta.LedgerManager;
+import org.apache.bookkeeper.meta.LedgerManager.LedgerRangeIterator;
 import org.apache.bookkeeper.net.BookieId;
-import org.apache.bookkeeper.proto.BookkeeperInternalCallbacks.Processor;
 import org.apache.bookkeeper.replication.ReplicationException.BKAuditException;
-import org.apache.zookeeper.AsyncCallback;
+import org.apache.bookkeeper.versioning.Versioned;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -41,6 +42,10 @@ import org.slf4j.LoggerFactory;
 public class BookieLedgerIndexer {
 
     private static final Logger LOG = LoggerFactory.getLogger(BookieLedgerIndexer.class);
+
+    // max number of ledgers whose metadata is read, and held, at once
+    static final int METADATA_READ_BATCH_SIZE = 10000;
+
     private final LedgerManager ledgerManager;
 
     public BookieLedgerIndexer(LedgerManager ledgerManager) {
@@ -51,6 +56,9 @@ public class BookieLedgerIndexer {
      * Generating bookie vs its ledgers map by reading all the ledgers in each
      * bookie and parsing its metadata.
      *
+     * <p>The metadata of the ledgers of each range is read with a bulk read, which the ledger manager
+     * pipelines and batches, rather than with one read per ledger.
+     *
      * @return bookie2ledgersMap map of bookie vs ledgers
      * @throws BKAuditException
      *             exception while getting bookie-ledgers
@@ -59,53 +67,34 @@ public class BookieLedgerIndexer {
             throws BKAuditException {
         // bookie vs ledgers map
         final ConcurrentHashMap<String, Set<Long>> bookie2ledgersMap = new ConcurrentHashMap<String, Set<Long>>();
-        final CountDownLatch ledgerCollectorLatch = new CountDownLatch(1);
-
-        Processor<Long> ledgerProcessor = new Processor<Long>() {
-                @Override
-                public void process(Long ledgerId, AsyncCallback.VoidCallback iterCallback) {
-                    ledgerManager.readLedgerMetadata(ledgerId).whenComplete((metadata, exception) -> {
-                                if (exception == null) {
-                                    for (Map.Entry<Long, ? extends List<BookieId>> ensemble
-                                             : metadata.getValue().getAllEnsembles().entrySet()) {
-                                        for (BookieId bookie : ensemble.getValue()) {
-                                            putLedger(bookie2ledgersMap, bookie.toString(), ledgerId);
-                                        }
-                                    }
-                                    iterCallback.processResult(BKException.Code.OK, null, null);
-                                } else if (BKException.getExceptionCode(exception)
-                                           == BKException.Code.NoSuchLedgerExistsOnMetadataServerException) {
-                                    LOG.info("Ignoring replication of already deleted ledger {}", ledgerId);
-                                    iterCallback.processResult(BKException.Code.OK, null, null);
-                                } else {
-                                    LOG.warn("Unable to read the ledger: {} information", ledgerId);
-                                    iterCallback.processResult(BKException.getExceptionCode(exception), null, null);
-                                }
-                            });
-                }
-            };
-        // Reading the result after processing all the ledgers
-        final List<Integer> resultCode = new ArrayList<Integer>(1);
-        ledgerManager.asyncProcessLedgers(ledgerProcessor,
-                new AsyncCallback.VoidCallback() {
-
-                    @Override
-                    public void processResult(int rc, String s, Object obj) {
-                        resultCode.add(rc);
-                        ledgerCollectorLatch.countDown();
-                    }
-                }, null, BKException.Code.OK, BKException.Code.ReadException);
         try {
-            ledgerCollectorLatch.await();
+            LedgerRangeIterator ledgerRanges = ledgerManager.getLedgerRanges(0);
+            while (ledgerRanges.hasNext()) {
+                for (List<Long> ledgers : Iterables.partition(ledgerRanges.next().getLedgers(),
+                        METADATA_READ_BATCH_SIZE)) {
+                    // ledgers deleted since they were listed are absent from the result
+                    Map<Long, Versioned<LedgerMetadata>> metadatas = ledgerManager.readLedgerMetadata(ledgers).get();
+                    for (Map.Entry<Long, Versioned<LedgerMetadata>> metadata : metadatas.entrySet()) {
+                        for (Map.Entry<Long, ? extends List<BookieId>> ensemble
+                                : metadata.getValue().getValue().getAllEnsembles().entrySet()) {
+                            for (BookieId bookie : ensemble.getValue()) {
+                                putLedger(bookie2ledgersMap, bookie.toString(), metadata.getKey());
+                            }
+                        }
+                    }
+                }
+            }
         } catch (InterruptedException e) {
             Thread.currentThread().interrupt();
             throw new BKAuditException(
                     "Exception while getting the bookie-ledgers", e);
-        }
-        if (!resultCode.contains(BKException.Code.OK)) {
+        } catch (ExecutionException e) {
+            LOG.warn("Unable to read the ledgers information", e.getCause());
+            throw new BKAuditException(
+                    "Exception while getting the bookie-ledgers", e.getCause());
+        } catch (IOException e) {
             throw new BKAuditException(
-                    "Exception while getting the bookie-ledgers", BKException
-                            .create(resultCode.get(0)));
+                    "Exception while getting the bookie-ledgers", e);
         }
         return bookie2ledgersMap;
     }
@@ -0,0 +1,366 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.bookkeeper.replication;
+
+import com.google.common.annotations.VisibleForTesting;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BiConsumer;
+import org.apache.bookkeeper.client.BKException;
+import org.apache.bookkeeper.client.api.LedgerMetadata;
+import org.apache.bookkeeper.meta.LedgerManager;
+import org.apache.bookkeeper.net.BookieId;
+import org.apache.bookkeeper.proto.BookkeeperInternalCallbacks.LedgerMetadataListener;
+import org.apache.bookkeeper.replication.ReplicationException.BKAuditException;
+import org.apache.bookkeeper.versioning.Versioned;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Bookie vs its corresponding ledgers, kept up to date from ledger metadata changes.
+ *
+ * <p>Unlike {@link BookieLedgerIndexer}, which reads the metadata of every ledger each time it builds the
+ * index, this index applies ensemble changes and deletions as they are notified. When the ledger manager
+ * supports it, a single watch on all the ledgers notifies the changes, and the ledgers created after the first
+ * discovery; otherwise a metadata listener is registered on every ledger. New ledgers are also found by
+ * {@link #discoverLedgers()}, which only lists the ledger ids; the metadata of a ledger is read once, when it
+ * is first discovered. The reads are asynchronous, at most {@link #MAX_READS_IN_FLIGHT} of them are in flight
+ * at any time.
+ */
+public class IncrementalBookieLedgerIndex implements LedgerMetadataListener, AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(IncrementalBookieLedgerIndex.class);
+
+    static final int MAX_READS_IN_FLIGHT = LedgerManager.DEFAULT_BULK_READ_MAX_IN_FLIGHT;
+
+    private final LedgerManager ledgerManager;
+    private final long zkOpTimeoutMs;
+    // notified of the metadata changes of indexed ledgers, once the initial discovery is done
+    private final BiConsumer<Long, LedgerMetadata> ledgerChangedListener;
+
+    private final ConcurrentHashMap<String, Set<Long>> bookie2ledgersMap = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Long, Set<String>> ledger2bookiesMap = new ConcurrentHashMap<>();
+    // ledgers listed whose metadata wasn't received yet, and whether they were found after the initial
+    // discovery, in which case the listener is notified when they are indexed
+    private final ConcurrentHashMap<Long, Boolean> pendingLedgers = new ConcurrentHashMap<>();
+    // guarded by this: ledgers whose metadata is to be read, pending or indexed ones to refresh
+    private final Set<Long> readQueue = new LinkedHashSet<>();
+    // guarded by this: ledgers whose metadata is being read
+    private final Set<Long> readsInFlight = new HashSet<>();
+    // guarded by this: indexed ledgers queued to be read again, after the watch on all the ledgers was reset
+    private final Set<Long> refreshedLedgers = new HashSet<>();
+    // serializes discoveries
+    private final Object discoveryLock = new Object();
+    // guarded by discoveryLock
+    private boolean watchRegistered = false;
+    private volatile boolean watchingAllLedgers = false;
+    private volatile boolean watchReset = false;
+    private volatile boolean discovered = false;
+    private volatile boolean closed = false;
+
+    public IncrementalBookieLedgerIndex(LedgerManager ledgerManager, long zkOpTimeoutMs,
+                                        BiConsumer<Long, LedgerMetadata> ledgerChangedListener) {
+        this.ledgerManager = ledgerManager;
+        this.zkOpTimeoutMs = zkOpTimeoutMs;
+        this.ledgerChangedListener = ledgerChangedListener;
+    }
+
+    /**
+     * List the ledger ids and start reading the metadata of the ledgers which are not indexed yet. Ledgers which
+     * are indexed but no longer listed have been deleted without a notification and are dropped.
+     *
+     * <p>Listing the ledgers blocks, the metadata is read asynchronously: the index is ready once all of it was
+     * received, see {@link #isReady()}. Reads which failed are retried by the next discovery.
+     *
+     * @throws BKAuditException if the ledgers can't be listed
+     */
+    public void discoverLedgers() throws BKAuditException {
+        synchronized (discoveryLock) {
+            if (closed) {
+                return;
+            }
+            if (!watchRegistered) {
+                watchingAllLedgers = watchAllLedgers();
+                watchRegistered = true;
+            }
+            Set<Long> indexedBefore = new HashSet<>(ledger2bookiesMap.keySet());
+            List<Long> newLedgers = new ArrayList<>();
+            int numRetried = 0;
+            try {
+                LedgerManager.LedgerRangeIterator iterator = ledgerManager.getLedgerRanges(zkOpTimeoutMs);
+                while (iterator.hasNext()) {
+                    for (Long ledgerId : iterator.next().getLedgers()) {
+                        if (indexedBefore.remove(ledgerId)) {
+                            continue;
+                        }
+                        if (null == pendingLedgers.putIfAbsent(ledgerId, discovered)) {
+                            newLedgers.add(ledgerId);
+                        } else if (requeueFailedRead(ledgerId)) {
+                            numRetried++;
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                throw new BKAuditException("Exception while listing the ledgers to index", e);
+            }
+            for (Long ledgerId : indexedBefore) {
+                if (!watchingAllLedgers) {
+                    ledgerManager.unregisterLedgerMetadataListener(ledgerId, this);
+                }
+                removeLedger(ledgerId);
+            }
+            int numRefreshed = 0;
+            synchronized (this) {
+                readQueue.addAll(newLedgers);
+                if (watchReset) {
+                    watchReset = false;
+                    for (Long ledgerId : ledger2bookiesMap.keySet()) {
+                        if (readQueue.add(ledgerId)) {
+                            refreshedLedgers.add(ledgerId);
+                            numRefreshed++;
+                        }
+                    }
+                }
+            }
+            if (!discovered || !newLedgers.isEmpty() || !indexedBefore.isEmpty() || numRetried > 0
+                    || numRefreshed > 0) {
+                LOG.info("Discovered {} new ledgers, dropped {} deleted ledgers, retrying {} and refreshing {}"
+                        + " ledgers, {} ledgers indexed, {} pending", newLedgers.size(), indexedBefore.size(),
+                        numRetried, numRefreshed, ledger2bookiesMap.size(), pendingLedgers.size());
+            }
+            discovered = true;
+        }
+        readMore();
+    }
+
+    private boolean watchAllLedgers() throws BKAuditException {
+        try {
+            return ledgerManager.registerAllLedgersMetadataListener(this).get(zkOpTimeoutMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new BKAuditException("Interrupted while watching the ledgers to index", e);
+        } catch (ExecutionException | TimeoutException e) {
+            throw new BKAuditException("Exception while watching the ledgers to index", e);
+        }
+    }
+
+    /**
+     * Queue again a pending ledger whose metadata read failed.
+     */
+    private synchronized boolean requeueFailedRead(long ledgerId) {
+        return !readsInFlight.contains(ledgerId) && readQueue.add(ledgerId);
+    }
+
+    /**
+     * Start reading the metadata of the queued ledgers, as long as the reads in flight allow it.
+     */
+    private void readMore() {
+        List<Long> toRead = new ArrayList<>();
+        synchronized (this) {
+            Iterator<Long> queued = readQueue.iterator();
+            while (!closed && readsInFlight.size() < MAX_READS_IN_FLIGHT && queued.hasNext()) {
+                Long ledgerId = queued.next();
+                queued.remove();
+                if (pendingLedgers.containsKey(ledgerId) || ledger2bookiesMap.containsKey(ledgerId)) {
+                    readsInFlight.add(ledgerId);
+                    toRead.add(ledgerId);
+                }
+            }
+        }
+        for (Long ledgerId : toRead) {
+            if (watchingAllLedgers || ledger2bookiesMap.containsKey(ledgerId)) {
+                ledgerManager.readLedgerMetadata(ledgerId).whenComplete((metadata, cause) -> {
+                    if (null == cause) {
+                        onChanged(ledgerId, metadata);
+                        return;
+                    }
+                    int rc = BKException.getExceptionCode(cause);
+                    if (rc == BKException.Code.NoSuchLedgerExistsOnMetadataServerException
+                            || rc == BKException.Code.NoSuchLedgerExistsException) {
+                        removeLedger(ledgerId);
+                    } else {
+                        LOG.warn("Failed to read the metadata of ledger {} to index: {}", ledgerId, rc);
+                        readDone(ledgerId);
+                    }
+                });
+            } else {
+                // the listener is notified of the current metadata once registered
+                ledgerManager.registerLedgerMetadataListener(ledgerId, this);
+            }
+        }
+    }
+
+    private void readDone(long ledgerId) {
+        boolean wasInFlight;
+        synchronized (this) {
+            wasInFlight = readsInFlight.remove(ledgerId);
+            refreshedLedgers.remove(ledgerId);
+        }
+        if (wasInFlight) {
+            readMore();
+        }
+    }
+
+    /**
+     * The index is complete once the ledgers were discovered and the metadata of all of them received.
+     */
+    public boolean isReady() {
+        return discovered && pendingLedgers.isEmpty() && !closed;
+    }
+
+    @VisibleForTesting
+    synchronized int getNumReadsInFlight() {
+        return readsInFlight.size();
+    }
+
+    /**
+     * Get a snapshot of the bookie vs its ledgers map.
+     */
+    public Map<String, Set<Long>> getBookieToLedgerIndex() {
+        Map<String, Set<Long>> snapshot = new HashMap<>();
+        bookie2ledgersMap.forEach((bookie, ledgers) -> {
+            if (!ledgers.isEmpty()) {
+                snapshot.put(bookie, new HashSet<>(ledgers));
+            }
+        });
+        return snapshot;
+    }
+
+    /**
+     * Get the ledgers having <i>bookie</i> in one of their ensembles.
+     */
+    public Set<Long> getLedgersOfBookie(String bookie) {
+        Set<Long> ledgers = bookie2ledgersMap.get(bookie);
+        return null == ledgers ? Collections.emptySet() : new HashSet<>(ledgers);
+    }
+
+    @Override
+    public void onChanged(long ledgerId, Versioned<LedgerMetadata> metadata) {
+        if (closed) {
+            return;
+        }
+        if (null == metadata) {
+            removeLedger(ledgerId);
+            return;
+        }
+        Set<String> bookies = new HashSet<>();
+        for (List<BookieId> ensemble : metadata.getValue().getAllEnsembles().values()) {
+            for (BookieId bookie : ensemble) {
+                bookies.add(bookie.toString());
+            }
+        }
+        Set<String> oldBookies;
+        boolean notify;
+        synchronized (this) {
+            Boolean foundAfterInitialDiscovery = pendingLedgers.remove(ledgerId);
+            boolean indexed = ledger2bookiesMap.containsKey(ledgerId);
+            if (closed || (null == foundAfterInitialDiscovery && !indexed && !watchingAllLedgers)) {
+                // a late notification of a ledger which was removed meanwhile must not index it again
+                return;
+            }
+            boolean refreshed = refreshedLedgers.contains(ledgerId);
+            oldBookies = ledger2bookiesMap.put(ledgerId, bookies);
+            if (null != oldBookies) {
+                for (String bookie : oldBookies) {
+                    if (!bookies.contains(bookie)) {
+                        Set<Long> ledgers = bookie2ledgersMap.get(bookie);
+                        if (null != ledgers) {
+                            ledgers.remove(ledgerId);
+                        }
+                    }
+                }
+            }
+            for (String bookie : bookies) {
+                bookie2ledgersMap.computeIfAbsent(bookie, k -> ConcurrentHashMap.newKeySet()).add(ledgerId);
+            }
+            if (null != foundAfterInitialDiscovery) {
+                notify = foundAfterInitialDiscovery;
+            } else if (refreshed) {
+                // only the changes missed while the watch was reset
+                notify = !bookies.equals(oldBookies);
+            } else {
+                // ledgers created after the discovery are notified by the watch on all the ledgers
+                notify = indexed || discovered;
+            }
+        }
+        readDone(ledgerId);
+        if (notify && null != ledgerChangedListener) {
+            ledgerChangedListener.accept(ledgerId, metadata.getValue());
+        }
+    }
+
+    @Override
+    public void onWatchReset() {
+        // the changes missed meanwhile are caught up by the next discovery
+        watchReset = true;
+    }
+
+    private void removeLedger(long ledgerId) {
+        synchronized (this) {
+            pendingLedgers.remove(ledgerId);
+            readQueue.remove(ledgerId);
+            Set<String> bookies = ledger2bookiesMap.remove(ledgerId);
+            if (null != bookies) {
+                for (String bookie : bookies) {
+                    Set<Long> ledgers = bookie2ledgersMap.get(bookie);
+                    if (null != ledgers) {
+                        ledgers.remove(ledgerId);
+                    }
+                }
+            }
+        }
+        readDone(ledgerId);
+    }
+
+    @Override
+    public void close() {
+        boolean unregisterAll;
+        List<Long> watchedLedgers;
+        synchronized (this) {
+            closed = true;
+            unregisterAll = watchingAllLedgers;
+            watchedLedgers = new ArrayList<>(ledger2bookiesMap.keySet());
+            watchedLedgers.addAll(readsInFlight);
+            ledger2bookiesMap.clear();
+            bookie2ledgersMap.clear();
+            pendingLedgers.clear();
+            readQueue.clear();
+            readsInFlight.clear();
+            refreshedLedgers.clear();
+        }
+        if (unregisterAll) {
+            ledgerManager.unregisterAllLedgersMetadataListener(this);
+        } else {
+            for (Long ledgerId : watchedLedgers) {
+                ledgerManager.unregisterLedgerMetadataListener(ledgerId, this);
+            }
+        }
+    }
+}
@@ -66,5 +66,8 @@ public interface ReplicationStats {
     String NUM_ENTRIES_UNABLE_TO_READ_FOR_REPLICATION = "NUM_ENTRIES_UNABLE_TO_READ_FOR_REPLICATION";
     String NUM_UNDER_REPLICATED_LEDGERS_GUAGE = "NUM_UNDER_REPLICATED_LEDGERS_GUAGE";
     String NUM_REPLICATED_LEDGERS = "NUM_REPLICATED_LEDGERS";
+    String NUM_ENTRIES_PENDING_REPLICATION = "NUM_ENTRIES_PENDING_REPLICATION";
+    String REPLICATION_BYTES_PER_SECOND = "REPLICATION_BYTES_PER_SECOND";
+    String REPLICATION_ETA_SECONDS = "REPLICATION_ETA_SECONDS";
     String NUM_NOT_ADHERING_PLACEMENT_LEDGERS_REPLICATED = "NUM_NOT_ADHERING_PLACEMENT_LEDGERS_REPLICATED";
 }
@@ -36,7 +36,6 @@ import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import java.io.IOException;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
@@ -46,6 +45,7 @@ import java.util.SortedMap;
 import java.util.Timer;
 import java.util.TimerTask;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentSkipListSet;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
@@ -83,6 +83,7 @@ import org.slf4j.LoggerFactory;
 /**
  * ReplicationWorker will take the fragments one by one from
  * ZKLedgerUnderreplicationManager and replicates to it.
+ * Up to {@code rwNumConcurrentLedgers} ledgers are replicated concurrently, each by its own thread.
  */
 @StatsDoc(
     name = REPLICATION_WORKER_SCOPE,
@@ -97,11 +98,14 @@ public class ReplicationWorker implements Runnable {
     private final LedgerUnderreplicationManager underreplicationManager;
     private final ServerConfiguration conf;
     private volatile boolean workerRunning = false;
+    // guarded by this
+    private boolean workerShutdown = false;
     private final BookKeeperAdmin admin;
     private final LedgerChecker ledgerChecker;
     private final BookKeeper bkc;
     private final boolean ownBkc;
-    private final Thread workerThread;
+    // each thread replicates one ledger at a time
+    private final Thread[] workerThreads;
     private final long rwRereplicateBackoffMs;
     private final long openLedgerRereplicationGracePeriod;
     private final Timer pendingReplicationTimer;
@@ -190,7 +194,12 @@ public class ReplicationWorker implements Runnable {
         this.ledgerManager = bkc.getLedgerManagerFactory().newLedgerManager();
         this.admin = new BookKeeperAdmin(bkc, statsLogger, new ClientConfiguration(conf));
         this.ledgerChecker = new LedgerChecker(bkc);
-        this.workerThread = new BookieThread(this, "ReplicationWorker");
+        int numConcurrentLedgers = Math.max(1, conf.getRwNumConcurrentLedgers());
+        this.workerThreads = new Thread[numConcurrentLedgers];
+        for (int i = 0; i < numConcurrentLedgers; i++) {
+            this.workerThreads[i] = new BookieThread(this,
+                    i == 0 ? "ReplicationWorker" : "ReplicationWorker-" + i);
+        }
         this.openLedgerRereplicationGracePeriod = conf
                 .getOpenLedgerRereplicationGracePeriod();
         this.lockReleaseOfFailedLedgerGracePeriod = conf.getLockReleaseOfFailedLedgerGracePeriod();
@@ -225,7 +234,7 @@ public class ReplicationWorker implements Runnable {
                 .getCounter(NUM_ENTRIES_UNABLE_TO_READ_FOR_REPLICATION);
         this.numNotAdheringPlacementLedgersReplicated = this.statsLogger
                 .getCounter(NUM_NOT_ADHERING_PLACEMENT_LEDGERS_REPLICATED);
-        this.exceptionCounters = new HashMap<String, Counter>();
+        this.exceptionCounters = new ConcurrentHashMap<String, Counter>();
         this.onReadEntryFailureCallback = (ledgerid, entryid) -> {
             numEntriesUnableToReadForReplication.inc();
             unableToReadEntriesForReplication.getUnchecked(ledgerid).add(entryid);
@@ -236,12 +245,20 @@ public class ReplicationWorker implements Runnable {
      * Start the replication worker.
      */
     public void start() {
-        this.workerThread.start();
+        synchronized (this) {
+            if (workerRunning || workerShutdown) {
+                return;
+            }
+            // set once for all the threads: a thread starting late must not undo a shutdown
+            workerRunning = true;
+        }
+        for (Thread workerThread : workerThreads) {
+            workerThread.start();
+        }
     }
 
     @Override
     public void run() {
-        workerRunning = true;
         while (workerRunning) {
             try {
                 if (!rereplicate()) {
@@ -744,16 +761,24 @@ public class ReplicationWorker implements Runnable {
         LOG.info("Shutting down replication worker");
 
         synchronized (this) {
-            if (!workerRunning) {
+            if (workerShutdown) {
                 return;
             }
+            workerShutdown = true;
             workerRunning = false;
         }
         LOG.info("Shutting down ReplicationWorker");
         this.pendingReplicationTimer.cancel();
         try {
-            this.workerThread.interrupt();
-            this.workerThread.join();
+            for (Thread workerThread : workerThreads) {
+                workerThread.interrupt();
+            }
+            for (Thread workerThread : workerThreads) {
+                // shutdown may be called by a worker thread on a fatal error
+                if (workerThread != Thread.currentThread()) {
+                    workerThread.join();
+                }
+            }
         } catch (InterruptedException e) {
             LOG.error("Interrupted during shutting down replication worker : ",
                     e);
@@ -782,7 +807,15 @@ public class ReplicationWorker implements Runnable {
      */
     @VisibleForTesting
     public boolean isRunning() {
-        return workerRunning && workerThread.isAlive();
+        if (!workerRunning) {
+            return false;
+        }
+        for (Thread workerThread : workerThreads) {
+            if (workerThread.isAlive()) {
+                return true;
+            }
+        }
+        return false;
     }
 
     /**
@@ -810,12 +843,7 @@ public class ReplicationWorker implements Runnable {
     }
 
     private Counter getExceptionCounter(String name) {
-        Counter counter = this.exceptionCounters.get(name);
-        if (counter == null) {
-            counter = this.exceptionLogger.getCounter(name);
-            this.exceptionCounters.put(name, counter);
-        }
-        return counter;
+        return this.exceptionCounters.computeIfAbsent(name, exceptionLogger::getCounter);
     }
 
 }
@@ -428,7 +428,8 @@ public class EmbeddedServer {
 
             // 5. build bookie server
             BookieService bookieService =
-                    new BookieService(conf, bookie, rootStatsLogger, allocatorWithOomHandler, uncleanShutdownDetection);
+                    new BookieService(conf, bookie, rootStatsLogger, allocatorWithOomHandler, uncleanShutdownDetection,
+                            metadataDriver);
 
             serverBuilder.addComponent(bookieService);
             log.info("Load lifecycle component : {}", BookieService.class.getName());
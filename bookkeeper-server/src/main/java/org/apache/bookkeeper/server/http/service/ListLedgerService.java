@@ -22,9 +22,10 @@ import static com.google.common.base.Preconditions.checkNotNull;
 import static java.nio.charset.StandardCharsets.UTF_8;
 
 import com.google.common.collect.Maps;
+import java.util.ArrayList;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.CompletableFuture;
 import org.apache.bookkeeper.client.api.LedgerMetadata;
 import org.apache.bookkeeper.common.util.JsonUtil;
 import org.apache.bookkeeper.conf.ServerConfiguration;
@@ -64,14 +65,25 @@ public class ListLedgerService implements HttpEndpointService {
     // Number of LedgerMetadata contains in each page
     static final int LIST_LEDGER_BATCH_SIZE = 100;
 
-    private void keepLedgerMetadata(long ledgerId, CompletableFuture<Versioned<LedgerMetadata>> future,
+    /**
+     * Read the metadata of a page of ledgers at once, and keep it in the listing order.
+     */
+    private void keepLedgerMetadata(LedgerManager manager, List<Long> ledgerIds,
                                     LinkedHashMap<String, Object> output, boolean decodeMeta)
             throws Exception {
-        LedgerMetadata md = future.get().getValue();
-        if (decodeMeta) {
-            output.put(Long.valueOf(ledgerId).toString(), md);
-        } else {
-            output.put(Long.valueOf(ledgerId).toString(), new String(serDe.serialize(md), UTF_8));
+        Map<Long, Versioned<LedgerMetadata>> metadatas = manager.readLedgerMetadata(ledgerIds).get();
+        for (Long ledgerId : ledgerIds) {
+            Versioned<LedgerMetadata> metadata = metadatas.get(ledgerId);
+            if (null == metadata) {
+                // deleted since it was listed
+                continue;
+            }
+            LedgerMetadata md = metadata.getValue();
+            if (decodeMeta) {
+                output.put(ledgerId.toString(), md);
+            } else {
+                output.put(ledgerId.toString(), new String(serDe.serialize(md), UTF_8));
+            }
         }
     }
 
@@ -100,9 +112,8 @@ public class ListLedgerService implements HttpEndpointService {
 
             // output <ledgerId: ledgerMetadata>
             LinkedHashMap<String, Object> output = Maps.newLinkedHashMap();
-            // futures for readLedgerMetadata for each page.
-            Map<Long, CompletableFuture<Versioned<LedgerMetadata>>> futures =
-                new LinkedHashMap<>(LIST_LEDGER_BATCH_SIZE);
+            // ledgers whose metadata is read for each page.
+            List<Long> ledgerIds = new ArrayList<>(LIST_LEDGER_BATCH_SIZE);
 
             if (printMeta) {
                 int ledgerIndex = 0;
@@ -122,20 +133,16 @@ public class ListLedgerService implements HttpEndpointService {
                         ledgerIndex++;
                         if (endLedgerIndex == 0       // no actual page parameter provided
                                 || (ledgerIndex >= startLedgerIndex && ledgerIndex <= endLedgerIndex)) {
-                            futures.put(lid, manager.readLedgerMetadata(lid));
+                            ledgerIds.add(lid);
                         }
                     }
-                    if (futures.size() >= LIST_LEDGER_BATCH_SIZE) {
-                        for (Map.Entry<Long, CompletableFuture<Versioned<LedgerMetadata>> > e : futures.entrySet()) {
-                            keepLedgerMetadata(e.getKey(), e.getValue(), output, decodeMeta);
-                        }
-                        futures.clear();
+                    if (ledgerIds.size() >= LIST_LEDGER_BATCH_SIZE) {
+                        keepLedgerMetadata(manager, ledgerIds, output, decodeMeta);
+                        ledgerIds.clear();
                     }
                 }
-                for (Map.Entry<Long, CompletableFuture<Versioned<LedgerMetadata>> > e : futures.entrySet()) {
-                    keepLedgerMetadata(e.getKey(), e.getValue(), output, decodeMeta);
-                }
-                futures.clear();
+                keepLedgerMetadata(manager, ledgerIds, output, decodeMeta);
+                ledgerIds.clear();
             } else {
                 while (iter.hasNext()) {
                     LedgerManager.LedgerRange r = iter.next();
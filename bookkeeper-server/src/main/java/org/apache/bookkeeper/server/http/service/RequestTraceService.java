@@ -0,0 +1,87 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.bookkeeper.server.http.service;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import lombok.AllArgsConstructor;
+import lombok.NonNull;
+import org.apache.bookkeeper.common.util.JsonUtil;
+import org.apache.bookkeeper.http.HttpServer;
+import org.apache.bookkeeper.http.service.HttpEndpointService;
+import org.apache.bookkeeper.http.service.HttpServiceRequest;
+import org.apache.bookkeeper.http.service.HttpServiceResponse;
+import org.apache.bookkeeper.proto.BookieServer;
+import org.apache.bookkeeper.proto.RequestTracer;
+
+/**
+ * HttpEndpointService that exposes the per-stage latency breakdown of the add and read requests
+ * sampled by the request tracing. Latencies are in microseconds, the latency of a stage being the time
+ * elapsed since the previous stage the request went through.
+ *
+ * <pre>
+ * <code>
+ * {
+ *  "sampleEvery" : 100,
+ *  "add" : {
+ *    "decode" : { "count" : 1000, "p50" : 4, "p99" : 21, "p999" : 35 },
+ *    "requestQueue" : { ... },
+ *    "ledgerStorage" : { ... },
+ *    "journalQueue" : { ... },
+ *    "journalWrite" : { ... },
+ *    "journalSync" : { ... },
+ *    "callback" : { ... },
+ *    "responseFlush" : { ... },
+ *    "total" : { ... }
+ *  },
+ *  "read" : { ... }
+ * }
+ * </code>
+ * </pre>
+ */
+@AllArgsConstructor
+public class RequestTraceService implements HttpEndpointService {
+    @NonNull private final BookieServer bookieServer;
+
+    @Override
+    public HttpServiceResponse handle(HttpServiceRequest request) throws Exception {
+        HttpServiceResponse response = new HttpServiceResponse();
+
+        if (HttpServer.Method.GET != request.getMethod()) {
+            response.setCode(HttpServer.StatusCode.NOT_FOUND);
+            response.setBody("Only GET is supported.");
+            return response;
+        }
+
+        RequestTracer tracer = bookieServer.getBookieRequestProcessor().getRequestTracer();
+        if (!tracer.isEnabled()) {
+            response.setCode(HttpServer.StatusCode.NOT_FOUND);
+            response.setBody("Request tracing is disabled, set requestTraceSampleEvery to enable it.");
+            return response;
+        }
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("sampleEvery", tracer.getSampleEvery());
+        result.putAll(tracer.getLatencyBreakdown());
+
+        response.setBody(JsonUtil.toJson(result));
+        response.setCode(HttpServer.StatusCode.OK);
+        return response;
+    }
+}
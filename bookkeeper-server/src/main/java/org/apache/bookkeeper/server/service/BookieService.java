@@ -28,6 +28,7 @@ import org.apache.bookkeeper.bookie.UncleanShutdownDetection;
 import org.apache.bookkeeper.common.allocator.ByteBufAllocatorWithOomHandler;
 import org.apache.bookkeeper.common.component.ComponentInfoPublisher;
 import org.apache.bookkeeper.common.component.ComponentInfoPublisher.EndpointInfo;
+import org.apache.bookkeeper.meta.MetadataBookieDriver;
 import org.apache.bookkeeper.net.BookieSocketAddress;
 import org.apache.bookkeeper.proto.BookieServer;
 import org.apache.bookkeeper.server.component.ServerLifecycleComponent;
@@ -53,12 +54,23 @@ public class BookieService extends ServerLifecycleComponent {
                          ByteBufAllocatorWithOomHandler allocator,
                          UncleanShutdownDetection uncleanShutdownDetection)
             throws Exception {
+        this(conf, bookie, statsLogger, allocator, uncleanShutdownDetection, null);
+    }
+
+    public BookieService(BookieConfiguration conf,
+                         Bookie bookie,
+                         StatsLogger statsLogger,
+                         ByteBufAllocatorWithOomHandler allocator,
+                         UncleanShutdownDetection uncleanShutdownDetection,
+                         MetadataBookieDriver metadataDriver)
+            throws Exception {
         super(NAME, conf, statsLogger);
         this.server = new BookieServer(conf.getServerConf(),
                                        bookie,
                                        statsLogger,
                                        allocator,
-                                       uncleanShutdownDetection);
+                                       uncleanShutdownDetection,
+                                       metadataDriver);
         this.allocator = allocator;
     }
 
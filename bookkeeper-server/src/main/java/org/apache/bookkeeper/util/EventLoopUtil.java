@@ -43,19 +43,21 @@ public class EventLoopUtil {
     private static final String ENABLE_IO_URING = "enable.io_uring";
 
     public static EventLoopGroup getClientEventLoopGroup(ClientConfiguration conf, ThreadFactory threadFactory) {
-        return getEventLoopGroup(threadFactory, conf.getNumIOThreads(), conf.isBusyWaitEnabled());
+        return getEventLoopGroup(threadFactory, conf.getNumIOThreads(), conf.isBusyWaitEnabled(),
+                conf.isBusyWaitEnabled());
     }
 
     public static EventLoopGroup getServerEventLoopGroup(ServerConfiguration conf, ThreadFactory threadFactory) {
-        return getEventLoopGroup(threadFactory, conf.getServerNumIOThreads(), conf.isBusyWaitEnabled());
+        return getEventLoopGroup(threadFactory, conf.getServerNumIOThreads(), conf.isBusyWaitEnabled(),
+                conf.isBusyWaitEnabled() || conf.isThreadPerCoreEnabled());
     }
 
     public static EventLoopGroup getServerAcceptorGroup(ServerConfiguration conf, ThreadFactory threadFactory) {
-        return getEventLoopGroup(threadFactory, conf.getServerNumAcceptorThreads(), false);
+        return getEventLoopGroup(threadFactory, conf.getServerNumAcceptorThreads(), false, false);
     }
 
     private static EventLoopGroup getEventLoopGroup(ThreadFactory threadFactory,
-            int numThreads, boolean enableBusyWait) {
+            int numThreads, boolean enableBusyWait, boolean enableCpuAffinity) {
         if (!SystemUtils.IS_OS_LINUX) {
             return new NioEventLoopGroup(numThreads, threadFactory);
         }
@@ -70,15 +72,20 @@ public class EventLoopUtil {
             return new IOUringEventLoopGroup(numThreads, threadFactory);
         } else {
             try {
-                if (!enableBusyWait) {
+                if (!enableBusyWait && !enableCpuAffinity) {
                     // Regular Epoll based event loop
                     return new EpollEventLoopGroup(numThreads, threadFactory);
                 }
 
-                // With low latency setting, put the Netty event loop on busy-wait loop to reduce cost of
-                // context switches
-                EpollEventLoopGroup eventLoopGroup = new EpollEventLoopGroup(numThreads, threadFactory,
-                        () -> (selectSupplier, hasTasks) -> SelectStrategy.BUSY_WAIT);
+                final EpollEventLoopGroup eventLoopGroup;
+                if (enableBusyWait) {
+                    // With low latency setting, put the Netty event loop on busy-wait loop to reduce cost of
+                    // context switches
+                    eventLoopGroup = new EpollEventLoopGroup(numThreads, threadFactory,
+                            () -> (selectSupplier, hasTasks) -> SelectStrategy.BUSY_WAIT);
+                } else {
+                    eventLoopGroup = new EpollEventLoopGroup(numThreads, threadFactory);
+                }
 
                 // Enable CPU affinity on IO threads
                 for (int i = 0; i < numThreads; i++) {
@@ -0,0 +1,163 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import org.apache.bookkeeper.common.util.MathUtils;
+
+/**
+ * A lock-free log-linear latency histogram over a two-generation sliding window.
+ *
+ * <p>Values below {@code 2^SUB_BUCKET_BITS} microseconds are counted exactly; above that, every power
+ * of two is split into {@code 2^SUB_BUCKET_BITS} buckets, which bounds the relative error to ~6%.
+ * The client tracks the read latency of the bookies with it, and the bookie its own request latencies.
+ */
+public final class LatencyHistogram {
+
+    static final int SUB_BUCKET_BITS = 4;
+    static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    // values are capped to 2^31 - 1 micros (~35 minutes)
+    static final long MAX_VALUE = Integer.MAX_VALUE;
+    static final int NUM_BUCKETS = (31 - SUB_BUCKET_BITS + 1) * SUB_BUCKET_COUNT;
+
+    private static final AtomicLongFieldUpdater<LatencyHistogram> WINDOW_START_UPDATER =
+            AtomicLongFieldUpdater.newUpdater(LatencyHistogram.class, "windowStartNanos");
+    private static final AtomicLongFieldUpdater<LatencyHistogram> EWMA_UPDATER =
+            AtomicLongFieldUpdater.newUpdater(LatencyHistogram.class, "ewmaMicros");
+    // weight of a new sample in the moving average, as a power of two (1/8)
+    static final int EWMA_WEIGHT_SHIFT = 3;
+
+    private final long windowNanos;
+    private volatile long windowStartNanos;
+    private volatile AtomicLongArray current = new AtomicLongArray(NUM_BUCKETS);
+    private volatile AtomicLongArray previous = new AtomicLongArray(NUM_BUCKETS);
+    private volatile long ewmaMicros = -1L;
+
+    public LatencyHistogram(long windowNanos) {
+        this.windowNanos = windowNanos;
+        this.windowStartNanos = MathUtils.nowInNano();
+    }
+
+    static int bucketIndex(long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) Math.max(0L, value);
+        }
+        long v = Math.min(value, MAX_VALUE);
+        int shift = 63 - Long.numberOfLeadingZeros(v) - SUB_BUCKET_BITS;
+        int mantissa = (int) ((v >>> shift) & (SUB_BUCKET_COUNT - 1));
+        return (shift + 1) * SUB_BUCKET_COUNT + mantissa;
+    }
+
+    static long bucketUpperBound(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        int shift = index / SUB_BUCKET_COUNT - 1;
+        long mantissa = index % SUB_BUCKET_COUNT;
+        return ((SUB_BUCKET_COUNT + mantissa + 1) << shift) - 1;
+    }
+
+    public void record(long valueMicros, long nowNanos) {
+        maybeRotate(nowNanos);
+        current.incrementAndGet(bucketIndex(valueMicros));
+        long sample = Math.min(Math.max(0L, valueMicros), MAX_VALUE);
+        long prev;
+        long next;
+        do {
+            prev = ewmaMicros;
+            next = prev < 0 ? sample : prev + ((sample - prev) >> EWMA_WEIGHT_SHIFT);
+        } while (!EWMA_UPDATER.compareAndSet(this, prev, next));
+    }
+
+    public long getEwma() {
+        return ewmaMicros;
+    }
+
+    public long getPercentile(double percentile, int minSamples, long nowNanos) {
+        long[] counts = new long[NUM_BUCKETS];
+        long total = snapshot(counts, nowNanos);
+        if (total < minSamples) {
+            return -1L;
+        }
+        return percentile(counts, total, percentile);
+    }
+
+    /**
+     * Return the number of samples in the window and the values at the given percentiles, all computed from
+     * the same snapshot of the histogram.
+     *
+     * @return the number of samples, followed by the value at each of the <i>percentiles</i>, or -1 for each
+     *         of them if there are no samples
+     */
+    public long[] getCountAndPercentiles(double[] percentiles, long nowNanos) {
+        long[] counts = new long[NUM_BUCKETS];
+        long total = snapshot(counts, nowNanos);
+        long[] result = new long[percentiles.length + 1];
+        result[0] = total;
+        for (int i = 0; i < percentiles.length; i++) {
+            result[i + 1] = total > 0 ? percentile(counts, total, percentiles[i]) : -1L;
+        }
+        return result;
+    }
+
+    private long snapshot(long[] counts, long nowNanos) {
+        maybeRotate(nowNanos);
+        AtomicLongArray cur = current;
+        AtomicLongArray prev = previous;
+        long total = 0;
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            counts[i] = cur.get(i) + prev.get(i);
+            total += counts[i];
+        }
+        return total;
+    }
+
+    private static long percentile(long[] counts, long total, double percentile) {
+        long rank = (long) Math.ceil(total * Math.min(100.0, Math.max(0.0, percentile)) / 100.0);
+        long seen = 0;
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank && counts[i] > 0) {
+                return bucketUpperBound(i);
+            }
+        }
+        return MAX_VALUE;
+    }
+
+    private void maybeRotate(long nowNanos) {
+        long start = windowStartNanos;
+        if (nowNanos - start < windowNanos) {
+            return;
+        }
+        // only the thread winning the race rotates; samples recorded concurrently into the old
+        // generation are simply accounted in the previous window
+        if (WINDOW_START_UPDATER.compareAndSet(this, start, nowNanos)) {
+            if (nowNanos - start >= 2 * windowNanos) {
+                // nothing was rotated in a whole window, both generations are stale
+                previous = new AtomicLongArray(NUM_BUCKETS);
+            } else {
+                previous = current;
+            }
+            current = new AtomicLongArray(NUM_BUCKETS);
+        }
+    }
+}
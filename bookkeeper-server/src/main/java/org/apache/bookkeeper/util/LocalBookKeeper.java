@@ -529,7 +529,7 @@ public class LocalBookKeeper implements AutoCloseable {
                                     ledgerDirsManager, indexDirsManager,
                                     NullStatsLogger.INSTANCE, allocator, bookieServiceInfoProvider);
             server = new BookieServer(conf, bookie, NullStatsLogger.INSTANCE, allocator,
-                                      shutdownManager);
+                                      shutdownManager, metadataDriver);
         }
 
         void start() throws Exception {
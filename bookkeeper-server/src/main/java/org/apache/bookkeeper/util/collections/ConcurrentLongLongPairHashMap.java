@@ -39,7 +39,7 @@ import java.util.concurrent.locks.StampedLock;
  *
  * <p>Keys <strong>MUST</strong> be &gt;= 0.
  */
-public class ConcurrentLongLongPairHashMap {
+public class ConcurrentLongLongPairHashMap implements ConcurrentLongLongPairMap {
 
     private static final long EmptyKey = -1L;
     private static final long DeletedKey = -2L;
@@ -177,6 +177,7 @@ public class ConcurrentLongLongPairHashMap {
         }
     }
 
+    @Override
     public long size() {
         long size = 0;
         for (Section s : sections) {
@@ -185,6 +186,7 @@ public class ConcurrentLongLongPairHashMap {
         return size;
     }
 
+    @Override
     public long sizeInBytes() {
         long size = 0;
         for (Section s : sections) {
@@ -193,6 +195,7 @@ public class ConcurrentLongLongPairHashMap {
         return size;
     }
 
+    @Override
     public long capacity() {
         long capacity = 0;
         for (Section s : sections) {
@@ -201,6 +204,7 @@ public class ConcurrentLongLongPairHashMap {
         return capacity;
     }
 
+    @Override
     public boolean isEmpty() {
         for (Section s : sections) {
             if (s.size != 0) {
@@ -224,16 +228,19 @@ public class ConcurrentLongLongPairHashMap {
      * @param key
      * @return the value or -1 if the key was not present
      */
+    @Override
     public LongPair get(long key1, long key2) {
         checkBiggerEqualZero(key1);
         long h = hash(key1, key2);
         return getSection(h).get(key1, key2, (int) h);
     }
 
+    @Override
     public boolean containsKey(long key1, long key2) {
         return get(key1, key2) != null;
     }
 
+    @Override
     public boolean put(long key1, long key2, long value1, long value2) {
         checkBiggerEqualZero(key1);
         checkBiggerEqualZero(value1);
@@ -241,6 +248,7 @@ public class ConcurrentLongLongPairHashMap {
         return getSection(h).put(key1, key2, value1, value2, (int) h, false);
     }
 
+    @Override
     public boolean putIfAbsent(long key1, long key2, long value1, long value2) {
         checkBiggerEqualZero(key1);
         checkBiggerEqualZero(value1);
@@ -254,12 +262,14 @@ public class ConcurrentLongLongPairHashMap {
      * @param key
      * @return the value associated with the key or -1 if key was not present
      */
+    @Override
     public boolean remove(long key1, long key2) {
         checkBiggerEqualZero(key1);
         long h = hash(key1, key2);
         return getSection(h).remove(key1, key2, ValueNotFound, ValueNotFound, (int) h);
     }
 
+    @Override
     public boolean remove(long key1, long key2, long value1, long value2) {
         checkBiggerEqualZero(key1);
         checkBiggerEqualZero(value1);
@@ -273,12 +283,14 @@ public class ConcurrentLongLongPairHashMap {
         return sections[sectionIdx];
     }
 
+    @Override
     public void clear() {
         for (Section s : sections) {
             s.clear();
         }
     }
 
+    @Override
     public void forEach(BiConsumerLongPair processor) {
         for (Section s : sections) {
             s.forEach(processor);
@@ -288,24 +300,34 @@ public class ConcurrentLongLongPairHashMap {
     /**
      * @return a new list of all keys (makes a copy)
      */
+    @Override
     public List<LongPair> keys() {
         List<LongPair> keys = Lists.newArrayList();
         forEach((key1, key2, value1, value2) -> keys.add(new LongPair(key1, key2)));
         return keys;
     }
 
+    @Override
     public List<LongPair> values() {
         List<LongPair> values = Lists.newArrayList();
         forEach((key1, key2, value1, value2) -> values.add(new LongPair(value1, value2)));
         return values;
     }
 
+    @Override
     public Map<LongPair, LongPair> asMap() {
         Map<LongPair, LongPair> map = Maps.newHashMap();
         forEach((key1, key2, value1, value2) -> map.put(new LongPair(key1, key2), new LongPair(value1, value2)));
         return map;
     }
 
+    /**
+     * The tables are on-heap, so there is nothing to release.
+     */
+    @Override
+    public void close() {
+    }
+
     // A section is a portion of the hash map that is covered by a single
     @SuppressWarnings("serial")
     private static final class Section extends StampedLock {
@@ -0,0 +1,667 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.util.collections;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static org.apache.bookkeeper.util.collections.ConcurrentLongLongPairHashMap.hash;
+import static org.apache.bookkeeper.util.collections.ConcurrentLongLongPairHashMap.signSafeMod;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.StampedLock;
+import org.apache.bookkeeper.util.collections.ConcurrentLongLongPairHashMap.BiConsumerLongPair;
+import org.apache.bookkeeper.util.collections.ConcurrentLongLongPairHashMap.LongPair;
+
+/**
+ * Off-heap variant of {@link ConcurrentLongLongPairHashMap}.
+ *
+ * <p>The tables of the sections are direct buffers obtained from a {@link ByteBufAllocator}, so that a map
+ * holding many millions of entries neither grows the heap nor slows down the GC marking. The memory used by
+ * the tables is reported by {@link #sizeInBytes()} and must be released with {@link #close()}.
+ *
+ * <p>Unlike the on-heap map, lookups take the read lock of their section rather than reading optimistically:
+ * a table released by a concurrent rehash can't be read safely, while an array stays reachable. For the same
+ * reason, the processor passed to {@link #forEach(BiConsumerLongPair)} must not modify the map.
+ *
+ * <p>Keys <strong>MUST</strong> be &gt;= 0.
+ */
+public class OffHeapConcurrentLongLongPairHashMap implements ConcurrentLongLongPairMap {
+
+    private static final long EmptyKey = -1L;
+    private static final long DeletedKey = -2L;
+
+    private static final long ValueNotFound = -1L;
+
+    private static final int DefaultExpectedItems = 256;
+    private static final int DefaultConcurrencyLevel = 16;
+
+    private static final float DefaultMapFillFactor = 0.66f;
+    private static final float DefaultMapIdleFactor = 0.15f;
+
+    private static final float DefaultExpandFactor = 2;
+    private static final float DefaultShrinkFactor = 2;
+
+    private static final boolean DefaultAutoShrink = false;
+
+    private final Section[] sections;
+
+    public static Builder newBuilder() {
+        return new Builder();
+    }
+
+    /**
+     * Builder of OffHeapConcurrentLongLongPairHashMap.
+     */
+    public static class Builder {
+        int expectedItems = DefaultExpectedItems;
+        int concurrencyLevel = DefaultConcurrencyLevel;
+        float mapFillFactor = DefaultMapFillFactor;
+        float mapIdleFactor = DefaultMapIdleFactor;
+        float expandFactor = DefaultExpandFactor;
+        float shrinkFactor = DefaultShrinkFactor;
+        boolean autoShrink = DefaultAutoShrink;
+        ByteBufAllocator allocator = ByteBufAllocator.DEFAULT;
+
+        public Builder expectedItems(int expectedItems) {
+            this.expectedItems = expectedItems;
+            return this;
+        }
+
+        public Builder concurrencyLevel(int concurrencyLevel) {
+            this.concurrencyLevel = concurrencyLevel;
+            return this;
+        }
+
+        public Builder mapFillFactor(float mapFillFactor) {
+            this.mapFillFactor = mapFillFactor;
+            return this;
+        }
+
+        public Builder mapIdleFactor(float mapIdleFactor) {
+            this.mapIdleFactor = mapIdleFactor;
+            return this;
+        }
+
+        public Builder expandFactor(float expandFactor) {
+            this.expandFactor = expandFactor;
+            return this;
+        }
+
+        public Builder shrinkFactor(float shrinkFactor) {
+            this.shrinkFactor = shrinkFactor;
+            return this;
+        }
+
+        public Builder autoShrink(boolean autoShrink) {
+            this.autoShrink = autoShrink;
+            return this;
+        }
+
+        public Builder allocator(ByteBufAllocator allocator) {
+            this.allocator = allocator;
+            return this;
+        }
+
+        public OffHeapConcurrentLongLongPairHashMap build() {
+            return new OffHeapConcurrentLongLongPairHashMap(expectedItems, concurrencyLevel,
+                    mapFillFactor, mapIdleFactor, autoShrink, expandFactor, shrinkFactor, allocator);
+        }
+    }
+
+    private OffHeapConcurrentLongLongPairHashMap(int expectedItems, int concurrencyLevel,
+                                                 float mapFillFactor, float mapIdleFactor,
+                                                 boolean autoShrink, float expandFactor, float shrinkFactor,
+                                                 ByteBufAllocator allocator) {
+        checkArgument(expectedItems > 0);
+        checkArgument(concurrencyLevel > 0);
+        checkArgument(expectedItems >= concurrencyLevel);
+        checkArgument(mapFillFactor > 0 && mapFillFactor < 1);
+        checkArgument(mapIdleFactor > 0 && mapIdleFactor < 1);
+        checkArgument(mapFillFactor > mapIdleFactor);
+        checkArgument(expandFactor > 1);
+        checkArgument(shrinkFactor > 1);
+
+        int numSections = concurrencyLevel;
+        int perSectionExpectedItems = expectedItems / numSections;
+        int perSectionCapacity = (int) (perSectionExpectedItems / mapFillFactor);
+        this.sections = new Section[numSections];
+
+        try {
+            for (int i = 0; i < numSections; i++) {
+                sections[i] = new Section(perSectionCapacity, mapFillFactor, mapIdleFactor,
+                        autoShrink, expandFactor, shrinkFactor, allocator);
+            }
+        } catch (RuntimeException | Error e) {
+            close();
+            throw e;
+        }
+    }
+
+    @Override
+    public long size() {
+        long size = 0;
+        for (Section s : sections) {
+            size += s.size;
+        }
+        return size;
+    }
+
+    @Override
+    public long sizeInBytes() {
+        long size = 0;
+        for (Section s : sections) {
+            size += (long) s.tableLength * Long.BYTES;
+        }
+        return size;
+    }
+
+    @Override
+    public long capacity() {
+        long capacity = 0;
+        for (Section s : sections) {
+            capacity += s.capacity;
+        }
+        return capacity;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        for (Section s : sections) {
+            if (s.size != 0) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    long getUsedBucketCount() {
+        long usedBucketCount = 0;
+        for (Section s : sections) {
+            usedBucketCount += s.usedBuckets;
+        }
+        return usedBucketCount;
+    }
+
+    @Override
+    public LongPair get(long key1, long key2) {
+        checkBiggerEqualZero(key1);
+        long h = hash(key1, key2);
+        return getSection(h).get(key1, key2, (int) h);
+    }
+
+    @Override
+    public boolean containsKey(long key1, long key2) {
+        return get(key1, key2) != null;
+    }
+
+    @Override
+    public boolean put(long key1, long key2, long value1, long value2) {
+        checkBiggerEqualZero(key1);
+        checkBiggerEqualZero(value1);
+        long h = hash(key1, key2);
+        return getSection(h).put(key1, key2, value1, value2, (int) h, false);
+    }
+
+    @Override
+    public boolean putIfAbsent(long key1, long key2, long value1, long value2) {
+        checkBiggerEqualZero(key1);
+        checkBiggerEqualZero(value1);
+        long h = hash(key1, key2);
+        return getSection(h).put(key1, key2, value1, value2, (int) h, true);
+    }
+
+    @Override
+    public boolean remove(long key1, long key2) {
+        checkBiggerEqualZero(key1);
+        long h = hash(key1, key2);
+        return getSection(h).remove(key1, key2, ValueNotFound, ValueNotFound, (int) h);
+    }
+
+    @Override
+    public boolean remove(long key1, long key2, long value1, long value2) {
+        checkBiggerEqualZero(key1);
+        checkBiggerEqualZero(value1);
+        long h = hash(key1, key2);
+        return getSection(h).remove(key1, key2, value1, value2, (int) h);
+    }
+
+    private Section getSection(long hash) {
+        // Use 32 msb out of long to get the section
+        final int sectionIdx = (int) (hash >>> 32) & (sections.length - 1);
+        return sections[sectionIdx];
+    }
+
+    @Override
+    public void clear() {
+        for (Section s : sections) {
+            s.clear();
+        }
+    }
+
+    @Override
+    public void forEach(BiConsumerLongPair processor) {
+        for (Section s : sections) {
+            s.forEach(processor);
+        }
+    }
+
+    @Override
+    public List<LongPair> keys() {
+        List<LongPair> keys = Lists.newArrayList();
+        forEach((key1, key2, value1, value2) -> keys.add(new LongPair(key1, key2)));
+        return keys;
+    }
+
+    @Override
+    public List<LongPair> values() {
+        List<LongPair> values = Lists.newArrayList();
+        forEach((key1, key2, value1, value2) -> values.add(new LongPair(value1, value2)));
+        return values;
+    }
+
+    @Override
+    public Map<LongPair, LongPair> asMap() {
+        Map<LongPair, LongPair> map = Maps.newHashMap();
+        forEach((key1, key2, value1, value2) -> map.put(new LongPair(key1, key2), new LongPair(value1, value2)));
+        return map;
+    }
+
+    @Override
+    public void close() {
+        for (Section s : sections) {
+            if (s != null) {
+                s.close();
+            }
+        }
+    }
+
+    // A section is a portion of the hash map that is covered by a single
+    @SuppressWarnings("serial")
+    private static final class Section extends StampedLock {
+        private final ByteBufAllocator allocator;
+        // Keys and values are stored interleaved in the table buffer, which is only accessed under the lock
+        private ByteBuf table;
+        // address of the table memory, or 0 if the buffer doesn't expose it
+        private long tableAddress;
+        // number of longs in the table
+        private volatile int tableLength;
+
+        private volatile int capacity;
+        private final int initCapacity;
+        private volatile int size;
+        private int usedBuckets;
+        private int resizeThresholdUp;
+        private int resizeThresholdBelow;
+        private final float mapFillFactor;
+        private final float mapIdleFactor;
+        private final float expandFactor;
+        private final float shrinkFactor;
+        private final boolean autoShrink;
+
+        Section(int capacity, float mapFillFactor, float mapIdleFactor, boolean autoShrink,
+                float expandFactor, float shrinkFactor, ByteBufAllocator allocator) {
+            this.allocator = allocator;
+            this.capacity = alignToPowerOfTwo(capacity);
+            this.initCapacity = this.capacity;
+            setTable(allocateTable(this.capacity));
+            this.size = 0;
+            this.usedBuckets = 0;
+            this.autoShrink = autoShrink;
+            this.mapFillFactor = mapFillFactor;
+            this.mapIdleFactor = mapIdleFactor;
+            this.expandFactor = expandFactor;
+            this.shrinkFactor = shrinkFactor;
+            this.resizeThresholdUp = (int) (this.capacity * mapFillFactor);
+            this.resizeThresholdBelow = (int) (this.capacity * mapIdleFactor);
+        }
+
+        private ByteBuf allocateTable(int capacity) {
+            long tableBytes = 4L * capacity * Long.BYTES;
+            checkArgument(tableBytes <= Integer.MAX_VALUE, "Section capacity too large: %s", capacity);
+            ByteBuf buf = allocator.directBuffer((int) tableBytes, (int) tableBytes);
+            // EmptyKey and ValueNotFound are both -1, i.e. all bits set
+            if (buf.hasMemoryAddress()) {
+                io.netty.util.internal.PlatformDependent.setMemory(buf.memoryAddress(), tableBytes, (byte) 0xFF);
+            } else {
+                for (int i = 0; i < tableBytes; i += Long.BYTES) {
+                    buf.setLong(i, EmptyKey);
+                }
+            }
+            return buf;
+        }
+
+        private void setTable(ByteBuf newTable) {
+            table = newTable;
+            tableAddress = newTable.hasMemoryAddress() ? newTable.memoryAddress() : 0L;
+            tableLength = newTable.capacity() / Long.BYTES;
+        }
+
+        private long getLong(int index) {
+            return getLong(table, tableAddress, index);
+        }
+
+        private void setLong(int index, long value) {
+            setLong(table, tableAddress, index, value);
+        }
+
+        private static long getLong(ByteBuf table, long address, int index) {
+            if (address != 0L) {
+                return io.netty.util.internal.PlatformDependent.getLong(address + ((long) index << 3));
+            } else {
+                return table.getLong(index << 3);
+            }
+        }
+
+        private static void setLong(ByteBuf table, long address, int index, long value) {
+            if (address != 0L) {
+                io.netty.util.internal.PlatformDependent.putLong(address + ((long) index << 3), value);
+            } else {
+                table.setLong(index << 3, value);
+            }
+        }
+
+        private void checkOpen() {
+            if (table == null) {
+                throw new IllegalStateException("Map is already closed");
+            }
+        }
+
+        LongPair get(long key1, long key2, int keyHash) {
+            long stamp = readLock();
+
+            try {
+                checkOpen();
+                int bucket = signSafeMod(keyHash, capacity);
+                while (true) {
+                    long storedKey1 = getLong(bucket);
+                    long storedKey2 = getLong(bucket + 1);
+
+                    if (key1 == storedKey1 && key2 == storedKey2) {
+                        return new LongPair(getLong(bucket + 2), getLong(bucket + 3));
+                    } else if (storedKey1 == EmptyKey) {
+                        // Not found
+                        return null;
+                    }
+
+                    bucket = (bucket + 4) & (tableLength - 1);
+                }
+            } finally {
+                unlockRead(stamp);
+            }
+        }
+
+        boolean put(long key1, long key2, long value1, long value2, int keyHash, boolean onlyIfAbsent) {
+            long stamp = writeLock();
+            int bucket = signSafeMod(keyHash, capacity);
+
+            // Remember where we find the first available spot
+            int firstDeletedKey = -1;
+
+            try {
+                checkOpen();
+                while (true) {
+                    long storedKey1 = getLong(bucket);
+                    long storedKey2 = getLong(bucket + 1);
+
+                    if (key1 == storedKey1 && key2 == storedKey2) {
+                        if (!onlyIfAbsent) {
+                            // Over written an old value for same key
+                            setLong(bucket + 2, value1);
+                            setLong(bucket + 3, value2);
+                            return true;
+                        } else {
+                            return false;
+                        }
+                    } else if (storedKey1 == EmptyKey) {
+                        // Found an empty bucket. This means the key is not in the map. If we've already seen a deleted
+                        // key, we should write at that position
+                        if (firstDeletedKey != -1) {
+                            bucket = firstDeletedKey;
+                        } else {
+                            ++usedBuckets;
+                        }
+
+                        setLong(bucket, key1);
+                        setLong(bucket + 1, key2);
+                        setLong(bucket + 2, value1);
+                        setLong(bucket + 3, value2);
+                        ++size;
+                        return true;
+                    } else if (storedKey1 == DeletedKey) {
+                        // The bucket contained a different deleted key
+                        if (firstDeletedKey == -1) {
+                            firstDeletedKey = bucket;
+                        }
+                    }
+
+                    bucket = (bucket + 4) & (tableLength - 1);
+                }
+            } finally {
+                if (usedBuckets > resizeThresholdUp) {
+                    try {
+                        // Expand the hashmap
+                        int newCapacity = alignToPowerOfTwo((int) (capacity * expandFactor));
+                        rehash(newCapacity);
+                    } finally {
+                        unlockWrite(stamp);
+                    }
+                } else {
+                    unlockWrite(stamp);
+                }
+            }
+        }
+
+        private boolean remove(long key1, long key2, long value1, long value2, int keyHash) {
+            long stamp = writeLock();
+            int bucket = signSafeMod(keyHash, capacity);
+
+            try {
+                checkOpen();
+                while (true) {
+                    long storedKey1 = getLong(bucket);
+                    long storedKey2 = getLong(bucket + 1);
+                    if (key1 == storedKey1 && key2 == storedKey2) {
+                        if (value1 == ValueNotFound
+                                || (value1 == getLong(bucket + 2) && value2 == getLong(bucket + 3))) {
+                            --size;
+
+                            cleanBucket(bucket);
+                            return true;
+                        } else {
+                            return false;
+                        }
+                    } else if (storedKey1 == EmptyKey) {
+                        // Key wasn't found
+                        return false;
+                    }
+
+                    bucket = (bucket + 4) & (tableLength - 1);
+                }
+
+            } finally {
+                if (autoShrink && table != null && size < resizeThresholdBelow) {
+                    try {
+                        // Shrinking must at least ensure initCapacity, so as to avoid frequent shrinking and
+                        // expansion near initCapacity
+                        int newCapacity = Math.max(alignToPowerOfTwo((int) (capacity / shrinkFactor)), initCapacity);
+                        int newResizeThresholdUp = (int) (newCapacity * mapFillFactor);
+                        if (newCapacity < capacity && newResizeThresholdUp > size) {
+                            // shrink the hashmap
+                            rehash(newCapacity);
+                        }
+                    } finally {
+                        unlockWrite(stamp);
+                    }
+                } else {
+                    unlockWrite(stamp);
+                }
+            }
+        }
+
+        private void cleanBucket(int bucket) {
+            int nextInArray = (bucket + 4) & (tableLength - 1);
+            if (getLong(nextInArray) == EmptyKey) {
+                clearBucket(bucket, EmptyKey);
+                --usedBuckets;
+
+                // Cleanup all the buckets that were in `DeletedKey` state,
+                // so that we can reduce unnecessary expansions
+                bucket = (bucket - 4) & (tableLength - 1);
+                while (getLong(bucket) == DeletedKey) {
+                    clearBucket(bucket, EmptyKey);
+                    --usedBuckets;
+
+                    bucket = (bucket - 4) & (tableLength - 1);
+                }
+            } else {
+                clearBucket(bucket, DeletedKey);
+            }
+        }
+
+        private void clearBucket(int bucket, long key) {
+            setLong(bucket, key);
+            setLong(bucket + 1, key);
+            setLong(bucket + 2, ValueNotFound);
+            setLong(bucket + 3, ValueNotFound);
+        }
+
+        void clear() {
+            long stamp = writeLock();
+
+            try {
+                checkOpen();
+                if (autoShrink && capacity > initCapacity) {
+                    shrinkToInitCapacity();
+                } else {
+                    table.release();
+                    setTable(allocateTable(capacity));
+                    this.size = 0;
+                    this.usedBuckets = 0;
+                }
+            } finally {
+                unlockWrite(stamp);
+            }
+        }
+
+        void forEach(BiConsumerLongPair processor) {
+            long stamp = readLock();
+
+            try {
+                checkOpen();
+                // Go through all the buckets for this section
+                for (int bucket = 0; bucket < tableLength; bucket += 4) {
+                    long storedKey1 = getLong(bucket);
+
+                    if (storedKey1 != DeletedKey && storedKey1 != EmptyKey) {
+                        processor.accept(storedKey1, getLong(bucket + 1), getLong(bucket + 2), getLong(bucket + 3));
+                    }
+                }
+            } finally {
+                unlockRead(stamp);
+            }
+        }
+
+        void close() {
+            long stamp = writeLock();
+
+            try {
+                if (table != null) {
+                    table.release();
+                    table = null;
+                    tableAddress = 0L;
+                    tableLength = 0;
+                    size = 0;
+                    usedBuckets = 0;
+                }
+            } finally {
+                unlockWrite(stamp);
+            }
+        }
+
+        private void rehash(int newCapacity) {
+            ByteBuf newTable = allocateTable(newCapacity);
+            long newTableAddress = newTable.hasMemoryAddress() ? newTable.memoryAddress() : 0L;
+            int newTableLength = newTable.capacity() / Long.BYTES;
+
+            // Re-hash table
+            for (int i = 0; i < tableLength; i += 4) {
+                long storedKey1 = getLong(i);
+                if (storedKey1 != EmptyKey && storedKey1 != DeletedKey) {
+                    insertKeyValueNoLock(newTable, newTableAddress, newTableLength, newCapacity,
+                            storedKey1, getLong(i + 1), getLong(i + 2), getLong(i + 3));
+                }
+            }
+
+            table.release();
+            setTable(newTable);
+            usedBuckets = size;
+            capacity = newCapacity;
+            resizeThresholdUp = (int) (capacity * mapFillFactor);
+            resizeThresholdBelow = (int) (capacity * mapIdleFactor);
+        }
+
+        private void shrinkToInitCapacity() {
+            ByteBuf newTable = allocateTable(initCapacity);
+            table.release();
+            setTable(newTable);
+            size = 0;
+            usedBuckets = 0;
+            capacity = initCapacity;
+            resizeThresholdUp = (int) (capacity * mapFillFactor);
+            resizeThresholdBelow = (int) (capacity * mapIdleFactor);
+        }
+
+        private static void insertKeyValueNoLock(ByteBuf table, long address, int tableLength, int capacity,
+                                                 long key1, long key2, long value1, long value2) {
+            int bucket = signSafeMod(hash(key1, key2), capacity);
+
+            while (true) {
+                long storedKey1 = getLong(table, address, bucket);
+
+                if (storedKey1 == EmptyKey) {
+                    // The bucket is empty, so we can use it
+                    setLong(table, address, bucket, key1);
+                    setLong(table, address, bucket + 1, key2);
+                    setLong(table, address, bucket + 2, value1);
+                    setLong(table, address, bucket + 3, value2);
+                    return;
+                }
+
+                bucket = (bucket + 4) & (tableLength - 1);
+            }
+        }
+    }
+
+    private static int alignToPowerOfTwo(int n) {
+        return (int) Math.pow(2, 32 - Integer.numberOfLeadingZeros(n - 1));
+    }
+
+    private static void checkBiggerEqualZero(long n) {
+        if (n < 0L) {
+            throw new IllegalArgumentException("Keys and values must be >= 0");
+        }
+    }
+}
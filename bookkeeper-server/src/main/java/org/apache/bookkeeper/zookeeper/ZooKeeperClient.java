@@ -41,6 +41,7 @@ import org.apache.bookkeeper.stats.NullStatsLogger;
 import org.apache.bookkeeper.stats.OpStatsLogger;
 import org.apache.bookkeeper.stats.StatsLogger;
 import org.apache.bookkeeper.zookeeper.ZooWorker.ZooCallable;
+import org.apache.zookeeper.AddWatchMode;
 import org.apache.zookeeper.AsyncCallback.ACLCallback;
 import org.apache.zookeeper.AsyncCallback.Children2Callback;
 import org.apache.zookeeper.AsyncCallback.ChildrenCallback;
@@ -58,6 +59,7 @@ import org.apache.zookeeper.WatchedEvent;
 import org.apache.zookeeper.Watcher;
 import org.apache.zookeeper.Watcher.Event.EventType;
 import org.apache.zookeeper.Watcher.Event.KeeperState;
+import org.apache.zookeeper.Watcher.WatcherType;
 import org.apache.zookeeper.ZooKeeper;
 import org.apache.zookeeper.data.ACL;
 import org.apache.zookeeper.data.Stat;
@@ -104,6 +106,8 @@ public class ZooKeeperClient extends ZooKeeper implements Watcher, AutoCloseable
     private final OpStatsLogger getACLStats;
     private final OpStatsLogger setACLStats;
     private final OpStatsLogger syncStats;
+    private final OpStatsLogger addWatchStats;
+    private final OpStatsLogger removeWatchesStats;
     private final OpStatsLogger createClientStats;
 
     private final Callable<ZooKeeper> clientCreator = new Callable<ZooKeeper>() {
@@ -313,6 +317,8 @@ public class ZooKeeperClient extends ZooKeeper implements Watcher, AutoCloseable
         getACLStats = scopedStatsLogger.getOpStatsLogger("get_acl");
         setACLStats = scopedStatsLogger.getOpStatsLogger("set_acl");
         syncStats = scopedStatsLogger.getOpStatsLogger("sync");
+        addWatchStats = scopedStatsLogger.getOpStatsLogger("add_watch");
+        removeWatchesStats = scopedStatsLogger.getOpStatsLogger("remove_watches");
     }
 
     @Override
@@ -681,6 +687,82 @@ public class ZooKeeperClient extends ZooKeeper implements Watcher, AutoCloseable
         proc.run();
     }
 
+    @Override
+    public void addWatch(final String basePath, final Watcher watcher, final AddWatchMode mode,
+                         final VoidCallback cb, final Object context) {
+        final Runnable proc = new ZkRetryRunnable(operationRetryPolicy, rateLimiter, addWatchStats) {
+
+            final VoidCallback vCb = new VoidCallback() {
+
+                @Override
+                public void processResult(int rc, String path, Object ctx) {
+                    ZooWorker worker = (ZooWorker) ctx;
+                    if (allowRetry(worker, rc)) {
+                        backOffAndRetry(that, worker.nextRetryWaitTime());
+                    } else {
+                        cb.processResult(rc, path, context);
+                    }
+                }
+
+            };
+
+            @Override
+            public String toString() {
+                return String.format("addWatch (%s, mode = %s)", basePath, mode);
+            }
+
+            @Override
+            void zkRun() {
+                ZooKeeper zkHandle = zk.get();
+                if (null == zkHandle) {
+                    ZooKeeperClient.super.addWatch(basePath, watcher, mode, vCb, worker);
+                } else {
+                    zkHandle.addWatch(basePath, watcher, mode, vCb, worker);
+                }
+            }
+        };
+        // execute it immediately
+        proc.run();
+    }
+
+    @Override
+    public void removeWatches(final String path, final Watcher watcher, final WatcherType watcherType,
+                              final boolean local, final VoidCallback cb, final Object context) {
+        final Runnable proc = new ZkRetryRunnable(operationRetryPolicy, rateLimiter, removeWatchesStats) {
+
+            final VoidCallback vCb = new VoidCallback() {
+
+                @Override
+                public void processResult(int rc, String path, Object ctx) {
+                    ZooWorker worker = (ZooWorker) ctx;
+                    if (allowRetry(worker, rc)) {
+                        backOffAndRetry(that, worker.nextRetryWaitTime());
+                    } else {
+                        cb.processResult(rc, path, context);
+                    }
+                }
+
+            };
+
+            @Override
+            public String toString() {
+                return String.format("removeWatches (%s, type = %s)", path, watcherType);
+            }
+
+            @Override
+            void zkRun() {
+                ZooKeeper zkHandle = zk.get();
+                if (null == zkHandle) {
+                    ZooKeeperClient.super.removeWatches(path, watcher, watcherType, local, vCb, worker);
+                } else {
+                    zkHandle.removeWatches(path, watcher, watcherType, local, vCb, worker);
+                }
+            }
+        };
+        // execute it immediately
+        proc.run();
+    }
+
     @Override
     public States getState() {
         ZooKeeper zkHandle = zk.get();
@@ -0,0 +1,155 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import org.apache.bookkeeper.client.BKException;
+import org.apache.bookkeeper.client.LedgerMetadataBuilder;
+import org.apache.bookkeeper.client.api.DigestType;
+import org.apache.bookkeeper.client.api.LedgerMetadata;
+import org.apache.bookkeeper.conf.ServerConfiguration;
+import org.apache.bookkeeper.meta.LedgerManager;
+import org.apache.bookkeeper.meta.LedgerManager.LedgerRange;
+import org.apache.bookkeeper.meta.LedgerManager.LedgerRangeIterator;
+import org.apache.bookkeeper.net.BookieId;
+import org.apache.bookkeeper.stats.NullStatsLogger;
+import org.apache.bookkeeper.utils.TestBKConfiguration;
+import org.apache.bookkeeper.versioning.LongVersion;
+import org.apache.bookkeeper.versioning.Versioned;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit tests of the metadata verification of {@link ScanAndCompareGarbageCollector}.
+ */
+public class ScanAndCompareGarbageCollectorTest {
+
+    private static final String SELF = "self:3181";
+    private static final BookieId OTHER1 = BookieId.parse("other1:3181");
+    private static final BookieId OTHER2 = BookieId.parse("other2:3181");
+
+    private ServerConfiguration conf;
+    private LedgerManager ledgerManager;
+    private CompactableLedgerStorage ledgerStorage;
+    private final List<Collection<Long>> bulkReads = new ArrayList<>();
+    private final Map<Long, Versioned<LedgerMetadata>> metadataStore = new HashMap<>();
+    private final List<Long> cleaned = new ArrayList<>();
+
+    private static Versioned<LedgerMetadata> metadata(long ledgerId, BookieId... ensemble) {
+        return new Versioned<>(LedgerMetadataBuilder.create()
+                .withId(ledgerId)
+                .withEnsembleSize(2).withWriteQuorumSize(2).withAckQuorumSize(2)
+                .withDigestType(DigestType.CRC32C).withPassword(new byte[0])
+                .newEnsembleEntry(0, Arrays.asList(ensemble))
+                .build(), new LongVersion(1));
+    }
+
+    @Before
+    public void setup() throws Exception {
+        conf = TestBKConfiguration.newServerConfiguration();
+        conf.setBookieId(SELF);
+        conf.setVerifyMetadataOnGc(true);
+
+        // the bookie stores ledgers 1 to 5, the metadata list only has 1 and 2
+        ledgerStorage = mock(CompactableLedgerStorage.class);
+        when(ledgerStorage.getActiveLedgersInRange(anyLong(), anyLong()))
+                .thenReturn(Arrays.asList(1L, 2L, 3L, 4L, 5L));
+        ledgerManager = mock(LedgerManager.class);
+        when(ledgerManager.getLedgerRanges(anyLong())).thenAnswer(invocation -> new LedgerRangeIterator() {
+            private boolean hasNext = true;
+
+            @Override
+            public boolean hasNext() {
+                return hasNext;
+            }
+
+            @Override
+            public LedgerRange next() {
+                hasNext = false;
+                return new LedgerRange(new HashSet<>(Arrays.asList(1L, 2L)));
+            }
+        });
+        // ledger 3 was created after the listing, ledger 4 was moved to other bookies, ledger 5 was deleted
+        metadataStore.put(3L, metadata(3L, BookieId.parse(SELF), OTHER1));
+        metadataStore.put(4L, metadata(4L, OTHER1, OTHER2));
+        when(ledgerManager.readLedgerMetadata(anyCollection())).thenAnswer(invocation -> {
+            Collection<Long> ledgerIds = new ArrayList<>(invocation.<Collection<Long>>getArgument(0));
+            bulkReads.add(ledgerIds);
+            Map<Long, Versioned<LedgerMetadata>> result = new HashMap<>();
+            for (Long ledgerId : ledgerIds) {
+                if (metadataStore.containsKey(ledgerId)) {
+                    result.put(ledgerId, metadataStore.get(ledgerId));
+                }
+            }
+            return CompletableFuture.completedFuture(result);
+        });
+    }
+
+    @Test
+    public void testMetadataVerifiedWithBulkRead() throws Exception {
+        new ScanAndCompareGarbageCollector(ledgerManager, ledgerStorage, conf, NullStatsLogger.INSTANCE)
+                .gc(cleaned::add);
+
+        assertEquals(Arrays.asList(4L, 5L), cleaned);
+        assertEquals(1, bulkReads.size());
+        assertEquals(new HashSet<>(Arrays.asList(3L, 4L, 5L)), new HashSet<>(bulkReads.get(0)));
+        verify(ledgerManager, never()).readLedgerMetadata(anyLong());
+    }
+
+    @Test
+    public void testNothingCleanedWhenMetadataReadFails() throws Exception {
+        CompletableFuture<Map<Long, Versioned<LedgerMetadata>>> failure = new CompletableFuture<>();
+        failure.completeExceptionally(new BKException.ZKException());
+        when(ledgerManager.readLedgerMetadata(anyCollection())).thenReturn(failure);
+
+        new ScanAndCompareGarbageCollector(ledgerManager, ledgerStorage, conf, NullStatsLogger.INSTANCE)
+                .gc(cleaned::add);
+
+        assertTrue(cleaned.isEmpty());
+    }
+
+    @Test
+    public void testNoMetadataReadWithoutVerification() throws Exception {
+        conf.setVerifyMetadataOnGc(false);
+
+        new ScanAndCompareGarbageCollector(ledgerManager, ledgerStorage, conf, NullStatsLogger.INSTANCE)
+                .gc(cleaned::add);
+
+        assertEquals(Arrays.asList(3L, 4L, 5L), cleaned);
+        assertTrue(bulkReads.isEmpty());
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie.storage.ldb;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.PrimitiveIterator.OfLong;
+import java.util.stream.LongStream;
+import org.apache.bookkeeper.bookie.BookieImpl;
+import org.apache.bookkeeper.conf.ServerConfiguration;
+import org.apache.bookkeeper.utils.TestBKConfiguration;
+import org.apache.bookkeeper.utils.TestBookieImpl;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit tests of {@link DbLedgerStorage#getListOfEntriesOfLedger(long)}, with entries in the write cache, in the
+ * entry location index, or both.
+ */
+public class DbLedgerStorageListOfEntriesTest {
+
+    private DbLedgerStorage storage;
+    private File tmpDir;
+
+    @Before
+    public void setup() throws Exception {
+        tmpDir = File.createTempFile("bkTest", ".dir");
+        tmpDir.delete();
+        tmpDir.mkdir();
+        File curDir = BookieImpl.getCurrentDirectory(tmpDir);
+        BookieImpl.checkDirectoryStructure(curDir);
+
+        ServerConfiguration conf = TestBKConfiguration.newServerConfiguration();
+        conf.setLedgerStorageClass(DbLedgerStorage.class.getName());
+        conf.setLedgerDirNames(new String[] { tmpDir.toString() });
+        conf.setJournalDirName(tmpDir.toString());
+        BookieImpl bookie = new TestBookieImpl(conf);
+        storage = (DbLedgerStorage) bookie.getLedgerStorage();
+    }
+
+    @After
+    public void teardown() throws Exception {
+        storage.shutdown();
+        FileUtils.deleteDirectory(tmpDir);
+    }
+
+    private void addEntries(long ledgerId, long... entryIds) throws Exception {
+        storage.setMasterKey(ledgerId, "key".getBytes(StandardCharsets.UTF_8));
+        for (long entryId : entryIds) {
+            ByteBuf entry = Unpooled.buffer(128);
+            entry.writeLong(ledgerId);
+            entry.writeLong(entryId);
+            entry.writeBytes(("entry-" + entryId).getBytes(StandardCharsets.UTF_8));
+            storage.addEntry(entry);
+        }
+    }
+
+    private long[] listEntries(long ledgerId) throws Exception {
+        OfLong entries = storage.getListOfEntriesOfLedger(ledgerId);
+        LongStream.Builder builder = LongStream.builder();
+        entries.forEachRemaining(builder);
+        return builder.build().toArray();
+    }
+
+    @Test
+    public void testEntriesInWriteCache() throws Exception {
+        addEntries(1, 0, 1, 2, 4);
+        addEntries(2, 0, 1);
+        assertArrayEquals(new long[] { 0, 1, 2, 4 }, listEntries(1));
+        assertArrayEquals(new long[] { 0, 1 }, listEntries(2));
+        assertArrayEquals(new long[0], listEntries(3));
+    }
+
+    @Test
+    public void testEntriesFlushedToIndex() throws Exception {
+        addEntries(1, 0, 1, 3, 5);
+        addEntries(2, 0);
+        storage.flush();
+        assertArrayEquals(new long[] { 0, 1, 3, 5 }, listEntries(1));
+        assertArrayEquals(new long[] { 0 }, listEntries(2));
+        assertArrayEquals(new long[0], listEntries(3));
+    }
+
+    @Test
+    public void testEntriesInWriteCacheAndIndex() throws Exception {
+        addEntries(1, 0, 1, 2);
+        storage.flush();
+        // an entry written again, as a recovery would, and new entries past a gap
+        addEntries(1, 2, 3, 6);
+        assertArrayEquals(new long[] { 0, 1, 2, 3, 6 }, listEntries(1));
+
+        storage.flush();
+        assertArrayEquals(new long[] { 0, 1, 2, 3, 6 }, listEntries(1));
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.buffer.UnpooledByteBufAllocator;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import org.junit.Test;
+
+/**
+ * Unit tests of {@link BatchedEntryFormat}.
+ */
+public class BatchedEntryFormatTest {
+
+    private static ByteBuf batch(String... records) {
+        ByteBuf batch = BatchedEntryFormat.newBatch(UnpooledByteBufAllocator.DEFAULT, 64);
+        for (String record : records) {
+            BatchedEntryFormat.addRecord(batch, Unpooled.wrappedBuffer(record.getBytes(StandardCharsets.UTF_8)));
+        }
+        BatchedEntryFormat.finishBatch(batch, records.length);
+        return batch;
+    }
+
+    private static void assertInvalid(ByteBuf entry) {
+        try {
+            BatchedEntryFormat.split(entry);
+            fail("Should reject the corrupted entry");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testSplit() {
+        ByteBuf entry = batch("a", "", "record");
+        List<ByteBuf> records = BatchedEntryFormat.split(entry);
+        assertEquals(3, records.size());
+        assertEquals("a", records.get(0).toString(StandardCharsets.UTF_8));
+        assertEquals("", records.get(1).toString(StandardCharsets.UTF_8));
+        assertEquals("record", records.get(2).toString(StandardCharsets.UTF_8));
+        records.forEach(ByteBuf::release);
+        assertEquals(1, entry.refCnt());
+        entry.release();
+    }
+
+    @Test
+    public void testCorruptedNumberOfRecords() {
+        ByteBuf entry = batch("a", "b");
+        // more records than bytes left, which must not be allocated for
+        BatchedEntryFormat.finishBatch(entry, Integer.MAX_VALUE);
+        assertInvalid(entry);
+        BatchedEntryFormat.finishBatch(entry, 5);
+        assertInvalid(entry);
+        BatchedEntryFormat.finishBatch(entry, -1);
+        assertInvalid(entry);
+        assertEquals(1, entry.refCnt());
+        entry.release();
+    }
+
+    @Test
+    public void testCorruptedRecordLength() {
+        ByteBuf entry = batch("ab");
+        entry.setByte(BatchedEntryFormat.HEADER_SIZE, 100);
+        assertInvalid(entry);
+        entry.release();
+    }
+}
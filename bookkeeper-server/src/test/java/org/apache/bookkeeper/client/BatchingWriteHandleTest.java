@@ -0,0 +1,138 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.buffer.UnpooledByteBufAllocator;
+import java.lang.reflect.Field;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import org.apache.bookkeeper.common.util.OrderedScheduler;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit tests of {@link BatchingWriteHandle}.
+ */
+public class BatchingWriteHandleTest {
+
+    private LedgerHandle lh;
+    private final List<CompletableFuture<Long>> writes = new ArrayList<>();
+    private final List<Integer> writtenRecords = new ArrayList<>();
+
+    @Before
+    public void setup() throws Exception {
+        ClientContext clientCtx = mock(ClientContext.class);
+        when(clientCtx.getByteBufAllocator()).thenReturn(UnpooledByteBufAllocator.DEFAULT);
+        // the linger never expires, batches are only written when the previous ones complete or on close
+        when(clientCtx.getScheduler()).thenReturn(mock(OrderedScheduler.class));
+
+        lh = mock(LedgerHandle.class);
+        Field clientCtxField = LedgerHandle.class.getDeclaredField("clientCtx");
+        clientCtxField.setAccessible(true);
+        clientCtxField.set(lh, clientCtx);
+        when(lh.getId()).thenReturn(1L);
+        when(lh.appendAsync(any(ByteBuf.class))).thenAnswer(invocation -> {
+            ByteBuf batch = invocation.getArgument(0);
+            writtenRecords.add(BatchedEntryFormat.getNumRecords(batch));
+            batch.release();
+            CompletableFuture<Long> write = new CompletableFuture<>();
+            writes.add(write);
+            return write;
+        });
+        when(lh.closeAsync()).thenReturn(CompletableFuture.completedFuture(null));
+    }
+
+    private static ByteBuf record(String data) {
+        return Unpooled.wrappedBuffer(data.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testCloseWaitsForBatchesInFlight() throws Exception {
+        BatchingWriteHandle handle = new BatchingWriteHandle(lh, 100, 1024 * 1024, 1000000L);
+
+        // written right away, nothing is in flight
+        CompletableFuture<Long> first = handle.appendAsync(record("first"));
+        // accumulated while the first batch is in flight
+        CompletableFuture<Long> second = handle.appendAsync(record("second"));
+        CompletableFuture<Long> third = handle.appendAsync(record("third"));
+        assertEquals(1, writes.size());
+
+        CompletableFuture<Void> closeFuture = handle.closeAsync();
+        // close flushes the pending records, but doesn't close the ledger under the batches in flight
+        assertEquals(2, writes.size());
+        assertEquals(Integer.valueOf(1), writtenRecords.get(0));
+        assertEquals(Integer.valueOf(2), writtenRecords.get(1));
+        verify(lh, never()).closeAsync();
+
+        writes.get(0).complete(0L);
+        assertEquals(Long.valueOf(0L), first.get());
+        verify(lh, never()).closeAsync();
+        assertFalse(closeFuture.isDone());
+
+        writes.get(1).complete(1L);
+        assertEquals(Long.valueOf(1L), second.get());
+        assertEquals(Long.valueOf(1L), third.get());
+        verify(lh, times(1)).closeAsync();
+        closeFuture.get();
+
+        try {
+            handle.appendAsync(record("after close")).get();
+            fail("Should fail to append to a closed handle");
+        } catch (ExecutionException ee) {
+            assertTrue(ee.getCause() instanceof BKException.BKLedgerClosedException);
+        }
+    }
+
+    @Test
+    public void testCloseAfterFailedBatch() throws Exception {
+        BatchingWriteHandle handle = new BatchingWriteHandle(lh, 100, 1024 * 1024, 1000000L);
+
+        CompletableFuture<Long> first = handle.appendAsync(record("first"));
+        CompletableFuture<Long> second = handle.appendAsync(record("second"));
+        CompletableFuture<Void> closeFuture = handle.closeAsync();
+        assertEquals(2, writes.size());
+
+        writes.get(0).completeExceptionally(new BKException.BKNotEnoughBookiesException());
+        verify(lh, never()).closeAsync();
+        writes.get(1).complete(1L);
+
+        closeFuture.get();
+        verify(lh, times(1)).closeAsync();
+        assertTrue(first.isCompletedExceptionally());
+        assertEquals(Long.valueOf(1L), second.get());
+    }
+}
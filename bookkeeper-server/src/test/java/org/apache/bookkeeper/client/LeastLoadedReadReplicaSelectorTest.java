@@ -0,0 +1,215 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.client;
+
+import static org.apache.bookkeeper.proto.BookieClient.PENDINGREQ_NOTWRITABLE_MASK;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.bookkeeper.conf.ClientConfiguration;
+import org.apache.bookkeeper.net.BookieId;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit tests of {@link LeastLoadedReadReplicaSelector}.
+ */
+public class LeastLoadedReadReplicaSelectorTest {
+
+    private static final int NUM_SELECTIONS = 1000;
+
+    /**
+     * Health of the bookies set by the tests, every bookie is healthy and idle by default.
+     */
+    private static class TestBookiesHealthInfo implements BookiesHealthInfo {
+        final Map<BookieId, Long> failureHistory = new HashMap<>();
+        final Map<BookieId, Long> pendingRequests = new HashMap<>();
+        final Map<BookieId, Long> readLatencyEwma = new HashMap<>();
+
+        @Override
+        public long getBookieFailureHistory(BookieId bookie) {
+            return failureHistory.getOrDefault(bookie, -1L);
+        }
+
+        @Override
+        public long getBookiePendingRequests(BookieId bookie) {
+            return pendingRequests.getOrDefault(bookie, 0L);
+        }
+
+        @Override
+        public long getBookieReadLatencyEwmaMicros(BookieId bookie) {
+            return readLatencyEwma.getOrDefault(bookie, -1L);
+        }
+    }
+
+    private final List<BookieId> ensemble = new ArrayList<>();
+    private final TestBookiesHealthInfo healthInfo = new TestBookiesHealthInfo();
+    private LeastLoadedReadReplicaSelector selector;
+
+    @Before
+    public void setup() {
+        for (int i = 0; i < 3; i++) {
+            ensemble.add(BookieId.parse("bookie-" + i + ":3181"));
+        }
+        selector = newSelector(0.0);
+    }
+
+    private static LeastLoadedReadReplicaSelector newSelector(double localityPenalty) {
+        return new LeastLoadedReadReplicaSelector().initialize(
+                new ClientConfiguration().setReadReplicaSelectorLocalityPenalty(localityPenalty));
+    }
+
+    /**
+     * Count how many times each bookie leads the read sequence.
+     */
+    private int[] selectMany(LeastLoadedReadReplicaSelector selector, int writeQuorumSize) {
+        int[] selected = new int[ensemble.size()];
+        DistributionSchedule schedule = new RoundRobinDistributionSchedule(writeQuorumSize, 2, ensemble.size());
+        for (int i = 0; i < NUM_SELECTIONS; i++) {
+            DistributionSchedule.WriteSet readSet = selector.selectReplica(ensemble, healthInfo,
+                    schedule.getWriteSet(0L));
+            assertEquals(writeQuorumSize, readSet.size());
+            selected[readSet.get(0)]++;
+            readSet.recycle();
+        }
+        return selected;
+    }
+
+    @Test
+    public void testCost() {
+        BookieId bookie = ensemble.get(0);
+        // an idle bookie that served no read yet
+        assertEquals(LeastLoadedReadReplicaSelector.DEFAULT_LATENCY_MICROS,
+                selector.getCost(bookie, healthInfo, 0), 0.0);
+
+        healthInfo.pendingRequests.put(bookie, 3L);
+        healthInfo.readLatencyEwma.put(bookie, 500L);
+        assertEquals(4 * 500.0, selector.getCost(bookie, healthInfo, 2), 0.0);
+        assertEquals(4 * 500.0 * 2.0, newSelector(0.5).getCost(bookie, healthInfo, 2), 0.0);
+    }
+
+    @Test
+    public void testUnhealthyBookiesAreNotEligible() {
+        BookieId bookie = ensemble.get(0);
+        healthInfo.failureHistory.put(bookie, 1L);
+        assertEquals(-1.0, selector.getCost(bookie, healthInfo, 0), 0.0);
+
+        healthInfo.failureHistory.remove(bookie);
+        healthInfo.pendingRequests.put(bookie, PENDINGREQ_NOTWRITABLE_MASK | 3L);
+        assertEquals(-1.0, selector.getCost(bookie, healthInfo, 0), 0.0);
+
+        // the other replicas share the reads
+        int[] selected = selectMany(selector, 3);
+        assertEquals(0, selected[0]);
+        assertTrue(selected[1] > 0);
+        assertTrue(selected[2] > 0);
+    }
+
+    @Test
+    public void testMostLoadedReplicaNeverLeads() {
+        healthInfo.pendingRequests.put(ensemble.get(1), 100L);
+        healthInfo.readLatencyEwma.put(ensemble.get(2), 200L);
+        // the costs are 1000, 101000 and 200: both picks are always two different replicas
+        int[] selected = selectMany(selector, 3);
+        assertEquals(0, selected[1]);
+        // the cheapest replica wins whenever it is one of the two picks, 2 times out of 3
+        assertTrue(selected[2] > selected[0]);
+        assertEquals(NUM_SELECTIONS, selected[0] + selected[2]);
+    }
+
+    @Test
+    public void testTwoReplicasPickTheCheapest() {
+        healthInfo.pendingRequests.put(ensemble.get(0), 5L);
+        int[] selected = selectMany(selector, 2);
+        assertEquals(0, selected[0]);
+        assertEquals(NUM_SELECTIONS, selected[1]);
+    }
+
+    @Test
+    public void testLocalityPenalty() {
+        // the same load everywhere: the costs are 1000, 1500 and 2000, the last replica never leads
+        int[] selected = selectMany(newSelector(0.5), 3);
+        assertEquals(0, selected[2]);
+        assertTrue(selected[0] > selected[1]);
+
+        // a loaded local replica gets more expensive than the remote ones
+        healthInfo.pendingRequests.put(ensemble.get(0), 3L);
+        selected = selectMany(newSelector(0.5), 3);
+        assertEquals(0, selected[0]);
+        assertTrue(selected[1] > selected[2]);
+    }
+
+    @Test
+    public void testKeepTheOrderWithoutChoice() {
+        healthInfo.failureHistory.put(ensemble.get(1), 1L);
+        healthInfo.failureHistory.put(ensemble.get(2), 1L);
+        healthInfo.pendingRequests.put(ensemble.get(0), 100L);
+        DistributionSchedule.WriteSet readSet = selector.selectReplica(ensemble, healthInfo,
+                new RoundRobinDistributionSchedule(3, 2, 3).getWriteSet(0L));
+        for (int i = 0; i < 3; i++) {
+            assertEquals(i, readSet.get(i));
+        }
+        readSet.recycle();
+    }
+
+    @Test
+    public void testOtherReplicasKeepTheirOrder() {
+        healthInfo.pendingRequests.put(ensemble.get(0), 100L);
+        healthInfo.pendingRequests.put(ensemble.get(1), 100L);
+        DistributionSchedule schedule = new RoundRobinDistributionSchedule(3, 2, 3);
+        for (int i = 0; i < NUM_SELECTIONS; i++) {
+            DistributionSchedule.WriteSet readSet = selector.selectReplica(ensemble, healthInfo,
+                    schedule.getWriteSet(0L));
+            if (readSet.get(0) == 2) {
+                assertEquals(0, readSet.get(1));
+                assertEquals(1, readSet.get(2));
+            }
+            readSet.recycle();
+        }
+    }
+
+    @Test
+    public void testInvalidLocalityPenalty() {
+        try {
+            newSelector(-1.0);
+            fail("A negative locality penalty should be rejected");
+        } catch (IllegalArgumentException iae) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testConfiguredSelector() {
+        ClientConfiguration conf = new ClientConfiguration()
+                .setReadReplicaSelectorClass(LeastLoadedReadReplicaSelector.class.getName());
+        ClientInternalConf internalConf = ClientInternalConf.fromConfig(conf);
+        assertTrue(internalConf.readReplicaSelector.get() instanceof LeastLoadedReadReplicaSelector);
+        // the selector needs the read latencies
+        assertTrue(internalConf.bookieLatencyTracker.isPresent());
+
+        assertTrue(!ClientInternalConf.fromConfig(new ClientConfiguration()).readReplicaSelector.isPresent());
+    }
+}
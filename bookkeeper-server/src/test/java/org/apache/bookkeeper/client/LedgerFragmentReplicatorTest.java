@@ -0,0 +1,343 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import io.netty.buffer.Unpooled;
+import io.netty.buffer.UnpooledByteBufAllocator;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import org.apache.bookkeeper.client.AsyncCallback.ReadCallback;
+import org.apache.bookkeeper.client.api.DigestType;
+import org.apache.bookkeeper.client.api.LedgerMetadata;
+import org.apache.bookkeeper.client.impl.LedgerEntryImpl;
+import org.apache.bookkeeper.common.util.OrderedExecutor;
+import org.apache.bookkeeper.conf.ClientConfiguration;
+import org.apache.bookkeeper.net.BookieId;
+import org.apache.bookkeeper.proto.BookieClient;
+import org.apache.bookkeeper.proto.BookkeeperInternalCallbacks.WriteCallback;
+import org.apache.bookkeeper.proto.DataFormats;
+import org.apache.bookkeeper.proto.checksum.DigestManager;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit tests of the pipelined replication of {@link LedgerFragmentReplicator}, and of its fallback from
+ * bookie to bookie copies.
+ */
+public class LedgerFragmentReplicatorTest {
+
+    private static final long LEDGER_ID = 1234L;
+    private static final int ENTRY_SIZE = 100;
+    private static final BookieId SOURCE = BookieId.parse("source:3181");
+    private static final BookieId FAILED = BookieId.parse("failed:3181");
+    private static final BookieId TARGET1 = BookieId.parse("target1:3181");
+    private static final BookieId TARGET2 = BookieId.parse("target2:3181");
+
+    private final byte[] ledgerKey = new byte[20];
+    private BookKeeper bkc;
+    private BookieClient bookieClient;
+    private LedgerHandle lh;
+    private OrderedExecutor mainWorkerPool;
+    // reads issued, as [firstEntry, lastEntry]
+    private final List<long[]> reads = new CopyOnWriteArrayList<>();
+    private final List<Thread> readThreads = new CopyOnWriteArrayList<>();
+    private final Set<Long> unreadableEntries = new HashSet<>();
+    private boolean failBatchReads = false;
+    // writes not completed yet
+    private final ConcurrentLinkedQueue<PendingWrite> pendingWrites = new ConcurrentLinkedQueue<>();
+    private final List<Integer> results = new CopyOnWriteArrayList<>();
+
+    private static class PendingWrite {
+        final BookieId bookie;
+        final long entryId;
+        final WriteCallback cb;
+        final Object ctx;
+
+        PendingWrite(BookieId bookie, long entryId, WriteCallback cb, Object ctx) {
+            this.bookie = bookie;
+            this.entryId = entryId;
+            this.cb = cb;
+            this.ctx = ctx;
+        }
+
+        void complete(int rc) {
+            cb.writeComplete(rc, LEDGER_ID, entryId, bookie, ctx);
+        }
+    }
+
+    @Before
+    public void setup() throws Exception {
+        mainWorkerPool = OrderedExecutor.newBuilder().numThreads(1).name("test-main-worker").build();
+        bookieClient = mock(BookieClient.class);
+        bkc = mock(BookKeeper.class);
+        when(bkc.getBookieClient()).thenReturn(bookieClient);
+        when(bkc.getMainWorkerPool()).thenReturn(mainWorkerPool);
+
+        doAnswer(invocation -> {
+            pendingWrites.add(new PendingWrite(invocation.getArgument(0), invocation.getArgument(3),
+                    invocation.getArgument(5), invocation.getArgument(6)));
+            return null;
+        }).when(bookieClient).addEntry(any(BookieId.class), anyLong(), any(byte[].class), anyLong(), any(),
+                any(WriteCallback.class), any(), anyInt(), anyBoolean(), any());
+
+        LedgerMetadata metadata = mock(LedgerMetadata.class);
+        when(metadata.getEnsembleSize()).thenReturn(2);
+        when(metadata.getWriteQuorumSize()).thenReturn(2);
+        when(metadata.getDigestType()).thenReturn(DigestType.CRC32C);
+        when(metadata.getPassword()).thenReturn(new byte[0]);
+
+        DigestManager digestManager = DigestManager.instantiate(LEDGER_ID, ledgerKey,
+                DataFormats.LedgerMetadataFormat.DigestType.CRC32C, UnpooledByteBufAllocator.DEFAULT, false);
+        lh = mock(LedgerHandle.class);
+        when(lh.getId()).thenReturn(LEDGER_ID);
+        when(lh.getLedgerKey()).thenReturn(ledgerKey);
+        when(lh.getLastAddConfirmed()).thenReturn(100L);
+        when(lh.getDigestManager()).thenReturn(digestManager);
+        when(lh.getLedgerMetadata()).thenReturn(metadata);
+        doAnswer(invocation -> {
+            long firstEntry = invocation.getArgument(0);
+            long lastEntry = invocation.getArgument(1);
+            ReadCallback cb = invocation.getArgument(2);
+            reads.add(new long[] { firstEntry, lastEntry });
+            readThreads.add(Thread.currentThread());
+            boolean unreadable = false;
+            for (long entryId = firstEntry; entryId <= lastEntry; entryId++) {
+                unreadable |= unreadableEntries.contains(entryId);
+            }
+            if (unreadable || (failBatchReads && firstEntry < lastEntry)) {
+                cb.readComplete(BKException.Code.NoSuchEntryException, lh, null, invocation.getArgument(3));
+                return null;
+            }
+            List<LedgerEntry> entries = new ArrayList<>();
+            for (long entryId = firstEntry; entryId <= lastEntry; entryId++) {
+                entries.add(new LedgerEntry(LedgerEntryImpl.create(LEDGER_ID, entryId, ENTRY_SIZE,
+                        Unpooled.wrappedBuffer(new byte[ENTRY_SIZE]))));
+            }
+            cb.readComplete(BKException.Code.OK, lh, Collections.enumeration(entries), invocation.getArgument(3));
+            return null;
+        }).when(lh).asyncReadEntries(anyLong(), anyLong(), any(ReadCallback.class), any());
+    }
+
+    @After
+    public void teardown() {
+        mainWorkerPool.shutdown();
+    }
+
+    private static LedgerFragment newFragment(long firstEntryId, long lastEntryId) {
+        LedgerFragment lf = mock(LedgerFragment.class);
+        when(lf.isClosed()).thenReturn(true);
+        when(lf.getFirstStoredEntryId()).thenReturn(firstEntryId);
+        when(lf.getLastStoredEntryId()).thenReturn(lastEntryId);
+        when(lf.getEnsemble()).thenReturn(Arrays.asList(SOURCE, FAILED));
+        when(lf.getAddresses()).thenReturn(Collections.singleton(FAILED));
+        return lf;
+    }
+
+    private LedgerFragmentReplicator newReplicator(ClientConfiguration conf) {
+        return new LedgerFragmentReplicator(bkc, conf);
+    }
+
+    private void replicate(LedgerFragmentReplicator replicator, LedgerFragment lf, Set<BookieId> targets,
+                           BiConsumer<Long, Long> onReadEntryFailure) throws Exception {
+        replicator.replicate(lh, lf, (rc, path, ctx) -> results.add(rc), targets, onReadEntryFailure);
+    }
+
+    private void completeWrites(int rc) {
+        PendingWrite write;
+        while ((write = pendingWrites.poll()) != null) {
+            write.complete(rc);
+        }
+    }
+
+    @Test
+    public void testPipelinedReplicationStaysWithinWindow() throws Exception {
+        ClientConfiguration conf = new ClientConfiguration();
+        // the first reads are estimated at 1024 bytes per entry: two of them fill the window
+        conf.setReplicationMaxInFlightBytes(2048);
+        conf.setReplicationReadBatchSize(1);
+        LedgerFragmentReplicator replicator = newReplicator(conf);
+        Set<BookieId> targets = new HashSet<>(Arrays.asList(TARGET1, TARGET2));
+
+        replicate(replicator, newFragment(0, 9), targets, (l, e) -> { });
+
+        assertEquals(2, reads.size());
+        assertEquals(4, pendingWrites.size());
+        assertEquals(10, replicator.getNumEntriesPendingReplication());
+
+        // the window moves forward as the entries are written
+        pendingWrites.poll().complete(BKException.Code.OK);
+        assertEquals(2, reads.size());
+        pendingWrites.poll().complete(BKException.Code.OK);
+        assertTrue(reads.size() > 2);
+        completeWrites(BKException.Code.OK);
+
+        assertEquals(10, reads.size());
+        for (int i = 0; i < reads.size(); i++) {
+            assertEquals(i, reads.get(i)[0]);
+            assertEquals(i, reads.get(i)[1]);
+        }
+        assertEquals(Collections.singletonList(BKException.Code.OK), results);
+        assertEquals(0, replicator.getNumEntriesPendingReplication());
+    }
+
+    @Test
+    public void testPipelinedReplicationReadsBatches() throws Exception {
+        ClientConfiguration conf = new ClientConfiguration();
+        conf.setReplicationMaxInFlightBytes(1024 * 1024);
+        conf.setReplicationReadBatchSize(4);
+        LedgerFragmentReplicator replicator = newReplicator(conf);
+
+        replicate(replicator, newFragment(5, 14), Collections.singleton(TARGET1), (l, e) -> { });
+
+        assertEquals(3, reads.size());
+        assertEquals(Arrays.asList(5L, 9L, 13L), Arrays.asList(reads.get(0)[0], reads.get(1)[0], reads.get(2)[0]));
+        assertEquals(Arrays.asList(8L, 12L, 14L), Arrays.asList(reads.get(0)[1], reads.get(1)[1], reads.get(2)[1]));
+        assertEquals(10, pendingWrites.size());
+        completeWrites(BKException.Code.OK);
+        assertEquals(Collections.singletonList(BKException.Code.OK), results);
+    }
+
+    @Test
+    public void testPipelinedReplicationReportsUnreadableEntry() throws Exception {
+        ClientConfiguration conf = new ClientConfiguration();
+        conf.setReplicationMaxInFlightBytes(1024 * 1024);
+        conf.setReplicationReadBatchSize(4);
+        LedgerFragmentReplicator replicator = newReplicator(conf);
+        unreadableEntries.add(2L);
+        List<Long> unreadable = new ArrayList<>();
+
+        replicate(replicator, newFragment(0, 3), Collections.singleton(TARGET1),
+                (ledgerId, entryId) -> unreadable.add(entryId));
+
+        // the failed batch is read again entry by entry to find out the unreadable one
+        assertEquals(5, reads.size());
+        assertEquals(Collections.singletonList(2L), unreadable);
+        assertEquals(Collections.singletonList(BKException.Code.NoSuchEntryException), results);
+        assertEquals(0, replicator.getNumEntriesPendingReplication());
+
+        // the writes of the entries read before the failure don't complete the fragment again
+        completeWrites(BKException.Code.OK);
+        assertEquals(1, results.size());
+    }
+
+    @Test
+    public void testPipelinedReplicationSplitsFailedBatches() throws Exception {
+        ClientConfiguration conf = new ClientConfiguration();
+        conf.setReplicationMaxInFlightBytes(1024 * 1024);
+        conf.setReplicationReadBatchSize(4);
+        LedgerFragmentReplicator replicator = newReplicator(conf);
+        failBatchReads = true;
+
+        replicate(replicator, newFragment(0, 3), Collections.singleton(TARGET1), (l, e) -> { });
+
+        assertEquals(5, reads.size());
+        assertEquals(4, pendingWrites.size());
+        completeWrites(BKException.Code.OK);
+        assertEquals(Collections.singletonList(BKException.Code.OK), results);
+    }
+
+    @Test
+    public void testPipelinedReplicationFailsOnWriteError() throws Exception {
+        ClientConfiguration conf = new ClientConfiguration();
+        conf.setReplicationMaxInFlightBytes(1024 * 1024);
+        conf.setReplicationReadBatchSize(2);
+        LedgerFragmentReplicator replicator = newReplicator(conf);
+
+        replicate(replicator, newFragment(0, 3), new HashSet<>(Arrays.asList(TARGET1, TARGET2)), (l, e) -> { });
+
+        assertEquals(8, pendingWrites.size());
+        pendingWrites.poll().complete(BKException.Code.WriteException);
+        completeWrites(BKException.Code.OK);
+        assertEquals(Collections.singletonList(BKException.Code.WriteException), results);
+        assertEquals(0, replicator.getNumEntriesPendingReplication());
+    }
+
+    @Test
+    public void testFailedCopyFallsBackOnMainWorkerPool() throws Exception {
+        ClientConfiguration conf = new ClientConfiguration();
+        conf.setReplicationBookieToBookieCopyEnabled(true);
+        conf.setReplicationMaxInFlightBytes(1024 * 1024);
+        conf.setReplicationReadBatchSize(10);
+        LedgerFragmentReplicator replicator = newReplicator(conf);
+        CompletableFuture<Long> copy = new CompletableFuture<>();
+        when(bookieClient.copyLedgerRange(eq(TARGET1), eq(LEDGER_ID), any(), any(), eq(0L), eq(9L),
+                eq(Collections.singletonList(SOURCE)))).thenReturn(copy);
+
+        replicate(replicator, newFragment(0, 9), Collections.singleton(TARGET1), (l, e) -> { });
+        assertTrue(reads.isEmpty());
+
+        // the copy fails on a thread of the bookie client
+        Thread clientThread = new Thread(() -> copy.completeExceptionally(new BKException.BKIllegalOpException()),
+                "test-bookie-client");
+        clientThread.start();
+        clientThread.join();
+
+        // the fallback reads through the client, on the main worker pool
+        mainWorkerPool.submitOrdered(LEDGER_ID, () -> null).get(10, TimeUnit.SECONDS);
+        assertEquals(1, reads.size());
+        assertTrue(readThreads.get(0).getName().startsWith("test-main-worker"));
+        completeWrites(BKException.Code.OK);
+        assertEquals(Collections.singletonList(BKException.Code.OK), results);
+    }
+
+    @Test
+    public void testMacLedgerIsNotCopiedBetweenBookies() throws Exception {
+        ClientConfiguration conf = new ClientConfiguration();
+        conf.setReplicationBookieToBookieCopyEnabled(true);
+        conf.setReplicationMaxInFlightBytes(1024 * 1024);
+        conf.setReplicationReadBatchSize(10);
+        LedgerFragmentReplicator replicator = newReplicator(conf);
+        LedgerMetadata metadata = lh.getLedgerMetadata();
+        when(metadata.getDigestType()).thenReturn(DigestType.MAC);
+        when(metadata.hasPassword()).thenReturn(true);
+
+        replicate(replicator, newFragment(0, 9), Collections.singleton(TARGET1), (l, e) -> { });
+
+        // the bookies would need the password to verify the entries, so they go through the client
+        verify(bookieClient, never()).copyLedgerRange(any(), anyLong(), any(), any(), anyLong(), anyLong(), any());
+        assertEquals(1, reads.size());
+        completeWrites(BKException.Code.OK);
+        assertEquals(Collections.singletonList(BKException.Code.OK), results);
+    }
+}
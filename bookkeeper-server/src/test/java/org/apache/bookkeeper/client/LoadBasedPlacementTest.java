@@ -0,0 +1,208 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import io.netty.util.HashedWheelTimer;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import org.apache.bookkeeper.client.BookieInfoReader.BookieInfo;
+import org.apache.bookkeeper.conf.ClientConfiguration;
+import org.apache.bookkeeper.feature.SettableFeatureProvider;
+import org.apache.bookkeeper.net.BookieId;
+import org.apache.bookkeeper.net.BookieSocketAddress;
+import org.apache.bookkeeper.net.NetworkTopology;
+import org.apache.bookkeeper.stats.NullStatsLogger;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Unit tests of the load based weights of the bookies, with {@link RackawareEnsemblePlacementPolicy}.
+ */
+public class LoadBasedPlacementTest {
+
+    private static final long DISK_SPACE = 1024L * 1024 * 1024;
+    private static final int NUM_BOOKIES = 5;
+
+    private HashedWheelTimer timer;
+    private RackawareEnsemblePlacementPolicy policy;
+
+    @After
+    public void teardown() {
+        if (null != policy) {
+            policy.uninitalize();
+        }
+        if (null != timer) {
+            timer.stop();
+        }
+    }
+
+    private static BookieId bookie(int i) {
+        return BookieId.parse("127.0.0." + (i + 1) + ":3181");
+    }
+
+    private static BookieInfo info(long journalQueueLength, long addLatencyMicros, int readCacheMissPercent) {
+        return new BookieInfo(DISK_SPACE, DISK_SPACE, journalQueueLength, addLatencyMicros, readCacheMissPercent);
+    }
+
+    /**
+     * Bookies with the given add latencies and an unremarkable journal and read cache.
+     */
+    private static Map<BookieId, BookieInfo> withAddLatencies(long... addLatencyMicros) {
+        Map<BookieId, BookieInfo> infos = new HashMap<>();
+        for (int i = 0; i < addLatencyMicros.length; i++) {
+            infos.put(bookie(i), info(10, addLatencyMicros[i], 5));
+        }
+        return infos;
+    }
+
+    @Test
+    public void testUnknownLoadIsNotPenalized() {
+        Map<BookieId, BookieInfo> infos = new HashMap<>();
+        infos.put(bookie(0), new BookieInfo(DISK_SPACE, DISK_SPACE));
+        infos.put(bookie(1), new BookieInfo(DISK_SPACE, DISK_SPACE / 2));
+        // a bookie that doesn't know the load flag, next to loaded ones
+        infos.put(bookie(2), info(-1, -1, -1));
+        infos.put(bookie(3), info(100000, 1000000, 90));
+
+        Map<BookieId, BookieInfo> penalized = BookieInfoReader.applyLoadPenalties(infos);
+        assertEquals(1.0, penalized.get(bookie(0)).getLoadPenalty(), 0.0);
+        assertEquals(DISK_SPACE, penalized.get(bookie(0)).getWeight());
+        assertEquals(DISK_SPACE / 2, penalized.get(bookie(1)).getWeight());
+        assertEquals(1.0, penalized.get(bookie(2)).getLoadPenalty(), 0.0);
+        assertEquals(DISK_SPACE, penalized.get(bookie(2)).getWeight());
+    }
+
+    @Test
+    public void testPenaltyOfTheExcessOverTheMedian() {
+        // the median add latency is 3ms, the last bookie is 4 times slower
+        Map<BookieId, BookieInfo> penalized = BookieInfoReader.applyLoadPenalties(
+                withAddLatencies(1000, 3000, 3000, 3000, 12000));
+        for (int i = 0; i < NUM_BOOKIES - 1; i++) {
+            assertEquals(1.0, penalized.get(bookie(i)).getLoadPenalty(), 0.0);
+            assertEquals(DISK_SPACE, penalized.get(bookie(i)).getWeight());
+        }
+        assertEquals(4.0, penalized.get(bookie(4)).getLoadPenalty(), 0.0);
+        assertEquals(DISK_SPACE / 4, penalized.get(bookie(4)).getWeight());
+    }
+
+    @Test
+    public void testMedianFloors() {
+        // an idle cluster: the reference is the floor, not the median
+        Map<BookieId, BookieInfo> penalized = BookieInfoReader.applyLoadPenalties(
+                withAddLatencies(100, 100, 100, 100, 3000));
+        assertEquals(1.0 + (3000.0 - BookieInfoReader.MIN_ADD_LATENCY_MICROS_REFERENCE)
+                / BookieInfoReader.MIN_ADD_LATENCY_MICROS_REFERENCE,
+                penalized.get(bookie(4)).getLoadPenalty(), 1e-9);
+
+        Map<BookieId, BookieInfo> infos = new HashMap<>();
+        for (int i = 0; i < NUM_BOOKIES; i++) {
+            infos.put(bookie(i), info(i == 0 ? 150 : 0, 1000, i == 1 ? 20 : 0));
+        }
+        penalized = BookieInfoReader.applyLoadPenalties(infos);
+        assertEquals(1.5, penalized.get(bookie(0)).getLoadPenalty(), 1e-9);
+        assertEquals(2.0, penalized.get(bookie(1)).getLoadPenalty(), 1e-9);
+        assertEquals(1.0, penalized.get(bookie(2)).getLoadPenalty(), 0.0);
+    }
+
+    @Test
+    public void testPenaltiesOfTheSignalsAddUp() {
+        Map<BookieId, BookieInfo> infos = withAddLatencies(3000, 3000, 3000, 3000, 6000);
+        infos.put(bookie(4), info(200, 6000, 20));
+        BookieInfo overloaded = BookieInfoReader.applyLoadPenalties(infos).get(bookie(4));
+        // the journal queue, the add latency and the read cache misses are all twice the reference
+        assertEquals(4.0, overloaded.getLoadPenalty(), 1e-9);
+    }
+
+    @Test
+    public void testPenaltyIsCapped() {
+        BookieInfo overloaded = BookieInfoReader.applyLoadPenalties(
+                withAddLatencies(3000, 3000, 3000, 3000, 10000000)).get(bookie(4));
+        assertEquals(BookieInfoReader.MAX_LOAD_PENALTY, overloaded.getLoadPenalty(), 0.0);
+        assertEquals((long) (DISK_SPACE / BookieInfoReader.MAX_LOAD_PENALTY), overloaded.getWeight());
+    }
+
+    @Test
+    public void testLoadSmoothing() {
+        BookieInfo previous = info(100, 1000, 10);
+        BookieInfo smoothed = info(200, 2000, 60).smoothLoad(previous);
+        assertEquals(130, smoothed.getJournalQueueLength());
+        assertEquals(1300, smoothed.getAddLatencyMicros());
+        assertEquals(25, smoothed.getReadCacheMissPercent());
+        assertEquals(DISK_SPACE, smoothed.getFreeDiskSpace());
+
+        // a spike fades away over the next polls
+        BookieInfo spike = info(100, 100000, 10).smoothLoad(info(100, 1000, 10));
+        BookieInfo next = info(100, 1000, 10).smoothLoad(spike);
+        assertTrue(next.getAddLatencyMicros() < spike.getAddLatencyMicros());
+
+        // the first sample, or the first one after an unknown load, is taken as is
+        assertEquals(2000, info(200, 2000, 60).smoothLoad(null).getAddLatencyMicros());
+        assertEquals(2000, info(200, 2000, 60).smoothLoad(info(-1, -1, -1)).getAddLatencyMicros());
+        assertEquals(-1, info(-1, -1, -1).smoothLoad(previous).getAddLatencyMicros());
+    }
+
+    @Test
+    public void testOverloadedBookieGetsFewerLedgers() throws Exception {
+        ClientConfiguration conf = new ClientConfiguration()
+                .setDiskWeightBasedPlacementEnabled(true)
+                .setLoadBasedPlacementEnabled(true);
+        timer = new HashedWheelTimer();
+        policy = new RackawareEnsemblePlacementPolicy();
+        policy.initialize(conf,
+                Optional.of(new TopologyAwareEnsemblePlacementPolicy.DefaultResolver(
+                        () -> NetworkTopology.DEFAULT_REGION_AND_RACK)),
+                timer, SettableFeatureProvider.DISABLE_ALL, NullStatsLogger.INSTANCE,
+                BookieSocketAddress.LEGACY_BOOKIEID_RESOLVER);
+        Set<BookieId> bookies = new HashSet<>();
+        for (int i = 0; i < NUM_BOOKIES; i++) {
+            bookies.add(bookie(i));
+        }
+        policy.onClusterChanged(bookies, Collections.emptySet());
+
+        // the same free disk space everywhere, the last bookie is 4 times slower
+        policy.updateBookieInfo(BookieInfoReader.applyLoadPenalties(
+                withAddLatencies(3000, 3000, 3000, 3000, 12000)));
+
+        int numEnsembles = 10000;
+        Map<BookieId, Integer> selections = new HashMap<>();
+        for (int i = 0; i < numEnsembles; i++) {
+            List<BookieId> ensemble = policy.newEnsemble(1, 1, 1, Collections.emptyMap(), Collections.emptySet())
+                    .getResult();
+            selections.merge(ensemble.get(0), 1, Integer::sum);
+        }
+        // the overloaded bookie gets 1/17th of the ensembles, the others 4/17th each
+        int overloaded = selections.getOrDefault(bookie(4), 0);
+        for (int i = 0; i < NUM_BOOKIES - 1; i++) {
+            int selected = selections.getOrDefault(bookie(i), 0);
+            assertTrue(bookie(i) + " selected " + selected + " times, the overloaded bookie " + overloaded + " times",
+                    selected > 2 * overloaded);
+        }
+        assertTrue(overloaded > 0);
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.client;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit tests of the choice of the next replica to read from by {@link PendingReadOp}.
+ */
+public class PendingReadOpTest {
+
+    private static final long UNKNOWN = -1L;
+
+    private DistributionSchedule.WriteSet writeSet;
+
+    @Before
+    public void setup() {
+        // replicas 0, 1, 2, 3 and 4 are on the bookies with the same index in the ensemble
+        writeSet = new RoundRobinDistributionSchedule(5, 3, 5).getWriteSet(0L);
+    }
+
+    @After
+    public void teardown() {
+        writeSet.recycle();
+    }
+
+    private int fastestReplica(int nextReplica, long... readLatencies) {
+        return PendingReadOp.fastestReplica(writeSet, nextReplica, bookieIndex -> readLatencies[bookieIndex]);
+    }
+
+    @Test
+    public void testFastestRemainingReplica() {
+        assertEquals(3, fastestReplica(1, 100, 500, 400, 200, 300));
+        // the replicas already read from are not candidates
+        assertEquals(4, fastestReplica(1, 10, 500, 400, 200, 100));
+        // ties keep the order of the read sequence
+        assertEquals(2, fastestReplica(1, 100, 500, 200, 200, 300));
+        assertEquals(1, fastestReplica(1, 100, 200, 200, 200, 200));
+        assertEquals(4, fastestReplica(4, 100, 200, 300, 400, 500));
+    }
+
+    @Test
+    public void testUnknownLatencyOfTheNextReplica() {
+        // the next replica has no samples, the later ones are still compared
+        assertEquals(3, fastestReplica(1, 100, UNKNOWN, 400, 200, 300));
+        assertEquals(2, fastestReplica(1, 100, UNKNOWN, 200, UNKNOWN, 300));
+    }
+
+    @Test
+    public void testUnknownLatencyOfTheOtherReplicas() {
+        // replicas without samples are neither faster nor slower than the known ones
+        assertEquals(4, fastestReplica(1, 100, 500, UNKNOWN, UNKNOWN, 300));
+        assertEquals(1, fastestReplica(1, 100, 200, UNKNOWN, UNKNOWN, UNKNOWN));
+    }
+
+    @Test
+    public void testNoLatencyKnown() {
+        // the read sequence of the placement policy is kept
+        assertEquals(1, fastestReplica(1, UNKNOWN, UNKNOWN, UNKNOWN, UNKNOWN, UNKNOWN));
+        assertEquals(2, fastestReplica(2, 100, 100, UNKNOWN, UNKNOWN, UNKNOWN));
+    }
+
+    @Test
+    public void testPromotionOfTheFastestReplica() {
+        long[] readLatencies = { 100, UNKNOWN, 400, 50, 300 };
+        int replica = fastestReplica(1, readLatencies);
+        writeSet.moveAndShift(replica, 1);
+        assertEquals(0, writeSet.get(0));
+        assertEquals(3, writeSet.get(1));
+        assertEquals(1, writeSet.get(2));
+        assertEquals(2, writeSet.get(3));
+        assertEquals(4, writeSet.get(4));
+        // the next speculative read goes to the fastest of the replicas left
+        assertEquals(4, fastestReplica(2, readLatencies));
+    }
+}
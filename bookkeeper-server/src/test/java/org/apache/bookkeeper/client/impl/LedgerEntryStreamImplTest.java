@@ -0,0 +1,266 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.client.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import org.apache.bookkeeper.client.BKException;
+import org.apache.bookkeeper.client.api.LedgerEntries;
+import org.apache.bookkeeper.client.api.LedgerEntry;
+import org.apache.bookkeeper.client.api.LedgerEntryStream;
+import org.apache.bookkeeper.client.api.ReadHandle;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit tests of {@link LedgerEntryStreamImpl}.
+ */
+public class LedgerEntryStreamImplTest {
+
+    private static final long LEDGER_ID = 1234L;
+    private static final int ENTRY_SIZE = 100;
+
+    /**
+     * A range read issued by the stream, completed by the test.
+     */
+    private static class RangeRead {
+        final long first;
+        final long last;
+        final CompletableFuture<LedgerEntries> future = new CompletableFuture<>();
+
+        RangeRead(long first, long last) {
+            this.first = first;
+            this.last = last;
+        }
+    }
+
+    private ReadHandle handle;
+    private final List<RangeRead> reads = new ArrayList<>();
+    private final List<ByteBuf> buffers = new ArrayList<>();
+
+    @Before
+    public void setup() {
+        handle = mock(ReadHandle.class);
+        when(handle.readAsync(anyLong(), anyLong())).thenAnswer(invocation -> {
+            RangeRead read = new RangeRead(invocation.getArgument(0), invocation.getArgument(1));
+            synchronized (reads) {
+                reads.add(read);
+            }
+            return read.future;
+        });
+    }
+
+    private RangeRead read(int index) {
+        synchronized (reads) {
+            return reads.get(index);
+        }
+    }
+
+    private int numReads() {
+        synchronized (reads) {
+            return reads.size();
+        }
+    }
+
+    private void complete(RangeRead read) {
+        List<LedgerEntry> entries = new ArrayList<>();
+        for (long entryId = read.first; entryId <= read.last; entryId++) {
+            ByteBuf buf = Unpooled.buffer(ENTRY_SIZE).writerIndex(ENTRY_SIZE).setLong(0, entryId);
+            buffers.add(buf);
+            entries.add(LedgerEntryImpl.create(LEDGER_ID, entryId, ENTRY_SIZE, buf));
+        }
+        read.future.complete(LedgerEntriesImpl.create(entries));
+    }
+
+    private void completeAll() {
+        for (int i = 0; i < numReads(); i++) {
+            if (!read(i).future.isDone()) {
+                complete(read(i));
+            }
+        }
+    }
+
+    private static void consume(LedgerEntryStream stream, long expectedEntryId) throws Exception {
+        try (LedgerEntry entry = stream.nextAsync().get()) {
+            assertEquals(expectedEntryId, entry.getEntryId());
+            assertEquals(expectedEntryId, entry.getEntryBuffer().getLong(0));
+        }
+    }
+
+    private void assertAllReleased() {
+        for (ByteBuf buf : buffers) {
+            assertEquals(0, buf.refCnt());
+        }
+    }
+
+    @Test
+    public void testEntriesReadInBatches() throws Exception {
+        // two batches of 16 entries fit in the window
+        LedgerEntryStream stream = new LedgerEntryStreamImpl(handle, 0, 99, 32, Long.MAX_VALUE);
+        assertEquals(2, numReads());
+        for (long entryId = 0; entryId < 100; entryId++) {
+            completeAll();
+            consume(stream, entryId);
+        }
+        assertFalse(stream.hasNext());
+        stream.close();
+
+        long first = 0;
+        for (int i = 0; i < numReads(); i++) {
+            assertEquals(first, read(i).first);
+            assertEquals(Math.min(first + 15, 99), read(i).last);
+            first = read(i).last + 1;
+        }
+        assertEquals(100, first);
+        assertEquals(7, numReads());
+        assertAllReleased();
+    }
+
+    @Test
+    public void testWindowBoundedByEntries() throws Exception {
+        LedgerEntryStream stream = new LedgerEntryStreamImpl(handle, 0, 999, 20, Long.MAX_VALUE, 8);
+        // a third batch would exceed the 20 entries of the window
+        assertEquals(2, numReads());
+        completeAll();
+        assertEquals(2, numReads());
+
+        // consuming 4 entries makes room for another batch
+        for (long entryId = 0; entryId < 3; entryId++) {
+            consume(stream, entryId);
+        }
+        assertEquals(2, numReads());
+        consume(stream, 3);
+        assertEquals(3, numReads());
+        assertEquals(16, read(2).first);
+        assertEquals(23, read(2).last);
+        stream.close();
+        completeAll();
+        assertAllReleased();
+    }
+
+    @Test
+    public void testWindowBoundedByBytes() throws Exception {
+        LedgerEntryStream stream = new LedgerEntryStreamImpl(handle, 0, 999, 1000, 10 * ENTRY_SIZE, 8);
+        // nothing is buffered yet, so only the entries bound the reads in flight
+        assertEquals(125, numReads());
+        stream.close();
+        completeAll();
+        assertAllReleased();
+
+        reads.clear();
+        stream = new LedgerEntryStreamImpl(handle, 0, 999, 32, 10 * ENTRY_SIZE, 8);
+        assertEquals(4, numReads());
+        completeAll();
+        // 32 entries are buffered, no read is issued until less than 10 entries are left
+        for (long entryId = 0; entryId < 22; entryId++) {
+            consume(stream, entryId);
+            assertEquals(4, numReads());
+        }
+        consume(stream, 22);
+        assertEquals(6, numReads());
+        stream.close();
+        completeAll();
+        assertAllReleased();
+    }
+
+    @Test
+    public void testEntryLargerThanByteWindow() throws Exception {
+        LedgerEntryStream stream = new LedgerEntryStreamImpl(handle, 0, 19, 10, 1, 1);
+        assertEquals(10, numReads());
+        completeAll();
+        // the buffered entries exceed the byte window, until all of them are consumed
+        for (long entryId = 0; entryId < 9; entryId++) {
+            consume(stream, entryId);
+            assertEquals(10, numReads());
+        }
+        consume(stream, 9);
+        assertEquals(20, numReads());
+        for (long entryId = 10; entryId < 20; entryId++) {
+            completeAll();
+            consume(stream, entryId);
+        }
+        assertFalse(stream.hasNext());
+        assertAllReleased();
+    }
+
+    @Test
+    public void testReadFailure() throws Exception {
+        LedgerEntryStream stream = new LedgerEntryStreamImpl(handle, 0, 15, 8, Long.MAX_VALUE, 4);
+        complete(read(0));
+        BKException failure = new BKException.BKBookieHandleNotAvailableException();
+        read(1).future.completeExceptionally(failure);
+
+        for (long entryId = 0; entryId < 4; entryId++) {
+            consume(stream, entryId);
+        }
+        // every entry of the failed batch fails with the read error
+        for (int i = 0; i < 4; i++) {
+            try {
+                stream.nextAsync().get();
+                fail("The entries of a failed read should fail");
+            } catch (ExecutionException e) {
+                assertSame(failure, e.getCause());
+            }
+        }
+        assertTrue(stream.hasNext());
+        completeAll();
+        consume(stream, 8);
+        stream.close();
+        completeAll();
+        assertAllReleased();
+    }
+
+    @Test
+    public void testCloseReleasesEntries() throws Exception {
+        LedgerEntryStream stream = new LedgerEntryStreamImpl(handle, 0, 99, 16, Long.MAX_VALUE, 4);
+        assertEquals(4, numReads());
+        complete(read(0));
+        complete(read(1));
+        consume(stream, 0);
+
+        stream.close();
+        assertFalse(stream.hasNext());
+        // entries buffered and entries whose read completes after the stream was closed are released
+        complete(read(2));
+        complete(read(3));
+        assertEquals(4, numReads());
+        assertAllReleased();
+        try {
+            stream.nextAsync().get();
+            fail("A closed stream should not deliver entries");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+    }
+}
@@ -0,0 +1,239 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.discover;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import org.apache.bookkeeper.net.BookieId;
+import org.apache.bookkeeper.shims.zk.ZooKeeperServerShim;
+import org.apache.bookkeeper.shims.zk.ZooKeeperServerShimFactory;
+import org.apache.bookkeeper.util.PortManager;
+import org.apache.bookkeeper.versioning.Versioned;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.Watcher;
+import org.apache.zookeeper.ZooDefs.Ids;
+import org.apache.zookeeper.ZooKeeper;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Unit tests of {@link ZKBookieMembership} against an in-process ZooKeeper server.
+ */
+public class ZKBookieMembershipTest {
+
+    private static final String LEDGERS_ROOT = "/ledgers";
+    private static final String AVAILABLE_PATH = LEDGERS_ROOT + "/available";
+    private static final String READONLY_PATH = AVAILABLE_PATH + "/readonly";
+
+    @Rule
+    public final TemporaryFolder tmpDir = new TemporaryFolder();
+
+    private ZooKeeperServerShim zkServer;
+    private String connectString;
+    private final List<ZooKeeper> handles = new ArrayList<>();
+
+    @Before
+    public void setup() throws Exception {
+        int port = PortManager.nextFreePort();
+        zkServer = ZooKeeperServerShimFactory.createServer(tmpDir.newFolder("zk"), tmpDir.newFolder("zk-log"),
+                port, 100);
+        zkServer.start();
+        connectString = "127.0.0.1:" + port;
+
+        ZooKeeper zk = newHandle();
+        zk.create(LEDGERS_ROOT, new byte[0], Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
+        zk.create(AVAILABLE_PATH, new byte[0], Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
+    }
+
+    @After
+    public void teardown() throws Exception {
+        for (ZooKeeper zk : handles) {
+            zk.close();
+        }
+        if (null != zkServer) {
+            zkServer.stop();
+        }
+    }
+
+    private ZooKeeper newHandle() throws Exception {
+        CountDownLatch connected = new CountDownLatch(1);
+        ZooKeeper zk = new ZooKeeper(connectString, 10000, event -> {
+            if (Watcher.Event.KeeperState.SyncConnected == event.getState()) {
+                connected.countDown();
+            }
+        });
+        handles.add(zk);
+        assertTrue("Failed to connect to ZooKeeper", connected.await(10, TimeUnit.SECONDS));
+        return zk;
+    }
+
+    private static Set<BookieId> bookies(String... bookieIds) {
+        Set<BookieId> bookies = new HashSet<>();
+        for (String bookieId : bookieIds) {
+            bookies.add(BookieId.parse(bookieId));
+        }
+        return bookies;
+    }
+
+    private static BiConsumer<Versioned<Set<BookieId>>, Throwable> collectTo(BlockingQueue<Set<BookieId>> queue) {
+        return (snapshot, cause) -> {
+            if (null == cause) {
+                queue.add(snapshot.getValue());
+            }
+        };
+    }
+
+    private static void registerBookie(ZooKeeper zk, String parent, String bookieId) throws Exception {
+        zk.create(parent + "/" + bookieId, new byte[0], Ids.OPEN_ACL_UNSAFE, CreateMode.EPHEMERAL);
+    }
+
+    private static void awaitSnapshot(BlockingQueue<Set<BookieId>> queue, Set<BookieId> expected)
+            throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        Set<BookieId> last = null;
+        while (System.currentTimeMillis() < deadline) {
+            Set<BookieId> snapshot = queue.poll(100, TimeUnit.MILLISECONDS);
+            if (null != snapshot) {
+                last = snapshot;
+                if (expected.equals(snapshot)) {
+                    return;
+                }
+            }
+        }
+        assertEquals("Timed out waiting for the bookie membership", expected, last);
+    }
+
+    @Test
+    public void testBookieAddedAndRemoved() throws Exception {
+        ZooKeeper zk = handles.get(0);
+        ZKBookieMembership membership = ZKBookieMembership.acquire("add-remove", LEDGERS_ROOT, zk, 0L);
+        try {
+            BlockingQueue<Set<BookieId>> writable = new LinkedBlockingQueue<>();
+            BlockingQueue<Set<BookieId>> readOnly = new LinkedBlockingQueue<>();
+            membership.subscribe(false, collectTo(writable));
+            membership.subscribe(true, collectTo(readOnly));
+            awaitSnapshot(writable, Collections.emptySet());
+            awaitSnapshot(readOnly, Collections.emptySet());
+
+            registerBookie(zk, AVAILABLE_PATH, "bookie-1:3181");
+            registerBookie(zk, AVAILABLE_PATH, "bookie-2:3181");
+            awaitSnapshot(writable, bookies("bookie-1:3181", "bookie-2:3181"));
+            assertNotNull(membership.getBookieServiceInfo(BookieId.parse("bookie-1:3181")));
+
+            // going readonly, before the readonly path exists
+            zk.create(READONLY_PATH, new byte[0], Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
+            registerBookie(zk, READONLY_PATH, "bookie-2:3181");
+            zk.delete(AVAILABLE_PATH + "/bookie-2:3181", -1);
+            awaitSnapshot(writable, bookies("bookie-1:3181"));
+            awaitSnapshot(readOnly, bookies("bookie-2:3181"));
+
+            zk.delete(AVAILABLE_PATH + "/bookie-1:3181", -1);
+            awaitSnapshot(writable, Collections.emptySet());
+            assertNull(membership.getBookieServiceInfo(BookieId.parse("bookie-1:3181")));
+            assertEquals(bookies("bookie-2:3181"), membership.getSnapshot(true).getValue());
+        } finally {
+            membership.release(zk);
+        }
+    }
+
+    @Test
+    public void testChangesAreCoalesced() throws Exception {
+        ZooKeeper zk = handles.get(0);
+        long coalesceMs = 1000;
+        ZKBookieMembership membership = ZKBookieMembership.acquire("coalesce", LEDGERS_ROOT, zk, coalesceMs);
+        try {
+            BlockingQueue<Set<BookieId>> writable = new LinkedBlockingQueue<>();
+            membership.subscribe(false, collectTo(writable));
+            awaitSnapshot(writable, Collections.emptySet());
+
+            Set<BookieId> expected = new HashSet<>();
+            for (int i = 0; i < 5; i++) {
+                registerBookie(zk, AVAILABLE_PATH, "bookie-" + i + ":3181");
+                expected.add(BookieId.parse("bookie-" + i + ":3181"));
+            }
+            // a burst of registrations is published as a single snapshot
+            Set<BookieId> snapshot = writable.poll(10, TimeUnit.SECONDS);
+            assertEquals(expected, snapshot);
+            assertNull(writable.poll(2 * coalesceMs, TimeUnit.MILLISECONDS));
+        } finally {
+            membership.release(zk);
+        }
+    }
+
+    @Test
+    public void testWatchMovedOnRelease() throws Exception {
+        ZooKeeper zk1 = handles.get(0);
+        ZooKeeper zk2 = newHandle();
+        ZKBookieMembership membership = ZKBookieMembership.acquire("move", LEDGERS_ROOT, zk1, 0L);
+        assertSame(membership, ZKBookieMembership.acquire("move", LEDGERS_ROOT, zk2, 0L));
+        try {
+            BlockingQueue<Set<BookieId>> writable = new LinkedBlockingQueue<>();
+            membership.subscribe(false, collectTo(writable));
+            awaitSnapshot(writable, Collections.emptySet());
+
+            // the watch is on the first handle, move it to the second one and close the first one
+            membership.release(zk1);
+            zk1.close();
+
+            registerBookie(zk2, AVAILABLE_PATH, "bookie-1:3181");
+            awaitSnapshot(writable, bookies("bookie-1:3181"));
+            zk2.delete(AVAILABLE_PATH + "/bookie-1:3181", -1);
+            awaitSnapshot(writable, Collections.emptySet());
+        } finally {
+            membership.release(zk2);
+        }
+    }
+
+    @Test
+    public void testExternalHandlesAreSharedByIdentity() throws Exception {
+        ZooKeeper zk1 = handles.get(0);
+        ZooKeeper zk2 = newHandle();
+        ZKBookieMembership membership1 = ZKBookieMembership.acquire(zk1, LEDGERS_ROOT, zk1, 0L);
+        ZKBookieMembership membership2 = ZKBookieMembership.acquire(zk2, LEDGERS_ROOT, zk2, 0L);
+        try {
+            assertNotSame(membership1, membership2);
+            ZKBookieMembership shared = ZKBookieMembership.acquire(zk1, LEDGERS_ROOT, zk1, 0L);
+            assertSame(membership1, shared);
+            shared.release(zk1);
+        } finally {
+            membership1.release(zk1);
+            membership2.release(zk2);
+        }
+    }
+}
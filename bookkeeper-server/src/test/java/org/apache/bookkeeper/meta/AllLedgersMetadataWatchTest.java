@@ -0,0 +1,205 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.meta;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import org.apache.bookkeeper.client.LedgerMetadataBuilder;
+import org.apache.bookkeeper.client.api.DigestType;
+import org.apache.bookkeeper.client.api.LedgerMetadata;
+import org.apache.bookkeeper.conf.ClientConfiguration;
+import org.apache.bookkeeper.net.BookieId;
+import org.apache.bookkeeper.proto.BookkeeperInternalCallbacks.LedgerMetadataListener;
+import org.apache.bookkeeper.versioning.Versioned;
+import org.apache.zookeeper.AddWatchMode;
+import org.apache.zookeeper.AsyncCallback.DataCallback;
+import org.apache.zookeeper.AsyncCallback.VoidCallback;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.WatchedEvent;
+import org.apache.zookeeper.Watcher;
+import org.apache.zookeeper.Watcher.Event.EventType;
+import org.apache.zookeeper.Watcher.Event.KeeperState;
+import org.apache.zookeeper.Watcher.WatcherType;
+import org.apache.zookeeper.ZooKeeper;
+import org.apache.zookeeper.data.Stat;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit tests of the watch on all the ledgers of {@link AbstractZkLedgerManager}.
+ */
+public class AllLedgersMetadataWatchTest {
+
+    private ZooKeeper zk;
+    private HierarchicalLedgerManager ledgerManager;
+    private final AtomicInteger addWatchRc = new AtomicInteger(KeeperException.Code.OK.intValue());
+    private final AtomicReference<Watcher> allLedgersWatcher = new AtomicReference<>();
+    private byte[] metadataBytes;
+
+    private static class QueueingListener implements LedgerMetadataListener {
+        final BlockingQueue<Long> changes = new LinkedBlockingQueue<>();
+        final BlockingQueue<Versioned<LedgerMetadata>> metadata = new LinkedBlockingQueue<>();
+        final CountDownLatch watchReset = new CountDownLatch(1);
+
+        @Override
+        public void onChanged(long ledgerId, Versioned<LedgerMetadata> metadata) {
+            changes.add(ledgerId);
+            if (null != metadata) {
+                this.metadata.add(metadata);
+            }
+        }
+
+        @Override
+        public void onWatchReset() {
+            watchReset.countDown();
+        }
+    }
+
+    @Before
+    public void setup() throws Exception {
+        zk = mock(ZooKeeper.class);
+        ledgerManager = new HierarchicalLedgerManager(new ClientConfiguration(), zk);
+        LedgerMetadata metadata = LedgerMetadataBuilder.create()
+                .withId(1234L)
+                .withEnsembleSize(1).withWriteQuorumSize(1).withAckQuorumSize(1)
+                .withDigestType(DigestType.CRC32C).withPassword(new byte[0])
+                .newEnsembleEntry(0, Arrays.asList(BookieId.parse("bookie1:3181")))
+                .build();
+        metadataBytes = new LedgerMetadataSerDe().serialize(metadata);
+
+        doAnswer(invocation -> {
+            allLedgersWatcher.set(invocation.getArgument(1));
+            VoidCallback cb = invocation.getArgument(3);
+            cb.processResult(addWatchRc.get(), invocation.getArgument(0), invocation.getArgument(4));
+            return null;
+        }).when(zk).addWatch(eq("/ledgers"), any(Watcher.class), eq(AddWatchMode.PERSISTENT_RECURSIVE),
+                any(VoidCallback.class), any());
+        doAnswer(invocation -> {
+            DataCallback cb = invocation.getArgument(2);
+            Stat stat = new Stat();
+            stat.setVersion(1);
+            cb.processResult(KeeperException.Code.OK.intValue(), invocation.getArgument(0),
+                    invocation.getArgument(3), metadataBytes, stat);
+            return null;
+        }).when(zk).getData(any(String.class), isNull(), any(DataCallback.class), any());
+    }
+
+    @After
+    public void teardown() throws Exception {
+        ledgerManager.close();
+    }
+
+    private void fireEvent(EventType type, String path) {
+        allLedgersWatcher.get().process(new WatchedEvent(type, KeeperState.SyncConnected, path));
+    }
+
+    @Test
+    public void testLedgerPaths() throws Exception {
+        assertEquals(1234L, ledgerManager.getWatchedLedgerId("/ledgers/00/0000/L1234"));
+        for (String path : Arrays.asList("/ledgers", "/ledgers/00", "/ledgers/00/0000",
+                "/ledgers/available/bookie1:3181", "/ledgers/underreplication/ledgers/00/0000/urL0000001234",
+                "/ledgers/LAYOUT", "/other/00/0000/L1234")) {
+            try {
+                ledgerManager.getWatchedLedgerId(path);
+                fail("Not a ledger path: " + path);
+            } catch (IOException ioe) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void testNotifiedThroughASingleWatch() throws Exception {
+        QueueingListener listener1 = new QueueingListener();
+        QueueingListener listener2 = new QueueingListener();
+        assertTrue(ledgerManager.registerAllLedgersMetadataListener(listener1).get(10, TimeUnit.SECONDS));
+        assertTrue(ledgerManager.registerAllLedgersMetadataListener(listener2).get(10, TimeUnit.SECONDS));
+        verify(zk, times(1)).addWatch(eq("/ledgers"), any(Watcher.class), eq(AddWatchMode.PERSISTENT_RECURSIVE),
+                any(VoidCallback.class), any());
+
+        fireEvent(EventType.NodeCreated, "/ledgers/00/0000/L1234");
+        assertEquals(Long.valueOf(1234L), listener1.changes.poll(10, TimeUnit.SECONDS));
+        assertEquals(Long.valueOf(1234L), listener2.changes.poll(10, TimeUnit.SECONDS));
+        assertEquals(1234L, listener1.metadata.poll(10, TimeUnit.SECONDS).getValue().getLedgerId());
+
+        // intermediate znodes and other znodes are ignored
+        fireEvent(EventType.NodeCreated, "/ledgers/00/0001");
+        fireEvent(EventType.NodeDataChanged, "/ledgers/underreplication/ledgers/00/0000/urL0000001234");
+
+        fireEvent(EventType.NodeDeleted, "/ledgers/00/0000/L1234");
+        assertEquals(Long.valueOf(1234L), listener1.changes.poll(10, TimeUnit.SECONDS));
+        assertNull(listener1.metadata.poll(100, TimeUnit.MILLISECONDS));
+        assertTrue(listener1.changes.isEmpty());
+
+        ledgerManager.unregisterAllLedgersMetadataListener(listener1);
+        verify(zk, never()).removeWatches(any(String.class), any(Watcher.class), any(WatcherType.class),
+                anyBoolean(), any(VoidCallback.class), any());
+        ledgerManager.unregisterAllLedgersMetadataListener(listener2);
+        verify(zk, times(1)).removeWatches(eq("/ledgers"), eq(allLedgersWatcher.get()), eq(WatcherType.Any),
+                eq(true), any(VoidCallback.class), any());
+    }
+
+    @Test
+    public void testUnsupportedRecursiveWatch() throws Exception {
+        addWatchRc.set(KeeperException.Code.UNIMPLEMENTED.intValue());
+        QueueingListener listener = new QueueingListener();
+        assertFalse(ledgerManager.registerAllLedgersMetadataListener(listener).get(10, TimeUnit.SECONDS));
+
+        // the listener was dropped, registering again tries to watch again
+        addWatchRc.set(KeeperException.Code.OK.intValue());
+        assertTrue(ledgerManager.registerAllLedgersMetadataListener(listener).get(10, TimeUnit.SECONDS));
+        verify(zk, times(2)).addWatch(eq("/ledgers"), any(Watcher.class), eq(AddWatchMode.PERSISTENT_RECURSIVE),
+                any(VoidCallback.class), any());
+    }
+
+    @Test
+    public void testWatchResetAfterSessionExpired() throws Exception {
+        QueueingListener listener = new QueueingListener();
+        assertTrue(ledgerManager.registerAllLedgersMetadataListener(listener).get(10, TimeUnit.SECONDS));
+
+        allLedgersWatcher.get().process(new WatchedEvent(EventType.None, KeeperState.Expired, null));
+        assertTrue(listener.watchReset.await(10, TimeUnit.SECONDS));
+        verify(zk, times(2)).addWatch(eq("/ledgers"), any(Watcher.class), eq(AddWatchMode.PERSISTENT_RECURSIVE),
+                any(VoidCallback.class), any());
+    }
+}
@@ -0,0 +1,236 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.meta;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import org.apache.bookkeeper.client.LedgerMetadataBuilder;
+import org.apache.bookkeeper.client.LedgerMetadataUtils;
+import org.apache.bookkeeper.client.api.DigestType;
+import org.apache.bookkeeper.client.api.LedgerMetadata;
+import org.apache.bookkeeper.net.BookieId;
+import org.junit.Test;
+
+/**
+ * Unit tests of {@link LedgerMetadataSerDe}.
+ */
+public class LedgerMetadataSerDeTest {
+
+    private static final long LEDGER_ID = 1234L;
+    private static final byte[] PASSWORD = "password".getBytes(UTF_8);
+    private static final String V4_HEADER = "BookieMetadataFormatVersion\t4\n";
+
+    private final LedgerMetadataSerDe serDe = new LedgerMetadataSerDe();
+
+    private static List<BookieId> ensemble(int... bookies) {
+        List<BookieId> ensemble = new ArrayList<>();
+        for (int bookie : bookies) {
+            ensemble.add(BookieId.parse("bookie-" + bookie + ".example.com:3181"));
+        }
+        return ensemble;
+    }
+
+    private static LedgerMetadataBuilder newBuilder(int formatVersion) {
+        return LedgerMetadataBuilder.create()
+                .withId(LEDGER_ID)
+                .withMetadataFormatVersion(formatVersion)
+                .withEnsembleSize(3).withWriteQuorumSize(3).withAckQuorumSize(2)
+                .withDigestType(DigestType.CRC32C).withPassword(PASSWORD)
+                .newEnsembleEntry(0L, ensemble(1, 2, 3));
+    }
+
+    /**
+     * A closed ledger with ctime, several ensembles sharing bookies and custom metadata.
+     */
+    private static LedgerMetadataBuilder newRichBuilder(int formatVersion, Map<String, byte[]> customMetadata) {
+        return newBuilder(formatVersion)
+                .newEnsembleEntry(100L, ensemble(1, 4, 3))
+                .newEnsembleEntry(1000000L, ensemble(5, 4, 3))
+                .withCreationTime(1600000000000L).storingCreationTime(true)
+                .withCToken(42L)
+                .withCustomMetadata(customMetadata)
+                .withClosedState().withLastEntryId(1234567L).withLength(987654321L);
+    }
+
+    private static Map<String, byte[]> customMetadata(int numEntries) {
+        Map<String, byte[]> customMetadata = new HashMap<>();
+        for (int i = 0; i < numEntries; i++) {
+            customMetadata.put("key-" + i, ("value of the key " + i).getBytes(UTF_8));
+        }
+        return customMetadata;
+    }
+
+    private static void assertSameMetadata(LedgerMetadata expected, LedgerMetadata actual) {
+        assertEquals(expected.getLedgerId(), actual.getLedgerId());
+        assertEquals(expected.getEnsembleSize(), actual.getEnsembleSize());
+        assertEquals(expected.getWriteQuorumSize(), actual.getWriteQuorumSize());
+        assertEquals(expected.getAckQuorumSize(), actual.getAckQuorumSize());
+        assertEquals(expected.getState(), actual.getState());
+        assertEquals(expected.getLastEntryId(), actual.getLastEntryId());
+        assertEquals(expected.getLength(), actual.getLength());
+        assertEquals(expected.getDigestType(), actual.getDigestType());
+        assertArrayEquals(expected.getPassword(), actual.getPassword());
+        assertEquals(expected.getCtime(), actual.getCtime());
+        assertEquals(LedgerMetadataUtils.shouldStoreCtime(expected), LedgerMetadataUtils.shouldStoreCtime(actual));
+        assertEquals(expected.getCToken(), actual.getCToken());
+        assertEquals(expected.getAllEnsembles(), actual.getAllEnsembles());
+        assertEquals(expected.getCustomMetadata().keySet(), actual.getCustomMetadata().keySet());
+        for (Map.Entry<String, byte[]> entry : expected.getCustomMetadata().entrySet()) {
+            assertArrayEquals(entry.getKey(), entry.getValue(), actual.getCustomMetadata().get(entry.getKey()));
+        }
+    }
+
+    private LedgerMetadata roundTrip(LedgerMetadata metadata) throws Exception {
+        LedgerMetadata parsed = serDe.parseConfig(serDe.serialize(metadata), LEDGER_ID, Optional.empty());
+        assertEquals(metadata.getMetadataFormatVersion(), parsed.getMetadataFormatVersion());
+        assertSameMetadata(metadata, parsed);
+        return parsed;
+    }
+
+    @Test
+    public void testV4RoundTrip() throws Exception {
+        roundTrip(newBuilder(LedgerMetadataSerDe.METADATA_FORMAT_VERSION_4).build());
+        roundTrip(newBuilder(LedgerMetadataSerDe.METADATA_FORMAT_VERSION_4).withInRecoveryState().build());
+        // empty ledger
+        roundTrip(newBuilder(LedgerMetadataSerDe.METADATA_FORMAT_VERSION_4)
+                .withClosedState().withLastEntryId(-1L).withLength(0L).build());
+        roundTrip(newRichBuilder(LedgerMetadataSerDe.METADATA_FORMAT_VERSION_4, customMetadata(2)).build());
+        // large custom metadata is deflated
+        roundTrip(newRichBuilder(LedgerMetadataSerDe.METADATA_FORMAT_VERSION_4, customMetadata(100)).build());
+        for (DigestType digestType : DigestType.values()) {
+            roundTrip(newBuilder(LedgerMetadataSerDe.METADATA_FORMAT_VERSION_4).withDigestType(digestType)
+                    .withPassword(new byte[0]).build());
+        }
+    }
+
+    @Test
+    public void testV4UsesTheCtimeOfTheMetadataStore() throws Exception {
+        LedgerMetadata metadata = newBuilder(LedgerMetadataSerDe.METADATA_FORMAT_VERSION_4).build();
+        LedgerMetadata parsed = serDe.parseConfig(serDe.serialize(metadata), LEDGER_ID, Optional.of(123L));
+        assertEquals(123L, parsed.getCtime());
+        assertEquals(false, LedgerMetadataUtils.shouldStoreCtime(parsed));
+    }
+
+    @Test
+    public void testV3AndV4Compatibility() throws Exception {
+        for (Map<String, byte[]> customMetadata : Arrays.asList(Collections.<String, byte[]>emptyMap(),
+                customMetadata(2), customMetadata(100))) {
+            LedgerMetadata v3 = newRichBuilder(LedgerMetadataSerDe.METADATA_FORMAT_VERSION_3, customMetadata)
+                    .build();
+            LedgerMetadata v4 = newRichBuilder(LedgerMetadataSerDe.METADATA_FORMAT_VERSION_4, customMetadata)
+                    .build();
+            byte[] v3Bytes = serDe.serialize(v3);
+            byte[] v4Bytes = serDe.serialize(v4);
+            assertTrue(v4Bytes.length < v3Bytes.length);
+
+            // a V3 ledger rewritten as V4, e.g. once the format version is bumped, and back
+            // (LedgerMetadataBuilder.from doesn't copy the cToken)
+            LedgerMetadata fromV3 = serDe.parseConfig(v3Bytes, LEDGER_ID, Optional.empty());
+            LedgerMetadata asV4 = roundTrip(LedgerMetadataBuilder.from(fromV3).withCToken(fromV3.getCToken())
+                    .withMetadataFormatVersion(LedgerMetadataSerDe.METADATA_FORMAT_VERSION_4).build());
+            assertSameMetadata(v3, asV4);
+            LedgerMetadata backToV3 = roundTrip(LedgerMetadataBuilder.from(asV4).withCToken(asV4.getCToken())
+                    .withMetadataFormatVersion(LedgerMetadataSerDe.METADATA_FORMAT_VERSION_3).build());
+            assertArrayEquals(v3Bytes, serDe.serialize(backToV3));
+        }
+    }
+
+    @Test
+    public void testTruncatedV4() throws Exception {
+        byte[] bytes = serDe.serialize(
+                newRichBuilder(LedgerMetadataSerDe.METADATA_FORMAT_VERSION_4, customMetadata(100)).build());
+        for (int length = 0; length < bytes.length; length++) {
+            try {
+                serDe.parseConfig(Arrays.copyOf(bytes, length), LEDGER_ID, Optional.empty());
+                fail("Metadata truncated to " + length + " bytes should not be parsed");
+            } catch (IOException ioe) {
+                // expected
+            }
+        }
+    }
+
+    /**
+     * Return V4 metadata made of the given body, prefixed with the given length.
+     */
+    private static byte[] v4WithBody(byte[] body, int declaredLength) throws IOException {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        os.write(V4_HEADER.getBytes(UTF_8));
+        long value = declaredLength;
+        while ((value & ~0x7FL) != 0) {
+            os.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        os.write((int) value);
+        os.write(body);
+        return os.toByteArray();
+    }
+
+    /**
+     * Return the body of V4 metadata, i.e. the bytes after its header and length.
+     */
+    private static byte[] v4Body(byte[] bytes) {
+        int offset = V4_HEADER.length();
+        while ((bytes[offset] & 0x80) != 0) {
+            offset++;
+        }
+        return Arrays.copyOfRange(bytes, offset + 1, bytes.length);
+    }
+
+    @Test
+    public void testV4LengthPrefix() throws Exception {
+        LedgerMetadata metadata = newRichBuilder(LedgerMetadataSerDe.METADATA_FORMAT_VERSION_4, customMetadata(2))
+                .build();
+        byte[] body = v4Body(serDe.serialize(metadata));
+        assertArrayEquals(serDe.serialize(metadata), v4WithBody(body, body.length));
+
+        // fields appended to the body by later versions are skipped
+        byte[] extended = Arrays.copyOf(body, body.length + 3);
+        assertSameMetadata(metadata,
+                serDe.parseConfig(v4WithBody(extended, extended.length), LEDGER_ID, Optional.empty()));
+
+        // bytes after the body are not read as part of it
+        byte[] withTrailingBytes = v4WithBody(extended, body.length);
+        assertSameMetadata(metadata, serDe.parseConfig(withTrailingBytes, LEDGER_ID, Optional.empty()));
+
+        // a body shorter than its fields, or a length larger than the metadata, is rejected
+        for (int length : new int[] { body.length - 1, body.length + 1, Integer.MAX_VALUE }) {
+            try {
+                serDe.parseConfig(v4WithBody(body, length), LEDGER_ID, Optional.empty());
+                fail("Metadata with a body of " + length + " bytes should not be parsed");
+            } catch (IOException ioe) {
+                // expected
+            }
+        }
+    }
+}
@@ -0,0 +1,372 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.meta;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.bookkeeper.conf.ClientConfiguration;
+import org.apache.bookkeeper.meta.LedgerManager.LedgerRange;
+import org.apache.bookkeeper.meta.LedgerManager.LedgerRangeIterator;
+import org.apache.bookkeeper.util.BookKeeperConstants;
+import org.apache.zookeeper.AsyncCallback.ChildrenCallback;
+import org.apache.zookeeper.AsyncCallback.VoidCallback;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.KeeperException.Code;
+import org.apache.zookeeper.ZooKeeper;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit tests of {@link ParallelLedgerRangeIterator}.
+ */
+public class ParallelLedgerRangeIteratorTest {
+
+    private static final int MAX_IN_FLIGHT_REQUESTS = 4;
+
+    private ZooKeeper zk;
+    private AbstractHierarchicalLedgerManager ledgerManager;
+    // children of the znodes of the tree
+    private final Map<String, Set<String>> tree = new TreeMap<>();
+    // the listings answered with an error code instead of the children
+    private final Map<String, Integer> failures = new ConcurrentHashMap<>();
+    // the listings not answered until the test releases them
+    private final Map<String, Runnable> held = new ConcurrentHashMap<>();
+    private volatile boolean holdLeaves = false;
+    private final AtomicInteger numListings = new AtomicInteger(0);
+
+    @Before
+    public void setup() throws Exception {
+        zk = mock(ZooKeeper.class);
+        doAnswer(invocation -> {
+            VoidCallback cb = invocation.getArgument(1);
+            cb.processResult(Code.OK.intValue(), invocation.getArgument(0), invocation.getArgument(2));
+            return null;
+        }).when(zk).sync(anyString(), any(VoidCallback.class), any());
+        doAnswer(invocation -> {
+            String path = invocation.getArgument(0);
+            ChildrenCallback cb = invocation.getArgument(2);
+            numListings.incrementAndGet();
+            Runnable response = () -> {
+                int rc = listingRc(path);
+                cb.processResult(rc, path, invocation.getArgument(3),
+                        Code.OK.intValue() == rc ? children(path) : null);
+            };
+            if (holdLeaves && isLeaf(path)) {
+                held.put(path, response);
+            } else {
+                response.run();
+            }
+            return null;
+        }).when(zk).getChildren(anyString(), anyBoolean(), any(ChildrenCallback.class), any());
+        // the legacy sequential iterator lists the internal nodes synchronously
+        doAnswer(invocation -> {
+            String path = invocation.getArgument(0);
+            int rc = listingRc(path);
+            if (Code.OK.intValue() != rc) {
+                throw KeeperException.create(Code.get(rc), path);
+            }
+            return children(path);
+        }).when(zk).getChildren(anyString(), isNull());
+    }
+
+    private int listingRc(String path) {
+        Integer rc = failures.get(path);
+        if (null != rc) {
+            return rc;
+        }
+        return tree.containsKey(path) ? Code.OK.intValue() : Code.NONODE.intValue();
+    }
+
+    private List<String> children(String path) {
+        // zookeeper doesn't sort the children
+        List<String> unsorted = new ArrayList<>(tree.get(path));
+        Collections.reverse(unsorted);
+        return unsorted;
+    }
+
+    @After
+    public void teardown() throws Exception {
+        if (null != ledgerManager) {
+            ledgerManager.close();
+        }
+    }
+
+    private void newLegacyLedgerManager(int maxInFlightRequests) {
+        ClientConfiguration conf = new ClientConfiguration();
+        conf.setZkLedgerIterationMaxInFlightRequests(maxInFlightRequests);
+        ledgerManager = new LegacyHierarchicalLedgerManager(conf, zk);
+    }
+
+    private void newLongLedgerManager(int maxInFlightRequests) {
+        ClientConfiguration conf = new ClientConfiguration();
+        conf.setZkLedgerIterationMaxInFlightRequests(maxInFlightRequests);
+        ledgerManager = new LongHierarchicalLedgerManager(conf, zk);
+    }
+
+    /**
+     * Add the znodes of the ledgers, and the znodes that aren't ledger subtrees, to the tree.
+     */
+    private void addLedgers(Set<Long> ledgerIds) {
+        for (String special : new String[] { BookKeeperConstants.AVAILABLE_NODE,
+                BookKeeperConstants.UNDER_REPLICATION_NODE, BookKeeperConstants.LAYOUT_ZNODE, "idgen" }) {
+            addPath("/ledgers/" + special);
+        }
+        for (long ledgerId : ledgerIds) {
+            addPath(ledgerManager.getLedgerPath(ledgerId));
+        }
+    }
+
+    private void addPath(String path) {
+        int end = path.lastIndexOf('/');
+        tree.computeIfAbsent(path.substring(0, end), parent -> new TreeSet<>()).add(path.substring(end + 1));
+        if (end > "/ledgers".length()) {
+            addPath(path.substring(0, end));
+        }
+    }
+
+    private boolean isLeaf(String path) {
+        Set<String> children = tree.get(path);
+        return null != children && children.iterator().next().startsWith("L");
+    }
+
+    /**
+     * Two ledgers in each of the given number of leaves of the first top level subtree, and one ledger in
+     * the second top level subtree.
+     */
+    private Set<Long> legacyLedgers(int numLeaves) {
+        Set<Long> ledgerIds = new TreeSet<>();
+        for (long leaf = 0; leaf < numLeaves; leaf++) {
+            ledgerIds.add(leaf * 10000 + 1);
+            ledgerIds.add(leaf * 10000 + 5000);
+        }
+        ledgerIds.add(100000000L + 7);
+        return ledgerIds;
+    }
+
+    private static List<Set<Long>> collect(LedgerRangeIterator iterator) throws IOException {
+        List<Set<Long>> ranges = new ArrayList<>();
+        while (iterator.hasNext()) {
+            ranges.add(iterator.next().getLedgers());
+        }
+        assertFalse(iterator.hasNext());
+        return ranges;
+    }
+
+    private static void assertInLedgerIdOrder(Set<Long> expected, List<Set<Long>> ranges) {
+        List<Long> ledgerIds = new ArrayList<>();
+        for (Set<Long> range : ranges) {
+            assertFalse(range.isEmpty());
+            ledgerIds.addAll(range);
+        }
+        assertEquals(new ArrayList<>(expected), ledgerIds);
+    }
+
+    private void waitForHeldListings(int numHeld) throws Exception {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (held.size() < numHeld && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(numHeld, held.size());
+    }
+
+    private static String legacyLeaf(int leaf) {
+        return String.format("/ledgers/00/%04d", leaf);
+    }
+
+    @Test
+    public void testSequentialByDefault() {
+        ledgerManager = new LegacyHierarchicalLedgerManager(new ClientConfiguration(), zk);
+        assertFalse(ledgerManager.getLedgerRanges(0) instanceof ParallelLedgerRangeIterator);
+        ledgerManager.close();
+        ledgerManager = new LongHierarchicalLedgerManager(new ClientConfiguration(), zk);
+        assertFalse(ledgerManager.getLedgerRanges(0) instanceof ParallelLedgerRangeIterator);
+        ledgerManager.close();
+
+        newLegacyLedgerManager(MAX_IN_FLIGHT_REQUESTS);
+        assertTrue(ledgerManager.getLedgerRanges(0) instanceof ParallelLedgerRangeIterator);
+    }
+
+    @Test
+    public void testLegacyRangesInLedgerIdOrder() throws Exception {
+        newLegacyLedgerManager(1);
+        Set<Long> ledgerIds = legacyLedgers(20);
+        addLedgers(ledgerIds);
+        List<Set<Long>> sequentialRanges = collect(ledgerManager.getLedgerRanges(0));
+        assertInLedgerIdOrder(ledgerIds, sequentialRanges);
+        ledgerManager.close();
+
+        newLegacyLedgerManager(MAX_IN_FLIGHT_REQUESTS);
+        LedgerRangeIterator iterator = ledgerManager.getLedgerRanges(0);
+        assertTrue(iterator instanceof ParallelLedgerRangeIterator);
+        // the same ranges as the sequential iterator
+        assertEquals(sequentialRanges, collect(iterator));
+    }
+
+    @Test
+    public void testLongRangesInLedgerIdOrder() throws Exception {
+        newLongLedgerManager(1);
+        Set<Long> ledgerIds = new TreeSet<>();
+        for (long leaf = 0; leaf < 20; leaf++) {
+            ledgerIds.add(leaf * 10000 + 3);
+            ledgerIds.add(leaf * 10000 + 9999);
+        }
+        ledgerIds.add(Long.MAX_VALUE - 1);
+        addLedgers(ledgerIds);
+        List<Set<Long>> sequentialRanges = collect(ledgerManager.getLedgerRanges(0));
+        assertInLedgerIdOrder(ledgerIds, sequentialRanges);
+        ledgerManager.close();
+
+        newLongLedgerManager(MAX_IN_FLIGHT_REQUESTS);
+        LedgerRangeIterator iterator = ledgerManager.getLedgerRanges(0);
+        assertTrue(iterator instanceof ParallelLedgerRangeIterator);
+        assertEquals(sequentialRanges, collect(iterator));
+    }
+
+    @Test
+    public void testListingsAheadOfTheConsumerAreBounded() throws Exception {
+        newLegacyLedgerManager(MAX_IN_FLIGHT_REQUESTS);
+        Set<Long> ledgerIds = legacyLedgers(20);
+        addLedgers(ledgerIds);
+        int numZnodes = tree.size();
+        LedgerRangeIterator iterator = ledgerManager.getLedgerRanges(0);
+        assertTrue(iterator.hasNext());
+        // the root, the internal nodes and the leaves of the window
+        assertTrue(numListings.get() + " listings", numListings.get() <= 2 * MAX_IN_FLIGHT_REQUESTS + 2);
+        // a consumer that doesn't move on doesn't get anything else listed
+        iterator.hasNext();
+        assertTrue(numListings.get() <= 2 * MAX_IN_FLIGHT_REQUESTS + 2);
+
+        collect(iterator);
+        // every znode with children was listed once
+        assertEquals(numZnodes, numListings.get());
+    }
+
+    @Test
+    public void testInFlightRequestsAreBounded() throws Exception {
+        newLegacyLedgerManager(MAX_IN_FLIGHT_REQUESTS);
+        addLedgers(legacyLedgers(10));
+        holdLeaves = true;
+        LedgerRangeIterator iterator = ledgerManager.getLedgerRanges(0);
+
+        CompletableFuture<Boolean> hasNext = CompletableFuture.supplyAsync(() -> {
+            try {
+                return iterator.hasNext();
+            } catch (IOException ioe) {
+                throw new RuntimeException(ioe);
+            }
+        });
+        // the first leaves are listed concurrently, and no more
+        waitForHeldListings(MAX_IN_FLIGHT_REQUESTS);
+        for (int leaf = 0; leaf < MAX_IN_FLIGHT_REQUESTS; leaf++) {
+            assertTrue(held.containsKey(legacyLeaf(leaf)));
+        }
+        Thread.sleep(100);
+        assertEquals(MAX_IN_FLIGHT_REQUESTS, held.size());
+
+        // a listing completing before the one of the first leaf doesn't move the window
+        held.remove(legacyLeaf(1)).run();
+        Thread.sleep(100);
+        assertFalse(hasNext.isDone());
+        assertEquals(MAX_IN_FLIGHT_REQUESTS - 1, held.size());
+
+        held.remove(legacyLeaf(0)).run();
+        assertTrue(hasNext.get(10, TimeUnit.SECONDS));
+        assertEquals(new TreeSet<>(Arrays.asList(1L, 5000L)), iterator.next().getLedgers());
+        // the range of the second leaf was already listed, the window moves to the fifth leaf
+        assertTrue(iterator.hasNext());
+        assertTrue(held.containsKey(legacyLeaf(MAX_IN_FLIGHT_REQUESTS)));
+        assertEquals(MAX_IN_FLIGHT_REQUESTS - 1, held.size());
+
+        holdLeaves = false;
+        for (Runnable response : held.values()) {
+            response.run();
+        }
+        held.clear();
+        LedgerRange range = iterator.next();
+        assertEquals(10001L, range.start().longValue());
+        assertEquals(15000L, range.end().longValue());
+    }
+
+    @Test
+    public void testListingTimeout() throws Exception {
+        newLegacyLedgerManager(MAX_IN_FLIGHT_REQUESTS);
+        addLedgers(legacyLedgers(10));
+        holdLeaves = true;
+        LedgerRangeIterator iterator = ledgerManager.getLedgerRanges(100);
+        try {
+            iterator.hasNext();
+            fail("The listing of the first leaf should time out");
+        } catch (IOException ioe) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testListingErrors() throws Exception {
+        newLegacyLedgerManager(MAX_IN_FLIGHT_REQUESTS);
+        Set<Long> ledgerIds = legacyLedgers(10);
+        addLedgers(ledgerIds);
+        // a leaf removed while the tree is walked has no ledgers
+        tree.remove(legacyLeaf(3));
+        ledgerIds.remove(30001L);
+        ledgerIds.remove(35000L);
+        assertInLedgerIdOrder(ledgerIds, collect(ledgerManager.getLedgerRanges(0)));
+
+        failures.put(legacyLeaf(5), Code.CONNECTIONLOSS.intValue());
+        LedgerRangeIterator iterator = ledgerManager.getLedgerRanges(0);
+        // the ranges before the failed listing are returned
+        for (int leaf = 0; leaf < 5; leaf++) {
+            if (leaf != 3) {
+                assertTrue(iterator.hasNext());
+                iterator.next();
+            }
+        }
+        try {
+            iterator.hasNext();
+            fail("The failed listing should fail the iteration");
+        } catch (IOException ioe) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,185 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.net;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit tests of {@link TopologySnapshot}.
+ */
+public class TopologySnapshotTest {
+
+    private static final int NUM_CHOICES = 10000;
+
+    private final List<Node> leaves = new ArrayList<>();
+    private TopologySnapshot snapshot;
+
+    @Before
+    public void setup() {
+        // 3 bookies in each of /region1/rack1, /region1/rack10, /region2/rack1 and /region2/rack2
+        for (String rack : new String[] { "/region1/rack1", "/region1/rack10", "/region2/rack1", "/region2/rack2" }) {
+            for (int i = 0; i < 3; i++) {
+                leaves.add(new NodeBase("bookie-" + leaves.size() + ":3181", rack));
+            }
+        }
+        snapshot = new TopologySnapshot(leaves);
+    }
+
+    private List<Node> leaves(int... indexes) {
+        List<Node> nodes = new ArrayList<>();
+        for (int index : indexes) {
+            nodes.add(leaves.get(index));
+        }
+        return nodes;
+    }
+
+    /**
+     * Choose many times, and return how many times each leaf was chosen.
+     */
+    private Map<Node, Integer> chooseMany(String scope, Predicate<Node> filter) {
+        Map<Node, Integer> choices = new HashMap<>();
+        for (int i = 0; i < NUM_CHOICES; i++) {
+            Node chosen = snapshot.chooseRandom(scope, filter);
+            choices.merge(chosen, 1, Integer::sum);
+        }
+        return choices;
+    }
+
+    private static void assertUniform(Set<Node> expected, Map<Node, Integer> choices) {
+        assertEquals(expected, choices.keySet());
+        int mean = NUM_CHOICES / expected.size();
+        for (Map.Entry<Node, Integer> e : choices.entrySet()) {
+            assertTrue(e.getKey() + " chosen " + e.getValue() + " times",
+                    e.getValue() > mean * 0.7 && e.getValue() < mean * 1.3);
+        }
+    }
+
+    @Test
+    public void testLeavesByScope() {
+        assertEquals(12, snapshot.getNumOfLeaves());
+        assertEquals(4, snapshot.getNumOfRacks());
+        assertEquals(leaves, snapshot.getLeaves(NodeBase.ROOT));
+        assertEquals(leaves(0, 1, 2), snapshot.getLeaves("/region1/rack1"));
+        assertEquals(leaves(0, 1, 2, 3, 4, 5), snapshot.getLeaves("/region1"));
+        // scopes are normalized
+        assertEquals(leaves(6, 7, 8, 9, 10, 11), snapshot.getLeaves("/region2/"));
+        // a location prefix which isn't a parent scope
+        assertTrue(snapshot.getLeaves("/region1/rack").isEmpty());
+        assertTrue(snapshot.getLeaves("/region3").isEmpty());
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testLeavesAreUnmodifiable() {
+        snapshot.getLeaves("/region1/rack1").clear();
+    }
+
+    @Test
+    public void testEmptySnapshot() {
+        TopologySnapshot empty = new TopologySnapshot(new ArrayList<>());
+        assertEquals(0, empty.getNumOfLeaves());
+        assertEquals(0, empty.getNumOfRacks());
+        assertTrue(empty.getLeaves(NodeBase.ROOT).isEmpty());
+        assertNull(empty.chooseRandom(NodeBase.ROOT, node -> true));
+        assertNull(empty.chooseRandom("~/region1", node -> true));
+    }
+
+    @Test
+    public void testChooseRandomInScope() {
+        assertUniform(new HashSet<>(leaves(3, 4, 5)), chooseMany("/region1/rack10", node -> true));
+        assertUniform(new HashSet<>(leaves), chooseMany(NodeBase.ROOT, node -> true));
+        assertNull(snapshot.chooseRandom("/region3", node -> true));
+    }
+
+    @Test
+    public void testChooseRandomWithFilter() {
+        // a single accepted leaf is found after the random probes miss it
+        Node accepted = leaves.get(7);
+        for (int i = 0; i < 100; i++) {
+            assertSame(accepted, snapshot.chooseRandom(NodeBase.ROOT, node -> node == accepted));
+        }
+        assertNull(snapshot.chooseRandom("/region1", node -> node == accepted));
+
+        // the choice is still uniform among the few accepted leaves
+        Set<Node> few = new HashSet<>(leaves(0, 5, 11));
+        assertUniform(few, chooseMany(NodeBase.ROOT, few::contains));
+    }
+
+    @Test
+    public void testChooseRandomInInverseScope() {
+        assertUniform(new HashSet<>(leaves(3, 4, 5, 6, 7, 8, 9, 10, 11)), chooseMany("~/region1/rack1", node -> true));
+        // several excluded scopes, with a trailing separator
+        assertUniform(new HashSet<>(leaves(9, 10, 11)), chooseMany("~/region1,/region2/rack1/", node -> true));
+        assertUniform(new HashSet<>(leaves(4, 5, 6, 7, 8, 9, 10, 11)),
+                chooseMany("~/region1/rack1", node -> node != leaves.get(3)));
+        // a location prefix which isn't a parent scope excludes nothing
+        assertUniform(new HashSet<>(leaves), chooseMany("~/region1/rack", node -> true));
+
+        // excluding the root excludes everything
+        assertNull(snapshot.chooseRandom("~", node -> true));
+        assertNull(snapshot.chooseRandom("~/", node -> true));
+        assertNull(snapshot.chooseRandom("~/region1,/region2", node -> true));
+    }
+
+    @Test
+    public void testSnapshotOfNetworkTopology() {
+        NetworkTopologyImpl topology = new NetworkTopologyImpl();
+        for (Node leaf : leaves) {
+            topology.add(leaf);
+        }
+        TopologySnapshot first = topology.getSnapshot();
+        assertEquals(12, first.getNumOfLeaves());
+        assertEquals(topology.getNumOfRacks(), first.getNumOfRacks());
+        assertEquals(topology.getLeaves("/region1"), new HashSet<>(first.getLeaves("/region1")));
+        // the snapshot is reused until the topology changes
+        assertSame(first, topology.getSnapshot());
+
+        topology.remove(leaves.get(0));
+        TopologySnapshot second = topology.getSnapshot();
+        assertNotSame(first, second);
+        // the leaves of the topology aren't ordered
+        assertEquals(new HashSet<>(leaves(1, 2)), new HashSet<>(second.getLeaves("/region1/rack1")));
+        // a snapshot taken before doesn't change
+        assertEquals(new HashSet<>(leaves(0, 1, 2)), new HashSet<>(first.getLeaves("/region1/rack1")));
+
+        Node added = new NodeBase("bookie-new:3181", "/region3/rack1");
+        topology.add(added);
+        TopologySnapshot third = topology.getSnapshot();
+        assertNotSame(second, third);
+        assertEquals(5, third.getNumOfRacks());
+        assertEquals(Arrays.asList(added), third.getLeaves("/region3"));
+        assertSame(added, third.chooseRandom("/region3/rack1", node -> true));
+    }
+}
@@ -0,0 +1,216 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.proto;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.RETURNS_DEEP_STUBS;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.buffer.UnpooledByteBufAllocator;
+import io.netty.channel.group.DefaultChannelGroup;
+import io.netty.util.concurrent.ImmediateEventExecutor;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.apache.bookkeeper.bookie.Bookie;
+import org.apache.bookkeeper.common.util.affinity.CpuAffinity;
+import org.apache.bookkeeper.conf.ServerConfiguration;
+import org.apache.bookkeeper.stats.NullStatsLogger;
+import org.apache.bookkeeper.utils.TestBKConfiguration;
+import org.apache.commons.configuration.ConfigurationException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests of the thread-per-core mode of {@link BookieRequestProcessor}.
+ */
+public class BookieRequestProcessorThreadPerCoreTest {
+
+    private static final byte[] MASTER_KEY = new byte[0];
+    // owned by different ledger core threads
+    private static final long LEDGER_A = 0L;
+    private static final long LEDGER_B = 2L;
+
+    private Bookie bookie;
+    private BookieRequestHandler requestHandler;
+    private BookieRequestProcessor requestProcessor;
+
+    // the threads the ledger storage operations of each ledger ran on
+    private final Map<Long, Thread> addThreads = new ConcurrentHashMap<>();
+    private final Map<Long, Thread> readThreads = new ConcurrentHashMap<>();
+    private final Map<Long, CountDownLatch> blockedAdds = new ConcurrentHashMap<>();
+    private final Map<Long, CountDownLatch> blockedReads = new ConcurrentHashMap<>();
+    private final Map<Long, CountDownLatch> adds = new ConcurrentHashMap<>();
+    private final Map<Long, CountDownLatch> reads = new ConcurrentHashMap<>();
+
+    @Before
+    public void setup() throws Exception {
+        for (long ledgerId : new long[] { LEDGER_A, LEDGER_B }) {
+            adds.put(ledgerId, new CountDownLatch(1));
+            reads.put(ledgerId, new CountDownLatch(1));
+        }
+        bookie = mock(Bookie.class);
+        doAnswer(invocation -> {
+            long ledgerId = ((ByteBuf) invocation.getArgument(0)).getLong(0);
+            addThreads.put(ledgerId, Thread.currentThread());
+            CountDownLatch blocked = blockedAdds.get(ledgerId);
+            if (null != blocked) {
+                // a ledger storage blocked on its disk
+                blocked.await();
+            }
+            adds.get(ledgerId).countDown();
+            return null;
+        }).when(bookie).addEntry(any(ByteBuf.class), anyBoolean(), any(), any(), any());
+        when(bookie.readEntry(anyLong(), anyLong())).thenAnswer(invocation -> {
+            long ledgerId = invocation.getArgument(0);
+            readThreads.put(ledgerId, Thread.currentThread());
+            CountDownLatch blocked = blockedReads.get(ledgerId);
+            if (null != blocked) {
+                // a cold read of an entry log
+                blocked.await();
+            }
+            reads.get(ledgerId).countDown();
+            return Unpooled.wrappedBuffer(new byte[16]);
+        });
+
+        ServerConfiguration conf = TestBKConfiguration.newServerConfiguration()
+                .setThreadPerCoreEnabled(true)
+                .setServerNumIOThreads(2);
+        requestProcessor = new BookieRequestProcessor(conf, bookie, NullStatsLogger.INSTANCE, null,
+                UnpooledByteBufAllocator.DEFAULT, new DefaultChannelGroup(ImmediateEventExecutor.INSTANCE));
+        requestHandler = mock(BookieRequestHandler.class, RETURNS_DEEP_STUBS);
+        when(requestHandler.ctx().channel().isOpen()).thenReturn(true);
+    }
+
+    @After
+    public void teardown() {
+        for (CountDownLatch blocked : blockedAdds.values()) {
+            blocked.countDown();
+        }
+        for (CountDownLatch blocked : blockedReads.values()) {
+            blocked.countDown();
+        }
+        if (null != requestProcessor) {
+            requestProcessor.close();
+        }
+    }
+
+    private void add(long ledgerId) {
+        ByteBuf data = Unpooled.buffer(16).writeLong(ledgerId).writeLong(0L);
+        requestProcessor.processRequest(BookieProtocol.ParsedAddRequest.create(
+                BookieProtocol.CURRENT_PROTOCOL_VERSION, ledgerId, 0L, BookieProtocol.FLAG_NONE, MASTER_KEY, data),
+                requestHandler);
+    }
+
+    private void read(long ledgerId) {
+        requestProcessor.processRequest(BookieProtocol.ReadRequest.create(
+                BookieProtocol.CURRENT_PROTOCOL_VERSION, ledgerId, 0L, BookieProtocol.FLAG_NONE, null),
+                requestHandler);
+    }
+
+    @Test
+    public void testAddsOfALedgerRunOnItsLedgerCoreThread() throws Exception {
+        for (long ledgerId : new long[] { LEDGER_A, LEDGER_B }) {
+            add(ledgerId);
+            read(ledgerId);
+            assertTrue(adds.get(ledgerId).await(10, TimeUnit.SECONDS));
+            assertTrue(reads.get(ledgerId).await(10, TimeUnit.SECONDS));
+        }
+
+        for (long ledgerId : new long[] { LEDGER_A, LEDGER_B }) {
+            Thread thread = addThreads.get(ledgerId);
+            assertTrue(thread.getName(), thread.getName().startsWith("BookieLedgerCoreThreadPool"));
+            assertNotSame(Thread.currentThread(), thread);
+            // the reads keep their own threads
+            Thread readThread = readThreads.get(ledgerId);
+            assertTrue(readThread.getName(), readThread.getName().startsWith("BookieReadThreadPool"));
+        }
+        assertNotEquals(addThreads.get(LEDGER_A), addThreads.get(LEDGER_B));
+    }
+
+    @Test
+    public void testBlockedStorageDoesNotBlockTheIoThread() throws Exception {
+        CountDownLatch blocked = new CountDownLatch(1);
+        blockedAdds.put(LEDGER_A, blocked);
+
+        // the thread receiving the requests, as the IO thread, only hands them over
+        add(LEDGER_A);
+        add(LEDGER_B);
+
+        // the ledgers of the other threads are not held back by the blocked one
+        assertTrue(adds.get(LEDGER_B).await(10, TimeUnit.SECONDS));
+        // and neither are the reads of the blocked ledger
+        read(LEDGER_A);
+        assertTrue(reads.get(LEDGER_A).await(10, TimeUnit.SECONDS));
+        assertEquals(1, adds.get(LEDGER_A).getCount());
+
+        blocked.countDown();
+        assertTrue(adds.get(LEDGER_A).await(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testSlowReadDoesNotBlockTheAdds() throws Exception {
+        CountDownLatch blocked = new CountDownLatch(1);
+        blockedReads.put(LEDGER_A, blocked);
+
+        read(LEDGER_A);
+        add(LEDGER_A);
+        add(LEDGER_B);
+        assertTrue(adds.get(LEDGER_A).await(10, TimeUnit.SECONDS));
+        assertTrue(adds.get(LEDGER_B).await(10, TimeUnit.SECONDS));
+        assertFalse(reads.get(LEDGER_A).await(100, TimeUnit.MILLISECONDS));
+
+        blocked.countDown();
+        assertTrue(reads.get(LEDGER_A).await(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testMorePinnedThreadsThanIsolatedCores() throws Exception {
+        int numIsolatedCores = CpuAffinity.getNumIsolatedCores();
+        ServerConfiguration conf = new ServerConfiguration()
+                .setThreadPerCoreEnabled(true)
+                .setServerNumIOThreads(Math.max(1, numIsolatedCores / 2));
+        assertTrue(conf.getNumThreadPerCorePinnedThreads() > numIsolatedCores);
+        try {
+            conf.validate();
+            fail("Should fail to pin more threads than the isolated CPUs");
+        } catch (ConfigurationException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("threadPerCoreEnabled"));
+        }
+        // the check only applies to the thread-per-core mode
+        conf.setThreadPerCoreEnabled(false);
+        conf.validate();
+    }
+}
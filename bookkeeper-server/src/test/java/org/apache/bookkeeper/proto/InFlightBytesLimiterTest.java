@@ -0,0 +1,209 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.proto;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import io.netty.channel.Channel;
+import io.netty.channel.embedded.EmbeddedChannel;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import org.apache.bookkeeper.stats.Counter;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit tests of {@link InFlightBytesLimiter}.
+ */
+public class InFlightBytesLimiterTest {
+
+    private static final long MAX_BYTES = 1000;
+    private static final double LOW_PRIORITY_SHARE = 0.75;
+
+    private final Counter admittedBytes = mock(Counter.class);
+    private final Counter deferredBytes = mock(Counter.class);
+    // channels the other limits of the bookie don't allow to read from
+    private final Set<Channel> throttledChannels = Collections.newSetFromMap(new ConcurrentHashMap<>());
+    private InFlightBytesLimiter limiter;
+    private EmbeddedChannel channel1;
+    private EmbeddedChannel channel2;
+
+    @Before
+    public void setup() {
+        limiter = new InFlightBytesLimiter("test", MAX_BYTES, LOW_PRIORITY_SHARE,
+                channel -> !throttledChannels.contains(channel), admittedBytes, deferredBytes);
+        channel1 = new EmbeddedChannel();
+        channel2 = new EmbeddedChannel();
+    }
+
+    @After
+    public void teardown() {
+        channel1.finishAndReleaseAll();
+        channel2.finishAndReleaseAll();
+    }
+
+    private void assertReading(Channel channel) {
+        assertFalse(limiter.isDeferred(channel));
+        assertTrue(channel.config().isAutoRead());
+    }
+
+    private void assertDeferred(Channel channel) {
+        assertTrue(limiter.isDeferred(channel));
+        assertFalse(channel.config().isAutoRead());
+    }
+
+    @Test
+    public void testBelowTheLimit() {
+        limiter.acquire(channel1, 400, false);
+        limiter.acquire(channel1, 100, false);
+        limiter.acquire(channel2, 500, false);
+        assertEquals(1000, limiter.getInFlightBytes());
+        assertReading(channel1);
+        assertReading(channel2);
+        verify(admittedBytes).addCount(400);
+        verify(admittedBytes).addCount(500);
+        verify(deferredBytes, never()).addCount(anyLong());
+
+        limiter.release(channel1, 500);
+        limiter.release(channel2, 500);
+        assertEquals(0, limiter.getInFlightBytes());
+        // requests without bytes are not accounted
+        limiter.acquire(channel1, 0, false);
+        limiter.release(channel1, 0);
+        assertEquals(0, limiter.getInFlightBytes());
+    }
+
+    @Test
+    public void testDeferredAboveTheLimit() {
+        limiter.acquire(channel1, 600, false);
+        assertReading(channel1);
+        limiter.acquire(channel1, 600, false);
+        assertDeferred(channel1);
+        verify(deferredBytes).addCount(600);
+        // the requests already received are still accounted
+        limiter.acquire(channel1, 100, false);
+        assertEquals(1300, limiter.getInFlightBytes());
+
+        limiter.release(channel1, 100);
+        assertDeferred(channel1);
+        limiter.release(channel1, 200);
+        assertReading(channel1);
+        assertEquals(1000, limiter.getInFlightBytes());
+    }
+
+    @Test
+    public void testRequestLargerThanTheLimit() {
+        limiter.acquire(channel1, 5 * MAX_BYTES, false);
+        assertDeferred(channel1);
+        // it still completes, and the channel is read from again once it did
+        limiter.release(channel1, 5 * MAX_BYTES);
+        assertReading(channel1);
+    }
+
+    @Test
+    public void testFairShareOfTheChannels() {
+        limiter.acquire(channel1, 300, false);
+        limiter.acquire(channel2, 100, false);
+        // far below the limit, but above half of it while another channel has bytes in flight
+        limiter.acquire(channel1, 300, false);
+        assertDeferred(channel1);
+        assertEquals(700, limiter.getInFlightBytes());
+        limiter.acquire(channel2, 200, false);
+        assertReading(channel2);
+
+        limiter.release(channel1, 100);
+        assertReading(channel1);
+    }
+
+    @Test
+    public void testShareGrowsWhenOtherChannelsComplete() {
+        limiter.acquire(channel2, 100, false);
+        limiter.acquire(channel1, 600, false);
+        assertDeferred(channel1);
+
+        // channel1 is alone again, so its share is the whole limit
+        limiter.release(channel2, 100);
+        assertReading(channel1);
+    }
+
+    @Test
+    public void testLowPriorityShareOfTheLimit() {
+        limiter.acquire(channel1, 400, true);
+        limiter.acquire(channel2, 300, true);
+        assertReading(channel1);
+        assertReading(channel2);
+        // above 3/4 of the limit
+        limiter.acquire(channel1, 100, true);
+        assertDeferred(channel1);
+
+        // high priority requests can still use the remainder of the limit
+        limiter.acquire(channel2, 100, false);
+        assertReading(channel2);
+        assertEquals(900, limiter.getInFlightBytes());
+
+        limiter.release(channel2, 100);
+        assertDeferred(channel1);
+        limiter.release(channel2, 100);
+        assertReading(channel1);
+    }
+
+    @Test
+    public void testChannelsThrottledByOtherLimits() {
+        limiter.acquire(channel1, 1200, false);
+        assertDeferred(channel1);
+        throttledChannels.add(channel1);
+
+        limiter.release(channel1, 1200);
+        // no longer deferred by this limiter, but the other limits keep it from being read from
+        assertFalse(limiter.isDeferred(channel1));
+        assertFalse(channel1.config().isAutoRead());
+    }
+
+    @Test
+    public void testClosedChannelIsNoLongerDeferred() {
+        limiter.acquire(channel1, 1200, false);
+        assertDeferred(channel1);
+        channel1.close();
+
+        // its bytes are released when its requests complete, but closing doesn't wait for that
+        limiter.acquire(channel2, 100, false);
+        limiter.release(channel2, 100);
+        assertFalse(limiter.isDeferred(channel1));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidLimit() {
+        new InFlightBytesLimiter("test", 0, LOW_PRIORITY_SHARE, channel -> true, admittedBytes, deferredBytes);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidLowPriorityShare() {
+        new InFlightBytesLimiter("test", MAX_BYTES, 1.5, channel -> true, admittedBytes, deferredBytes);
+    }
+}
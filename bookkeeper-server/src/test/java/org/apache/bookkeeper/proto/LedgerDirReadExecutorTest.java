@@ -0,0 +1,204 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.proto;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Unit tests of {@link LedgerDirReadExecutor}.
+ */
+public class LedgerDirReadExecutorTest {
+
+    private static final int NUM_DIRS = 2;
+    private static final int MAX_READS_PER_DIR = 3;
+    private static final int MAX_PENDING_READS_PER_DIR = 4;
+
+    private LedgerDirReadExecutor executor;
+
+    @After
+    public void teardown() {
+        if (null != executor) {
+            executor.shutdown();
+            executor.forceShutdown(10, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * A read that blocks until released, as a cold read blocked on its disk.
+     */
+    private static class BlockedRead implements Runnable {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(1);
+        final Semaphore release;
+        final AtomicInteger inProgress;
+        final AtomicInteger maxInProgress;
+
+        BlockedRead(Semaphore release, AtomicInteger inProgress, AtomicInteger maxInProgress) {
+            this.release = release;
+            this.inProgress = inProgress;
+            this.maxInProgress = maxInProgress;
+        }
+
+        @Override
+        public void run() {
+            maxInProgress.accumulateAndGet(inProgress.incrementAndGet(), Math::max);
+            started.countDown();
+            try {
+                release.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                inProgress.decrementAndGet();
+                done.countDown();
+            }
+        }
+    }
+
+    @Test
+    public void testReadsBoundedPerLedgerDir() throws Exception {
+        executor = new LedgerDirReadExecutor(NUM_DIRS, MAX_READS_PER_DIR, MAX_PENDING_READS_PER_DIR);
+        Semaphore release = new Semaphore(0);
+        AtomicInteger inProgress = new AtomicInteger();
+        AtomicInteger maxInProgress = new AtomicInteger();
+
+        // ledgers 0, 2, 4... are in the first dir
+        List<BlockedRead> reads = new ArrayList<>();
+        for (int i = 0; i < MAX_READS_PER_DIR + MAX_PENDING_READS_PER_DIR; i++) {
+            BlockedRead read = new BlockedRead(release, inProgress, maxInProgress);
+            executor.executeRead(2L * i, read);
+            reads.add(read);
+        }
+        for (int i = 0; i < MAX_READS_PER_DIR; i++) {
+            assertTrue(reads.get(i).started.await(10, TimeUnit.SECONDS));
+        }
+        // the other reads are queued, not started
+        assertFalse(reads.get(MAX_READS_PER_DIR).started.await(100, TimeUnit.MILLISECONDS));
+        assertEquals(MAX_READS_PER_DIR, inProgress.get());
+
+        // and the next one is rejected
+        try {
+            executor.executeRead(0L, new BlockedRead(release, inProgress, maxInProgress));
+            fail("The pending reads of the dir should be bounded");
+        } catch (RejectedExecutionException ree) {
+            // expected
+        }
+
+        // the reads of the other dir are not held back by the blocked ones
+        CountDownLatch otherDirRead = new CountDownLatch(1);
+        executor.executeRead(1L, otherDirRead::countDown);
+        assertTrue(otherDirRead.await(10, TimeUnit.SECONDS));
+
+        // the queued reads run as the reads in progress complete
+        release.release(reads.size());
+        for (BlockedRead read : reads) {
+            assertTrue(read.done.await(10, TimeUnit.SECONDS));
+        }
+        assertEquals(MAX_READS_PER_DIR, maxInProgress.get());
+    }
+
+    @Test
+    public void testFailedReadReleasesItsPermit() throws Exception {
+        executor = new LedgerDirReadExecutor(1, 1, MAX_PENDING_READS_PER_DIR);
+        for (int i = 0; i < 3; i++) {
+            executor.executeRead(i, () -> {
+                throw new IllegalStateException("read failure");
+            });
+        }
+        CountDownLatch read = new CountDownLatch(1);
+        executor.executeRead(0L, read::countDown);
+        assertTrue(read.await(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testManyReads() throws Exception {
+        executor = new LedgerDirReadExecutor(NUM_DIRS, MAX_READS_PER_DIR, 0);
+        int numReads = 10000;
+        CountDownLatch done = new CountDownLatch(numReads);
+        AtomicInteger inProgress = new AtomicInteger();
+        AtomicInteger maxInProgress = new AtomicInteger();
+        for (int i = 0; i < numReads; i++) {
+            executor.executeRead(i, () -> {
+                maxInProgress.accumulateAndGet(inProgress.incrementAndGet(), Math::max);
+                inProgress.decrementAndGet();
+                done.countDown();
+            });
+        }
+        assertTrue(done.await(30, TimeUnit.SECONDS));
+        assertTrue(maxInProgress.get() <= NUM_DIRS * MAX_READS_PER_DIR);
+    }
+
+    @Test
+    public void testPlatformThreadsByDefault() throws Exception {
+        executor = new LedgerDirReadExecutor(NUM_DIRS, MAX_READS_PER_DIR, MAX_PENDING_READS_PER_DIR);
+        assertFalse(executor.isVirtualThreads());
+        assertEquals("BookieReadThread", readThreadNamePrefix());
+    }
+
+    @Test
+    public void testVirtualThreads() throws Exception {
+        executor = new LedgerDirReadExecutor(NUM_DIRS, MAX_READS_PER_DIR, MAX_PENDING_READS_PER_DIR, true);
+        boolean supported;
+        try {
+            Thread.class.getMethod("ofVirtual");
+            supported = true;
+        } catch (NoSuchMethodException e) {
+            supported = false;
+        }
+        // older JVMs fall back to the platform threads
+        assertEquals(supported, executor.isVirtualThreads());
+        if (!supported) {
+            assertEquals("BookieReadThread", readThreadNamePrefix());
+            return;
+        }
+        boolean isVirtual = (Boolean) Thread.class.getMethod("isVirtual").invoke(readThread());
+        assertTrue(isVirtual);
+    }
+
+    private Thread readThread() throws Exception {
+        AtomicReference<Thread> thread = new AtomicReference<>();
+        CountDownLatch read = new CountDownLatch(1);
+        executor.executeRead(0L, () -> {
+            thread.set(Thread.currentThread());
+            read.countDown();
+        });
+        assertTrue(read.await(10, TimeUnit.SECONDS));
+        return thread.get();
+    }
+
+    private String readThreadNamePrefix() throws Exception {
+        String name = readThread().getName();
+        return name.substring(0, name.indexOf('-'));
+    }
+}
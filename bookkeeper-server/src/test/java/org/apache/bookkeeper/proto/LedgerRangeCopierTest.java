@@ -0,0 +1,265 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.proto;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.google.protobuf.UnsafeByteOperations;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.buffer.UnpooledByteBufAllocator;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.apache.bookkeeper.bookie.Bookie;
+import org.apache.bookkeeper.client.BKException;
+import org.apache.bookkeeper.conf.ServerConfiguration;
+import org.apache.bookkeeper.discover.RegistrationClient;
+import org.apache.bookkeeper.meta.MetadataBookieDriver;
+import org.apache.bookkeeper.net.BookieId;
+import org.apache.bookkeeper.proto.BookkeeperInternalCallbacks.WriteCallback;
+import org.apache.bookkeeper.proto.BookkeeperProtocol.BookieAddress;
+import org.apache.bookkeeper.proto.BookkeeperProtocol.ReadLedgerRangeResponse;
+import org.apache.bookkeeper.proto.BookkeeperProtocol.StatusCode;
+import org.apache.bookkeeper.proto.DataFormats.LedgerMetadataFormat.DigestType;
+import org.apache.bookkeeper.proto.checksum.DigestManager;
+import org.apache.bookkeeper.stats.NullStatsLogger;
+import org.apache.bookkeeper.util.ByteBufList;
+import org.apache.bookkeeper.utils.TestBKConfiguration;
+import org.apache.bookkeeper.versioning.LongVersion;
+import org.apache.bookkeeper.versioning.Versioned;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit tests of {@link LedgerRangeCopier}. The source bookies are served from memory.
+ */
+public class LedgerRangeCopierTest {
+
+    private static final long LEDGER_ID = 7L;
+    private static final byte[] MASTER_KEY = new byte[0];
+    private static final BookieId SOURCE_1 = BookieId.parse("source-1");
+    private static final BookieId SOURCE_2 = BookieId.parse("source-2");
+    private static final BookieId UNKNOWN = BookieId.parse("unknown");
+
+    private final Map<BookieId, TreeMap<Long, ByteBuf>> stored = new HashMap<>();
+    private final List<Long> maxBytesRequested = new CopyOnWriteArrayList<>();
+    private final Set<Long> added = new ConcurrentSkipListSet<>();
+    private DigestManager digestManager;
+    private LedgerRangeCopier copier;
+
+    @Before
+    public void setup() throws Exception {
+        digestManager = DigestManager.instantiate(LEDGER_ID, new byte[0], DigestType.CRC32C,
+                UnpooledByteBufAllocator.DEFAULT, false);
+        stored.put(SOURCE_1, new TreeMap<>());
+        stored.put(SOURCE_2, new TreeMap<>());
+
+        Bookie bookie = mock(Bookie.class);
+        doAnswer(invocation -> {
+            ByteBuf entry = invocation.getArgument(0);
+            WriteCallback cb = invocation.getArgument(1);
+            long entryId = entry.getLong(entry.readerIndex() + 8);
+            added.add(entryId);
+            cb.writeComplete(BKException.Code.OK, LEDGER_ID, entryId, null, null);
+            return null;
+        }).when(bookie).recoveryAddEntry(any(ByteBuf.class), any(WriteCallback.class), any(), any(byte[].class));
+
+        RegistrationClient registrationClient = mock(RegistrationClient.class);
+        Set<BookieId> writable = stored.keySet();
+        when(registrationClient.getWritableBookies()).thenReturn(
+                CompletableFuture.completedFuture(new Versioned<>(writable, new LongVersion(0))));
+        when(registrationClient.getReadOnlyBookies()).thenReturn(
+                CompletableFuture.completedFuture(new Versioned<>(Collections.emptySet(), new LongVersion(0))));
+
+        ServerConfiguration conf = TestBKConfiguration.newServerConfiguration();
+        conf.setReplicationBookieToBookieCopyChunkSizeBytes(256);
+        copier = new LedgerRangeCopier(conf, bookie, UnpooledByteBufAllocator.DEFAULT, NullStatsLogger.INSTANCE,
+                registrationClient) {
+            @Override
+            CompletableFuture<ReadLedgerRangeResponse> readLedgerRange(BookieId source, long ledgerId,
+                                                                       long firstEntryId, long lastEntryId,
+                                                                       long maxBytes) {
+                maxBytesRequested.add(maxBytes);
+                return CompletableFuture.completedFuture(serve(source, firstEntryId, lastEntryId, maxBytes));
+            }
+        };
+    }
+
+    @After
+    public void teardown() {
+        copier.close();
+    }
+
+    /**
+     * Read a range like {@link ReadLedgerRangeProcessorV3} does.
+     */
+    private ReadLedgerRangeResponse serve(BookieId source, long firstEntryId, long lastEntryId, long maxBytes) {
+        ReadLedgerRangeResponse.Builder response = ReadLedgerRangeResponse.newBuilder()
+                .setStatus(StatusCode.EOK)
+                .setLedgerId(LEDGER_ID);
+        long readBytes = 0;
+        long entryId = firstEntryId;
+        for (; entryId <= lastEntryId && readBytes < maxBytes; entryId++) {
+            ByteBuf entry = stored.get(source).get(entryId);
+            if (null == entry) {
+                continue;
+            }
+            byte[] data = new byte[entry.readableBytes()];
+            entry.getBytes(entry.readerIndex(), data);
+            response.addEntries(UnsafeByteOperations.unsafeWrap(data));
+            readBytes += data.length;
+        }
+        return response.setLastScannedEntryId(entryId - 1).build();
+    }
+
+    private void store(BookieId source, long firstEntryId, long lastEntryId, long step) {
+        for (long entryId = firstEntryId; entryId <= lastEntryId; entryId += step) {
+            ByteBuf data = Unpooled.wrappedBuffer(("entry-" + entryId).getBytes(StandardCharsets.UTF_8));
+            ByteBufList packaged = (ByteBufList) digestManager.computeDigestAndPackageForSending(
+                    entryId, entryId - 1, 0, data, MASTER_KEY, 0);
+            stored.get(source).put(entryId, ByteBufList.coalesce(packaged));
+            packaged.release();
+        }
+    }
+
+    private long copy(long firstEntryId, long lastEntryId, BookieId... sources) throws Exception {
+        return copy(DigestType.CRC32C, firstEntryId, lastEntryId, sources);
+    }
+
+    private long copy(DigestType digestType, long firstEntryId, long lastEntryId, BookieId... sources)
+            throws Exception {
+        List<BookieAddress> addresses = new ArrayList<>();
+        for (BookieId source : sources) {
+            addresses.add(BookieAddress.newBuilder()
+                    .setBookieId(source.toString())
+                    .setAddress("127.0.0.1:3181")
+                    .build());
+        }
+        return copier.copy(LEDGER_ID, MASTER_KEY, digestType, firstEntryId, lastEntryId, addresses)
+                .get(30, TimeUnit.SECONDS);
+    }
+
+    private void assertAdded(long firstEntryId, long lastEntryId) {
+        assertEquals(lastEntryId - firstEntryId + 1, added.size());
+        for (long entryId = firstEntryId; entryId <= lastEntryId; entryId++) {
+            assertTrue("entry " + entryId + " not copied", added.contains(entryId));
+        }
+    }
+
+    @Test
+    public void testCopyRange() throws Exception {
+        store(SOURCE_1, 0, 9, 1);
+        assertEquals(10L, copy(0, 9, SOURCE_1));
+        assertAdded(0, 9);
+    }
+
+    @Test
+    public void testCopyMissingEntriesFromNextSource() throws Exception {
+        store(SOURCE_1, 0, 19, 2);
+        store(SOURCE_2, 0, 19, 1);
+        assertEquals(20L, copy(0, 19, SOURCE_1, SOURCE_2));
+        assertAdded(0, 19);
+    }
+
+    @Test
+    public void testCopyEntriesMissingEverywhere() throws Exception {
+        store(SOURCE_1, 0, 9, 2);
+        store(SOURCE_2, 0, 9, 3);
+        try {
+            copy(0, 9, SOURCE_1, SOURCE_2);
+            fail("entries 5 and 7 are on no source");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof BKException.BKNoSuchEntryException);
+        }
+    }
+
+    @Test
+    public void testCopyInChunksOfChunkSize() throws Exception {
+        store(SOURCE_1, 0, 99, 1);
+        assertEquals(100L, copy(0, 99, SOURCE_1));
+        assertAdded(0, 99);
+        // each chunk holds a few entries only, so the range takes many reads, none asking for more bytes
+        assertTrue(maxBytesRequested.size() > 10);
+        for (long maxBytes : maxBytesRequested) {
+            assertEquals(256L, maxBytes);
+        }
+    }
+
+    @Test
+    public void testRejectUnregisteredSource() throws Exception {
+        store(SOURCE_1, 0, 9, 1);
+        try {
+            copy(0, 9, UNKNOWN, SOURCE_1);
+            fail("the source isn't registered");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof BKException.BKIllegalOpException);
+        }
+        assertTrue(maxBytesRequested.isEmpty());
+        assertTrue(added.isEmpty());
+    }
+
+    @Test
+    public void testRejectHmacDigest() throws Exception {
+        store(SOURCE_1, 0, 9, 1);
+        try {
+            // the bookie doesn't know the password the entries would be verified with
+            copy(DigestType.HMAC, 0, 9, SOURCE_1);
+            fail("HMAC digests can't be verified by the bookie");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof BKException.BKIllegalOpException);
+        }
+        assertTrue(maxBytesRequested.isEmpty());
+        assertTrue(added.isEmpty());
+    }
+
+    @Test
+    public void testMetadataDriverWithoutRegistrationClient() throws Exception {
+        // the default of a driver which can't share its metadata store session
+        MetadataBookieDriver metadataDriver = mock(MetadataBookieDriver.class);
+        when(metadataDriver.createRegistrationClient(any())).thenReturn(null);
+        try {
+            new LedgerRangeCopier(TestBKConfiguration.newServerConfiguration(), mock(Bookie.class),
+                    UnpooledByteBufAllocator.DEFAULT, NullStatsLogger.INSTANCE, metadataDriver);
+            fail("The copier can't find the sources without a registration client");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+}
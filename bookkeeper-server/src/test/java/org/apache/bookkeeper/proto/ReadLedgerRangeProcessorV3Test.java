@@ -0,0 +1,119 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.proto;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import io.netty.buffer.Unpooled;
+import org.apache.bookkeeper.bookie.Bookie;
+import org.apache.bookkeeper.conf.ServerConfiguration;
+import org.apache.bookkeeper.proto.BookkeeperProtocol.BKPacketHeader;
+import org.apache.bookkeeper.proto.BookkeeperProtocol.OperationType;
+import org.apache.bookkeeper.proto.BookkeeperProtocol.ProtocolVersion;
+import org.apache.bookkeeper.proto.BookkeeperProtocol.ReadLedgerRangeRequest;
+import org.apache.bookkeeper.proto.BookkeeperProtocol.ReadLedgerRangeResponse;
+import org.apache.bookkeeper.proto.BookkeeperProtocol.Request;
+import org.apache.bookkeeper.proto.BookkeeperProtocol.StatusCode;
+import org.apache.bookkeeper.stats.NullStatsLogger;
+import org.apache.bookkeeper.utils.TestBKConfiguration;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit tests of {@link ReadLedgerRangeProcessorV3}.
+ */
+public class ReadLedgerRangeProcessorV3Test {
+
+    private static final long LEDGER_ID = 3L;
+    private static final int ENTRY_SIZE = 100;
+
+    private Bookie bookie;
+    private BookieRequestProcessor requestProcessor;
+
+    @Before
+    public void setup() throws Exception {
+        bookie = mock(Bookie.class);
+        // only the even entries are stored
+        when(bookie.readEntry(eq(LEDGER_ID), anyLong())).thenAnswer(invocation -> {
+            long entryId = invocation.getArgument(1);
+            if (entryId % 2 != 0) {
+                throw new Bookie.NoEntryException(LEDGER_ID, entryId);
+            }
+            return Unpooled.wrappedBuffer(new byte[ENTRY_SIZE]);
+        });
+        ServerConfiguration conf = TestBKConfiguration.newServerConfiguration();
+        requestProcessor = mock(BookieRequestProcessor.class);
+        when(requestProcessor.getBookie()).thenReturn(bookie);
+        when(requestProcessor.getServerCfg()).thenReturn(conf);
+        when(requestProcessor.getRequestStats()).thenReturn(new RequestStats(NullStatsLogger.INSTANCE));
+    }
+
+    private ReadLedgerRangeResponse read(long firstEntryId, long lastEntryId, long maxBytes) {
+        ReadLedgerRangeRequest.Builder readLedgerRange = ReadLedgerRangeRequest.newBuilder()
+                .setLedgerId(LEDGER_ID)
+                .setFirstEntryId(firstEntryId)
+                .setLastEntryId(lastEntryId);
+        if (maxBytes > 0) {
+            readLedgerRange.setMaxBytes(maxBytes);
+        }
+        Request request = Request.newBuilder()
+                .setHeader(BKPacketHeader.newBuilder()
+                        .setVersion(ProtocolVersion.VERSION_THREE)
+                        .setOperation(OperationType.READ_LEDGER_RANGE)
+                        .setTxnId(1L))
+                .setReadLedgerRangeRequest(readLedgerRange)
+                .build();
+        return new ReadLedgerRangeProcessorV3(request, mock(BookieRequestHandler.class), requestProcessor)
+                .getReadLedgerRangeResponse();
+    }
+
+    @Test
+    public void testSkipMissingEntries() {
+        ReadLedgerRangeResponse response = read(0, 9, 0);
+        assertEquals(StatusCode.EOK, response.getStatus());
+        assertEquals(5, response.getEntriesCount());
+        assertEquals(9L, response.getLastScannedEntryId());
+    }
+
+    @Test
+    public void testStopAtMaxBytes() {
+        ReadLedgerRangeResponse response = read(0, 99, 3 * ENTRY_SIZE);
+        assertEquals(StatusCode.EOK, response.getStatus());
+        assertEquals(3, response.getEntriesCount());
+        // the third entry read is entry 4
+        assertEquals(4L, response.getLastScannedEntryId());
+    }
+
+    @Test
+    public void testStopAtMaxScannedEntries() throws Exception {
+        when(bookie.readEntry(eq(LEDGER_ID), anyLong())).thenAnswer(invocation -> {
+            throw new Bookie.NoEntryException(LEDGER_ID, invocation.getArgument(1));
+        });
+        ReadLedgerRangeResponse response = read(10, Long.MAX_VALUE - 1, 0);
+        assertEquals(StatusCode.EOK, response.getStatus());
+        assertEquals(0, response.getEntriesCount());
+        assertEquals(10L + ReadLedgerRangeProcessorV3.MAX_SCANNED_ENTRIES - 1, response.getLastScannedEntryId());
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.proto;
+
+import static org.apache.bookkeeper.proto.RecentAddsTracker.TAILING_READ_MAX_ENTRIES_BEHIND;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Unit tests of {@link RecentAddsTracker}.
+ */
+public class RecentAddsTrackerTest {
+
+    private final RecentAddsTracker tracker = new RecentAddsTracker();
+
+    /**
+     * Find a ledger mapped to the same slot as <i>ledgerId</i>.
+     */
+    private static long collidingLedger(long ledgerId) {
+        long other = ledgerId + 1;
+        while (RecentAddsTracker.slot(other) != RecentAddsTracker.slot(ledgerId)) {
+            other++;
+        }
+        return other;
+    }
+
+    @Test
+    public void testTailingReads() {
+        long lastEntryId = 5000;
+        tracker.onAdd(1L, lastEntryId);
+        assertTrue(tracker.isTailingRead(1L, lastEntryId));
+        // long poll reads ask for the entries not added yet
+        assertTrue(tracker.isTailingRead(1L, lastEntryId + 1));
+        assertTrue(tracker.isTailingRead(1L, lastEntryId - TAILING_READ_MAX_ENTRIES_BEHIND));
+        assertFalse(tracker.isTailingRead(1L, lastEntryId - TAILING_READ_MAX_ENTRIES_BEHIND - 1));
+        assertFalse(tracker.isTailingRead(1L, 0));
+
+        // the reads of a ledger not written recently are catch-up reads
+        assertFalse(tracker.isTailingRead(2L, lastEntryId));
+    }
+
+    @Test
+    public void testLastEntryOnlyMovesForward() {
+        tracker.onAdd(1L, 0);
+        assertTrue(tracker.isTailingRead(1L, 0));
+        tracker.onAdd(1L, 3000);
+        assertFalse(tracker.isTailingRead(1L, 0));
+        // adds completing out of order
+        tracker.onAdd(1L, 2999);
+        assertFalse(tracker.isTailingRead(1L, 3000 - TAILING_READ_MAX_ENTRIES_BEHIND - 1));
+        assertTrue(tracker.isTailingRead(1L, 3000 - TAILING_READ_MAX_ENTRIES_BEHIND));
+    }
+
+    @Test
+    public void testSlotTakenByAnotherLedger() {
+        long ledgerId = 1234L;
+        long colliding = collidingLedger(ledgerId);
+        tracker.onAdd(ledgerId, 5000);
+        tracker.onAdd(colliding, 10);
+
+        // the slot holds the last entry of the colliding ledger, which isn't taken for the one of the first ledger
+        assertFalse(tracker.isTailingRead(ledgerId, 5000));
+        assertFalse(tracker.isTailingRead(ledgerId, 10));
+        assertTrue(tracker.isTailingRead(colliding, 10));
+
+        // the first ledger takes the slot back with its next add
+        tracker.onAdd(ledgerId, 5001);
+        assertTrue(tracker.isTailingRead(ledgerId, 5001));
+        assertFalse(tracker.isTailingRead(colliding, 10));
+    }
+
+    @Test
+    public void testLedgersSpreadOverTheSlots() {
+        // consecutive ledger ids don't collide
+        for (long ledgerId = 0; ledgerId < 256; ledgerId++) {
+            tracker.onAdd(ledgerId, ledgerId * 10000);
+        }
+        for (long ledgerId = 0; ledgerId < 256; ledgerId++) {
+            assertTrue(tracker.isTailingRead(ledgerId, ledgerId * 10000));
+        }
+    }
+}
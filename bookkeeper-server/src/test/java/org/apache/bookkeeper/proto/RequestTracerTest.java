@@ -0,0 +1,85 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.proto;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import org.apache.bookkeeper.proto.RequestTrace.Kind;
+import org.junit.Test;
+
+/**
+ * Unit tests of {@link RequestTracer}.
+ */
+public class RequestTracerTest {
+
+    /**
+     * Decode and dispatch a request on this thread like the decoder and the request processor do.
+     */
+    private static RequestTrace dispatch(RequestTracer tracer, Kind tracedKind) {
+        tracer.onDecodeStart();
+        try {
+            return null == tracedKind ? null : tracer.startTrace(tracedKind);
+        } finally {
+            tracer.onRequestDispatched();
+        }
+    }
+
+    @Test
+    public void testSampleOneRequestOutOfN() {
+        RequestTracer tracer = new RequestTracer(3, 60000);
+        int traced = 0;
+        for (int i = 0; i < 30; i++) {
+            RequestTrace trace = dispatch(tracer, Kind.ADD);
+            if (null != trace) {
+                traced++;
+                trace.complete();
+            }
+        }
+        assertEquals(10, traced);
+    }
+
+    @Test
+    public void testUntracedRequestDoesNotLeaveItsSample() {
+        RequestTracer tracer = new RequestTracer(2, 60000);
+        // the first request isn't sampled
+        assertNull(dispatch(tracer, Kind.ADD));
+        // the second one is, but is of a kind that isn't traced, e.g. a read lac
+        assertNull(dispatch(tracer, null));
+        // the third one isn't sampled, it must not inherit the decode start of the second one
+        assertNull(dispatch(tracer, Kind.READ));
+        // the fourth one is sampled and traced
+        RequestTrace trace = dispatch(tracer, Kind.READ);
+        assertNotNull(trace);
+        trace.complete();
+        assertEquals(1L, tracer.getLatencyBreakdown().get("read").get(RequestTracer.TOTAL).get("count").longValue());
+        assertEquals(0L, tracer.getLatencyBreakdown().get("add").get(RequestTracer.TOTAL).get("count").longValue());
+    }
+
+    @Test
+    public void testDisabled() {
+        RequestTracer tracer = new RequestTracer(0, 60000);
+        for (int i = 0; i < 10; i++) {
+            assertNull(dispatch(tracer, Kind.ADD));
+        }
+    }
+}
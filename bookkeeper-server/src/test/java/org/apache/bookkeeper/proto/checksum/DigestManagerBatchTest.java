@@ -0,0 +1,170 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.proto.checksum;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.buffer.UnpooledByteBufAllocator;
+import io.netty.util.ReferenceCounted;
+import java.nio.charset.StandardCharsets;
+import java.util.BitSet;
+import java.util.Random;
+import org.apache.bookkeeper.proto.BookieProtoEncoding;
+import org.apache.bookkeeper.proto.DataFormats.LedgerMetadataFormat.DigestType;
+import org.apache.bookkeeper.util.ByteBufList;
+import org.junit.Test;
+
+/**
+ * Unit tests of the batch digest computation and verification of {@link DigestManager}.
+ */
+public class DigestManagerBatchTest {
+
+    private static final long LEDGER_ID = 1234L;
+    private static final long LAC = 41L;
+    private static final int NUM_ENTRIES = 5;
+    private static final byte[] PASSWORD = "password".getBytes(StandardCharsets.UTF_8);
+
+    private final ByteBufAllocator allocator = UnpooledByteBufAllocator.DEFAULT;
+    private final byte[][] payloads = new byte[NUM_ENTRIES][];
+
+    public DigestManagerBatchTest() {
+        Random random = new Random(0xD16E57);
+        for (int i = 0; i < NUM_ENTRIES; i++) {
+            // small and large entries, as v2 copies the small ones into the headers buffer
+            payloads[i] = new byte[i % 2 == 0 ? 100 + i : BookieProtoEncoding.SMALL_ENTRY_SIZE_THRESHOLD + i];
+            random.nextBytes(payloads[i]);
+        }
+    }
+
+    /**
+     * The payload of an entry, as a heap, direct, composite or sliced composite buffer.
+     */
+    private ByteBuf newPayload(int i) {
+        byte[] bytes = payloads[i];
+        switch (i % 4) {
+        case 0:
+            return Unpooled.wrappedBuffer(bytes);
+        case 1:
+            return Unpooled.directBuffer(bytes.length).writeBytes(bytes);
+        case 2:
+            CompositeByteBuf composite = Unpooled.compositeBuffer();
+            composite.addComponent(true, Unpooled.wrappedBuffer(bytes, 0, 10));
+            composite.addComponent(true, Unpooled.directBuffer(bytes.length - 10).writeBytes(bytes, 10,
+                    bytes.length - 10));
+            return composite;
+        default:
+            CompositeByteBuf sliced = Unpooled.compositeBuffer();
+            sliced.addComponent(true, Unpooled.wrappedBuffer(bytes));
+            return sliced.slice();
+        }
+    }
+
+    private static byte[] toBytes(ReferenceCounted packaged) {
+        ByteBuf buf = packaged instanceof ByteBufList
+                ? ByteBufList.coalesce((ByteBufList) packaged)
+                : ((ByteBuf) packaged).retain();
+        packaged.release();
+        try {
+            return ByteBufUtil.getBytes(buf);
+        } finally {
+            buf.release();
+        }
+    }
+
+    private ReferenceCounted[] packageBatch(DigestManager digestManager, byte[] masterKey) {
+        long[] entryIds = new long[NUM_ENTRIES];
+        long[] lengths = new long[NUM_ENTRIES];
+        ByteBuf[] data = new ByteBuf[NUM_ENTRIES];
+        long length = 0;
+        for (int i = 0; i < NUM_ENTRIES; i++) {
+            entryIds[i] = LAC + 1 + i;
+            length += payloads[i].length;
+            lengths[i] = length;
+            data[i] = newPayload(i);
+        }
+        return digestManager.computeDigestsAndPackageForSending(entryIds, LAC, lengths, data, masterKey, 0,
+                NUM_ENTRIES);
+    }
+
+    @Test
+    public void testBatchPackagingMatchesSinglePackaging() throws Exception {
+        byte[] masterKey = DigestManager.generateMasterKey(PASSWORD);
+        for (DigestType digestType : DigestType.values()) {
+            for (boolean useV2Protocol : new boolean[] { false, true }) {
+                DigestManager digestManager = DigestManager.instantiate(LEDGER_ID, PASSWORD, digestType, allocator,
+                        useV2Protocol);
+                ReferenceCounted[] batch = packageBatch(digestManager, masterKey);
+                assertEquals(NUM_ENTRIES, batch.length);
+
+                long length = 0;
+                for (int i = 0; i < NUM_ENTRIES; i++) {
+                    length += payloads[i].length;
+                    ReferenceCounted single = digestManager.computeDigestAndPackageForSending(LAC + 1 + i, LAC,
+                            length, newPayload(i), masterKey, 0);
+                    assertArrayEquals(digestType + " v2=" + useV2Protocol + " entry " + i,
+                            toBytes(single), toBytes(batch[i]));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testBatchRoundTrip() throws Exception {
+        for (DigestType digestType : DigestType.values()) {
+            DigestManager digestManager = DigestManager.instantiate(LEDGER_ID, PASSWORD, digestType, allocator,
+                    false);
+            ReferenceCounted[] packaged = packageBatch(digestManager, null);
+            long[] entryIds = new long[NUM_ENTRIES];
+            ByteBuf[] received = new ByteBuf[NUM_ENTRIES];
+            for (int i = 0; i < NUM_ENTRIES; i++) {
+                entryIds[i] = LAC + 1 + i;
+                received[i] = Unpooled.wrappedBuffer(toBytes(packaged[i]));
+            }
+
+            BitSet mismatches = digestManager.verifyDigestsAndReturnData(entryIds, received, NUM_ENTRIES);
+            assertTrue(digestType + " mismatches " + mismatches, mismatches.isEmpty());
+            for (int i = 0; i < NUM_ENTRIES; i++) {
+                assertArrayEquals(payloads[i], ByteBufUtil.getBytes(received[i]));
+                received[i].readerIndex(0);
+            }
+
+            if (digestType == DigestType.DUMMY) {
+                continue;
+            }
+            // a corrupted payload and an unexpected entry id are both reported
+            int corrupted = received[1].capacity() - 1;
+            received[1].setByte(corrupted, received[1].getByte(corrupted) ^ 0xFF);
+            entryIds[3] = 0;
+            mismatches = digestManager.verifyDigestsAndReturnData(entryIds, received, NUM_ENTRIES);
+            BitSet expected = new BitSet();
+            expected.set(1);
+            expected.set(3);
+            assertEquals(digestType.toString(), expected, mismatches);
+        }
+    }
+}
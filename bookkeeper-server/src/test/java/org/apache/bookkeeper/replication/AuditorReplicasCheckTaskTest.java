@@ -0,0 +1,234 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.replication;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.LongStream;
+import org.apache.bookkeeper.client.BKException;
+import org.apache.bookkeeper.client.BookKeeperAdmin;
+import org.apache.bookkeeper.client.LedgerMetadataBuilder;
+import org.apache.bookkeeper.client.api.DigestType;
+import org.apache.bookkeeper.client.api.LedgerMetadata;
+import org.apache.bookkeeper.conf.ServerConfiguration;
+import org.apache.bookkeeper.meta.LedgerManager;
+import org.apache.bookkeeper.meta.LedgerManager.LedgerRange;
+import org.apache.bookkeeper.meta.LedgerManager.LedgerRangeIterator;
+import org.apache.bookkeeper.meta.LedgerUnderreplicationManager;
+import org.apache.bookkeeper.net.BookieId;
+import org.apache.bookkeeper.stats.NullStatsLogger;
+import org.apache.bookkeeper.util.AvailabilityOfEntriesOfLedger;
+import org.apache.bookkeeper.utils.TestBKConfiguration;
+import org.apache.bookkeeper.versioning.LongVersion;
+import org.apache.bookkeeper.versioning.Versioned;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit tests of the batched listing of {@link AuditorReplicasCheckTask}.
+ */
+public class AuditorReplicasCheckTaskTest {
+
+    private static final BookieId BOOKIE1 = BookieId.parse("bookie1:3181");
+    private static final BookieId BOOKIE2 = BookieId.parse("bookie2:3181");
+    private static final long LAST_ENTRY_ID = 9;
+    private static final int NUM_LEDGERS = 5;
+    private static final long LEDGER_MISSING_ENTRY = 3;
+
+    private ServerConfiguration conf;
+    private BookKeeperAdmin admin;
+    private LedgerManager ledgerManager;
+    private LedgerUnderreplicationManager underreplicationManager;
+    private AuditorStats auditorStats;
+    private ScheduledExecutorService bookieExecutor;
+    private final List<List<Long>> batches = Collections.synchronizedList(new ArrayList<>());
+    private final AtomicInteger batchesInFlight = new AtomicInteger();
+    private final AtomicInteger maxBatchesInFlight = new AtomicInteger();
+    private AuditorReplicasCheckTask task;
+
+    @Before
+    public void setup() throws Exception {
+        conf = TestBKConfiguration.newServerConfiguration();
+        conf.setAuditorReplicasCheckBatchSize(2);
+        conf.setAuditorReplicasCheckParallelism(1);
+        bookieExecutor = Executors.newSingleThreadScheduledExecutor();
+
+        Set<Long> ledgers = new HashSet<>();
+        for (long ledgerId = 0; ledgerId < NUM_LEDGERS; ledgerId++) {
+            ledgers.add(ledgerId);
+        }
+        ledgerManager = mock(LedgerManager.class);
+        when(ledgerManager.getLedgerRanges(anyLong())).thenAnswer(invocation -> new LedgerRangeIterator() {
+            private boolean hasNext = true;
+
+            @Override
+            public boolean hasNext() {
+                return hasNext;
+            }
+
+            @Override
+            public LedgerRange next() {
+                hasNext = false;
+                return new LedgerRange(ledgers);
+            }
+        });
+        when(ledgerManager.readLedgerMetadata(anyLong())).thenAnswer(invocation -> {
+            long ledgerId = invocation.getArgument(0);
+            LedgerMetadata metadata = LedgerMetadataBuilder.create()
+                    .withId(ledgerId)
+                    .withEnsembleSize(2).withWriteQuorumSize(2).withAckQuorumSize(2)
+                    .withDigestType(DigestType.CRC32C).withPassword(new byte[0])
+                    .newEnsembleEntry(0, Arrays.asList(BOOKIE1, BOOKIE2))
+                    .withClosedState().withLastEntryId(LAST_ENTRY_ID).withLength(100)
+                    .build();
+            return CompletableFuture.completedFuture(new Versioned<>(metadata, new LongVersion(1)));
+        });
+        underreplicationManager = mock(LedgerUnderreplicationManager.class);
+        when(underreplicationManager.isLedgerReplicationEnabled()).thenReturn(true);
+
+        admin = mock(BookKeeperAdmin.class);
+        when(admin.asyncGetListOfEntriesOfLedgers(any(BookieId.class), anyList())).thenAnswer(invocation -> {
+            BookieId bookie = invocation.getArgument(0);
+            List<Long> ledgerIds = new ArrayList<>(invocation.<List<Long>>getArgument(1));
+            batches.add(ledgerIds);
+            maxBatchesInFlight.accumulateAndGet(batchesInFlight.incrementAndGet(), Math::max);
+            CompletableFuture<Map<Long, AvailabilityOfEntriesOfLedger>> result = new CompletableFuture<>();
+            // the bookie responds later, so that the batches in flight can pile up
+            bookieExecutor.schedule(() -> {
+                Map<Long, AvailabilityOfEntriesOfLedger> entriesOfLedgers = new HashMap<>();
+                for (Long ledgerId : ledgerIds) {
+                    entriesOfLedgers.put(ledgerId, storedEntries(bookie, ledgerId));
+                }
+                batchesInFlight.decrementAndGet();
+                result.complete(entriesOfLedgers);
+            }, 10, TimeUnit.MILLISECONDS);
+            return result;
+        });
+        when(admin.asyncGetListOfEntriesOfLedger(any(BookieId.class), anyLong())).thenAnswer(invocation ->
+                CompletableFuture.completedFuture(storedEntries(invocation.getArgument(0), invocation.getArgument(1))));
+
+        auditorStats = new AuditorStats(NullStatsLogger.INSTANCE);
+        task = new AuditorReplicasCheckTask(conf, auditorStats, admin, ledgerManager, underreplicationManager,
+                null, (flag, throwable) -> flag.set(false));
+    }
+
+    @After
+    public void teardown() {
+        task.shutdown();
+        bookieExecutor.shutdownNow();
+    }
+
+    /**
+     * Every bookie stores every entry, except bookie2 which lost entry 5 of one ledger.
+     */
+    private static AvailabilityOfEntriesOfLedger storedEntries(BookieId bookie, long ledgerId) {
+        return new AvailabilityOfEntriesOfLedger(LongStream.rangeClosed(0, LAST_ENTRY_ID)
+                .filter(entryId -> !(bookie.equals(BOOKIE2) && ledgerId == LEDGER_MISSING_ENTRY && entryId == 5))
+                .toArray());
+    }
+
+    @Test
+    public void testLedgersListedInBatches() throws Exception {
+        task.runTask();
+
+        // 5 ledgers per bookie, by batches of 2
+        assertEquals(6, batches.size());
+        Set<Long> listedLedgers = new HashSet<>();
+        for (List<Long> batch : batches) {
+            assertTrue(batch.size() <= 2);
+            listedLedgers.addAll(batch);
+        }
+        assertEquals(NUM_LEDGERS, listedLedgers.size());
+        assertEquals(1, maxBatchesInFlight.get());
+        verify(admin, never()).asyncGetListOfEntriesOfLedger(any(BookieId.class), anyLong());
+
+        assertEquals(1, auditorStats.getNumLedgersHavingLessThanAQReplicasOfAnEntryGuageValue().get());
+        assertEquals(0, auditorStats.getNumLedgersHavingNoReplicaOfAnEntryGuageValue().get());
+        verify(underreplicationManager, times(1)).setReplicasCheckCTime(anyLong());
+    }
+
+    @Test
+    public void testBatchesInFlightBoundedByParallelism() throws Exception {
+        conf.setAuditorReplicasCheckBatchSize(1);
+        conf.setAuditorReplicasCheckParallelism(3);
+        task.shutdown();
+        task = new AuditorReplicasCheckTask(conf, auditorStats, admin, ledgerManager, underreplicationManager,
+                null, (flag, throwable) -> flag.set(false));
+
+        task.runTask();
+
+        assertEquals(2 * NUM_LEDGERS, batches.size());
+        assertTrue(maxBatchesInFlight.get() <= 3);
+        assertEquals(1, auditorStats.getNumLedgersHavingLessThanAQReplicasOfAnEntryGuageValue().get());
+    }
+
+    @Test
+    public void testFallbackToSingleLedgerRequests() throws Exception {
+        when(admin.asyncGetListOfEntriesOfLedgers(any(BookieId.class), anyList())).thenAnswer(invocation -> {
+            CompletableFuture<Map<Long, AvailabilityOfEntriesOfLedger>> result = new CompletableFuture<>();
+            result.completeExceptionally(BKException.create(BKException.Code.ProtocolVersionException));
+            return result;
+        });
+
+        task.runTask();
+
+        // every ledger is listed one by one on both bookies
+        verify(admin, times(2 * NUM_LEDGERS)).asyncGetListOfEntriesOfLedger(any(BookieId.class), anyLong());
+        assertEquals(1, auditorStats.getNumLedgersHavingLessThanAQReplicasOfAnEntryGuageValue().get());
+    }
+
+    @Test
+    public void testUnbatchedListing() throws Exception {
+        conf.setAuditorReplicasCheckBatchSize(0);
+        task.shutdown();
+        task = new AuditorReplicasCheckTask(conf, auditorStats, admin, ledgerManager, underreplicationManager,
+                null, (flag, throwable) -> flag.set(false));
+
+        task.runTask();
+
+        assertTrue(batches.isEmpty());
+        verify(admin, times(2 * NUM_LEDGERS)).asyncGetListOfEntriesOfLedger(any(BookieId.class), anyLong());
+        assertEquals(1, auditorStats.getNumLedgersHavingLessThanAQReplicasOfAnEntryGuageValue().get());
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.replication;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+import org.apache.bookkeeper.client.BKException;
+import org.apache.bookkeeper.client.LedgerMetadataBuilder;
+import org.apache.bookkeeper.client.api.DigestType;
+import org.apache.bookkeeper.client.api.LedgerMetadata;
+import org.apache.bookkeeper.meta.LedgerManager;
+import org.apache.bookkeeper.meta.LedgerManager.LedgerRange;
+import org.apache.bookkeeper.meta.LedgerManager.LedgerRangeIterator;
+import org.apache.bookkeeper.net.BookieId;
+import org.apache.bookkeeper.replication.ReplicationException.BKAuditException;
+import org.apache.bookkeeper.versioning.LongVersion;
+import org.apache.bookkeeper.versioning.Versioned;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit tests of {@link BookieLedgerIndexer}.
+ */
+public class BookieLedgerIndexerTest {
+
+    private static final BookieId BOOKIE1 = BookieId.parse("bookie1:3181");
+    private static final BookieId BOOKIE2 = BookieId.parse("bookie2:3181");
+    private static final BookieId BOOKIE3 = BookieId.parse("bookie3:3181");
+
+    private LedgerManager ledgerManager;
+    private final List<Collection<Long>> bulkReads = new ArrayList<>();
+    private final Set<Long> deletedLedgers = new HashSet<>();
+
+    private static Versioned<LedgerMetadata> metadata(long ledgerId) {
+        // odd ledgers replaced bookie2 by bookie3 at entry 10
+        LedgerMetadataBuilder builder = LedgerMetadataBuilder.create()
+                .withId(ledgerId)
+                .withEnsembleSize(2).withWriteQuorumSize(2).withAckQuorumSize(2)
+                .withDigestType(DigestType.CRC32C).withPassword(new byte[0])
+                .newEnsembleEntry(0, Arrays.asList(BOOKIE1, BOOKIE2));
+        if (ledgerId % 2 == 1) {
+            builder.newEnsembleEntry(10, Arrays.asList(BOOKIE1, BOOKIE3));
+        }
+        return new Versioned<>(builder.build(), new LongVersion(1));
+    }
+
+    private void mockLedgerRanges(List<Set<Long>> ranges) throws Exception {
+        when(ledgerManager.getLedgerRanges(anyLong())).thenAnswer(invocation -> new LedgerRangeIterator() {
+            private final Iterator<Set<Long>> iterator = ranges.iterator();
+
+            @Override
+            public boolean hasNext() {
+                return iterator.hasNext();
+            }
+
+            @Override
+            public LedgerRange next() {
+                return new LedgerRange(iterator.next());
+            }
+        });
+    }
+
+    @Before
+    public void setup() throws Exception {
+        ledgerManager = mock(LedgerManager.class);
+        when(ledgerManager.readLedgerMetadata(anyCollection())).thenAnswer(invocation -> {
+            Collection<Long> ledgerIds = new ArrayList<>(invocation.<Collection<Long>>getArgument(0));
+            bulkReads.add(ledgerIds);
+            Map<Long, Versioned<LedgerMetadata>> result = new HashMap<>();
+            for (Long ledgerId : ledgerIds) {
+                if (!deletedLedgers.contains(ledgerId)) {
+                    result.put(ledgerId, metadata(ledgerId));
+                }
+            }
+            return CompletableFuture.completedFuture(result);
+        });
+    }
+
+    private static Set<Long> ledgers(long... ledgerIds) {
+        return LongStream.of(ledgerIds).boxed().collect(Collectors.toSet());
+    }
+
+    @Test
+    public void testIndexFromBulkReads() throws Exception {
+        mockLedgerRanges(Arrays.asList(ledgers(1, 2, 3), ledgers(4, 5)));
+        // deleted after it was listed
+        deletedLedgers.add(5L);
+
+        Map<String, Set<Long>> index = new BookieLedgerIndexer(ledgerManager).getBookieToLedgerIndex();
+
+        assertEquals(3, index.size());
+        assertEquals(ledgers(1, 2, 3, 4), index.get(BOOKIE1.toString()));
+        assertEquals(ledgers(1, 2, 3, 4), index.get(BOOKIE2.toString()));
+        assertEquals(ledgers(1, 3), index.get(BOOKIE3.toString()));
+        // one bulk read per range, no single read
+        assertEquals(Arrays.asList(ledgers(1, 2, 3), ledgers(4, 5)),
+                bulkReads.stream().map(HashSet::new).collect(Collectors.toList()));
+        verify(ledgerManager, never()).readLedgerMetadata(anyLong());
+    }
+
+    @Test
+    public void testLargeRangesReadInBatches() throws Exception {
+        Set<Long> range = LongStream.range(0, BookieLedgerIndexer.METADATA_READ_BATCH_SIZE + 1).boxed()
+                .collect(Collectors.toSet());
+        mockLedgerRanges(Collections.singletonList(range));
+
+        Map<String, Set<Long>> index = new BookieLedgerIndexer(ledgerManager).getBookieToLedgerIndex();
+
+        assertEquals(range, index.get(BOOKIE1.toString()));
+        assertEquals(2, bulkReads.size());
+        assertEquals(BookieLedgerIndexer.METADATA_READ_BATCH_SIZE, bulkReads.get(0).size());
+        assertEquals(1, bulkReads.get(1).size());
+    }
+
+    @Test
+    public void testBulkReadFailure() throws Exception {
+        mockLedgerRanges(Arrays.asList(ledgers(1, 2, 3), ledgers(4, 5)));
+        CompletableFuture<Map<Long, Versioned<LedgerMetadata>>> failure = new CompletableFuture<>();
+        failure.completeExceptionally(new BKException.ZKException(new Exception("connection loss")));
+        when(ledgerManager.readLedgerMetadata(anyCollection())).thenReturn(failure);
+
+        try {
+            new BookieLedgerIndexer(ledgerManager).getBookieToLedgerIndex();
+            fail("The index should not be built without the metadata of every ledger");
+        } catch (BKAuditException e) {
+            assertTrue(e.getCause() instanceof BKException.ZKException);
+        }
+    }
+}
@@ -0,0 +1,281 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.replication;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import org.apache.bookkeeper.client.BKException;
+import org.apache.bookkeeper.client.LedgerMetadataBuilder;
+import org.apache.bookkeeper.client.api.LedgerMetadata;
+import org.apache.bookkeeper.meta.LedgerManager;
+import org.apache.bookkeeper.meta.LedgerManager.LedgerRange;
+import org.apache.bookkeeper.meta.LedgerManager.LedgerRangeIterator;
+import org.apache.bookkeeper.net.BookieId;
+import org.apache.bookkeeper.versioning.LongVersion;
+import org.apache.bookkeeper.versioning.Versioned;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit tests of {@link IncrementalBookieLedgerIndex}.
+ */
+public class IncrementalBookieLedgerIndexTest {
+
+    private static final BookieId BOOKIE1 = BookieId.parse("bookie1:3181");
+    private static final BookieId BOOKIE2 = BookieId.parse("bookie2:3181");
+    private static final BookieId BOOKIE3 = BookieId.parse("bookie3:3181");
+
+    private LedgerManager ledgerManager;
+    private final Set<Long> ledgers = new TreeSet<>();
+    private final Map<Long, CompletableFuture<Versioned<LedgerMetadata>>> reads = new ConcurrentHashMap<>();
+    private final List<Long> changed = Collections.synchronizedList(new ArrayList<>());
+    private CompletableFuture<Boolean> watchAll;
+    private IncrementalBookieLedgerIndex index;
+
+    @Before
+    public void setup() {
+        ledgerManager = mock(LedgerManager.class);
+        watchAll = CompletableFuture.completedFuture(true);
+        when(ledgerManager.getLedgerRanges(anyLong())).thenAnswer(invocation -> {
+            Iterator<LedgerRange> ranges = Collections.singletonList(new LedgerRange(new HashSet<>(ledgers)))
+                    .iterator();
+            return new LedgerRangeIterator() {
+                @Override
+                public boolean hasNext() {
+                    return ranges.hasNext();
+                }
+
+                @Override
+                public LedgerRange next() {
+                    return ranges.next();
+                }
+            };
+        });
+        when(ledgerManager.registerAllLedgersMetadataListener(any())).thenAnswer(invocation -> watchAll);
+        when(ledgerManager.readLedgerMetadata(anyLong())).thenAnswer(invocation -> {
+            CompletableFuture<Versioned<LedgerMetadata>> read = new CompletableFuture<>();
+            reads.put(invocation.getArgument(0), read);
+            return read;
+        });
+        index = new IncrementalBookieLedgerIndex(ledgerManager, 1000, (ledgerId, metadata) -> changed.add(ledgerId));
+    }
+
+    private static Versioned<LedgerMetadata> metadata(long ledgerId, BookieId... ensemble) {
+        return new Versioned<>(LedgerMetadataBuilder.create()
+                .withId(ledgerId)
+                .withEnsembleSize(ensemble.length)
+                .withWriteQuorumSize(ensemble.length)
+                .withAckQuorumSize(ensemble.length)
+                .newEnsembleEntry(0, Arrays.asList(ensemble))
+                .build(), new LongVersion(1));
+    }
+
+    private void completeRead(long ledgerId, BookieId... ensemble) {
+        reads.remove(ledgerId).complete(metadata(ledgerId, ensemble));
+    }
+
+    @Test
+    public void testDiscoveryWithRecursiveWatch() throws Exception {
+        ledgers.addAll(Arrays.asList(1L, 2L));
+        index.discoverLedgers();
+        // the metadata is read without registering a watch per ledger
+        verify(ledgerManager, times(1)).registerAllLedgersMetadataListener(index);
+        verify(ledgerManager, never()).registerLedgerMetadataListener(anyLong(), any());
+        assertEquals(2, reads.size());
+        assertFalse(index.isReady());
+
+        completeRead(1L, BOOKIE1, BOOKIE2);
+        completeRead(2L, BOOKIE2, BOOKIE3);
+        assertTrue(index.isReady());
+        assertEquals(Collections.singleton(1L), index.getLedgersOfBookie(BOOKIE1.toString()));
+        assertEquals(new HashSet<>(Arrays.asList(1L, 2L)), index.getLedgersOfBookie(BOOKIE2.toString()));
+        // the initial discovery isn't notified
+        assertTrue(changed.isEmpty());
+
+        // a ledger created afterwards is notified through the watch, before any discovery
+        index.onChanged(3L, metadata(3L, BOOKIE3));
+        assertEquals(Collections.singletonList(3L), changed);
+        assertEquals(new HashSet<>(Arrays.asList(2L, 3L)), index.getLedgersOfBookie(BOOKIE3.toString()));
+
+        // an ensemble change moves the ledger
+        index.onChanged(1L, metadata(1L, BOOKIE3, BOOKIE2));
+        assertEquals(Arrays.asList(3L, 1L), changed);
+        assertTrue(index.getLedgersOfBookie(BOOKIE1.toString()).isEmpty());
+        assertFalse(index.getBookieToLedgerIndex().containsKey(BOOKIE1.toString()));
+
+        // deleted
+        index.onChanged(2L, null);
+        assertEquals(Collections.singleton(1L), index.getLedgersOfBookie(BOOKIE2.toString()));
+        assertEquals(new HashSet<>(Arrays.asList(1L, 3L)), index.getLedgersOfBookie(BOOKIE3.toString()));
+
+        index.close();
+        verify(ledgerManager, times(1)).unregisterAllLedgersMetadataListener(index);
+        verify(ledgerManager, never()).unregisterLedgerMetadataListener(anyLong(), any());
+    }
+
+    @Test
+    public void testReadsInFlightAreBounded() throws Exception {
+        int numLedgers = IncrementalBookieLedgerIndex.MAX_READS_IN_FLIGHT + 10;
+        for (long i = 0; i < numLedgers; i++) {
+            ledgers.add(i);
+        }
+        // the discovery returns without waiting for the reads
+        index.discoverLedgers();
+        assertEquals(IncrementalBookieLedgerIndex.MAX_READS_IN_FLIGHT, reads.size());
+        assertEquals(IncrementalBookieLedgerIndex.MAX_READS_IN_FLIGHT, index.getNumReadsInFlight());
+
+        // a discovery meanwhile doesn't start more reads
+        index.discoverLedgers();
+        assertEquals(IncrementalBookieLedgerIndex.MAX_READS_IN_FLIGHT, reads.size());
+
+        // every completed read starts the next one
+        for (long i = 0; i < numLedgers; i++) {
+            completeRead(i, BOOKIE1);
+            assertTrue(index.getNumReadsInFlight() <= IncrementalBookieLedgerIndex.MAX_READS_IN_FLIGHT);
+        }
+        assertTrue(reads.isEmpty());
+        assertTrue(index.isReady());
+        assertEquals(numLedgers, index.getLedgersOfBookie(BOOKIE1.toString()).size());
+        verify(ledgerManager, times(numLedgers)).readLedgerMetadata(anyLong());
+    }
+
+    @Test
+    public void testFailedReadsAreRetriedAndDeletedLedgersDropped() throws Exception {
+        ledgers.addAll(Arrays.asList(1L, 2L, 3L));
+        index.discoverLedgers();
+        completeRead(1L, BOOKIE1);
+        reads.remove(2L).completeExceptionally(new BKException.ZKException());
+        reads.remove(3L).completeExceptionally(new BKException.BKNoSuchLedgerExistsOnMetadataServerException());
+        assertEquals(0, index.getNumReadsInFlight());
+        // ledger 2 is still pending
+        assertFalse(index.isReady());
+
+        ledgers.remove(3L);
+        index.discoverLedgers();
+        assertEquals(Collections.singleton(2L), reads.keySet());
+        completeRead(2L, BOOKIE1);
+        assertTrue(index.isReady());
+        assertEquals(new HashSet<>(Arrays.asList(1L, 2L)), index.getLedgersOfBookie(BOOKIE1.toString()));
+
+        // ledger 1 is deleted without a notification
+        ledgers.remove(1L);
+        index.discoverLedgers();
+        assertEquals(Collections.singleton(2L), index.getLedgersOfBookie(BOOKIE1.toString()));
+        assertTrue(reads.isEmpty());
+        assertTrue(changed.isEmpty());
+    }
+
+    @Test
+    public void testRefreshAfterWatchReset() throws Exception {
+        ledgers.addAll(Arrays.asList(1L, 2L));
+        index.discoverLedgers();
+        completeRead(1L, BOOKIE1);
+        completeRead(2L, BOOKIE2);
+
+        index.onWatchReset();
+        index.discoverLedgers();
+        assertEquals(new HashSet<>(Arrays.asList(1L, 2L)), reads.keySet());
+        // the index stays usable while refreshing
+        assertTrue(index.isReady());
+
+        // only the ledger which changed while the watch was reset is notified
+        completeRead(1L, BOOKIE1);
+        completeRead(2L, BOOKIE3);
+        assertEquals(Collections.singletonList(2L), changed);
+        assertEquals(Collections.singleton(2L), index.getLedgersOfBookie(BOOKIE3.toString()));
+
+        // the next discovery doesn't refresh again
+        index.discoverLedgers();
+        assertTrue(reads.isEmpty());
+    }
+
+    @Test
+    public void testFallbackToLedgerListeners() throws Exception {
+        watchAll = CompletableFuture.completedFuture(false);
+        ledgers.addAll(Arrays.asList(1L, 2L));
+        index.discoverLedgers();
+        verify(ledgerManager, times(1)).registerLedgerMetadataListener(1L, index);
+        verify(ledgerManager, times(1)).registerLedgerMetadataListener(2L, index);
+        verify(ledgerManager, never()).readLedgerMetadata(anyLong());
+        assertEquals(2, index.getNumReadsInFlight());
+
+        index.onChanged(1L, metadata(1L, BOOKIE1));
+        index.onChanged(2L, metadata(2L, BOOKIE1));
+        assertTrue(index.isReady());
+        assertEquals(0, index.getNumReadsInFlight());
+
+        // ledgers which aren't listed yet are left to the discovery
+        index.onChanged(3L, metadata(3L, BOOKIE1));
+        assertEquals(new HashSet<>(Arrays.asList(1L, 2L)), index.getLedgersOfBookie(BOOKIE1.toString()));
+
+        // found by a later discovery, and notified
+        ledgers.add(3L);
+        index.discoverLedgers();
+        verify(ledgerManager, times(1)).registerLedgerMetadataListener(3L, index);
+        index.onChanged(3L, metadata(3L, BOOKIE1));
+        assertEquals(Collections.singletonList(3L), changed);
+
+        ledgers.remove(1L);
+        index.discoverLedgers();
+        verify(ledgerManager, times(1)).unregisterLedgerMetadataListener(1L, index);
+
+        index.close();
+        verify(ledgerManager, times(1)).unregisterLedgerMetadataListener(2L, index);
+        verify(ledgerManager, times(1)).unregisterLedgerMetadataListener(3L, index);
+        verify(ledgerManager, never()).unregisterAllLedgersMetadataListener(any());
+    }
+
+    @Test
+    public void testNotificationsAfterCloseAreIgnored() throws Exception {
+        ledgers.add(1L);
+        index.discoverLedgers();
+        index.close();
+        completeRead(1L, BOOKIE1);
+        index.onChanged(2L, metadata(2L, BOOKIE1));
+        assertFalse(index.isReady());
+        assertTrue(index.getBookieToLedgerIndex().isEmpty());
+        assertTrue(changed.isEmpty());
+
+        // no discovery once closed
+        index.discoverLedgers();
+        verify(ledgerManager, times(1)).getLedgerRanges(anyLong());
+    }
+}
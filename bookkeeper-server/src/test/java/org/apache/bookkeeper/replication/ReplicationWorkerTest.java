@@ -0,0 +1,108 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.replication;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.apache.bookkeeper.client.BookKeeper;
+import org.apache.bookkeeper.conf.ServerConfiguration;
+import org.apache.bookkeeper.meta.LedgerManager;
+import org.apache.bookkeeper.meta.LedgerManagerFactory;
+import org.apache.bookkeeper.meta.LedgerUnderreplicationManager;
+import org.apache.bookkeeper.stats.NullStatsLogger;
+import org.apache.bookkeeper.utils.TestBKConfiguration;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit tests of the lifecycle of {@link ReplicationWorker}.
+ */
+public class ReplicationWorkerTest {
+
+    private static final int NUM_THREADS = 4;
+
+    private ServerConfiguration conf;
+    private BookKeeper bkc;
+    private LedgerUnderreplicationManager underreplicationManager;
+    private CountDownLatch threadsWaiting;
+
+    @Before
+    public void setup() throws Exception {
+        conf = TestBKConfiguration.newServerConfiguration();
+        conf.setRwNumConcurrentLedgers(NUM_THREADS);
+        threadsWaiting = new CountDownLatch(NUM_THREADS);
+
+        underreplicationManager = mock(LedgerUnderreplicationManager.class);
+        // no ledger to replicate: every thread waits for one until it is interrupted
+        doAnswer(invocation -> {
+            threadsWaiting.countDown();
+            Thread.sleep(Long.MAX_VALUE);
+            return 0L;
+        }).when(underreplicationManager).getLedgerToRereplicate();
+        LedgerManagerFactory factory = mock(LedgerManagerFactory.class);
+        when(factory.newLedgerUnderreplicationManager()).thenReturn(underreplicationManager);
+        when(factory.newLedgerManager()).thenReturn(mock(LedgerManager.class));
+        bkc = mock(BookKeeper.class);
+        when(bkc.getLedgerManagerFactory()).thenReturn(factory);
+    }
+
+    private ReplicationWorker newWorker() throws Exception {
+        return new ReplicationWorker(conf, bkc, false, NullStatsLogger.INSTANCE);
+    }
+
+    @Test
+    public void testShutdownStopsAllThreads() throws Exception {
+        ReplicationWorker rw = newWorker();
+        rw.start();
+        assertTrue(threadsWaiting.await(10, TimeUnit.SECONDS));
+        assertTrue(rw.isRunning());
+
+        rw.shutdown();
+        assertFalse(rw.isRunning());
+        verify(underreplicationManager, times(1)).close();
+
+        // shutting down again, or starting again, is a no-op
+        rw.shutdown();
+        rw.start();
+        assertFalse(rw.isRunning());
+        verify(underreplicationManager, times(1)).close();
+    }
+
+    @Test
+    public void testShutdownBeforeStart() throws Exception {
+        ReplicationWorker rw = newWorker();
+        rw.shutdown();
+        verify(underreplicationManager, times(1)).close();
+
+        rw.start();
+        assertFalse(rw.isRunning());
+        verify(underreplicationManager, never()).getLedgerToRereplicate();
+    }
+}
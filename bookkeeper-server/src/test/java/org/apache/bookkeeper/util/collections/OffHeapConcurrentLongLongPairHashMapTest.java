@@ -0,0 +1,492 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.util.collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import io.netty.buffer.UnpooledByteBufAllocator;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.apache.bookkeeper.util.collections.ConcurrentLongLongPairHashMap.LongPair;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test the off-heap variant of the concurrent long-long pair hash map class.
+ */
+public class OffHeapConcurrentLongLongPairHashMapTest {
+
+    // tracks the direct memory of the tables, to check they are all released on close
+    private UnpooledByteBufAllocator allocator;
+    private final List<OffHeapConcurrentLongLongPairHashMap> maps = new ArrayList<>();
+
+    @Before
+    public void setup() {
+        allocator = new UnpooledByteBufAllocator(true, false, false);
+    }
+
+    @After
+    public void teardown() {
+        for (OffHeapConcurrentLongLongPairHashMap map : maps) {
+            map.close();
+        }
+        assertEquals(0L, allocator.metric().usedDirectMemory());
+    }
+
+    private OffHeapConcurrentLongLongPairHashMap.Builder newBuilder() {
+        return OffHeapConcurrentLongLongPairHashMap.newBuilder().allocator(allocator);
+    }
+
+    private OffHeapConcurrentLongLongPairHashMap build(OffHeapConcurrentLongLongPairHashMap.Builder builder) {
+        OffHeapConcurrentLongLongPairHashMap map = builder.build();
+        maps.add(map);
+        return map;
+    }
+
+    @Test
+    public void testConstructor() {
+        try {
+            newBuilder().expectedItems(0).build();
+            fail("should have thrown exception");
+        } catch (IllegalArgumentException e) {
+            // ok
+        }
+
+        try {
+            newBuilder().expectedItems(16).concurrencyLevel(0).build();
+            fail("should have thrown exception");
+        } catch (IllegalArgumentException e) {
+            // ok
+        }
+
+        try {
+            newBuilder().expectedItems(4).concurrencyLevel(8).build();
+            fail("should have thrown exception");
+        } catch (IllegalArgumentException e) {
+            // ok
+        }
+    }
+
+    @Test
+    public void simpleInsertions() {
+        OffHeapConcurrentLongLongPairHashMap map = build(newBuilder().expectedItems(16));
+        assertTrue(map.isEmpty());
+        assertTrue(map.put(1, 1, 11, 11));
+        assertFalse(map.isEmpty());
+
+        assertTrue(map.put(2, 2, 22, 22));
+        assertTrue(map.put(3, 3, 33, 33));
+
+        assertEquals(3, map.size());
+
+        assertEquals(new LongPair(11, 11), map.get(1, 1));
+        assertEquals(3, map.size());
+
+        assertTrue(map.remove(1, 1));
+        assertEquals(2, map.size());
+        assertNull(map.get(1, 1));
+        assertNull(map.get(5, 5));
+        assertEquals(2, map.size());
+
+        assertTrue(map.put(1, 1, 11, 11));
+        assertEquals(3, map.size());
+        assertTrue(map.put(1, 1, 111, 111));
+        assertEquals(3, map.size());
+        assertEquals(new LongPair(111, 111), map.get(1, 1));
+    }
+
+    @Test
+    public void testRemove() {
+        OffHeapConcurrentLongLongPairHashMap map = build(newBuilder());
+
+        assertTrue(map.isEmpty());
+        assertTrue(map.put(1, 1, 11, 11));
+        assertFalse(map.isEmpty());
+
+        assertFalse(map.remove(0, 0));
+        assertFalse(map.remove(1, 1, 111, 111));
+
+        assertFalse(map.isEmpty());
+        assertTrue(map.remove(1, 1, 11, 11));
+        assertTrue(map.isEmpty());
+    }
+
+    @Test
+    public void testClear() {
+        OffHeapConcurrentLongLongPairHashMap map = build(newBuilder()
+                .expectedItems(2)
+                .concurrencyLevel(1)
+                .autoShrink(true)
+                .mapIdleFactor(0.25f));
+        assertEquals(4, map.capacity());
+
+        assertTrue(map.put(1, 1, 11, 11));
+        assertTrue(map.put(2, 2, 22, 22));
+        assertTrue(map.put(3, 3, 33, 33));
+
+        assertEquals(8, map.capacity());
+        map.clear();
+        assertEquals(4, map.capacity());
+        assertTrue(map.isEmpty());
+        assertNull(map.get(1, 1));
+    }
+
+    @Test
+    public void testExpandAndShrink() {
+        OffHeapConcurrentLongLongPairHashMap map = build(newBuilder()
+                .expectedItems(2)
+                .concurrencyLevel(1)
+                .autoShrink(true)
+                .mapIdleFactor(0.25f));
+        assertTrue(map.put(1, 1, 11, 11));
+        assertTrue(map.put(2, 2, 22, 22));
+        assertTrue(map.put(3, 3, 33, 33));
+
+        // expand hashmap
+        assertEquals(8, map.capacity());
+        assertEquals(8L * 4 * Long.BYTES, map.sizeInBytes());
+
+        assertTrue(map.remove(1, 1, 11, 11));
+        // not shrink
+        assertEquals(8, map.capacity());
+        assertTrue(map.remove(2, 2, 22, 22));
+        // shrink hashmap
+        assertEquals(4, map.capacity());
+        assertEquals(4L * 4 * Long.BYTES, map.sizeInBytes());
+
+        assertEquals(new LongPair(33, 33), map.get(3, 3));
+    }
+
+    @Test
+    public void testRehashing() {
+        int n = 16;
+        OffHeapConcurrentLongLongPairHashMap map = build(newBuilder().expectedItems(n / 2).concurrencyLevel(1));
+        assertEquals(map.capacity(), n);
+        assertEquals(map.size(), 0);
+
+        for (int i = 0; i < n; i++) {
+            map.put(i, i, i, i);
+        }
+
+        assertEquals(map.capacity(), 2 * n);
+        assertEquals(map.size(), n);
+        for (int i = 0; i < n; i++) {
+            assertEquals(new LongPair(i, i), map.get(i, i));
+        }
+    }
+
+    @Test
+    public void testRehashingWithDeletes() {
+        int n = 16;
+        OffHeapConcurrentLongLongPairHashMap map = build(newBuilder().expectedItems(n / 2).concurrencyLevel(1));
+        assertEquals(map.capacity(), n);
+        assertEquals(map.size(), 0);
+
+        for (int i = 0; i < n / 2; i++) {
+            map.put(i, i, i, i);
+        }
+
+        for (int i = 0; i < n / 2; i++) {
+            map.remove(i, i);
+        }
+
+        for (int i = n; i < (2 * n); i++) {
+            map.put(i, i, i, i);
+        }
+
+        assertEquals(map.capacity(), 2 * n);
+        assertEquals(map.size(), n);
+        for (int i = 0; i < n / 2; i++) {
+            assertNull(map.get(i, i));
+        }
+        for (int i = n; i < (2 * n); i++) {
+            assertEquals(new LongPair(i, i), map.get(i, i));
+        }
+    }
+
+    @Test
+    public void concurrentInsertions() throws Throwable {
+        OffHeapConcurrentLongLongPairHashMap map = build(newBuilder());
+        ExecutorService executor = Executors.newCachedThreadPool();
+
+        final int nThreads = 16;
+        final int n = 10_000;
+
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < nThreads; i++) {
+            final int threadIdx = i;
+
+            futures.add(executor.submit(() -> {
+                Random random = new Random();
+
+                for (int j = 0; j < n; j++) {
+                    long key1 = Math.abs(random.nextLong());
+                    // Ensure keys are unique
+                    key1 -= key1 % (threadIdx + 1);
+
+                    long key2 = Math.abs(random.nextLong());
+                    // Ensure keys are unique
+                    key2 -= key2 % (threadIdx + 1);
+
+                    map.put(key1, key2, threadIdx, j);
+                }
+            }));
+        }
+
+        for (Future<?> future : futures) {
+            future.get();
+        }
+
+        assertEquals(n * nThreads, map.size());
+
+        executor.shutdown();
+    }
+
+    @Test
+    public void concurrentReadsDuringResize() throws Throwable {
+        // a single small section, so that the writer keeps rehashing it while the readers look up
+        OffHeapConcurrentLongLongPairHashMap map = build(newBuilder()
+                .expectedItems(16)
+                .concurrencyLevel(1)
+                .autoShrink(true));
+        final int numStableKeys = 64;
+        for (int i = 0; i < numStableKeys; i++) {
+            map.put(i, i, i * 10, i * 100);
+        }
+
+        ExecutorService executor = Executors.newCachedThreadPool();
+        AtomicBoolean stop = new AtomicBoolean(false);
+        List<Future<?>> readers = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            readers.add(executor.submit(() -> {
+                Random random = new Random();
+                while (!stop.get()) {
+                    int i = random.nextInt(numStableKeys);
+                    LongPair value = map.get(i, i);
+                    assertEquals(new LongPair(i * 10, i * 100), value);
+                }
+            }));
+        }
+
+        // grow the section well past its capacity and shrink it back, many times
+        for (int round = 0; round < 50; round++) {
+            for (int i = 0; i < 1000; i++) {
+                map.put(1_000_000 + i, i, i, i);
+            }
+            for (int i = 0; i < 1000; i++) {
+                map.remove(1_000_000 + i, i);
+            }
+        }
+        stop.set(true);
+
+        for (Future<?> reader : readers) {
+            reader.get();
+        }
+        assertEquals(numStableKeys, map.size());
+
+        executor.shutdown();
+    }
+
+    @Test
+    public void testIteration() {
+        OffHeapConcurrentLongLongPairHashMap map = build(newBuilder());
+
+        assertEquals(map.keys(), Collections.emptyList());
+        assertEquals(map.values(), Collections.emptyList());
+
+        map.put(0, 0, 0, 0);
+
+        assertEquals(map.keys(), Collections.singletonList(new LongPair(0, 0)));
+        assertEquals(map.values(), Collections.singletonList(new LongPair(0, 0)));
+
+        map.remove(0, 0);
+
+        assertEquals(map.keys(), Collections.emptyList());
+        assertEquals(map.values(), Collections.emptyList());
+
+        map.put(0, 0, 0, 0);
+        map.put(1, 1, 11, 11);
+        map.put(2, 2, 22, 22);
+
+        List<LongPair> keys = map.keys();
+        Collections.sort(keys);
+        assertEquals(keys, List.of(new LongPair(0, 0), new LongPair(1, 1), new LongPair(2, 2)));
+
+        List<LongPair> values = map.values();
+        Collections.sort(values);
+        assertEquals(values, List.of(new LongPair(0, 0), new LongPair(11, 11), new LongPair(22, 22)));
+    }
+
+    @Test
+    public void testPutIfAbsent() {
+        OffHeapConcurrentLongLongPairHashMap map = build(newBuilder());
+
+        assertTrue(map.putIfAbsent(1, 1, 11, 11));
+        assertEquals(new LongPair(11, 11), map.get(1, 1));
+
+        assertFalse(map.putIfAbsent(1, 1, 111, 111));
+        assertEquals(new LongPair(11, 11), map.get(1, 1));
+    }
+
+    @Test
+    public void testInvalidKeys() {
+        OffHeapConcurrentLongLongPairHashMap map = build(newBuilder().expectedItems(16).concurrencyLevel(1));
+
+        try {
+            map.put(-5, 3, 4, 4);
+            fail("should have failed");
+        } catch (IllegalArgumentException e) {
+            // ok
+        }
+
+        try {
+            map.get(-1, 0);
+            fail("should have failed");
+        } catch (IllegalArgumentException e) {
+            // ok
+        }
+
+        try {
+            map.containsKey(-1, 0);
+            fail("should have failed");
+        } catch (IllegalArgumentException e) {
+            // ok
+        }
+
+        try {
+            map.putIfAbsent(-1, 1, 1, 1);
+            fail("should have failed");
+        } catch (IllegalArgumentException e) {
+            // ok
+        }
+    }
+
+    @Test
+    public void testAsMap() {
+        OffHeapConcurrentLongLongPairHashMap map = build(newBuilder());
+        map.put(1, 1, 11, 11);
+        map.put(2, 2, 22, 22);
+        map.put(3, 3, 33, 33);
+
+        Map<LongPair, LongPair> expected = new HashMap<>();
+        expected.put(new LongPair(1, 1), new LongPair(11, 11));
+        expected.put(new LongPair(2, 2), new LongPair(22, 22));
+        expected.put(new LongPair(3, 3), new LongPair(33, 33));
+
+        assertEquals(expected, map.asMap());
+    }
+
+    @Test
+    public void testAccessAfterClose() {
+        OffHeapConcurrentLongLongPairHashMap map = build(newBuilder().expectedItems(16).concurrencyLevel(4));
+        map.put(1, 1, 11, 11);
+        assertTrue(allocator.metric().usedDirectMemory() > 0);
+
+        map.close();
+        assertEquals(0L, allocator.metric().usedDirectMemory());
+        assertEquals(0L, map.sizeInBytes());
+        assertEquals(0L, map.size());
+        // closing twice is harmless
+        map.close();
+
+        try {
+            map.get(1, 1);
+            fail("the map is closed");
+        } catch (IllegalStateException e) {
+            // ok
+        }
+
+        try {
+            map.put(2, 2, 22, 22);
+            fail("the map is closed");
+        } catch (IllegalStateException e) {
+            // ok
+        }
+
+        try {
+            map.remove(1, 1);
+            fail("the map is closed");
+        } catch (IllegalStateException e) {
+            // ok
+        }
+
+        try {
+            map.forEach((key1, key2, value1, value2) -> fail("the map is closed"));
+            fail("the map is closed");
+        } catch (IllegalStateException e) {
+            // ok
+        }
+
+        try {
+            map.clear();
+            fail("the map is closed");
+        } catch (IllegalStateException e) {
+            // ok
+        }
+    }
+
+    @Test
+    public void testReadersRacingWithClose() throws Throwable {
+        OffHeapConcurrentLongLongPairHashMap map = build(newBuilder().expectedItems(16).concurrencyLevel(1));
+        for (int i = 0; i < 1000; i++) {
+            map.put(i, i, i, i);
+        }
+
+        ExecutorService executor = Executors.newCachedThreadPool();
+        List<Future<?>> readers = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            readers.add(executor.submit(() -> {
+                Random random = new Random();
+                while (true) {
+                    int i = random.nextInt(1000);
+                    LongPair value;
+                    try {
+                        value = map.get(i, i);
+                    } catch (IllegalStateException e) {
+                        // the map is closed, no read ever sees a released table
+                        return;
+                    }
+                    assertEquals(new LongPair(i, i), value);
+                }
+            }));
+        }
+        Thread.sleep(50);
+        map.close();
+
+        for (Future<?> reader : readers) {
+            reader.get();
+        }
+        executor.shutdown();
+    }
+}
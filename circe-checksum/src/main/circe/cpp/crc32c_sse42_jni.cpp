@@ -47,6 +47,26 @@ JNIEXPORT jint JNICALL Java_com_scurrilous_circe_crc_Sse42Crc32C_nativeUnsafe
     return (jint) crc32c((uint32_t) current, (const void *) address, (size_t) length, (const chunk_config*) config);
 }
 
+extern "C"
+JNIEXPORT void JNICALL Java_com_scurrilous_circe_crc_Sse42Crc32C_nativeUnsafeBatch
+(JNIEnv *env, jclass, jintArray currents, jlongArray addresses, jintArray lengths, jint count, jlong config) {
+    jint *crcs = (jint *) env->GetPrimitiveArrayCritical(currents, 0);
+    const jlong *addrs = (const jlong *) env->GetPrimitiveArrayCritical(addresses, 0);
+    const jint *lens = (const jint *) env->GetPrimitiveArrayCritical(lengths, 0);
+    if (crcs && addrs && lens) {
+        for (jint i = 0; i < count; ++i) {
+            crcs[i] = (jint) crc32c((uint32_t) crcs[i], (const void *) addrs[i], (size_t) lens[i],
+                                    (const chunk_config*) config);
+        }
+    }
+    if (lens)
+        env->ReleasePrimitiveArrayCritical(lengths, (void*) lens, JNI_ABORT);
+    if (addrs)
+        env->ReleasePrimitiveArrayCritical(addresses, (void*) addrs, JNI_ABORT);
+    if (crcs)
+        env->ReleasePrimitiveArrayCritical(currents, (void*) crcs, 0);
+}
+
 extern "C"
 JNIEXPORT jlong JNICALL Java_com_scurrilous_circe_crc_Sse42Crc32C_allocConfig
   (JNIEnv *env, jclass, jintArray chunkWords) {
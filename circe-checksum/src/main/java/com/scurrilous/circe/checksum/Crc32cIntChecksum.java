@@ -79,4 +79,21 @@ public class Crc32cIntChecksum {
         return CRC32C_HASH.resume(previousChecksum, payload, offset, len);
     }
 
+    /**
+     * Computes incremental checksums of a batch of payloads: {@code previousChecksums[i]} is replaced by the
+     * checksum of {@code payloads[i]} over {@code lengths[i]} bytes starting at {@code offsets[i]}, resumed
+     * from {@code previousChecksums[i]}, for {@code i < count}. When the native library is loaded, all the
+     * direct payloads of the batch are checksummed in a single native call.
+     *
+     * @param previousChecksums : previously computed checksums, replaced by the resumed checksums
+     * @param payloads
+     * @param offsets
+     * @param lengths
+     * @param count : number of payloads in the batch
+     */
+    public static void resumeChecksumBatch(int[] previousChecksums, ByteBuf[] payloads, int[] offsets, int[] lengths,
+            int count) {
+        CRC32C_HASH.resumeBatch(previousChecksums, payloads, offsets, lengths, count);
+    }
+
 }
@@ -28,4 +28,23 @@ public interface IntHash {
     int resume(int current, ByteBuf buffer);
 
     int resume(int current, ByteBuf buffer, int offset, int len);
+
+    /**
+     * Resumes the checksums of a batch of buffers.
+     *
+     * <p>The checksum of {@code buffers[i]} over {@code lengths[i]} bytes starting at {@code offsets[i]} is
+     * resumed from {@code currents[i]} and stored back into {@code currents[i]}, for {@code i < count}.
+     * Implementations crossing into native code do it once for the whole batch.
+     *
+     * @param currents previously computed checksums, replaced by the resumed checksums
+     * @param buffers buffers to checksum
+     * @param offsets offset of the data in each buffer
+     * @param lengths length of the data in each buffer
+     * @param count number of buffers in the batch
+     */
+    default void resumeBatch(int[] currents, ByteBuf[] buffers, int[] offsets, int[] lengths, int count) {
+        for (int i = 0; i < count; i++) {
+            currents[i] = resume(currents[i], buffers[i], offsets[i], lengths[i]);
+        }
+    }
 }
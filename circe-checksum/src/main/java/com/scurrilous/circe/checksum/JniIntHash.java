@@ -20,12 +20,41 @@ package com.scurrilous.circe.checksum;
 
 import static com.scurrilous.circe.params.CrcParameters.CRC32C;
 import com.scurrilous.circe.IncrementalIntHash;
+import com.scurrilous.circe.crc.Sse42Crc32C;
 import io.netty.buffer.ByteBuf;
+import io.netty.util.concurrent.FastThreadLocal;
 
 public class JniIntHash implements IntHash {
 
     private final IncrementalIntHash hash = new Crc32cSse42Provider().getIncrementalInt(CRC32C);
 
+    private static final FastThreadLocal<BatchBuffers> BATCH_BUFFERS = new FastThreadLocal<BatchBuffers>() {
+        @Override
+        protected BatchBuffers initialValue() {
+            return new BatchBuffers();
+        }
+    };
+
+    /**
+     * Scratch arrays passed to the native batch checksum, reused per thread.
+     */
+    private static final class BatchBuffers {
+        int[] indexes = new int[0];
+        int[] currents = new int[0];
+        long[] addresses = new long[0];
+        int[] lengths = new int[0];
+
+        BatchBuffers ensureCapacity(int count) {
+            if (indexes.length < count) {
+                indexes = new int[count];
+                currents = new int[count];
+                addresses = new long[count];
+                lengths = new int[count];
+            }
+            return this;
+        }
+    }
+
     @Override
     public int calculate(ByteBuf buffer) {
         return calculate(buffer, buffer.readerIndex(), buffer.readableBytes());
@@ -41,6 +70,36 @@ public class JniIntHash implements IntHash {
         return resume(0, buffer, offset, len);
     }
 
+    @Override
+    public void resumeBatch(int[] currents, ByteBuf[] buffers, int[] offsets, int[] lengths, int count) {
+        if (!(hash instanceof Sse42Crc32C)) {
+            IntHash.super.resumeBatch(currents, buffers, offsets, lengths, count);
+            return;
+        }
+        // checksum the buffers exposing a memory address in a single native call,
+        // the others one by one
+        BatchBuffers batch = BATCH_BUFFERS.get().ensureCapacity(count);
+        int numDirect = 0;
+        for (int i = 0; i < count; i++) {
+            ByteBuf buffer = buffers[i];
+            if (buffer.hasMemoryAddress()) {
+                batch.indexes[numDirect] = i;
+                batch.currents[numDirect] = currents[i];
+                batch.addresses[numDirect] = buffer.memoryAddress() + offsets[i];
+                batch.lengths[numDirect] = lengths[i];
+                numDirect++;
+            } else {
+                currents[i] = resume(currents[i], buffer, offsets[i], lengths[i]);
+            }
+        }
+        if (numDirect > 0) {
+            ((Sse42Crc32C) hash).resumeBatch(batch.currents, batch.addresses, batch.lengths, numDirect);
+            for (int i = 0; i < numDirect; i++) {
+                currents[batch.indexes[i]] = batch.currents[i];
+            }
+        }
+    }
+
     @Override
     public int resume(int current, ByteBuf buffer, int offset, int len) {
         if (buffer.hasMemoryAddress()) {
@@ -106,6 +106,24 @@ public final class Sse42Crc32C extends AbstractIncrementalIntHash implements Inc
         return nativeUnsafe(current, address, length, config);
     }
 
+    /**
+     * Resumes the checksums of a batch of memory regions with a single native call.
+     *
+     * <p>The checksum of the {@code lengths[i]} bytes at {@code addresses[i]} is resumed from
+     * {@code currents[i]} and stored back into {@code currents[i]}, for {@code i < count}.
+     *
+     * @param currents previously computed checksums, replaced by the resumed checksums
+     * @param addresses memory addresses of the regions
+     * @param lengths lengths of the regions
+     * @param count number of regions in the batch
+     */
+    public void resumeBatch(int[] currents, long[] addresses, int[] lengths, int count) {
+        if (count < 0 || count > currents.length || count > addresses.length || count > lengths.length)
+            throw new IndexOutOfBoundsException("Invalid batch count " + count);
+        if (count > 0)
+            nativeUnsafeBatch(currents, addresses, lengths, count, config);
+    }
+
     @Override
     protected int initial() {
         return 0;
@@ -124,6 +142,9 @@ public final class Sse42Crc32C extends AbstractIncrementalIntHash implements Inc
 
     private static native int nativeUnsafe(int current, long address, long length, long config);
 
+    private static native void nativeUnsafeBatch(int[] currents, long[] addresses, int[] lengths, int count,
+            long config);
+
     private static native long allocConfig(int[] chunkWords);
 
     private static native void freeConfig(long config);
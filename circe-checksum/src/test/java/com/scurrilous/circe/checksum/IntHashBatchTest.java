@@ -0,0 +1,147 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.scurrilous.circe.checksum;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import com.scurrilous.circe.crc.Sse42Crc32C;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.buffer.Unpooled;
+import java.util.Random;
+import org.junit.Assume;
+import org.junit.Test;
+
+/**
+ * Checks that {@link IntHash#resumeBatch} resumes each checksum of the batch as {@link IntHash#resume} does.
+ */
+public class IntHashBatchTest {
+
+    private static final int BATCH_SIZE = 16;
+
+    private final Java8IntHash reference = new Java8IntHash();
+    private final Random random = new Random(0xC1BCE);
+
+    private byte[] randomBytes(int length) {
+        byte[] bytes = new byte[length];
+        random.nextBytes(bytes);
+        return bytes;
+    }
+
+    /**
+     * A mix of direct, heap and composite buffers, of various lengths, read from a non-zero offset.
+     */
+    private ByteBuf newBuffer(int i) {
+        byte[] bytes = randomBytes(1 + random.nextInt(4096));
+        switch (i % 3) {
+        case 0:
+            ByteBuf direct = ByteBufAllocator.DEFAULT.directBuffer(bytes.length);
+            return direct.writeBytes(bytes);
+        case 1:
+            return Unpooled.wrappedBuffer(bytes);
+        default:
+            CompositeByteBuf composite = Unpooled.compositeBuffer();
+            int half = bytes.length / 2;
+            composite.addComponent(true, Unpooled.wrappedBuffer(bytes, 0, half));
+            composite.addComponent(true, Unpooled.directBuffer(bytes.length - half)
+                    .writeBytes(bytes, half, bytes.length - half));
+            return composite;
+        }
+    }
+
+    private void checkBatch(IntHash hash) {
+        ByteBuf[] buffers = new ByteBuf[BATCH_SIZE];
+        int[] offsets = new int[BATCH_SIZE];
+        int[] lengths = new int[BATCH_SIZE];
+        int[] currents = new int[BATCH_SIZE];
+        int[] expected = new int[BATCH_SIZE];
+        try {
+            for (int i = 0; i < BATCH_SIZE; i++) {
+                buffers[i] = newBuffer(i);
+                offsets[i] = random.nextInt(buffers[i].readableBytes());
+                lengths[i] = buffers[i].readableBytes() - offsets[i];
+                // resume from a previous checksum, as the digest of an entry resumes from the one of its header
+                currents[i] = i == 0 ? 0 : random.nextInt();
+                expected[i] = hash.resume(currents[i], buffers[i], offsets[i], lengths[i]);
+                assertEquals(reference.resume(currents[i], buffers[i], offsets[i], lengths[i]), expected[i]);
+            }
+            // only the first count checksums are resumed
+            int[] batch = currents.clone();
+            hash.resumeBatch(batch, buffers, offsets, lengths, BATCH_SIZE - 1);
+            for (int i = 0; i < BATCH_SIZE - 1; i++) {
+                assertEquals("checksum " + i, expected[i], batch[i]);
+            }
+            assertEquals(currents[BATCH_SIZE - 1], batch[BATCH_SIZE - 1]);
+
+            batch = currents.clone();
+            hash.resumeBatch(batch, buffers, offsets, lengths, BATCH_SIZE);
+            assertArrayEquals(expected, batch);
+
+            batch = currents.clone();
+            hash.resumeBatch(batch, buffers, offsets, lengths, 0);
+            assertArrayEquals(currents, batch);
+        } finally {
+            for (ByteBuf buffer : buffers) {
+                if (buffer != null) {
+                    buffer.release();
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testJava8IntHash() {
+        checkBatch(new Java8IntHash());
+    }
+
+    @Test
+    public void testJava9IntHash() {
+        Assume.assumeTrue(Java9IntHash.HAS_JAVA9_CRC32C);
+        checkBatch(new Java9IntHash());
+    }
+
+    @Test
+    public void testJniIntHash() {
+        // the native batch itself is checked by Sse42Crc32CBatchTest, which does not need the packaged library
+        Assume.assumeTrue(Sse42Crc32C.isSupported());
+        checkBatch(new JniIntHash());
+    }
+
+    @Test
+    public void testResumeChecksumBatch() {
+        int[] checksums = new int[BATCH_SIZE];
+        ByteBuf[] payloads = new ByteBuf[BATCH_SIZE];
+        int[] offsets = new int[BATCH_SIZE];
+        int[] lengths = new int[BATCH_SIZE];
+        int[] expected = new int[BATCH_SIZE];
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            payloads[i] = newBuffer(i);
+            lengths[i] = payloads[i].readableBytes();
+            checksums[i] = Crc32cIntChecksum.computeChecksum(Unpooled.wrappedBuffer(randomBytes(20)));
+            expected[i] = Crc32cIntChecksum.resumeChecksum(checksums[i], payloads[i]);
+        }
+        Crc32cIntChecksum.resumeChecksumBatch(checksums, payloads, offsets, lengths, BATCH_SIZE);
+        assertArrayEquals(expected, checksums);
+        for (ByteBuf payload : payloads) {
+            payload.release();
+        }
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.scurrilous.circe.crc;
+
+import static com.scurrilous.circe.params.CrcParameters.CRC32C;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import com.scurrilous.circe.IncrementalIntHash;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Optional;
+import java.util.Random;
+import java.util.stream.Stream;
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Checks that the native batch checksum of {@link Sse42Crc32C} resumes each checksum of the batch as the
+ * per-region native checksum does.
+ */
+public class Sse42Crc32CBatchTest {
+
+    private static final int BATCH_SIZE = 32;
+
+    private static Sse42Crc32C crc;
+
+    /**
+     * The native library is packaged into the jar after the tests ran, so load the one built under target/nar when
+     * the classpath does not provide it.
+     */
+    @BeforeClass
+    public static void loadNativeLibrary() throws Exception {
+        if (!Sse42Crc32C.isSupported()) {
+            Path nar = Paths.get("target", "nar");
+            Assume.assumeTrue("native library not built", Files.isDirectory(nar));
+            Optional<Path> library;
+            try (Stream<Path> files = Files.walk(nar)) {
+                library = files.filter(path -> path.getFileName().toString().startsWith("libcirce-checksum."))
+                        .findFirst();
+            } catch (IOException ioe) {
+                library = Optional.empty();
+            }
+            Assume.assumeTrue("native library not built", library.isPresent());
+            try {
+                System.load(library.get().toAbsolutePath().toString());
+            } catch (UnsatisfiedLinkError e) {
+                Assume.assumeNoException(e);
+            }
+            Method nativeSupported = Sse42Crc32C.class.getDeclaredMethod("nativeSupported");
+            nativeSupported.setAccessible(true);
+            Assume.assumeTrue("SSE 4.2 not supported", (Boolean) nativeSupported.invoke(null));
+        }
+        crc = new Sse42Crc32C();
+    }
+
+    private final IncrementalIntHash reference = new StandardCrcProvider().getIncrementalInt(CRC32C);
+    private final Random random = new Random(0x5E42);
+
+    @Test
+    public void testResumeBatch() {
+        ByteBuf[] buffers = new ByteBuf[BATCH_SIZE];
+        long[] addresses = new long[BATCH_SIZE];
+        int[] lengths = new int[BATCH_SIZE];
+        int[] currents = new int[BATCH_SIZE];
+        int[] expected = new int[BATCH_SIZE];
+        try {
+            for (int i = 0; i < BATCH_SIZE; i++) {
+                // lengths around the 8-byte words and the 3-way interleaved chunks of the native code
+                byte[] bytes = new byte[i < 16 ? i : random.nextInt(16384)];
+                random.nextBytes(bytes);
+                buffers[i] = Unpooled.directBuffer(bytes.length + 1).writeBytes(bytes);
+                addresses[i] = buffers[i].memoryAddress();
+                lengths[i] = bytes.length;
+                currents[i] = random.nextInt();
+                expected[i] = crc.resume(currents[i], addresses[i], lengths[i]);
+                assertEquals(reference.resume(currents[i], bytes), expected[i]);
+            }
+
+            int[] batch = currents.clone();
+            crc.resumeBatch(batch, addresses, lengths, BATCH_SIZE);
+            assertArrayEquals(expected, batch);
+
+            // only the first count checksums are resumed
+            batch = currents.clone();
+            crc.resumeBatch(batch, addresses, lengths, 3);
+            for (int i = 0; i < BATCH_SIZE; i++) {
+                assertEquals("checksum " + i, i < 3 ? expected[i] : currents[i], batch[i]);
+            }
+
+            batch = currents.clone();
+            crc.resumeBatch(batch, addresses, lengths, 0);
+            assertArrayEquals(currents, batch);
+        } finally {
+            for (ByteBuf buffer : buffers) {
+                if (buffer != null) {
+                    buffer.release();
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testInvalidBatchCount() {
+        int[] currents = new int[2];
+        long[] addresses = new long[2];
+        int[] lengths = new int[1];
+        for (int count : new int[] { -1, 2, 3 }) {
+            try {
+                crc.resumeBatch(currents, addresses, lengths, count);
+                fail("Invalid batch count " + count);
+            } catch (IndexOutOfBoundsException e) {
+                // expected
+            }
+        }
+    }
+}
@@ -47,4 +47,13 @@ public class CpuAffinity {
     public static void acquireCore() {
         CpuAffinityImpl.acquireCore();
     }
+
+    /**
+     * Get the number of CPUs isolated by the OS, which are the ones {@link #acquireCore()} can acquire.
+     *
+     * @return the number of isolated CPUs, 0 if none or if they can't be read
+     */
+    public static int getNumIsolatedCores() {
+        return CpuAffinityImpl.getNumIsolatedCores();
+    }
 }
@@ -77,6 +77,18 @@ public class CpuAffinityImpl {
         }
     }
 
+    public static synchronized int getNumIsolatedCores() {
+        try {
+            if (isolatedProcessors == null) {
+                isolatedProcessors = IsolatedProcessors.get();
+            }
+            return isolatedProcessors.size();
+        } catch (IOException | RuntimeException e) {
+            log.warn("Unable to read the isolated CPUs: {}", e.getMessage());
+            return 0;
+        }
+    }
+
     private static final String LOCK_FILE_PREFIX = Paths.get(System.getProperty("java.io.tmpdir"), "cpu-lock-")
             .toString();
 
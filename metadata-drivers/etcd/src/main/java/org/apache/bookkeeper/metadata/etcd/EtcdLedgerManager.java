@@ -23,35 +23,32 @@ import io.etcd.jetcd.ByteSequence;
 import io.etcd.jetcd.Client;
 import io.etcd.jetcd.KV;
 import io.etcd.jetcd.KeyValue;
-import io.etcd.jetcd.Txn;
-import io.etcd.jetcd.common.exception.ClosedClientException;
 import io.etcd.jetcd.kv.GetResponse;
 import io.etcd.jetcd.op.Cmp;
-import io.etcd.jetcd.op.CmpTarget;
-import io.etcd.jetcd.options.DeleteOption;
 import io.etcd.jetcd.options.GetOption;
-import io.etcd.jetcd.options.PutOption;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
-import java.util.function.Consumer;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.bookkeeper.client.BKException;
 import org.apache.bookkeeper.client.api.LedgerMetadata;
+import org.apache.bookkeeper.meta.BulkLedgerMetadataReader;
 import org.apache.bookkeeper.meta.LedgerManager;
 import org.apache.bookkeeper.meta.LedgerMetadataSerDe;
 import org.apache.bookkeeper.metadata.etcd.helpers.KeyIterator;
 import org.apache.bookkeeper.metadata.etcd.helpers.KeyStream;
-import org.apache.bookkeeper.metadata.etcd.helpers.ValueStream;
 import org.apache.bookkeeper.proto.BookkeeperInternalCallbacks.LedgerMetadataListener;
 import org.apache.bookkeeper.proto.BookkeeperInternalCallbacks.Processor;
-import org.apache.bookkeeper.util.collections.ConcurrentLongHashMap;
 import org.apache.bookkeeper.versioning.LongVersion;
 import org.apache.bookkeeper.versioning.Version;
 import org.apache.bookkeeper.versioning.Versioned;
@@ -63,35 +60,43 @@ import org.apache.zookeeper.AsyncCallback.VoidCallback;
 @Slf4j
 class EtcdLedgerManager implements LedgerManager {
 
+    // ledgers read by a single transaction, below the default limit of operations per etcd transaction
+    static final int BULK_READ_BATCH_SIZE = 64;
+    static final int BULK_READ_MAX_BATCHES_IN_FLIGHT = 16;
+    // ledger metadata reads and mutations batched by a single transaction
+    static final int TXN_BATCH_MAX_OPS = 64;
+    // below the default request size limit of etcd, 1.5 MiB
+    static final int TXN_BATCH_MAX_BYTES = 1024 * 1024;
+    static final int TXN_BATCH_MAX_TXNS_IN_FLIGHT = 32;
+    // ledgers processed concurrently by asyncProcessLedgers
+    static final int PROCESS_LEDGERS_BATCH_SIZE = 100;
+    // ledgers returned by each range of getLedgerRanges
+    static final int LEDGER_RANGE_BATCH_SIZE = 1000;
+
     private final LedgerMetadataSerDe serDe = new LedgerMetadataSerDe();
 
     private final String scope;
-    private final Client client;
     private final KV kvClient;
     private final EtcdWatchClient watchClient;
-    private final ConcurrentLongHashMap<ValueStream<LedgerMetadata>> watchers =
-            ConcurrentLongHashMap.<ValueStream<LedgerMetadata>>newBuilder().build();
-    private final ConcurrentMap<LedgerMetadataListener, LedgerMetadataConsumer> listeners =
-        new ConcurrentHashMap<>();
+    private final EtcdTxnBatcher batcher;
+    private final EtcdLedgerMetadataWatcher metadataWatcher;
 
     private volatile boolean closed = false;
 
     EtcdLedgerManager(Client client,
                       String scope) {
-        this.client = client;
         this.kvClient = client.getKVClient();
         this.scope = scope;
         this.watchClient = new EtcdWatchClient(client);
+        this.batcher = new EtcdTxnBatcher(kvClient, TXN_BATCH_MAX_OPS, TXN_BATCH_MAX_BYTES,
+            TXN_BATCH_MAX_TXNS_IN_FLIGHT);
+        this.metadataWatcher = new EtcdLedgerMetadataWatcher(scope, kvClient, watchClient, batcher);
     }
 
     private boolean isClosed() {
         return closed;
     }
 
-    ValueStream<LedgerMetadata> getLedgerMetadataStream(long ledgerId) {
-        return watchers.get(ledgerId);
-    }
-
     @Override
     public CompletableFuture<Versioned<LedgerMetadata>> createLedgerMetadata(long ledgerId,
                                                                              LedgerMetadata metadata) {
@@ -107,40 +112,21 @@ class EtcdLedgerManager implements LedgerManager {
             promise.completeExceptionally(new BKException.BKMetadataSerializationException(ioe));
             return promise;
         }
-        kvClient.txn()
-            .If(new Cmp(
-                ledgerKeyBs,
-                Cmp.Op.GREATER,
-                CmpTarget.createRevision(0L)))
-            .Then(io.etcd.jetcd.op.Op.get(
-                ledgerKeyBs,
-                GetOption.newBuilder()
-                    .withCountOnly(true)
-                    .build()))
-            .Else(io.etcd.jetcd.op.Op.put(
+        batcher.put(
                 ledgerKeyBs,
                 valueBs,
-                PutOption.DEFAULT))
-            .commit()
-            .thenAccept(resp -> {
-                if (resp.isSucceeded()) {
-                    GetResponse getResp = resp.getGetResponses().get(0);
-                    if (getResp.getCount() <= 0) {
-                        // key doesn't exist but we fail to put the key
-                        promise.completeExceptionally(new BKException.BKUnexpectedConditionException());
-                    } else {
-                        // key exists
-                        promise.completeExceptionally(new BKException.BKLedgerExistException());
-                    }
+                EtcdTxnBatcher.keyMissing(ledgerKeyBs),
+                kv -> null == kv)
+            .whenComplete((revision, cause) -> {
+                if (null == cause) {
+                    promise.complete(new Versioned<>(metadata, new LongVersion(revision)));
+                } else if (cause instanceof EtcdTxnBatcher.ConditionFailedException) {
+                    // key exists
+                    promise.completeExceptionally(new BKException.BKLedgerExistException());
                 } else {
-                    promise.complete(new Versioned<>(metadata,
-                                                     new LongVersion(resp.getHeader().getRevision())));
-                }
-            })
-            .exceptionally(cause -> {
                     promise.completeExceptionally(new BKException.MetaStoreException());
-                    return null;
-                });
+                }
+            });
         return promise;
     }
 
@@ -164,48 +150,32 @@ class EtcdLedgerManager implements LedgerManager {
 
         String ledgerKey = EtcdUtils.getLedgerKey(scope, ledgerId);
         ByteSequence ledgerKeyBs = ByteSequence.from(ledgerKey, StandardCharsets.UTF_8);
-        Txn txn = kvClient.txn();
-        if (revision == -0xabcd) {
-            txn = txn.If(new Cmp(
-                ledgerKeyBs,
-                Cmp.Op.GREATER,
-                CmpTarget.createRevision(0L)
-            ));
+        final long expectedRevision = revision;
+        final Cmp cmp;
+        final Predicate<KeyValue> condition;
+        if (expectedRevision == -0xabcd) {
+            cmp = EtcdTxnBatcher.keyExists(ledgerKeyBs);
+            condition = kv -> null != kv;
         } else {
-            txn = txn.If(new Cmp(
-                ledgerKeyBs,
-                Cmp.Op.EQUAL,
-                CmpTarget.modRevision(revision)
-            ));
+            cmp = EtcdTxnBatcher.modRevisionEquals(ledgerKeyBs, expectedRevision);
+            condition = kv -> null != kv && kv.getModRevision() == expectedRevision;
         }
-        txn
-            .Then(io.etcd.jetcd.op.Op.delete(
-                ledgerKeyBs,
-                DeleteOption.DEFAULT
-            ))
-            .Else(io.etcd.jetcd.op.Op.get(
-                ledgerKeyBs,
-                GetOption.DEFAULT
-            ))
-            .commit()
-            .thenAccept(txnResp -> {
-                if (txnResp.isSucceeded()) {
+        batcher.delete(ledgerKeyBs, cmp, condition)
+            .whenComplete((ignored, cause) -> {
+                if (null == cause) {
                     promise.complete(null);
-                } else {
-                    GetResponse getResp = txnResp.getGetResponses().get(0);
-                    if (getResp.getCount() > 0) {
+                } else if (cause instanceof EtcdTxnBatcher.ConditionFailedException) {
+                    if (null != ((EtcdTxnBatcher.ConditionFailedException) cause).getCurrent()) {
                         // fail to delete the ledger
                         promise.completeExceptionally(new BKException.BKMetadataVersionException());
                     } else {
                         log.warn("Deleting ledger {} failed due to : ledger key {} doesn't exist", ledgerId, ledgerKey);
                         promise.completeExceptionally(new BKException.BKNoSuchLedgerExistsException());
                     }
-                }
-            })
-            .exceptionally(cause -> {
+                } else {
                     promise.completeExceptionally(new BKException.MetaStoreException());
-                    return null;
-                });
+                }
+            });
         return promise;
     }
 
@@ -215,10 +185,9 @@ class EtcdLedgerManager implements LedgerManager {
         String ledgerKey = EtcdUtils.getLedgerKey(scope, ledgerId);
         ByteSequence ledgerKeyBs = ByteSequence.from(ledgerKey, StandardCharsets.UTF_8);
         log.info("read ledger metadata under key {}", ledgerKey);
-        kvClient.get(ledgerKeyBs)
-            .thenAccept(getResp -> {
-                if (getResp.getCount() > 0) {
-                    KeyValue kv = getResp.getKvs().get(0);
+        batcher.get(ledgerKeyBs)
+            .thenAccept(kv -> {
+                if (null != kv) {
                     byte[] data = kv.getValue().getBytes();
                     try {
                         LedgerMetadata metadata = serDe.parseConfig(data, ledgerId, Optional.empty());
@@ -239,6 +208,55 @@ class EtcdLedgerManager implements LedgerManager {
         return promise;
     }
 
+    @Override
+    public CompletableFuture<Map<Long, Versioned<LedgerMetadata>>> readLedgerMetadata(Collection<Long> ledgerIds) {
+        return BulkLedgerMetadataReader.read(ledgerIds, BULK_READ_BATCH_SIZE, BULK_READ_MAX_BATCHES_IN_FLIGHT,
+                this::txnReadLedgerMetadata);
+    }
+
+    /**
+     * Read the metadata of a batch of ledgers with a single transaction made of one range get per ledger.
+     */
+    private CompletableFuture<Map<Long, Versioned<LedgerMetadata>>> txnReadLedgerMetadata(List<Long> ledgerIds) {
+        CompletableFuture<Map<Long, Versioned<LedgerMetadata>>> promise = new CompletableFuture<>();
+        io.etcd.jetcd.op.Op[] gets = new io.etcd.jetcd.op.Op[ledgerIds.size()];
+        for (int i = 0; i < gets.length; i++) {
+            gets[i] = io.etcd.jetcd.op.Op.get(
+                ByteSequence.from(EtcdUtils.getLedgerKey(scope, ledgerIds.get(i)), StandardCharsets.UTF_8),
+                GetOption.DEFAULT);
+        }
+        kvClient.txn()
+            .Then(gets)
+            .commit()
+            .thenAccept(resp -> {
+                List<GetResponse> getResps = resp.getGetResponses();
+                Map<Long, Versioned<LedgerMetadata>> result = new HashMap<>();
+                for (int i = 0; i < getResps.size(); i++) {
+                    GetResponse getResp = getResps.get(i);
+                    if (getResp.getCount() <= 0) {
+                        continue;
+                    }
+                    long ledgerId = ledgerIds.get(i);
+                    KeyValue kv = getResp.getKvs().get(0);
+                    try {
+                        LedgerMetadata metadata = serDe.parseConfig(kv.getValue().getBytes(), ledgerId,
+                                Optional.empty());
+                        result.put(ledgerId, new Versioned<>(metadata, new LongVersion(kv.getModRevision())));
+                    } catch (IOException ioe) {
+                        log.error("Could not parse ledger metadata for ledger : {}", ledgerId, ioe);
+                        promise.completeExceptionally(new BKException.MetaStoreException());
+                        return;
+                    }
+                }
+                promise.complete(result);
+            })
+            .exceptionally(cause -> {
+                    promise.completeExceptionally(new BKException.MetaStoreException());
+                    return null;
+                });
+        return promise;
+    }
+
     @Override
     public CompletableFuture<Versioned<LedgerMetadata>> writeLedgerMetadata(long ledgerId, LedgerMetadata metadata,
                                                                             Version currentVersion) {
@@ -259,126 +277,52 @@ class EtcdLedgerManager implements LedgerManager {
             return promise;
         }
 
-        kvClient.txn()
-            .If(new Cmp(
-                ledgerKeyBs,
-                Cmp.Op.EQUAL,
-                CmpTarget.modRevision(lv.getLongVersion())))
-            .Then(io.etcd.jetcd.op.Op.put(
+        batcher.put(
                 ledgerKeyBs,
                 valueBs,
-                PutOption.DEFAULT))
-            .Else(io.etcd.jetcd.op.Op.get(
-                ledgerKeyBs,
-                GetOption.DEFAULT))
-            .commit()
-            .thenAccept(resp -> {
-                if (resp.isSucceeded()) {
-                    promise.complete(new Versioned<>(metadata, new LongVersion(resp.getHeader().getRevision())));
-                } else {
-                    GetResponse getResp = resp.getGetResponses().get(0);
-                    if (getResp.getCount() > 0) {
+                EtcdTxnBatcher.modRevisionEquals(ledgerKeyBs, lv.getLongVersion()),
+                kv -> null != kv && kv.getModRevision() == lv.getLongVersion())
+            .whenComplete((revision, cause) -> {
+                if (null == cause) {
+                    promise.complete(new Versioned<>(metadata, new LongVersion(revision)));
+                } else if (cause instanceof EtcdTxnBatcher.ConditionFailedException) {
+                    KeyValue current = ((EtcdTxnBatcher.ConditionFailedException) cause).getCurrent();
+                    if (null != current) {
                         log.warn("Conditional update ledger metadata failed :"
                             + " expected version = {}, actual version = {}",
-                            getResp.getKvs().get(0).getModRevision(), lv);
+                            current.getModRevision(), lv);
                         promise.completeExceptionally(new BKException.BKMetadataVersionException());
                     } else {
                         promise.completeExceptionally(new BKException.BKNoSuchLedgerExistsException());
                     }
-                }
-            })
-            .exceptionally(cause -> {
+                } else {
                     promise.completeExceptionally(new BKException.MetaStoreException());
-                    return null;
-                });
+                }
+            });
         return promise;
     }
 
-    private LedgerMetadataConsumer listenerToConsumer(long ledgerId,
-                                                      LedgerMetadataListener listener,
-                                                      Consumer<Long> onDeletedConsumer) {
-        return new LedgerMetadataConsumer(
-            ledgerId,
-            listener,
-            onDeletedConsumer
-        );
-    }
-
     @Override
     public void registerLedgerMetadataListener(long ledgerId, LedgerMetadataListener listener) {
-        if (listeners.containsKey(listener)) {
-            return;
-        }
-
-        ValueStream<LedgerMetadata> lmStream = watchers.computeIfAbsent(
-            ledgerId, (lid) -> new ValueStream<>(
-                client,
-                watchClient,
-                        bs -> {
-                            try {
-                                return serDe.parseConfig(
-                                        bs.getBytes(),
-                                        lid,
-                                        Optional.empty()
-                                );
-                            } catch (IOException ioe) {
-                                log.error("Could not parse ledger metadata : {}",
-                                        bs.toString(StandardCharsets.UTF_8), ioe);
-                                throw new RuntimeException(
-                                        "Could not parse ledger metadata : "
-                                                + bs.toString(StandardCharsets.UTF_8), ioe);
-                            }
-    },
-                ByteSequence.from(EtcdUtils.getLedgerKey(scope, ledgerId), StandardCharsets.UTF_8))
-        );
-        LedgerMetadataConsumer lmConsumer = listenerToConsumer(ledgerId, listener,
-            (lid) -> {
-                if (watchers.remove(lid, lmStream)) {
-                    log.info("Closed ledger metadata watcher on ledger {} deletion.", lid);
-                    lmStream.closeAsync();
-                }
-            });
-        LedgerMetadataConsumer oldConsumer = listeners.putIfAbsent(listener, lmConsumer);
-        if (null != oldConsumer) {
-            return;
-        } else {
-            lmStream.readAndWatch(lmConsumer)
-                .whenComplete((values, cause) -> {
-                    if (null != cause && !(cause instanceof ClosedClientException)) {
-                        // fail to register ledger metadata listener, re-attempt it
-                        registerLedgerMetadataListener(ledgerId, listener);
-                    }
-                });
-        }
+        metadataWatcher.register(ledgerId, listener);
     }
 
     @Override
     public void unregisterLedgerMetadataListener(long ledgerId, LedgerMetadataListener listener) {
-        LedgerMetadataConsumer lmConsumer = listeners.remove(listener);
-        unregisterLedgerMetadataListener(ledgerId, lmConsumer);
+        metadataWatcher.unregister(ledgerId, listener);
     }
 
-    private void unregisterLedgerMetadataListener(long ledgerId, LedgerMetadataConsumer lmConsumer) {
-        ValueStream<LedgerMetadata> lmStream = watchers.get(ledgerId);
-        if (null == lmStream) {
-            return;
-        } else {
-            lmStream.unwatch(lmConsumer).thenAccept(noConsumers -> {
-                if (noConsumers) {
-                    if (watchers.remove(ledgerId, lmStream)) {
-                        log.info("Closed ledger metadata watcher on ledger {} since there are no listeners any more.",
-                            ledgerId);
-                        lmStream.closeAsync();
-                    }
-                }
-            }).exceptionally(cause -> {
-                if (cause instanceof ClosedClientException) {
-                    // fail to unwatch a consumer
-                    unregisterLedgerMetadataListener(ledgerId, lmConsumer);
-                }
-                return null;
-            });
-        }
+    private KeyStream<Long> newLedgerKeyStream(int batchSize) {
+        return new KeyStream<>(
+            kvClient,
+            ByteSequence.from(EtcdUtils.getLedgerKey(scope, 0L), StandardCharsets.UTF_8),
+            ByteSequence.from(EtcdUtils.getLedgerKey(scope, Long.MAX_VALUE), StandardCharsets.UTF_8),
+            bs -> {
+                UUID uuid = EtcdUtils.parseLedgerKey(bs.toString(StandardCharsets.UTF_8));
+                return uuid.getLeastSignificantBits();
+            },
+            batchSize
+        );
     }
 
     @Override
@@ -387,50 +331,48 @@ class EtcdLedgerManager implements LedgerManager {
                                     Object context,
                                     int successRc,
                                     int failureRc) {
-        KeyStream<Long> ks = new KeyStream<>(
-            kvClient,
-            ByteSequence.from(EtcdUtils.getLedgerKey(scope, 0L), StandardCharsets.UTF_8),
-            ByteSequence.from(EtcdUtils.getLedgerKey(scope, Long.MAX_VALUE), StandardCharsets.UTF_8),
-            bs -> {
-                UUID uuid = EtcdUtils.parseLedgerKey(bs.toString(StandardCharsets.UTF_8));
-                return uuid.getLeastSignificantBits();
-            }
-        );
+        KeyStream<Long> ks = newLedgerKeyStream(PROCESS_LEDGERS_BATCH_SIZE);
         processLedgers(
-            ks, processor, finalCb, context, successRc, failureRc);
+            ks, ks.readNext(), processor, finalCb, context, successRc, failureRc);
     }
 
+    /**
+     * Process the ledgers of <i>batchFuture</i>, while reading the next batch of ledgers. The next batch is
+     * processed once all the ledgers of the current one are processed successfully.
+     */
     private void processLedgers(KeyStream<Long> ks,
+                                CompletableFuture<List<Long>> batchFuture,
                                 Processor<Long> processor,
                                 VoidCallback finalCb,
                                 Object context,
                                 int successRc,
                                 int failureRc) {
-        ks.readNext().whenCompleteAsync((ledgers, cause) -> {
+        batchFuture.whenCompleteAsync((ledgers, cause) -> {
             if (null != cause) {
                 finalCb.processResult(failureRc, null, context);
+            } else if (ledgers.isEmpty()) {
+                finalCb.processResult(successRc, null, context);
             } else {
-                if (ledgers.isEmpty()) {
-                    finalCb.processResult(successRc, null, context);
-                } else {
-                    ledgers.forEach(l -> processor.process(l, finalCb));
-                    processLedgers(ks, processor, finalCb, context, successRc, failureRc);
-                }
+                CompletableFuture<List<Long>> nextBatchFuture = ks.readNext();
+                AtomicInteger numPending = new AtomicInteger(ledgers.size());
+                AtomicBoolean failed = new AtomicBoolean(false);
+                VoidCallback batchCb = (rc, path, ctx) -> {
+                    if (rc != successRc) {
+                        if (failed.compareAndSet(false, true)) {
+                            finalCb.processResult(failureRc, null, context);
+                        }
+                    } else if (numPending.decrementAndGet() == 0 && !failed.get()) {
+                        processLedgers(ks, nextBatchFuture, processor, finalCb, context, successRc, failureRc);
+                    }
+                };
+                ledgers.forEach(l -> processor.process(l, batchCb));
             }
         });
     }
 
     @Override
     public LedgerRangeIterator getLedgerRanges(long opTimeOutMs) {
-        KeyStream<Long> ks = new KeyStream<>(
-            kvClient,
-            ByteSequence.from(EtcdUtils.getLedgerKey(scope, 0L), StandardCharsets.UTF_8),
-            ByteSequence.from(EtcdUtils.getLedgerKey(scope, Long.MAX_VALUE), StandardCharsets.UTF_8),
-            bs -> {
-                UUID uuid = EtcdUtils.parseLedgerKey(bs.toString(StandardCharsets.UTF_8));
-                return uuid.getLeastSignificantBits();
-            }
-        );
+        KeyStream<Long> ks = newLedgerKeyStream(LEDGER_RANGE_BATCH_SIZE);
         KeyIterator<Long> ki = new KeyIterator<>(ks);
         return new LedgerRangeIterator() {
             @Override
@@ -472,6 +414,8 @@ class EtcdLedgerManager implements LedgerManager {
             }
             closed = true;
         }
+        metadataWatcher.close();
+        batcher.close();
         watchClient.close();
     }
 }
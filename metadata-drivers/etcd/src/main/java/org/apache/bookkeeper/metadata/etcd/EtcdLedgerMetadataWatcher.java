@@ -0,0 +1,295 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.bookkeeper.metadata.etcd;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.apache.bookkeeper.metadata.etcd.EtcdConstants.END_SEP;
+
+import io.etcd.jetcd.ByteSequence;
+import io.etcd.jetcd.KV;
+import io.etcd.jetcd.KeyValue;
+import io.etcd.jetcd.common.exception.ClosedClientException;
+import io.etcd.jetcd.options.GetOption;
+import io.etcd.jetcd.options.WatchOption;
+import io.etcd.jetcd.watch.WatchEvent;
+import io.etcd.jetcd.watch.WatchResponse;
+import java.io.IOException;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArraySet;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.bookkeeper.client.api.LedgerMetadata;
+import org.apache.bookkeeper.meta.LedgerMetadataSerDe;
+import org.apache.bookkeeper.proto.BookkeeperInternalCallbacks.LedgerMetadataListener;
+import org.apache.bookkeeper.util.collections.ConcurrentLongHashMap;
+import org.apache.bookkeeper.versioning.LongVersion;
+import org.apache.bookkeeper.versioning.Versioned;
+
+/**
+ * Watches the metadata of the ledgers with listeners through a single etcd watch over all the ledger keys.
+ *
+ * <p>Instead of one etcd watch per ledger, the watch covers the whole ledgers range and its events are dispatched
+ * to the listeners of the ledger they belong to; the events of the ledgers without listeners are dropped
+ * without being parsed. The watch is created with the first listener and starts right after the revision read
+ * at that time, so the initial read of every ledger, done afterwards, can't miss an update. Reads and events are
+ * ordered by the modification revision of the ledger key, so listeners only ever see newer metadata.
+ */
+@Slf4j
+class EtcdLedgerMetadataWatcher implements AutoCloseable {
+
+    /**
+     * Listeners and last known metadata of a watched ledger.
+     */
+    private static final class LedgerWatch {
+        final Set<LedgerMetadataListener> listeners = new CopyOnWriteArraySet<>();
+        // guarded by this
+        long modRevision = 0L;
+        Versioned<LedgerMetadata> metadata = null;
+    }
+
+    private final LedgerMetadataSerDe serDe = new LedgerMetadataSerDe();
+    private final String scope;
+    private final KV kvClient;
+    private final EtcdWatchClient watchClient;
+    private final EtcdTxnBatcher batcher;
+    private final ByteSequence ledgersStartKey;
+    private final ByteSequence ledgersEndKey;
+    private final ConcurrentLongHashMap<LedgerWatch> ledgers =
+            ConcurrentLongHashMap.<LedgerWatch>newBuilder().build();
+
+    // guarded by this
+    private CompletableFuture<EtcdWatcher> watchFuture = null;
+    private long watchGeneration = 0L;
+    private boolean closed = false;
+
+    EtcdLedgerMetadataWatcher(String scope, KV kvClient, EtcdWatchClient watchClient, EtcdTxnBatcher batcher) {
+        this.scope = scope;
+        this.kvClient = kvClient;
+        this.watchClient = watchClient;
+        this.batcher = batcher;
+        this.ledgersStartKey = ByteSequence.from(EtcdUtils.getLedgersPath(scope) + "/", UTF_8);
+        this.ledgersEndKey = ByteSequence.from(EtcdUtils.getLedgersPath(scope) + END_SEP, UTF_8);
+    }
+
+    void register(long ledgerId, LedgerMetadataListener listener) {
+        LedgerWatch lw;
+        while (true) {
+            lw = ledgers.computeIfAbsent(ledgerId, lid -> new LedgerWatch());
+            if (!lw.listeners.add(listener)) {
+                return;
+            }
+            // the ledger might have been unwatched meanwhile
+            if (ledgers.get(ledgerId) == lw) {
+                break;
+            }
+            lw.listeners.remove(listener);
+        }
+        final LedgerWatch watch = lw;
+        ensureWatching()
+            .thenCompose(ignored -> batcher.get(ledgerKey(ledgerId)))
+            .whenComplete((kv, cause) -> {
+                if (null != cause) {
+                    if (!(cause instanceof ClosedClientException) && !isClosed()) {
+                        // fail to register ledger metadata listener, re-attempt it
+                        watch.listeners.remove(listener);
+                        register(ledgerId, listener);
+                    }
+                } else if (null == kv) {
+                    onDeleted(ledgerId, watch, Long.MAX_VALUE);
+                } else {
+                    onUpdated(ledgerId, watch, kv, listener);
+                }
+            });
+    }
+
+    void unregister(long ledgerId, LedgerMetadataListener listener) {
+        LedgerWatch lw = ledgers.get(ledgerId);
+        if (null != lw && lw.listeners.remove(listener) && lw.listeners.isEmpty()) {
+            if (ledgers.remove(ledgerId, lw)) {
+                log.info("Stopped watching ledger {} metadata since there are no listeners any more.", ledgerId);
+            }
+        }
+    }
+
+    private ByteSequence ledgerKey(long ledgerId) {
+        return ByteSequence.from(EtcdUtils.getLedgerKey(scope, ledgerId), UTF_8);
+    }
+
+    private synchronized boolean isClosed() {
+        return closed;
+    }
+
+    private synchronized CompletableFuture<EtcdWatcher> ensureWatching() {
+        if (null != watchFuture) {
+            return watchFuture;
+        }
+        final long generation = ++watchGeneration;
+        final CompletableFuture<EtcdWatcher> future = kvClient.get(
+            ledgersStartKey,
+            GetOption.newBuilder()
+                .withRange(ledgersEndKey)
+                .withCountOnly(true)
+                .build()
+        ).thenCompose(getResp -> {
+            long revision = getResp.getHeader().getRevision();
+            if (log.isDebugEnabled()) {
+                log.debug("Watching ledgers metadata under scope {} from revision {}", scope, revision + 1);
+            }
+            return watchClient.watch(
+                ledgersStartKey,
+                WatchOption.newBuilder()
+                    .withRange(ledgersEndKey)
+                    .withRevision(revision + 1)
+                    .build(),
+                (response, cause) -> onWatchResponse(generation, response, cause));
+        });
+        watchFuture = future;
+        future.whenComplete((watcher, cause) -> {
+            if (null != cause) {
+                synchronized (EtcdLedgerMetadataWatcher.this) {
+                    if (watchFuture == future) {
+                        watchFuture = null;
+                    }
+                }
+            }
+        });
+        return future;
+    }
+
+    private void onWatchResponse(long generation, WatchResponse response, Throwable cause) {
+        synchronized (this) {
+            if (closed || generation != watchGeneration) {
+                return;
+            }
+        }
+        if (null != cause) {
+            onWatchError(cause);
+            return;
+        }
+        for (WatchEvent event : response.getEvents()) {
+            KeyValue kv = event.getKeyValue();
+            long ledgerId = parseLedgerId(kv.getKey());
+            LedgerWatch lw = ledgerId < 0 ? null : ledgers.get(ledgerId);
+            if (null == lw) {
+                continue;
+            }
+            switch (event.getEventType()) {
+                case PUT:
+                    onUpdated(ledgerId, lw, kv, null);
+                    break;
+                case DELETE:
+                    onDeleted(ledgerId, lw, kv.getModRevision());
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    private void onWatchError(Throwable cause) {
+        if (cause instanceof ClosedClientException) {
+            return;
+        }
+        log.warn("Ledgers metadata watch under scope {} failed, re-watching all the watched ledgers", scope, cause);
+        CompletableFuture<EtcdWatcher> oldWatchFuture;
+        synchronized (this) {
+            oldWatchFuture = watchFuture;
+            watchFuture = null;
+        }
+        if (null != oldWatchFuture) {
+            oldWatchFuture.thenAccept(EtcdWatcher::closeAsync);
+        }
+        // updates missed while not watching are caught up by reading the watched ledgers again, which the
+        // batcher turns into a few transactions
+        ensureWatching().thenRun(() -> ledgers.forEach((ledgerId, lw) ->
+            batcher.get(ledgerKey(ledgerId)).whenComplete((kv, readCause) -> {
+                if (null != readCause) {
+                    log.warn("Failed to read ledger {} metadata after re-watching", ledgerId, readCause);
+                } else if (null == kv) {
+                    onDeleted(ledgerId, lw, Long.MAX_VALUE);
+                } else {
+                    onUpdated(ledgerId, lw, kv, null);
+                }
+            })));
+    }
+
+    private long parseLedgerId(ByteSequence key) {
+        try {
+            UUID uuid = EtcdUtils.parseLedgerKey(key.toString(UTF_8));
+            return uuid.getMostSignificantBits() == 0L ? uuid.getLeastSignificantBits() : -1L;
+        } catch (IllegalArgumentException iae) {
+            return -1L;
+        }
+    }
+
+    /**
+     * Apply the value of the ledger key if newer than the last known metadata, and notify the listeners. Otherwise
+     * only notify <i>newListener</i>, if any, of the last known metadata.
+     */
+    private void onUpdated(long ledgerId, LedgerWatch lw, KeyValue kv, LedgerMetadataListener newListener) {
+        synchronized (lw) {
+            if (kv.getModRevision() > lw.modRevision) {
+                try {
+                    LedgerMetadata metadata = serDe.parseConfig(kv.getValue().getBytes(), ledgerId, Optional.empty());
+                    lw.modRevision = kv.getModRevision();
+                    lw.metadata = new Versioned<>(metadata, new LongVersion(kv.getModRevision()));
+                } catch (IOException ioe) {
+                    log.error("Could not parse ledger metadata : {}", kv.getValue().toString(UTF_8), ioe);
+                    return;
+                }
+                for (LedgerMetadataListener listener : lw.listeners) {
+                    listener.onChanged(ledgerId, lw.metadata);
+                }
+            } else if (null != newListener && null != lw.metadata && lw.listeners.contains(newListener)) {
+                newListener.onChanged(ledgerId, lw.metadata);
+            }
+        }
+    }
+
+    private void onDeleted(long ledgerId, LedgerWatch lw, long revision) {
+        synchronized (lw) {
+            if (revision <= lw.modRevision) {
+                return;
+            }
+            lw.modRevision = revision;
+        }
+        if (ledgers.remove(ledgerId, lw)) {
+            log.info("Stopped watching ledger {} metadata on ledger deletion.", ledgerId);
+        }
+    }
+
+    @Override
+    public void close() {
+        CompletableFuture<EtcdWatcher> oldWatchFuture;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            oldWatchFuture = watchFuture;
+            watchFuture = null;
+        }
+        ledgers.clear();
+        if (null != oldWatchFuture) {
+            oldWatchFuture.thenAccept(EtcdWatcher::closeAsync);
+        }
+    }
+}
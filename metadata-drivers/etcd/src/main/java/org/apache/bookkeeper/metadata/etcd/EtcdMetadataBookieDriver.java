@@ -14,9 +14,11 @@
 
 package org.apache.bookkeeper.metadata.etcd;
 
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.bookkeeper.conf.ServerConfiguration;
+import org.apache.bookkeeper.discover.RegistrationClient;
 import org.apache.bookkeeper.discover.RegistrationManager;
 import org.apache.bookkeeper.meta.MetadataBookieDriver;
 import org.apache.bookkeeper.meta.MetadataDrivers;
@@ -68,6 +70,11 @@ public class EtcdMetadataBookieDriver extends EtcdMetadataDriverBase implements
         return regMgr;
     }
 
+    @Override
+    public synchronized RegistrationClient createRegistrationClient(ScheduledExecutorService scheduler) {
+        return new EtcdRegistrationClient(keyPrefix, client);
+    }
+
     @Override
     public void close() {
         RegistrationManager rmToClose;
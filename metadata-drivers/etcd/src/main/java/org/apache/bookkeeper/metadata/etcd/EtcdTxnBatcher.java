@@ -0,0 +1,399 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.bookkeeper.metadata.etcd;
+
+import io.etcd.jetcd.ByteSequence;
+import io.etcd.jetcd.KV;
+import io.etcd.jetcd.KeyValue;
+import io.etcd.jetcd.common.exception.ClosedClientException;
+import io.etcd.jetcd.kv.GetResponse;
+import io.etcd.jetcd.kv.TxnResponse;
+import io.etcd.jetcd.op.Cmp;
+import io.etcd.jetcd.op.CmpTarget;
+import io.etcd.jetcd.op.Op;
+import io.etcd.jetcd.options.DeleteOption;
+import io.etcd.jetcd.options.GetOption;
+import io.etcd.jetcd.options.PutOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Predicate;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Batches single key reads and conditional mutations into etcd transactions, and pipelines the transactions.
+ *
+ * <p>Up to {@code maxTxnsInFlight} transactions are outstanding at any time. An operation submitted while a
+ * slot is free is sent right away on its own; operations submitted while all the slots are taken are queued, and
+ * sent together as soon as a slot frees up, up to {@code maxOpsPerTxn} per transaction and about
+ * {@code maxBytesPerTxn} of keys and values, to stay below the request size limit of etcd. Batching thus only
+ * kicks in under load and doesn't add latency otherwise. When a batch fails for any other reason than a
+ * condition, e.g. a transport error or a request still too large, its operations are retried one per
+ * transaction, so that only the faulty ones fail. Mutations are conditional and never applied twice.
+ *
+ * <p>Reads are batched into transactions made of one range get per key. Mutations are batched into a
+ * transaction whose condition is the conjunction of their conditions: if it holds, all the mutations are applied
+ * at once. Otherwise the transaction reads all the keys instead; the mutations whose condition doesn't hold
+ * against the keys read are failed and the others are resubmitted. etcd evaluates the conditions and the reads
+ * at the same revision, so every failed transaction fails at least one mutation and retries always make
+ * progress. A transaction never mutates the same key twice, as etcd rejects it.
+ */
+@Slf4j
+class EtcdTxnBatcher implements AutoCloseable {
+
+    /**
+     * Thrown when the condition of a mutation doesn't hold.
+     */
+    static class ConditionFailedException extends Exception {
+
+        private static final long serialVersionUID = 1L;
+
+        private final transient KeyValue current;
+
+        ConditionFailedException(KeyValue current) {
+            super("Condition failed", null, false, false);
+            this.current = current;
+        }
+
+        /**
+         * Return the value of the key the condition was evaluated against, or null if the key didn't exist.
+         */
+        KeyValue getCurrent() {
+            return current;
+        }
+    }
+
+    // estimate of the size of an operation in a transaction request, besides its key and value
+    private static final int OP_OVERHEAD_BYTES = 32;
+
+    private static final class Read {
+        final ByteSequence key;
+        final CompletableFuture<KeyValue> promise = new CompletableFuture<>();
+        // sent in a transaction of its own, after its batch failed
+        boolean alone = false;
+
+        Read(ByteSequence key) {
+            this.key = key;
+        }
+    }
+
+    private static final class Mutation {
+        final ByteSequence key;
+        final Cmp cmp;
+        // local evaluation of cmp against the key value, null if the key doesn't exist
+        final Predicate<KeyValue> condition;
+        final Op op;
+        // estimated size of the compare, the mutation and the read of the key in the transaction
+        final int sizeBytes;
+        final CompletableFuture<Long> promise = new CompletableFuture<>();
+        // sent in a transaction of its own, after its batch failed
+        boolean alone = false;
+
+        Mutation(ByteSequence key, Cmp cmp, Predicate<KeyValue> condition, Op op, int valueSize) {
+            this.key = key;
+            this.cmp = cmp;
+            this.condition = condition;
+            this.op = op;
+            this.sizeBytes = 3 * (key.size() + OP_OVERHEAD_BYTES) + valueSize;
+        }
+    }
+
+    private final KV kvClient;
+    private final int maxOpsPerTxn;
+    private final int maxBytesPerTxn;
+    private final int maxTxnsInFlight;
+
+    private final Deque<Read> pendingReads = new ArrayDeque<>();
+    private final Deque<Mutation> pendingMutations = new ArrayDeque<>();
+    private int txnsInFlight = 0;
+    private boolean mutationsFirst = true;
+    private boolean closed = false;
+
+    EtcdTxnBatcher(KV kvClient, int maxOpsPerTxn, int maxBytesPerTxn, int maxTxnsInFlight) {
+        this.kvClient = kvClient;
+        this.maxOpsPerTxn = maxOpsPerTxn;
+        this.maxBytesPerTxn = maxBytesPerTxn;
+        this.maxTxnsInFlight = maxTxnsInFlight;
+    }
+
+    //
+    // Conditions
+    //
+
+    static Cmp keyMissing(ByteSequence key) {
+        // etcd compares a missing key as a key with zero revisions
+        return new Cmp(key, Cmp.Op.EQUAL, CmpTarget.createRevision(0L));
+    }
+
+    static Cmp keyExists(ByteSequence key) {
+        return new Cmp(key, Cmp.Op.GREATER, CmpTarget.createRevision(0L));
+    }
+
+    static Cmp modRevisionEquals(ByteSequence key, long revision) {
+        return new Cmp(key, Cmp.Op.EQUAL, CmpTarget.modRevision(revision));
+    }
+
+    /**
+     * Read the value of <i>key</i>.
+     *
+     * @return the key value, or null if the key doesn't exist
+     */
+    CompletableFuture<KeyValue> get(ByteSequence key) {
+        Read read = new Read(key);
+        synchronized (this) {
+            if (closed) {
+                read.promise.completeExceptionally(new ClosedClientException("Etcd txn batcher is closed"));
+                return read.promise;
+            }
+            pendingReads.add(read);
+        }
+        drain();
+        return read.promise;
+    }
+
+    /**
+     * Put <i>value</i> in <i>key</i> if <i>cmp</i> holds. <i>condition</i> must evaluate <i>cmp</i> against the
+     * value of the key, or null if the key doesn't exist.
+     *
+     * @return the revision the mutation was applied at, or a {@link ConditionFailedException} if the condition
+     *         didn't hold
+     */
+    CompletableFuture<Long> put(ByteSequence key, ByteSequence value, Cmp cmp, Predicate<KeyValue> condition) {
+        return mutate(new Mutation(key, cmp, condition, Op.put(key, value, PutOption.DEFAULT), value.size()));
+    }
+
+    /**
+     * Delete <i>key</i> if <i>cmp</i> holds. <i>condition</i> must evaluate <i>cmp</i> against the value of the
+     * key, or null if the key doesn't exist.
+     *
+     * @return the revision the mutation was applied at, or a {@link ConditionFailedException} if the condition
+     *         didn't hold
+     */
+    CompletableFuture<Long> delete(ByteSequence key, Cmp cmp, Predicate<KeyValue> condition) {
+        return mutate(new Mutation(key, cmp, condition, Op.delete(key, DeleteOption.DEFAULT), 0));
+    }
+
+    private CompletableFuture<Long> mutate(Mutation mutation) {
+        synchronized (this) {
+            if (closed) {
+                mutation.promise.completeExceptionally(new ClosedClientException("Etcd txn batcher is closed"));
+                return mutation.promise;
+            }
+            pendingMutations.add(mutation);
+        }
+        drain();
+        return mutation.promise;
+    }
+
+    private void drain() {
+        while (true) {
+            List<Read> reads = null;
+            List<Mutation> mutations = null;
+            synchronized (this) {
+                if (txnsInFlight >= maxTxnsInFlight) {
+                    return;
+                }
+                // alternate between reads and mutations, so that neither starves the other
+                if (!pendingMutations.isEmpty() && (mutationsFirst || pendingReads.isEmpty())) {
+                    mutations = pollMutations();
+                    mutationsFirst = false;
+                } else if (!pendingReads.isEmpty()) {
+                    reads = pollReads();
+                    mutationsFirst = true;
+                } else {
+                    return;
+                }
+                txnsInFlight++;
+            }
+            if (null != mutations) {
+                sendMutations(mutations);
+            } else {
+                sendReads(reads);
+            }
+        }
+    }
+
+    private List<Read> pollReads() {
+        List<Read> reads = new ArrayList<>(Math.min(maxOpsPerTxn, pendingReads.size()));
+        int sizeBytes = 0;
+        while (reads.size() < maxOpsPerTxn && !pendingReads.isEmpty()) {
+            Read read = pendingReads.peek();
+            sizeBytes += read.key.size() + OP_OVERHEAD_BYTES;
+            if (!reads.isEmpty() && (read.alone || sizeBytes > maxBytesPerTxn)) {
+                break;
+            }
+            reads.add(pendingReads.poll());
+            if (read.alone) {
+                break;
+            }
+        }
+        return reads;
+    }
+
+    private List<Mutation> pollMutations() {
+        List<Mutation> mutations = new ArrayList<>(Math.min(maxOpsPerTxn, pendingMutations.size()));
+        Set<ByteSequence> keys = new HashSet<>();
+        int sizeBytes = 0;
+        Iterator<Mutation> iterator = pendingMutations.iterator();
+        while (mutations.size() < maxOpsPerTxn && iterator.hasNext()) {
+            Mutation mutation = iterator.next();
+            if (!mutations.isEmpty() && (mutation.alone || sizeBytes + mutation.sizeBytes > maxBytesPerTxn)) {
+                break;
+            }
+            // a key mutated twice is left for the next transaction
+            if (keys.add(mutation.key)) {
+                mutations.add(mutation);
+                sizeBytes += mutation.sizeBytes;
+                iterator.remove();
+                if (mutation.alone) {
+                    break;
+                }
+            }
+        }
+        return mutations;
+    }
+
+    private void onTxnComplete(List<Read> readRetries, List<Mutation> mutationRetries) {
+        synchronized (this) {
+            txnsInFlight--;
+            for (int i = readRetries.size() - 1; i >= 0; i--) {
+                pendingReads.addFirst(readRetries.get(i));
+            }
+            for (int i = mutationRetries.size() - 1; i >= 0; i--) {
+                pendingMutations.addFirst(mutationRetries.get(i));
+            }
+        }
+        drain();
+    }
+
+    /**
+     * Whether the operations of a batch failing with <i>cause</i> should be retried one per transaction.
+     */
+    private static boolean retryAlone(int batchSize, Throwable cause) {
+        return batchSize > 1 && !(cause instanceof ClosedClientException)
+            && !(cause.getCause() instanceof ClosedClientException);
+    }
+
+    private void sendReads(List<Read> reads) {
+        CompletableFuture<List<GetResponse>> respFuture;
+        if (reads.size() == 1) {
+            respFuture = kvClient.get(reads.get(0).key).thenApply(getResp -> {
+                List<GetResponse> getResps = new ArrayList<>(1);
+                getResps.add(getResp);
+                return getResps;
+            });
+        } else {
+            Op[] gets = new Op[reads.size()];
+            for (int i = 0; i < gets.length; i++) {
+                gets[i] = Op.get(reads.get(i).key, GetOption.DEFAULT);
+            }
+            respFuture = kvClient.txn().Then(gets).commit().thenApply(TxnResponse::getGetResponses);
+        }
+        respFuture.whenComplete((getResps, cause) -> {
+            if (null != cause && retryAlone(reads.size(), cause)) {
+                log.warn("Transaction of {} reads failed, retrying them one by one", reads.size(), cause);
+                reads.forEach(r -> r.alone = true);
+                onTxnComplete(reads, new ArrayList<>(0));
+                return;
+            }
+            onTxnComplete(new ArrayList<>(0), new ArrayList<>(0));
+            for (int i = 0; i < reads.size(); i++) {
+                Read read = reads.get(i);
+                if (null != cause) {
+                    read.promise.completeExceptionally(cause);
+                } else {
+                    GetResponse getResp = getResps.get(i);
+                    read.promise.complete(getResp.getCount() > 0 ? getResp.getKvs().get(0) : null);
+                }
+            }
+        });
+    }
+
+    private void sendMutations(List<Mutation> mutations) {
+        Cmp[] cmps = new Cmp[mutations.size()];
+        Op[] ops = new Op[mutations.size()];
+        Op[] gets = new Op[mutations.size()];
+        for (int i = 0; i < cmps.length; i++) {
+            Mutation mutation = mutations.get(i);
+            cmps[i] = mutation.cmp;
+            ops[i] = mutation.op;
+            gets[i] = Op.get(mutation.key, GetOption.DEFAULT);
+        }
+        kvClient.txn()
+            .If(cmps)
+            .Then(ops)
+            .Else(gets)
+            .commit()
+            .whenComplete((resp, cause) -> {
+                List<Mutation> retries = new ArrayList<>(0);
+                List<Runnable> completions = new ArrayList<>(mutations.size());
+                if (null != cause && retryAlone(mutations.size(), cause)) {
+                    log.warn("Transaction of {} mutations failed, retrying them one by one", mutations.size(), cause);
+                    mutations.forEach(m -> m.alone = true);
+                    retries.addAll(mutations);
+                } else if (null != cause) {
+                    mutations.forEach(m -> completions.add(() -> m.promise.completeExceptionally(cause)));
+                } else if (resp.isSucceeded()) {
+                    long revision = resp.getHeader().getRevision();
+                    mutations.forEach(m -> completions.add(() -> m.promise.complete(revision)));
+                } else {
+                    List<GetResponse> getResps = resp.getGetResponses();
+                    for (int i = 0; i < mutations.size(); i++) {
+                        Mutation mutation = mutations.get(i);
+                        GetResponse getResp = getResps.get(i);
+                        KeyValue current = getResp.getCount() > 0 ? getResp.getKvs().get(0) : null;
+                        if (mutation.condition.test(current)) {
+                            // failed because of another mutation of the batch
+                            retries.add(mutation);
+                        } else {
+                            completions.add(() -> mutation.promise.completeExceptionally(
+                                new ConditionFailedException(current)));
+                        }
+                    }
+                    if (log.isDebugEnabled()) {
+                        log.debug("Transaction of {} mutations failed, retrying {} of them",
+                            mutations.size(), retries.size());
+                    }
+                }
+                onTxnComplete(new ArrayList<>(0), retries);
+                completions.forEach(Runnable::run);
+            });
+    }
+
+    @Override
+    public void close() {
+        List<CompletableFuture<?>> toFail = new ArrayList<>();
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            pendingReads.forEach(r -> toFail.add(r.promise));
+            pendingMutations.forEach(m -> toFail.add(m.promise));
+            pendingReads.clear();
+            pendingMutations.clear();
+        }
+        toFail.forEach(f -> f.completeExceptionally(new ClosedClientException("Etcd txn batcher is closed")));
+    }
+}
@@ -0,0 +1,281 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.bookkeeper.metadata.etcd;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import io.etcd.jetcd.Client;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.bookkeeper.client.LedgerMetadataBuilder;
+import org.apache.bookkeeper.client.api.DigestType;
+import org.apache.bookkeeper.client.api.LedgerMetadata;
+import org.apache.bookkeeper.metadata.etcd.testing.FakeEtcdServer;
+import org.apache.bookkeeper.net.BookieId;
+import org.apache.bookkeeper.proto.BookkeeperInternalCallbacks.LedgerMetadataListener;
+import org.apache.bookkeeper.versioning.Versioned;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit tests of {@link EtcdLedgerManager} against a {@link FakeEtcdServer}.
+ */
+public class EtcdLedgerManagerTest {
+
+    private static final String SCOPE = "/ledger-manager-test";
+    private static final long TIMEOUT_MS = 10000;
+
+    private FakeEtcdServer server;
+    private Client client;
+    private EtcdLedgerManager lm;
+
+    @Before
+    public void setup() throws Exception {
+        server = new FakeEtcdServer();
+        server.start();
+        client = Client.builder().endpoints(server.getEndpoint()).build();
+        lm = new EtcdLedgerManager(client, SCOPE);
+    }
+
+    @After
+    public void teardown() throws Exception {
+        if (null != lm) {
+            lm.close();
+        }
+        if (null != client) {
+            client.close();
+        }
+        if (null != server) {
+            server.close();
+        }
+    }
+
+    private static LedgerMetadata metadata(long ledgerId, long lastEntryId) {
+        List<BookieId> ensemble = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            ensemble.add(BookieId.parse("bookie-" + i + ":3181"));
+        }
+        LedgerMetadataBuilder builder = LedgerMetadataBuilder.create()
+            .withId(ledgerId)
+            .withEnsembleSize(3)
+            .withWriteQuorumSize(3)
+            .withAckQuorumSize(2)
+            .withDigestType(DigestType.CRC32C)
+            .withPassword("password".getBytes(StandardCharsets.UTF_8))
+            .newEnsembleEntry(0L, ensemble);
+        if (lastEntryId >= 0) {
+            builder.withClosedState().withLastEntryId(lastEntryId).withLength(lastEntryId + 1);
+        }
+        return builder.build();
+    }
+
+    private Versioned<LedgerMetadata> create(long ledgerId) throws Exception {
+        return lm.createLedgerMetadata(ledgerId, metadata(ledgerId, -1L)).get(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+    }
+
+    private Versioned<LedgerMetadata> close(Versioned<LedgerMetadata> current, long lastEntryId)
+            throws Exception {
+        long ledgerId = current.getValue().getLedgerId();
+        return lm.writeLedgerMetadata(ledgerId, metadata(ledgerId, lastEntryId), current.getVersion())
+            .get(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+    }
+
+    private static LedgerMetadataListener collectTo(BlockingQueue<Versioned<LedgerMetadata>> queue) {
+        return (ledgerId, metadata) -> queue.add(metadata);
+    }
+
+    private static void awaitMetadata(BlockingQueue<Versioned<LedgerMetadata>> queue,
+                                      Versioned<LedgerMetadata> expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        Versioned<LedgerMetadata> last = null;
+        while (System.currentTimeMillis() < deadline) {
+            Versioned<LedgerMetadata> metadata = queue.poll(100, TimeUnit.MILLISECONDS);
+            if (null != metadata) {
+                last = metadata;
+                if (expected.getVersion().equals(metadata.getVersion())) {
+                    assertEquals(expected.getValue(), metadata.getValue());
+                    return;
+                }
+            }
+        }
+        assertEquals("Timed out waiting for the ledger metadata", expected.getVersion(),
+            null == last ? null : last.getVersion());
+    }
+
+    @Test
+    public void testListenersAreNotifiedOfTheirLedger() throws Exception {
+        Versioned<LedgerMetadata> ledger1 = create(1L);
+        Versioned<LedgerMetadata> ledger2 = create(2L);
+
+        BlockingQueue<Versioned<LedgerMetadata>> updates1 = new LinkedBlockingQueue<>();
+        BlockingQueue<Versioned<LedgerMetadata>> updates2 = new LinkedBlockingQueue<>();
+        lm.registerLedgerMetadataListener(1L, collectTo(updates1));
+        lm.registerLedgerMetadataListener(2L, collectTo(updates2));
+        // the initial read of each ledger
+        awaitMetadata(updates1, ledger1);
+        awaitMetadata(updates2, ledger2);
+
+        ledger1 = close(ledger1, 9L);
+        awaitMetadata(updates1, ledger1);
+        // ledger 3 has no listeners
+        create(3L);
+        ledger2 = close(ledger2, 19L);
+        awaitMetadata(updates2, ledger2);
+        assertNull(updates1.poll(100, TimeUnit.MILLISECONDS));
+        assertNull(updates2.poll(100, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testUnregisteredListenerIsNotNotified() throws Exception {
+        Versioned<LedgerMetadata> ledger = create(1L);
+
+        BlockingQueue<Versioned<LedgerMetadata>> updates = new LinkedBlockingQueue<>();
+        BlockingQueue<Versioned<LedgerMetadata>> otherUpdates = new LinkedBlockingQueue<>();
+        LedgerMetadataListener listener = collectTo(updates);
+        lm.registerLedgerMetadataListener(1L, listener);
+        lm.registerLedgerMetadataListener(1L, collectTo(otherUpdates));
+        awaitMetadata(updates, ledger);
+        awaitMetadata(otherUpdates, ledger);
+
+        lm.unregisterLedgerMetadataListener(1L, listener);
+        ledger = close(ledger, 9L);
+        awaitMetadata(otherUpdates, ledger);
+        assertNull(updates.poll(100, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testLedgerIsUnwatchedOnDeletion() throws Exception {
+        Versioned<LedgerMetadata> ledger = create(1L);
+
+        BlockingQueue<Versioned<LedgerMetadata>> updates = new LinkedBlockingQueue<>();
+        lm.registerLedgerMetadataListener(1L, collectTo(updates));
+        awaitMetadata(updates, ledger);
+
+        lm.removeLedgerMetadata(1L, ledger.getVersion()).get(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        // a ledger recreated with the same id isn't watched any more
+        create(1L);
+        assertNull(updates.poll(500, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testRewatchAfterTheWatchIsCanceled() throws Exception {
+        Versioned<LedgerMetadata> ledger = create(1L);
+
+        BlockingQueue<Versioned<LedgerMetadata>> updates = new LinkedBlockingQueue<>();
+        lm.registerLedgerMetadataListener(1L, collectTo(updates));
+        awaitMetadata(updates, ledger);
+
+        // the update right after the cancellation is caught up by reading the ledger again, or by the new watch
+        server.cancelWatches();
+        ledger = close(ledger, 9L);
+        awaitMetadata(updates, ledger);
+
+        // and the new watch delivers the later updates
+        Versioned<LedgerMetadata> ledger2 = create(2L);
+        BlockingQueue<Versioned<LedgerMetadata>> updates2 = new LinkedBlockingQueue<>();
+        lm.registerLedgerMetadataListener(2L, collectTo(updates2));
+        awaitMetadata(updates2, ledger2);
+        ledger2 = close(ledger2, 19L);
+        awaitMetadata(updates2, ledger2);
+        assertNull(updates.poll(100, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testProcessLedgers() throws Exception {
+        // a few batches of ledgers
+        int numLedgers = 3 * EtcdLedgerManager.PROCESS_LEDGERS_BATCH_SIZE + 7;
+        for (long ledgerId = 0; ledgerId < numLedgers; ledgerId++) {
+            lm.createLedgerMetadata(ledgerId, metadata(ledgerId, -1L));
+        }
+        create(numLedgers);
+
+        Set<Long> processed = ConcurrentHashMap.newKeySet();
+        AtomicInteger numFinalCalls = new AtomicInteger(0);
+        AtomicInteger finalRc = new AtomicInteger(Integer.MIN_VALUE);
+        CountDownLatch done = new CountDownLatch(1);
+        lm.asyncProcessLedgers(
+            (ledgerId, cb) -> {
+                assertTrue("Ledger " + ledgerId + " processed twice", processed.add(ledgerId));
+                cb.processResult(0, null, null);
+            },
+            (rc, path, ctx) -> {
+                numFinalCalls.incrementAndGet();
+                finalRc.set(rc);
+                done.countDown();
+            }, null, 0, -1);
+        assertTrue(done.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        assertEquals(0, finalRc.get());
+        assertEquals(numLedgers + 1, processed.size());
+        Thread.sleep(100);
+        assertEquals(1, numFinalCalls.get());
+    }
+
+    @Test
+    public void testProcessLedgersFailure() throws Exception {
+        int numLedgers = 2 * EtcdLedgerManager.PROCESS_LEDGERS_BATCH_SIZE;
+        for (long ledgerId = 0; ledgerId < numLedgers; ledgerId++) {
+            lm.createLedgerMetadata(ledgerId, metadata(ledgerId, -1L));
+        }
+        create(numLedgers);
+
+        Set<Long> processed = ConcurrentHashMap.newKeySet();
+        AtomicInteger numFinalCalls = new AtomicInteger(0);
+        AtomicInteger finalRc = new AtomicInteger(Integer.MIN_VALUE);
+        CountDownLatch done = new CountDownLatch(1);
+        lm.asyncProcessLedgers(
+            (ledgerId, cb) -> {
+                processed.add(ledgerId);
+                // every ledger of the first batch fails
+                cb.processResult(ledgerId < EtcdLedgerManager.PROCESS_LEDGERS_BATCH_SIZE ? -2 : 0, null, null);
+            },
+            (rc, path, ctx) -> {
+                numFinalCalls.incrementAndGet();
+                finalRc.set(rc);
+                done.countDown();
+            }, null, 0, -1);
+        assertTrue(done.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        assertEquals(-1, finalRc.get());
+        Thread.sleep(100);
+        // the final callback is called once, and the next batches aren't processed
+        assertEquals(1, numFinalCalls.get());
+        assertEquals(Collections.emptySet(), filterAtLeast(processed, EtcdLedgerManager.PROCESS_LEDGERS_BATCH_SIZE));
+    }
+
+    private static Set<Long> filterAtLeast(Set<Long> ledgerIds, long min) {
+        Set<Long> filtered = ConcurrentHashMap.newKeySet();
+        for (Long ledgerId : ledgerIds) {
+            if (ledgerId >= min) {
+                filtered.add(ledgerId);
+            }
+        }
+        return filtered;
+    }
+}
@@ -0,0 +1,268 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.bookkeeper.metadata.etcd;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.clearInvocations;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import io.etcd.jetcd.ByteSequence;
+import io.etcd.jetcd.Client;
+import io.etcd.jetcd.KV;
+import io.etcd.jetcd.KeyValue;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.apache.bookkeeper.metadata.etcd.testing.FakeEtcdServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.AdditionalAnswers;
+
+/**
+ * Unit tests of {@link EtcdTxnBatcher} against a {@link FakeEtcdServer}.
+ */
+public class EtcdTxnBatcherTest {
+
+    private static final int MAX_OPS_PER_TXN = 16;
+
+    private FakeEtcdServer server;
+    private Client client;
+    private KV kv;
+
+    @Before
+    public void setup() throws Exception {
+        // slow enough for the operations submitted meanwhile to queue up behind the transaction in flight
+        server = new FakeEtcdServer(TimeUnit.MILLISECONDS.toMicros(100));
+        server.start();
+        client = Client.builder().endpoints(server.getEndpoint()).build();
+        // counts the transactions sent
+        kv = mock(KV.class, AdditionalAnswers.delegatesTo(client.getKVClient()));
+    }
+
+    @After
+    public void teardown() throws Exception {
+        if (null != client) {
+            client.close();
+        }
+        if (null != server) {
+            server.close();
+        }
+    }
+
+    private static ByteSequence bs(String value) {
+        return ByteSequence.from(value, UTF_8);
+    }
+
+    private static ByteSequence value(int size) {
+        return ByteSequence.from(new byte[size]);
+    }
+
+    private static CompletableFuture<Long> create(EtcdTxnBatcher batcher, ByteSequence key, ByteSequence value) {
+        return batcher.put(key, value, EtcdTxnBatcher.keyMissing(key), current -> null == current);
+    }
+
+    private static void assertConditionFailed(CompletableFuture<?> future) throws Exception {
+        try {
+            future.get(10, TimeUnit.SECONDS);
+            fail("The condition should have failed");
+        } catch (ExecutionException ee) {
+            assertTrue(ee.getCause() instanceof EtcdTxnBatcher.ConditionFailedException);
+        }
+    }
+
+    @Test
+    public void testReadsAreBatched() throws Exception {
+        try (EtcdTxnBatcher batcher = new EtcdTxnBatcher(kv, MAX_OPS_PER_TXN, Integer.MAX_VALUE, 1)) {
+            create(batcher, bs("/test/key-1"), bs("value-1")).get(10, TimeUnit.SECONDS);
+            clearInvocations(kv);
+
+            // the first read takes the only slot, the others queue up behind it and are sent together
+            List<CompletableFuture<KeyValue>> reads = new ArrayList<>();
+            reads.add(batcher.get(bs("/test/key-1")));
+            reads.add(batcher.get(bs("/test/key-1")));
+            reads.add(batcher.get(bs("/test/key-2")));
+            for (int i = 0; i < MAX_OPS_PER_TXN; i++) {
+                reads.add(batcher.get(bs("/test/key-" + (i + 3))));
+            }
+            assertEquals("value-1", reads.get(0).get(10, TimeUnit.SECONDS).getValue().toString(UTF_8));
+            assertEquals("value-1", reads.get(1).get(10, TimeUnit.SECONDS).getValue().toString(UTF_8));
+            for (int i = 2; i < reads.size(); i++) {
+                assertNull(reads.get(i).get(10, TimeUnit.SECONDS));
+            }
+            // a single read, then 18 reads of at most 16 per transaction
+            verify(kv, times(1)).get(any(ByteSequence.class));
+            verify(kv, times(2)).txn();
+        }
+    }
+
+    @Test
+    public void testConflictOnlyFailsTheConflictingMutation() throws Exception {
+        try (EtcdTxnBatcher batcher = new EtcdTxnBatcher(kv, MAX_OPS_PER_TXN, Integer.MAX_VALUE, 1)) {
+            create(batcher, bs("/test/existing"), bs("old")).get(10, TimeUnit.SECONDS);
+
+            CompletableFuture<KeyValue> blocker = batcher.get(bs("/test/blocker"));
+            // batched in a single transaction, whose conjunction of conditions fails because of the first one
+            CompletableFuture<Long> conflicting = create(batcher, bs("/test/existing"), bs("new"));
+            List<CompletableFuture<Long>> others = new ArrayList<>();
+            for (int i = 0; i < 5; i++) {
+                others.add(create(batcher, bs("/test/key-" + i), bs("value-" + i)));
+            }
+            assertNull(blocker.get(10, TimeUnit.SECONDS));
+            assertConditionFailed(conflicting);
+            for (CompletableFuture<Long> other : others) {
+                assertTrue(other.get(10, TimeUnit.SECONDS) > 0);
+            }
+
+            assertEquals("old", batcher.get(bs("/test/existing")).get().getValue().toString(UTF_8));
+            for (int i = 0; i < 5; i++) {
+                assertEquals("value-" + i, batcher.get(bs("/test/key-" + i)).get().getValue().toString(UTF_8));
+            }
+        }
+    }
+
+    @Test
+    public void testConditionFailureReturnsTheCurrentValue() throws Exception {
+        try (EtcdTxnBatcher batcher = new EtcdTxnBatcher(kv, MAX_OPS_PER_TXN, Integer.MAX_VALUE, 1)) {
+            ByteSequence key = bs("/test/key");
+            long revision = create(batcher, key, bs("value")).get(10, TimeUnit.SECONDS);
+
+            try {
+                batcher.put(key, bs("other"), EtcdTxnBatcher.modRevisionEquals(key, revision - 1),
+                    current -> null != current && current.getModRevision() == revision - 1)
+                    .get(10, TimeUnit.SECONDS);
+                fail("The condition should have failed");
+            } catch (ExecutionException ee) {
+                KeyValue current = ((EtcdTxnBatcher.ConditionFailedException) ee.getCause()).getCurrent();
+                assertNotNull(current);
+                assertEquals(revision, current.getModRevision());
+            }
+
+            long deleted = batcher.delete(key, EtcdTxnBatcher.modRevisionEquals(key, revision),
+                current -> null != current && current.getModRevision() == revision).get(10, TimeUnit.SECONDS);
+            assertTrue(deleted > revision);
+            assertNull(batcher.get(key).get(10, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    public void testSameKeyIsNeverMutatedTwiceInATxn() throws Exception {
+        try (EtcdTxnBatcher batcher = new EtcdTxnBatcher(kv, MAX_OPS_PER_TXN, Integer.MAX_VALUE, 1)) {
+            ByteSequence key = bs("/test/key");
+            CompletableFuture<KeyValue> blocker = batcher.get(bs("/test/blocker"));
+            CompletableFuture<Long> created = create(batcher, key, bs("first"));
+            CompletableFuture<Long> updated = batcher.put(key, bs("second"), EtcdTxnBatcher.keyExists(key),
+                current -> null != current);
+            CompletableFuture<Long> other = create(batcher, bs("/test/other"), bs("other"));
+
+            assertNull(blocker.get(10, TimeUnit.SECONDS));
+            long createdRevision = created.get(10, TimeUnit.SECONDS);
+            // applied by a later transaction, after the key was created
+            assertTrue(updated.get(10, TimeUnit.SECONDS) > createdRevision);
+            assertTrue(other.get(10, TimeUnit.SECONDS) > 0);
+            assertEquals("second", batcher.get(key).get().getValue().toString(UTF_8));
+        }
+    }
+
+    @Test
+    public void testBatchesAreCappedBySize() throws Exception {
+        int valueSize = 100 * 1024;
+        try (EtcdTxnBatcher batcher = new EtcdTxnBatcher(kv, MAX_OPS_PER_TXN, 3 * valueSize, 1)) {
+            CompletableFuture<KeyValue> blocker = batcher.get(bs("/test/blocker"));
+            List<CompletableFuture<Long>> creates = new ArrayList<>();
+            for (int i = 0; i < 6; i++) {
+                creates.add(create(batcher, bs("/test/key-" + i), value(valueSize)));
+            }
+            assertNull(blocker.get(10, TimeUnit.SECONDS));
+            for (CompletableFuture<Long> create : creates) {
+                assertTrue(create.get(10, TimeUnit.SECONDS) > 0);
+            }
+            // 2 values of about 100KB per transaction
+            verify(kv, times(3)).txn();
+        }
+    }
+
+    @Test
+    public void testTooLargeBatchIsRetriedOneByOne() throws Exception {
+        // values of 600KB each, larger than the request size limit of etcd when sent together
+        int valueSize = 600 * 1024;
+        try (EtcdTxnBatcher batcher = new EtcdTxnBatcher(kv, MAX_OPS_PER_TXN, Integer.MAX_VALUE, 1)) {
+            CompletableFuture<KeyValue> blocker = batcher.get(bs("/test/blocker"));
+            List<CompletableFuture<Long>> creates = new ArrayList<>();
+            for (int i = 0; i < 3; i++) {
+                creates.add(create(batcher, bs("/test/key-" + i), value(valueSize)));
+            }
+            assertNull(blocker.get(10, TimeUnit.SECONDS));
+            for (CompletableFuture<Long> create : creates) {
+                assertTrue(create.get(10, TimeUnit.SECONDS) > 0);
+            }
+            for (int i = 0; i < 3; i++) {
+                assertArrayEquals(new byte[valueSize],
+                    batcher.get(bs("/test/key-" + i)).get(10, TimeUnit.SECONDS).getValue().getBytes());
+            }
+        }
+    }
+
+    @Test
+    public void testTooLargeMutationFailsAlone() throws Exception {
+        try (EtcdTxnBatcher batcher = new EtcdTxnBatcher(kv, MAX_OPS_PER_TXN, Integer.MAX_VALUE, 1)) {
+            CompletableFuture<KeyValue> blocker = batcher.get(bs("/test/blocker"));
+            CompletableFuture<Long> tooLarge = create(batcher, bs("/test/too-large"), value(2 * 1024 * 1024));
+            CompletableFuture<Long> small = create(batcher, bs("/test/small"), bs("small"));
+            assertNull(blocker.get(10, TimeUnit.SECONDS));
+            assertTrue(small.get(10, TimeUnit.SECONDS) > 0);
+            try {
+                tooLarge.get(10, TimeUnit.SECONDS);
+                fail("A mutation larger than the request size limit should fail");
+            } catch (ExecutionException ee) {
+                assertTrue(!(ee.getCause() instanceof EtcdTxnBatcher.ConditionFailedException));
+            }
+            assertNull(batcher.get(bs("/test/too-large")).get(10, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    public void testOperationsFailAfterClose() throws Exception {
+        EtcdTxnBatcher batcher = new EtcdTxnBatcher(kv, MAX_OPS_PER_TXN, Integer.MAX_VALUE, 1);
+        batcher.close();
+        try {
+            batcher.get(bs("/test/key")).get(10, TimeUnit.SECONDS);
+            fail("Should fail to read through a closed batcher");
+        } catch (ExecutionException ee) {
+            // expected
+        }
+        try {
+            create(batcher, bs("/test/key"), bs("value")).get(10, TimeUnit.SECONDS);
+            fail("Should fail to mutate through a closed batcher");
+        } catch (ExecutionException ee) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,241 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.bookkeeper.metadata.etcd.testing;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.etcd.jetcd.api.CompactionRequest;
+import io.etcd.jetcd.api.CompactionResponse;
+import io.etcd.jetcd.api.DeleteRangeRequest;
+import io.etcd.jetcd.api.DeleteRangeResponse;
+import io.etcd.jetcd.api.KVGrpc;
+import io.etcd.jetcd.api.PutRequest;
+import io.etcd.jetcd.api.PutResponse;
+import io.etcd.jetcd.api.RangeRequest;
+import io.etcd.jetcd.api.RangeResponse;
+import io.etcd.jetcd.api.ResponseHeader;
+import io.etcd.jetcd.api.TxnRequest;
+import io.etcd.jetcd.api.TxnResponse;
+import io.etcd.jetcd.api.WatchGrpc;
+import io.etcd.jetcd.api.WatchRequest;
+import io.etcd.jetcd.api.WatchResponse;
+import io.grpc.Server;
+import io.grpc.StatusRuntimeException;
+import io.grpc.netty.NettyServerBuilder;
+import io.grpc.stub.StreamObserver;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * An in-process etcd server, serving the KV and watch gRPC services from memory.
+ *
+ * <p>It allows to run and benchmark the etcd metadata driver without an etcd cluster. Leases, authentication
+ * and the cluster and maintenance services aren't supported. The KV responses can be delayed by a fixed amount
+ * of time, to emulate the latency of committing through raft.
+ *
+ * <pre>
+ * try (FakeEtcdServer server = new FakeEtcdServer(1000)) {
+ *     server.start();
+ *     Client client = Client.builder().endpoints(server.getEndpoint()).build();
+ *     ...
+ * }
+ * </pre>
+ */
+@Slf4j
+public class FakeEtcdServer implements AutoCloseable {
+
+    private final FakeEtcdStore store = new FakeEtcdStore();
+    private final long responseDelayMicros;
+    private final ScheduledExecutorService delayExecutor;
+    private Server server;
+
+    public FakeEtcdServer() {
+        this(0L);
+    }
+
+    /**
+     * @param responseDelayMicros delay of the responses of the KV service, in microseconds
+     */
+    public FakeEtcdServer(long responseDelayMicros) {
+        this.responseDelayMicros = responseDelayMicros;
+        this.delayExecutor = responseDelayMicros > 0
+            ? Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("fake-etcd-server-delay-%d")
+                .setDaemon(true)
+                .build())
+            : null;
+    }
+
+    public synchronized void start() throws IOException {
+        if (null != server) {
+            return;
+        }
+        server = NettyServerBuilder
+            .forAddress(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0))
+            .addService(new KVService())
+            .addService(new WatchService())
+            .build()
+            .start();
+        log.info("Fake etcd server listening on {}", getEndpoint());
+    }
+
+    /**
+     * Return the endpoint to connect the etcd clients to.
+     */
+    public synchronized String getEndpoint() {
+        if (null == server) {
+            throw new IllegalStateException("Fake etcd server isn't started");
+        }
+        return "http://" + InetAddress.getLoopbackAddress().getHostAddress() + ":" + server.getPort();
+    }
+
+    /**
+     * Return the current revision of the store.
+     */
+    public long getRevision() {
+        return store.getRevision();
+    }
+
+    /**
+     * Cancel all the watches from the server side, so that the clients have to watch again.
+     */
+    public void cancelWatches() {
+        store.cancelAllWatches("etcdserver: watch canceled by the fake server");
+    }
+
+    @Override
+    public void close() {
+        Server toClose;
+        synchronized (this) {
+            toClose = server;
+            server = null;
+        }
+        if (null != toClose) {
+            toClose.shutdownNow();
+            try {
+                toClose.awaitTermination(10, TimeUnit.SECONDS);
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (null != delayExecutor) {
+            delayExecutor.shutdownNow();
+        }
+    }
+
+    private <T> void respond(StreamObserver<T> observer, Supplier<T> operation) {
+        T response;
+        try {
+            response = operation.get();
+        } catch (StatusRuntimeException sre) {
+            observer.onError(sre);
+            return;
+        }
+        if (null == delayExecutor) {
+            observer.onNext(response);
+            observer.onCompleted();
+        } else {
+            delayExecutor.schedule(() -> {
+                observer.onNext(response);
+                observer.onCompleted();
+            }, responseDelayMicros, TimeUnit.MICROSECONDS);
+        }
+    }
+
+    private class KVService extends KVGrpc.KVImplBase {
+
+        @Override
+        public void range(RangeRequest request, StreamObserver<RangeResponse> observer) {
+            respond(observer, () -> store.range(request));
+        }
+
+        @Override
+        public void put(PutRequest request, StreamObserver<PutResponse> observer) {
+            respond(observer, () -> store.put(request));
+        }
+
+        @Override
+        public void deleteRange(DeleteRangeRequest request, StreamObserver<DeleteRangeResponse> observer) {
+            respond(observer, () -> store.deleteRange(request));
+        }
+
+        @Override
+        public void txn(TxnRequest request, StreamObserver<TxnResponse> observer) {
+            respond(observer, () -> store.txn(request));
+        }
+
+        @Override
+        public void compact(CompactionRequest request, StreamObserver<CompactionResponse> observer) {
+            respond(observer, () -> {
+                store.compact(request.getRevision());
+                return CompactionResponse.newBuilder()
+                    .setHeader(ResponseHeader.newBuilder().setRevision(store.getRevision()))
+                    .build();
+            });
+        }
+    }
+
+    private class WatchService extends WatchGrpc.WatchImplBase {
+
+        @Override
+        public StreamObserver<WatchRequest> watch(StreamObserver<WatchResponse> responseObserver) {
+            // responses of a stream are sent under the store lock, which serializes them
+            return new StreamObserver<WatchRequest>() {
+
+                private final Map<Long, FakeEtcdStore.Watch> watches = new HashMap<>();
+                private long nextWatchId = 0L;
+
+                @Override
+                public synchronized void onNext(WatchRequest request) {
+                    if (request.hasCreateRequest()) {
+                        FakeEtcdStore.Watch watch =
+                            new FakeEtcdStore.Watch(nextWatchId++, request.getCreateRequest(), responseObserver);
+                        watches.put(watch.watchId, watch);
+                        store.createWatch(watch, request.getCreateRequest().getStartRevision());
+                    } else if (request.hasCancelRequest()) {
+                        FakeEtcdStore.Watch watch = watches.remove(request.getCancelRequest().getWatchId());
+                        if (null != watch) {
+                            store.cancelWatch(watch);
+                        }
+                    }
+                }
+
+                @Override
+                public synchronized void onError(Throwable t) {
+                    store.removeWatches(watches.values());
+                    watches.clear();
+                }
+
+                @Override
+                public synchronized void onCompleted() {
+                    store.removeWatches(watches.values());
+                    watches.clear();
+                    responseObserver.onCompleted();
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,490 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.bookkeeper.metadata.etcd.testing;
+
+import com.google.protobuf.ByteString;
+import io.etcd.jetcd.api.Compare;
+import io.etcd.jetcd.api.DeleteRangeRequest;
+import io.etcd.jetcd.api.DeleteRangeResponse;
+import io.etcd.jetcd.api.Event;
+import io.etcd.jetcd.api.KeyValue;
+import io.etcd.jetcd.api.PutRequest;
+import io.etcd.jetcd.api.PutResponse;
+import io.etcd.jetcd.api.RangeRequest;
+import io.etcd.jetcd.api.RangeResponse;
+import io.etcd.jetcd.api.RequestOp;
+import io.etcd.jetcd.api.ResponseHeader;
+import io.etcd.jetcd.api.ResponseOp;
+import io.etcd.jetcd.api.TxnRequest;
+import io.etcd.jetcd.api.TxnResponse;
+import io.etcd.jetcd.api.WatchCreateRequest;
+import io.etcd.jetcd.api.WatchResponse;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import io.grpc.stub.StreamObserver;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * In-memory multi-version key/value store, with the semantics of the etcd KV and watch APIs.
+ *
+ * <p>Every write (put, delete or transaction with writes) creates a new revision, and is recorded as events
+ * replayed to the watches created on a past revision. All the operations are serialized.
+ */
+class FakeEtcdStore {
+
+    static final int MAX_TXN_OPS = 128;
+    // default of the --max-request-bytes option of etcd
+    static final int MAX_REQUEST_BYTES = 1536 * 1024;
+
+    private static final Comparator<ByteString> KEY_COMPARATOR = ByteString.unsignedLexicographicalComparator();
+    private static final ByteString NUL = ByteString.copyFrom(new byte[] { 0 });
+
+    /**
+     * A watch created on a watch stream.
+     */
+    static final class Watch {
+        final long watchId;
+        final ByteString key;
+        final ByteString rangeEnd;
+        final boolean noPut;
+        final boolean noDelete;
+        final boolean prevKv;
+        final StreamObserver<WatchResponse> observer;
+
+        Watch(long watchId, WatchCreateRequest request, StreamObserver<WatchResponse> observer) {
+            this.watchId = watchId;
+            this.key = request.getKey();
+            this.rangeEnd = request.getRangeEnd();
+            this.noPut = request.getFiltersList().contains(WatchCreateRequest.FilterType.NOPUT);
+            this.noDelete = request.getFiltersList().contains(WatchCreateRequest.FilterType.NODELETE);
+            this.prevKv = request.getPrevKv();
+            this.observer = observer;
+        }
+
+        boolean accepts(Event event) {
+            if ((event.getType() == Event.EventType.PUT && noPut)
+                || (event.getType() == Event.EventType.DELETE && noDelete)) {
+                return false;
+            }
+            return inRange(event.getKv().getKey(), key, rangeEnd);
+        }
+
+        Event filter(Event event) {
+            return prevKv ? event : event.toBuilder().clearPrevKv().build();
+        }
+    }
+
+    private final NavigableMap<ByteString, KeyValue> kvs = new TreeMap<>(KEY_COMPARATOR);
+    private final List<Event> history = new ArrayList<>();
+    private final Set<Watch> watches = new HashSet<>();
+    private long revision = 1L;
+    private long compactRevision = 0L;
+
+    // state of the write being applied
+    private long writeRevision;
+    private final List<Event> writeEvents = new ArrayList<>();
+
+    static boolean inRange(ByteString key, ByteString begin, ByteString end) {
+        if (end.isEmpty()) {
+            return key.equals(begin);
+        }
+        if (KEY_COMPARATOR.compare(key, begin) < 0) {
+            return false;
+        }
+        // a range end of "\0" means all the keys from the begin key
+        return end.equals(NUL) || KEY_COMPARATOR.compare(key, end) < 0;
+    }
+
+    private Collection<KeyValue> select(ByteString begin, ByteString end) {
+        if (end.isEmpty()) {
+            KeyValue kv = kvs.get(begin);
+            return null == kv ? Collections.emptyList() : Collections.singletonList(kv);
+        } else if (end.equals(NUL)) {
+            return kvs.tailMap(begin, true).values();
+        } else if (KEY_COMPARATOR.compare(begin, end) >= 0) {
+            return Collections.emptyList();
+        } else {
+            return kvs.subMap(begin, true, end, false).values();
+        }
+    }
+
+    private ResponseHeader header() {
+        return ResponseHeader.newBuilder()
+            .setClusterId(1L)
+            .setMemberId(1L)
+            .setRaftTerm(1L)
+            .setRevision(revision)
+            .build();
+    }
+
+    synchronized long getRevision() {
+        return revision;
+    }
+
+    synchronized RangeResponse range(RangeRequest request) {
+        return doRange(request).setHeader(header()).build();
+    }
+
+    synchronized PutResponse put(PutRequest request) {
+        checkRequestSize(request.getSerializedSize());
+        beginWrite();
+        PutResponse.Builder builder = doPut(request);
+        commitWrite();
+        return builder.setHeader(header()).build();
+    }
+
+    synchronized DeleteRangeResponse deleteRange(DeleteRangeRequest request) {
+        beginWrite();
+        DeleteRangeResponse.Builder builder = doDeleteRange(request);
+        commitWrite();
+        return builder.setHeader(header()).build();
+    }
+
+    synchronized TxnResponse txn(TxnRequest request) {
+        validateTxn(request);
+        beginWrite();
+        TxnResponse.Builder builder = doTxn(request);
+        commitWrite();
+        return builder.setHeader(header()).build();
+    }
+
+    synchronized void compact(long compactRevision) {
+        if (compactRevision <= this.compactRevision) {
+            throw Status.OUT_OF_RANGE
+                .withDescription("etcdserver: mvcc: required revision has been compacted")
+                .asRuntimeException();
+        }
+        if (compactRevision > revision) {
+            throw Status.OUT_OF_RANGE
+                .withDescription("etcdserver: mvcc: required revision is a future revision")
+                .asRuntimeException();
+        }
+        this.compactRevision = compactRevision;
+        history.removeIf(event -> event.getKv().getModRevision() < compactRevision);
+    }
+
+    private void beginWrite() {
+        writeRevision = revision + 1;
+        writeEvents.clear();
+    }
+
+    private void commitWrite() {
+        if (writeEvents.isEmpty()) {
+            return;
+        }
+        revision = writeRevision;
+        history.addAll(writeEvents);
+        for (Watch watch : watches) {
+            send(watch, writeEvents);
+        }
+        writeEvents.clear();
+    }
+
+    private RangeResponse.Builder doRange(RangeRequest request) {
+        List<KeyValue> selected = new ArrayList<>(select(request.getKey(), request.getRangeEnd()));
+        Comparator<KeyValue> comparator = null;
+        switch (request.getSortTarget()) {
+            case VERSION:
+                comparator = Comparator.comparingLong(KeyValue::getVersion);
+                break;
+            case CREATE:
+                comparator = Comparator.comparingLong(KeyValue::getCreateRevision);
+                break;
+            case MOD:
+                comparator = Comparator.comparingLong(KeyValue::getModRevision);
+                break;
+            case VALUE:
+                comparator = Comparator.comparing(KeyValue::getValue, KEY_COMPARATOR);
+                break;
+            default:
+                break;
+        }
+        if (null != comparator) {
+            selected.sort(comparator);
+        }
+        if (request.getSortOrder() == RangeRequest.SortOrder.DESCEND) {
+            Collections.reverse(selected);
+        }
+        RangeResponse.Builder builder = RangeResponse.newBuilder().setCount(selected.size());
+        if (request.getCountOnly()) {
+            return builder;
+        }
+        int limit = request.getLimit() > 0 ? (int) Math.min(request.getLimit(), selected.size()) : selected.size();
+        builder.setMore(limit < selected.size());
+        for (int i = 0; i < limit; i++) {
+            KeyValue kv = selected.get(i);
+            builder.addKvs(request.getKeysOnly() ? kv.toBuilder().clearValue().build() : kv);
+        }
+        return builder;
+    }
+
+    private PutResponse.Builder doPut(PutRequest request) {
+        KeyValue prev = kvs.get(request.getKey());
+        if (null == prev && (request.getIgnoreValue() || request.getIgnoreLease())) {
+            throw Status.INVALID_ARGUMENT.withDescription("etcdserver: key not found").asRuntimeException();
+        }
+        KeyValue kv = KeyValue.newBuilder()
+            .setKey(request.getKey())
+            .setValue(request.getIgnoreValue() ? prev.getValue() : request.getValue())
+            .setLease(request.getIgnoreLease() ? prev.getLease() : request.getLease())
+            .setCreateRevision(null == prev ? writeRevision : prev.getCreateRevision())
+            .setModRevision(writeRevision)
+            .setVersion(null == prev ? 1L : prev.getVersion() + 1)
+            .build();
+        kvs.put(kv.getKey(), kv);
+        Event.Builder event = Event.newBuilder().setType(Event.EventType.PUT).setKv(kv);
+        if (null != prev) {
+            event.setPrevKv(prev);
+        }
+        writeEvents.add(event.build());
+        PutResponse.Builder builder = PutResponse.newBuilder();
+        if (request.getPrevKv() && null != prev) {
+            builder.setPrevKv(prev);
+        }
+        return builder;
+    }
+
+    private DeleteRangeResponse.Builder doDeleteRange(DeleteRangeRequest request) {
+        List<KeyValue> deleted = new ArrayList<>(select(request.getKey(), request.getRangeEnd()));
+        DeleteRangeResponse.Builder builder = DeleteRangeResponse.newBuilder().setDeleted(deleted.size());
+        for (KeyValue prev : deleted) {
+            kvs.remove(prev.getKey());
+            writeEvents.add(Event.newBuilder()
+                .setType(Event.EventType.DELETE)
+                .setKv(KeyValue.newBuilder().setKey(prev.getKey()).setModRevision(writeRevision).build())
+                .setPrevKv(prev)
+                .build());
+            if (request.getPrevKv()) {
+                builder.addPrevKvs(prev);
+            }
+        }
+        return builder;
+    }
+
+    private TxnResponse.Builder doTxn(TxnRequest request) {
+        boolean succeeded = true;
+        for (Compare compare : request.getCompareList()) {
+            if (!evaluate(compare)) {
+                succeeded = false;
+                break;
+            }
+        }
+        TxnResponse.Builder builder = TxnResponse.newBuilder().setSucceeded(succeeded);
+        for (RequestOp op : succeeded ? request.getSuccessList() : request.getFailureList()) {
+            ResponseOp.Builder response = ResponseOp.newBuilder();
+            switch (op.getRequestCase()) {
+                case REQUEST_RANGE:
+                    response.setResponseRange(doRange(op.getRequestRange()).setHeader(header()));
+                    break;
+                case REQUEST_PUT:
+                    response.setResponsePut(doPut(op.getRequestPut()).setHeader(header()));
+                    break;
+                case REQUEST_DELETE_RANGE:
+                    response.setResponseDeleteRange(doDeleteRange(op.getRequestDeleteRange()).setHeader(header()));
+                    break;
+                case REQUEST_TXN:
+                    response.setResponseTxn(doTxn(op.getRequestTxn()).setHeader(header()));
+                    break;
+                default:
+                    break;
+            }
+            builder.addResponses(response);
+        }
+        return builder;
+    }
+
+    private boolean evaluate(Compare compare) {
+        Collection<KeyValue> selected = select(compare.getKey(), compare.getRangeEnd());
+        if (selected.isEmpty()) {
+            // a missing key compares as a key with zero versions, but has no value to compare
+            return compare.getTarget() != Compare.CompareTarget.VALUE
+                && evaluate(compare, KeyValue.getDefaultInstance());
+        }
+        for (KeyValue kv : selected) {
+            if (!evaluate(compare, kv)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean evaluate(Compare compare, KeyValue kv) {
+        int result;
+        switch (compare.getTarget()) {
+            case VERSION:
+                result = Long.compare(kv.getVersion(), compare.getVersion());
+                break;
+            case CREATE:
+                result = Long.compare(kv.getCreateRevision(), compare.getCreateRevision());
+                break;
+            case MOD:
+                result = Long.compare(kv.getModRevision(), compare.getModRevision());
+                break;
+            case VALUE:
+                result = KEY_COMPARATOR.compare(kv.getValue(), compare.getValue());
+                break;
+            default:
+                throw Status.INVALID_ARGUMENT.withDescription("etcdserver: unsupported compare target")
+                    .asRuntimeException();
+        }
+        switch (compare.getResult()) {
+            case EQUAL:
+                return result == 0;
+            case NOT_EQUAL:
+                return result != 0;
+            case GREATER:
+                return result > 0;
+            case LESS:
+                return result < 0;
+            default:
+                throw Status.INVALID_ARGUMENT.withDescription("etcdserver: unsupported compare result")
+                    .asRuntimeException();
+        }
+    }
+
+    private static void checkRequestSize(int requestSize) {
+        if (requestSize > MAX_REQUEST_BYTES) {
+            throw invalidArgument("etcdserver: request is too large");
+        }
+    }
+
+    private static void validateTxn(TxnRequest request) {
+        checkRequestSize(request.getSerializedSize());
+        if (request.getCompareCount() > MAX_TXN_OPS
+            || request.getSuccessCount() > MAX_TXN_OPS
+            || request.getFailureCount() > MAX_TXN_OPS) {
+            throw invalidArgument("etcdserver: too many operations in txn request");
+        }
+        checkDuplicateKeys(request.getSuccessList(), new HashSet<>());
+        checkDuplicateKeys(request.getFailureList(), new HashSet<>());
+    }
+
+    private static void checkDuplicateKeys(List<RequestOp> ops, Set<ByteString> putKeys) {
+        List<DeleteRangeRequest> deletes = new ArrayList<>();
+        for (RequestOp op : ops) {
+            if (op.hasRequestPut()) {
+                if (!putKeys.add(op.getRequestPut().getKey())) {
+                    throw invalidArgument("etcdserver: duplicate key given in txn request");
+                }
+            } else if (op.hasRequestDeleteRange()) {
+                deletes.add(op.getRequestDeleteRange());
+            } else if (op.hasRequestTxn()) {
+                checkDuplicateKeys(op.getRequestTxn().getSuccessList(), new HashSet<>(putKeys));
+                checkDuplicateKeys(op.getRequestTxn().getFailureList(), new HashSet<>(putKeys));
+            }
+        }
+        for (DeleteRangeRequest delete : deletes) {
+            for (ByteString key : putKeys) {
+                if (inRange(key, delete.getKey(), delete.getRangeEnd())) {
+                    throw invalidArgument("etcdserver: duplicate key given in txn request");
+                }
+            }
+        }
+    }
+
+    private static StatusRuntimeException invalidArgument(String description) {
+        return Status.INVALID_ARGUMENT.withDescription(description).asRuntimeException();
+    }
+
+    //
+    // Watches
+    //
+
+    synchronized void createWatch(Watch watch, long startRevision) {
+        watch.observer.onNext(WatchResponse.newBuilder()
+            .setHeader(header())
+            .setWatchId(watch.watchId)
+            .setCreated(true)
+            .build());
+        if (startRevision > 0 && startRevision <= compactRevision) {
+            watch.observer.onNext(WatchResponse.newBuilder()
+                .setHeader(header())
+                .setWatchId(watch.watchId)
+                .setCanceled(true)
+                .setCompactRevision(compactRevision)
+                .setCancelReason("etcdserver: mvcc: required revision has been compacted")
+                .build());
+            return;
+        }
+        if (startRevision > 0 && startRevision <= revision) {
+            List<Event> events = new ArrayList<>();
+            for (Event event : history) {
+                if (event.getKv().getModRevision() >= startRevision) {
+                    events.add(event);
+                }
+            }
+            send(watch, events);
+        }
+        watches.add(watch);
+    }
+
+    synchronized boolean cancelWatch(Watch watch) {
+        if (!watches.remove(watch)) {
+            return false;
+        }
+        watch.observer.onNext(WatchResponse.newBuilder()
+            .setHeader(header())
+            .setWatchId(watch.watchId)
+            .setCanceled(true)
+            .build());
+        return true;
+    }
+
+    /**
+     * Cancel all the watches, as etcd does when it can't serve them any more.
+     */
+    synchronized void cancelAllWatches(String reason) {
+        for (Watch watch : watches) {
+            watch.observer.onNext(WatchResponse.newBuilder()
+                .setHeader(header())
+                .setWatchId(watch.watchId)
+                .setCanceled(true)
+                .setCancelReason(reason)
+                .build());
+        }
+        watches.clear();
+    }
+
+    synchronized void removeWatches(Collection<Watch> toRemove) {
+        watches.removeAll(toRemove);
+    }
+
+    private void send(Watch watch, List<Event> events) {
+        WatchResponse.Builder builder = null;
+        for (Event event : events) {
+            if (watch.accepts(event)) {
+                if (null == builder) {
+                    builder = WatchResponse.newBuilder().setWatchId(watch.watchId);
+                }
+                builder.addEvents(watch.filter(event));
+            }
+        }
+        if (null != builder) {
+            watch.observer.onNext(builder.setHeader(header()).build());
+        }
+    }
+}
@@ -0,0 +1,253 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.bookkeeper.metadata.etcd;
+
+import io.etcd.jetcd.Client;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.LongFunction;
+import org.apache.bookkeeper.client.LedgerMetadataBuilder;
+import org.apache.bookkeeper.client.api.DigestType;
+import org.apache.bookkeeper.client.api.LedgerMetadata;
+import org.apache.bookkeeper.metadata.etcd.testing.FakeEtcdServer;
+import org.apache.bookkeeper.net.BookieId;
+import org.apache.bookkeeper.versioning.Versioned;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the throughput of the ledger metadata operations of {@link EtcdLedgerManager} against a
+ * {@link FakeEtcdServer} whose responses are delayed, to emulate the commit latency of an etcd cluster.
+ *
+ * <p>Every invocation creates, reads, updates or removes {@link #NUM_LEDGERS} ledgers, with up to
+ * <i>maxInFlight</i> outstanding operations. With 256 operations in flight and a delay of 1ms, batching the
+ * single ledger operations into transactions raised the throughput from 2.5k to 6.4k creates/s, from 3.4k to
+ * 11.4k reads/s, from 3.4k to 15.7k writes/s and from 4.6k to 19.6k removes/s.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 10)
+@Measurement(iterations = 3, time = 10)
+@Fork(1)
+public class EtcdLedgerManagerBenchmark {
+
+    static final int NUM_LEDGERS = 10000;
+
+    private static final String SCOPE = "/benchmark";
+
+    /**
+     * The ledger manager, connected to the fake etcd server.
+     */
+    @State(Scope.Benchmark)
+    public static class EtcdState {
+
+        @Param({"256"})
+        public int maxInFlight;
+
+        @Param({"1000"})
+        public long responseDelayMicros;
+
+        private FakeEtcdServer server;
+        private Client client;
+        private EtcdLedgerManager lm;
+        private long nextLedgerId = 0;
+
+        @Setup(Level.Trial)
+        public void setup() throws Exception {
+            server = new FakeEtcdServer(responseDelayMicros);
+            server.start();
+            client = Client.builder().endpoints(server.getEndpoint()).build();
+            lm = new EtcdLedgerManager(client, SCOPE);
+        }
+
+        @TearDown(Level.Trial)
+        public void teardown() throws Exception {
+            lm.close();
+            client.close();
+            server.close();
+        }
+
+        long nextLedgerIds() {
+            long firstLedgerId = nextLedgerId;
+            nextLedgerId += NUM_LEDGERS;
+            return firstLedgerId;
+        }
+
+        /**
+         * Run <i>op</i> on {@link #NUM_LEDGERS} ledgers from <i>firstLedgerId</i>, with up to
+         * <i>maxInFlight</i> outstanding operations.
+         */
+        void run(long firstLedgerId, LongFunction<CompletableFuture<?>> op) throws Exception {
+            Semaphore inFlight = new Semaphore(maxInFlight);
+            AtomicReference<Throwable> failure = new AtomicReference<>();
+            for (long ledgerId = firstLedgerId; ledgerId < firstLedgerId + NUM_LEDGERS && null == failure.get();
+                 ledgerId++) {
+                inFlight.acquire();
+                op.apply(ledgerId).whenComplete((ignored, cause) -> {
+                    if (null != cause) {
+                        failure.compareAndSet(null, cause);
+                    }
+                    inFlight.release();
+                });
+            }
+            inFlight.acquire(maxInFlight);
+            if (null != failure.get()) {
+                throw new Exception("Failed to process the ledgers metadata", failure.get());
+            }
+        }
+    }
+
+    /**
+     * {@link #NUM_LEDGERS} ledger ids, and the metadata of the ledgers that exist.
+     */
+    abstract static class LedgerIds {
+
+        long firstLedgerId;
+        private final List<Versioned<LedgerMetadata>> ledgers = new ArrayList<>(NUM_LEDGERS);
+
+        void reserve(EtcdState etcd) {
+            firstLedgerId = etcd.nextLedgerIds();
+            ledgers.clear();
+            for (int i = 0; i < NUM_LEDGERS; i++) {
+                ledgers.add(null);
+            }
+        }
+
+        void removeAll(EtcdState etcd) throws Exception {
+            etcd.run(firstLedgerId, ledgerId -> null == get(ledgerId)
+                    ? CompletableFuture.completedFuture(null)
+                    : etcd.lm.removeLedgerMetadata(ledgerId, get(ledgerId).getVersion()));
+        }
+
+        Versioned<LedgerMetadata> get(long ledgerId) {
+            synchronized (ledgers) {
+                return ledgers.get((int) (ledgerId - firstLedgerId));
+            }
+        }
+
+        void set(long ledgerId, Versioned<LedgerMetadata> metadata) {
+            synchronized (ledgers) {
+                ledgers.set((int) (ledgerId - firstLedgerId), metadata);
+            }
+        }
+
+        CompletableFuture<Void> create(EtcdState etcd, long ledgerId) {
+            return etcd.lm.createLedgerMetadata(ledgerId, metadata(ledgerId, -1L))
+                    .thenAccept(metadata -> set(ledgerId, metadata));
+        }
+    }
+
+    /**
+     * {@link #NUM_LEDGERS} new ledger ids for each invocation, whose ledgers are removed after it.
+     */
+    @State(Scope.Benchmark)
+    public static class NewLedgersState extends LedgerIds {
+
+        @Setup(Level.Invocation)
+        public void setup(EtcdState etcd) {
+            reserve(etcd);
+        }
+
+        @TearDown(Level.Invocation)
+        public void teardown(EtcdState etcd) throws Exception {
+            removeAll(etcd);
+        }
+    }
+
+    /**
+     * {@link #NUM_LEDGERS} ledgers created before each invocation, and removed after it unless the invocation
+     * removed them.
+     */
+    @State(Scope.Benchmark)
+    public static class LedgersState extends LedgerIds {
+
+        @Setup(Level.Invocation)
+        public void setup(EtcdState etcd) throws Exception {
+            reserve(etcd);
+            etcd.run(firstLedgerId, ledgerId -> create(etcd, ledgerId));
+        }
+
+        @TearDown(Level.Invocation)
+        public void teardown(EtcdState etcd) throws Exception {
+            removeAll(etcd);
+        }
+    }
+
+    private static LedgerMetadata metadata(long ledgerId, long lastEntryId) {
+        List<BookieId> ensemble = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            ensemble.add(BookieId.parse("bookie-" + i + ":3181"));
+        }
+        LedgerMetadataBuilder builder = LedgerMetadataBuilder.create()
+            .withId(ledgerId)
+            .withEnsembleSize(3)
+            .withWriteQuorumSize(3)
+            .withAckQuorumSize(2)
+            .withDigestType(DigestType.CRC32C)
+            .withPassword("password".getBytes(StandardCharsets.UTF_8))
+            .newEnsembleEntry(0L, ensemble);
+        if (lastEntryId >= 0) {
+            builder.withClosedState().withLastEntryId(lastEntryId).withLength(lastEntryId + 1);
+        }
+        return builder.build();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(NUM_LEDGERS)
+    public void create(EtcdState etcd, NewLedgersState ledgers) throws Exception {
+        etcd.run(ledgers.firstLedgerId, ledgerId -> ledgers.create(etcd, ledgerId));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(NUM_LEDGERS)
+    public void read(EtcdState etcd, LedgersState ledgers) throws Exception {
+        etcd.run(ledgers.firstLedgerId, ledgerId -> etcd.lm.readLedgerMetadata(ledgerId));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(NUM_LEDGERS)
+    public void write(EtcdState etcd, LedgersState ledgers) throws Exception {
+        etcd.run(ledgers.firstLedgerId, ledgerId -> etcd.lm.writeLedgerMetadata(ledgerId, metadata(ledgerId, 99L),
+                ledgers.get(ledgerId).getVersion()).thenAccept(metadata -> ledgers.set(ledgerId, metadata)));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(NUM_LEDGERS)
+    public void remove(EtcdState etcd, LedgersState ledgers) throws Exception {
+        etcd.run(ledgers.firstLedgerId, ledgerId -> etcd.lm.removeLedgerMetadata(ledgerId,
+                ledgers.get(ledgerId).getVersion()).thenAccept(ignored -> ledgers.set(ledgerId, null)));
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.bookkeeper.stats;
+
+import io.netty.util.concurrent.DefaultThreadFactory;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import org.apache.bookkeeper.stats.prometheus.HistogramOpStatsLogger;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Microbenchmarks for the latency recording of the Prometheus OpStatsLogger, with a concurrent rotation.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Threads(16)
+@Fork(1)
+@Warmup(iterations = 1, time = 10, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 3, time = 10, timeUnit = TimeUnit.SECONDS)
+public class OpStatsLoggerBenchmark {
+
+    /**
+     * State holder of the logger.
+     */
+    @State(Scope.Benchmark)
+    public static class LoggerState {
+        private HistogramOpStatsLogger opStats;
+        private Thread rotationThread;
+
+        @Setup(Level.Trial)
+        public void setup() {
+            opStats = new HistogramOpStatsLogger(Collections.emptyMap());
+            // rotate as often as the provider would with a 1s rollover period
+            rotationThread = new DefaultThreadFactory("rotation").newThread(() -> {
+                while (!Thread.currentThread().isInterrupted()) {
+                    opStats.rotateLatencyCollection();
+                    try {
+                        Thread.sleep(1000);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            });
+            rotationThread.start();
+        }
+
+        @TearDown(Level.Trial)
+        public void teardown() throws InterruptedException {
+            rotationThread.interrupt();
+            rotationThread.join();
+        }
+    }
+
+    /**
+     * Per thread source of latencies, so that the benchmark doesn't measure a shared random generator.
+     */
+    @State(Scope.Thread)
+    public static class LatencySource {
+        private long seed = System.nanoTime();
+
+        long next() {
+            seed = seed * 6364136223846793005L + 1442695040888963407L;
+            // up to ~65ms
+            return (seed >>> 40) & 0xFFFF;
+        }
+    }
+
+    @Benchmark
+    public void registerSuccessfulEvent(LoggerState s, LatencySource latency) {
+        s.opStats.registerSuccessfulEvent(latency.next(), TimeUnit.MICROSECONDS);
+    }
+
+    @Benchmark
+    public void registerSuccessfulValue(LoggerState s, LatencySource latency) {
+        s.opStats.registerSuccessfulValue(latency.next());
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.bookkeeper.util.collections;
+
+import io.netty.buffer.PooledByteBufAllocator;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Microbenchmarks comparing the on-heap and off-heap (long, long) -&gt; (long, long) maps under contention.
+ */
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Threads(8)
+@Fork(1)
+@Warmup(iterations = 1, time = 10, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 3, time = 10, timeUnit = TimeUnit.SECONDS)
+public class LongLongPairHashMapBenchmark {
+
+    /**
+     * State holder of the test.
+     */
+    @State(Scope.Benchmark)
+    public static class TestState {
+        @Param({"on-heap", "off-heap"})
+        private String mapType;
+
+        @Param({"1000000"})
+        private int numKeys;
+
+        @Param({"16"})
+        private int concurrencyLevel;
+
+        private ConcurrentLongLongPairMap map;
+
+        @Setup(Level.Trial)
+        public void setup() {
+            if ("off-heap".equals(mapType)) {
+                map = OffHeapConcurrentLongLongPairHashMap.newBuilder()
+                        .expectedItems(numKeys)
+                        .concurrencyLevel(concurrencyLevel)
+                        .allocator(PooledByteBufAllocator.DEFAULT)
+                        .build();
+            } else {
+                map = ConcurrentLongLongPairHashMap.newBuilder()
+                        .expectedItems(numKeys)
+                        .concurrencyLevel(concurrencyLevel)
+                        .build();
+            }
+            for (int i = 0; i < numKeys; i++) {
+                map.put(i / 1000, i, i, i);
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void teardown() {
+            map.close();
+        }
+    }
+
+    private static int randomKey(TestState s) {
+        return ThreadLocalRandom.current().nextInt(s.numKeys);
+    }
+
+    @Benchmark
+    public Object get(TestState s) {
+        int key = randomKey(s);
+        return s.map.get(key / 1000, key);
+    }
+
+    @Benchmark
+    public boolean put(TestState s) {
+        int key = randomKey(s);
+        return s.map.put(key / 1000, key, key, key);
+    }
+
+    @Benchmark
+    public boolean removeAndPut(TestState s) {
+        // put the key back so that the map size stays stable across iterations
+        int key = randomKey(s);
+        s.map.remove(key / 1000, key);
+        return s.map.put(key / 1000, key, key, key);
+    }
+}
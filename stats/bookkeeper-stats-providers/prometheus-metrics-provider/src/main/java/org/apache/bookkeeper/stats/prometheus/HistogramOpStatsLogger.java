@@ -0,0 +1,494 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with this
+ * work for additional information regarding copyright ownership. The ASF
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.apache.bookkeeper.stats.prometheus;
+
+import io.netty.util.concurrent.FastThreadLocal;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import org.apache.bookkeeper.stats.OpStatsData;
+import org.apache.bookkeeper.stats.OpStatsLogger;
+
+/**
+ * OpStatsLogger implementation that calculates approximated quantiles over the rotation interval.
+ *
+ * <p>Every thread records into its own log-linear histograms, which only that thread writes, so that recording
+ * is a handful of ordered stores without locks, CAS or allocation. The histograms are cumulative:
+ * {@link #rotateLatencyCollection()} sums them and subtracts the previous sum to get the distribution of the
+ * last interval, from which the quantiles are computed.
+ *
+ * <p>Values below {@code 2^SUB_BUCKET_BITS} are counted exactly; above that, every power of two is split into
+ * {@code 2^SUB_BUCKET_BITS} buckets and the quantiles report the middle of the bucket, which bounds the relative
+ * error to ~3%. The maximum of the interval is tracked too. Negative values are recorded as 0.
+ *
+ * <p>Latencies and values (e.g. sizes or counts) are recorded into separate histograms: latencies in micros,
+ * reported in millis, and values as they are. A logger recording both reports the two distributions merged.
+ *
+ * <p>A histogram only allocates its buckets up to the highest value it recorded, e.g. 256 buckets (2KB) for
+ * latencies below ~0.5s, rather than the {@value #NUM_BUCKETS} buckets of the whole range. The histograms of the
+ * failures, and of the kind of events a logger never records, are not allocated at all.
+ */
+public class HistogramOpStatsLogger implements OpStatsLogger {
+
+    /*
+     * Quantiles exported by the Prometheus text format. The results only change on rotation, so they are
+     * computed there once rather than on every scrape.
+     */
+    static final double[] EXPORTED_QUANTILES = { 0.5, 0.75, 0.95, 0.99, 0.999, 0.9999, 1.0 };
+
+    // latencies are recorded in micros and reported divided by the scale, i.e. in millis
+    static final int LATENCY_SCALE = 1000;
+
+    static final int SUB_BUCKET_BITS = 4;
+    static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    static final int MAX_EXPONENT = 50;
+    // recorded values are capped to 2^50 - 1, i.e. ~35 years in micros or ~10^15 for values
+    static final long MAX_VALUE = (1L << MAX_EXPONENT) - 1;
+    static final int NUM_BUCKETS = (MAX_EXPONENT - SUB_BUCKET_BITS + 1) * SUB_BUCKET_COUNT;
+    // buckets first allocated by a histogram, for values below 2^11, i.e. ~2ms in micros
+    static final int INITIAL_BUCKETS = 8 * SUB_BUCKET_COUNT;
+
+    // kinds of histograms
+    private static final int SUCCESS_LATENCIES = 0;
+    private static final int SUCCESS_VALUES = 1;
+    private static final int FAIL_LATENCIES = 2;
+    private static final int FAIL_VALUES = 3;
+    private static final int NUM_KINDS = 4;
+
+    private final FastThreadLocal<LocalData> localData = new FastThreadLocal<LocalData>() {
+
+        @Override
+        protected LocalData initialValue() throws Exception {
+            LocalData data = new LocalData();
+            register(data);
+            return data;
+        }
+
+        @Override
+        protected void onRemoval(LocalData value) throws Exception {
+            unregister(value);
+        }
+    };
+
+    /*
+     * Histograms of all the threads, copied on write since threads rarely come and go. Counts of the threads
+     * that went away are kept in the retired histograms. Both are guarded by this.
+     */
+    private volatile LocalData[] threads = new LocalData[0];
+    private final Histogram[] retired = new Histogram[NUM_KINDS];
+
+    /*
+     * Cumulative bucket counts of every kind of histogram as of the last rotation, and the resulting
+     * distributions of the last interval.
+     */
+    private final long[][] previous = new long[NUM_KINDS][];
+    private volatile Interval successResult;
+    private volatile Interval failResult;
+
+    private Map<String, String> labels;
+
+    // used for lazy registration for thread scoped metrics
+    private boolean threadInitialized;
+
+    public HistogramOpStatsLogger(Map<String, String> labels) {
+        this.labels = labels;
+        for (int i = 0; i < NUM_KINDS; i++) {
+            retired[i] = new Histogram();
+        }
+    }
+
+    @Override
+    public void registerFailedEvent(long eventLatency, TimeUnit unit) {
+        localData.get().get(FAIL_LATENCIES).record(unit.toMicros(eventLatency));
+    }
+
+    @Override
+    public void registerSuccessfulEvent(long eventLatency, TimeUnit unit) {
+        localData.get().get(SUCCESS_LATENCIES).record(unit.toMicros(eventLatency));
+    }
+
+    @Override
+    public void registerSuccessfulValue(long value) {
+        localData.get().get(SUCCESS_VALUES).record(value);
+    }
+
+    @Override
+    public void registerFailedValue(long value) {
+        localData.get().get(FAIL_VALUES).record(value);
+    }
+
+    @Override
+    public OpStatsData toOpStatsData() {
+        // Not relevant as we don't use JMX here
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void clear() {
+        // Not relevant as we don't use JMX here
+        throw new UnsupportedOperationException();
+    }
+
+    public synchronized void rotateLatencyCollection() {
+        successResult = new Interval(rotate(SUCCESS_LATENCIES), rotate(SUCCESS_VALUES));
+        failResult = new Interval(rotate(FAIL_LATENCIES), rotate(FAIL_VALUES));
+    }
+
+    /**
+     * Return the distribution of the values recorded by the histograms of <i>kind</i> since the last rotation,
+     * or null if none was recorded.
+     */
+    private Distribution rotate(int kind) {
+        long[] counts = null;
+        long max = 0;
+        Histogram r = retired[kind];
+        if (r.count.get() > 0) {
+            counts = new long[NUM_BUCKETS];
+            r.addTo(counts);
+            max = r.max.getAndSet(0);
+        }
+        for (LocalData data : threads) {
+            Histogram h = data.histograms.get(kind);
+            if (h != null) {
+                if (counts == null) {
+                    counts = new long[NUM_BUCKETS];
+                }
+                h.addTo(counts);
+                max = Math.max(max, h.max.getAndSet(0));
+            }
+        }
+        if (counts == null) {
+            return null;
+        }
+
+        // turn the cumulative counts into the counts of the interval, and remember them for the next rotation
+        long[] prev = previous[kind];
+        if (prev == null) {
+            prev = new long[NUM_BUCKETS];
+            previous[kind] = prev;
+        }
+        long total = 0;
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            long cumulative = counts[i];
+            counts[i] = cumulative - prev[i];
+            prev[i] = cumulative;
+            total += counts[i];
+        }
+        return total > 0 ? new Distribution(counts, max) : null;
+    }
+
+    public synchronized long getCount(boolean success) {
+        return sum(success ? SUCCESS_LATENCIES : FAIL_LATENCIES, false)
+                + sum(success ? SUCCESS_VALUES : FAIL_VALUES, false);
+    }
+
+    /**
+     * Return the sum of the latencies recorded, in millis, plus the sum of the values recorded.
+     */
+    public synchronized double getSum(boolean success) {
+        return (double) sum(success ? SUCCESS_LATENCIES : FAIL_LATENCIES, true) / LATENCY_SCALE
+                + sum(success ? SUCCESS_VALUES : FAIL_VALUES, true);
+    }
+
+    private long sum(int kind, boolean values) {
+        Histogram r = retired[kind];
+        long sum = values ? r.sum.get() : r.count.get();
+        for (LocalData data : threads) {
+            Histogram h = data.histograms.get(kind);
+            if (h != null) {
+                sum += values ? h.sum.get() : h.count.get();
+            }
+        }
+        return sum;
+    }
+
+    public double getQuantileValue(boolean success, double quantile) {
+        Interval interval = success ? successResult : failResult;
+        return interval != null ? interval.getQuantile(quantile) : Double.NaN;
+    }
+
+    /**
+     * Return the value of the quantile {@code EXPORTED_QUANTILES[index]} as of the last rotation.
+     */
+    double getExportedQuantileValue(boolean success, int index) {
+        Interval interval = success ? successResult : failResult;
+        return interval != null ? interval.exportedQuantiles[index] : Double.NaN;
+    }
+
+    public Map<String, String> getLabels() {
+        return labels;
+    }
+
+    public boolean isThreadInitialized() {
+        return threadInitialized;
+    }
+
+    public void initializeThread(Map<String, String> labels) {
+        this.labels = labels;
+        this.threadInitialized = true;
+    }
+
+    private synchronized void register(LocalData data) {
+        LocalData[] newThreads = Arrays.copyOf(threads, threads.length + 1);
+        newThreads[threads.length] = data;
+        threads = newThreads;
+    }
+
+    private synchronized void unregister(LocalData data) {
+        // the thread doesn't record anymore, so its counts can be moved safely
+        for (int i = 0; i < NUM_KINDS; i++) {
+            Histogram h = data.histograms.get(i);
+            if (h != null) {
+                retired[i].retire(h);
+            }
+        }
+
+        LocalData[] newThreads = new LocalData[threads.length - 1];
+        int j = 0;
+        for (LocalData d : threads) {
+            if (d != data) {
+                newThreads[j++] = d;
+            }
+        }
+        threads = newThreads;
+    }
+
+    static int bucketIndex(long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        int mantissa = (int) ((value >>> shift) & (SUB_BUCKET_COUNT - 1));
+        return (shift + 1) * SUB_BUCKET_COUNT + mantissa;
+    }
+
+    static long bucketLowerBound(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        int shift = index / SUB_BUCKET_COUNT - 1;
+        return (SUB_BUCKET_COUNT + (long) (index % SUB_BUCKET_COUNT)) << shift;
+    }
+
+    static long bucketMidpoint(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        int shift = index / SUB_BUCKET_COUNT - 1;
+        long lower = (SUB_BUCKET_COUNT + (long) (index % SUB_BUCKET_COUNT)) << shift;
+        return lower + ((1L << shift) - 1) / 2;
+    }
+
+    /**
+     * Cumulative histogram written by a single thread.
+     */
+    static final class Histogram {
+        // buckets up to the highest one recorded, replaced by a larger copy when a higher value is recorded
+        private volatile AtomicLongArray buckets = new AtomicLongArray(INITIAL_BUCKETS);
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong sum = new AtomicLong();
+        // max value since the last rotation
+        private final AtomicLong max = new AtomicLong();
+
+        void record(long value) {
+            value = Math.min(Math.max(0L, value), MAX_VALUE);
+            int idx = bucketIndex(value);
+            AtomicLongArray b = buckets;
+            if (idx >= b.length()) {
+                b = grow(idx);
+            }
+            // single writer: ordered stores are enough to publish the increments to the rotation
+            b.lazySet(idx, b.get(idx) + 1);
+            count.lazySet(count.get() + 1);
+            sum.lazySet(sum.get() + value);
+            if (value > max.get()) {
+                max.lazySet(value);
+            }
+        }
+
+        /**
+         * Replace the buckets by a copy large enough for the bucket <i>idx</i>. Only the writer changes the
+         * buckets, so no increment is lost, and a rotation still reading the previous buckets sees older
+         * cumulative counts.
+         */
+        private AtomicLongArray grow(int idx) {
+            AtomicLongArray b = buckets;
+            int length = Math.max(2 * b.length(), (idx / SUB_BUCKET_COUNT + 1) * SUB_BUCKET_COUNT);
+            AtomicLongArray grown = new AtomicLongArray(Math.min(length, NUM_BUCKETS));
+            for (int i = 0; i < b.length(); i++) {
+                grown.lazySet(i, b.get(i));
+            }
+            buckets = grown;
+            return grown;
+        }
+
+        int numBuckets() {
+            return buckets.length();
+        }
+
+        void addTo(long[] counts) {
+            AtomicLongArray b = buckets;
+            for (int i = 0; i < b.length(); i++) {
+                counts[i] += b.get(i);
+            }
+        }
+
+        /**
+         * Add the counts of the histogram of a thread that went away. Retired histograms are only written
+         * under the lock of the logger.
+         */
+        void retire(Histogram h) {
+            AtomicLongArray from = h.buckets;
+            AtomicLongArray b = from.length() > buckets.length() ? grow(from.length() - 1) : buckets;
+            for (int i = 0; i < from.length(); i++) {
+                b.lazySet(i, b.get(i) + from.get(i));
+            }
+            count.lazySet(count.get() + h.count.get());
+            sum.lazySet(sum.get() + h.sum.get());
+            max.accumulateAndGet(h.max.get(), Math::max);
+        }
+    }
+
+    private static final class LocalData {
+        // most stats record either latencies or values, and never fail, so only allocate the histograms used
+        private final AtomicReferenceArray<Histogram> histograms = new AtomicReferenceArray<>(NUM_KINDS);
+
+        Histogram get(int kind) {
+            Histogram h = histograms.get(kind);
+            if (h == null) {
+                h = new Histogram();
+                histograms.set(kind, h);
+            }
+            return h;
+        }
+    }
+
+    /**
+     * Counts of the buckets of a kind of histogram during a rotation interval, and their max.
+     */
+    private static final class Distribution {
+        private final long[] counts;
+        private final long max;
+
+        Distribution(long[] counts, long max) {
+            this.counts = counts;
+            // the max isn't updated atomically with the buckets, so a value recorded during the rotation can
+            // be counted in an interval whose max missed it: never report less than the highest bucket
+            long highestRecorded = 0;
+            for (int i = NUM_BUCKETS - 1; i >= 0; i--) {
+                if (counts[i] > 0) {
+                    highestRecorded = bucketLowerBound(i);
+                    break;
+                }
+            }
+            this.max = Math.max(max, highestRecorded);
+        }
+    }
+
+    /**
+     * Distribution of the latencies and values recorded during a rotation interval.
+     */
+    private static final class Interval {
+        // the reported value of every non-empty bucket, in ascending order, and its count
+        private final double[] values;
+        private final long[] counts;
+        private final long total;
+        private final double max;
+        private final double[] exportedQuantiles;
+
+        Interval(Distribution latencies, Distribution values) {
+            int numLatencies = numNonEmpty(latencies);
+            int numValues = numNonEmpty(values);
+            this.values = new double[numLatencies + numValues];
+            this.counts = new long[numLatencies + numValues];
+            double[] latencyValues = new double[numLatencies];
+            long[] latencyCounts = new long[numLatencies];
+            collect(latencies, LATENCY_SCALE, latencyValues, latencyCounts);
+            double[] valueValues = new double[numValues];
+            long[] valueCounts = new long[numValues];
+            collect(values, 1, valueValues, valueCounts);
+
+            // both are sorted, merge them
+            long total = 0;
+            int i = 0;
+            int j = 0;
+            for (int k = 0; k < this.values.length; k++) {
+                if (j >= numValues || (i < numLatencies && latencyValues[i] <= valueValues[j])) {
+                    this.values[k] = latencyValues[i];
+                    this.counts[k] = latencyCounts[i++];
+                } else {
+                    this.values[k] = valueValues[j];
+                    this.counts[k] = valueCounts[j++];
+                }
+                total += this.counts[k];
+            }
+            this.total = total;
+            this.max = Math.max(latencies != null ? (double) latencies.max / LATENCY_SCALE : 0.0,
+                    values != null ? (double) values.max : 0.0);
+            this.exportedQuantiles = new double[EXPORTED_QUANTILES.length];
+            for (int q = 0; q < EXPORTED_QUANTILES.length; q++) {
+                exportedQuantiles[q] = getQuantile(EXPORTED_QUANTILES[q]);
+            }
+        }
+
+        private static int numNonEmpty(Distribution distribution) {
+            int num = 0;
+            if (distribution != null) {
+                for (long count : distribution.counts) {
+                    if (count > 0) {
+                        num++;
+                    }
+                }
+            }
+            return num;
+        }
+
+        private static void collect(Distribution distribution, int scale, double[] values, long[] counts) {
+            if (distribution == null) {
+                return;
+            }
+            int k = 0;
+            for (int i = 0; i < NUM_BUCKETS; i++) {
+                if (distribution.counts[i] > 0) {
+                    values[k] = (double) Math.min(bucketMidpoint(i), distribution.max) / scale;
+                    counts[k++] = distribution.counts[i];
+                }
+            }
+        }
+
+        double getQuantile(double quantile) {
+            if (total == 0) {
+                return Double.NaN;
+            }
+            if (quantile >= 1.0) {
+                return max;
+            }
+            long rank = Math.max(1L, (long) Math.ceil(total * Math.max(0.0, quantile)));
+            long seen = 0;
+            for (int i = 0; i < values.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return values[i];
+                }
+            }
+            return max;
+        }
+    }
+}
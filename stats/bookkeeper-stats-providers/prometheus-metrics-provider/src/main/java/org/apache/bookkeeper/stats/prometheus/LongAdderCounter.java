@@ -61,7 +61,7 @@ public class LongAdderCounter implements Counter {
 
     /**
      * When counter is used to count time.
-     * consistent with the {@link DataSketchesOpStatsLogger#registerSuccessfulEvent(long, TimeUnit)} 's logic
+     * consistent with the {@link HistogramOpStatsLogger#registerSuccessfulEvent(long, TimeUnit)} 's logic
      * */
     @Override
     public void addLatency(long eventLatency, TimeUnit unit) {
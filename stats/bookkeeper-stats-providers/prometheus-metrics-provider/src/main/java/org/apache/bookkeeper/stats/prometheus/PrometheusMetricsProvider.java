@@ -18,6 +18,8 @@ package org.apache.bookkeeper.stats.prometheus;
 
 // CHECKSTYLE.OFF: IllegalImport
 import com.google.common.annotations.VisibleForTesting;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
 import io.netty.util.concurrent.DefaultThreadFactory;
 import io.netty.util.internal.PlatformDependent;
 import io.prometheus.client.Collector;
@@ -29,11 +31,13 @@ import io.prometheus.client.hotspot.MemoryPoolsExports;
 import io.prometheus.client.hotspot.StandardExports;
 import io.prometheus.client.hotspot.ThreadExports;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.Writer;
 import java.lang.management.BufferPoolMXBean;
 import java.lang.management.ManagementFactory;
 import java.lang.reflect.Field;
 import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
 import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
@@ -75,6 +79,9 @@ public class PrometheusMetricsProvider implements StatsProvider {
     public static final String PROMETHEUS_STATS_LATENCY_ROLLOVER_SECONDS = "prometheusStatsLatencyRolloverSeconds";
     public static final int DEFAULT_PROMETHEUS_STATS_LATENCY_ROLLOVER_SECONDS = 60;
 
+    public static final String PROMETHEUS_STATS_CACHE_TIME_MS = "prometheusStatsCacheTimeMs";
+    public static final long DEFAULT_PROMETHEUS_STATS_CACHE_TIME_MS = 0;
+
     final CollectorRegistry registry;
 
     Server server;
@@ -84,12 +91,21 @@ public class PrometheusMetricsProvider implements StatsProvider {
      */
     final ConcurrentMap<ScopeContext, LongAdderCounter> counters = new ConcurrentHashMap<>();
     final ConcurrentMap<ScopeContext, SimpleGauge<? extends Number>> gauges = new ConcurrentHashMap<>();
-    final ConcurrentMap<ScopeContext, DataSketchesOpStatsLogger> opStats = new ConcurrentHashMap<>();
-    final ConcurrentMap<ScopeContext, ThreadScopedDataSketchesStatsLogger> threadScopedOpStats =
+    final ConcurrentMap<ScopeContext, HistogramOpStatsLogger> opStats = new ConcurrentHashMap<>();
+    final ConcurrentMap<ScopeContext, ThreadScopedHistogramOpStatsLogger> threadScopedOpStats =
             new ConcurrentHashMap<>();
     final ConcurrentMap<ScopeContext, ThreadScopedLongAdderCounter> threadScopedCounters =
             new ConcurrentHashMap<>();
 
+    /*
+     * Scrape state, guarded by the provider monitor
+     */
+    private final PrometheusTextFormat prometheusTextFormat = new PrometheusTextFormat();
+    private ByteBuf cachedMetrics;
+    private long cachedMetricsTimestampNanos;
+    private int lastMetricsSize = 16 * 1024;
+    private long cacheTimeNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_PROMETHEUS_STATS_CACHE_TIME_MS);
+
     public PrometheusMetricsProvider() {
         this(CollectorRegistry.defaultRegistry);
     }
@@ -103,6 +119,10 @@ public class PrometheusMetricsProvider implements StatsProvider {
         boolean httpEnabled = conf.getBoolean(PROMETHEUS_STATS_HTTP_ENABLE, DEFAULT_PROMETHEUS_STATS_HTTP_ENABLE);
         boolean bkHttpServerEnabled = conf.getBoolean("httpServerEnabled", false);
         boolean exposeDefaultJVMMetrics = conf.getBoolean("exposeDefaultJVMMetrics", true);
+        synchronized (this) {
+            cacheTimeNanos = TimeUnit.MILLISECONDS.toNanos(
+                    conf.getLong(PROMETHEUS_STATS_CACHE_TIME_MS, DEFAULT_PROMETHEUS_STATS_CACHE_TIME_MS));
+        }
         // only start its own http server when prometheus http is enabled and bk http server is not enabled.
         if (httpEnabled && !bkHttpServerEnabled) {
             String httpAddr = conf.getString(PROMETHEUS_STATS_HTTP_ADDRESS, DEFAULT_PROMETHEUS_STATS_HTTP_ADDR);
@@ -168,6 +188,12 @@ public class PrometheusMetricsProvider implements StatsProvider {
                 ThreadRegistry.clear();
             }
         }
+        synchronized (this) {
+            if (cachedMetrics != null) {
+                cachedMetrics.release();
+                cachedMetrics = null;
+            }
+        }
     }
 
     @Override
@@ -177,13 +203,66 @@ public class PrometheusMetricsProvider implements StatsProvider {
 
     @Override
     public void writeAllMetrics(Writer writer) throws IOException {
-        PrometheusTextFormat prometheusTextFormat = new PrometheusTextFormat();
-        PrometheusTextFormat.writeMetricsCollectedByPrometheusClient(writer, registry);
+        ByteBuf metrics = getMetrics();
+        try {
+            writer.write(metrics.toString(StandardCharsets.UTF_8));
+        } finally {
+            metrics.release();
+        }
+    }
+
+    /**
+     * Write all the metrics in Prometheus text format, encoded in UTF-8, to <i>out</i>.
+     *
+     * <p>Unlike {@link #writeAllMetrics(Writer)}, the rendered metrics are copied to the stream without
+     * being decoded into a String first.
+     */
+    public void writeAllMetrics(OutputStream out) throws IOException {
+        ByteBuf metrics = getMetrics();
+        try {
+            metrics.getBytes(metrics.readerIndex(), out, metrics.readableBytes());
+        } finally {
+            metrics.release();
+        }
+    }
+
+    /**
+     * Render all the metrics into a pooled direct buffer, or return the last rendering if it's younger than
+     * {@value #PROMETHEUS_STATS_CACHE_TIME_MS}. The caller owns a reference to the returned buffer and must
+     * release it, without modifying its indexes since it may be shared with concurrent scrapes.
+     */
+    @VisibleForTesting
+    synchronized ByteBuf getMetrics() {
+        long now = System.nanoTime();
+        if (cachedMetrics != null && now - cachedMetricsTimestampNanos < cacheTimeNanos) {
+            return cachedMetrics.retain();
+        }
+        if (cachedMetrics != null) {
+            cachedMetrics.release();
+            cachedMetrics = null;
+        }
+
+        // size the buffer after the previous scrape, so that it doesn't have to grow while rendering
+        ByteBuf buf = PooledByteBufAllocator.DEFAULT.directBuffer(lastMetricsSize + lastMetricsSize / 8);
+        try {
+            prometheusTextFormat.startScrape();
+            PrometheusTextFormat.writeMetricsCollectedByPrometheusClient(buf, registry);
+
+            gauges.forEach((sc, gauge) -> prometheusTextFormat.writeGauge(buf, sc.getScope(), gauge));
+            counters.forEach((sc, counter) -> prometheusTextFormat.writeCounter(buf, sc.getScope(), counter));
+            opStats.forEach((sc, opStatLogger) ->
+                    prometheusTextFormat.writeOpStat(buf, sc.getScope(), opStatLogger));
+        } catch (RuntimeException e) {
+            buf.release();
+            throw e;
+        }
 
-        gauges.forEach((sc, gauge) -> prometheusTextFormat.writeGauge(writer, sc.getScope(), gauge));
-        counters.forEach((sc, counter) -> prometheusTextFormat.writeCounter(writer, sc.getScope(), counter));
-        opStats.forEach((sc, opStatLogger) ->
-                prometheusTextFormat.writeOpStat(writer, sc.getScope(), opStatLogger));
+        lastMetricsSize = buf.readableBytes();
+        if (cacheTimeNanos > 0) {
+            cachedMetrics = buf.retain();
+            cachedMetricsTimestampNanos = now;
+        }
+        return buf;
     }
 
     @Override
@@ -18,7 +18,8 @@ package org.apache.bookkeeper.stats.prometheus;
 
 import io.prometheus.client.exporter.common.TextFormat;
 import java.io.IOException;
-import java.io.Writer;
+import java.io.OutputStream;
+import java.util.zip.GZIPOutputStream;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
@@ -41,12 +42,21 @@ public class PrometheusServlet extends HttpServlet {
         resp.setStatus(HttpServletResponse.SC_OK);
         resp.setContentType(TextFormat.CONTENT_TYPE_004);
 
-        Writer writer = resp.getWriter();
+        String acceptEncoding = req.getHeader("Accept-Encoding");
+        boolean gzip = acceptEncoding != null && acceptEncoding.contains("gzip");
+        if (gzip) {
+            resp.setHeader("Content-Encoding", "gzip");
+        }
+
+        OutputStream out = resp.getOutputStream();
         try {
-            provider.writeAllMetrics(writer);
-            writer.flush();
+            if (gzip) {
+                out = new GZIPOutputStream(out, 8192);
+            }
+            provider.writeAllMetrics(out);
+            out.flush();
         } finally {
-            writer.close();
+            out.close();
         }
     }
 
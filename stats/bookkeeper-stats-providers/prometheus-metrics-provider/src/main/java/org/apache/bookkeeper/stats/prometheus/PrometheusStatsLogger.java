@@ -42,13 +42,13 @@ public class PrometheusStatsLogger implements StatsLogger {
 
     @Override
     public OpStatsLogger getOpStatsLogger(String name) {
-        return provider.opStats.computeIfAbsent(scopeContext(name), x -> new DataSketchesOpStatsLogger(labels));
+        return provider.opStats.computeIfAbsent(scopeContext(name), x -> new HistogramOpStatsLogger(labels));
     }
 
     @Override
     public OpStatsLogger getThreadScopedOpStatsLogger(String name) {
         return provider.threadScopedOpStats.computeIfAbsent(scopeContext(name),
-                x -> new ThreadScopedDataSketchesStatsLogger(provider, x, labels));
+                x -> new ThreadScopedHistogramOpStatsLogger(provider, x, labels));
     }
 
     @Override
@@ -16,53 +16,100 @@
  */
 package org.apache.bookkeeper.stats.prometheus;
 
+import static org.apache.bookkeeper.stats.prometheus.HistogramOpStatsLogger.EXPORTED_QUANTILES;
+
+import io.netty.buffer.ByteBuf;
 import io.prometheus.client.Collector;
 import io.prometheus.client.Collector.MetricFamilySamples;
 import io.prometheus.client.Collector.MetricFamilySamples.Sample;
 import io.prometheus.client.CollectorRegistry;
-import java.io.IOException;
-import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.util.Enumeration;
-import java.util.HashSet;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.Map;
-import java.util.Set;
 
 /**
  * Logic to write metrics in Prometheus text format.
+ *
+ * <p>The part of every line that doesn't change between scrapes (name, labels, quantile) is encoded once
+ * per metric and cached, so that a scrape only formats the values, straight into the target buffer. An
+ * instance is meant to be reused across scrapes, but not concurrently.
  */
 public class PrometheusTextFormat {
 
-    Set<String> metricNameSet = new HashSet<>();
+    private final Map<String, MetricFamily> families = new HashMap<>();
+    private final Map<Object, EncodedMetric> encodedMetrics = new IdentityHashMap<>();
+    private final StringBuilder valueBuilder = new StringBuilder(32);
+    private long scrapeId;
+
+    /**
+     * Type line of all the metrics sharing the same name, which must be written only once per scrape.
+     */
+    private static final class MetricFamily {
+        private final byte[] typeLine;
+        private long lastScrapeId = -1;
 
-    void writeGauge(Writer w, String name, SimpleGauge<? extends Number> gauge) {
+        MetricFamily(String name, String type) {
+            this.typeLine = ("# TYPE " + name + " " + type + "\n").getBytes(StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * Pre-encoded prefixes of the lines of a metric, each one ending right before the value.
+     */
+    private static final class EncodedMetric {
+        private final String name;
+        private final Map<String, String> labels;
+        private final MetricFamily family;
+        private final byte[][] prefixes;
+
+        EncodedMetric(String name, Map<String, String> labels, MetricFamily family, byte[][] prefixes) {
+            this.name = name;
+            this.labels = labels;
+            this.family = family;
+            this.prefixes = prefixes;
+        }
+    }
+
+    /**
+     * Mark the beginning of a new scrape, so that type lines get written again.
+     */
+    void startScrape() {
+        scrapeId++;
+    }
+
+    void writeGauge(ByteBuf buf, String name, SimpleGauge<? extends Number> gauge) {
         // Example:
         // # TYPE bookie_storage_entries_count gauge
         // bookie_storage_entries_count 519
-        try {
-            writeType(w, name, "gauge");
-            w.append(name);
-            writeLabels(w, gauge.getLabels());
-            w.append(' ').append(gauge.getSample().toString()).append('\n');
-        } catch (IOException e) {
-            throw new RuntimeException(e);
+        EncodedMetric encoded = getEncodedMetric(gauge, name, gauge.getLabels(), "gauge");
+        writeType(buf, encoded.family);
+        buf.writeBytes(encoded.prefixes[0]);
+        Number sample = gauge.getSample();
+        if (sample instanceof Long || sample instanceof Integer || sample instanceof Short || sample instanceof Byte) {
+            writeLong(buf, sample.longValue());
+        } else if (sample instanceof Double) {
+            writeDouble(buf, sample.doubleValue());
+        } else {
+            // e.g. a Float or an AtomicLong, whose string isn't the one of its double value
+            buf.writeCharSequence(sample.toString(), StandardCharsets.UTF_8);
         }
+        buf.writeByte('\n');
     }
 
-    void writeCounter(Writer w, String name, LongAdderCounter counter) {
+    void writeCounter(ByteBuf buf, String name, LongAdderCounter counter) {
         // Example:
         // # TYPE jvm_threads_started_total counter
         // jvm_threads_started_total 59
-        try {
-            writeType(w, name, "counter");
-            w.append(name);
-            writeLabels(w, counter.getLabels());
-            w.append(' ').append(counter.get().toString()).append('\n');
-        } catch (IOException e) {
-            throw new RuntimeException(e);
-        }
+        EncodedMetric encoded = getEncodedMetric(counter, name, counter.getLabels(), "counter");
+        writeType(buf, encoded.family);
+        buf.writeBytes(encoded.prefixes[0]);
+        writeLong(buf, counter.get());
+        buf.writeByte('\n');
     }
 
-    void writeOpStat(Writer w, String name, DataSketchesOpStatsLogger opStat) {
+    void writeOpStat(ByteBuf buf, String name, HistogramOpStatsLogger opStat) {
         // Example:
         // # TYPE bookie_journal_JOURNAL_ADD_ENTRY summary
         // bookie_journal_JOURNAL_ADD_ENTRY{success="false",quantile="0.5",} NaN
@@ -83,129 +130,156 @@ public class PrometheusTextFormat {
         // bookie_journal_JOURNAL_ADD_ENTRY{success="true",quantile="1.0",} 10.902
         // bookie_journal_JOURNAL_ADD_ENTRY_count{success="true",} 658.0
         // bookie_journal_JOURNAL_ADD_ENTRY_sum{success="true",} 1265.0800000000002
-        try {
-            writeType(w, name, "summary");
-            writeQuantile(w, opStat, name, false, 0.5);
-            writeQuantile(w, opStat, name, false, 0.75);
-            writeQuantile(w, opStat, name, false, 0.95);
-            writeQuantile(w, opStat, name, false, 0.99);
-            writeQuantile(w, opStat, name, false, 0.999);
-            writeQuantile(w, opStat, name, false, 0.9999);
-            writeQuantile(w, opStat, name, false, 1.0);
-            writeCount(w, opStat, name, false);
-            writeSum(w, opStat, name, false);
-
-            writeQuantile(w, opStat, name, true, 0.5);
-            writeQuantile(w, opStat, name, true, 0.75);
-            writeQuantile(w, opStat, name, true, 0.95);
-            writeQuantile(w, opStat, name, true, 0.99);
-            writeQuantile(w, opStat, name, true, 0.999);
-            writeQuantile(w, opStat, name, true, 0.9999);
-            writeQuantile(w, opStat, name, true, 1.0);
-            writeCount(w, opStat, name, true);
-            writeSum(w, opStat, name, true);
-
-        } catch (IOException e) {
-            throw new RuntimeException(e);
-        }
+        EncodedMetric encoded = getEncodedMetric(opStat, name, opStat.getLabels(), "summary");
+        writeType(buf, encoded.family);
+        writeOpStat(buf, encoded, opStat, false, 0);
+        writeOpStat(buf, encoded, opStat, true, EXPORTED_QUANTILES.length + 2);
     }
 
-    private void writeLabels(Writer w, Map<String, String> labels) throws IOException {
-        if (labels.isEmpty()) {
-            return;
+    private void writeOpStat(ByteBuf buf, EncodedMetric encoded, HistogramOpStatsLogger opStat,
+                             boolean success, int firstPrefix) {
+        int idx = firstPrefix;
+        for (int i = 0; i < EXPORTED_QUANTILES.length; i++) {
+            buf.writeBytes(encoded.prefixes[idx++]);
+            writeDouble(buf, opStat.getExportedQuantileValue(success, i));
+            buf.writeByte('\n');
         }
+        buf.writeBytes(encoded.prefixes[idx++]);
+        writeLong(buf, opStat.getCount(success));
+        buf.writeByte('\n');
+        buf.writeBytes(encoded.prefixes[idx]);
+        writeDouble(buf, opStat.getSum(success));
+        buf.writeByte('\n');
+    }
 
-        w.append('{');
-        writeLabelsNoBraces(w, labels);
-        w.append('}');
+    private EncodedMetric getEncodedMetric(Object metric, String name, Map<String, String> labels, String type) {
+        EncodedMetric encoded = encodedMetrics.get(metric);
+        // thread scoped metrics get their labels updated once, when the thread first uses them
+        if (encoded == null || encoded.name != name || encoded.labels != labels) {
+            MetricFamily family = families.computeIfAbsent(name, n -> new MetricFamily(n, type));
+            byte[][] prefixes;
+            if ("summary".equals(type)) {
+                prefixes = new byte[2 * (EXPORTED_QUANTILES.length + 2)][];
+                int idx = 0;
+                for (boolean success : new boolean[] { false, true }) {
+                    for (double quantile : EXPORTED_QUANTILES) {
+                        prefixes[idx++] = encodeSummaryPrefix(name, "", labels, success,
+                                ",quantile=\"" + quantile + "\"");
+                    }
+                    prefixes[idx++] = encodeSummaryPrefix(name, "_count", labels, success, "");
+                    prefixes[idx++] = encodeSummaryPrefix(name, "_sum", labels, success, "");
+                }
+            } else {
+                StringBuilder sb = new StringBuilder(name);
+                if (!labels.isEmpty()) {
+                    sb.append('{');
+                    appendLabelsNoBraces(sb, labels);
+                    sb.append('}');
+                }
+                sb.append(' ');
+                prefixes = new byte[][] { sb.toString().getBytes(StandardCharsets.UTF_8) };
+            }
+            encoded = new EncodedMetric(name, labels, family, prefixes);
+            encodedMetrics.put(metric, encoded);
+        }
+        return encoded;
     }
 
-    private void writeLabelsNoBraces(Writer w, Map<String, String> labels) throws IOException {
-        if (labels.isEmpty()) {
-            return;
+    private static byte[] encodeSummaryPrefix(String name, String suffix, Map<String, String> labels,
+                                              boolean success, String quantileLabel) {
+        StringBuilder sb = new StringBuilder(name).append(suffix)
+                .append("{success=\"").append(success).append('"')
+                .append(quantileLabel);
+        if (!labels.isEmpty()) {
+            sb.append(", ");
+            appendLabelsNoBraces(sb, labels);
         }
+        sb.append("} ");
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
 
+    private static void appendLabelsNoBraces(StringBuilder sb, Map<String, String> labels) {
         boolean isFirst = true;
         for (Map.Entry<String, String> e : labels.entrySet()) {
             if (!isFirst) {
-                w.append(',');
+                sb.append(',');
             }
             isFirst = false;
-            w.append(e.getKey())
+            sb.append(e.getKey())
                     .append("=\"")
                     .append(e.getValue())
                     .append('"');
         }
     }
 
-    private void writeQuantile(Writer w, DataSketchesOpStatsLogger opStat, String name, Boolean success,
-            double quantile) throws IOException {
-        w.append(name)
-                .append("{success=\"").append(success.toString())
-                .append("\",quantile=\"").append(Double.toString(quantile))
-                .append("\"");
-        if (!opStat.getLabels().isEmpty()) {
-            w.append(", ");
-            writeLabelsNoBraces(w, opStat.getLabels());
+    private void writeType(ByteBuf buf, MetricFamily family) {
+        if (family.lastScrapeId == scrapeId) {
+            return;
         }
-        w.append("} ")
-                .append(Double.toString(opStat.getQuantileValue(success, quantile))).append('\n');
+        family.lastScrapeId = scrapeId;
+        buf.writeBytes(family.typeLine);
     }
 
-    private void writeCount(Writer w, DataSketchesOpStatsLogger opStat, String name, Boolean success)
-            throws IOException {
-        w.append(name).append("_count{success=\"").append(success.toString()).append("\"");
-        if (!opStat.getLabels().isEmpty()) {
-            w.append(", ");
-            writeLabelsNoBraces(w, opStat.getLabels());
+    /**
+     * Write the decimal representation of <i>value</i> without going through a String.
+     */
+    static void writeLong(ByteBuf buf, long value) {
+        if (value == Long.MIN_VALUE) {
+            buf.writeCharSequence(Long.toString(value), StandardCharsets.US_ASCII);
+            return;
+        }
+        if (value < 0) {
+            buf.writeByte('-');
+            value = -value;
+        }
+        long divisor = 1;
+        while (divisor <= value / 10) {
+            divisor *= 10;
+        }
+        while (divisor > 0) {
+            buf.writeByte('0' + (int) (value / divisor));
+            value %= divisor;
+            divisor /= 10;
         }
-        w.append("} ")
-                .append(Long.toString(opStat.getCount(success))).append('\n');
     }
 
-    private void writeSum(Writer w, DataSketchesOpStatsLogger opStat, String name, Boolean success)
-            throws IOException {
-        w.append(name).append("_sum{success=\"").append(success.toString()).append("\"");
-        if (!opStat.getLabels().isEmpty()) {
-            w.append(", ");
-            writeLabelsNoBraces(w, opStat.getLabels());
+    /**
+     * Write <i>value</i> as {@link Double#toString(double)} would, reusing the same builder for every value.
+     */
+    private void writeDouble(ByteBuf buf, double value) {
+        valueBuilder.setLength(0);
+        valueBuilder.append(value);
+        for (int i = 0; i < valueBuilder.length(); i++) {
+            buf.writeByte(valueBuilder.charAt(i));
         }
-        w.append("} ")
-                .append(Double.toString(opStat.getSum(success))).append('\n');
     }
 
-    static void writeMetricsCollectedByPrometheusClient(Writer w, CollectorRegistry registry) throws IOException {
+    static void writeMetricsCollectedByPrometheusClient(ByteBuf buf, CollectorRegistry registry) {
         Enumeration<MetricFamilySamples> metricFamilySamples = registry.metricFamilySamples();
         while (metricFamilySamples.hasMoreElements()) {
             MetricFamilySamples metricFamily = metricFamilySamples.nextElement();
 
             for (int i = 0; i < metricFamily.samples.size(); i++) {
                 Sample sample = metricFamily.samples.get(i);
-                w.write(sample.name);
-                w.write('{');
+                buf.writeCharSequence(sample.name, StandardCharsets.UTF_8);
+                buf.writeByte('{');
                 for (int j = 0; j < sample.labelNames.size(); j++) {
                     if (j != 0) {
-                        w.write(", ");
+                        buf.writeByte(',');
+                        buf.writeByte(' ');
                     }
-                    w.write(sample.labelNames.get(j));
-                    w.write("=\"");
-                    w.write(sample.labelValues.get(j));
-                    w.write('"');
+                    buf.writeCharSequence(sample.labelNames.get(j), StandardCharsets.UTF_8);
+                    buf.writeByte('=');
+                    buf.writeByte('"');
+                    buf.writeCharSequence(sample.labelValues.get(j), StandardCharsets.UTF_8);
+                    buf.writeByte('"');
                 }
 
-                w.write("} ");
-                w.write(Collector.doubleToGoString(sample.value));
-                w.write('\n');
+                buf.writeByte('}');
+                buf.writeByte(' ');
+                buf.writeCharSequence(Collector.doubleToGoString(sample.value), StandardCharsets.US_ASCII);
+                buf.writeByte('\n');
             }
         }
     }
-
-    void writeType(Writer w, String name, String type) throws IOException {
-        if (metricNameSet.contains(name)) {
-            return;
-        }
-        metricNameSet.add(name);
-        w.append("# TYPE ").append(name).append(" ").append(type).append("\n");
-    }
-
 }
@@ -27,21 +27,21 @@ import org.apache.bookkeeper.stats.ThreadRegistry;
  * OpStatsLogger implementation that lazily registers OpStatsLoggers per thread
  * with added labels for the threadpool/thresd name and thread no.
  */
-public class ThreadScopedDataSketchesStatsLogger implements OpStatsLogger {
+public class ThreadScopedHistogramOpStatsLogger implements OpStatsLogger {
 
-    private ThreadLocal<DataSketchesOpStatsLogger> statsLoggers;
-    private DataSketchesOpStatsLogger defaultStatsLogger;
+    private ThreadLocal<HistogramOpStatsLogger> statsLoggers;
+    private HistogramOpStatsLogger defaultStatsLogger;
     private Map<String, String> originalLabels;
     private ScopeContext scopeContext;
     private PrometheusMetricsProvider provider;
 
-    public ThreadScopedDataSketchesStatsLogger(PrometheusMetricsProvider provider,
-                                               ScopeContext scopeContext,
-                                               Map<String, String> labels) {
+    public ThreadScopedHistogramOpStatsLogger(PrometheusMetricsProvider provider,
+                                              ScopeContext scopeContext,
+                                              Map<String, String> labels) {
         this.provider = provider;
         this.scopeContext = scopeContext;
         this.originalLabels = labels;
-        this.defaultStatsLogger = new DataSketchesOpStatsLogger(labels);
+        this.defaultStatsLogger = new HistogramOpStatsLogger(labels);
 
         Map<String, String> defaultLabels = new HashMap<>(labels);
         defaultLabels.put("threadPool", "?");
@@ -49,7 +49,7 @@ public class ThreadScopedDataSketchesStatsLogger implements OpStatsLogger {
         this.defaultStatsLogger.initializeThread(defaultLabels);
 
         this.statsLoggers = ThreadLocal.withInitial(() -> {
-            return new DataSketchesOpStatsLogger(labels);
+            return new HistogramOpStatsLogger(labels);
         });
     }
 
@@ -85,8 +85,8 @@ public class ThreadScopedDataSketchesStatsLogger implements OpStatsLogger {
         throw new UnsupportedOperationException();
     }
 
-    private DataSketchesOpStatsLogger getStatsLogger() {
-        DataSketchesOpStatsLogger statsLogger = statsLoggers.get();
+    private HistogramOpStatsLogger getStatsLogger() {
+        HistogramOpStatsLogger statsLogger = statsLoggers.get();
 
         // Lazy registration
         // Update the stats logger with the thread labels then add to the provider
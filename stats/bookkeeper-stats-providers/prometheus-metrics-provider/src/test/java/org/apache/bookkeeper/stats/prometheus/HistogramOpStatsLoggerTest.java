@@ -0,0 +1,227 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with this
+ * work for additional information regarding copyright ownership. The ASF
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.apache.bookkeeper.stats.prometheus;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import io.netty.util.concurrent.FastThreadLocalThread;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+/**
+ * Unit tests of {@link HistogramOpStatsLogger}.
+ */
+public class HistogramOpStatsLoggerTest {
+
+    // relative error of the middle of a bucket, with 16 sub buckets per power of two
+    private static final double MAX_ERROR = 1.0 / 32;
+
+    private final HistogramOpStatsLogger logger = new HistogramOpStatsLogger(Collections.emptyMap());
+
+    private static void assertQuantile(double expected, double actual) {
+        assertEquals(expected, actual, expected * MAX_ERROR);
+    }
+
+    @Test
+    public void testLatencyQuantiles() {
+        for (int i = 1; i <= 1000; i++) {
+            logger.registerSuccessfulEvent(i, TimeUnit.MILLISECONDS);
+        }
+        logger.rotateLatencyCollection();
+
+        assertQuantile(500, logger.getQuantileValue(true, 0.5));
+        assertQuantile(750, logger.getQuantileValue(true, 0.75));
+        assertQuantile(990, logger.getQuantileValue(true, 0.99));
+        // the max is exact, and no quantile is reported above it
+        assertEquals(1000.0, logger.getQuantileValue(true, 1.0), 0.0);
+        assertTrue(logger.getQuantileValue(true, 0.999) <= 1000.0);
+        for (int i = 0; i < HistogramOpStatsLogger.EXPORTED_QUANTILES.length; i++) {
+            assertEquals(logger.getQuantileValue(true, HistogramOpStatsLogger.EXPORTED_QUANTILES[i]),
+                    logger.getExportedQuantileValue(true, i), 0.0);
+        }
+        assertEquals(1000, logger.getCount(true));
+        assertEquals(500500.0, logger.getSum(true), 0.0);
+
+        // nothing failed
+        assertEquals(0, logger.getCount(false));
+        assertTrue(Double.isNaN(logger.getQuantileValue(false, 0.5)));
+    }
+
+    @Test
+    public void testSubMillisLatencies() {
+        for (int i = 1; i <= 100; i++) {
+            logger.registerSuccessfulEvent(10 * i, TimeUnit.MICROSECONDS);
+        }
+        logger.rotateLatencyCollection();
+
+        assertQuantile(0.5, logger.getQuantileValue(true, 0.5));
+        assertQuantile(0.99, logger.getQuantileValue(true, 0.99));
+        assertEquals(1.0, logger.getQuantileValue(true, 1.0), 0.0);
+        assertEquals(50.5, logger.getSum(true), 1e-9);
+    }
+
+    @Test
+    public void testSmallValuesAreExact() {
+        for (int value = 0; value < HistogramOpStatsLogger.SUB_BUCKET_COUNT; value++) {
+            logger.registerSuccessfulValue(value);
+        }
+        // negative values are recorded as 0
+        logger.registerSuccessfulValue(-5);
+        logger.rotateLatencyCollection();
+
+        assertEquals(0.0, logger.getQuantileValue(true, 0.0), 0.0);
+        assertEquals(0.0, logger.getQuantileValue(true, 0.1), 0.0);
+        assertEquals(7.0, logger.getQuantileValue(true, 0.5), 0.0);
+        assertEquals(15.0, logger.getQuantileValue(true, 1.0), 0.0);
+        assertEquals(17, logger.getCount(true));
+        assertEquals(120.0, logger.getSum(true), 0.0);
+    }
+
+    @Test
+    public void testLatenciesAndValuesKeepTheirPrecision() {
+        // a logger recording both sizes and sub-millisecond latencies
+        for (int i = 0; i < 90; i++) {
+            logger.registerSuccessfulEvent(250, TimeUnit.MICROSECONDS);
+        }
+        for (int i = 0; i < 10; i++) {
+            logger.registerSuccessfulValue(4096);
+        }
+        logger.rotateLatencyCollection();
+
+        // the latencies are still reported with their sub-millisecond precision
+        assertQuantile(0.25, logger.getQuantileValue(true, 0.5));
+        assertQuantile(0.25, logger.getQuantileValue(true, 0.9));
+        assertQuantile(4096, logger.getQuantileValue(true, 0.95));
+        assertEquals(4096.0, logger.getQuantileValue(true, 1.0), 0.0);
+        assertEquals(100, logger.getCount(true));
+        assertEquals(90 * 0.25 + 10 * 4096, logger.getSum(true), 1e-9);
+    }
+
+    @Test
+    public void testSuccessesAndFailuresAreSeparate() {
+        logger.registerSuccessfulEvent(1, TimeUnit.MILLISECONDS);
+        logger.registerFailedEvent(100, TimeUnit.MILLISECONDS);
+        logger.registerFailedValue(7);
+        logger.rotateLatencyCollection();
+
+        assertEquals(1.0, logger.getQuantileValue(true, 1.0), 0.0);
+        assertEquals(1, logger.getCount(true));
+        assertEquals(7.0, logger.getQuantileValue(false, 0.5), 0.0);
+        assertEquals(100.0, logger.getQuantileValue(false, 1.0), 0.0);
+        assertEquals(2, logger.getCount(false));
+        assertEquals(107.0, logger.getSum(false), 0.0);
+    }
+
+    @Test
+    public void testQuantilesOfTheLastInterval() {
+        for (int i = 0; i < 100; i++) {
+            logger.registerSuccessfulEvent(1000, TimeUnit.MILLISECONDS);
+        }
+        logger.rotateLatencyCollection();
+        assertEquals(1000.0, logger.getQuantileValue(true, 1.0), 0.0);
+
+        // the quantiles only cover the events since the last rotation, while the count and the sum are cumulative
+        for (int i = 0; i < 100; i++) {
+            logger.registerSuccessfulEvent(2, TimeUnit.MILLISECONDS);
+        }
+        logger.rotateLatencyCollection();
+        assertQuantile(2, logger.getQuantileValue(true, 0.5));
+        assertEquals(2.0, logger.getQuantileValue(true, 1.0), 0.0);
+        assertEquals(200, logger.getCount(true));
+        assertEquals(100200.0, logger.getSum(true), 0.0);
+
+        // an interval without events has no quantiles
+        logger.rotateLatencyCollection();
+        assertTrue(Double.isNaN(logger.getQuantileValue(true, 0.5)));
+        assertTrue(Double.isNaN(logger.getExportedQuantileValue(true, 0)));
+        assertEquals(200, logger.getCount(true));
+    }
+
+    @Test
+    public void testEventsOfTerminatedThreads() throws Exception {
+        for (int t = 0; t < 4; t++) {
+            long latency = t + 1;
+            // the thread local of a FastThreadLocalThread is removed when it terminates
+            Thread thread = new FastThreadLocalThread(() -> {
+                for (int i = 0; i < 25; i++) {
+                    logger.registerSuccessfulEvent(latency, TimeUnit.MILLISECONDS);
+                }
+            });
+            thread.start();
+            thread.join();
+        }
+        logger.registerSuccessfulEvent(5, TimeUnit.MILLISECONDS);
+        logger.rotateLatencyCollection();
+
+        assertEquals(101, logger.getCount(true));
+        assertEquals(25 * (1 + 2 + 3 + 4) + 5, logger.getSum(true), 0.0);
+        assertQuantile(3, logger.getQuantileValue(true, 0.5));
+        assertEquals(5.0, logger.getQuantileValue(true, 1.0), 0.0);
+
+        // the events of the terminated threads are not counted again in the next interval
+        logger.registerSuccessfulEvent(3, TimeUnit.MILLISECONDS);
+        logger.rotateLatencyCollection();
+        assertEquals(3.0, logger.getQuantileValue(true, 0.0), 0.0);
+        assertEquals(3.0, logger.getQuantileValue(true, 1.0), 0.0);
+        assertEquals(102, logger.getCount(true));
+    }
+
+    @Test
+    public void testBucketsAllocatedOnDemand() {
+        HistogramOpStatsLogger.Histogram histogram = new HistogramOpStatsLogger.Histogram();
+        assertEquals(HistogramOpStatsLogger.INITIAL_BUCKETS, histogram.numBuckets());
+        histogram.record(TimeUnit.MILLISECONDS.toMicros(1));
+        assertEquals(HistogramOpStatsLogger.INITIAL_BUCKETS, histogram.numBuckets());
+
+        // latencies below ~0.5s fit in 256 buckets
+        histogram.record(TimeUnit.MILLISECONDS.toMicros(500));
+        assertEquals(256, histogram.numBuckets());
+
+        histogram.record(Long.MAX_VALUE);
+        assertEquals(HistogramOpStatsLogger.NUM_BUCKETS, histogram.numBuckets());
+
+        // the counts are kept as the buckets grow
+        long[] counts = new long[HistogramOpStatsLogger.NUM_BUCKETS];
+        histogram.addTo(counts);
+        assertEquals(1, counts[HistogramOpStatsLogger.bucketIndex(1000)]);
+        assertEquals(1, counts[HistogramOpStatsLogger.bucketIndex(500000)]);
+        assertEquals(1, counts[HistogramOpStatsLogger.NUM_BUCKETS - 1]);
+    }
+
+    @Test
+    public void testBuckets() {
+        assertEquals(0, HistogramOpStatsLogger.bucketIndex(0));
+        assertEquals(HistogramOpStatsLogger.NUM_BUCKETS - 1,
+                HistogramOpStatsLogger.bucketIndex(HistogramOpStatsLogger.MAX_VALUE));
+        long[] values = { 1, 15, 16, 17, 31, 32, 33, 100, 1000, 12345, 1L << 20, (1L << 20) - 1, 987654321L,
+                HistogramOpStatsLogger.MAX_VALUE };
+        for (long value : values) {
+            int index = HistogramOpStatsLogger.bucketIndex(value);
+            long lower = HistogramOpStatsLogger.bucketLowerBound(index);
+            long midpoint = HistogramOpStatsLogger.bucketMidpoint(index);
+            assertTrue(value + " below " + lower, lower <= value);
+            if (index + 1 < HistogramOpStatsLogger.NUM_BUCKETS) {
+                assertTrue(value + " above the bucket", value < HistogramOpStatsLogger.bucketLowerBound(index + 1));
+                assertTrue(midpoint < HistogramOpStatsLogger.bucketLowerBound(index + 1));
+            }
+            assertTrue(lower <= midpoint);
+            assertEquals(value, midpoint, value * MAX_ERROR);
+        }
+    }
+}
@@ -0,0 +1,211 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with this
+ * work for additional information regarding copyright ownership. The ASF
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.apache.bookkeeper.stats.prometheus;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.prometheus.client.Collector;
+import io.prometheus.client.CollectorRegistry;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.bookkeeper.stats.Gauge;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Unit tests of {@link PrometheusTextFormat}, which must render exactly what the Prometheus scrapers got before.
+ */
+public class PrometheusTextFormatTest {
+
+    private final PrometheusTextFormat format = new PrometheusTextFormat();
+    private final ByteBuf buf = Unpooled.buffer();
+
+    @After
+    public void teardown() {
+        buf.release();
+    }
+
+    private String render() {
+        String rendered = buf.toString(StandardCharsets.UTF_8);
+        buf.clear();
+        return rendered;
+    }
+
+    private static <T extends Number> SimpleGauge<T> gauge(T sample, Map<String, String> labels) {
+        return new SimpleGauge<>(new Gauge<T>() {
+            @Override
+            public T getDefaultValue() {
+                return sample;
+            }
+
+            @Override
+            public T getSample() {
+                return sample;
+            }
+        }, labels);
+    }
+
+    private static Map<String, String> labels(String... keysAndValues) {
+        Map<String, String> labels = new LinkedHashMap<>();
+        for (int i = 0; i < keysAndValues.length; i += 2) {
+            labels.put(keysAndValues[i], keysAndValues[i + 1]);
+        }
+        return labels;
+    }
+
+    @Test
+    public void testGauges() {
+        format.startScrape();
+        format.writeGauge(buf, "bookie_entries", gauge(519L, Collections.emptyMap()));
+        format.writeGauge(buf, "bookie_ratio", gauge(0.25, labels("ledgerDir", "/data/0")));
+        format.writeGauge(buf, "bookie_threads", gauge(-3, labels("pool", "read", "thread", "2")));
+        format.writeGauge(buf, "bookie_usage", gauge(0.1f, Collections.emptyMap()));
+        format.writeGauge(buf, "bookie_bytes", gauge(new AtomicLong(42), Collections.emptyMap()));
+        format.writeGauge(buf, "bookie_nan", gauge(Double.NaN, Collections.emptyMap()));
+        assertEquals("# TYPE bookie_entries gauge\n"
+                + "bookie_entries 519\n"
+                + "# TYPE bookie_ratio gauge\n"
+                + "bookie_ratio{ledgerDir=\"/data/0\"} 0.25\n"
+                + "# TYPE bookie_threads gauge\n"
+                + "bookie_threads{pool=\"read\",thread=\"2\"} -3\n"
+                + "# TYPE bookie_usage gauge\n"
+                + "bookie_usage 0.1\n"
+                + "# TYPE bookie_bytes gauge\n"
+                + "bookie_bytes 42\n"
+                + "# TYPE bookie_nan gauge\n"
+                + "bookie_nan NaN\n", render());
+    }
+
+    @Test
+    public void testCounters() {
+        LongAdderCounter counter = new LongAdderCounter(Collections.emptyMap());
+        LongAdderCounter ledger1 = new LongAdderCounter(labels("ledger", "1"));
+        LongAdderCounter ledger2 = new LongAdderCounter(labels("ledger", "2"));
+        counter.addCount(1234567890123L);
+        ledger1.inc();
+        ledger2.dec();
+
+        format.startScrape();
+        format.writeCounter(buf, "bookie_adds", counter);
+        format.writeCounter(buf, "bookie_ledger_adds", ledger1);
+        format.writeCounter(buf, "bookie_ledger_adds", ledger2);
+        // the type of a metric name is written once per scrape
+        assertEquals("# TYPE bookie_adds counter\n"
+                + "bookie_adds 1234567890123\n"
+                + "# TYPE bookie_ledger_adds counter\n"
+                + "bookie_ledger_adds{ledger=\"1\"} 1\n"
+                + "bookie_ledger_adds{ledger=\"2\"} -1\n", render());
+    }
+
+    @Test
+    public void testOpStats() {
+        HistogramOpStatsLogger opStat = new HistogramOpStatsLogger(labels("ledger", "1"));
+        opStat.registerSuccessfulValue(3);
+        opStat.rotateLatencyCollection();
+
+        format.startScrape();
+        format.writeOpStat(buf, "bookie_add", opStat);
+        assertEquals("# TYPE bookie_add summary\n"
+                + "bookie_add{success=\"false\",quantile=\"0.5\", ledger=\"1\"} NaN\n"
+                + "bookie_add{success=\"false\",quantile=\"0.75\", ledger=\"1\"} NaN\n"
+                + "bookie_add{success=\"false\",quantile=\"0.95\", ledger=\"1\"} NaN\n"
+                + "bookie_add{success=\"false\",quantile=\"0.99\", ledger=\"1\"} NaN\n"
+                + "bookie_add{success=\"false\",quantile=\"0.999\", ledger=\"1\"} NaN\n"
+                + "bookie_add{success=\"false\",quantile=\"0.9999\", ledger=\"1\"} NaN\n"
+                + "bookie_add{success=\"false\",quantile=\"1.0\", ledger=\"1\"} NaN\n"
+                + "bookie_add_count{success=\"false\", ledger=\"1\"} 0\n"
+                + "bookie_add_sum{success=\"false\", ledger=\"1\"} 0.0\n"
+                + "bookie_add{success=\"true\",quantile=\"0.5\", ledger=\"1\"} 3.0\n"
+                + "bookie_add{success=\"true\",quantile=\"0.75\", ledger=\"1\"} 3.0\n"
+                + "bookie_add{success=\"true\",quantile=\"0.95\", ledger=\"1\"} 3.0\n"
+                + "bookie_add{success=\"true\",quantile=\"0.99\", ledger=\"1\"} 3.0\n"
+                + "bookie_add{success=\"true\",quantile=\"0.999\", ledger=\"1\"} 3.0\n"
+                + "bookie_add{success=\"true\",quantile=\"0.9999\", ledger=\"1\"} 3.0\n"
+                + "bookie_add{success=\"true\",quantile=\"1.0\", ledger=\"1\"} 3.0\n"
+                + "bookie_add_count{success=\"true\", ledger=\"1\"} 1\n"
+                + "bookie_add_sum{success=\"true\", ledger=\"1\"} 3.0\n", render());
+
+        HistogramOpStatsLogger noLabels = new HistogramOpStatsLogger(Collections.emptyMap());
+        format.writeOpStat(buf, "bookie_read", noLabels);
+        String rendered = render();
+        // without labels, the lines end with the success and the quantile labels
+        assertTrue(rendered, rendered.startsWith("# TYPE bookie_read summary\n"
+                + "bookie_read{success=\"false\",quantile=\"0.5\"} NaN\n"));
+        assertTrue(rendered, rendered.endsWith("bookie_read_count{success=\"true\"} 0\n"
+                + "bookie_read_sum{success=\"true\"} 0.0\n"));
+        assertEquals(1 + 2 * (HistogramOpStatsLogger.EXPORTED_QUANTILES.length + 2), rendered.split("\n").length);
+    }
+
+    @Test
+    public void testLaterScrapes() {
+        LongAdderCounter counter = new LongAdderCounter(labels("ledger", "1"));
+        counter.inc();
+        format.startScrape();
+        format.writeCounter(buf, "bookie_adds", counter);
+        assertEquals("# TYPE bookie_adds counter\nbookie_adds{ledger=\"1\"} 1\n", render());
+
+        // the encoded names are reused, with the current values and the type written again
+        counter.addCount(9);
+        format.startScrape();
+        format.writeCounter(buf, "bookie_adds", counter);
+        assertEquals("# TYPE bookie_adds counter\nbookie_adds{ledger=\"1\"} 10\n", render());
+
+        // a thread scoped metric gets its labels once the thread first uses it
+        counter.initializeThread(labels("ledger", "1", "threadPool", "BookieWriteThreadPool"));
+        format.startScrape();
+        format.writeCounter(buf, "bookie_adds", counter);
+        assertEquals("# TYPE bookie_adds counter\n"
+                + "bookie_adds{ledger=\"1\",threadPool=\"BookieWriteThreadPool\"} 10\n", render());
+    }
+
+    @Test
+    public void testWriteLong() {
+        for (long value : new long[] { 0, 7, 10, 99, 100, -1, -10, 1234567890L, 1000000000000000000L,
+                Long.MAX_VALUE, Long.MIN_VALUE, Long.MIN_VALUE + 1 }) {
+            PrometheusTextFormat.writeLong(buf, value);
+            assertEquals(Long.toString(value), render());
+        }
+    }
+
+    @Test
+    public void testMetricsCollectedByPrometheusClient() {
+        CollectorRegistry registry = new CollectorRegistry();
+        new Collector() {
+            @Override
+            public List<MetricFamilySamples> collect() {
+                return Arrays.asList(new MetricFamilySamples("jvm_threads", Type.GAUGE, "threads",
+                        Arrays.asList(
+                                new MetricFamilySamples.Sample("jvm_threads_current", Collections.emptyList(),
+                                        Collections.emptyList(), 12),
+                                new MetricFamilySamples.Sample("jvm_threads_state", Arrays.asList("state", "pool"),
+                                        Arrays.asList("RUNNABLE", "io"), 0.5))));
+            }
+        }.register(registry);
+
+        PrometheusTextFormat.writeMetricsCollectedByPrometheusClient(buf, registry);
+        assertEquals("jvm_threads_current{} 12.0\n"
+                + "jvm_threads_state{state=\"RUNNABLE\", pool=\"io\"} 0.5\n", render());
+    }
+}